@@ -28,6 +28,8 @@ import javax.annotation.Nonnull;
 
 import org.jscsi.target.storage.IStorageModule;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Implementation of a {@link IStorageModule}, based on a {@link IscsiDevice}.
  * 
@@ -121,6 +123,70 @@ final class IStorageModuleImpl implements IStorageModule {
         assert bytes.position() == bytes.capacity();
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jscsi.target.storage.IStorageModule#readAsync(java.nio.ByteBuffer, long)
+     */
+    @Override
+    public final ListenableFuture<Void> readAsync(final ByteBuffer bytes, final long storageIndex) {
+        final ByteBuffer destination = bytes.duplicate();
+        destination.clear();
+        return device.readAsync(destination, destination.capacity(), storageIndex);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jscsi.target.storage.IStorageModule#writeAsync(java.nio.ByteBuffer, long)
+     */
+    @Override
+    public final ListenableFuture<Void> writeAsync(final ByteBuffer bytes, final long storageIndex) {
+        final ByteBuffer source = bytes.duplicate();
+        source.clear();
+        return device.writeAsync(source, source.capacity(), storageIndex);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jscsi.target.storage.IStorageModule#isThinProvisioned()
+     */
+    @Override
+    public final boolean isThinProvisioned() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jscsi.target.storage.IStorageModule#trim(long, long)
+     */
+    @Override
+    public final void trim(final long length, final long storageIndex) throws IOException {
+        device.trim(length, storageIndex);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jscsi.target.storage.IStorageModule#writeZeroes(long, long)
+     */
+    @Override
+    public final void writeZeroes(final long length, final long storageIndex) throws IOException {
+        device.writeZeroes(length, storageIndex);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jscsi.target.storage.IStorageModule#flush()
+     */
+    @Override
+    public final void flush() throws IOException {
+        device.flush();
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -24,6 +24,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Device associated to a {@link IscsiTarget}.
  * 
@@ -81,4 +83,65 @@ public interface IscsiDevice extends Closeable {
      */
     void write(ByteBuffer bytes, int length, long storageIndex) throws IOException;
 
+    /**
+     * Copies bytes from storage to the passed byte buffer, without waiting for the end of the copy. The bytes are
+     * copied in the current position of the buffer, which is not changed. The buffer must not be accessed until the
+     * returned future is done.
+     * 
+     * @param bytes
+     *            the buffer into which the data will be copied
+     * @param length
+     *            the number of bytes to copy
+     * @param storageIndex
+     *            the position of the first byte to be copied in the source storage.
+     * @return a future done when the bytes are copied. Fails with an {@link IOException} if the read fails
+     */
+    ListenableFuture<Void> readAsync(ByteBuffer bytes, int length, long storageIndex);
+
+    /**
+     * Writes part of the passed byte buffer content, without waiting for the end of the write. The bytes are copied
+     * from the current position of the buffer, which is not changed. The buffer must not be modified until the
+     * returned future is done.
+     * 
+     * @param bytes
+     *            the source of the data to be written
+     * @param length
+     *            the number of bytes to be copied
+     * @param storageIndex
+     *            byte offset in the storage area
+     * @return a future done when the bytes are written. Fails with an {@link IOException} if the write fails
+     */
+    ListenableFuture<Void> writeAsync(ByteBuffer bytes, int length, long storageIndex);
+
+    /**
+     * Releases the storage of a range of the device. The range is read as zeros when the storage has been released.
+     * The device may release only a part of the range, or nothing at all.
+     * 
+     * @param length
+     *            the number of bytes to release
+     * @param storageIndex
+     *            byte offset in the storage area
+     * @throws IOException
+     */
+    void trim(long length, long storageIndex) throws IOException;
+
+    /**
+     * Writes zeros in a range of the device, without any data transfer. The device may release the storage of the
+     * range.
+     * 
+     * @param length
+     *            the number of bytes to set to zero
+     * @param storageIndex
+     *            byte offset in the storage area
+     * @throws IOException
+     */
+    void writeZeroes(long length, long storageIndex) throws IOException;
+
+    /**
+     * Writes the completed writes of the device to stable storage.
+     * 
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
 }
@@ -69,11 +69,14 @@ public final class IscsiServer extends AbstractServer<TargetServer, IscsiTarget,
         /** Flag to tell that the configuration have been loaded */
         private final AtomicBoolean loaded = new AtomicBoolean(false);
 
-        IscsiConfiguration(final IscsiServer server, final int port, final InetAddress address) {
+        IscsiConfiguration(final IscsiServer server, final int port, final InetAddress address,
+                final int queueDepth) {
             super(port, address);
             this.server = server;
             this.address = address;
-            this.toStr = "IscsiConfiguration[" + getTargetAddress() + ":" + getPort() + "]";
+            this.commandWindowSize = queueDepth;
+            this.toStr = "IscsiConfiguration[" + getTargetAddress() + ":" + getPort() + ",queueDepth=" + queueDepth
+                    + "]";
         }
 
         /**
@@ -133,7 +136,8 @@ public final class IscsiServer extends AbstractServer<TargetServer, IscsiTarget,
      */
     public IscsiServer(@Nonnull final MetaConfiguration configuration) {
         this(IscsiServerInetAddressConfigKey.getInstance().getTypedValue(configuration), IscsiServerPortConfigKey
-                .getInstance().getTypedValue(configuration).intValue());
+                .getInstance().getTypedValue(configuration).intValue(), IscsiServerQueueDepthConfigKey.getInstance()
+                .getTypedValue(configuration).intValue());
     }
 
     /**
@@ -155,13 +159,28 @@ public final class IscsiServer extends AbstractServer<TargetServer, IscsiTarget,
      *            port to bind to
      */
     public IscsiServer(@Nonnull final InetAddress address, final int port) {
-        super(new IscsiServerConfig(address, port), "iSCSI");
+        this(address, port, IscsiServerQueueDepthConfigKey.DEFAULT_VALUE);
+    }
+
+    /**
+     * Create a new server that will bind on the given address and port.
+     * 
+     * @param address
+     *            address to bind to
+     * @param port
+     *            port to bind to
+     * @param queueDepth
+     *            maximum number of commands processed concurrently on a session
+     */
+    public IscsiServer(@Nonnull final InetAddress address, final int port, final int queueDepth) {
+        super(new IscsiServerConfig(address, port, queueDepth), "iSCSI");
     }
 
     @Override
     protected final TargetServer createServer(final IscsiServerConfig iscsiServerConfig) {
         // Create a new server for the current configuration
-        serverConfiguration = new IscsiConfiguration(this, iscsiServerConfig.getPort(), iscsiServerConfig.getAddress());
+        serverConfiguration = new IscsiConfiguration(this, iscsiServerConfig.getPort(), iscsiServerConfig.getAddress(),
+                iscsiServerConfig.getQueueDepth());
         return server = new TargetServer(serverConfiguration);
     }
 
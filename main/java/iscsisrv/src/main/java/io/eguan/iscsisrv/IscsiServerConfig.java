@@ -33,8 +33,52 @@ import java.net.InetAddress;
  */
 final class IscsiServerConfig extends AbstractServerConfig {
 
+    /** Maximum number of commands in progress on a session */
+    private final int queueDepth;
+
     IscsiServerConfig(final InetAddress address, final int port) {
+        this(address, port, IscsiServerQueueDepthConfigKey.DEFAULT_VALUE);
+    }
+
+    IscsiServerConfig(final InetAddress address, final int port, final int queueDepth) {
         super(address, port);
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Gets the maximum number of commands processed concurrently on a session.
+     * 
+     * @return the queue depth of the sessions
+     */
+    final int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public final int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + queueDepth;
+        return result;
+    }
+
+    @Override
+    public final boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final IscsiServerConfig other = (IscsiServerConfig) obj;
+        if (queueDepth != other.queueDepth)
+            return false;
+        return true;
+    }
+
+    @Override
+    public final IscsiServerConfig clone() {
+        return (IscsiServerConfig) super.clone();
     }
 
 }
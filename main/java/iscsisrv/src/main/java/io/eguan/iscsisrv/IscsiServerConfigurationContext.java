@@ -51,7 +51,8 @@ public final class IscsiServerConfigurationContext extends AbstractConfiguration
      * Constructs an instance with the given {@link #NAME} and all keys references by this context.
      */
     private IscsiServerConfigurationContext() {
-        super(NAME, IscsiServerPortConfigKey.getInstance(), IscsiServerInetAddressConfigKey.getInstance());
+        super(NAME, IscsiServerPortConfigKey.getInstance(), IscsiServerInetAddressConfigKey.getInstance(),
+                IscsiServerQueueDepthConfigKey.getInstance());
     }
 
 }
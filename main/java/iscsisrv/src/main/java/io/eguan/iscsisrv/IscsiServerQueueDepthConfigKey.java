@@ -0,0 +1,87 @@
+package io.eguan.iscsisrv;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.configuration.IntegerConfigKey;
+
+/**
+ * Key defining the maximum number of commands an initiator may send on an iSCSI session without waiting for their
+ * completion.
+ * 
+ * <table border='1'>
+ * <tr>
+ * <th>NAME</th>
+ * <th>DESCRIPTION</th>
+ * <th>REQUIRED</th>
+ * <th>UNIT</th>
+ * <th>TYPE</th>
+ * <th>DEFAULT</th>
+ * <th>MIN</th>
+ * <th>MAX</th>
+ * </tr>
+ * <tr>
+ * <td>{@value #NAME}</td>
+ * <td>Maximum number of commands of a session in progress. The commands are executed concurrently, the initiator may
+ * send a new command once a command is completed.</td>
+ * <td>FALSE</td>
+ * <td>number of commands</td>
+ * <td>int</td>
+ * <td>{@value #DEFAULT_VALUE}</td>
+ * <td>{@value #MIN_VALUE}</td>
+ * <td>{@value #MAX_VALUE}</td>
+ * </tr>
+ * </table>
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class IscsiServerQueueDepthConfigKey extends IntegerConfigKey {
+
+    private static final String NAME = "queue.depth";
+
+    private static final int MIN_VALUE = 1;
+
+    private static final int MAX_VALUE = 1024;
+
+    static final int DEFAULT_VALUE = 32;
+
+    private static final IscsiServerQueueDepthConfigKey INSTANCE = new IscsiServerQueueDepthConfigKey();
+
+    /**
+     * Gets the predefined singleton instance.
+     * 
+     * @return the singleton instance constructed with {@link #IscsiServerQueueDepthConfigKey()}
+     */
+    public static final IscsiServerQueueDepthConfigKey getInstance() {
+        return INSTANCE;
+    }
+
+    private IscsiServerQueueDepthConfigKey() {
+        super(NAME, MIN_VALUE, MAX_VALUE);
+    }
+
+    @Override
+    public final Integer getDefaultValue() {
+        return Integer.valueOf(DEFAULT_VALUE);
+    }
+
+}
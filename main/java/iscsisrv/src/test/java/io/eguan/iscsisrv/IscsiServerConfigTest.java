@@ -31,6 +31,8 @@ import io.eguan.srv.TestAbstractServerConfig;
 import java.net.InetAddress;
 
 import org.jscsi.target.TargetServer;
+import org.junit.Assert;
+import org.junit.Test;
 
 /**
  * Unit tests for the configuration of the iSCSI server.
@@ -74,4 +76,23 @@ public class IscsiServerConfigTest extends
     protected String getPropertiesAsString() {
         return "io.eguan.iscsisrv.port=3333\nio.eguan.iscsisrv.address=127.0.0.1";
     }
+
+    /**
+     * The queue depth is part of the configuration and sets the command window of the jSCSI sessions.
+     */
+    @Test
+    public void testQueueDepth() {
+        final InetAddress address = InetAddress.getLoopbackAddress();
+        final IscsiServerConfig configDefault = new IscsiServerConfig(address, 9999);
+        Assert.assertEquals(IscsiServerQueueDepthConfigKey.DEFAULT_VALUE, configDefault.getQueueDepth());
+        final IscsiServerConfig configSame = new IscsiServerConfig(address, 9999,
+                IscsiServerQueueDepthConfigKey.DEFAULT_VALUE);
+        Assert.assertEquals(configDefault, configSame);
+        Assert.assertEquals(configDefault.hashCode(), configSame.hashCode());
+        Assert.assertFalse(configDefault.equals(new IscsiServerConfig(address, 9999, 1)));
+
+        final IscsiServer.IscsiConfiguration configuration = new IscsiServer.IscsiConfiguration(new IscsiServer(
+                address), 9999, address, 8);
+        Assert.assertEquals(8, configuration.getCommandWindowSize());
+    }
 }
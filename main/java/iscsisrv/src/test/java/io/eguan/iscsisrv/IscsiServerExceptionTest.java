@@ -39,6 +39,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Test error on read and write request. When an initiator requests read or write on a jSCSI target, if an error
  * occurred on the Target side, the Target does not handle the error properly and breaks the connection
@@ -105,6 +108,37 @@ public class IscsiServerExceptionTest {
 
         }
 
+        @Override
+        public ListenableFuture<Void> readAsync(final ByteBuffer bytes, final int length, final long storageIndex) {
+            try {
+                read(bytes, length, storageIndex);
+                return Futures.immediateFuture(null);
+            }
+            catch (final IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        @Override
+        public ListenableFuture<Void> writeAsync(final ByteBuffer bytes, final int length, final long storageIndex) {
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void trim(final long length, final long storageIndex) throws IOException {
+
+        }
+
+        @Override
+        public void writeZeroes(final long length, final long storageIndex) throws IOException {
+
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+        }
+
     }
 
     public IscsiServerExceptionTest(final Integer param) {
@@ -29,6 +29,9 @@ import java.nio.ByteBuffer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Unit tests for the creation of a iSCSI target.
  * 
@@ -69,6 +72,33 @@ public class IscsiTargetCreateTest {
             // No op
         }
 
+        @Override
+        public final ListenableFuture<Void> writeAsync(final ByteBuffer bytes, final int length,
+                final long storageIndex) {
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public final ListenableFuture<Void> readAsync(final ByteBuffer bytes, final int length,
+                final long storageIndex) {
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public final void trim(final long length, final long storageIndex) throws IOException {
+            // No op
+        }
+
+        @Override
+        public final void writeZeroes(final long length, final long storageIndex) throws IOException {
+            // No op
+        }
+
+        @Override
+        public final void flush() throws IOException {
+            // No op
+        }
+
         @Override
         public final void close() throws IOException {
             // No op
@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
 
@@ -93,6 +94,28 @@ final class ScsiDeviceFile extends AbstractDeviceFile implements IscsiDevice {
     public final boolean isReadOnly() {
         return false;
     }
+
+    @Override
+    public final void trim(final long length, final long storageIndex) throws IOException {
+        // Nothing released
+    }
+
+    @Override
+    public final void writeZeroes(final long length, final long storageIndex) throws IOException {
+        final ByteBuffer zeros = ByteBuffer.allocate(getBlockSize());
+        long done = 0;
+        while (done < length) {
+            final int count = (int) Math.min(length - done, zeros.capacity());
+            zeros.clear();
+            write(zeros, count, storageIndex + done);
+            done += count;
+        }
+    }
+
+    @Override
+    public final void flush() throws IOException {
+        // Nothing cached
+    }
 }
 
 /**
@@ -82,7 +82,7 @@ public final class MD5Native {
             retValue = md5NativeDirect(src, offsetSrc, lengthSrc, dst, offsetDst);
         }
         else {
-            retValue = md5Native(src.array(), offsetSrc, lengthSrc, dst, offsetDst);
+            retValue = md5Native(src.array(), src.arrayOffset() + offsetSrc, lengthSrc, dst, offsetDst);
         }
         if (retValue != 0) {
             throw new AssertionError("retValue=" + retValue);
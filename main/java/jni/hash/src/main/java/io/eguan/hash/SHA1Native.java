@@ -82,7 +82,7 @@ public final class SHA1Native {
             retValue = sha1NativeDirect(src, offsetSrc, lengthSrc, dst, offsetDst);
         }
         else {
-            retValue = sha1Native(src.array(), offsetSrc, lengthSrc, dst, offsetDst);
+            retValue = sha1Native(src.array(), src.arrayOffset() + offsetSrc, lengthSrc, dst, offsetDst);
         }
         if (retValue != 0) {
             throw new AssertionError("retValue=" + retValue);
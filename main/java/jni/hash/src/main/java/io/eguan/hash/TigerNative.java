@@ -83,7 +83,7 @@ public final class TigerNative {
             retValue = tigerNativeDirect(src, offsetSrc, lengthSrc, dst, offsetDst);
         }
         else {
-            retValue = tigerNative(src.array(), offsetSrc, lengthSrc, dst, offsetDst);
+            retValue = tigerNative(src.array(), src.arrayOffset() + offsetSrc, lengthSrc, dst, offsetDst);
         }
         if (retValue != 0) {
             throw new AssertionError("retValue=" + retValue);
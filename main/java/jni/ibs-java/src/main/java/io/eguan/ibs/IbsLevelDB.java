@@ -120,7 +120,7 @@ final class IbsLevelDB extends IbsDBAbstract {
             retval = ibsGetDirect(ibsId, key, data, offset, length);
         }
         else {
-            retval = ibsGet(ibsId, key, data.array(), offset, length);
+            retval = ibsGet(ibsId, key, data.array(), data.arrayOffset() + offset, length);
         }
 
         if (retval < 0) {
@@ -305,7 +305,7 @@ final class IbsLevelDB extends IbsDBAbstract {
             retval = ibsPutDirect(ibsId, txId, key, data, offset, length);
         }
         else {
-            retval = ibsPut(ibsId, txId, key, data.array(), offset, length);
+            retval = ibsPut(ibsId, txId, key, data.array(), data.arrayOffset() + offset, length);
         }
         if (retval != 0) {
             final IbsErrorCode ibsErrorCode = IbsErrorCode.valueOf(retval);
@@ -341,7 +341,7 @@ final class IbsLevelDB extends IbsDBAbstract {
             retval = ibsReplaceDirect(ibsId, txId, oldKey, newKey, data, offset, length);
         }
         else {
-            retval = ibsReplace(ibsId, txId, oldKey, newKey, data.array(), offset, length);
+            retval = ibsReplace(ibsId, txId, oldKey, newKey, data.array(), data.arrayOffset() + offset, length);
         }
         if (retval != 0) {
             final IbsErrorCode ibsErrorCode = IbsErrorCode.valueOf(retval);
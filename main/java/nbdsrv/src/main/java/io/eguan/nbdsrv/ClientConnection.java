@@ -24,12 +24,27 @@ import io.eguan.nbdsrv.packet.NbdException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Represents a client connection. Handle the device and the socket.
+ * <p>
+ * The requests are read one after the other, but are processed concurrently: the next request is read while the
+ * previous ones are in progress, up to the queue depth of the server. The replies are sent in the order of completion
+ * of the requests, one at a time. The reads and the writes of data are asynchronous: the worker is not blocked while
+ * the device processes them.
  * 
  * @author oodrive
  * @author ebredzinski
@@ -54,11 +69,36 @@ final class ClientConnection {
     private String exportName;
     /** The device on which the client is connected */
     private NbdDevice device;
+    /** Set when the client has negotiated structured replies */
+    private boolean structuredReplies;
+    /** Set when the client has selected the metadata context base:allocation */
+    private boolean allocationContext;
+
+    /** Executes the requests of the client */
+    private final Executor executor;
+    /** Maximum number of requests in progress */
+    private final int queueDepth;
+    /** Serialize the writes in the socket */
+    private final Lock writeLock = new ReentrantLock();
 
-    ClientConnection(final SocketHandle socketHandle, final ExportServer server, final boolean isModern) {
+    private final Object requestsLock = new Object();
+    /** Number of requests in progress */
+    @GuardedBy(value = "requestsLock")
+    private int requestCount;
+    /** Set when the read of the next request waits for the completion of a request */
+    @GuardedBy(value = "requestsLock")
+    private boolean readSuspended;
+    /** Set when the connection must be closed after the completion of the requests in progress */
+    @GuardedBy(value = "requestsLock")
+    private boolean closePending;
+
+    ClientConnection(final SocketHandle socketHandle, final ExportServer server, final boolean isModern,
+            final Executor executor) {
         this.socketHandle = socketHandle;
         this.phase = new HandshakePhase(this);
         this.server = server;
+        this.executor = executor;
+        this.queueDepth = server.getConfig().getQueueDepth();
     }
 
     /**
@@ -137,6 +177,44 @@ final class ClientConnection {
         this.device = server.getDevice(name);
     }
 
+    /**
+     * Tells if the replies to the requests may be structured.
+     * 
+     * @return <code>true</code> if the client has negotiated structured replies
+     */
+    final boolean isStructuredReplies() {
+        return structuredReplies;
+    }
+
+    /**
+     * Sets the use of structured replies.
+     * 
+     * @param structuredReplies
+     *            <code>true</code> if the client has negotiated structured replies
+     */
+    final void setStructuredReplies(final boolean structuredReplies) {
+        this.structuredReplies = structuredReplies;
+    }
+
+    /**
+     * Tells if the client may request the block status of the context base:allocation.
+     * 
+     * @return <code>true</code> if the context base:allocation is selected
+     */
+    final boolean isAllocationContext() {
+        return allocationContext;
+    }
+
+    /**
+     * Sets the selection of the metadata context base:allocation.
+     * 
+     * @param allocationContext
+     *            <code>true</code> if the context base:allocation is selected
+     */
+    final void setAllocationContext(final boolean allocationContext) {
+        this.allocationContext = allocationContext;
+    }
+
     /**
      * Write data into the socket up to the limit of each buffer.
      * 
@@ -144,7 +222,13 @@ final class ClientConnection {
      *            an array of {@link ByteBuffer} which contain the data
      */
     final long write(final ByteBuffer[] src) throws IOException {
-        return socketHandle.write(src);
+        writeLock.lock();
+        try {
+            return socketHandle.write(src);
+        }
+        finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -154,7 +238,13 @@ final class ClientConnection {
      *            a {@link ByteBuffer} which contains the data
      */
     final long write(final ByteBuffer src) throws IOException {
-        return socketHandle.write(src);
+        writeLock.lock();
+        try {
+            return socketHandle.write(src);
+        }
+        finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -167,6 +257,169 @@ final class ClientConnection {
         return socketHandle.read(dst);
     }
 
+    /**
+     * Process a request in the background. The request is counted as in progress until its end.
+     * 
+     * @param request
+     *            the request to process. The connection is closed if it fails.
+     */
+    final void submitRequest(final Callable<Void> request) {
+        synchronized (requestsLock) {
+            requestCount++;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public final void run() {
+                    try {
+                        request.call();
+                    }
+                    catch (final Throwable t) {
+                        LOGGER.error("Request failed", t);
+                        close();
+                    }
+                    finally {
+                        endRequest();
+                    }
+                }
+            });
+        }
+        catch (final RejectedExecutionException e) {
+            endRequest();
+            throw e;
+        }
+    }
+
+    /**
+     * Request processed in two steps: the start of the device operations and the completion, once they are done.
+     */
+    interface AsyncRequest {
+        /**
+         * Starts the device operations of the request.
+         * 
+         * @return a future done at the end of the operations or <code>null</code> if the request is already completed
+         * @throws Exception
+         *             if the request fails. The connection is closed
+         */
+        ListenableFuture<?> start() throws Exception;
+
+        /**
+         * Completes the request, once the device operations are done, whatever their result.
+         * 
+         * @throws Exception
+         *             if the request fails. The connection is closed
+         */
+        void complete() throws Exception;
+    }
+
+    /**
+     * Process an asynchronous request in the background. The request is counted as in progress until the end of its
+     * completion, but does not hold a worker while the device operations are in progress.
+     * 
+     * @param request
+     *            the request to process. The connection is closed if it fails.
+     */
+    final void submitRequest(final AsyncRequest request) {
+        synchronized (requestsLock) {
+            requestCount++;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public final void run() {
+                    final ListenableFuture<?> operations;
+                    try {
+                        operations = request.start();
+                    }
+                    catch (final Throwable t) {
+                        LOGGER.error("Request failed", t);
+                        close();
+                        endRequest();
+                        return;
+                    }
+                    if (operations == null) {
+                        endRequest();
+                        return;
+                    }
+                    operations.addListener(new Runnable() {
+                        @Override
+                        public final void run() {
+                            try {
+                                request.complete();
+                            }
+                            catch (final Throwable t) {
+                                LOGGER.error("Request failed", t);
+                                close();
+                            }
+                            finally {
+                                endRequest();
+                            }
+                        }
+                    }, executor);
+                }
+            });
+        }
+        catch (final RejectedExecutionException e) {
+            endRequest();
+            throw e;
+        }
+    }
+
+    /**
+     * End of a request: read the next request if the read was suspended or close the connection if it was requested.
+     */
+    private final void endRequest() {
+        final boolean doClose;
+        synchronized (requestsLock) {
+            requestCount--;
+            doClose = closePending && requestCount == 0;
+            if (!closePending && readSuspended && requestCount < queueDepth) {
+                readSuspended = false;
+                enableRead();
+            }
+        }
+        if (doClose) {
+            close();
+        }
+    }
+
+    /**
+     * Read the next request, unless the number of requests in progress has reached the queue depth. In that case,
+     * the next request will be read at the end of a request.
+     */
+    final void readNext() {
+        synchronized (requestsLock) {
+            if (requestCount >= queueDepth) {
+                readSuspended = true;
+            }
+            else {
+                enableRead();
+            }
+        }
+    }
+
+    /**
+     * Configure the socket and register it to its selector.
+     * 
+     * @throws IOException
+     */
+    final void configure() throws IOException {
+        socketHandle.configure();
+    }
+
+    /**
+     * Close the connection once the requests in progress are completed.
+     */
+    final void closeWhenIdle() {
+        synchronized (requestsLock) {
+            if (requestCount > 0) {
+                closePending = true;
+                return;
+            }
+        }
+        close();
+    }
+
     /**
      * Close the connection.
      * 
@@ -253,6 +506,39 @@ final class ClientConnection {
         return server.getExportList();
     }
 
+    /**
+     * Tells if an export exists.
+     * 
+     * @param name
+     *            the name of the export
+     * @return <code>true</code> if the server has an export of that name
+     */
+    public final boolean hasExport(final String name) {
+        return Arrays.asList(server.getExportList()).contains(name);
+    }
+
+    /**
+     * Gets the size of an export.
+     * 
+     * @param name
+     *            the name of the export
+     * @return the size of the export
+     */
+    public final long getExportSize(final String name) {
+        return server.getDevice(name).getSize();
+    }
+
+    /**
+     * Tells of an export is read-only.
+     * 
+     * @param name
+     *            the name of the export
+     * @return <code>true</code> if the export is read-only
+     */
+    public final boolean isExportReadOnly(final String name) {
+        return server.getDevice(name).isReadOnly();
+    }
+
     /**
      * Tells if trim is enabled or not.
      * 
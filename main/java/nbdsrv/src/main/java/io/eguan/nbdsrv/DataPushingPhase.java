@@ -26,16 +26,37 @@ import io.eguan.nbdsrv.packet.DataPushingPacket;
 import io.eguan.nbdsrv.packet.DataPushingReplyPacket;
 import io.eguan.nbdsrv.packet.NbdByteBufferCache;
 import io.eguan.nbdsrv.packet.NbdException;
+import io.eguan.nbdsrv.packet.StructuredReplyPacket;
 import io.eguan.nbdsrv.packet.Utils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
- * Represents the data pushing phase.
+ * Represents the data pushing phase. Reads a request and submits it to the connection: the device operation and the
+ * reply are done in the background, while the next request is read. The data is read and written with the
+ * asynchronous operations of the device, the reply is sent when they are done.
+ * <p>
+ * When the client has negotiated structured replies, the ranges of a read that are not allocated in the device are
+ * sent as holes, without data, unless the request has the flag NBD_CMD_FLAG_DF. The other reads are sent whole, without
+ * looking up the allocation of the blocks. The allocation is also reported by NBD_CMD_BLOCK_STATUS, in the metadata
+ * context base:allocation.
+ * <p>
+ * NBD_CMD_WRITE_ZEROES sets a range to zero without any payload: the whole blocks are trimmed in the device. The
+ * requests with the flag NBD_CMD_FLAG_FUA and NBD_CMD_FLUSH write the state of the device to stable storage before
+ * the reply.
  * 
  * @author oodrive
  * @author ebredzinski
@@ -46,6 +67,14 @@ final class DataPushingPhase extends PhaseAbstract {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DataPushingPhase.class);
 
+    /** Maximum length of the range described by the reply to a NBD_CMD_BLOCK_STATUS */
+    private static final long MAX_BLOCK_STATUS_LENGTH = 64 * 1024 * 1024;
+    /** Maximum length of the zeros written at once for a NBD_CMD_WRITE_ZEROES with the flag NO_HOLE */
+    private static final int MAX_NO_HOLE_LENGTH = 1024 * 1024;
+    /** Block status of a range that is not allocated */
+    private static final int STATE_UNALLOCATED = StructuredReplyPacket.NBD_STATE_HOLE
+            | StructuredReplyPacket.NBD_STATE_ZERO;
+
     DataPushingPhase(final ClientConnection connection) {
         super(connection);
     }
@@ -62,21 +91,65 @@ final class DataPushingPhase extends PhaseAbstract {
             LOGGER.error("Invalid argument", e);
             return true;
         }
+        final ClientConnection connection = getConnection();
+        final long from = dataPacket.getFrom();
+        final long handle = dataPacket.getHandle();
+        final boolean fua = (dataPacket.getFlags() & DataPushingPacket.NBD_CMD_FLAG_FUA) != 0;
         switch (dataPacket.getType()) {
-        case NBD_CMD_READ:
-            handleRead(dataPacket.getFrom(), (int) length, dataPacket.getHandle());
+        case NBD_CMD_READ: {
+            final boolean structured = connection.isStructuredReplies();
+            final boolean df = (dataPacket.getFlags() & DataPushingPacket.NBD_CMD_FLAG_DF) != 0;
+            connection.submitRequest(new ReadRequest(from, (int) length, handle, structured, structured && !df));
             break;
-        case NBD_CMD_WRITE:
-            handleWrite(dataPacket.getFrom(), (int) length, dataPacket.getHandle());
+        }
+        case NBD_CMD_BLOCK_STATUS: {
+            final int flags = dataPacket.getFlags();
+            connection.submitRequest(new Callable<Void>() {
+                @Override
+                public final Void call() throws Exception {
+                    handleBlockStatus(from, length, flags, handle);
+                    return null;
+                }
+            });
+            break;
+        }
+        case NBD_CMD_WRITE: {
+            // Read the data now, before the next request
+            final ByteBuffer bytes = readData((int) length);
+            connection.submitRequest(new WriteRequest(bytes, from, (int) length, fua, handle));
             break;
+        }
         case NBD_CMD_DISC:
             LOGGER.debug("Receive NBD_CMD_DISC");
             return false;
         case NBD_CMD_TRIM:
-            handleTrim(dataPacket.getFrom(), length, dataPacket.getHandle());
+            connection.submitRequest(new Callable<Void>() {
+                @Override
+                public final Void call() throws Exception {
+                    handleTrim(from, length, fua, handle);
+                    return null;
+                }
+            });
+            break;
+        case NBD_CMD_WRITE_ZEROES: {
+            final boolean noHole = (dataPacket.getFlags() & DataPushingPacket.NBD_CMD_FLAG_NO_HOLE) != 0;
+            connection.submitRequest(new Callable<Void>() {
+                @Override
+                public final Void call() throws Exception {
+                    handleWriteZeroes(from, length, noHole, fua, handle);
+                    return null;
+                }
+            });
             break;
+        }
         case NBD_CMD_FLUSH:
-            LOGGER.debug("Receive NBD_CMD_FLUSH");
+            connection.submitRequest(new Callable<Void>() {
+                @Override
+                public final Void call() throws Exception {
+                    handleFlush(handle);
+                    return null;
+                }
+            });
             break;
         default:
             LOGGER.error("Ignore not supported command ");
@@ -92,12 +165,15 @@ final class DataPushingPhase extends PhaseAbstract {
      *            the offset of the first byte to be trimmed
      * @param len
      *            the number of bytes to trim
+     * @param fua
+     *            <code>true</code> if the trim must be on stable storage before the reply
      * @param handle
      *            the handle used to identify the request
      * @throws IOException
      * @throws NbdException
      */
-    private final void handleTrim(final long from, final long len, final long handle) throws IOException, NbdException {
+    private final void handleTrim(final long from, final long len, final boolean fua, final long handle)
+            throws IOException, NbdException {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("NBD_CMD_TRIM from " + from + " len " + len);
         }
@@ -110,6 +186,16 @@ final class DataPushingPhase extends PhaseAbstract {
         // Trim data in the device
         if (connection.isTrimEnabled()) {
             device.trim(len, from);
+            if (fua) {
+                try {
+                    device.flush();
+                }
+                catch (final IOException e) {
+                    LOGGER.error("I/O Exception thrown", e);
+                    sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
+                    return;
+                }
+            }
         }
 
         // Create reply, no data necessary
@@ -125,49 +211,400 @@ final class DataPushingPhase extends PhaseAbstract {
     }
 
     /**
-     * Handle the reception of a NBD_CMD_READ.
+     * Handle the reception of a NBD_CMD_WRITE_ZEROES.
      * 
      * @param from
-     *            the offset of the first byte to be copied
+     *            the offset of the first byte to set to zero
      * @param len
-     *            the number of bytes to copy
+     *            the number of bytes to set to zero
+     * @param noHole
+     *            <code>true</code> if the zeros must be written as data
+     * @param fua
+     *            <code>true</code> if the zeros must be on stable storage before the reply
      * @param handle
      *            the handle used to identify the request
-     * 
+     * @throws IOException
+     * @throws NbdException
      */
-    private final void handleRead(final long from, final int len, final long handle) throws NbdException, IOException {
+    private final void handleWriteZeroes(final long from, final long len, final boolean noHole, final boolean fua,
+            final long handle) throws IOException, NbdException {
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("NBD_CMD_READ from " + from + " len " + len);
+            LOGGER.debug("NBD_CMD_WRITE_ZEROES from " + from + " len " + len + " noHole " + noHole);
         }
         final ClientConnection connection = getConnection();
         final NbdDevice device = connection.getNbdDevice();
         if (device == null) {
             throw new NbdException("Client not connected");
         }
-        final ByteBuffer body = NbdByteBufferCache.allocate(len);
+        if (device.isReadOnly()) {
+            LOGGER.error("Write on read-only device not permitted");
+            sendError(DataPushingError.NBD_EPERM_ERROR, connection, handle);
+            return;
+        }
+
+        try {
+            if (noHole) {
+                // Write the zeros as data
+                final ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(len, MAX_NO_HOLE_LENGTH));
+                long done = 0;
+                while (done < len) {
+                    final int length = (int) Math.min(len - done, zeros.capacity());
+                    zeros.clear();
+                    device.write(zeros, length, from + done);
+                    done += length;
+                }
+            }
+            else {
+                device.writeZeroes(len, from);
+            }
+            if (fua) {
+                device.flush();
+            }
+        }
+        catch (final IOException e) {
+            LOGGER.error("I/O Exception thrown", e);
+            sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
+            return;
+        }
+
+        // Create reply, no data necessary
+        final DataPushingReplyPacket replyPacket = new DataPushingReplyPacket(DataPushingReplyPacket.MAGIC,
+                DataPushingError.NBD_NO_ERROR, handle);
+        final ByteBuffer replyBuffer = DataPushingReplyPacket.serialize(replyPacket);
         try {
-            // Read data in the device
-            device.read(body, len, from);
-            body.flip();
-            // Create header
-            final DataPushingReplyPacket replyPacket = new DataPushingReplyPacket(DataPushingReplyPacket.MAGIC,
-                    DataPushingError.NBD_NO_ERROR, handle);
-            final ByteBuffer header = DataPushingReplyPacket.serialize(replyPacket);
+            connection.write(replyBuffer);
+        }
+        finally {
+            DataPushingPacket.release(replyBuffer);
+        }
+    }
+
+    /**
+     * Handle the reception of a NBD_CMD_FLUSH: the completed writes are written to stable storage.
+     * 
+     * @param handle
+     *            the handle used to identify the request
+     * @throws IOException
+     * @throws NbdException
+     */
+    private final void handleFlush(final long handle) throws IOException, NbdException {
+        LOGGER.debug("NBD_CMD_FLUSH");
+        final ClientConnection connection = getConnection();
+        final NbdDevice device = connection.getNbdDevice();
+        if (device == null) {
+            throw new NbdException("Client not connected");
+        }
+
+        try {
+            device.flush();
+        }
+        catch (final IOException e) {
+            LOGGER.error("I/O Exception thrown", e);
+            sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
+            return;
+        }
+
+        // Create reply, no data necessary
+        final DataPushingReplyPacket replyPacket = new DataPushingReplyPacket(DataPushingReplyPacket.MAGIC,
+                DataPushingError.NBD_NO_ERROR, handle);
+        final ByteBuffer replyBuffer = DataPushingReplyPacket.serialize(replyPacket);
+        try {
+            connection.write(replyBuffer);
+        }
+        finally {
+            DataPushingPacket.release(replyBuffer);
+        }
+    }
+
+    /**
+     * Reception of a NBD_CMD_READ. The range is read in a direct buffer, filled in place by the device. When holes may
+     * be sent, only the runs of allocated blocks are read, all the runs at once, and the other runs are sent as holes.
+     * The reply is sent in a single gathering write, once all the runs are read.
+     */
+    private final class ReadRequest implements ClientConnection.AsyncRequest {
+        /** The offset of the first byte to be copied */
+        private final long from;
+        /** The number of bytes to copy */
+        private final int len;
+        /** The handle used to identify the request */
+        private final long handle;
+        /** <code>true</code> if the reply is structured */
+        private final boolean structured;
+        /** <code>true</code> if the runs that are not allocated are sent as holes */
+        private final boolean sparse;
+        /** The buffers of the reply. The header of a simple reply is set once the data is read */
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        /** The headers of the chunks of a structured reply */
+        private final List<ByteBuffer> headers = new ArrayList<>();
+        /** The data buffers, filled by the device */
+        private final List<ByteBuffer> bodies = new ArrayList<>();
+        /** The reads in progress */
+        private final List<ListenableFuture<Void>> reads = new ArrayList<>();
+
+        ReadRequest(final long from, final int len, final long handle, final boolean structured,
+                final boolean sparse) {
+            super();
+            this.from = from;
+            this.len = len;
+            this.handle = handle;
+            this.structured = structured;
+            this.sparse = sparse;
+        }
+
+        @Override
+        public final ListenableFuture<?> start() throws NbdException, IOException {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("NBD_CMD_READ" + (structured ? " (structured)" : "") + " from " + from + " len " + len);
+            }
+            final ClientConnection connection = getConnection();
+            final NbdDevice device = connection.getNbdDevice();
+            if (device == null) {
+                throw new NbdException("Client not connected");
+            }
+            if (structured && len == 0) {
+                writeChunk(connection, StructuredReplyPacket.serializeNone(handle), null);
+                return null;
+            }
+
+            if (!structured) {
+                // Header first
+                buffers.add(null);
+            }
+            if (len > 0 && !sparse) {
+                // The whole range in a single run: no need to look up the allocation of the blocks
+                if (structured) {
+                    final ByteBuffer header = StructuredReplyPacket.serializeOffsetData(
+                            StructuredReplyPacket.NBD_REPLY_FLAG_DONE, handle, from, len);
+                    headers.add(header);
+                    buffers.add(header);
+                }
+                readRun(device, from, len);
+            }
+            else if (len > 0) {
+                final int blockSize = device.getAllocationBlockSize();
+                final long end = from + len;
+                final long firstBlock = from / blockSize;
+                final int count = (int) ((end - 1) / blockSize - firstBlock + 1);
+                final BitSet allocated;
+                try {
+                    allocated = device.getAllocated(firstBlock, count);
+                }
+                catch (final IOException e) {
+                    LOGGER.error("I/O Exception thrown", e);
+                    sendError(DataPushingError.NBD_IO_ERROR, connection, DataPushingCmd.NBD_CMD_READ, handle);
+                    return null;
+                }
+
+                long position = from;
+                while (position < end) {
+                    final int index = (int) (position / blockSize - firstBlock);
+                    final boolean data = allocated.get(index);
+                    final long runEnd = getRunEnd(allocated, index, data, count, firstBlock, blockSize, end);
+                    final int runLength = (int) (runEnd - position);
+                    if (structured) {
+                        final int flags = runEnd == end ? StructuredReplyPacket.NBD_REPLY_FLAG_DONE : 0;
+                        final ByteBuffer header = data ? StructuredReplyPacket.serializeOffsetData(flags, handle,
+                                position, runLength) : StructuredReplyPacket.serializeOffsetHole(flags, handle,
+                                position, runLength);
+                        headers.add(header);
+                        buffers.add(header);
+                    }
+                    if (data) {
+                        readRun(device, position, runLength);
+                    }
+                    position = runEnd;
+                }
+            }
+            // Wait for all the reads, even if one of them fails: the buffers are in use until then
+            return Futures.successfulAsList(reads);
+        }
+
+        /**
+         * Starts the read of a run in a new buffer of the reply.
+         * 
+         * @param device
+         *            the device to read
+         * @param position
+         *            the offset of the run in the device
+         * @param runLength
+         *            the length of the run
+         */
+        private final void readRun(final NbdDevice device, final long position, final int runLength) {
+            final ByteBuffer body = NbdByteBufferCache.allocate(runLength);
+            body.limit(runLength);
+            bodies.add(body);
+            buffers.add(body);
+            reads.add(device.readAsync(body, runLength, position));
+        }
+
+        @Override
+        public final void complete() throws IOException {
+            final ClientConnection connection = getConnection();
             try {
-                // Send the two buffers with scatter gather
-                final ByteBuffer[] buffers = { header, body };
-                connection.write(buffers);
+                for (int i = 0; i < reads.size(); i++) {
+                    try {
+                        Uninterruptibles.getUninterruptibly(reads.get(i));
+                    }
+                    catch (final ExecutionException e) {
+                        LOGGER.error("I/O Exception thrown", e.getCause());
+                        sendError(DataPushingError.NBD_IO_ERROR, connection, DataPushingCmd.NBD_CMD_READ, handle);
+                        return;
+                    }
+                }
+
+                if (structured) {
+                    connection.write(buffers.toArray(new ByteBuffer[buffers.size()]));
+                }
+                else {
+                    final DataPushingReplyPacket replyPacket = new DataPushingReplyPacket(
+                            DataPushingReplyPacket.MAGIC, DataPushingError.NBD_NO_ERROR, handle);
+                    final ByteBuffer header = DataPushingReplyPacket.serialize(replyPacket);
+                    buffers.set(0, header);
+                    try {
+                        // Send the header and the data with scatter gather
+                        connection.write(buffers.toArray(new ByteBuffer[buffers.size()]));
+                    }
+                    finally {
+                        DataPushingPacket.release(header);
+                    }
+                }
             }
             finally {
-                DataPushingPacket.release(header);
+                for (int i = headers.size() - 1; i >= 0; i--) {
+                    StructuredReplyPacket.release(headers.get(i));
+                }
+                releaseAll(bodies);
             }
         }
+
+    }
+
+    /**
+     * Release the data buffers of a reply.
+     * 
+     * @param bodies
+     *            the buffers to release
+     */
+    private static final void releaseAll(final List<ByteBuffer> bodies) {
+        for (int i = bodies.size() - 1; i >= 0; i--) {
+            NbdByteBufferCache.release(bodies.get(i));
+        }
+        bodies.clear();
+    }
+
+    /**
+     * Handle the reception of a NBD_CMD_BLOCK_STATUS: describe the allocation of the range in the metadata context
+     * base:allocation. The description may be shorter than the requested length.
+     * 
+     * @param from
+     *            the offset of the first byte of the range
+     * @param len
+     *            the length of the range
+     * @param flags
+     *            the flags of the command
+     * @param handle
+     *            the handle used to identify the request
+     */
+    private final void handleBlockStatus(final long from, final long len, final int flags, final long handle)
+            throws NbdException, IOException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("NBD_CMD_BLOCK_STATUS from " + from + " len " + len);
+        }
+        final ClientConnection connection = getConnection();
+        final NbdDevice device = connection.getNbdDevice();
+        if (device == null) {
+            throw new NbdException("Client not connected");
+        }
+        if (!connection.isAllocationContext() || len == 0) {
+            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, DataPushingCmd.NBD_CMD_BLOCK_STATUS, handle);
+            return;
+        }
+
+        final int blockSize = device.getAllocationBlockSize();
+        final long end = from + Math.min(len, MAX_BLOCK_STATUS_LENGTH);
+        final long firstBlock = from / blockSize;
+        final int count = (int) ((end - 1) / blockSize - firstBlock + 1);
+        final BitSet allocated;
+        try {
+            allocated = device.getAllocated(firstBlock, count);
+        }
         catch (final IOException e) {
             LOGGER.error("I/O Exception thrown", e);
-            sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
+            sendError(DataPushingError.NBD_IO_ERROR, connection, DataPushingCmd.NBD_CMD_BLOCK_STATUS, handle);
+            return;
+        }
+
+        final boolean one = (flags & DataPushingPacket.NBD_CMD_FLAG_REQ_ONE) != 0;
+        final long[] lengths = new long[one ? 1 : count];
+        final int[] states = new int[lengths.length];
+        int descriptorCount = 0;
+        long position = from;
+        while (position < end && descriptorCount < lengths.length) {
+            final int index = (int) (position / blockSize - firstBlock);
+            final boolean data = allocated.get(index);
+            final long runEnd = getRunEnd(allocated, index, data, count, firstBlock, blockSize, end);
+            lengths[descriptorCount] = runEnd - position;
+            states[descriptorCount] = data ? 0 : STATE_UNALLOCATED;
+            descriptorCount++;
+            position = runEnd;
+        }
+        writeChunk(connection, StructuredReplyPacket.serializeBlockStatus(StructuredReplyPacket.NBD_REPLY_FLAG_DONE,
+                handle, HandshakePhase.BASE_ALLOCATION_ID, lengths, states, descriptorCount), null);
+    }
+
+    /**
+     * Gets the end of a run of blocks having the same allocation status.
+     * 
+     * @param allocated
+     *            allocation status of the blocks
+     * @param index
+     *            index of the first block of the run
+     * @param data
+     *            allocation status of the first block
+     * @param count
+     *            number of blocks
+     * @param firstBlock
+     *            index of the block <code>0</code> of <code>allocated</code> in the device
+     * @param blockSize
+     *            size of a block
+     * @param end
+     *            end of the range
+     * @return the offset of the end of the run, not after <code>end</code>
+     */
+    private static final long getRunEnd(final BitSet allocated, final int index, final boolean data,
+            final int count, final long firstBlock, final int blockSize, final long end) {
+        int next = data ? allocated.nextClearBit(index) : allocated.nextSetBit(index);
+        if (next < 0 || next > count) {
+            next = count;
+        }
+        return Math.min(end, (firstBlock + next) * blockSize);
+    }
+
+    /**
+     * Send a chunk of a structured reply.
+     * 
+     * @param connection
+     *            the connection
+     * @param header
+     *            the header of the chunk, released by the method
+     * @param body
+     *            the data of the chunk, may be <code>null</code>
+     * @throws IOException
+     *             if some i/o error occurs during socket writing
+     */
+    private static final void writeChunk(final ClientConnection connection, final ByteBuffer header,
+            final ByteBuffer body) throws IOException {
+        try {
+            if (body == null) {
+                connection.write(header);
+            }
+            else {
+                final ByteBuffer[] buffers = { header, body };
+                connection.write(buffers);
+            }
         }
         finally {
-            DataPushingPacket.release(body);
+            StructuredReplyPacket.release(header);
         }
     }
 
@@ -198,13 +635,15 @@ final class DataPushingPhase extends PhaseAbstract {
         }
         // Check Magic number
         if (dataPushingPacket.getMagic() != DataPushingPacket.MAGIC) {
-            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, handle);
+            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, dataPushingPacket.getType(), handle);
             throw new IllegalArgumentException("Bad magic number=0x" + Long.toHexString(dataPushingPacket.getMagic()));
         }
 
         // Check length parameter (defined as an unsigned int in NBD protocol)
-        if (dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_TRIM) {
-            // long is allowed for TRIM command
+        if (dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_TRIM
+                || dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_WRITE_ZEROES
+                || dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_BLOCK_STATUS) {
+            // long is allowed for TRIM, WRITE_ZEROES and BLOCK_STATUS commands
             length = dataPushingPacket.getLen();
         }
         else {
@@ -213,7 +652,7 @@ final class DataPushingPhase extends PhaseAbstract {
                 length = Utils.getUnsignedIntPositive(dataPushingPacket.getLen());
             }
             catch (final IllegalArgumentException e) {
-                sendError(DataPushingError.NBD_EINVAL_ERROR, connection, handle);
+                sendError(DataPushingError.NBD_EINVAL_ERROR, connection, dataPushingPacket.getType(), handle);
                 if (dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_WRITE) {
                     skipData(dataPushingPacket.getLen());
                 }
@@ -224,7 +663,7 @@ final class DataPushingPhase extends PhaseAbstract {
         }
         // Check if from is positive
         if (dataPushingPacket.getFrom() < 0) {
-            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, handle);
+            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, dataPushingPacket.getType(), handle);
             if (dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_WRITE) {
                 skipData(length);
             }
@@ -232,7 +671,7 @@ final class DataPushingPhase extends PhaseAbstract {
         }
         // Check the range
         if (dataPushingPacket.getFrom() + length > device.getSize()) {
-            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, handle);
+            sendError(DataPushingError.NBD_EINVAL_ERROR, connection, dataPushingPacket.getType(), handle);
             if (dataPushingPacket.getType() == DataPushingCmd.NBD_CMD_WRITE) {
                 skipData(length);
             }
@@ -295,41 +734,130 @@ final class DataPushingPhase extends PhaseAbstract {
     }
 
     /**
-     * Handle the reception of a NBD_CMD_WRITE.
+     * Send an error reply to a request. Once structured replies have been negotiated, the errors of NBD_CMD_READ and
+     * NBD_CMD_BLOCK_STATUS are sent in a structured error chunk. The other errors are sent in a simple reply.
      * 
-     * @param from
-     *            the offset of the first byte to store
-     * @param len
-     *            the number of bytes to store
+     * @param error
+     *            the error to send
+     * @param connection
+     *            the client connection
+     * @param cmd
+     *            the command of the request, may be <code>null</code>
      * @param handle
-     *            the handle used to identify the request
+     *            the handle
      * @throws IOException
-     * 
+     *             if some i/o error occurs during socket writing
      */
-    private final void handleWrite(final long from, final int len, final long handle) throws NbdException, IOException {
-
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("NBD_CMD_WRITE from " + from + " len " + len);
+    private final void sendError(final DataPushingError error, final ClientConnection connection,
+            final DataPushingCmd cmd, final long handle) throws IOException {
+        if (connection.isStructuredReplies()
+                && (cmd == DataPushingCmd.NBD_CMD_READ || cmd == DataPushingCmd.NBD_CMD_BLOCK_STATUS)) {
+            writeChunk(connection,
+                    StructuredReplyPacket.serializeError(StructuredReplyPacket.NBD_REPLY_FLAG_DONE, handle, error),
+                    null);
         }
-        final ClientConnection connection = getConnection();
-        final NbdDevice device = connection.getNbdDevice();
-
-        if (device == null) {
-            throw new NbdException("Client not connected");
+        else {
+            sendError(error, connection, handle);
         }
+    }
+
+    /**
+     * Read the data of a NBD_CMD_WRITE.
+     * 
+     * @param len
+     *            the number of bytes to read
+     * @return the data read. Released by the {@link WriteRequest}
+     * @throws IOException
+     */
+    private final ByteBuffer readData(final int len) throws IOException {
         final ByteBuffer bytes = NbdByteBufferCache.allocate(len);
         try {
             // Read data into the socket
-            connection.read(bytes);
+            getConnection().read(bytes);
+            return bytes;
+        }
+        catch (IOException | RuntimeException e) {
+            NbdByteBufferCache.release(bytes);
+            throw e;
+        }
+    }
+
+    /**
+     * Reception of a NBD_CMD_WRITE. The reply is sent once the data is written in the device.
+     */
+    private final class WriteRequest implements ClientConnection.AsyncRequest {
+        /** The data to store, released at the end of the request */
+        private final ByteBuffer bytes;
+        /** The offset of the first byte to store */
+        private final long from;
+        /** The number of bytes to store */
+        private final int len;
+        /** <code>true</code> if the data must be on stable storage before the reply */
+        private final boolean fua;
+        /** The handle used to identify the request */
+        private final long handle;
+        /** The device written */
+        private NbdDevice device;
+        /** The write in progress */
+        private ListenableFuture<Void> write;
 
-            // Write data on the device if not read-only
-            if (device.isReadOnly()) {
-                LOGGER.error("Write on read-only device not permitted");
-                sendError(DataPushingError.NBD_EPERM_ERROR, connection, handle);
+        WriteRequest(final ByteBuffer bytes, final long from, final int len, final boolean fua, final long handle) {
+            super();
+            this.bytes = bytes;
+            this.from = from;
+            this.len = len;
+            this.fua = fua;
+            this.handle = handle;
+        }
+
+        @Override
+        public final ListenableFuture<?> start() throws NbdException, IOException {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("NBD_CMD_WRITE from " + from + " len " + len);
             }
-            else {
-                // Write them in the device
-                device.write(bytes, len, from);
+            final ClientConnection connection = getConnection();
+            device = connection.getNbdDevice();
+            try {
+                if (device == null) {
+                    throw new NbdException("Client not connected");
+                }
+
+                // Write data on the device if not read-only
+                if (device.isReadOnly()) {
+                    LOGGER.error("Write on read-only device not permitted");
+                    sendError(DataPushingError.NBD_EPERM_ERROR, connection, handle);
+                    return null;
+                }
+                write = device.writeAsync(bytes, len, from);
+                return write;
+            }
+            finally {
+                if (write == null) {
+                    DataPushingPacket.release(bytes);
+                }
+            }
+        }
+
+        @Override
+        public final void complete() throws IOException {
+            final ClientConnection connection = getConnection();
+            try {
+                try {
+                    Uninterruptibles.getUninterruptibly(write);
+                    if (fua) {
+                        device.flush();
+                    }
+                }
+                catch (final ExecutionException e) {
+                    LOGGER.error("I/O Exception thrown", e.getCause());
+                    sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
+                    return;
+                }
+                catch (final IOException e) {
+                    LOGGER.error("I/O Exception thrown", e);
+                    sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
+                    return;
+                }
 
                 // Create reply, no data necessary
                 final DataPushingReplyPacket replyPacket = new DataPushingReplyPacket(DataPushingReplyPacket.MAGIC,
@@ -342,13 +870,9 @@ final class DataPushingPhase extends PhaseAbstract {
                     DataPushingPacket.release(replyBuffer);
                 }
             }
-        }
-        catch (final IOException e) {
-            LOGGER.error("I/O Exception thrown", e);
-            sendError(DataPushingError.NBD_IO_ERROR, connection, handle);
-        }
-        finally {
-            DataPushingPacket.release(bytes);
+            finally {
+                DataPushingPacket.release(bytes);
+            }
         }
     }
 
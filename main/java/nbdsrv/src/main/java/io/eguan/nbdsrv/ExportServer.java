@@ -35,19 +35,31 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.annotation.concurrent.GuardedBy;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Represents the server which contains the exports.
+ * Represents the server which contains the exports. A thread accepts the connections and spreads them across the
+ * selector threads, that read the requests of the connections. The handshakes are processed by a small pool of their
+ * own, so that a new connection is never queued behind the requests of the established ones. The requests are
+ * processed by a fixed pool of worker threads.
  * 
  * @author oodrive
  * @author ebredzinski
@@ -60,6 +72,17 @@ final class ExportServer implements Callable<Void> {
 
     private static final ClientConnection[] EMPTY_TARGET_CONNECTION_ARRAY = new ClientConnection[0];
 
+    private static final ConnectionSelector[] EMPTY_SELECTOR_ARRAY = new ConnectionSelector[0];
+
+    /** Minimum number of worker threads */
+    private static final int MIN_WORKER_COUNT = 4;
+    /** Maximum number of worker threads per available processor */
+    private static final int WORKERS_PER_CPU = 2;
+    /** Idle time before the end of a worker thread, in seconds */
+    private static final long WORKER_KEEP_ALIVE = 60;
+    /** Number of threads processing the handshakes */
+    private static final int HANDSHAKE_WORKER_COUNT = 2;
+
     /** Contains all the registered {@link NbdExport}s. */
     private final Map<String, NbdExport> exports = new TreeMap<>(IGNORECASE_COMPARATOR);
     private final ReadWriteLock exportsLock = new ReentrantReadWriteLock();
@@ -76,9 +99,13 @@ final class ExportServer implements Callable<Void> {
     /** A {@link SocketChannel} used for listening to incoming connections. */
     private ServerSocketChannel modernServerSocketChannel;
 
-    /** A {@link Selector} used for listening to incoming connections and reading incoming datas */
+    /** A {@link Selector} used for listening to incoming connections */
     private Selector selector;
 
+    /** Selectors reading the requests of the connections */
+    @GuardedBy(value = "this")
+    private ConnectionSelector[] connectionSelectors = EMPTY_SELECTOR_ARRAY;
+
     /** Mark the server as cancelled (atomic access to selector) */
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
 
@@ -126,11 +153,216 @@ final class ExportServer implements Callable<Void> {
         return config.isTrimEnabled();
     }
 
+    /**
+     * Selector thread: waits for the requests of a subset of the connections and submits the current phase of the
+     * readable connections to the worker pool. The new connections are registered by the selector thread, to avoid a
+     * concurrent registration during a select.
+     * 
+     */
+    private final class ConnectionSelector implements Runnable {
+
+        /** The selector of the connections */
+        private final Selector selector;
+        /** Connections accepted, waiting for their registration */
+        private final Queue<ClientConnection> pendingConnections = new ConcurrentLinkedQueue<>();
+        /** Executes the handshake phases of the connections */
+        private final ExecutorService handshakePool;
+        /** Executes the data pushing phases of the connections */
+        private final ExecutorService threadPool;
+
+        ConnectionSelector(final ExecutorService handshakePool, final ExecutorService threadPool) throws IOException {
+            super();
+            this.selector = Selector.open();
+            this.handshakePool = handshakePool;
+            this.threadPool = threadPool;
+        }
+
+        /**
+         * Gets the selector of the connections.
+         * 
+         * @return the selector
+         */
+        final Selector getSelector() {
+            return selector;
+        }
+
+        /**
+         * Adds a new connection. The connection is registered and its first phase is submitted by the selector
+         * thread.
+         * 
+         * @param connection
+         *            the new connection
+         */
+        final void addConnection(final ClientConnection connection) {
+            pendingConnections.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Wakes up the selector thread.
+         */
+        final void wakeup() {
+            try {
+                selector.wakeup();
+            }
+            catch (final Exception e) {
+                // Already closed?
+                LOGGER.debug("Throws Exception", e);
+            }
+        }
+
+        @Override
+        public final void run() {
+            try {
+                while (!cancelled.get()) {
+                    selector.select();
+                    registerConnections();
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+
+                        // event for the reception on a client socket
+                        if (key.isValid()) {
+                            try {
+                                final SocketChannel clientSocketChannel = (SocketChannel) key.channel();
+                                // Get the corresponding connection and execute the current phase
+                                final ClientConnection connection = getConnection(clientSocketChannel);
+                                if (connection != null) {
+                                    if (connection.isReadable()) {
+                                        submitPhase(connection);
+                                    }
+                                }
+                                else {
+                                    LOGGER.warn("Connection can not be retrieved: " + clientSocketChannel.socket());
+                                    clientSocketChannel.close();
+                                    continue;
+                                }
+                            }
+                            catch (final Exception e) {
+                                LOGGER.warn("Unexpected exception", e);
+                                continue;
+                            }
+                        }
+                    }
+                }
+            }
+            catch (final IOException e) {
+                LOGGER.error("Throws Exception", e);
+            }
+            finally {
+                // Close the connections not registered yet
+                ClientConnection connection;
+                while ((connection = pendingConnections.poll()) != null) {
+                    connection.close();
+                }
+                try {
+                    selector.close();
+                }
+                catch (final IOException e) {
+                    LOGGER.debug("Throws Exception", e);
+                }
+            }
+        }
+
+        /**
+         * Registers the new connections in the selector and executes their first phase.
+         */
+        private final void registerConnections() {
+            ClientConnection connection;
+            while ((connection = pendingConnections.poll()) != null) {
+                try {
+                    // Configure the new client socket
+                    connection.configure();
+
+                    // Execute first phase
+                    submitPhase(connection);
+                }
+                catch (final Exception e) {
+                    LOGGER.warn("Unexpected exception", e);
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Submits the current phase of a connection. The handshakes do not wait for the worker threads, which may be
+         * all busy with the requests of the established connections.
+         * 
+         * @param connection
+         *            the connection to process
+         */
+        private final void submitPhase(final ClientConnection connection) {
+            final PhaseAbstract phase = connection.getPhase();
+            if (phase instanceof HandshakePhase) {
+                handshakePool.submit(phase);
+            }
+            else {
+                threadPool.submit(phase);
+            }
+        }
+    }
+
     @Override
     public final Void call() throws Exception {
 
-        final ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        // Fixed pool: a thread is started for each new task until the pool is full, then the tasks are queued. The
+        // threads stop when they are idle
+        final int workerCount = Math.max(MIN_WORKER_COUNT, WORKERS_PER_CPU
+                * Runtime.getRuntime().availableProcessors());
+        final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(workerCount, workerCount, WORKER_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger threadIndex = new AtomicInteger();
+
+                    @Override
+                    public final Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "NBD worker " + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+
+        // The handshakes are short: a few threads of their own keep them from waiting behind the requests
+        final ThreadPoolExecutor handshakePool = new ThreadPoolExecutor(HANDSHAKE_WORKER_COUNT,
+                HANDSHAKE_WORKER_COUNT, WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadIndex = new AtomicInteger();
+
+                    @Override
+                    public final Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "NBD handshake " + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        handshakePool.allowCoreThreadTimeOut(true);
+
+        final int selectorCount = getConfig().getSelectorCount();
+        final ExecutorService selectorPool = Executors.newFixedThreadPool(selectorCount, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger();
+
+            @Override
+            public final Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "NBD selector " + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY + 1);
+                return thread;
+            }
+        });
         try {
+            // Start the selectors
+            final ConnectionSelector[] selectors = new ConnectionSelector[selectorCount];
+            for (int i = 0; i < selectorCount; i++) {
+                selectors[i] = new ConnectionSelector(handshakePool, threadPool);
+                selectorPool.execute(selectors[i]);
+            }
+            synchronized (this) {
+                connectionSelectors = selectors;
+            }
+            int nextSelector = 0;
+
             modernServerSocketChannel = ServerSocketChannel.open();
             try {
                 modernServerSocketChannel.configureBlocking(false);
@@ -158,65 +390,45 @@ final class ExportServer implements Callable<Void> {
                             keys.remove();
 
                             // Event for a connection on the server socket
-                            if (key.isValid()) {
-                                if (key.isAcceptable()) {
-                                    assert key == acceptableKey;
-                                    LOGGER.debug("accept");
-                                    // Get the socket channel
-                                    final ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-
-                                    // Accept the client connection
-                                    final SocketChannel clientSocketChannel = serverChannel.accept();
-                                    try {
-                                        // Configure the new client socket
-                                        final SocketHandle socketHandle = new SocketHandle(clientSocketChannel,
-                                                selector);
-                                        socketHandle.configure();
-
-                                        if (LOGGER.isDebugEnabled()) {
-                                            LOGGER.debug("connection from a client, new socket : "
-                                                    + clientSocketChannel.socket());
-                                        }
-
-                                        // Create a new client connection
-                                        final ClientConnection connection = new ClientConnection(socketHandle, this,
-                                                serverChannel.equals(modernServerSocketChannel));
-
-                                        // Save the connection
-                                        addConnection(clientSocketChannel, connection);
-
-                                        // Execute first phase
-                                        threadPool.submit(connection.getPhase());
-                                    }
-                                    catch (final Exception e) {
-                                        LOGGER.warn("Unexpected exception", e);
-                                        removeConnection(clientSocketChannel);
-                                        clientSocketChannel.close();
-                                        continue;
-                                    }
+                            if (key.isValid() && key.isAcceptable()) {
+                                assert key == acceptableKey;
+                                LOGGER.debug("accept");
+                                // Get the socket channel
+                                final ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+
+                                // Accept the client connection
+                                final SocketChannel clientSocketChannel = serverChannel.accept();
+                                if (clientSocketChannel == null) {
+                                    continue;
                                 }
-                                // event for the reception on a client socket
-                                else {
-                                    try {
-                                        final SocketChannel clientSocketChannel = (SocketChannel) key.channel();
-                                        // Get the corresponding connection and execute the current phase
-                                        final ClientConnection connection = getConnection(clientSocketChannel);
-                                        if (connection != null) {
-                                            if (connection.isReadable()) {
-                                                threadPool.submit(connection.getPhase());
-                                            }
-                                        }
-                                        else {
-                                            LOGGER.warn("Connection can not be retrieved: "
-                                                    + clientSocketChannel.socket());
-                                            clientSocketChannel.close();
-                                            continue;
-                                        }
-                                    }
-                                    catch (final Exception e) {
-                                        LOGGER.warn("Unexpected exception", e);
-                                        continue;
+                                try {
+                                    // The connections are spread across the selectors
+                                    final ConnectionSelector connectionSelector = selectors[nextSelector];
+                                    nextSelector = (nextSelector + 1) % selectors.length;
+
+                                    final SocketHandle socketHandle = new SocketHandle(clientSocketChannel,
+                                            connectionSelector.getSelector());
+
+                                    if (LOGGER.isDebugEnabled()) {
+                                        LOGGER.debug("connection from a client, new socket : "
+                                                + clientSocketChannel.socket());
                                     }
+
+                                    // Create a new client connection
+                                    final ClientConnection connection = new ClientConnection(socketHandle, this,
+                                            serverChannel.equals(modernServerSocketChannel), threadPool);
+
+                                    // Save the connection
+                                    addConnection(clientSocketChannel, connection);
+
+                                    // Register the connection and execute first phase
+                                    connectionSelector.addConnection(connection);
+                                }
+                                catch (final Exception e) {
+                                    LOGGER.warn("Unexpected exception", e);
+                                    removeConnection(clientSocketChannel);
+                                    clientSocketChannel.close();
+                                    continue;
                                 }
                             }
                         }
@@ -242,6 +454,20 @@ final class ExportServer implements Callable<Void> {
             LOGGER.error("Throws Exception", e);
         }
         finally {
+            // Stop the selectors
+            final ConnectionSelector[] selectors;
+            synchronized (this) {
+                cancelled.set(true);
+                selectors = connectionSelectors;
+                connectionSelectors = EMPTY_SELECTOR_ARRAY;
+            }
+            for (int i = 0; i < selectors.length; i++) {
+                if (selectors[i] != null) {
+                    selectors[i].wakeup();
+                }
+            }
+            selectorPool.shutdownNow();
+            handshakePool.shutdownNow();
             threadPool.shutdownNow();
         }
         return null;
@@ -295,10 +521,17 @@ final class ExportServer implements Callable<Void> {
      */
     final void cancel() {
         final Selector selectorTmp;
+        final ConnectionSelector[] selectorsTmp;
         LOGGER.debug("Cancel server");
         synchronized (this) {
             cancelled.set(true);
             selectorTmp = selector;
+            selectorsTmp = connectionSelectors;
+        }
+        for (int i = 0; i < selectorsTmp.length; i++) {
+            if (selectorsTmp[i] != null) {
+                selectorsTmp[i].wakeup();
+            }
         }
         if (selectorTmp != null) {
             try {
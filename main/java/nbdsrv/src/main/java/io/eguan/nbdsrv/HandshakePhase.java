@@ -31,7 +31,11 @@ import io.eguan.nbdsrv.packet.OptionReplyPacket;
 import io.eguan.nbdsrv.packet.Utils;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +51,16 @@ final class HandshakePhase extends PhaseAbstract {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HandshakePhase.class);
 
+    /** Metadata context giving the allocation status of the blocks */
+    static final String BASE_ALLOCATION = "base:allocation";
+    /** Identifier of the context base:allocation */
+    static final long BASE_ALLOCATION_ID = 1;
+    /** Namespace of the context base:allocation */
+    private static final String BASE_NAMESPACE = "base:";
+
+    /** Maximum size of the data of an option */
+    private static final int MAX_OPTION_DATA_SIZE = 64 * 1024;
+
     /** The current state of this phase */
     private HandshakeState state;
 
@@ -77,7 +91,14 @@ final class HandshakePhase extends PhaseAbstract {
         case OPTIONS_NEGOCIATION:
             LOGGER.debug("enter OPTIONS_NEGOCIATION phase");
             final OptionPacket option = readOptionPacket(connection);
-            switch (option.getOptionCode()) {
+            final OptionCmd optionCode = option.getOptionCode();
+            if (optionCode == null) {
+                LOGGER.debug("Unknown option " + option.getOptionValue());
+                skipOptionData(option, connection);
+                writeOptionReply(connection, option.getOptionValue(), OptionReplyCmd.NBD_REP_ERR_UNSUP, null);
+                break;
+            }
+            switch (optionCode) {
             case NBD_OPT_EXPORT_NAME:
                 final String name = handleExportName(option, connection);
                 connection.setExportName(name);
@@ -93,8 +114,23 @@ final class HandshakePhase extends PhaseAbstract {
             case NBD_OPT_LIST:
                 handleList(connection);
                 break;
+            case NBD_OPT_STRUCTURED_REPLY:
+                handleStructuredReply(option, connection);
+                break;
+            case NBD_OPT_LIST_META_CONTEXT:
+            case NBD_OPT_SET_META_CONTEXT:
+                handleMetaContext(option, connection);
+                break;
+            case NBD_OPT_INFO:
+            case NBD_OPT_GO:
+                if (handleInfo(option, connection) && optionCode == OptionCmd.NBD_OPT_GO) {
+                    connection.setPhase(new DataPushingPhase(connection));
+                }
+                break;
             default:
-                // Skip unknown options
+                // Skip unsupported options
+                skipOptionData(option, connection);
+                writeOptionReply(connection, option.getOptionValue(), OptionReplyCmd.NBD_REP_ERR_UNSUP, null);
                 break;
             }
             break;
@@ -211,6 +247,257 @@ final class HandshakePhase extends PhaseAbstract {
         }
     }
 
+    /**
+     * Handle the NBD_OPT_STRUCTURED_REPLY option: the replies of the data pushing phase may be sent in several chunks.
+     * 
+     * @param option
+     *            the option received
+     * @param connection
+     *            the {@link ClientConnection}
+     * @throws IOException
+     *             if the read or the write on the socket failed
+     */
+    private final void handleStructuredReply(final OptionPacket option, final ClientConnection connection)
+            throws IOException {
+        LOGGER.debug("Handle StructuredReply");
+        if (option.getSize() != 0) {
+            skipOptionData(option, connection);
+            writeOptionReply(connection, option.getOptionValue(), OptionReplyCmd.NBD_REP_ERR_INVALID, null);
+            return;
+        }
+        connection.setStructuredReplies(true);
+        writeOptionReply(connection, option.getOptionValue(), OptionReplyCmd.NBD_REP_ACK, null);
+    }
+
+    /**
+     * Handle the options NBD_OPT_LIST_META_CONTEXT and NBD_OPT_SET_META_CONTEXT. The only context supported is
+     * base:allocation.
+     * 
+     * @param option
+     *            the option received
+     * @param connection
+     *            the {@link ClientConnection}
+     * @throws IOException
+     *             if the read or the write on the socket failed
+     */
+    private final void handleMetaContext(final OptionPacket option, final ClientConnection connection)
+            throws IOException {
+        LOGGER.debug("Handle MetaContext");
+        final long optionValue = option.getOptionValue();
+        final boolean set = option.getOptionCode() == OptionCmd.NBD_OPT_SET_META_CONTEXT;
+        final ByteBuffer data = readOptionData(option, connection);
+        if (data == null) {
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_INVALID, null);
+            return;
+        }
+        final String name;
+        final List<String> queries = new ArrayList<>();
+        try {
+            name = getString(data);
+            final long queryCount = Utils.getUnsignedInt(data);
+            for (long i = 0; i < queryCount; i++) {
+                queries.add(getString(data));
+            }
+            if (data.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected data");
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            LOGGER.debug("Invalid option data", e);
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_INVALID, null);
+            return;
+        }
+        finally {
+            OptionPacket.release(data);
+        }
+
+        // The contexts can be selected only for structured replies
+        if (set && !connection.isStructuredReplies()) {
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_INVALID, null);
+            return;
+        }
+        if (!connection.hasExport(name)) {
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_UNKNOWN, null);
+            return;
+        }
+
+        // No query: list all the contexts
+        boolean allocation = !set && queries.isEmpty();
+        for (final String query : queries) {
+            if (BASE_ALLOCATION.equals(query) || (!set && BASE_NAMESPACE.equals(query))) {
+                allocation = true;
+            }
+        }
+        if (set) {
+            connection.setAllocationContext(allocation);
+        }
+        if (allocation) {
+            final byte[] contextName = BASE_ALLOCATION.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer context = ByteBuffer.allocate(4 + contextName.length);
+            Utils.putUnsignedInt(context, set ? BASE_ALLOCATION_ID : 0);
+            context.put(contextName);
+            context.flip();
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_META_CONTEXT, context);
+        }
+        writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ACK, null);
+    }
+
+    /**
+     * Handle the options NBD_OPT_INFO and NBD_OPT_GO: send the size and the flags of the export.
+     * 
+     * @param option
+     *            the option received
+     * @param connection
+     *            the {@link ClientConnection}
+     * @return <code>true</code> if the export exists. If the option is NBD_OPT_GO, the export is selected
+     * @throws IOException
+     *             if the read or the write on the socket failed
+     */
+    private final boolean handleInfo(final OptionPacket option, final ClientConnection connection)
+            throws IOException {
+        LOGGER.debug("Handle Info");
+        final long optionValue = option.getOptionValue();
+        final ByteBuffer data = readOptionData(option, connection);
+        if (data == null) {
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_INVALID, null);
+            return false;
+        }
+        final String name;
+        try {
+            name = getString(data);
+            // Information requests: only NBD_INFO_EXPORT is sent
+            final int requestCount = Utils.getUnsignedShort(data);
+            if (data.remaining() != requestCount * 2) {
+                throw new IllegalArgumentException("Invalid request count=" + requestCount);
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            LOGGER.debug("Invalid option data", e);
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_INVALID, null);
+            return false;
+        }
+        finally {
+            OptionPacket.release(data);
+        }
+
+        if (!connection.hasExport(name)) {
+            writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ERR_UNKNOWN, null);
+            return false;
+        }
+        final ByteBuffer info = ByteBuffer.allocate(2 + 8 + 2);
+        Utils.putUnsignedShort(info, OptionReplyPacket.NBD_INFO_EXPORT);
+        Utils.putUnsignedLong(info, connection.getExportSize(name));
+        Utils.putUnsignedShort(info, getTransmissionFlags(connection, connection.isExportReadOnly(name)));
+        info.flip();
+        writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_INFO, info);
+        writeOptionReply(connection, optionValue, OptionReplyCmd.NBD_REP_ACK, null);
+
+        if (option.getOptionCode() == OptionCmd.NBD_OPT_GO) {
+            connection.setExportName(name);
+            connection.setNbdDevice(name);
+            LOGGER.debug("Export Name: " + name);
+        }
+        return true;
+    }
+
+    /**
+     * Read a string preceded by its length.
+     * 
+     * @param data
+     *            the option data
+     * @return the string
+     * @throws IllegalArgumentException
+     *             if the length exceeds the data
+     */
+    private static final String getString(final ByteBuffer data) {
+        final long length = Utils.getUnsignedInt(data);
+        if (length > data.remaining()) {
+            throw new IllegalArgumentException("Invalid length=" + length);
+        }
+        final byte[] bytes = new byte[(int) length];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the data of an option.
+     * 
+     * @param option
+     *            the option received
+     * @param connection
+     *            the {@link ClientConnection}
+     * @return the data, to release, or <code>null</code> if the data is too large and has been skipped
+     * @throws IOException
+     *             if the read on the socket failed
+     */
+    private final ByteBuffer readOptionData(final OptionPacket option, final ClientConnection connection)
+            throws IOException {
+        if (option.getSize() > MAX_OPTION_DATA_SIZE) {
+            skipOptionData(option, connection);
+            return null;
+        }
+        final ByteBuffer dst = OptionPacket.allocateData((int) option.getSize());
+        try {
+            connection.read(dst);
+            return dst;
+        }
+        catch (IOException | RuntimeException e) {
+            OptionPacket.release(dst);
+            throw e;
+        }
+    }
+
+    /**
+     * Consume the data of an option without processing them.
+     * 
+     * @param option
+     *            the option received
+     * @param connection
+     *            the {@link ClientConnection}
+     * @throws IOException
+     *             if the read on the socket failed
+     */
+    private final void skipOptionData(final OptionPacket option, final ClientConnection connection)
+            throws IOException {
+        long remaining = option.getSize();
+        while (remaining > 0) {
+            final ByteBuffer dst = OptionPacket.allocateData((int) Math.min(remaining, 4096));
+            try {
+                remaining -= connection.read(dst);
+            }
+            finally {
+                OptionPacket.release(dst);
+            }
+        }
+    }
+
+    /**
+     * Send a reply to an option.
+     * 
+     * @param connection
+     *            the {@link ClientConnection}
+     * @param optionValue
+     *            the code of the option
+     * @param reply
+     *            the reply
+     * @param data
+     *            the data of the reply, may be <code>null</code>
+     * @throws IOException
+     *             if the write on the socket failed
+     */
+    private final void writeOptionReply(final ClientConnection connection, final long optionValue,
+            final OptionReplyCmd reply, final ByteBuffer data) throws IOException {
+        final OptionReplyPacket packet = new OptionReplyPacket(OptionReplyPacket.MAGIC, optionValue, reply);
+        final ByteBuffer src = data == null ? OptionReplyPacket.serialize(packet, "") : OptionReplyPacket.serialize(
+                packet, data);
+        try {
+            connection.write(src);
+        }
+        finally {
+            OptionReplyPacket.release(src);
+        }
+    }
+
     /**
      * Handle the export name option.
      * 
@@ -249,26 +536,49 @@ final class HandshakePhase extends PhaseAbstract {
         LOGGER.debug("End Negotiation");
 
         // End of negotiation : send export flags and size
-        int flags = ExportFlagsPacket.NBD_FLAG_HAS_FLAGS;
+        final int flags = getTransmissionFlags(connection, connection.isExportReadOnly());
+        final ExportFlagsPacket packet = new ExportFlagsPacket(connection.getExportSize(), flags);
+        final ByteBuffer src = ExportFlagsPacket.serialize(packet);
+        try {
+            connection.write(src);
+        }
+        finally {
+            InitPacket.release(src);
+        }
+    }
 
-        if (connection.isExportReadOnly()) {
+    /**
+     * Gets the flags of an export sent at the end of the negotiation.
+     * 
+     * @param connection
+     *            the {@link ClientConnection}
+     * @param readOnly
+     *            <code>true</code> if the export is read-only
+     * @return the export flags
+     */
+    private static final int getTransmissionFlags(final ClientConnection connection, final boolean readOnly) {
+        // A flush writes the state of the whole device: covers the writes completed on the other connections
+        int flags = ExportFlagsPacket.NBD_FLAG_HAS_FLAGS | ExportFlagsPacket.NBD_FLAG_SEND_FLUSH
+                | ExportFlagsPacket.NBD_FLAG_SEND_FUA | ExportFlagsPacket.NBD_FLAG_CAN_MULTI_CONN;
+
+        if (readOnly) {
             LOGGER.debug("Set export read only");
             flags |= ExportFlagsPacket.NBD_FLAG_READ_ONLY;
         }
+        else {
+            flags |= ExportFlagsPacket.NBD_FLAG_SEND_WRITE_ZEROES;
+        }
         if (connection.isTrimEnabled()) {
             LOGGER.debug("Set trim allowed");
             flags |= ExportFlagsPacket.NBD_FLAG_SEND_TRIM;
         }
+        if (connection.isStructuredReplies()) {
+            // The client may ask for a read without holes
+            flags |= ExportFlagsPacket.NBD_FLAG_SEND_DF;
+        }
         /*
-         * Not supported flags |= NBD_FLAG_SEND_FLUSH; flags |= NBD_FLAG_SEND_FUA; flags |= NBD_FLAG_ROTATIONAL;
+         * Not supported flags |= NBD_FLAG_ROTATIONAL;
          */
-        final ExportFlagsPacket packet = new ExportFlagsPacket(connection.getExportSize(), flags);
-        final ByteBuffer src = ExportFlagsPacket.serialize(packet);
-        try {
-            connection.write(src);
-        }
-        finally {
-            InitPacket.release(src);
-        }
+        return flags;
     }
 }
@@ -23,6 +23,9 @@ package io.eguan.nbdsrv;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import com.google.common.util.concurrent.ListenableFuture;
 
 public interface NbdDevice extends Closeable {
 
@@ -67,6 +70,36 @@ public interface NbdDevice extends Closeable {
      */
     public void write(ByteBuffer src, int length, long offset) throws IOException;
 
+    /**
+     * Read bytes from device to a byte buffer, without waiting for the end of the read. The bytes are copied from the
+     * current position of the buffer, which is not changed. The buffer must not be accessed until the returned future
+     * is done.
+     * 
+     * @param dst
+     *            the {@link ByteBuffer} which will be filled with data from device
+     * @param length
+     *            the number of bytes to read
+     * @param offset
+     *            the offset of the first byte to be read
+     * @return a future done when the bytes are read. Fails with an {@link IOException} if the read fails
+     */
+    public ListenableFuture<Void> readAsync(ByteBuffer dst, int length, long offset);
+
+    /**
+     * Write bytes from a byte Buffer to the device, without waiting for the end of the write. The bytes are written
+     * from the current position of the buffer, which is not changed. The buffer must not be modified until the
+     * returned future is done.
+     * 
+     * @param src
+     *            the {@link ByteBuffer} which contains the data to be written
+     * @param length
+     *            the number of bytes to write
+     * @param offset
+     *            the offset of the first byte to write
+     * @return a future done when the bytes are written. Fails with an {@link IOException} if the write fails
+     */
+    public ListenableFuture<Void> writeAsync(ByteBuffer src, int length, long offset);
+
     /**
      * trim in a device.
      * 
@@ -77,4 +110,41 @@ public interface NbdDevice extends Closeable {
      */
     public void trim(long length, long offset) throws IOException;
 
+    /**
+     * Write zeros in a device, without any data transfer.
+     * 
+     * @param length
+     *            the number of bytes to set to zero
+     * @param offset
+     *            the offset of the first byte to write
+     * @throws IOException
+     */
+    public void writeZeroes(long length, long offset) throws IOException;
+
+    /**
+     * Writes the completed writes of the device to stable storage.
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException;
+
+    /**
+     * Gets the size of the allocation blocks of the device.
+     * 
+     * @return the number of bytes of a block reported by {@link #getAllocated(long, int)}
+     */
+    public int getAllocationBlockSize();
+
+    /**
+     * Tells which blocks of a range contain data. The other blocks are read as zeros.
+     * 
+     * @param firstBlock
+     *            index of the first block of the range
+     * @param count
+     *            number of blocks of the range
+     * @return the set of the blocks containing data, indexed from <code>firstBlock</code>
+     * @throws IOException
+     */
+    public BitSet getAllocated(long firstBlock, int count) throws IOException;
+
 }
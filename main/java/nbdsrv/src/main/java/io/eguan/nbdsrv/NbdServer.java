@@ -63,17 +63,25 @@ public final class NbdServer extends AbstractServer<ExportServer, NbdExport, Nbd
         private final InetAddress address;
         /** Trim state */
         private final boolean trimEnabled;
+        /** Maximum number of requests in progress on a connection */
+        private final int queueDepth;
+        /** Number of threads reading the requests of the connections */
+        private final int selectorCount;
         /** toString does not change */
         private final String toStr;
         /** Flag to tell that the configuration have been loaded */
         private final AtomicBoolean loaded = new AtomicBoolean(false);
 
-        NbdConfiguration(final NbdServer server, final int port, final InetAddress address, final boolean trimEnabled) {
+        NbdConfiguration(final NbdServer server, final int port, final InetAddress address, final boolean trimEnabled,
+                final int queueDepth, final int selectorCount) {
             this.server = server;
             this.port = port;
             this.address = address;
             this.trimEnabled = trimEnabled;
-            this.toStr = "NbdConfiguration[" + address.getHostAddress() + ":" + port + ",trim=" + trimEnabled + "]";
+            this.queueDepth = queueDepth;
+            this.selectorCount = selectorCount;
+            this.toStr = "NbdConfiguration[" + address.getHostAddress() + ":" + port + ",trim=" + trimEnabled
+                    + ",queueDepth=" + queueDepth + ",selectorCount=" + selectorCount + "]";
         }
 
         /**
@@ -122,6 +130,24 @@ public final class NbdServer extends AbstractServer<ExportServer, NbdExport, Nbd
             return trimEnabled;
         }
 
+        /**
+         * Gets the maximum number of requests processed concurrently on a connection.
+         * 
+         * @return the queue depth of the connections
+         */
+        public final int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * Gets the number of threads reading the requests of the connections.
+         * 
+         * @return the number of selectors
+         */
+        public final int getSelectorCount() {
+            return selectorCount;
+        }
+
         /*
          * (non-Javadoc)
          * 
@@ -155,7 +181,9 @@ public final class NbdServer extends AbstractServer<ExportServer, NbdExport, Nbd
     public NbdServer(@Nonnull final MetaConfiguration configuration) {
         this(NbdServerInetAddressConfigKey.getInstance().getTypedValue(configuration), NbdServerPortConfigKey
                 .getInstance().getTypedValue(configuration).intValue(), NbdServerTrimConfigKey.getInstance()
-                .getTypedValue(configuration));
+                .getTypedValue(configuration).booleanValue(), NbdServerQueueDepthConfigKey.getInstance()
+                .getTypedValue(configuration).intValue(), NbdServerSelectorCountConfigKey.getInstance()
+                .getTypedValue(configuration).intValue());
     }
 
     /**
@@ -192,7 +220,44 @@ public final class NbdServer extends AbstractServer<ExportServer, NbdExport, Nbd
      * 
      */
     public NbdServer(final InetAddress address, final int port, final boolean trim) {
-        super(new NbdServerConfig(address, port, trim), "NBD");
+        this(address, port, trim, NbdServerQueueDepthConfigKey.DEFAULT_VALUE);
+    }
+
+    /**
+     * Create a new server that will bind on the given address and port.
+     * 
+     * @param address
+     *            address to bind to
+     * @param port
+     *            port to bind to
+     * @param trim
+     *            is trim enabled
+     * @param queueDepth
+     *            maximum number of requests processed concurrently on a connection
+     * 
+     */
+    public NbdServer(final InetAddress address, final int port, final boolean trim, final int queueDepth) {
+        this(address, port, trim, queueDepth, NbdServerSelectorCountConfigKey.DEFAULT_VALUE);
+    }
+
+    /**
+     * Create a new server that will bind on the given address and port.
+     * 
+     * @param address
+     *            address to bind to
+     * @param port
+     *            port to bind to
+     * @param trim
+     *            is trim enabled
+     * @param queueDepth
+     *            maximum number of requests processed concurrently on a connection
+     * @param selectorCount
+     *            number of threads reading the requests of the connections
+     * 
+     */
+    public NbdServer(final InetAddress address, final int port, final boolean trim, final int queueDepth,
+            final int selectorCount) {
+        super(new NbdServerConfig(address, port, trim, queueDepth, selectorCount), "NBD");
     }
 
     /*
@@ -204,7 +269,8 @@ public final class NbdServer extends AbstractServer<ExportServer, NbdExport, Nbd
     protected final ExportServer createServer(final NbdServerConfig nbdServerConfig) {
         // Create a new server for the current configuration
         serverConfiguration = new NbdConfiguration(this, nbdServerConfig.getPort(), nbdServerConfig.getAddress(),
-                nbdServerConfig.isTrimEnabled());
+                nbdServerConfig.isTrimEnabled(), nbdServerConfig.getQueueDepth(),
+                nbdServerConfig.getSelectorCount());
         return server = new ExportServer(serverConfiguration);
     }
 
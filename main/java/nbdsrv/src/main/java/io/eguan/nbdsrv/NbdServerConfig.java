@@ -35,10 +35,25 @@ final class NbdServerConfig extends AbstractServerConfig {
 
     /** Tell if trim is enabled */
     private boolean trimEnabled;
+    /** Maximum number of requests in progress on a connection */
+    private final int queueDepth;
+    /** Number of threads reading the requests of the connections */
+    private final int selectorCount;
 
     NbdServerConfig(final InetAddress address, final int port, final boolean trimEnabled) {
+        this(address, port, trimEnabled, NbdServerQueueDepthConfigKey.DEFAULT_VALUE);
+    }
+
+    NbdServerConfig(final InetAddress address, final int port, final boolean trimEnabled, final int queueDepth) {
+        this(address, port, trimEnabled, queueDepth, NbdServerSelectorCountConfigKey.DEFAULT_VALUE);
+    }
+
+    NbdServerConfig(final InetAddress address, final int port, final boolean trimEnabled, final int queueDepth,
+            final int selectorCount) {
         super(address, port);
         this.trimEnabled = trimEnabled;
+        this.queueDepth = queueDepth;
+        this.selectorCount = selectorCount;
     }
 
     /**
@@ -60,11 +75,31 @@ final class NbdServerConfig extends AbstractServerConfig {
         this.trimEnabled = trimEnabled;
     }
 
+    /**
+     * Gets the maximum number of requests processed concurrently on a connection.
+     * 
+     * @return the queue depth of the connections
+     */
+    final int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Gets the number of threads reading the requests of the connections.
+     * 
+     * @return the number of selectors
+     */
+    final int getSelectorCount() {
+        return selectorCount;
+    }
+
     @Override
     public final int hashCode() {
         final int prime = 31;
         int result = super.hashCode();
         result = prime * result + (trimEnabled ? 1231 : 1237);
+        result = prime * result + queueDepth;
+        result = prime * result + selectorCount;
         return result;
     }
 
@@ -79,6 +114,10 @@ final class NbdServerConfig extends AbstractServerConfig {
         final NbdServerConfig other = (NbdServerConfig) obj;
         if (trimEnabled != other.trimEnabled)
             return false;
+        if (queueDepth != other.queueDepth)
+            return false;
+        if (selectorCount != other.selectorCount)
+            return false;
         return true;
     }
 
@@ -50,6 +50,7 @@ public final class NbdServerConfigurationContext extends AbstractConfigurationCo
      */
     private NbdServerConfigurationContext() {
         super(NAME, NbdServerPortConfigKey.getInstance(), NbdServerInetAddressConfigKey.getInstance(),
-                NbdServerTrimConfigKey.getInstance());
+                NbdServerTrimConfigKey.getInstance(), NbdServerQueueDepthConfigKey.getInstance(),
+                NbdServerSelectorCountConfigKey.getInstance());
     }
 }
@@ -0,0 +1,86 @@
+package io.eguan.nbdsrv;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.configuration.IntegerConfigKey;
+
+/**
+ * Key defining the number of threads waiting for the requests of the NBD connections.
+ * 
+ * <table border='1'>
+ * <tr>
+ * <th>NAME</th>
+ * <th>DESCRIPTION</th>
+ * <th>REQUIRED</th>
+ * <th>UNIT</th>
+ * <th>TYPE</th>
+ * <th>DEFAULT</th>
+ * <th>MIN</th>
+ * <th>MAX</th>
+ * </tr>
+ * <tr>
+ * <td>{@value #NAME}</td>
+ * <td>Number of selector threads reading the requests of the connections. The connections are spread across the
+ * selectors, including the connections to the same export.</td>
+ * <td>FALSE</td>
+ * <td>number of threads</td>
+ * <td>int</td>
+ * <td>{@value #DEFAULT_VALUE}</td>
+ * <td>{@value #MIN_VALUE}</td>
+ * <td>{@value #MAX_VALUE}</td>
+ * </tr>
+ * </table>
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class NbdServerSelectorCountConfigKey extends IntegerConfigKey {
+
+    private static final String NAME = "selector.count";
+
+    private static final int MIN_VALUE = 1;
+
+    private static final int MAX_VALUE = 64;
+
+    static final int DEFAULT_VALUE = 2;
+
+    private static final NbdServerSelectorCountConfigKey INSTANCE = new NbdServerSelectorCountConfigKey();
+
+    /**
+     * Gets the predefined singleton instance.
+     * 
+     * @return the singleton instance constructed with {@link #NbdServerSelectorCountConfigKey()}
+     */
+    public static final NbdServerSelectorCountConfigKey getInstance() {
+        return INSTANCE;
+    }
+
+    private NbdServerSelectorCountConfigKey() {
+        super(NAME, MIN_VALUE, MAX_VALUE);
+    }
+
+    @Override
+    public final Integer getDefaultValue() {
+        return Integer.valueOf(DEFAULT_VALUE);
+    }
+
+}
@@ -69,11 +69,11 @@ abstract class PhaseAbstract implements Callable<Boolean> {
         myThread.setName(threadName);
         try {
             if (execute()) {
-                connection.enableRead();
+                connection.readNext();
                 return true;
             }
             else {
-                connection.close();
+                connection.closeWhenIdle();
                 LOGGER.debug("Client disconnection request");
                 return false;
             }
@@ -33,7 +33,11 @@ public enum DataPushingCmd {
     /** Flush */
     NBD_CMD_FLUSH(0x03),
     /** Trim */
-    NBD_CMD_TRIM(0x04);
+    NBD_CMD_TRIM(0x04),
+    /** Write zeros, without payload */
+    NBD_CMD_WRITE_ZEROES(0x06),
+    /** Block status of the selected metadata contexts */
+    NBD_CMD_BLOCK_STATUS(0x07);
 
     private final long value;
 
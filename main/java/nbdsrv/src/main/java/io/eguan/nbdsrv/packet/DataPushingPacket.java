@@ -40,11 +40,22 @@ public final class DataPushingPacket {
     /** Magic */
     public static final long MAGIC = 0x25609513L;
 
+    /** The data must be on stable storage before the reply */
+    public static final int NBD_CMD_FLAG_FUA = (1 << 0);
+    /** NBD_CMD_WRITE_ZEROES: the zeros must be allocated */
+    public static final int NBD_CMD_FLAG_NO_HOLE = (1 << 1);
+    /** NBD_CMD_READ: the reply must be sent in a single data chunk, without holes */
+    public static final int NBD_CMD_FLAG_DF = (1 << 2);
+    /** NBD_CMD_BLOCK_STATUS: the reply must contain a single descriptor */
+    public static final int NBD_CMD_FLAG_REQ_ONE = (1 << 3);
+
     /** Static Size */
-    private static final int HEADER_SIZE = 32 / 8 + 32 / 8 + 64 / 8 + 64 / 8 + 32 / 8;
+    private static final int HEADER_SIZE = 32 / 8 + 16 / 8 + 16 / 8 + 64 / 8 + 64 / 8 + 32 / 8;
 
     /** Magic Number */
     private final long magic;
+    /** Command flags */
+    private final int flags;
     /** Request type */
     private final DataPushingCmd type;
     /** Handle to identify the request */
@@ -63,6 +74,15 @@ public final class DataPushingPacket {
         return magic;
     }
 
+    /**
+     * Gets the flags of the command.
+     * 
+     * @return the command flags
+     */
+    public final int getFlags() {
+        return flags;
+    }
+
     /**
      * Gets the command type contained int the request.
      * 
@@ -101,7 +121,13 @@ public final class DataPushingPacket {
 
     public DataPushingPacket(final long magic, final DataPushingCmd type, final long handle, final long from,
             final long len) {
+        this(magic, 0, type, handle, from, len);
+    }
+
+    public DataPushingPacket(final long magic, final int flags, final DataPushingCmd type, final long handle,
+            final long from, final long len) {
         this.magic = magic;
+        this.flags = flags;
         this.type = type;
         this.handle = handle;
         this.from = from;
@@ -136,7 +162,8 @@ public final class DataPushingPacket {
         final ByteBuffer buffer = allocateHeader();
 
         Utils.putUnsignedInt(buffer, packet.magic);
-        Utils.putUnsignedInt(buffer, packet.type.value());
+        Utils.putUnsignedShort(buffer, packet.flags);
+        Utils.putUnsignedShort(buffer, (int) packet.type.value());
         Utils.putUnsignedLong(buffer, packet.handle);
         Utils.putUnsignedLong(buffer, packet.from);
         Utils.putUnsignedInt(buffer, packet.len);
@@ -157,9 +184,14 @@ public final class DataPushingPacket {
             LOGGER.trace("magicNumber=0x" + Long.toHexString(magicNumber));
         }
 
-        final DataPushingCmd type = DataPushingCmd.valueOf(Utils.getUnsignedInt(buffer));
+        final int flags = Utils.getUnsignedShort(buffer);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("flags=0x" + Integer.toHexString(flags));
+        }
+
+        final DataPushingCmd type = DataPushingCmd.valueOf(Utils.getUnsignedShort(buffer));
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("type=0x" + Long.toHexString(type.value()));
+            LOGGER.trace("type=" + type);
         }
 
         // No need to check the sign
@@ -174,7 +206,8 @@ public final class DataPushingPacket {
         // The len and from for the command different from READ and WRITE, might be a value which can not be contained
         // in a signed long, so ignore it
         if (type == DataPushingCmd.NBD_CMD_READ || type == DataPushingCmd.NBD_CMD_WRITE
-                || type == DataPushingCmd.NBD_CMD_TRIM) {
+                || type == DataPushingCmd.NBD_CMD_TRIM || type == DataPushingCmd.NBD_CMD_WRITE_ZEROES
+                || type == DataPushingCmd.NBD_CMD_BLOCK_STATUS) {
             from = Utils.getUnsignedLong(buffer);
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.trace("from=0x" + Long.toHexString(from));
@@ -189,6 +222,6 @@ public final class DataPushingPacket {
             len = 0;
             from = 0;
         }
-        return new DataPushingPacket(magicNumber, type, handle, from, len);
+        return new DataPushingPacket(magicNumber, flags, type, handle, from, len);
     }
 }
@@ -40,6 +40,12 @@ public final class ExportFlagsPacket {
     public static final int NBD_FLAG_ROTATIONAL = (1 << 4);
     /** if the server supports NBD_CMD_TRIM */
     public static final int NBD_FLAG_SEND_TRIM = (1 << 5);
+    /** if the server supports NBD_CMD_WRITE_ZEROES */
+    public static final int NBD_FLAG_SEND_WRITE_ZEROES = (1 << 6);
+    /** if the server supports NBD_CMD_FLAG_DF */
+    public static final int NBD_FLAG_SEND_DF = (1 << 7);
+    /** if the client may open several connections to the export: a flush covers the writes of all connections */
+    public static final int NBD_FLAG_CAN_MULTI_CONN = (1 << 8);
 
     /** Static Sizes */
     private static final int RESERVED_BYTES_SIZE = 124;
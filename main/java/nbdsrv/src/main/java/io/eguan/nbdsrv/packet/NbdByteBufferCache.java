@@ -35,9 +35,13 @@ import java.nio.ByteOrder;
 public final class NbdByteBufferCache {
 
     // Allocate direct buffers for data only, needs big endian to read network integers
-    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache(Utils.MAX_HEADER_SIZE,
+    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache("nbd", Utils.MAX_HEADER_SIZE,
             ByteOrder.BIG_ENDIAN);
 
+    static {
+        BYTE_BUFFER_CACHE.registerPlatformMXBean();
+    }
+
     /**
      * No instance.
      */
@@ -24,7 +24,17 @@ import com.carrotsearch.hppc.LongObjectOpenHashMap;
 
 // unsigned 32 bits
 public enum OptionCmd {
-    NBD_OPT_EXPORT_NAME(0x01), NBD_OPT_ABORT(0x02), NBD_OPT_LIST(0x03);
+    NBD_OPT_EXPORT_NAME(0x01), NBD_OPT_ABORT(0x02), NBD_OPT_LIST(0x03),
+    /** Export information, without ending the negotiation */
+    NBD_OPT_INFO(0x06),
+    /** Export information, then ends the negotiation */
+    NBD_OPT_GO(0x07),
+    /** Replies of the data pushing phase may be structured */
+    NBD_OPT_STRUCTURED_REPLY(0x08),
+    /** List the metadata contexts */
+    NBD_OPT_LIST_META_CONTEXT(0x09),
+    /** Select the metadata contexts reported by NBD_CMD_BLOCK_STATUS */
+    NBD_OPT_SET_META_CONTEXT(0x0a);
 
     private final long value;
 
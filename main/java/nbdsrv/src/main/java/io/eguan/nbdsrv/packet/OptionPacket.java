@@ -39,12 +39,19 @@ public final class OptionPacket {
     private final long magicNumber;
     /** Option code */
     private final OptionCmd optionCode;
+    /** Value of the option code, set even if the option is not known */
+    private final long optionValue;
     /** Size of the data */
     private final long size;
 
     public OptionPacket(final long magicNumber, final OptionCmd optionCode, final long size) {
+        this(magicNumber, optionCode, optionCode.value(), size);
+    }
+
+    private OptionPacket(final long magicNumber, final OptionCmd optionCode, final long optionValue, final long size) {
         this.magicNumber = magicNumber;
         this.optionCode = optionCode;
+        this.optionValue = optionValue;
         this.size = size;
     }
 
@@ -66,6 +73,15 @@ public final class OptionPacket {
         return optionCode;
     }
 
+    /**
+     * Gets the value of the option code.
+     * 
+     * @return the option code received, even if the option is not known
+     */
+    public final long getOptionValue() {
+        return optionValue;
+    }
+
     /**
      * Gets the size of the next data.
      * 
@@ -156,12 +172,13 @@ public final class OptionPacket {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("magicNumber=0x" + Long.toHexString(magicNumber));
         }
-        final OptionCmd optionCode = OptionCmd.valueOf(Utils.getUnsignedInt(buffer));
+        final long optionValue = Utils.getUnsignedInt(buffer);
+        final OptionCmd optionCode = OptionCmd.valueOf(optionValue);
         final long size = Utils.getUnsignedInt(buffer);
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("size=0x" + Long.toHexString(size));
         }
-        return new OptionPacket(magicNumber, optionCode, size);
+        return new OptionPacket(magicNumber, optionCode, optionValue, size);
     }
 
     /**
@@ -185,7 +202,7 @@ public final class OptionPacket {
      * @return a String
      */
     public static final String getData(final ByteBuffer dst) {
-        return new String(dst.array());
+        return new String(dst.array(), dst.arrayOffset(), dst.capacity());
     }
 
 }
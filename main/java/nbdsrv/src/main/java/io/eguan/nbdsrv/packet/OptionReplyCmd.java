@@ -32,26 +32,34 @@ public enum OptionReplyCmd {
 
     /* A description of an export */
     NBD_REP_SERVER(0x02),
+    /* Information about an export, in reply to NBD_OPT_INFO or NBD_OPT_GO */
+    NBD_REP_INFO(0x03),
+    /* A metadata context, in reply to NBD_OPT_LIST_META_CONTEXT or NBD_OPT_SET_META_CONTEXT */
+    NBD_REP_META_CONTEXT(0x04),
     /*
      * The option sent by the client is unknown by this server implementation (e.g., because the server is too old, or
      * from another source).
      */
-    NBD_REP_ERR_UNSUP(2 ^ 31 + 1),
+    NBD_REP_ERR_UNSUP((1L << 31) + 1),
     /*
      * The option sent by the client is known by this server and syntactically valid, but server-side policy forbids the
      * server to allow the option (e.g., the client sent NBD_OPT_LIST but server configuration has that disabled)
      */
-    NBD_REP_ERR_POLICY(2 ^ 31 + 2),
+    NBD_REP_ERR_POLICY((1L << 31) + 2),
     /*
      * The option sent by the client is know by this server, but was determined by the server to be syntactically
      * invalid. For instance, the client sent an NBD_OPT_LIST with nonzero data length.
      */
-    NBD_REP_ERR_INVALID(2 ^ 31 + 3),
+    NBD_REP_ERR_INVALID((1L << 31) + 3),
     /*
      * The option sent by the client is not supported on the platform on which the server is running. Not currently
      * used.
      */
-    NBD_REP_ERR_PLATFORM(2 ^ 31 + 4);
+    NBD_REP_ERR_PLATFORM((1L << 31) + 4),
+    /*
+     * The export requested by the client is not available.
+     */
+    NBD_REP_ERR_UNKNOWN((1L << 31) + 6);
 
     private final long value;
 
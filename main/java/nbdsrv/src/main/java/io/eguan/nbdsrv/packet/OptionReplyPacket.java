@@ -37,6 +37,9 @@ public final class OptionReplyPacket {
     /** Magic */
     public static final long MAGIC = 0x3e889045565a9L;
 
+    /** Type of the NBD_REP_INFO giving the size and the flags of the export */
+    public static final int NBD_INFO_EXPORT = 0;
+
     /** Static size */
     private static final int HEADER_SIZE = 64 / 8 + 32 / 8 + 32 / 8 + 32 / 8;
 
@@ -44,15 +47,37 @@ public final class OptionReplyPacket {
     private final long magic;
     /** Option code */
     private final OptionCmd optionCmd;
+    /** Value of the option code, set even if the option is not known */
+    private final long optionValue;
     /** Option reply code */
     private final OptionReplyCmd replyCmd;
     /** The data size */
     private long dataSize;
 
     public OptionReplyPacket(final long magic, final OptionCmd option, final OptionReplyCmd reply) {
+        this(magic, option, option.value(), reply);
+    }
+
+    /**
+     * Reply to an option that may not be known.
+     * 
+     * @param magic
+     *            the magic number
+     * @param optionValue
+     *            the value of the option code received
+     * @param reply
+     *            the reply code
+     */
+    public OptionReplyPacket(final long magic, final long optionValue, final OptionReplyCmd reply) {
+        this(magic, OptionCmd.valueOf(optionValue), optionValue, reply);
+    }
+
+    private OptionReplyPacket(final long magic, final OptionCmd option, final long optionValue,
+            final OptionReplyCmd reply) {
         super();
         this.magic = magic;
         this.optionCmd = option;
+        this.optionValue = optionValue;
         this.replyCmd = reply;
     }
 
@@ -153,7 +178,7 @@ public final class OptionReplyPacket {
             buffer = allocateHeader();
         }
         Utils.putUnsignedLong(buffer, packet.magic);
-        Utils.putUnsignedInt(buffer, packet.optionCmd.value());
+        Utils.putUnsignedInt(buffer, packet.optionValue);
         Utils.putUnsignedInt(buffer, packet.replyCmd.value());
 
         if (data.length() != 0) {
@@ -168,6 +193,28 @@ public final class OptionReplyPacket {
         return buffer;
     }
 
+    /**
+     * Serialize a {@link OptionReplyPacket} followed by binary data in a {@link ByteBuffer}.
+     * 
+     * @param packet
+     *            the {@link OptionReplyPacket} to serialize
+     * @param data
+     *            the data to transfer, from its position to its limit. The position of the buffer is not changed
+     * 
+     * @return the {@link ByteBuffer}
+     */
+    public static final ByteBuffer serialize(final OptionReplyPacket packet, final ByteBuffer data) {
+        final int dataSize = data.remaining();
+        final ByteBuffer buffer = NbdByteBufferCache.allocate(HEADER_SIZE + dataSize);
+        Utils.putUnsignedLong(buffer, packet.magic);
+        Utils.putUnsignedInt(buffer, packet.optionValue);
+        Utils.putUnsignedInt(buffer, packet.replyCmd.value());
+        Utils.putUnsignedInt(buffer, dataSize);
+        buffer.put(data.duplicate());
+        buffer.flip();
+        return buffer;
+    }
+
     /**
      * Serialize a {@link OptionReplyPacket} in an array {@link ByteBuffer}
      * 
@@ -234,7 +281,7 @@ public final class OptionReplyPacket {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("size=0x" + Long.toHexString(size));
         }
-        final OptionReplyPacket packet = new OptionReplyPacket(magic, option, reply);
+        final OptionReplyPacket packet = new OptionReplyPacket(magic, option, value, reply);
         packet.dataSize = size;
         return packet;
     }
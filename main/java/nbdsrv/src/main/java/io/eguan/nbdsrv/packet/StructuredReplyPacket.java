@@ -0,0 +1,301 @@
+package io.eguan.nbdsrv.packet;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Represents the header of a chunk of a structured reply, sent during the data pushing phase once the structured
+ * replies have been negotiated. A reply is made of one or more chunks, the last one has the flag
+ * {@link #NBD_REPLY_FLAG_DONE}. The payload of the chunk follows the header.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class StructuredReplyPacket {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StructuredReplyPacket.class);
+
+    /** Magic */
+    public static final long MAGIC = 0x668e33efL;
+
+    /** Last chunk of the reply */
+    public static final int NBD_REPLY_FLAG_DONE = (1 << 0);
+
+    /** Block status: the range is not allocated */
+    public static final int NBD_STATE_HOLE = (1 << 0);
+    /** Block status: the range is read as zeros */
+    public static final int NBD_STATE_ZERO = (1 << 1);
+
+    /** Static size */
+    public static final int HEADER_SIZE = 32 / 8 + 16 / 8 + 16 / 8 + 64 / 8 + 32 / 8;
+
+    /** Size of the offset in the payload of OFFSET_DATA and OFFSET_HOLE */
+    private static final int OFFSET_SIZE = 64 / 8;
+    /** Size of a block status descriptor */
+    private static final int DESCRIPTOR_SIZE = 32 / 8 + 32 / 8;
+
+    /** Magic Number */
+    private final long magic;
+    /** Chunk flags */
+    private final int flags;
+    /** Chunk type */
+    private final StructuredReplyType type;
+    /** Handle of the request */
+    private final long handle;
+    /** Length of the payload */
+    private final long length;
+
+    public StructuredReplyPacket(final long magic, final int flags, final StructuredReplyType type, final long handle,
+            final long length) {
+        super();
+        this.magic = magic;
+        this.flags = flags;
+        this.type = type;
+        this.handle = handle;
+        this.length = length;
+    }
+
+    /**
+     * Get the magic number.
+     * 
+     * @return the magic number
+     */
+    public final long getMagic() {
+        return magic;
+    }
+
+    /**
+     * Get the flags of the chunk.
+     * 
+     * @return the flags
+     */
+    public final int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the type of the chunk.
+     * 
+     * @return the type
+     */
+    public final StructuredReplyType getType() {
+        return type;
+    }
+
+    /**
+     * Get the handle.
+     * 
+     * @return the handle
+     */
+    public final long getHandle() {
+        return handle;
+    }
+
+    /**
+     * Get the length of the payload.
+     * 
+     * @return the length
+     */
+    public final long getLength() {
+        return length;
+    }
+
+    /**
+     * Allocate header for {@link StructuredReplyPacket}.
+     * 
+     * @return the allocated {@link ByteBuffer}
+     */
+    public static final ByteBuffer allocateHeader() {
+        return (ByteBuffer) NbdByteBufferCache.allocate(Utils.MAX_HEADER_SIZE).limit(HEADER_SIZE);
+    }
+
+    /**
+     * Release an {@link ByteBuffer}.
+     * 
+     * @param buffer
+     *            the buffer to release
+     */
+    public static final void release(final ByteBuffer buffer) {
+        NbdByteBufferCache.release(buffer);
+    }
+
+    /**
+     * Serialize the header of a chunk.
+     * 
+     * @param buffer
+     *            destination buffer
+     * @param packet
+     *            the header to write
+     */
+    private static final void putHeader(final ByteBuffer buffer, final StructuredReplyPacket packet) {
+        Utils.putUnsignedInt(buffer, packet.magic);
+        Utils.putUnsignedShort(buffer, packet.flags);
+        Utils.putUnsignedShort(buffer, (int) packet.type.value());
+        buffer.putLong(packet.handle);
+        Utils.putUnsignedInt(buffer, packet.length);
+    }
+
+    /**
+     * Serialize the header of a NBD_REPLY_TYPE_OFFSET_DATA chunk. The data must be sent after the returned buffer.
+     * 
+     * @param flags
+     *            the chunk flags
+     * @param handle
+     *            the handle of the request
+     * @param offset
+     *            the offset of the data in the export
+     * @param dataLength
+     *            the length of the data
+     * @return the serialized {@link ByteBuffer}
+     */
+    public static final ByteBuffer serializeOffsetData(final int flags, final long handle, final long offset,
+            final int dataLength) {
+        final ByteBuffer buffer = NbdByteBufferCache.allocate(HEADER_SIZE + OFFSET_SIZE);
+        putHeader(buffer, new StructuredReplyPacket(MAGIC, flags, StructuredReplyType.NBD_REPLY_TYPE_OFFSET_DATA,
+                handle, OFFSET_SIZE + dataLength));
+        Utils.putUnsignedLong(buffer, offset);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Serialize a NBD_REPLY_TYPE_OFFSET_HOLE chunk.
+     * 
+     * @param flags
+     *            the chunk flags
+     * @param handle
+     *            the handle of the request
+     * @param offset
+     *            the offset of the hole in the export
+     * @param holeLength
+     *            the length of the hole
+     * @return the serialized {@link ByteBuffer}
+     */
+    public static final ByteBuffer serializeOffsetHole(final int flags, final long handle, final long offset,
+            final int holeLength) {
+        final ByteBuffer buffer = NbdByteBufferCache.allocate(HEADER_SIZE + OFFSET_SIZE + 32 / 8);
+        putHeader(buffer, new StructuredReplyPacket(MAGIC, flags, StructuredReplyType.NBD_REPLY_TYPE_OFFSET_HOLE,
+                handle, OFFSET_SIZE + 32 / 8));
+        Utils.putUnsignedLong(buffer, offset);
+        Utils.putUnsignedInt(buffer, holeLength);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Serialize a NBD_REPLY_TYPE_BLOCK_STATUS chunk.
+     * 
+     * @param flags
+     *            the chunk flags
+     * @param handle
+     *            the handle of the request
+     * @param contextId
+     *            the identifier of the metadata context
+     * @param lengths
+     *            the length of the descriptors
+     * @param states
+     *            the state of the descriptors
+     * @param count
+     *            the number of descriptors
+     * @return the serialized {@link ByteBuffer}
+     */
+    public static final ByteBuffer serializeBlockStatus(final int flags, final long handle, final long contextId,
+            final long[] lengths, final int[] states, final int count) {
+        final int payloadLength = 32 / 8 + count * DESCRIPTOR_SIZE;
+        final ByteBuffer buffer = NbdByteBufferCache.allocate(HEADER_SIZE + payloadLength);
+        putHeader(buffer, new StructuredReplyPacket(MAGIC, flags, StructuredReplyType.NBD_REPLY_TYPE_BLOCK_STATUS,
+                handle, payloadLength));
+        Utils.putUnsignedInt(buffer, contextId);
+        for (int i = 0; i < count; i++) {
+            Utils.putUnsignedInt(buffer, lengths[i]);
+            Utils.putUnsignedInt(buffer, states[i]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Serialize a NBD_REPLY_TYPE_ERROR chunk, without message.
+     * 
+     * @param flags
+     *            the chunk flags
+     * @param handle
+     *            the handle of the request
+     * @param error
+     *            the error code
+     * @return the serialized {@link ByteBuffer}
+     */
+    public static final ByteBuffer serializeError(final int flags, final long handle, final DataPushingError error) {
+        final int payloadLength = 32 / 8 + 16 / 8;
+        final ByteBuffer buffer = NbdByteBufferCache.allocate(HEADER_SIZE + payloadLength);
+        putHeader(buffer, new StructuredReplyPacket(MAGIC, flags, StructuredReplyType.NBD_REPLY_TYPE_ERROR, handle,
+                payloadLength));
+        Utils.putUnsignedInt(buffer, error.value());
+        Utils.putUnsignedShort(buffer, 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Serialize a NBD_REPLY_TYPE_NONE chunk, the final chunk of a reply.
+     * 
+     * @param handle
+     *            the handle of the request
+     * @return the serialized {@link ByteBuffer}
+     */
+    public static final ByteBuffer serializeNone(final long handle) {
+        final ByteBuffer buffer = allocateHeader();
+        putHeader(buffer, new StructuredReplyPacket(MAGIC, NBD_REPLY_FLAG_DONE,
+                StructuredReplyType.NBD_REPLY_TYPE_NONE, handle, 0));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Deserialize the header of a chunk.
+     * 
+     * @param buffer
+     *            the buffer to decode
+     * @return the {@link StructuredReplyPacket}
+     * @throws NbdException
+     *             if the magic number is not valid
+     */
+    public static final StructuredReplyPacket deserialize(final ByteBuffer buffer) throws NbdException {
+        final long magic = Utils.getUnsignedInt(buffer);
+        if (magic != MAGIC) {
+            throw new NbdException("Illegal magic number for structured reply: 0x" + Long.toHexString(magic));
+        }
+        final int flags = Utils.getUnsignedShort(buffer);
+        final StructuredReplyType type = StructuredReplyType.valueOf(Utils.getUnsignedShort(buffer));
+        final long handle = Utils.getUnsignedLong(buffer);
+        final long length = Utils.getUnsignedInt(buffer);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("flags=0x" + Integer.toHexString(flags) + ", type=" + type + ", handle=0x"
+                    + Long.toHexString(handle) + ", length=" + length);
+        }
+        return new StructuredReplyPacket(magic, flags, type, handle, length);
+    }
+}
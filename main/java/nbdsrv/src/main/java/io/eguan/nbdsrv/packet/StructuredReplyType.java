@@ -0,0 +1,80 @@
+package io.eguan.nbdsrv.packet;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+
+/**
+ * Types of the chunks of a structured reply.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public enum StructuredReplyType {
+
+    /** No payload, final chunk of a reply */
+    NBD_REPLY_TYPE_NONE(0x00),
+    /** Data read at a given offset */
+    NBD_REPLY_TYPE_OFFSET_DATA(0x01),
+    /** Range read as zeros */
+    NBD_REPLY_TYPE_OFFSET_HOLE(0x02),
+    /** Block status descriptors of a metadata context */
+    NBD_REPLY_TYPE_BLOCK_STATUS(0x05),
+    /** Error of the request */
+    NBD_REPLY_TYPE_ERROR((1 << 15) + 1);
+
+    private final long value;
+
+    private static LongObjectOpenHashMap<StructuredReplyType> mapping;
+
+    static {
+        StructuredReplyType.mapping = new LongObjectOpenHashMap<StructuredReplyType>(values().length);
+        for (final StructuredReplyType s : values()) {
+            StructuredReplyType.mapping.put(s.value, s);
+        }
+    }
+
+    private StructuredReplyType(final long newValue) {
+        value = newValue;
+    }
+
+    /**
+     * Return the long value of the chunk type.
+     * 
+     * @return the value
+     * 
+     */
+    public final long value() {
+        return value;
+    }
+
+    /**
+     * Return the chunk type corresponding to a long.
+     * 
+     * @param value
+     *            the value to translate in a {@link StructuredReplyType}
+     * 
+     */
+    public static final StructuredReplyType valueOf(final long value) {
+        return StructuredReplyType.mapping.get(value);
+    }
+}
@@ -24,17 +24,26 @@ import io.eguan.nbdsrv.NbdDevice;
 import io.eguan.srv.AbstractDeviceFile;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NbdDeviceFile extends AbstractDeviceFile implements NbdDevice {
 
+    /** Blocks filled with zeros are reported as not allocated */
+    static final int ALLOCATION_BLOCK_SIZE = 4096;
+
     NbdDeviceFile(final FileChannel fileChannel, final String path) {
         super(fileChannel, path);
     }
 
     private final ArrayList<TestTrim> trimList = new ArrayList<>();
 
+    /** Number of calls to {@link #flush()} */
+    private final AtomicInteger flushCount = new AtomicInteger();
+
     static class TestTrim {
         private final long length;
         private final long offset;
@@ -64,6 +73,47 @@ public class NbdDeviceFile extends AbstractDeviceFile implements NbdDevice {
         trimList.add(new TestTrim(len, from));
     }
 
+    @Override
+    public final void writeZeroes(final long len, final long from) throws IOException {
+        final ByteBuffer zeros = ByteBuffer.allocate(ALLOCATION_BLOCK_SIZE);
+        long done = 0;
+        while (done < len) {
+            final int length = (int) Math.min(len - done, ALLOCATION_BLOCK_SIZE);
+            zeros.clear();
+            write(zeros, length, from + done);
+            done += length;
+        }
+    }
+
+    @Override
+    public final void flush() throws IOException {
+        flushCount.incrementAndGet();
+    }
+
+    @Override
+    public final int getAllocationBlockSize() {
+        return ALLOCATION_BLOCK_SIZE;
+    }
+
+    @Override
+    public final BitSet getAllocated(final long firstBlock, final int count) throws IOException {
+        final BitSet result = new BitSet(count);
+        final ByteBuffer block = ByteBuffer.allocate(ALLOCATION_BLOCK_SIZE);
+        for (int i = 0; i < count; i++) {
+            final long offset = (firstBlock + i) * ALLOCATION_BLOCK_SIZE;
+            block.clear();
+            read(block, (int) Math.min(ALLOCATION_BLOCK_SIZE, getSize() - offset), offset);
+            block.flip();
+            while (block.hasRemaining()) {
+                if (block.get() != 0) {
+                    result.set(i);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
     final TestTrim peekTrim() {
         return trimList.remove(0);
     }
@@ -71,4 +121,8 @@ public class NbdDeviceFile extends AbstractDeviceFile implements NbdDevice {
     final int getTrimListSize() {
         return trimList.size();
     }
+
+    final int getFlushCount() {
+        return flushCount.get();
+    }
 }
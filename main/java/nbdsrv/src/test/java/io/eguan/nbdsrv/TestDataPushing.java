@@ -23,7 +23,11 @@ package io.eguan.nbdsrv;
 import io.eguan.nbdsrv.NbdExport;
 import io.eguan.nbdsrv.NbdDeviceFile.TestTrim;
 import io.eguan.nbdsrv.client.Client;
+import io.eguan.nbdsrv.packet.DataPushingError;
+import io.eguan.nbdsrv.packet.DataPushingPacket;
+import io.eguan.nbdsrv.packet.ExportFlagsPacket;
 import io.eguan.nbdsrv.packet.NbdException;
+import io.eguan.nbdsrv.packet.StructuredReplyPacket;
 
 import java.io.File;
 import java.io.IOException;
@@ -78,6 +82,246 @@ public class TestDataPushing extends TestNbdAbstract {
         }
     }
 
+    /**
+     * NBD_CMD_WRITE_ZEROES sets a range to zero without payload, NBD_CMD_FLUSH and the flag FUA flush the device.
+     */
+    @Test
+    public void testTargetWriteZeroesFlush() throws Exception {
+        final ByteBuffer writeData = ByteBuffer.allocate(4 * blockSize);
+        for (int i = 0; i < writeData.capacity(); i++) {
+            writeData.put((byte) (i + 1));
+        }
+        writeData.flip();
+        final long offset = 64 * blockSize;
+        client.write(writeData, offset);
+
+        final int flushCount = device.getFlushCount();
+        Assert.assertEquals(DataPushingError.NBD_NO_ERROR, client.writeZeroes(offset + blockSize / 2, 2 * blockSize,
+                0));
+        Assert.assertEquals(flushCount, device.getFlushCount());
+        Assert.assertEquals(DataPushingError.NBD_NO_ERROR,
+                client.writeZeroes(offset + 3 * blockSize, blockSize, DataPushingPacket.NBD_CMD_FLAG_FUA));
+        Assert.assertEquals(flushCount + 1, device.getFlushCount());
+        Assert.assertEquals(DataPushingError.NBD_NO_ERROR, client.flush());
+        Assert.assertEquals(flushCount + 2, device.getFlushCount());
+
+        final ByteBuffer readData = ByteBuffer.allocate(4 * blockSize);
+        client.read(readData, offset);
+        for (int i = 0; i < readData.capacity(); i++) {
+            final boolean zero = (i >= blockSize / 2 && i < 2 * blockSize + blockSize / 2) || i >= 3 * blockSize;
+            Assert.assertEquals("i=" + i, zero ? 0 : (byte) (i + 1), readData.get(i));
+        }
+    }
+
+    /**
+     * Several connections to the same export, spread across the selectors: the writes of a connection are read by the
+     * others.
+     */
+    @Test
+    public void testTargetMultiConn() throws Exception {
+        final int count = 4;
+        final Client[] clients = new Client[count];
+        for (int i = 0; i < count; i++) {
+            clients[i] = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+            clients[i].handshake();
+            clients[i].setExportName(deviceFileName);
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer writeData = ByteBuffer.allocate(blockSize);
+                for (int j = 0; j < blockSize; j++) {
+                    writeData.put((byte) (i + j + 1));
+                }
+                writeData.flip();
+                clients[i].write(writeData, (128L + i) * blockSize);
+            }
+            Assert.assertEquals(DataPushingError.NBD_NO_ERROR, clients[0].flush());
+
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer readData = ByteBuffer.allocate(blockSize);
+                clients[(i + 1) % count].read(readData, (128L + i) * blockSize);
+                for (int j = 0; j < blockSize; j++) {
+                    Assert.assertEquals((byte) (i + j + 1), readData.get(j));
+                }
+            }
+        }
+        finally {
+            for (int i = 0; i < count; i++) {
+                clients[i].disconnect();
+            }
+        }
+    }
+
+    /**
+     * Several requests sent at once are processed concurrently, the replies are sent in any order.
+     */
+    @Test
+    public void testTargetPipelined() throws Exception {
+        final int count = 32;
+        final ByteBuffer[] writeData = new ByteBuffer[count];
+        final long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            writeData[i] = ByteBuffer.allocate(blockSize);
+            for (int j = 0; j < blockSize; j++) {
+                writeData[i].put((byte) (i + j));
+            }
+            writeData[i].flip();
+            // Reverse order
+            offsets[i] = (long) (count - i) * blockSize;
+        }
+        client.write(writeData, offsets);
+
+        final ByteBuffer[] readData = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            readData[i] = ByteBuffer.allocate(blockSize);
+        }
+        client.read(readData, offsets);
+        for (int i = 0; i < count; i++) {
+            writeData[i].rewind();
+            Assert.assertEquals(writeData[i], readData[i]);
+        }
+    }
+
+    /**
+     * With structured replies, the blocks not allocated are read as holes and reported by NBD_CMD_BLOCK_STATUS.
+     */
+    @Test
+    public void testTargetStructuredRead() throws Exception {
+        final File newDevice = addNewExport();
+        try {
+            final String name = newDevice.getAbsolutePath();
+            final Client newClient = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+            newClient.handshake();
+            newClient.structuredReply();
+            newClient.setMetaContext(name, "base:allocation");
+            newClient.setExportName(name);
+            try {
+                // Write block 2
+                final ByteBuffer writeData = ByteBuffer.allocate(blockSize);
+                for (int i = 0; i < blockSize; i++) {
+                    writeData.put((byte) (i + 1));
+                }
+                writeData.flip();
+                newClient.write(writeData, 2 * blockSize);
+
+                // Read blocks 0 to 7: one data chunk and two holes
+                final ByteBuffer readData = ByteBuffer.allocate(8 * blockSize);
+                for (int i = 0; i < readData.capacity(); i++) {
+                    readData.put(i, (byte) 0xFF);
+                }
+                newClient.read(readData, 0);
+                Assert.assertEquals(7 * blockSize, newClient.getHoleBytes());
+                for (int i = 0; i < readData.capacity(); i++) {
+                    final byte expected = i >= 2 * blockSize && i < 3 * blockSize ? writeData.get(i - 2
+                            * blockSize) : 0;
+                    Assert.assertEquals(expected, readData.get(i));
+                }
+
+                // Read without holes: a single data chunk
+                Assert.assertTrue((newClient.getExportFlags() & ExportFlagsPacket.NBD_FLAG_SEND_DF) != 0);
+                for (int i = 0; i < readData.capacity(); i++) {
+                    readData.put(i, (byte) 0xFF);
+                }
+                newClient.read(readData, 0, DataPushingPacket.NBD_CMD_FLAG_DF);
+                Assert.assertEquals(7 * blockSize, newClient.getHoleBytes());
+                for (int i = 0; i < readData.capacity(); i++) {
+                    final byte expected = i >= 2 * blockSize && i < 3 * blockSize ? writeData.get(i - 2
+                            * blockSize) : 0;
+                    Assert.assertEquals(expected, readData.get(i));
+                }
+
+                // Read not aligned
+                final ByteBuffer readPart = ByteBuffer.allocate(blockSize);
+                newClient.read(readPart, 2 * blockSize + 100);
+                for (int i = 0; i < blockSize; i++) {
+                    final byte expected = i < blockSize - 100 ? writeData.get(i + 100) : 0;
+                    Assert.assertEquals(expected, readPart.get(i));
+                }
+
+                // Block status
+                final int hole = StructuredReplyPacket.NBD_STATE_HOLE | StructuredReplyPacket.NBD_STATE_ZERO;
+                Assert.assertArrayEquals(new long[] { 2 * blockSize, hole, blockSize, 0, 5 * blockSize, hole },
+                        newClient.blockStatus(0, 8 * blockSize, 0));
+                Assert.assertArrayEquals(new long[] { 2 * blockSize, hole },
+                        newClient.blockStatus(0, 8 * blockSize, DataPushingPacket.NBD_CMD_FLAG_REQ_ONE));
+                Assert.assertArrayEquals(new long[] { blockSize - 10, 0, 10, hole },
+                        newClient.blockStatus(2 * blockSize + 10, blockSize, 0));
+
+                // Invalid range: structured error, the connection can still be used
+                try {
+                    newClient.blockStatus(newClient.getExportSize() - blockSize, 2 * blockSize, 0);
+                    Assert.fail();
+                }
+                catch (final NbdException e) {
+                    // ok
+                }
+                Assert.assertArrayEquals(new long[] { 2 * blockSize, hole },
+                        newClient.blockStatus(0, 2 * blockSize, 0));
+            }
+            finally {
+                newClient.disconnect();
+            }
+        }
+        finally {
+            removeExport(newDevice);
+        }
+    }
+
+    /**
+     * Read runs of data and long runs of zeros with simple replies: the whole range is sent.
+     */
+    @Test
+    public void testTargetSparseRead() throws Exception {
+        final File newDevice = addNewExport();
+        try {
+            final Client newClient = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+            newClient.handshake();
+            newClient.setExportName(newDevice.getAbsolutePath());
+            try {
+                // No holes in the simple replies
+                Assert.assertEquals(0, newClient.getExportFlags() & ExportFlagsPacket.NBD_FLAG_SEND_DF);
+
+                // Write blocks 1 and 200
+                final ByteBuffer writeData = ByteBuffer.allocate(blockSize);
+                for (int i = 0; i < blockSize; i++) {
+                    writeData.put((byte) (i + 1));
+                }
+                writeData.flip();
+                newClient.write(writeData, blockSize);
+                writeData.rewind();
+                newClient.write(writeData, 200 * blockSize);
+
+                // Read not aligned, from block 0 to block 200
+                final int offset = 100;
+                final ByteBuffer readData = ByteBuffer.allocate(200 * blockSize);
+                for (int i = 0; i < readData.capacity(); i++) {
+                    readData.put(i, (byte) 0xFF);
+                }
+                newClient.read(readData, offset);
+                for (int i = 0; i < readData.capacity(); i++) {
+                    final int position = i + offset;
+                    final int block = position / blockSize;
+                    final byte expected = block == 1 || block == 200 ? writeData.get(position % blockSize) : 0;
+                    Assert.assertEquals("i=" + i, expected, readData.get(i));
+                }
+            }
+            finally {
+                newClient.disconnect();
+            }
+        }
+        finally {
+            removeExport(newDevice);
+        }
+    }
+
+    /**
+     * The block status is available only when the context base:allocation is selected.
+     */
+    @Test(expected = NbdException.class)
+    public void testTargetBlockStatusNoContext() throws Exception {
+        client.blockStatus(0, blockSize, 0);
+    }
+
     @Test(expected = NbdException.class)
     public void testTargetWriteTooLong() throws Exception {
 
@@ -20,6 +20,7 @@ package io.eguan.nbdsrv;
  * #L%
  */
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import io.eguan.nbdsrv.client.Client;
@@ -136,7 +137,9 @@ public class TestHandshake extends TestNbdAbstract {
 
         assertEquals(deviceFileName, client.getExportName());
         assertEquals(size, client.getExportSize());
-        assertEquals(ExportFlagsPacket.NBD_FLAG_HAS_FLAGS | ExportFlagsPacket.NBD_FLAG_SEND_TRIM,
+        assertEquals(ExportFlagsPacket.NBD_FLAG_HAS_FLAGS | ExportFlagsPacket.NBD_FLAG_SEND_FLUSH
+                | ExportFlagsPacket.NBD_FLAG_SEND_FUA | ExportFlagsPacket.NBD_FLAG_SEND_TRIM
+                | ExportFlagsPacket.NBD_FLAG_SEND_WRITE_ZEROES | ExportFlagsPacket.NBD_FLAG_CAN_MULTI_CONN,
                 client.getExportFlags());
 
         client.disconnect();
@@ -164,6 +167,64 @@ public class TestHandshake extends TestNbdAbstract {
 
     }
 
+    @Test
+    public void testConnectGo() throws IOException, InterruptedException, NbdException {
+        final Client client = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+
+        // Start handshake
+        client.handshake();
+        // Connect with NBD_OPT_GO
+        client.go(deviceFileName);
+
+        assertEquals(deviceFileName, client.getExportName());
+        assertEquals(size, client.getExportSize());
+        assertEquals(ExportFlagsPacket.NBD_FLAG_HAS_FLAGS | ExportFlagsPacket.NBD_FLAG_SEND_FLUSH
+                | ExportFlagsPacket.NBD_FLAG_SEND_FUA | ExportFlagsPacket.NBD_FLAG_SEND_TRIM
+                | ExportFlagsPacket.NBD_FLAG_SEND_WRITE_ZEROES | ExportFlagsPacket.NBD_FLAG_CAN_MULTI_CONN,
+                client.getExportFlags());
+
+        client.disconnect();
+    }
+
+    @Test
+    public void testMetaContext() throws IOException, InterruptedException, NbdException {
+        final Client client = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+        final String[] allocation = { "base:allocation" };
+
+        client.handshake();
+        client.structuredReply();
+
+        // List
+        assertArrayEquals(allocation, client.listMetaContext(deviceFileName));
+        assertArrayEquals(allocation, client.listMetaContext(deviceFileName, "base:"));
+        assertEquals(0, client.listMetaContext(deviceFileName, "other:context").length);
+
+        // Select
+        assertArrayEquals(allocation, client.setMetaContext(deviceFileName, "other:context", "base:allocation"));
+
+        client.go(deviceFileName);
+        assertEquals(size, client.getExportSize());
+        client.disconnect();
+    }
+
+    @Test(expected = NbdException.class)
+    public void testSetMetaContextNotStructured() throws IOException, InterruptedException, NbdException {
+        final Client client = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+
+        client.handshake();
+        // The contexts are reported only by structured replies
+        client.setMetaContext(deviceFileName, "base:allocation");
+    }
+
+    @Test(expected = NbdException.class)
+    public void testMetaContextBadName() throws IOException, InterruptedException, NbdException {
+        final Client client = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
+
+        client.handshake();
+        client.structuredReply();
+        client.listMetaContext("Bad Name");
+    }
+
     @Test(expected = ClosedChannelException.class)
     public void testConnectBadName() throws IOException, InterruptedException, NbdException {
         final Client client = new Client(new InetSocketAddress(InetAddress.getLoopbackAddress(), 10809));
@@ -25,9 +25,13 @@ import io.eguan.nbdsrv.NbdExport;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 
 import org.junit.Test;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Unit tests for the creation of a NBD target.
  * 
@@ -60,6 +64,18 @@ public class TestNbdExportCreate {
             // No op
         }
 
+        @Override
+        public final ListenableFuture<Void> writeAsync(final ByteBuffer bytes, final int length,
+                final long storageIndex) {
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public final ListenableFuture<Void> readAsync(final ByteBuffer bytes, final int length,
+                final long storageIndex) {
+            return Futures.immediateFuture(null);
+        }
+
         @Override
         public final void close() throws IOException {
             // No op
@@ -69,6 +85,26 @@ public class TestNbdExportCreate {
         public void trim(final long length, final long storageIndex) throws IOException {
             // No op
         }
+
+        @Override
+        public void writeZeroes(final long length, final long storageIndex) throws IOException {
+            // No op
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // No op
+        }
+
+        @Override
+        public final int getAllocationBlockSize() {
+            return 4096;
+        }
+
+        @Override
+        public final BitSet getAllocated(final long firstBlock, final int count) throws IOException {
+            return new BitSet(count);
+        }
     };
 
     @Test(expected = NullPointerException.class)
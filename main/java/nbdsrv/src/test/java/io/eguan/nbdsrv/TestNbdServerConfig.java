@@ -90,6 +90,10 @@ public class TestNbdServerConfig extends
 
         config.setTrimEnabled(false);
         Assert.assertFalse(config.equals(configSame));
+
+        final NbdServerConfig configSelectors = new NbdServerConfig(InetAddress.getLoopbackAddress(), 9999, true,
+                configSame.getQueueDepth(), configSame.getSelectorCount() + 1);
+        Assert.assertFalse(configSelectors.equals(configSame));
     }
 
     @Test
@@ -0,0 +1,110 @@
+package io.eguan.nbdsrv.client;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.nbdsrv.packet.DataPushingCmd;
+import io.eguan.nbdsrv.packet.DataPushingError;
+import io.eguan.nbdsrv.packet.DataPushingPacket;
+import io.eguan.nbdsrv.packet.NbdException;
+import io.eguan.nbdsrv.packet.StructuredReplyPacket;
+import io.eguan.nbdsrv.packet.StructuredReplyType;
+import io.eguan.nbdsrv.packet.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Represents the task to send a block status request.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+class BlockStatusTask implements Callable<long[]> {
+
+    /** NBD client */
+    private final NbdClient client;
+    /** First byte of the range */
+    private final long offset;
+    /** Length of the range */
+    private final long length;
+    /** Flags of the command */
+    private final int flags;
+    /** Handle of the request */
+    private final long handle = new Random().nextLong();
+
+    BlockStatusTask(final NbdClient client, final long offset, final long length, final int flags) {
+        super();
+        this.client = client;
+        this.offset = offset;
+        this.length = length;
+        this.flags = flags;
+    }
+
+    @Override
+    public final long[] call() throws IOException, NbdException {
+        final DataPushingPacket dataPushingPacket = new DataPushingPacket(DataPushingPacket.MAGIC, flags,
+                DataPushingCmd.NBD_CMD_BLOCK_STATUS, handle, offset, length);
+        final ByteBuffer header = DataPushingPacket.serialize(dataPushingPacket);
+        try {
+            client.writeSocket(header);
+        }
+        finally {
+            DataPushingPacket.release(header);
+        }
+
+        long[] result = new long[0];
+        DataPushingError error = null;
+        boolean done = false;
+        while (!done) {
+            final StructuredReplyPacket reply = client.readStructuredReplyHeader();
+            if (reply.getHandle() != handle) {
+                throw new NbdException("Unexpected handle=0x" + Long.toHexString(reply.getHandle()));
+            }
+            done = (reply.getFlags() & StructuredReplyPacket.NBD_REPLY_FLAG_DONE) != 0;
+            final ByteBuffer payload = ByteBuffer.allocate((int) reply.getLength());
+            client.readSocket(payload);
+            if (reply.getType() == StructuredReplyType.NBD_REPLY_TYPE_BLOCK_STATUS) {
+                final long contextId = Utils.getUnsignedInt(payload);
+                if (contextId != client.getMetaContextId()) {
+                    throw new NbdException("Unexpected context=" + contextId);
+                }
+                result = new long[payload.remaining() / 4];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = Utils.getUnsignedInt(payload);
+                }
+            }
+            else if (reply.getType() == StructuredReplyType.NBD_REPLY_TYPE_ERROR) {
+                // Read the whole reply before reporting the error
+                error = DataPushingError.valueOf(Utils.getUnsignedInt(payload));
+            }
+            else if (reply.getType() != StructuredReplyType.NBD_REPLY_TYPE_NONE) {
+                throw new NbdException("Unexpected chunk " + reply.getType());
+            }
+        }
+        if (error != null) {
+            throw new NbdException("Block status failed, error=" + error);
+        }
+        return result;
+    }
+}
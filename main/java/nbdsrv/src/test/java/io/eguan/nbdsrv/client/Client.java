@@ -20,7 +20,10 @@ package io.eguan.nbdsrv.client;
  * #L%
  */
 
+import io.eguan.nbdsrv.packet.DataPushingCmd;
+import io.eguan.nbdsrv.packet.DataPushingError;
 import io.eguan.nbdsrv.packet.NbdException;
+import io.eguan.nbdsrv.packet.OptionCmd;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -90,6 +93,76 @@ public class Client {
         nbdClient.handshakeExportName(name);
     }
 
+    /**
+     * Connect client to an export with NBD_OPT_GO during the handshake phase. This ends the handshake phase.
+     * 
+     * @param name
+     *            the name of the export to connect the client
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    public final void go(final String name) throws IOException, InterruptedException, NbdException {
+        nbdClient.handshakeGo(name);
+    }
+
+    /**
+     * Negotiate the structured replies during the handshake phase.
+     * 
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected or if the server refuses the option
+     */
+    public final void structuredReply() throws IOException, InterruptedException, NbdException {
+        nbdClient.handshakeStructuredReply();
+    }
+
+    /**
+     * List the metadata contexts of an export matching some queries during the handshake phase.
+     * 
+     * @param name
+     *            the name of the export
+     * @param queries
+     *            the queries, none to list all the contexts
+     * @return the names of the contexts
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected or if the server refuses the option
+     */
+    public final String[] listMetaContext(final String name, final String... queries) throws IOException,
+            InterruptedException, NbdException {
+        return nbdClient.handshakeMetaContext(OptionCmd.NBD_OPT_LIST_META_CONTEXT, name, queries);
+    }
+
+    /**
+     * Select the metadata contexts of an export during the handshake phase.
+     * 
+     * @param name
+     *            the name of the export
+     * @param queries
+     *            the contexts to select
+     * @return the names of the contexts selected
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected or if the server refuses the option
+     */
+    public final String[] setMetaContext(final String name, final String... queries) throws IOException,
+            InterruptedException, NbdException {
+        return nbdClient.handshakeMetaContext(OptionCmd.NBD_OPT_SET_META_CONTEXT, name, queries);
+    }
+
     /**
      * Abort the handshake.
      * 
@@ -121,7 +194,28 @@ public class Client {
      */
     public final void read(final ByteBuffer buf, final long offset) throws IOException, NbdException,
             InterruptedException {
-        nbdClient.readRequest(buf, offset);
+        nbdClient.readRequest(buf, offset, 0);
+    }
+
+    /**
+     * Send a read request with some flags to the server if the client is in data pushing phase.
+     * 
+     * @param buf
+     *            the buffer to receive the data, from the buffer.position() to the buffer.limit()
+     * @param offset
+     *            the position of the first byte to read in a server export
+     * @param flags
+     *            the flags of the command
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    public final void read(final ByteBuffer buf, final long offset, final int flags) throws IOException,
+            NbdException, InterruptedException {
+        nbdClient.readRequest(buf, offset, flags);
     }
 
     /**
@@ -158,6 +252,76 @@ public class Client {
         nbdClient.writeRequest(buffer, offset);
     }
 
+    /**
+     * Send several read requests at once to the server if the client is in data pushing phase.
+     * 
+     * @param bufs
+     *            the buffers to receive the data, from their position to their limit. Then the position of each buffer
+     *            is reset to 0.
+     * @param offsets
+     *            the position of the first byte to read for each buffer
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    public final void read(final ByteBuffer[] bufs, final long[] offsets) throws IOException, NbdException,
+            InterruptedException {
+        nbdClient.pipelinedRequest(DataPushingCmd.NBD_CMD_READ, bufs, offsets);
+    }
+
+    /**
+     * Send several write requests at once to the server if the client is in data pushing phase.
+     * 
+     * @param buffers
+     *            the buffers to transmit, from their position to their limit
+     * @param offsets
+     *            the first byte to write for each buffer
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    public final void write(final ByteBuffer[] buffers, final long[] offsets) throws IOException,
+            InterruptedException, NbdException {
+        nbdClient.pipelinedRequest(DataPushingCmd.NBD_CMD_WRITE, buffers, offsets);
+    }
+
+    /**
+     * Send a block status request to the server if the client is in data pushing phase.
+     * 
+     * @param offset
+     *            the first byte of the range
+     * @param length
+     *            the length of the range
+     * @param flags
+     *            the flags of the command
+     * @return the length and the state of each extent described by the server
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected or if the request failed
+     */
+    public final long[] blockStatus(final long offset, final long length, final int flags) throws IOException,
+            NbdException, InterruptedException {
+        return nbdClient.blockStatusRequest(offset, length, flags);
+    }
+
+    /**
+     * Gets the number of bytes received as holes by the reads, when the replies are structured.
+     * 
+     * @return the number of bytes
+     */
+    public final long getHoleBytes() {
+        return nbdClient.getHoleBytes();
+    }
+
     /**
      * Send a trim request to the server if the client is in data pushing phase.
      * 
@@ -176,6 +340,43 @@ public class Client {
         nbdClient.trimRequest(offset, length);
     }
 
+    /**
+     * Send a write zeroes request to the server if the client is in data pushing phase.
+     * 
+     * @param offset
+     *            the first byte to set to zero
+     * @param length
+     *            the number of bytes to set to zero
+     * @param flags
+     *            the flags of the command
+     * @return the error of the reply
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    public DataPushingError writeZeroes(final long offset, final long length, final int flags) throws NbdException,
+            InterruptedException, IOException {
+        return nbdClient.commandRequest(DataPushingCmd.NBD_CMD_WRITE_ZEROES, flags, offset, length);
+    }
+
+    /**
+     * Send a flush request to the server if the client is in data pushing phase.
+     * 
+     * @return the error of the reply
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    public DataPushingError flush() throws NbdException, InterruptedException, IOException {
+        return nbdClient.commandRequest(DataPushingCmd.NBD_CMD_FLUSH, 0, 0, 0);
+    }
+
     /**
      * Disconnect the client in a data pushing phase.
      * 
@@ -0,0 +1,101 @@
+package io.eguan.nbdsrv.client;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.nbdsrv.packet.DataPushingCmd;
+import io.eguan.nbdsrv.packet.DataPushingError;
+import io.eguan.nbdsrv.packet.DataPushingPacket;
+import io.eguan.nbdsrv.packet.DataPushingReplyPacket;
+import io.eguan.nbdsrv.packet.NbdException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a command without payload and reads the simple reply.
+ * 
+ */
+public class CommandTask implements Callable<DataPushingError> {
+
+    /** NBD client */
+    private final NbdClient client;
+
+    /** Command to send */
+    private final DataPushingCmd cmd;
+
+    /** Flags of the command */
+    private final int flags;
+
+    /** Position of the first byte of the range */
+    private final long offset;
+
+    /** Length of the range */
+    private final long length;
+
+    /** Handle of the request */
+    private final long handle = new Random().nextLong();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandTask.class);
+
+    CommandTask(final NbdClient connection, final DataPushingCmd cmd, final int flags, final long offset,
+            final long length) {
+        super();
+        this.client = connection;
+        this.cmd = cmd;
+        this.flags = flags;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public final DataPushingError call() throws IOException, NbdException {
+
+        // Send request
+        final DataPushingPacket dataPushingPacket = new DataPushingPacket(DataPushingPacket.MAGIC, flags, cmd,
+                handle, offset, length);
+
+        final ByteBuffer header = DataPushingPacket.serialize(dataPushingPacket);
+        try {
+            client.writeSocket(header);
+        }
+        finally {
+            DataPushingPacket.release(header);
+        }
+
+        // Wait Answer
+        LOGGER.debug("Read Data Pushing Reply");
+
+        final ByteBuffer dst = DataPushingReplyPacket.allocateHeader();
+        try {
+            client.readSocket(dst);
+            return DataPushingReplyPacket.deserialize(dst).getError();
+        }
+        finally {
+            DataPushingReplyPacket.release(dst);
+        }
+    }
+
+}
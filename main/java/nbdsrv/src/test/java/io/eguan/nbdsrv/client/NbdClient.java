@@ -22,10 +22,13 @@ package io.eguan.nbdsrv.client;
 
 import io.eguan.nbdsrv.SocketHandle;
 import io.eguan.nbdsrv.packet.DataPushingCmd;
+import io.eguan.nbdsrv.packet.DataPushingError;
 import io.eguan.nbdsrv.packet.DataPushingPacket;
 import io.eguan.nbdsrv.packet.DataPushingReplyPacket;
 import io.eguan.nbdsrv.packet.NbdException;
 import io.eguan.nbdsrv.packet.OptionCmd;
+import io.eguan.nbdsrv.packet.StructuredReplyPacket;
+import io.eguan.nbdsrv.packet.Utils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -62,6 +65,13 @@ final class NbdClient {
     /** Global flags of the server */
     private long globalRemoteFlags;
 
+    /** Set when the structured replies have been negotiated */
+    private boolean structuredReplies;
+    /** Identifier of the metadata context selected */
+    private long metaContextId;
+    /** Number of bytes received as holes */
+    private long holeBytes;
+
     /** Current Phase */
     private Phase phase;
 
@@ -149,6 +159,63 @@ final class NbdClient {
         this.globalRemoteFlags = globalRemoteFlags;
     }
 
+    /**
+     * Tells if the structured replies have been negotiated.
+     * 
+     * @return <code>true</code> if the replies may be structured
+     */
+    final boolean isStructuredReplies() {
+        return structuredReplies;
+    }
+
+    /**
+     * Sets the negotiation of the structured replies.
+     * 
+     * @param structuredReplies
+     *            <code>true</code> if the replies may be structured
+     */
+    final void setStructuredReplies(final boolean structuredReplies) {
+        this.structuredReplies = structuredReplies;
+    }
+
+    /**
+     * Gets the identifier of the metadata context selected.
+     * 
+     * @return the context identifier
+     */
+    final long getMetaContextId() {
+        return metaContextId;
+    }
+
+    /**
+     * Sets the identifier of the metadata context selected.
+     * 
+     * @param metaContextId
+     *            the context identifier
+     */
+    final void setMetaContextId(final long metaContextId) {
+        this.metaContextId = metaContextId;
+    }
+
+    /**
+     * Gets the number of bytes received as holes by structured reads.
+     * 
+     * @return the number of bytes
+     */
+    final long getHoleBytes() {
+        return holeBytes;
+    }
+
+    /**
+     * Count bytes received as holes.
+     * 
+     * @param length
+     *            the length of a hole
+     */
+    final void addHoleBytes(final long length) {
+        holeBytes += length;
+    }
+
     /**
      * Close the client.
      */
@@ -158,6 +225,8 @@ final class NbdClient {
         setExportName("");
         setExportSize(0);
         setExportFlags(0);
+        setStructuredReplies(false);
+        setMetaContextId(0);
 
         try {
             if (socketHandle != null) {
@@ -250,6 +319,58 @@ final class NbdClient {
         doOptionNegociation(OptionCmd.NBD_OPT_EXPORT_NAME, exportName);
     }
 
+    /**
+     * Negotiate the structured replies during the handshake phase.
+     * 
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    final void handshakeStructuredReply() throws IOException, InterruptedException, NbdException {
+        doOptionNegociation(OptionCmd.NBD_OPT_STRUCTURED_REPLY, null, EMPTY_STRING_ARRAY);
+    }
+
+    /**
+     * List or select metadata contexts during the handshake phase.
+     * 
+     * @param cmd
+     *            NBD_OPT_LIST_META_CONTEXT or NBD_OPT_SET_META_CONTEXT
+     * @param exportName
+     *            the name of the export
+     * @param queries
+     *            the contexts to look for
+     * @return the names of the contexts sent by the server
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    final String[] handshakeMetaContext(final OptionCmd cmd, final String exportName, final String[] queries)
+            throws IOException, InterruptedException, NbdException {
+        return doOptionNegociation(cmd, exportName, queries);
+    }
+
+    /**
+     * Connect client to an export with NBD_OPT_GO during the handshake phase. This ends the handshake phase.
+     * 
+     * @param exportName
+     *            the name of the export to connect the client
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    final void handshakeGo(final String exportName) throws IOException, InterruptedException, NbdException {
+        doOptionNegociation(OptionCmd.NBD_OPT_GO, exportName, EMPTY_STRING_ARRAY);
+    }
+
     /**
      * Abort the handshake.
      * 
@@ -282,14 +403,37 @@ final class NbdClient {
      */
     private final String[] doOptionNegociation(final OptionCmd cmd, final String data) throws IOException,
             InterruptedException, NbdException {
+        return doOptionNegociation(cmd, data, EMPTY_STRING_ARRAY);
+    }
+
+    /**
+     * Send an option to server during the handshake phase.
+     * 
+     * @param cmd
+     *            the option to send
+     * @param data
+     *            the data to the send
+     * @param queries
+     *            the queries of the metadata contexts
+     * @return an array with the eventual answer from the server
+     * 
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected
+     */
+    private final String[] doOptionNegociation(final OptionCmd cmd, final String data, final String[] queries)
+            throws IOException, InterruptedException, NbdException {
 
         if (phase != Phase.HANDSHAKE_PHASE) {
             throw new NbdException("Client not in a handshake phase");
         }
-        final Future<String[]> future = executor.submit(new OptionNegotiationTask(this, cmd, data));
+        final Future<String[]> future = executor.submit(new OptionNegotiationTask(this, cmd, data, queries));
         try {
             final String[] result = future.get();
-            if (cmd == OptionCmd.NBD_OPT_EXPORT_NAME) {
+            if (cmd == OptionCmd.NBD_OPT_EXPORT_NAME || cmd == OptionCmd.NBD_OPT_GO) {
                 phase = Phase.DATA_PUSHING_PHASE;
             }
             return result;
@@ -362,6 +506,8 @@ final class NbdClient {
      *            buffer.position() to the buffer.limit(). Then the position is reset to 0.
      * @param offset
      *            the position of the first byte to read in a server export
+     * @param flags
+     *            the flags of the command
      * @throws IOException
      *             If an I/O error occurs
      * @throws InterruptedException
@@ -369,13 +515,58 @@ final class NbdClient {
      * @throws NbdException
      *             If the NBD protocol is not respected
      */
-    final void readRequest(final ByteBuffer dst, final long offset) throws IOException, NbdException,
-            InterruptedException {
+    final void readRequest(final ByteBuffer dst, final long offset, final int flags) throws IOException,
+            NbdException, InterruptedException {
+
+        if (phase != Phase.DATA_PUSHING_PHASE) {
+            throw new NbdException("Client not in a data pushing phase");
+        }
+        final Future<Boolean> future = executor.submit(new ReadTask(this, dst, offset, flags));
+        try {
+            future.get();
+        }
+        catch (final InterruptedException e) {
+            close();
+            throw e;
+        }
+        catch (final ExecutionException e) {
+            close();
+            LOGGER.error("Execution exception", e.getCause());
+            final Throwable t = e.getCause();
+            if (t instanceof NbdException) {
+                throw (NbdException) t;
+            }
+            else if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+
+        }
+    }
+
+    /**
+     * Send several read or write requests at once if the client is in data pushing phase. The replies are received
+     * in any order.
+     * 
+     * @param cmd
+     *            NBD_CMD_READ or NBD_CMD_WRITE
+     * @param buffers
+     *            the buffers to fill or to write, from their position to their limit
+     * @param offsets
+     *            the position of the first byte of each request in the server export
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected or if a request failed
+     */
+    final void pipelinedRequest(final DataPushingCmd cmd, final ByteBuffer[] buffers, final long[] offsets)
+            throws IOException, NbdException, InterruptedException {
 
         if (phase != Phase.DATA_PUSHING_PHASE) {
             throw new NbdException("Client not in a data pushing phase");
         }
-        final Future<Boolean> future = executor.submit(new ReadTask(this, dst, offset));
+        final Future<Boolean> future = executor.submit(new PipelinedTask(this, cmd, buffers, offsets));
         try {
             future.get();
         }
@@ -393,7 +584,120 @@ final class NbdClient {
             else if (t instanceof IOException) {
                 throw (IOException) t;
             }
+        }
+    }
+
+    /**
+     * Send a block status request to the server if the client is in data pushing phase.
+     * 
+     * @param offset
+     *            the first byte of the range
+     * @param length
+     *            the length of the range
+     * @param flags
+     *            the flags of the command
+     * @return the descriptors received: length and state of each extent
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws InterruptedException
+     *             If the current thread was interrupted
+     * @throws NbdException
+     *             If the NBD protocol is not respected or if the request failed
+     */
+    final long[] blockStatusRequest(final long offset, final long length, final int flags) throws IOException,
+            NbdException, InterruptedException {
+        if (phase != Phase.DATA_PUSHING_PHASE) {
+            throw new NbdException("Client not in a data pushing phase");
+        }
+        final Future<long[]> future = executor.submit(new BlockStatusTask(this, offset, length, flags));
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException e) {
+            close();
+            throw e;
+        }
+        catch (final ExecutionException e) {
+            final Throwable t = e.getCause();
+            if (t instanceof NbdException) {
+                // Error reply: the connection remains valid
+                throw (NbdException) t;
+            }
+            close();
+            LOGGER.error("Execution exception", t);
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new NbdException(t.toString());
+        }
+    }
+
+    /**
+     * Read the header of a reply when the structured replies have been negotiated. The reply may be a simple reply
+     * in case of error.
+     * 
+     * @return the header of the next chunk
+     * @throws IOException
+     *             If an I/O error occurs
+     * @throws NbdException
+     *             If a simple reply is received
+     */
+    final StructuredReplyPacket readStructuredReplyHeader() throws IOException, NbdException {
+        final ByteBuffer header = ByteBuffer.allocate(StructuredReplyPacket.HEADER_SIZE);
+        final ByteBuffer magic = (ByteBuffer) header.duplicate().limit(4);
+        readSocket(magic);
+        if (Utils.getUnsignedInt(magic) == DataPushingReplyPacket.MAGIC) {
+            // Simple reply: error and handle
+            final ByteBuffer end = ByteBuffer.allocate(4 + 8);
+            readSocket(end);
+            throw new NbdException("Received error=" + Utils.getUnsignedInt(end));
+        }
+        header.position(4);
+        readSocket(header);
+        header.position(0);
+        return StructuredReplyPacket.deserialize(header);
+    }
 
+    /**
+     * Send a command without payload to the server if the client is in data pushing phase.
+     * 
+     * @param cmd
+     *            the command
+     * @param flags
+     *            the flags of the command
+     * @param offset
+     *            the first byte of the range
+     * @param length
+     *            the length of the range
+     * @return the error of the reply
+     * @throws NbdException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public final DataPushingError commandRequest(final DataPushingCmd cmd, final int flags, final long offset,
+            final long length) throws NbdException, InterruptedException, IOException {
+        if (phase != Phase.DATA_PUSHING_PHASE) {
+            throw new NbdException("Client not in a data pushing phase");
+        }
+        final Future<DataPushingError> future = executor.submit(new CommandTask(this, cmd, flags, offset, length));
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException e) {
+            close();
+            throw e;
+        }
+        catch (final ExecutionException e) {
+            close();
+            LOGGER.error("Execution exception", e.getCause());
+            final Throwable t = e.getCause();
+            if (t instanceof NbdException) {
+                throw (NbdException) t;
+            }
+            else if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new NbdException(t.toString());
         }
     }
 
@@ -25,28 +25,113 @@ import io.eguan.srv.ClientBasicIops;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 
+/**
+ * Basic IOs on a NBD export. With a queue depth greater than 1, a read or a write is split in several requests sent at
+ * once on the connection.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
 public class NbdClientBasicIops implements ClientBasicIops {
 
+    /** Default queue depth, may be set to benchmark the concurrent requests of a connection */
+    private static final int QUEUE_DEPTH = Integer.getInteger("io.eguan.nbdsrv.client.queueDepth", 1).intValue();
+
     private final Client nbdClient;
+    /** Maximum number of requests sent at once */
+    private final int queueDepth;
 
     public NbdClientBasicIops(final int port) {
+        this(port, QUEUE_DEPTH);
+    }
+
+    public NbdClientBasicIops(final int port, final int queueDepth) {
         super();
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("queueDepth=" + queueDepth);
+        }
         final InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
         this.nbdClient = new Client(address);
+        this.queueDepth = queueDepth;
     }
 
     @Override
     public void write(final String targetName, final ByteBuffer src, final int logicalBlockAddress,
             final long transferLength, final int blockSize) throws Exception {
         // transferLength is useless for nbd
-        nbdClient.write(src, logicalBlockAddress * blockSize);
+        final long offset = (long) logicalBlockAddress * blockSize;
+        if (queueDepth == 1) {
+            nbdClient.write(src, offset);
+        }
+        else {
+            final long[] offsets = getOffsets(src, offset, blockSize);
+            nbdClient.write(split(src, offsets, offset), offsets);
+            src.position(src.limit());
+        }
     }
 
     @Override
     public void read(final String targetName, final ByteBuffer dst, final int logicalBlockAddress,
             final long transferLength, final int blockSize) throws Exception {
         // transferLength is useless for nbd
-        nbdClient.read(dst, logicalBlockAddress * blockSize);
+        final long offset = (long) logicalBlockAddress * blockSize;
+        if (queueDepth == 1) {
+            nbdClient.read(dst, offset);
+        }
+        else {
+            final long[] offsets = getOffsets(dst, offset, blockSize);
+            nbdClient.read(split(dst, offsets, offset), offsets);
+            dst.position(dst.limit());
+            dst.flip();
+        }
+    }
+
+    /**
+     * Split the contents of a buffer in up to queueDepth requests of whole blocks.
+     * 
+     * @param buffer
+     *            buffer to transfer, from its position to its limit
+     * @param offset
+     *            offset of the first byte of the buffer in the export
+     * @param blockSize
+     *            size of a block
+     * @return the offset of each request in the export
+     */
+    private final long[] getOffsets(final ByteBuffer buffer, final long offset, final int blockSize) {
+        final int length = buffer.remaining();
+        final int blockCount = (length + blockSize - 1) / blockSize;
+        final int blocksPerRequest = (blockCount + queueDepth - 1) / queueDepth;
+        final int requestLength = Math.max(blocksPerRequest, 1) * blockSize;
+        final long[] offsets = new long[Math.max((length + requestLength - 1) / requestLength, 1)];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset + (long) i * requestLength;
+        }
+        return offsets;
+    }
+
+    /**
+     * Gets the views of the buffer for each request.
+     * 
+     * @param buffer
+     *            buffer to transfer, from its position to its limit
+     * @param offsets
+     *            offsets of the requests
+     * @param offset
+     *            offset of the first byte of the buffer
+     * @return the part of the buffer of each request
+     */
+    private static final ByteBuffer[] split(final ByteBuffer buffer, final long[] offsets, final long offset) {
+        final ByteBuffer[] result = new ByteBuffer[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            final ByteBuffer part = buffer.duplicate();
+            part.position(buffer.position() + (int) (offsets[i] - offset));
+            if (i + 1 < offsets.length) {
+                part.limit(buffer.position() + (int) (offsets[i + 1] - offset));
+            }
+            result[i] = part;
+        }
+        return result;
     }
 
     @Override
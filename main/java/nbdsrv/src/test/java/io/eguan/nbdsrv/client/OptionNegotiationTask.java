@@ -21,13 +21,16 @@ package io.eguan.nbdsrv.client;
  */
 
 import io.eguan.nbdsrv.packet.ExportFlagsPacket;
+import io.eguan.nbdsrv.packet.NbdException;
 import io.eguan.nbdsrv.packet.OptionCmd;
 import io.eguan.nbdsrv.packet.OptionPacket;
 import io.eguan.nbdsrv.packet.OptionReplyCmd;
 import io.eguan.nbdsrv.packet.OptionReplyPacket;
+import io.eguan.nbdsrv.packet.Utils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -55,16 +58,24 @@ class OptionNegotiationTask implements Callable<String[]> {
     /** Data to send with the option. Can be null **/
     private final String data;
 
+    /** Queries of the metadata contexts */
+    private final String[] queries;
+
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
     OptionNegotiationTask(final NbdClient nbdClient, final OptionCmd cmd, final String data) {
+        this(nbdClient, cmd, data, EMPTY_STRING_ARRAY);
+    }
+
+    OptionNegotiationTask(final NbdClient nbdClient, final OptionCmd cmd, final String data, final String[] queries) {
         this.nbdClient = nbdClient;
         this.cmd = cmd;
         this.data = data;
+        this.queries = queries;
     }
 
     @Override
-    public final String[] call() throws IOException {
+    public final String[] call() throws IOException, NbdException {
         switch (cmd) {
         case NBD_OPT_LIST:
             sendListOption();
@@ -80,6 +91,20 @@ class OptionNegotiationTask implements Callable<String[]> {
             // Close the client
             nbdClient.close();
             break;
+        case NBD_OPT_STRUCTURED_REPLY:
+            sendOption(cmd, ByteBuffer.allocate(0));
+            readAck();
+            nbdClient.setStructuredReplies(true);
+            break;
+        case NBD_OPT_LIST_META_CONTEXT:
+        case NBD_OPT_SET_META_CONTEXT:
+            sendMetaContextOption();
+            return readMetaContextReply();
+        case NBD_OPT_GO:
+            sendGoOption();
+            nbdClient.setExportName(data);
+            handleInfoReply();
+            break;
         default:
             break;
         }
@@ -126,6 +151,157 @@ class OptionNegotiationTask implements Callable<String[]> {
 
     }
 
+    /**
+     * Send an option with binary data.
+     * 
+     * @param option
+     *            the option to send
+     * @param body
+     *            the data of the option
+     * @throws IOException
+     *             if I/O errors occur
+     */
+    private final void sendOption(final OptionCmd option, final ByteBuffer body) throws IOException {
+        final ByteBuffer header = OptionPacket.allocateHeader();
+        try {
+            Utils.putUnsignedLong(header, OptionPacket.MAGIC);
+            Utils.putUnsignedInt(header, option.value());
+            Utils.putUnsignedInt(header, body.remaining());
+            header.flip();
+            final ByteBuffer[] src = { header, body };
+            nbdClient.writeSocket(src);
+        }
+        finally {
+            OptionPacket.release(header);
+        }
+    }
+
+    /**
+     * Send a request on the metadata contexts: export name and queries.
+     * 
+     * @throws IOException
+     *             if I/O errors occur
+     */
+    private final void sendMetaContextOption() throws IOException {
+        final byte[] name = data.getBytes(StandardCharsets.UTF_8);
+        int size = 4 + name.length + 4;
+        for (final String query : queries) {
+            size += 4 + query.getBytes(StandardCharsets.UTF_8).length;
+        }
+        final ByteBuffer body = ByteBuffer.allocate(size);
+        Utils.putUnsignedInt(body, name.length);
+        body.put(name);
+        Utils.putUnsignedInt(body, queries.length);
+        for (final String query : queries) {
+            final byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+            Utils.putUnsignedInt(body, bytes.length);
+            body.put(bytes);
+        }
+        body.flip();
+        sendOption(cmd, body);
+    }
+
+    /**
+     * Send a request to be logged into an export, without information request.
+     * 
+     * @throws IOException
+     *             if I/O errors occur
+     */
+    private final void sendGoOption() throws IOException {
+        final byte[] name = data.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer body = ByteBuffer.allocate(4 + name.length + 2);
+        Utils.putUnsignedInt(body, name.length);
+        body.put(name);
+        Utils.putUnsignedShort(body, 0);
+        body.flip();
+        sendOption(cmd, body);
+    }
+
+    /**
+     * Read the reply of an option without data.
+     * 
+     * @throws IOException
+     *             if I/O errors occur
+     * @throws NbdException
+     *             if the option is not accepted
+     */
+    private final void readAck() throws IOException, NbdException {
+        final OptionReplyPacket reply = readOptionReply();
+        if (reply.getReplyCmd() != OptionReplyCmd.NBD_REP_ACK) {
+            throw new NbdException("Option " + cmd + " refused: " + reply.getReplyCmd());
+        }
+    }
+
+    /**
+     * Read the data of a reply.
+     * 
+     * @param reply
+     *            the header of the reply
+     * @return the data
+     * @throws IOException
+     *             if I/O errors occur
+     */
+    private final ByteBuffer readReplyData(final OptionReplyPacket reply) throws IOException {
+        final ByteBuffer dst = ByteBuffer.allocate((int) reply.getDataSize());
+        nbdClient.readSocket(dst);
+        return dst;
+    }
+
+    /**
+     * Read the metadata contexts sent by the server.
+     * 
+     * @return the names of the contexts
+     * @throws IOException
+     *             if I/O errors occur
+     * @throws NbdException
+     *             if the option is not accepted
+     */
+    private final String[] readMetaContextReply() throws IOException, NbdException {
+        final List<String> contexts = new ArrayList<>();
+        while (true) {
+            final OptionReplyPacket reply = readOptionReply();
+            if (reply.getReplyCmd() == OptionReplyCmd.NBD_REP_ACK) {
+                return contexts.toArray(EMPTY_STRING_ARRAY);
+            }
+            if (reply.getReplyCmd() != OptionReplyCmd.NBD_REP_META_CONTEXT) {
+                throw new NbdException("Option " + cmd + " refused: " + reply.getReplyCmd());
+            }
+            final ByteBuffer context = readReplyData(reply);
+            final long id = Utils.getUnsignedInt(context);
+            if (cmd == OptionCmd.NBD_OPT_SET_META_CONTEXT) {
+                nbdClient.setMetaContextId(id);
+            }
+            final byte[] name = new byte[context.remaining()];
+            context.get(name);
+            contexts.add(new String(name, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Read the information on the export sent in reply to NBD_OPT_GO.
+     * 
+     * @throws IOException
+     *             if I/O errors occur
+     * @throws NbdException
+     *             if the option is not accepted
+     */
+    private final void handleInfoReply() throws IOException, NbdException {
+        while (true) {
+            final OptionReplyPacket reply = readOptionReply();
+            if (reply.getReplyCmd() == OptionReplyCmd.NBD_REP_ACK) {
+                return;
+            }
+            if (reply.getReplyCmd() != OptionReplyCmd.NBD_REP_INFO) {
+                throw new NbdException("Option " + cmd + " refused: " + reply.getReplyCmd());
+            }
+            final ByteBuffer info = readReplyData(reply);
+            if (Utils.getUnsignedShort(info) == OptionReplyPacket.NBD_INFO_EXPORT) {
+                nbdClient.setExportSize(Utils.getUnsignedLong(info));
+                nbdClient.setExportFlags(Utils.getUnsignedShort(info));
+            }
+        }
+    }
+
     /**
      * Send abort to stop the handshake.
      * 
@@ -0,0 +1,113 @@
+package io.eguan.nbdsrv.client;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.nbdsrv.packet.DataPushingCmd;
+import io.eguan.nbdsrv.packet.DataPushingError;
+import io.eguan.nbdsrv.packet.DataPushingPacket;
+import io.eguan.nbdsrv.packet.DataPushingReplyPacket;
+import io.eguan.nbdsrv.packet.NbdException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents the task to send several read or write requests at once. All the requests are sent before the replies
+ * are read, in any order.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+class PipelinedTask extends TaskAbstract {
+
+    /** NBD client */
+    private final NbdClient client;
+    /** NBD_CMD_READ or NBD_CMD_WRITE */
+    private final DataPushingCmd cmd;
+    /** Buffers to fill or to write */
+    private final ByteBuffer[] buffers;
+    /** Position of the first byte of each request */
+    private final long[] offsets;
+
+    PipelinedTask(final NbdClient client, final DataPushingCmd cmd, final ByteBuffer[] buffers, final long[] offsets) {
+        super();
+        assert cmd == DataPushingCmd.NBD_CMD_READ || cmd == DataPushingCmd.NBD_CMD_WRITE;
+        assert buffers.length == offsets.length;
+        this.client = client;
+        this.cmd = cmd;
+        this.buffers = buffers;
+        this.offsets = offsets;
+    }
+
+    @Override
+    public final Boolean call() throws IOException, NbdException {
+        final Map<Long, ByteBuffer> pending = new HashMap<>();
+
+        // Send all the requests
+        for (int i = 0; i < buffers.length; i++) {
+            final ByteBuffer buffer = buffers[i];
+            final long handle = getHandle() + i;
+            final DataPushingPacket dataPushingPacket = new DataPushingPacket(DataPushingPacket.MAGIC, cmd, handle,
+                    offsets[i], buffer.limit() - buffer.position());
+            final ByteBuffer header = DataPushingPacket.serialize(dataPushingPacket);
+            try {
+                if (cmd == DataPushingCmd.NBD_CMD_WRITE) {
+                    final ByteBuffer[] gather = { header, buffer };
+                    client.writeSocket(gather);
+                }
+                else {
+                    client.writeSocket(header);
+                }
+            }
+            finally {
+                DataPushingPacket.release(header);
+            }
+            pending.put(Long.valueOf(handle), buffer);
+        }
+
+        // Wait for the replies
+        while (!pending.isEmpty()) {
+            final DataPushingReplyPacket replyPacket;
+            final ByteBuffer reply = DataPushingReplyPacket.allocateHeader();
+            try {
+                client.readSocket(reply);
+                replyPacket = DataPushingReplyPacket.deserialize(reply);
+            }
+            finally {
+                DataPushingReplyPacket.release(reply);
+            }
+            final ByteBuffer buffer = pending.remove(Long.valueOf(replyPacket.getHandle()));
+            if (buffer == null) {
+                throw new NbdException("Unexpected handle=" + replyPacket.getHandle());
+            }
+            if (replyPacket.getError() != DataPushingError.NBD_NO_ERROR) {
+                throw new NbdException("Request failed, error=" + replyPacket.getError());
+            }
+            if (cmd == DataPushingCmd.NBD_CMD_READ) {
+                client.readSocket(buffer);
+            }
+        }
+        return true;
+    }
+}
@@ -24,6 +24,7 @@ import io.eguan.nbdsrv.packet.DataPushingCmd;
 import io.eguan.nbdsrv.packet.DataPushingPacket;
 import io.eguan.nbdsrv.packet.DataPushingReplyPacket;
 import io.eguan.nbdsrv.packet.NbdException;
+import io.eguan.nbdsrv.packet.StructuredReplyPacket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -46,21 +47,24 @@ class ReadTask extends TaskAbstract {
     private final long offset;
     /** the Buffer to store the result */
     private final ByteBuffer dst;
+    /** Flags of the command */
+    private final int flags;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ReadTask.class);
 
-    ReadTask(final NbdClient client, final ByteBuffer dst, final long offset) {
+    ReadTask(final NbdClient client, final ByteBuffer dst, final long offset, final int flags) {
         super();
         this.client = client;
         this.offset = offset;
         this.dst = dst;
+        this.flags = flags;
     }
 
     @Override
     public final Boolean call() throws IOException, NbdException {
 
         // Send read request
-        final DataPushingPacket dataPushingPacket = new DataPushingPacket(DataPushingPacket.MAGIC,
+        final DataPushingPacket dataPushingPacket = new DataPushingPacket(DataPushingPacket.MAGIC, flags,
                 DataPushingCmd.NBD_CMD_READ, getHandle(), offset, dst.limit() - dst.position());
 
         final ByteBuffer header = DataPushingPacket.serialize(dataPushingPacket);
@@ -73,6 +77,10 @@ class ReadTask extends TaskAbstract {
 
         // Wait Answer
         LOGGER.debug("Read Data Pushing Reply");
+        if (client.isStructuredReplies()) {
+            readStructuredReply();
+            return true;
+        }
 
         final ByteBuffer reply = DataPushingReplyPacket.allocateHeader();
 
@@ -87,4 +95,54 @@ class ReadTask extends TaskAbstract {
         client.readSocket(dst);
         return true;
     }
+
+    /**
+     * Read the chunks of a structured reply. The holes are filled with zeros.
+     * 
+     * @throws IOException
+     * @throws NbdException
+     */
+    private final void readStructuredReply() throws IOException, NbdException {
+        final int start = dst.position();
+        final int end = dst.limit();
+        boolean done = false;
+        while (!done) {
+            final StructuredReplyPacket reply = client.readStructuredReplyHeader();
+            if (reply.getHandle() != getHandle()) {
+                throw new NbdException("Unexpected handle=0x" + Long.toHexString(reply.getHandle()));
+            }
+            done = (reply.getFlags() & StructuredReplyPacket.NBD_REPLY_FLAG_DONE) != 0;
+            switch (reply.getType()) {
+            case NBD_REPLY_TYPE_OFFSET_DATA: {
+                final ByteBuffer chunkOffset = ByteBuffer.allocate(8);
+                client.readSocket(chunkOffset);
+                final int position = start + (int) (chunkOffset.getLong() - offset);
+                final ByteBuffer data = dst.duplicate();
+                data.limit(position + (int) reply.getLength() - 8).position(position);
+                client.readSocket(data);
+                break;
+            }
+            case NBD_REPLY_TYPE_OFFSET_HOLE: {
+                final ByteBuffer hole = ByteBuffer.allocate(8 + 4);
+                client.readSocket(hole);
+                final int position = start + (int) (hole.getLong() - offset);
+                final int length = hole.getInt();
+                for (int i = 0; i < length; i++) {
+                    dst.put(position + i, (byte) 0);
+                }
+                client.addHoleBytes(length);
+                break;
+            }
+            case NBD_REPLY_TYPE_NONE:
+                break;
+            default:
+                final ByteBuffer payload = ByteBuffer.allocate((int) reply.getLength());
+                client.readSocket(payload);
+                throw new NbdException("Unexpected chunk " + reply.getType());
+            }
+        }
+        // Same state as after a simple reply
+        dst.limit(end).position(end);
+        dst.flip();
+    }
 }
@@ -25,11 +25,9 @@ import io.eguan.proto.net.MsgWrapper;
 import io.eguan.proto.net.MsgWrapper.MsgReply;
 
 import java.net.InetSocketAddress;
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -58,8 +56,8 @@ final class MsgClientHandler extends SimpleChannelHandler {
 
     /** <code>true</code> if the handler is the main broadcast channel */
     private final boolean mainChannel;
-    /** Map used to wait for acknowledgments from remote peers through the use of a count down latch. */
-    private final Map<Long, CountDownLatch> mapQueue;
+    /** Requests waiting for the replies of the remote peers, by message id. */
+    private final Map<Long, MsgClientRequest> requests;
     private final ClientBootstrap clientBootstrap;
     /** A ReadWrite lock to protect the variable channelGroup. */
     private final ReadWriteLock lockClientStarted;
@@ -70,7 +68,6 @@ final class MsgClientHandler extends SimpleChannelHandler {
     private final Map<InetSocketAddress, PeerReconnection> peersConnect;
     @GuardedBy(value = "peersConnect")
     private final Map<UUID, InetSocketAddress> peerNodes;
-    private final Map<Long, Queue<MsgServerRemoteStatus>> mapExceptions;
     /** Timer used to generated reconnection to remote peers. */
     private final AtomicReference<Timer> timerRef;
     /** Message client id. */
@@ -80,16 +77,17 @@ final class MsgClientHandler extends SimpleChannelHandler {
     /** Tells whether the client is started. */
     @GuardedBy(value = "lockClientStarted")
     private final AtomicBoolean clientStarted;
+    /** Notified when a lagging peer is connected again. */
+    private final List<MsgClientLaggingPeerListener> laggingPeerListeners;
 
-    MsgClientHandler(final boolean mainChannel, final UUID msgClientId, final Map<Long, CountDownLatch> mapQueue,
-            final Map<Long, Queue<MsgServerRemoteStatus>> mapExceptions, final ClientBootstrap clientBootstrap,
-            final ChannelGroup channelGroup, final ReadWriteLock lockClientStarted, final AtomicBoolean clientStarted,
+    MsgClientHandler(final boolean mainChannel, final UUID msgClientId, final Map<Long, MsgClientRequest> requests,
+            final ClientBootstrap clientBootstrap, final ChannelGroup channelGroup,
+            final ReadWriteLock lockClientStarted, final AtomicBoolean clientStarted,
             final Map<InetSocketAddress, PeerReconnection> peersConnect, final Map<UUID, InetSocketAddress> peerNodes,
-            final AtomicReference<Timer> timerRef) {
+            final AtomicReference<Timer> timerRef, final List<MsgClientLaggingPeerListener> laggingPeerListeners) {
         this.mainChannel = mainChannel;
         this.msgClientId = msgClientId;
-        this.mapQueue = mapQueue;
-        this.mapExceptions = mapExceptions;
+        this.requests = requests;
         this.clientBootstrap = clientBootstrap;
         this.channelGroup = channelGroup;
         this.lockClientStarted = lockClientStarted;
@@ -97,29 +95,29 @@ final class MsgClientHandler extends SimpleChannelHandler {
         this.peersConnect = peersConnect;
         this.peerNodes = peerNodes;
         this.timerRef = timerRef;
+        this.laggingPeerListeners = laggingPeerListeners;
     }
 
     @Override
     public final void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) {
         final MsgWrapper.MsgReply msgReply = (MsgReply) e.getMessage();
-        final Long msgMsgId = Long.valueOf(msgReply.getMsgId());
+        final MsgClientRequest request = requests.get(Long.valueOf(msgReply.getMsgId()));
+        MsgServerRemoteStatus msgServerRemoteStatus = null;
 
-        // If an error occurs into the remote peer then add the associated exception to the mapExceptions
+        // If an error occurs into the remote peer then add the associated exception to the statuses of the request
         if (!msgReply.getStatus()) {
-            final Collection<MsgServerRemoteStatus> msgServerRemoteStatus = mapExceptions.get(msgMsgId);
-            if (msgServerRemoteStatus != null) {
-                msgServerRemoteStatus.add(new MsgServerRemoteStatus(msgPeerId, msgReply.getException(), e
-                        .getRemoteAddress()));
+            if (request != null) {
+                msgServerRemoteStatus = new MsgServerRemoteStatus(msgPeerId, msgReply.getException(),
+                        e.getRemoteAddress());
             }
 
             MsgClientStartpoint.LOGGER.warn("Msg client [{}] receive exception '{}' from '{}/{}'", new Object[] {
                     msgClientId, msgReply.getException(), msgPeerId, e.getRemoteAddress() });
         }
         else if (msgReply.hasRepData()) {
-            final Collection<MsgServerRemoteStatus> msgServerRemoteStatus = mapExceptions.get(msgMsgId);
-            if (msgServerRemoteStatus != null) {
-                msgServerRemoteStatus.add(new MsgServerRemoteStatus(msgPeerId, msgReply.getRepData(), e
-                        .getRemoteAddress()));
+            if (request != null) {
+                msgServerRemoteStatus = new MsgServerRemoteStatus(msgPeerId, msgReply.getRepData(),
+                        e.getRemoteAddress());
             }
 
             if (MsgClientStartpoint.LOGGER.isDebugEnabled()) {
@@ -128,12 +126,10 @@ final class MsgClientHandler extends SimpleChannelHandler {
             }
         }
 
-        // ACK received then increment the counter of the count down latch associated to the message
-        final CountDownLatch countDownLatch = mapQueue.get(msgMsgId);
-        if (countDownLatch != null) {
-            countDownLatch.countDown();
+        // ACK received: the request may be complete
+        if (request != null) {
+            request.replyReceived(ctx.getChannel(), msgServerRemoteStatus);
         }
-
     }
 
     @Override
@@ -153,6 +149,7 @@ final class MsgClientHandler extends SimpleChannelHandler {
         }
 
         final InetSocketAddress peer;
+        boolean lagging = false;
         synchronized (peersConnect) {
             assert msgPeerId == null;
 
@@ -167,7 +164,7 @@ final class MsgClientHandler extends SimpleChannelHandler {
                 }
 
                 // Reset the exponential backoff algorithm for that remote peer
-                peerReconnection.connected();
+                lagging = peerReconnection.connected();
             }
 
             // Look for the UUID of the peer
@@ -196,6 +193,20 @@ final class MsgClientHandler extends SimpleChannelHandler {
             }
         }
         MsgClientStartpoint.LOGGER.info("Msg client [{}] connected to '{}@{}'", msgClientId, msgPeerId, peer);
+
+        // Some messages have been dropped before the connection
+        if (lagging) {
+            final UUID node = msgPeerId;
+            MsgClientStartpoint.LOGGER.info("Msg client [{}] resynchronizing '{}@{}'", msgClientId, node, peer);
+            for (final MsgClientLaggingPeerListener listener : laggingPeerListeners) {
+                try {
+                    listener.laggingPeerConnected(node);
+                }
+                catch (final Throwable t) {
+                    MsgClientStartpoint.LOGGER.warn("Failed to notify the connection of '" + node + "'", t);
+                }
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,44 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Notified when a peer that missed some messages is connected again. The main channel of a peer is closed when a
+ * message is dropped, because its send queue was full (see {@link MsgClientQueuePolicy}): the messages sent to the
+ * peer after the first drop are discarded too. Once the peer is connected again, its state must be resynchronized.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public interface MsgClientLaggingPeerListener {
+
+    /**
+     * Called when a peer that missed some messages is connected. Called by an I/O thread: the listener must not block.
+     * 
+     * @param node
+     *            the UUID of the peer
+     */
+    void laggingPeerConnected(@Nonnull UUID node);
+}
@@ -44,6 +44,151 @@ public interface MsgClientMXBean {
      */
     void setTimeout(final long timeout);
 
+    /**
+     * Gets the timeout of the requests sent on new channels.
+     * 
+     * @return the maximum allowed duration of a request sent on a new channel in ms.
+     */
+    long getTimeoutNewChannel();
+
+    /**
+     * Sets the timeout of the requests sent on new channels.
+     * 
+     * @param timeout
+     *            the maximum allowed duration of a request sent on a new channel in ms, connection included.
+     */
+    void setTimeoutNewChannel(final long timeout);
+
+    /**
+     * Gets the maximum number of requests waiting for a reply on a channel.
+     * 
+     * @return the maximum number of requests in flight per channel.
+     */
+    int getMaxRequestsInFlight();
+
+    /**
+     * Sets the maximum number of requests waiting for a reply on a channel. The next requests are queued.
+     * 
+     * @param maxRequestsInFlight
+     *            the maximum number of requests in flight per channel, strictly positive.
+     */
+    void setMaxRequestsInFlight(final int maxRequestsInFlight);
+
+    /**
+     * Gets the policy applied when the send queue of a peer is full.
+     * 
+     * @return the policy of the send queues
+     */
+    MsgClientQueuePolicy getQueuePolicy();
+
+    /**
+     * Sets the policy applied when the send queue of a peer is full.
+     * 
+     * @param queuePolicy
+     *            the policy of the send queues
+     */
+    void setQueuePolicy(final MsgClientQueuePolicy queuePolicy);
+
+    /**
+     * Gets the maximum number of messages in the send queue of a peer.
+     * 
+     * @return the high-water mark of the queue, in messages
+     */
+    int getQueueMaxMessages();
+
+    /**
+     * Sets the maximum number of messages in the send queue of a peer.
+     * 
+     * @param queueMaxMessages
+     *            the high-water mark of the queue, strictly positive
+     */
+    void setQueueMaxMessages(final int queueMaxMessages);
+
+    /**
+     * Gets the maximum number of bytes in the send queue of a peer.
+     * 
+     * @return the high-water mark of the queue, in bytes
+     */
+    long getQueueMaxBytes();
+
+    /**
+     * Sets the maximum number of bytes in the send queue of a peer.
+     * 
+     * @param queueMaxBytes
+     *            the high-water mark of the queue, strictly positive
+     */
+    void setQueueMaxBytes(final long queueMaxBytes);
+
+    /**
+     * Gets the maximum time a writer waits for some room in a full send queue, with the policy
+     * {@link MsgClientQueuePolicy#BLOCK}. The message is dropped after this delay.
+     * 
+     * @return the delay in ms. Waits forever if <code>0</code> or negative.
+     */
+    long getQueueBlockTimeout();
+
+    /**
+     * Sets the maximum time a writer waits for some room in a full send queue.
+     * 
+     * @param queueBlockTimeout
+     *            the delay in ms. Waits forever if <code>0</code> or negative.
+     */
+    void setQueueBlockTimeout(final long queueBlockTimeout);
+
+    /**
+     * Gets the number of requests not complete.
+     * 
+     * @return the number of requests waiting for replies.
+     */
+    int getPendingRequestCount();
+
+    /**
+     * Gets the number of messages queued, waiting for the replies of the previous requests.
+     * 
+     * @return the number of messages not written yet.
+     */
+    int getQueuedRequestCount();
+
+    /**
+     * Gets the number of requests completed.
+     * 
+     * @return the number of requests completed since the start or the last reset.
+     */
+    long getRequestCount();
+
+    /**
+     * Gets the number of requests completed by their timeout.
+     * 
+     * @return the number of requests timed out since the start or the last reset.
+     */
+    long getRequestTimeoutCount();
+
+    /**
+     * Gets the number of requests cancelled.
+     * 
+     * @return the number of requests cancelled since the start or the last reset.
+     */
+    long getRequestCancelCount();
+
+    /**
+     * Gets the average latency of the requests not cancelled.
+     * 
+     * @return the average duration of the requests in us.
+     */
+    long getRequestLatencyAverage();
+
+    /**
+     * Gets the maximum latency of the requests not cancelled.
+     * 
+     * @return the maximum duration of a request in us.
+     */
+    long getRequestLatencyMax();
+
+    /**
+     * Resets the statistics of the requests.
+     */
+    void resetRequestStatistics();
+
     /**
      * Gets Peers count.
      * 
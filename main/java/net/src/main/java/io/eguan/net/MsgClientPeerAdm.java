@@ -42,6 +42,11 @@ public final class MsgClientPeerAdm {
     private final String ipAddress;
     private final int port;
     private final boolean isConnected;
+    private final int queueDepth;
+    private final long queueBytes;
+    private final long dropCount;
+    private final long stallCount;
+    private final boolean lagging;
 
     /**
      * Constructs an immutable instance.
@@ -55,13 +60,47 @@ public final class MsgClientPeerAdm {
      * @param isConnected
      *            <code>true</code> if the peer is connected
      */
-    @ConstructorProperties({ "uuid", "ipAddress", "port", "connected" })
     public MsgClientPeerAdm(@Nonnull final String uuid, @Nonnull final String ipAddress, final int port,
             final boolean isConnected) {
+        this(uuid, ipAddress, port, isConnected, 0, 0, 0, 0, false);
+    }
+
+    /**
+     * Constructs an immutable instance, with the state of the send queue of the peer.
+     * 
+     * @param uuid
+     *            the globally unique ID of this node
+     * @param ipAddress
+     *            the IP Address of the node
+     * @param port
+     *            the port of this node.
+     * @param isConnected
+     *            <code>true</code> if the peer is connected
+     * @param queueDepth
+     *            number of messages in the send queue
+     * @param queueBytes
+     *            number of bytes in the send queue
+     * @param dropCount
+     *            number of messages dropped because the send queue was full
+     * @param stallCount
+     *            number of writers blocked because the send queue was full
+     * @param lagging
+     *            <code>true</code> if some messages have been dropped since the connection of the peer
+     */
+    @ConstructorProperties({ "uuid", "ipAddress", "port", "connected", "queueDepth", "queueBytes", "dropCount",
+            "stallCount", "lagging" })
+    public MsgClientPeerAdm(@Nonnull final String uuid, @Nonnull final String ipAddress, final int port,
+            final boolean isConnected, final int queueDepth, final long queueBytes, final long dropCount,
+            final long stallCount, final boolean lagging) {
         this.uuid = Objects.requireNonNull(uuid);
         this.ipAddress = Objects.requireNonNull(ipAddress);
         this.port = port;
         this.isConnected = isConnected;
+        this.queueDepth = queueDepth;
+        this.queueBytes = queueBytes;
+        this.dropCount = dropCount;
+        this.stallCount = stallCount;
+        this.lagging = lagging;
     }
 
     /**
@@ -73,10 +112,17 @@ public final class MsgClientPeerAdm {
      *            the IP Address of the node
      * @param isConnected
      *            true if peer connected, false if not connected
+     * @param queueDepth
+     * @param queueBytes
+     * @param dropCount
+     * @param stallCount
+     * @param lagging
      */
-    MsgClientPeerAdm(final UUID uuid, final InetSocketAddress address, final boolean isConnected) {
+    MsgClientPeerAdm(final UUID uuid, final InetSocketAddress address, final boolean isConnected,
+            final int queueDepth, final long queueBytes, final long dropCount, final long stallCount,
+            final boolean lagging) {
         this(uuid.toString(), address == null ? "" : address.getAddress().getHostAddress(), address == null ? 0
-                : address.getPort(), isConnected);
+                : address.getPort(), isConnected, queueDepth, queueBytes, dropCount, stallCount, lagging);
     }
 
     /**
@@ -115,4 +161,49 @@ public final class MsgClientPeerAdm {
     public final boolean isConnected() {
         return isConnected;
     }
+
+    /**
+     * Gets the number of messages in the send queue of the peer.
+     * 
+     * @return the depth of the queue
+     */
+    public final int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Gets the number of bytes in the send queue of the peer.
+     * 
+     * @return the number of bytes pending
+     */
+    public final long getQueueBytes() {
+        return queueBytes;
+    }
+
+    /**
+     * Gets the number of messages dropped because the send queue of the peer was full.
+     * 
+     * @return the number of messages dropped
+     */
+    public final long getDropCount() {
+        return dropCount;
+    }
+
+    /**
+     * Gets the number of writers blocked because the send queue of the peer was full.
+     * 
+     * @return the number of stalls
+     */
+    public final long getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * Tells if some messages have been dropped since the connection of the peer.
+     * 
+     * @return <code>true</code> if the peer is lagging
+     */
+    public final boolean isLagging() {
+        return lagging;
+    }
 }
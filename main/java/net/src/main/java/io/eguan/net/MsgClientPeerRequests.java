@@ -0,0 +1,371 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.net.MsgClientStartpoint.PeerReconnection;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+/**
+ * Messages written on a channel to a peer. The number of requests waiting for a reply on the channel is bounded: the
+ * next requests are queued and written when some replies are received. The messages without reply are queued behind
+ * the pending requests, to keep the order of the messages sent on the channel.
+ * <p>
+ * On the main channel of a peer, the messages queued or not flushed yet are bounded too, in count and in bytes. When
+ * the queue is full, the writer is blocked or the message is dropped, according to the {@link MsgClientQueuePolicy}.
+ * The channel is closed on the first drop: the peer does not receive any message after the missing one, and the
+ * {@link MsgClientLaggingPeerListener}s are notified on its next connection.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class MsgClientPeerRequests {
+
+    /**
+     * A message waiting to be written.
+     * 
+     */
+    private static final class PendingWrite {
+        /** The request or <code>null</code> for a message without reply */
+        private final MsgClientRequest request;
+        private final ChannelBuffer buffer;
+        private final int size;
+
+        PendingWrite(final MsgClientRequest request, final ChannelBuffer buffer) {
+            super();
+            this.request = request;
+            this.buffer = buffer;
+            this.size = buffer.readableBytes();
+        }
+    }
+
+    private final MsgClientStartpoint clientStartpoint;
+    private final Channel channel;
+    /** The peer of a main channel or <code>null</code>: the queue is bounded if set */
+    private final PeerReconnection peer;
+
+    /** Requests written, waiting for a reply */
+    @GuardedBy(value = "this")
+    private final Set<MsgClientRequest> inFlight = new HashSet<>();
+    /** Messages waiting to be written, in order */
+    @GuardedBy(value = "this")
+    private final Queue<PendingWrite> pendingWrites = new ArrayDeque<>();
+    /** <code>true</code> while a thread writes the pending messages */
+    @GuardedBy(value = "this")
+    private boolean writing;
+    @GuardedBy(value = "this")
+    private boolean closed;
+    /** Messages queued or written but not flushed yet */
+    @GuardedBy(value = "this")
+    private int pendingMessages;
+    @GuardedBy(value = "this")
+    private long pendingBytes;
+
+    MsgClientPeerRequests(@Nonnull final MsgClientStartpoint clientStartpoint, @Nonnull final Channel channel,
+            final PeerReconnection peer) {
+        super();
+        this.clientStartpoint = clientStartpoint;
+        this.channel = channel;
+        this.peer = peer;
+    }
+
+    /**
+     * Writes a message on the channel, now or after the replies of the previous requests.
+     * 
+     * @param request
+     *            the request waiting for the reply or <code>null</code> for a message without reply
+     * @param buffer
+     *            the message, framed
+     * @param mayBlock
+     *            <code>false</code> if the current thread must not wait for some room in the queue
+     */
+    final void write(final MsgClientRequest request, @Nonnull final ChannelBuffer buffer, final boolean mayBlock) {
+        final PendingWrite pendingWrite = new PendingWrite(request, buffer);
+        final boolean queued;
+        boolean full = false;
+        synchronized (this) {
+            if (!closed && isFull()) {
+                full = !waitForRoom(mayBlock);
+            }
+            queued = !closed && !full;
+            if (queued) {
+                pendingWrites.add(pendingWrite);
+                pendingMessages++;
+                pendingBytes += pendingWrite.size;
+            }
+        }
+
+        if (queued) {
+            writePending();
+            return;
+        }
+        if (full && peer.dropped()) {
+            // Discard the next messages too: the peer is resynchronized on its next connection
+            MsgClientStartpoint.LOGGER.warn("Send queue of '{}' full, peer lagging", channel.getRemoteAddress());
+            channel.close();
+        }
+        if (request != null) {
+            request.channelFailed(channel, full ? new IOException("Send queue full") : new ClosedChannelException());
+        }
+    }
+
+    /**
+     * Releases the slot taken by a request, when the request is complete.
+     * 
+     * @param request
+     */
+    final void release(final MsgClientRequest request) {
+        synchronized (this) {
+            if (!inFlight.remove(request)) {
+                return;
+            }
+        }
+        writePending();
+    }
+
+    /**
+     * Called when the channel is closed: the requests waiting for a reply fail.
+     */
+    final void close() {
+        final List<MsgClientRequest> failed;
+        synchronized (this) {
+            closed = true;
+            failed = new ArrayList<>(inFlight);
+            for (final PendingWrite pendingWrite : pendingWrites) {
+                if (pendingWrite.request != null) {
+                    failed.add(pendingWrite.request);
+                }
+            }
+            inFlight.clear();
+            pendingWrites.clear();
+            pendingMessages = 0;
+            pendingBytes = 0;
+            notifyAll();
+        }
+        final ClosedChannelException cause = new ClosedChannelException();
+        for (int i = 0; i < failed.size(); i++) {
+            failed.get(i).channelFailed(channel, cause);
+        }
+    }
+
+    final synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Gets the number of requests waiting for a reply.
+     * 
+     * @return the number of requests written on the channel
+     */
+    final synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Gets the number of messages waiting to be written.
+     * 
+     * @return the number of messages queued
+     */
+    final synchronized int getPendingCount() {
+        return pendingWrites.size();
+    }
+
+    /**
+     * Gets the number of messages queued or not flushed yet.
+     * 
+     * @return the depth of the send queue
+     */
+    final synchronized int getPendingMessages() {
+        return pendingMessages;
+    }
+
+    /**
+     * Gets the size of the messages queued or not flushed yet.
+     * 
+     * @return the number of bytes in the send queue
+     */
+    final synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Gets the peer of the main channel.
+     * 
+     * @return the peer or <code>null</code> if the queue is not bounded
+     */
+    final PeerReconnection getPeer() {
+        return peer;
+    }
+
+    /**
+     * Tells if the send queue reached one of its high-water marks.
+     * 
+     * @return <code>true</code> if the queue is full
+     */
+    @GuardedBy(value = "this")
+    private final boolean isFull() {
+        return peer != null
+                && (pendingMessages >= clientStartpoint.getQueueMaxMessages() || pendingBytes >= clientStartpoint
+                        .getQueueMaxBytes());
+    }
+
+    /**
+     * Waits until the send queue have some room, if the policy allows it.
+     * 
+     * @param mayBlock
+     * @return <code>true</code> if the queue have some room or if the channel is closed, <code>false</code> if the
+     *         message must be dropped
+     */
+    @GuardedBy(value = "this")
+    private final boolean waitForRoom(final boolean mayBlock) {
+        if (!mayBlock || clientStartpoint.getQueuePolicy() != MsgClientQueuePolicy.BLOCK) {
+            return false;
+        }
+        peer.stalled();
+
+        final long timeout = clientStartpoint.getQueueBlockTimeout();
+        final long end = System.currentTimeMillis() + timeout;
+        try {
+            while (!closed && isFull()) {
+                if (timeout <= 0) {
+                    wait();
+                }
+                else {
+                    final long remaining = end - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait(remaining);
+                }
+            }
+            return true;
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * A message have been flushed or dropped: releases its room in the send queue.
+     * 
+     * @param size
+     */
+    private final synchronized void written(final int size) {
+        if (!closed) {
+            pendingMessages--;
+            pendingBytes -= size;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the pending messages, in order, while the number of requests in flight is below the limit. The messages
+     * are written by one thread at a time, without holding the lock.
+     */
+    private final void writePending() {
+        synchronized (this) {
+            if (writing) {
+                return;
+            }
+            writing = true;
+        }
+        while (true) {
+            final PendingWrite next;
+            synchronized (this) {
+                next = pollNext();
+                if (next == null) {
+                    writing = false;
+                    return;
+                }
+            }
+            send(next);
+        }
+    }
+
+    /**
+     * Gets the next message to write.
+     * 
+     * @return the next message or <code>null</code> if the queue is empty or if too many requests are in flight
+     */
+    @GuardedBy(value = "this")
+    private final PendingWrite pollNext() {
+        final int maxInFlight = clientStartpoint.getMaxRequestsInFlight();
+        while (!pendingWrites.isEmpty()) {
+            final PendingWrite next = pendingWrites.peek();
+            if (next.request == null) {
+                return pendingWrites.poll();
+            }
+            if (next.request.isDone()) {
+                // Timed out or cancelled while queued
+                pendingWrites.poll();
+                pendingMessages--;
+                pendingBytes -= next.size;
+                notifyAll();
+                continue;
+            }
+            if (inFlight.size() >= maxInFlight) {
+                return null;
+            }
+            inFlight.add(next.request);
+            return pendingWrites.poll();
+        }
+        return null;
+    }
+
+    private final void send(final PendingWrite pendingWrite) {
+        final MsgClientRequest request = pendingWrite.request;
+        if (request != null && !request.sentOn(channel, this)) {
+            // Already complete
+            synchronized (this) {
+                inFlight.remove(request);
+            }
+            written(pendingWrite.size);
+            return;
+        }
+
+        channel.write(pendingWrite.buffer).addListener(new ChannelFutureListener() {
+            @Override
+            public final void operationComplete(final ChannelFuture future) {
+                written(pendingWrite.size);
+                if (request != null && !future.isSuccess()) {
+                    request.channelFailed(channel, future.getCause());
+                }
+            }
+        });
+    }
+}
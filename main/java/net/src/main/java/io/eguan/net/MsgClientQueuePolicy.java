@@ -0,0 +1,42 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * What to do with a message sent to a peer when its send queue is full. When a message is dropped, the peer is marked
+ * as lagging and its main channel is closed, with the messages still queued. The peer is resynchronized by the
+ * {@link MsgClientLaggingPeerListener}s on its next connection.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public enum MsgClientQueuePolicy {
+    /**
+     * The writer waits until the queue have some room. The message is dropped if the queue is still full after the
+     * block timeout.
+     */
+    BLOCK,
+    /**
+     * The message is dropped immediately.
+     */
+    DROP;
+}
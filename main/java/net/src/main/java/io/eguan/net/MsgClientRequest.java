@@ -0,0 +1,284 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.jboss.netty.channel.Channel;
+
+import com.google.common.util.concurrent.AbstractFuture;
+
+/**
+ * A request sent to some peers, waiting for their replies. The request is complete when all the peers have replied,
+ * when the channels to the peers are closed or when its deadline expires. The result is the collection of the
+ * {@link MsgServerRemoteStatus} received. The request fails with a {@link MsgServerTimeoutException} if no peer
+ * replied.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class MsgClientRequest extends AbstractFuture<Collection<MsgServerRemoteStatus>> {
+
+    private final long msgId;
+    /** Start of the request, in ns */
+    private final long startTime;
+
+    /** Channels waiting for a reply. <code>null</code> until the request is sent */
+    @GuardedBy(value = "this")
+    private Set<Channel> channels;
+    /** Channels on which the request is in flight */
+    @GuardedBy(value = "this")
+    private final Map<Channel, MsgClientPeerRequests> peerRequests = new HashMap<>();
+    @GuardedBy(value = "this")
+    private final List<MsgServerRemoteStatus> statuses = new ArrayList<>();
+    @GuardedBy(value = "this")
+    private int replyCount;
+    /** Tasks to run when the request is complete, before the notification of the result */
+    @GuardedBy(value = "this")
+    private List<Runnable> completionTasks = new ArrayList<>();
+    @GuardedBy(value = "this")
+    private boolean completed;
+    /** <code>true</code> if the request have been completed by its deadline */
+    private volatile boolean timedOut;
+
+    MsgClientRequest(final long msgId) {
+        super();
+        this.msgId = msgId;
+        this.startTime = System.nanoTime();
+    }
+
+    final long getMsgId() {
+        return msgId;
+    }
+
+    /**
+     * Gets the start date of the request.
+     * 
+     * @return the value of {@link System#nanoTime()} when the request was created
+     */
+    final long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Tells if the request have been completed by its deadline.
+     * 
+     * @return <code>true</code> if the request has timed out
+     */
+    final boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Sets the channels the request is sent to. Must be called once, before writing the request. The request is
+     * complete if the collection is empty.
+     * 
+     * @param channels
+     */
+    final void setChannels(@Nonnull final Collection<Channel> channels) {
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+            assert this.channels == null;
+            this.channels = new HashSet<>(channels);
+            if (!this.channels.isEmpty()) {
+                return;
+            }
+        }
+        complete(null, false, false);
+    }
+
+    /**
+     * Notifies that the request is about to be written on a channel.
+     * 
+     * @param channel
+     * @param channelRequests
+     *            the requests of the channel, released when the request is complete
+     * @return <code>false</code> if the request is already complete and must not be written
+     */
+    final synchronized boolean sentOn(final Channel channel, final MsgClientPeerRequests channelRequests) {
+        if (completed) {
+            return false;
+        }
+        peerRequests.put(channel, channelRequests);
+        return true;
+    }
+
+    /**
+     * Notifies the reception of a reply.
+     * 
+     * @param channel
+     *            the channel the reply was received from
+     * @param status
+     *            the status sent by the peer or <code>null</code> for a simple acknowledgment
+     */
+    final void replyReceived(final Channel channel, final MsgServerRemoteStatus status) {
+        final MsgClientPeerRequests released;
+        final boolean done;
+        synchronized (this) {
+            if (completed || channels == null || !channels.remove(channel)) {
+                return;
+            }
+            replyCount++;
+            if (status != null) {
+                statuses.add(status);
+            }
+            released = peerRequests.remove(channel);
+            done = channels.isEmpty();
+        }
+        if (released != null) {
+            released.release(this);
+        }
+        if (done) {
+            complete(null, false, false);
+        }
+    }
+
+    /**
+     * Notifies that the request can not be sent or that no reply will come from the given channel.
+     * 
+     * @param channel
+     * @param cause
+     */
+    final void channelFailed(final Channel channel, final Throwable cause) {
+        final MsgClientPeerRequests released;
+        final boolean done;
+        final boolean replied;
+        synchronized (this) {
+            if (completed || channels == null || !channels.remove(channel)) {
+                return;
+            }
+            released = peerRequests.remove(channel);
+            done = channels.isEmpty();
+            replied = replyCount > 0;
+        }
+        if (released != null) {
+            released.release(this);
+        }
+        if (done) {
+            complete(replied ? null : new MsgServerTimeoutException("Msg send failed: " + msgId, cause), false, false);
+        }
+    }
+
+    /**
+     * The deadline of the request is reached: the request fails if no peer have replied, otherwise the replies
+     * received are returned.
+     */
+    final void expire() {
+        complete(null, false, true);
+    }
+
+    /**
+     * The request fails.
+     * 
+     * @param cause
+     */
+    final void fail(@Nonnull final Throwable cause) {
+        complete(cause, false, false);
+    }
+
+    /**
+     * Adds a task to run when the request is complete. The task is run before the notification of the result or
+     * immediately if the request is already complete.
+     * 
+     * @param task
+     */
+    final void addCompletionTask(@Nonnull final Runnable task) {
+        synchronized (this) {
+            if (!completed) {
+                completionTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    public final boolean cancel(final boolean mayInterruptIfRunning) {
+        return complete(null, true, false);
+    }
+
+    /**
+     * Completes the request: releases the channels, runs the completion tasks and notifies the result.
+     * 
+     * @param cause
+     *            the cause of the failure or <code>null</code>
+     * @param cancel
+     *            <code>true</code> if the request is cancelled
+     * @param expired
+     *            <code>true</code> if the deadline of the request is reached. The request fails if no peer have
+     *            replied.
+     * @return <code>true</code> if the request has been completed by this call
+     */
+    private final boolean complete(final Throwable cause, final boolean cancel, final boolean expired) {
+        final List<MsgClientPeerRequests> released;
+        final List<Runnable> tasks;
+        final Collection<MsgServerRemoteStatus> result;
+        final Throwable failure;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+            timedOut = expired;
+            failure = expired && replyCount == 0 ? new MsgServerTimeoutException("Msg time out: " + msgId) : cause;
+            released = new ArrayList<>(peerRequests.values());
+            peerRequests.clear();
+            tasks = completionTasks;
+            completionTasks = null;
+            result = Collections.unmodifiableList(statuses);
+        }
+
+        for (int i = 0; i < released.size(); i++) {
+            released.get(i).release(this);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).run();
+            }
+            catch (final Throwable t) {
+                MsgClientStartpoint.LOGGER.warn("Error while completing request " + msgId, t);
+            }
+        }
+
+        if (cancel) {
+            return super.cancel(false);
+        }
+        else if (failure == null) {
+            return set(result);
+        }
+        else {
+            return setException(failure);
+        }
+    }
+}
@@ -289,10 +289,29 @@ final class MsgClientSpareChannels {
      */
     final PeerChannel getChannel(@Nonnull final UUID node, @Nonnull final InetSocketAddress nodeAddr)
             throws ConnectException, InterruptedException {
-        Objects.requireNonNull(node);
         Objects.requireNonNull(nodeAddr);
 
         // Look for a spare channel
+        final PeerChannel spareChannel = pollChannel(node);
+        if (spareChannel != null) {
+            return spareChannel;
+        }
+
+        // Open a new channel
+        final Channel peerChannel = clientStartpoint.newSecondaryChannelFuture(nodeAddr);
+        return newPeerChannel(node, peerChannel);
+    }
+
+    /**
+     * Gets a spare channel connected to the given peer, if any.
+     * 
+     * @param node
+     *            peer to connect to
+     * @return the Channel and peer ID or <code>null</code> if there is no spare channel for <code>node</code>.
+     */
+    final PeerChannel pollChannel(@Nonnull final UUID node) {
+        Objects.requireNonNull(node);
+
         final Iterator<PeerChannelRef> ite = spareChannels.iterator();
         while (ite.hasNext()) {
             final PeerChannelRef peerChannelRef = ite.next();
@@ -305,10 +324,20 @@ final class MsgClientSpareChannels {
                 }
             }
         }
+        return null;
+    }
 
-        // Open a new channel
-        final Channel peerChannel = clientStartpoint.newSecondaryChannelFuture(nodeAddr);
-        return new PeerChannelImpl(node, peerChannel);
+    /**
+     * Creates a {@link PeerChannel} for a new channel connected to the given peer.
+     * 
+     * @param node
+     *            peer connected
+     * @param channel
+     *            channel connected to <code>node</code>
+     * @return a new {@link PeerChannel}, to release after use.
+     */
+    final PeerChannel newPeerChannel(@Nonnull final UUID node, @Nonnull final Channel channel) {
+        return new PeerChannelImpl(Objects.requireNonNull(node), Objects.requireNonNull(channel));
     }
 
     /**
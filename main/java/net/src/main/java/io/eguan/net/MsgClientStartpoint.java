@@ -21,22 +21,22 @@ package io.eguan.net;
  */
 
 import io.eguan.net.MsgClientSpareChannels.PeerChannel;
-import io.eguan.proto.Common.ProtocolVersion;
 import io.eguan.proto.net.MsgWrapper;
 
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -57,10 +57,10 @@ import javax.management.ObjectName;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
@@ -69,15 +69,19 @@ import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.protobuf.ProtobufDecoder;
 import org.jboss.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
-import org.jboss.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
+import org.jboss.netty.util.Timeout;
 import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.jboss.netty.util.internal.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.MessageLite;
 
 /**
@@ -117,10 +121,10 @@ public class MsgClientStartpoint implements MsgClientMXBean {
             final ChannelPipeline pipeline = Channels.pipeline();
             pipeline.addLast("frameDecoder", new ProtobufVarint32FrameDecoder());
             pipeline.addLast("protobufDecoder", new ProtobufDecoder(MsgWrapper.MsgReply.getDefaultInstance()));
-            pipeline.addLast("msgClientHandler", new MsgClientHandler(mainChannel, msgClientId, mapQueue,
-                    mapExceptions, bootstrap, channelGroup, lockClientStarted, clientStarted, peersConnect, peerNodes,
-                    timerRef));
-            pipeline.addLast("frameEncoder", new ProtobufVarint32LengthFieldPrepender());
+            pipeline.addLast("msgClientHandler", new MsgClientHandler(mainChannel, msgClientId, requests, bootstrap,
+                    channelGroup, lockClientStarted, clientStarted, peersConnect, peerNodes, timerRef,
+                    laggingPeerListeners));
+            // No frame encoder: the requests are written framed (see MsgFrames)
             return pipeline;
         }
     }
@@ -130,7 +134,10 @@ public class MsgClientStartpoint implements MsgClientMXBean {
      * count the number of reconnection attempts, the second is the exponent which is used to generated the max value of
      * the delay calculated by (2**exponent). Every five failed reconnection, the exponent is incremented. The delay is
      * limited to (2**11) = 2048 seconds in order to prevent very high delay.
-     * 
+     * <p>
+     * Keeps also the counters of the send queue of the peer: the peer is lagging when some messages have been dropped
+     * since its connection. The main channel of the peer is then closed, and the peer is resynchronized on its next
+     * connection.
      * 
      */
     static final class PeerReconnection {
@@ -138,19 +145,30 @@ public class MsgClientStartpoint implements MsgClientMXBean {
         private int exponent;
         private final AtomicBoolean connected;
         private static final Random random = new Random();
+        private final AtomicBoolean lagging;
+        /** Count of messages dropped, because the send queue was full */
+        private final AtomicLong dropCount;
+        /** Count of writers blocked, because the send queue was full */
+        private final AtomicLong stallCount;
 
         PeerReconnection() {
             super();
             connected = new AtomicBoolean(false);
+            lagging = new AtomicBoolean(false);
+            dropCount = new AtomicLong();
+            stallCount = new AtomicLong();
         }
 
         /**
          * Called when the peer is connected.
+         * 
+         * @return <code>true</code> if the peer was lagging: it must be resynchronized
          */
-        final void connected() {
+        final boolean connected() {
             attempt = 0;
             exponent = 0;
             connected.set(true);
+            return lagging.getAndSet(false);
         }
 
         /**
@@ -160,6 +178,43 @@ public class MsgClientStartpoint implements MsgClientMXBean {
             attempt = 0;
             exponent = 0;
             connected.set(false);
+            lagging.set(false);
+            dropCount.set(0);
+            stallCount.set(0);
+        }
+
+        /**
+         * Called when a message is dropped.
+         * 
+         * @return <code>true</code> if the peer was not lagging yet
+         */
+        final boolean dropped() {
+            dropCount.incrementAndGet();
+            return lagging.compareAndSet(false, true);
+        }
+
+        /**
+         * Called when a writer waits for some room in the send queue.
+         */
+        final void stalled() {
+            stallCount.incrementAndGet();
+        }
+
+        /**
+         * Tells if some messages have been dropped since the connection of the peer.
+         * 
+         * @return <code>true</code> if the peer may have missed some messages.
+         */
+        final boolean isLagging() {
+            return lagging.get();
+        }
+
+        final long getDropCount() {
+            return dropCount.get();
+        }
+
+        final long getStallCount() {
+            return stallCount.get();
         }
 
         /**
@@ -199,10 +254,10 @@ public class MsgClientStartpoint implements MsgClientMXBean {
     /** Set used to gather every channel created. */
     @GuardedBy(value = "lockClientStarted")
     private final ChannelGroup channelGroup = new DefaultChannelGroup(MsgClientStartpoint.class.getName());
-    /** Map used to wait for acknowledgments from remote peers through the use of a count down latch. */
-    private final ConcurrentMap<Long, CountDownLatch> mapQueue = new ConcurrentHashMap<>();
-    /** Map which contains the remotely raised exception for a given message. */
-    private final ConcurrentMap<Long, Queue<MsgServerRemoteStatus>> mapExceptions = new ConcurrentHashMap<>();
+    /** Requests waiting for the replies of the remote peers, by message id. */
+    private final ConcurrentMap<Long, MsgClientRequest> requests = new ConcurrentHashMap<>();
+    /** Messages written on each channel. */
+    private final ConcurrentMap<Channel, MsgClientPeerRequests> channelRequests = new ConcurrentHashMap<>();
     /** Timer used to generated reconnection to remote peers. */
     private final AtomicReference<Timer> timerRef = new AtomicReference<>();
     /** Executors used by Netty. */
@@ -223,6 +278,9 @@ public class MsgClientStartpoint implements MsgClientMXBean {
     @GuardedBy(value = "peersConnect")
     private final Map<UUID, InetSocketAddress> peerNodes = new HashMap<>();
 
+    /** Notified when a lagging peer is connected again. */
+    private final List<MsgClientLaggingPeerListener> laggingPeerListeners = new CopyOnWriteArrayList<>();
+
     /**
      * Generator of unique id for every message sent.
      */
@@ -248,6 +306,25 @@ public class MsgClientStartpoint implements MsgClientMXBean {
 
     private volatile long TIMEOUT_CONNECT = 20000; // 20s
 
+    private volatile long TIMEOUT_NEW_CHANNEL = 10 * 60 * 1000; // 10 minutes
+
+    /** Maximum number of requests waiting for a reply on a channel */
+    private volatile int maxRequestsInFlight = 256;
+
+    /** High-water marks of the send queue of a peer */
+    private volatile MsgClientQueuePolicy queuePolicy = MsgClientQueuePolicy.BLOCK;
+    private volatile int queueMaxMessages = 64 * 1024;
+    private volatile long queueMaxBytes = 64 * 1024 * 1024; // 64 MiB
+    private volatile long queueBlockTimeout = 10000; // ms
+
+    /** Statistics of the requests */
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong requestTimeoutCount = new AtomicLong();
+    private final AtomicLong requestCancelCount = new AtomicLong();
+    /** Sum and maximum of the latencies of the requests not cancelled, in us */
+    private final AtomicLong requestLatencyTotal = new AtomicLong();
+    private final AtomicLong requestLatencyMax = new AtomicLong();
+
     /**
      * Create a new client start point with a random UUID. For test purpose only.
      * 
@@ -323,6 +400,164 @@ public class MsgClientStartpoint implements MsgClientMXBean {
         this.TIMEOUT_REPLY = timeout;
     }
 
+    @Override
+    public final long getTimeoutNewChannel() {
+        return this.TIMEOUT_NEW_CHANNEL;
+    }
+
+    @Override
+    public final void setTimeoutNewChannel(final long timeout) {
+        this.TIMEOUT_NEW_CHANNEL = timeout;
+    }
+
+    @Override
+    public final int getMaxRequestsInFlight() {
+        return maxRequestsInFlight;
+    }
+
+    @Override
+    public final void setMaxRequestsInFlight(final int maxRequestsInFlight) {
+        if (maxRequestsInFlight <= 0) {
+            throw new IllegalArgumentException("maxRequestsInFlight=" + maxRequestsInFlight);
+        }
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    @Override
+    public final MsgClientQueuePolicy getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    @Override
+    public final void setQueuePolicy(@Nonnull final MsgClientQueuePolicy queuePolicy) {
+        this.queuePolicy = Objects.requireNonNull(queuePolicy);
+    }
+
+    @Override
+    public final int getQueueMaxMessages() {
+        return queueMaxMessages;
+    }
+
+    @Override
+    public final void setQueueMaxMessages(final int queueMaxMessages) {
+        if (queueMaxMessages <= 0) {
+            throw new IllegalArgumentException("queueMaxMessages=" + queueMaxMessages);
+        }
+        this.queueMaxMessages = queueMaxMessages;
+    }
+
+    @Override
+    public final long getQueueMaxBytes() {
+        return queueMaxBytes;
+    }
+
+    @Override
+    public final void setQueueMaxBytes(final long queueMaxBytes) {
+        if (queueMaxBytes <= 0) {
+            throw new IllegalArgumentException("queueMaxBytes=" + queueMaxBytes);
+        }
+        this.queueMaxBytes = queueMaxBytes;
+    }
+
+    @Override
+    public final long getQueueBlockTimeout() {
+        return queueBlockTimeout;
+    }
+
+    @Override
+    public final void setQueueBlockTimeout(final long queueBlockTimeout) {
+        this.queueBlockTimeout = queueBlockTimeout;
+    }
+
+    /**
+     * Tells if some messages sent to the given peer have been dropped since its connection, because its send queue was
+     * full. The peer is lagging until its next connection, where the {@link MsgClientLaggingPeerListener}s are
+     * notified.
+     * 
+     * @param node
+     *            the UUID of the peer
+     * @return <code>true</code> if the peer is lagging, <code>false</code> if it is not or if it is unknown
+     */
+    public final boolean isPeerLagging(@Nonnull final UUID node) {
+        synchronized (peersConnect) {
+            final InetSocketAddress address = peerNodes.get(node);
+            if (address == null) {
+                return false;
+            }
+            final PeerReconnection peerReconnection = peersConnect.get(address);
+            return peerReconnection != null && peerReconnection.isLagging();
+        }
+    }
+
+    /**
+     * Adds a listener notified when a peer that missed some messages is connected again.
+     * 
+     * @param listener
+     *            the listener to add
+     */
+    public final void addLaggingPeerListener(@Nonnull final MsgClientLaggingPeerListener listener) {
+        laggingPeerListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Removes a listener added by {@link #addLaggingPeerListener(MsgClientLaggingPeerListener)}.
+     * 
+     * @param listener
+     *            the listener to remove
+     */
+    public final void removeLaggingPeerListener(@Nonnull final MsgClientLaggingPeerListener listener) {
+        laggingPeerListeners.remove(listener);
+    }
+
+    @Override
+    public final int getPendingRequestCount() {
+        return requests.size();
+    }
+
+    @Override
+    public final int getQueuedRequestCount() {
+        int result = 0;
+        for (final MsgClientPeerRequests peerRequests : channelRequests.values()) {
+            result += peerRequests.getPendingCount();
+        }
+        return result;
+    }
+
+    @Override
+    public final long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public final long getRequestTimeoutCount() {
+        return requestTimeoutCount.get();
+    }
+
+    @Override
+    public final long getRequestCancelCount() {
+        return requestCancelCount.get();
+    }
+
+    @Override
+    public final long getRequestLatencyAverage() {
+        final long count = requestCount.get() - requestCancelCount.get();
+        return count <= 0 ? 0 : requestLatencyTotal.get() / count;
+    }
+
+    @Override
+    public final long getRequestLatencyMax() {
+        return requestLatencyMax.get();
+    }
+
+    @Override
+    public final void resetRequestStatistics() {
+        requestCount.set(0);
+        requestTimeoutCount.set(0);
+        requestCancelCount.set(0);
+        requestLatencyTotal.set(0);
+        requestLatencyMax.set(0);
+    }
+
     /**
      * Gets Peers count.
      * 
@@ -358,6 +593,15 @@ public class MsgClientStartpoint implements MsgClientMXBean {
      */
     @Override
     public final MsgClientPeerAdm[] getPeers() {
+        // Send queues of the main channels
+        final Map<PeerReconnection, MsgClientPeerRequests> queues = new HashMap<>();
+        for (final MsgClientPeerRequests peerRequests : channelRequests.values()) {
+            final PeerReconnection peer = peerRequests.getPeer();
+            if (peer != null && !peerRequests.isClosed()) {
+                queues.put(peer, peerRequests);
+            }
+        }
+
         MsgClientPeerAdm[] msgClientPeerAdm;
         int i = 0;
         synchronized (peersConnect) {
@@ -365,7 +609,11 @@ public class MsgClientStartpoint implements MsgClientMXBean {
             for (final Map.Entry<UUID, InetSocketAddress> entry : peerNodes.entrySet()) {
                 final InetSocketAddress address = entry.getValue();
                 final PeerReconnection peerReconnection = peersConnect.get(address);
-                msgClientPeerAdm[i++] = new MsgClientPeerAdm(entry.getKey(), address, peerReconnection.isConnected());
+                final MsgClientPeerRequests queue = queues.get(peerReconnection);
+                msgClientPeerAdm[i++] = new MsgClientPeerAdm(entry.getKey(), address, peerReconnection.isConnected(),
+                        queue == null ? 0 : queue.getPendingMessages(), queue == null ? 0 : queue.getPendingBytes(),
+                        peerReconnection.getDropCount(), peerReconnection.getStallCount(),
+                        peerReconnection.isLagging());
             }
         }
         return msgClientPeerAdm;
@@ -527,9 +775,16 @@ public class MsgClientStartpoint implements MsgClientMXBean {
                 return;
             }
 
+            clientStarted.set(false);
+
+            // Complete the pending requests: the timer of the deadlines is stopped below and the spare channels must be
+            // released before they are closed
+            for (final MsgClientRequest request : requests.values()) {
+                request.fail(new MsgServerTimeoutException("Msg client stopped: " + request.getMsgId()));
+            }
+
             msgClientSpareChannels.stop();
 
-            clientStarted.set(false);
             channelGroup.close().awaitUninterruptibly();
             channelGroup.clear();
 
@@ -605,8 +860,73 @@ public class MsgClientStartpoint implements MsgClientMXBean {
      */
     public final Collection<MsgServerRemoteStatus> sendSyncMessage(@Nonnull final MessageLite message)
             throws MsgServerTimeoutException, InterruptedException {
+        try {
+            return waitRequest(sendRequest(message, TIMEOUT_REPLY));
+        }
+        catch (final ConnectException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Send a Protobuf message in a synchronous manner to given node. The method send a message to the peer and wait its
+     * reply.
+     * 
+     * @param message
+     *            The protobuf message
+     * @return {@link MsgServerRemoteStatus} set if an error occurred on the remote peers or if the peer returns a reply
+     * @throws InterruptedException
+     *             If the current thread is interrupted
+     * @throws MsgServerTimeoutException
+     *             If a the sending time out.
+     */
+    public final MsgServerRemoteStatus sendSyncMessage(@Nonnull final UUID node, @Nonnull final MessageLite message)
+            throws MsgServerTimeoutException, InterruptedException {
+        try {
+            return getUniqueStatus(waitRequest(sendRequest(node, message, TIMEOUT_REPLY)));
+        }
+        catch (final ConnectException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Send a Protobuf message in a synchronous manner to given node on a new {@link Channel}. This message may be long
+     * to handle without blocking the others messages, but the message ordering is not guaranteed.
+     * 
+     * @param message
+     *            The protobuf message
+     * @return {@link MsgServerRemoteStatus} set if an error occurred on the remote peers or if the peer returns a reply
+     * @throws ConnectException
+     *             if a connection timeout occurs.
+     * @throws MsgServerTimeoutException
+     *             if the peer did not reply before the timeout of the new channels.
+     */
+    public final MsgServerRemoteStatus sendSyncMessageNewChannel(@Nonnull final UUID node,
+            @Nonnull final MessageLite message) throws InterruptedException, ConnectException,
+            MsgServerTimeoutException {
+        return getUniqueStatus(waitRequest(sendRequestNewChannel(node, message, TIMEOUT_NEW_CHANNEL)));
+    }
+
+    /**
+     * Send a Protobuf request to <b>all</b> peers. The future is complete when <b>all</b> the peers have replied or
+     * when the timeout is reached. It fails with a {@link MsgServerTimeoutException} if no peer replied. The request is
+     * removed from the queues of the peers if the future is cancelled.
+     * 
+     * @param message
+     *            The protobuf message
+     * @param timeout
+     *            the maximum duration of the request in ms. No timeout if <code>timeout</code> is not positive.
+     * @return the future {@link Collection} of {@link MsgServerRemoteStatus} set if errors occurs into remote peers or
+     *         if some peers return an reply
+     */
+    public final ListenableFuture<Collection<MsgServerRemoteStatus>> sendRequest(@Nonnull final MessageLite message,
+            final long timeout) {
         Objects.requireNonNull(message, "message");
 
+        final ChannelBuffer buffer;
+        final MsgClientRequest request;
+        final List<MsgClientPeerRequests> peerRequests;
         lockClientStarted.readLock().lock();
         try {
             if (!clientStarted.get()) {
@@ -614,59 +934,46 @@ public class MsgClientStartpoint implements MsgClientMXBean {
             }
 
             final Long msgId = Long.valueOf(currentMsgId.incrementAndGet());
-            // CountDownLatch used to wait for acknowledgments
-            final int count = channelGroup.size();
-            final CountDownLatch countDownLatch = new CountDownLatch(count);
-            mapQueue.put(msgId, countDownLatch);
-            try {
-                // Creation of the entry corresponding to the potential exceptions raised by remote peers
-                mapExceptions.put(msgId, new ConcurrentLinkedQueue<MsgServerRemoteStatus>());
-                try {
-                    // Broadcast the message through the use of the channel group
-                    final ChannelBuffer buffer = serializeMessage(message, msgId, true);
-                    channelGroup.write(buffer);
-
-                    // Wait for the application logic ACKs
-                    final boolean receiveAllAcks = countDownLatch.await(TIMEOUT_REPLY, TimeUnit.MILLISECONDS);
-                    if (!receiveAllAcks && countDownLatch.getCount() == count) {
-                        throw new MsgServerTimeoutException("Msg time out: " + msgId);
-                    }
+            buffer = serializeMessage(message, msgId, true);
+            request = newRequest(msgId, timeout);
 
-                    final Collection<MsgServerRemoteStatus> msgServerRemoteStatus = mapExceptions.get(msgId);
-                    return msgServerRemoteStatus;
-                }
-                finally {
-                    // Remove the message entry from the map exceptions
-                    mapExceptions.remove(msgId);
-                }
-            }
-            finally {
-                // Remove the message entry from the map queue
-                mapQueue.remove(msgId);
-            }
+            // Broadcast the message to the connected channels of the group
+            final List<Channel> channels = new ArrayList<>(channelGroup.size());
+            peerRequests = getMainChannelRequests(channels);
+            request.setChannels(channels);
         }
         finally {
             lockClientStarted.readLock().unlock();
         }
+
+        // Write outside the lock: the writer may wait for some room in the send queues
+        for (int i = 0; i < peerRequests.size(); i++) {
+            peerRequests.get(i).write(request, buffer.duplicate(), true);
+        }
+        return request;
     }
 
     /**
-     * Send a Protobuf message in a synchronous manner to given node. The method send a message to the peer and wait its
-     * reply.
+     * Send a Protobuf request to the given node. The result contains at most one {@link MsgServerRemoteStatus}.
      * 
+     * @param node
+     *            The destination node
      * @param message
      *            The protobuf message
-     * @return {@link MsgServerRemoteStatus} set if an error occurred on the remote peers or if the peer returns a reply
-     * @throws InterruptedException
-     *             If the current thread is interrupted
-     * @throws MsgServerTimeoutException
-     *             If a the sending time out.
+     * @param timeout
+     *            the maximum duration of the request in ms. No timeout if <code>timeout</code> is not positive.
+     * @return the future {@link Collection} of {@link MsgServerRemoteStatus} set if an error occurred on the remote
+     *         peer or if the peer returns a reply
+     * @see #sendRequest(MessageLite, long)
      */
-    public final MsgServerRemoteStatus sendSyncMessage(@Nonnull final UUID node, @Nonnull final MessageLite message)
-            throws MsgServerTimeoutException, InterruptedException {
+    public final ListenableFuture<Collection<MsgServerRemoteStatus>> sendRequest(@Nonnull final UUID node,
+            @Nonnull final MessageLite message, final long timeout) {
         Objects.requireNonNull(node, "node");
         Objects.requireNonNull(message, "message");
 
+        final ChannelBuffer buffer;
+        final MsgClientRequest request;
+        final MsgClientPeerRequests peerRequests;
         lockClientStarted.readLock().lock();
         try {
             if (!clientStarted.get()) {
@@ -694,62 +1001,39 @@ public class MsgClientStartpoint implements MsgClientMXBean {
             }
 
             final Long msgId = Long.valueOf(currentMsgId.incrementAndGet());
-            // CountDownLatch used to wait for acknowledgments
-            final CountDownLatch countDownLatch = new CountDownLatch(1);
-            mapQueue.put(msgId, countDownLatch);
-            try {
-                // Creation of the entry corresponding to the potential exceptions raised by the remote peer
-                mapExceptions.put(msgId, new ConcurrentLinkedQueue<MsgServerRemoteStatus>());
-                try {
-                    // Send the message to the selected node
-                    final ChannelBuffer buffer = serializeMessage(message, msgId, true);
-                    destination.write(buffer);
-
-                    // Wait for all application logic ACKs
-                    final boolean receiveAllAcks = countDownLatch.await(TIMEOUT_REPLY, TimeUnit.MILLISECONDS);
-                    if (!receiveAllAcks && countDownLatch.getCount() > 0) {
-                        throw new MsgServerTimeoutException("Msg time out: " + msgId);
-                    }
+            buffer = serializeMessage(message, msgId, true);
+            request = newRequest(msgId, timeout);
 
-                    final Queue<MsgServerRemoteStatus> msgServerRemoteStatus = mapExceptions.get(msgId);
-                    final int msgServerCount = msgServerRemoteStatus.size();
-                    if (msgServerCount == 0) {
-                        return null;
-                    }
-                    else if (msgServerCount == 1) {
-                        return msgServerRemoteStatus.remove();
-                    }
-                    else {
-                        throw new AssertionError("size=" + msgServerCount);
-                    }
-                }
-                finally {
-                    // Remove the message entry from the map exceptions
-                    mapExceptions.remove(msgId);
-                }
-            }
-            finally {
-                // Remove the message entry from the map queue
-                mapQueue.remove(msgId);
-            }
+            // Send the message to the selected node
+            request.setChannels(Collections.singletonList(destination));
+            peerRequests = getChannelRequests(destination, true);
         }
         finally {
             lockClientStarted.readLock().unlock();
         }
+
+        peerRequests.write(request, buffer, true);
+        return request;
     }
 
     /**
-     * Send a Protobuf message in a synchronous manner to given node on a new {@link Channel}. This message may be long
-     * to handle without blocking the others messages, but the message ordering is not guaranteed.
+     * Send a Protobuf request to the given node on a new {@link Channel}. This message may be long to handle without
+     * blocking the others messages, but the message ordering is not guaranteed. The future fails with a
+     * {@link ConnectException} if the connection to the peer fails.
      * 
+     * @param node
+     *            The destination node
      * @param message
      *            The protobuf message
-     * @return {@link MsgServerRemoteStatus} set if an error occurred on the remote peers or if the peer returns a reply
-     * @throws ConnectException
-     *             if a connection timeout occurs.
+     * @param timeout
+     *            the maximum duration of the request in ms, connection included. No timeout if <code>timeout</code> is
+     *            not positive.
+     * @return the future {@link Collection} of {@link MsgServerRemoteStatus} set if an error occurred on the remote
+     *         peer or if the peer returns a reply
+     * @see #sendRequest(MessageLite, long)
      */
-    public final MsgServerRemoteStatus sendSyncMessageNewChannel(@Nonnull final UUID node,
-            @Nonnull final MessageLite message) throws InterruptedException, ConnectException {
+    public final ListenableFuture<Collection<MsgServerRemoteStatus>> sendRequestNewChannel(@Nonnull final UUID node,
+            @Nonnull final MessageLite message, final long timeout) {
         Objects.requireNonNull(node, "node");
         Objects.requireNonNull(message, "message");
 
@@ -759,56 +1043,37 @@ public class MsgClientStartpoint implements MsgClientMXBean {
                 throw new IllegalStateException("stopped");
             }
 
-            // Create a new channel
             final InetSocketAddress peerAddr = peerNodes.get(node);
             if (peerAddr == null) {
                 throw new IllegalArgumentException("node=" + node);
             }
 
-            final PeerChannel peerChannel = msgClientSpareChannels.getChannel(node, peerAddr);
-            try {
-                final Long msgId = Long.valueOf(currentMsgId.incrementAndGet());
-                // CountDownLatch used to wait for acknowledgments
-                final CountDownLatch countDownLatch = new CountDownLatch(1);
-                mapQueue.put(msgId, countDownLatch);
-                try {
-                    // Creation of the entry corresponding to the potential exceptions raised by the remote peer
-                    mapExceptions.put(msgId, new ConcurrentLinkedQueue<MsgServerRemoteStatus>());
-                    try {
-                        // Send the message to the selected node
-                        final ChannelBuffer buffer = serializeMessage(message, msgId, true);
-                        final Channel channel = peerChannel.getChannel();
-                        checkChannelFuture(channel.write(buffer), TIMEOUT_CONNECT);
-
-                        // Wait for peer ACK
-                        countDownLatch.await();
-
-                        final Queue<MsgServerRemoteStatus> msgServerRemoteStatus = mapExceptions.get(msgId);
-                        final int msgServerCount = msgServerRemoteStatus.size();
-                        if (msgServerCount == 0) {
-                            return null;
-                        }
-                        else if (msgServerCount == 1) {
-                            return msgServerRemoteStatus.remove();
+            final Long msgId = Long.valueOf(currentMsgId.incrementAndGet());
+            final ChannelBuffer buffer = serializeMessage(message, msgId, true);
+            final MsgClientRequest request = newRequest(msgId, timeout);
+
+            // Re-use a spare channel or create a new one
+            final PeerChannel peerChannel = msgClientSpareChannels.pollChannel(node);
+            if (peerChannel != null) {
+                sendNewChannel(request, peerChannel, buffer);
+            }
+            else {
+                newChannelFuture(peerAddr, false).addListener(new ChannelFutureListener() {
+                    @Override
+                    public final void operationComplete(final ChannelFuture future) {
+                        if (future.isSuccess()) {
+                            sendNewChannel(request, msgClientSpareChannels.newPeerChannel(node, future.getChannel()),
+                                    buffer);
                         }
                         else {
-                            throw new AssertionError("size=" + msgServerCount);
+                            final ConnectException ce = new ConnectException("Failed");
+                            ce.initCause(future.getCause());
+                            request.fail(ce);
                         }
                     }
-                    finally {
-                        // Remove the message entry from the map exceptions
-                        mapExceptions.remove(msgId);
-                    }
-                }
-                finally {
-                    // Remove the message entry from the map queue
-                    mapQueue.remove(msgId);
-                }
-            }
-            finally {
-                // Release channel for future use
-                msgClientSpareChannels.releaseChannel(peerChannel);
+                });
             }
+            return request;
         }
         finally {
             lockClientStarted.readLock().unlock();
@@ -825,6 +1090,8 @@ public class MsgClientStartpoint implements MsgClientMXBean {
     public final void sendAsyncMessage(@Nonnull final MessageLite message) {
         Objects.requireNonNull(message, "message");
 
+        final ChannelBuffer buffer;
+        final List<MsgClientPeerRequests> peerRequests;
         lockClientStarted.readLock().lock();
         try {
             if (!clientStarted.get()) {
@@ -832,30 +1099,215 @@ public class MsgClientStartpoint implements MsgClientMXBean {
             }
 
             final Long msgId = Long.valueOf(currentMsgId.incrementAndGet());
-
-            // Broadcast the message through the use of the channel group
-            final ChannelBuffer buffer = serializeMessage(message, msgId, false);
-            channelGroup.write(buffer);
+            buffer = serializeMessage(message, msgId, false);
+            peerRequests = getMainChannelRequests(null);
         }
         finally {
             lockClientStarted.readLock().unlock();
         }
+
+        // Broadcast the message to the connected channels of the group, after the pending requests. The writer may
+        // wait for some room in the send queues (see MsgClientQueuePolicy)
+        for (int i = 0; i < peerRequests.size(); i++) {
+            peerRequests.get(i).write(null, buffer.duplicate(), true);
+        }
+    }
+
+    /**
+     * Creates a new request and registers it until its completion.
+     * 
+     * @param msgId
+     * @param timeout
+     *            the maximum duration of the request in ms or 0
+     * @return the new request
+     */
+    private final MsgClientRequest newRequest(final Long msgId, final long timeout) {
+        final MsgClientRequest request = new MsgClientRequest(msgId.longValue());
+        requests.put(msgId, request);
+
+        final Timeout deadline;
+        if (timeout > 0) {
+            deadline = timerRef.get().newTimeout(new TimerTask() {
+                @Override
+                public final void run(final Timeout expired) {
+                    request.expire();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        else {
+            deadline = null;
+        }
+
+        request.addListener(new Runnable() {
+            @Override
+            public final void run() {
+                requests.remove(msgId);
+                if (deadline != null) {
+                    deadline.cancel();
+                }
+                updateRequestStatistics(request);
+            }
+        }, MoreExecutors.directExecutor());
+        return request;
+    }
+
+    /**
+     * Sends a request on a spare channel. The channel is released when the request is complete.
+     * 
+     * @param request
+     * @param peerChannel
+     * @param buffer
+     */
+    private final void sendNewChannel(final MsgClientRequest request, final PeerChannel peerChannel,
+            final ChannelBuffer buffer) {
+        // Release channel for future use, before notifying the completion of the request
+        request.addCompletionTask(new Runnable() {
+            @Override
+            public final void run() {
+                if (clientStarted.get()) {
+                    msgClientSpareChannels.releaseChannel(peerChannel);
+                }
+                else {
+                    peerChannel.getChannel().close();
+                }
+            }
+        });
+
+        final Channel channel = peerChannel.getChannel();
+        request.setChannels(Collections.singletonList(channel));
+        // May be called by an I/O thread
+        getChannelRequests(channel, false).write(request, buffer, false);
+    }
+
+    /**
+     * Gets the messages written on the connected channels of the group.
+     * 
+     * @param channels
+     *            filled with the connected channels if not <code>null</code>
+     * @return the messages of the connected channels
+     */
+    @GuardedBy(value = "lockClientStarted")
+    private final List<MsgClientPeerRequests> getMainChannelRequests(final List<Channel> channels) {
+        final List<MsgClientPeerRequests> result = new ArrayList<>(channelGroup.size());
+        for (final Channel channel : channelGroup) {
+            // The write would fail
+            if (!channel.isConnected()) {
+                continue;
+            }
+            result.add(getChannelRequests(channel, true));
+            if (channels != null) {
+                channels.add(channel);
+            }
+        }
+        return result;
     }
 
     /**
-     * Create a packed message for netty. The message will not be serialized again by netty.
+     * Gets the messages written on a channel. The requests waiting for a reply on the channel fail when it is closed.
+     * 
+     * @param channel
+     *            a connected channel
+     * @param mainChannel
+     *            <code>true</code> for the main channel of a peer: the send queue is bounded
+     * @return the messages of the channel
+     */
+    private final MsgClientPeerRequests getChannelRequests(final Channel channel, final boolean mainChannel) {
+        final MsgClientPeerRequests result = channelRequests.get(channel);
+        if (result != null) {
+            return result;
+        }
+        final PeerReconnection peer;
+        if (mainChannel) {
+            synchronized (peersConnect) {
+                peer = peersConnect.get(channel.getRemoteAddress());
+            }
+        }
+        else {
+            peer = null;
+        }
+        final MsgClientPeerRequests created = new MsgClientPeerRequests(this, channel, peer);
+        final MsgClientPeerRequests previous = channelRequests.putIfAbsent(channel, created);
+        if (previous != null) {
+            return previous;
+        }
+        channel.getCloseFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public final void operationComplete(final ChannelFuture future) {
+                channelRequests.remove(channel);
+                created.close();
+            }
+        });
+        return created;
+    }
+
+    private final void updateRequestStatistics(final MsgClientRequest request) {
+        requestCount.incrementAndGet();
+        if (request.isCancelled()) {
+            requestCancelCount.incrementAndGet();
+            return;
+        }
+        if (request.isTimedOut()) {
+            requestTimeoutCount.incrementAndGet();
+        }
+        final long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.getStartTime());
+        requestLatencyTotal.addAndGet(latency);
+        long max = requestLatencyMax.get();
+        while (latency > max && !requestLatencyMax.compareAndSet(max, latency)) {
+            max = requestLatencyMax.get();
+        }
+    }
+
+    /**
+     * Waits for the completion of a request. The request is cancelled if the current thread is interrupted.
+     * 
+     * @param future
+     * @return the result of the request
+     * @throws InterruptedException
+     * @throws MsgServerTimeoutException
+     * @throws ConnectException
+     */
+    private static final Collection<MsgServerRemoteStatus> waitRequest(
+            final ListenableFuture<Collection<MsgServerRemoteStatus>> future) throws InterruptedException,
+            MsgServerTimeoutException, ConnectException {
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            Throwables.propagateIfInstanceOf(cause, MsgServerTimeoutException.class);
+            Throwables.propagateIfInstanceOf(cause, ConnectException.class);
+            throw Throwables.propagate(cause);
+        }
+    }
+
+    private static final MsgServerRemoteStatus getUniqueStatus(final Collection<MsgServerRemoteStatus> statuses) {
+        final int msgServerCount = statuses.size();
+        if (msgServerCount == 0) {
+            return null;
+        }
+        else if (msgServerCount == 1) {
+            return statuses.iterator().next();
+        }
+        else {
+            throw new AssertionError("size=" + msgServerCount);
+        }
+    }
+
+    /**
+     * Create a packed message for netty. The message will not be serialized again by netty. The message is serialized
+     * once, without copy in the wrapper message.
      * 
      * @param message
      * @param msgId
      * @param sync
-     * @return the packed message
+     * @return the packed message, framed
      */
     private final ChannelBuffer serializeMessage(final MessageLite message, final Long msgId, final boolean sync) {
-        // Serialize the protobuf wrapper message
-        final MsgWrapper.MsgRequest msgRequest = MsgWrapper.MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(msgId.longValue())
-                .setSynchronous(sync).setMsgData(message.toByteString()).build();
-        final byte[] msgSerialized = msgRequest.toByteArray();
-        return ChannelBuffers.wrappedBuffer(msgSerialized);
+        return MsgFrames.encodeRequest(message, msgId.longValue(), sync);
     }
 
     /**
@@ -896,6 +1348,10 @@ public class MsgClientStartpoint implements MsgClientMXBean {
         bootstrap.setOption("tcpNoDelay", Boolean.TRUE);
         bootstrap.setOption("keepAlive", Boolean.TRUE);
         bootstrap.setOption("remoteAddress", peerAddr);
+        if (!mainChannel) {
+            // The connection of the new channels is not waited for
+            bootstrap.setOption("connectTimeoutMillis", Integer.valueOf((int) TIMEOUT_CONNECT));
+        }
         return bootstrap.connect(peerAddr);
     }
 
@@ -0,0 +1,304 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.proto.Common.ProtocolVersion;
+import io.eguan.proto.net.MsgWrapper.MsgReply;
+import io.eguan.proto.net.MsgWrapper.MsgRequest;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Framing of the {@link MsgRequest} and {@link MsgReply} messages. The frames are the same as the ones written by a
+ * {@link org.jboss.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender}, but the wrapper is written
+ * around the serialized payload instead of copying the payload in a <code>bytes</code> field:
+ * <ul>
+ * <li>the length of the frame and the fields of the wrapper are written in a small header, followed by the payload
+ * serialized once, in a composite {@link ChannelBuffer},</li>
+ * <li>on reception, only the fields of the wrapper are decoded in the I/O thread. The payload is a slice of the frame,
+ * parsed later by the handler.</li>
+ * </ul>
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class MsgFrames {
+
+    /** Tags of the fields of the request */
+    private static final int TAG_REQUEST_VERSION = makeTag(MsgRequest.VERSION_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_REQUEST_MSGID = makeTag(MsgRequest.MSGID_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_REQUEST_SYNCHRONOUS = makeTag(MsgRequest.SYNCHRONOUS_FIELD_NUMBER,
+            WireFormat.WIRETYPE_VARINT);
+    private static final int TAG_REQUEST_MSGDATA = makeTag(MsgRequest.MSGDATA_FIELD_NUMBER,
+            WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    /**
+     * A request received. The payload is parsed on demand.
+     * 
+     */
+    @Immutable
+    static final class Request {
+        private final long msgId;
+        private final boolean synchronous;
+        private final ChannelBuffer msgData;
+
+        Request(final long msgId, final boolean synchronous, @Nonnull final ChannelBuffer msgData) {
+            super();
+            this.msgId = msgId;
+            this.synchronous = synchronous;
+            this.msgData = msgData;
+        }
+
+        final long getMsgId() {
+            return msgId;
+        }
+
+        final boolean getSynchronous() {
+            return synchronous;
+        }
+
+        /**
+         * Gets the payload of the request. The buffer is a read-only slice of the received frame.
+         * 
+         * @return the serialized payload
+         */
+        final ChannelBuffer getMsgData() {
+            return ChannelBuffers.unmodifiableBuffer(msgData);
+        }
+
+        /**
+         * Parses the payload of the request. The message is read in place, from the received frame.
+         * 
+         * @param prototype
+         *            prototype of the messages
+         * @return the message contained in the request
+         * @throws IOException
+         *             if the payload is not a valid message
+         */
+        final MessageLite parseMsgData(@Nonnull final MessageLite prototype) throws IOException {
+            return prototype.newBuilderForType().mergeFrom(newCodedInput(msgData)).build();
+        }
+    }
+
+    /**
+     * Decodes the frames of {@link MsgRequest}. Must be added after a
+     * {@link org.jboss.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder}.
+     * 
+     */
+    static final class RequestDecoder extends OneToOneDecoder {
+
+        @Override
+        protected final Object decode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
+                throws Exception {
+            if (!(msg instanceof ChannelBuffer)) {
+                return msg;
+            }
+            return decodeRequest((ChannelBuffer) msg);
+        }
+    }
+
+    /**
+     * No instance.
+     */
+    private MsgFrames() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Creates the frame of a {@link MsgRequest}.
+     * 
+     * @param message
+     *            the payload
+     * @param msgId
+     *            the identifier of the request
+     * @param sync
+     *            <code>true</code> if the peers must reply
+     * @return the frame to write, length included
+     */
+    static final ChannelBuffer encodeRequest(@Nonnull final MessageLite message, final long msgId, final boolean sync) {
+        final byte[] msgData = message.toByteArray();
+        final int version = ProtocolVersion.VERSION_1.getNumber();
+
+        final int wrapperSize = CodedOutputStream.computeEnumSize(MsgRequest.VERSION_FIELD_NUMBER, version)
+                + CodedOutputStream.computeSInt64Size(MsgRequest.MSGID_FIELD_NUMBER, msgId)
+                + CodedOutputStream.computeBoolSize(MsgRequest.SYNCHRONOUS_FIELD_NUMBER, sync)
+                + CodedOutputStream.computeTagSize(MsgRequest.MSGDATA_FIELD_NUMBER)
+                + CodedOutputStream.computeRawVarint32Size(msgData.length);
+        final int frameSize = wrapperSize + msgData.length;
+
+        final byte[] header = new byte[CodedOutputStream.computeRawVarint32Size(frameSize) + wrapperSize];
+        final CodedOutputStream output = CodedOutputStream.newInstance(header);
+        try {
+            output.writeRawVarint32(frameSize);
+            output.writeEnum(MsgRequest.VERSION_FIELD_NUMBER, version);
+            output.writeSInt64(MsgRequest.MSGID_FIELD_NUMBER, msgId);
+            output.writeBool(MsgRequest.SYNCHRONOUS_FIELD_NUMBER, sync);
+            output.writeTag(MsgRequest.MSGDATA_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeRawVarint32(msgData.length);
+            output.checkNoSpaceLeft();
+        }
+        catch (final IOException e) {
+            throw new AssertionError(e);
+        }
+        return ChannelBuffers.wrappedBuffer(header, msgData);
+    }
+
+    /**
+     * Creates the frame of a {@link MsgReply}.
+     * 
+     * @param msgId
+     *            the identifier of the request
+     * @param exception
+     *            the name of the exception raised while handling the request or <code>null</code>
+     * @param reply
+     *            the optional reply. Ignored if <code>exception</code> is set.
+     * @return the frame to write, length included
+     */
+    static final ChannelBuffer encodeReply(final long msgId, final String exception, final MessageLite reply) {
+        final boolean status = exception == null;
+        final byte[] repData = status && reply != null ? reply.toByteArray() : null;
+        final int version = ProtocolVersion.VERSION_1.getNumber();
+
+        int wrapperSize = CodedOutputStream.computeEnumSize(MsgReply.VERSION_FIELD_NUMBER, version)
+                + CodedOutputStream.computeSInt64Size(MsgReply.MSGID_FIELD_NUMBER, msgId)
+                + CodedOutputStream.computeBoolSize(MsgReply.STATUS_FIELD_NUMBER, status);
+        if (!status) {
+            wrapperSize += CodedOutputStream.computeStringSize(MsgReply.EXCEPTION_FIELD_NUMBER, exception);
+        }
+        final int frameSize;
+        if (repData != null) {
+            wrapperSize += CodedOutputStream.computeTagSize(MsgReply.REPDATA_FIELD_NUMBER)
+                    + CodedOutputStream.computeRawVarint32Size(repData.length);
+            frameSize = wrapperSize + repData.length;
+        }
+        else {
+            frameSize = wrapperSize;
+        }
+
+        final byte[] header = new byte[CodedOutputStream.computeRawVarint32Size(frameSize) + wrapperSize];
+        final CodedOutputStream output = CodedOutputStream.newInstance(header);
+        try {
+            output.writeRawVarint32(frameSize);
+            output.writeEnum(MsgReply.VERSION_FIELD_NUMBER, version);
+            output.writeSInt64(MsgReply.MSGID_FIELD_NUMBER, msgId);
+            output.writeBool(MsgReply.STATUS_FIELD_NUMBER, status);
+            if (!status) {
+                output.writeString(MsgReply.EXCEPTION_FIELD_NUMBER, exception);
+            }
+            if (repData != null) {
+                output.writeTag(MsgReply.REPDATA_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeRawVarint32(repData.length);
+            }
+            output.checkNoSpaceLeft();
+        }
+        catch (final IOException e) {
+            throw new AssertionError(e);
+        }
+        return repData == null ? ChannelBuffers.wrappedBuffer(header) : ChannelBuffers.wrappedBuffer(header, repData);
+    }
+
+    /**
+     * Decodes the fields of a {@link MsgRequest}. The payload is not copied.
+     * 
+     * @param frame
+     *            a frame, without its length
+     * @return the decoded request
+     * @throws IOException
+     *             if the frame is not a valid {@link MsgRequest}
+     */
+    static final Request decodeRequest(@Nonnull final ChannelBuffer frame) throws IOException {
+        final CodedInputStream input = newCodedInput(frame);
+        boolean hasVersion = false;
+        boolean hasMsgId = false;
+        boolean hasSynchronous = false;
+        long msgId = 0;
+        boolean synchronous = false;
+        ChannelBuffer msgData = null;
+        while (true) {
+            final int tag = input.readTag();
+            if (tag == 0) {
+                break;
+            }
+            else if (tag == TAG_REQUEST_VERSION) {
+                input.readEnum();
+                hasVersion = true;
+            }
+            else if (tag == TAG_REQUEST_MSGID) {
+                msgId = input.readSInt64();
+                hasMsgId = true;
+            }
+            else if (tag == TAG_REQUEST_SYNCHRONOUS) {
+                synchronous = input.readBool();
+                hasSynchronous = true;
+            }
+            else if (tag == TAG_REQUEST_MSGDATA) {
+                final int length = input.readRawVarint32();
+                final int offset = input.getTotalBytesRead();
+                input.skipRawBytes(length);
+                msgData = frame.slice(frame.readerIndex() + offset, length);
+            }
+            else if (!input.skipField(tag)) {
+                break;
+            }
+        }
+        if (!hasVersion || !hasMsgId || !hasSynchronous || msgData == null) {
+            throw new InvalidProtocolBufferException("Message missing required fields");
+        }
+        return new Request(msgId, synchronous, msgData);
+    }
+
+    /**
+     * Creates a {@link CodedInputStream} reading the readable bytes of the buffer, without copy if the buffer is
+     * backed by an array.
+     * 
+     * @param buffer
+     * @return a new input stream. Does not change the reader index of <code>buffer</code>.
+     */
+    private static final CodedInputStream newCodedInput(final ChannelBuffer buffer) {
+        if (buffer.hasArray()) {
+            return CodedInputStream.newInstance(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(),
+                    buffer.readableBytes());
+        }
+        return CodedInputStream.newInstance(new ChannelBufferInputStream(buffer.duplicate()));
+    }
+
+    private static final int makeTag(final int fieldNumber, final int wireType) {
+        // 3 bits for the wire type (see WireFormat)
+        return (fieldNumber << 3) | wireType;
+    }
+}
@@ -20,8 +20,6 @@ package io.eguan.net;
  * #L%
  */
 
-import io.eguan.proto.net.MsgWrapper;
-
 import java.net.InetSocketAddress;
 import java.util.Objects;
 import java.util.UUID;
@@ -48,10 +46,7 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.codec.protobuf.ProtobufDecoder;
-import org.jboss.netty.handler.codec.protobuf.ProtobufEncoder;
 import org.jboss.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
-import org.jboss.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.util.ThreadNameDeterminer;
@@ -115,9 +110,9 @@ public final class MsgServerEndpoint implements MsgServerMXBean {
 
             final ChannelPipeline pipeline = Channels.pipeline();
             pipeline.addLast("frameDecoder", new ProtobufVarint32FrameDecoder());
-            pipeline.addLast("protobufDecoder", new ProtobufDecoder(MsgWrapper.MsgRequest.getDefaultInstance()));
-            pipeline.addLast("frameEncoder", new ProtobufVarint32LengthFieldPrepender());
-            pipeline.addLast("protobufEncoder", new ProtobufEncoder());
+            // Decodes the wrapper only, the payload is parsed by the application logic
+            pipeline.addLast("requestDecoder", new MsgFrames.RequestDecoder());
+            // No encoder: the replies are written framed (see MsgFrames)
             pipeline.addLast("executor handler", executionHandler);
             pipeline.addLast("application logic", new MsgServerGenericHandler(msgServerId, msgServerHandler, prototype,
                     channelGroup, serverStarted));
@@ -20,9 +20,6 @@ package io.eguan.net;
  * #L%
  */
 
-import io.eguan.proto.Common.ProtocolVersion;
-import io.eguan.proto.net.MsgWrapper;
-
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -54,22 +51,20 @@ final class MsgServerGenericHandler extends SimpleChannelHandler {
 
     @Override
     public final void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) {
-        final MsgWrapper.MsgRequest request = (MsgWrapper.MsgRequest) e.getMessage();
+        final MsgFrames.Request request = (MsgFrames.Request) e.getMessage();
         final long msgId = request.getMsgId();
 
         final MessageLite reply;
         try {
-            // Deserialize the message data which represent a Protobuf message
-            final MessageLite deserializedMsg = prototype.newBuilderForType().mergeFrom(request.getMsgData()).build();
+            // Deserialize the message data which represent a Protobuf message, in place
+            final MessageLite deserializedMsg = request.parseMsgData(prototype);
             reply = msgServerHandler.handleMessage(deserializedMsg);
 
         }
         catch (final Throwable t) {
             // Return exception
             if (request.getSynchronous()) {
-                final MsgWrapper.MsgReply.Builder replyBuilder = MsgWrapper.MsgReply.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(msgId)
-                        .setStatus(false).setException(t.getClass().getName());
-                ctx.getChannel().write(replyBuilder.build());
+                ctx.getChannel().write(MsgFrames.encodeReply(msgId, t.getClass().getName(), null));
             }
             MsgServerEndpoint.LOGGER.error("Msg server [" + msgServerId + "], error while handling the message '"
                     + msgId + "'", t);
@@ -78,13 +73,8 @@ final class MsgServerGenericHandler extends SimpleChannelHandler {
 
         // Send ACK only if the request is synchronous
         if (request.getSynchronous()) {
-            final MsgWrapper.MsgReply.Builder replyBuilder = MsgWrapper.MsgReply.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(msgId)
-                    .setStatus(true);
             // Optional reply
-            if (reply != null) {
-                replyBuilder.setRepData(reply.toByteString());
-            }
-            ctx.getChannel().write(replyBuilder.build());
+            ctx.getChannel().write(MsgFrames.encodeReply(msgId, null, reply));
         }
     }
 
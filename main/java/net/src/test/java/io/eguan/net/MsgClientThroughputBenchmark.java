@@ -0,0 +1,116 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.proto.Common.ProtocolVersion;
+import io.eguan.proto.net.MsgWrapper;
+import io.eguan.proto.net.MsgWrapper.MsgRequest;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Benchmark of the synchronous requests of the size of the replicated blocks, sent to a server on the loopback
+ * interface, without any handling of the payload by the server.
+ * <p>
+ * Run with <code>java -cp &lt;test classpath&gt; org.openjdk.jmh.Main MsgClientThroughputBenchmark</code>. Add
+ * <code>-prof gc</code> to measure the memory allocated per request.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MsgClientThroughputBenchmark {
+
+    private static final MsgNode SERVER = new MsgNode(UUID.randomUUID(), new InetSocketAddress("127.0.0.1", 55265));
+
+    /** Size of the payload of a request */
+    @Param({ "4096", "65536", "1048576" })
+    public int size;
+
+    private MsgServerEndpoint serverEndpoint;
+    private MsgClientStartpoint clientStartpoint;
+    private MsgRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        serverEndpoint = new MsgServerEndpoint(SERVER, new MsgServerHandler() {
+            @Override
+            public final MessageLite handleMessage(final MessageLite message) {
+                return null;
+            }
+        }, MsgWrapper.MsgRequest.getDefaultInstance());
+        serverEndpoint.start();
+
+        final List<MsgNode> peers = new ArrayList<>(1);
+        peers.add(SERVER);
+        clientStartpoint = new MsgClientStartpoint(peers);
+        clientStartpoint.start();
+        TestMessagingService.waitConnected(1, clientStartpoint);
+
+        final byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        request = MsgWrapper.MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(size)
+                .setSynchronous(true).setMsgData(ByteString.copyFrom(contents)).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clientStartpoint.stop();
+        serverEndpoint.stop();
+    }
+
+    @Benchmark
+    public int sendSyncMessage() throws Exception {
+        final int replies = clientStartpoint.sendSyncMessage(request).size();
+        if (replies != 0) {
+            throw new AssertionError("Unexpected replies: " + replies);
+        }
+        return replies;
+    }
+}
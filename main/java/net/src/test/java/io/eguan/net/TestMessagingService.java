@@ -28,12 +28,19 @@ import io.eguan.proto.net.MsgWrapper.MsgRequest;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.AssertionFailedError;
@@ -43,6 +50,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
 
@@ -1356,6 +1364,418 @@ public class TestMessagingService {
         }
     }
 
+    @Test
+    public void testAsynchronousRequestReply() throws Throwable {
+        LOGGER.info("Run testAsynchronousRequestReply()");
+
+        final ByteString expectedString = ByteString.copyFrom("hello test".getBytes());
+        final MsgWrapper.MsgRequest request = MsgWrapper.MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1)
+                .setMsgId(12345).setSynchronous(true).setMsgData(expectedString).build();
+
+        final MsgHandlerTestExpectedObject msgHandlerImpl1 = new MsgHandlerTestExpectedObject(expectedString, true);
+        final MsgServerEndpoint serverEndpoint1 = new MsgServerEndpoint(SERVER_1, msgHandlerImpl1,
+                MsgWrapper.MsgRequest.getDefaultInstance());
+        serverEndpoint1.start();
+        try {
+            final MsgHandlerTestExpectedObject msgHandlerImpl2 = new MsgHandlerTestExpectedObject(expectedString, true);
+            final MsgServerEndpoint serverEndpoint2 = new MsgServerEndpoint(SERVER_2, msgHandlerImpl2,
+                    MsgWrapper.MsgRequest.getDefaultInstance());
+            serverEndpoint2.start();
+            try {
+                final List<MsgNode> peers = new ArrayList<>(2);
+                peers.add(SERVER_1);
+                peers.add(SERVER_2);
+                final MsgClientStartpoint msgClientStartpoint = new MsgClientStartpoint(peers);
+                msgClientStartpoint.start();
+                try {
+                    waitConnected(2, msgClientStartpoint);
+
+                    // Broadcast
+                    final ListenableFuture<Collection<MsgServerRemoteStatus>> future = msgClientStartpoint
+                            .sendRequest(request, 2000);
+                    final Collection<MsgServerRemoteStatus> status = future.get();
+                    Assert.assertEquals(2, status.size());
+                    Assert.assertTrue(msgHandlerImpl1.isSuccess());
+                    Assert.assertTrue(msgHandlerImpl2.isSuccess());
+
+                    // Unicast
+                    msgHandlerImpl1.resetSuccess();
+                    msgHandlerImpl2.resetSuccess();
+                    final Collection<MsgServerRemoteStatus> status1 = msgClientStartpoint.sendRequest(
+                            SERVER_1.getNodeId(), request, 2000).get();
+                    Assert.assertEquals(1, status1.size());
+                    Assert.assertEquals(SERVER_1.getNodeId(), status1.iterator().next().getNodeId());
+                    Assert.assertTrue(msgHandlerImpl1.isSuccess());
+                    Assert.assertFalse(msgHandlerImpl2.isSuccess());
+
+                    // New channel
+                    msgHandlerImpl1.resetSuccess();
+                    final Collection<MsgServerRemoteStatus> status2 = msgClientStartpoint.sendRequestNewChannel(
+                            SERVER_2.getNodeId(), request, 2000).get();
+                    Assert.assertEquals(1, status2.size());
+                    Assert.assertEquals(SERVER_2.getNodeId(), status2.iterator().next().getNodeId());
+                    Assert.assertFalse(msgHandlerImpl1.isSuccess());
+                    Assert.assertTrue(msgHandlerImpl2.isSuccess());
+
+                    waitPendingRequests(msgClientStartpoint);
+                    Assert.assertEquals(3, msgClientStartpoint.getRequestCount());
+                    Assert.assertEquals(0, msgClientStartpoint.getRequestTimeoutCount());
+                    Assert.assertEquals(0, msgClientStartpoint.getRequestCancelCount());
+                    Assert.assertTrue(msgClientStartpoint.getRequestLatencyMax() > 0);
+                    Assert.assertTrue(msgClientStartpoint.getRequestLatencyAverage() <= msgClientStartpoint
+                            .getRequestLatencyMax());
+                }
+                finally {
+                    msgClientStartpoint.stop();
+                }
+            }
+            finally {
+                serverEndpoint2.stop();
+            }
+        }
+        finally {
+            serverEndpoint1.stop();
+        }
+    }
+
+    @Test
+    public void testAsynchronousRequestTimeout() throws Throwable {
+        LOGGER.info("Run testAsynchronousRequestTimeout()");
+
+        final MsgServerEndpoint serverEndpoint = new MsgServerEndpoint(SERVER_1, new MsgHandlerTestTimeout(),
+                MsgWrapper.MsgRequest.getDefaultInstance());
+        serverEndpoint.start();
+        try {
+            final List<MsgNode> peers = new ArrayList<>(1);
+            peers.add(SERVER_1);
+            final MsgClientStartpoint msgClientStartpoint = new MsgClientStartpoint(peers);
+            msgClientStartpoint.start();
+            try {
+                waitConnected(1, msgClientStartpoint);
+
+                final MsgWrapper.MsgRequest request = MsgWrapper.MsgRequest.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_1).setMsgId(12345).setSynchronous(true)
+                        .setMsgData(ByteString.copyFromUtf8("timeout")).build();
+                final long start = System.currentTimeMillis();
+                final ListenableFuture<Collection<MsgServerRemoteStatus>> future = msgClientStartpoint.sendRequest(
+                        request, 500);
+                try {
+                    future.get();
+                    throw new AssertionFailedError("Not timed out");
+                }
+                catch (final ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof MsgServerTimeoutException);
+                }
+                // Before the reply of the peer
+                Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+
+                waitPendingRequests(msgClientStartpoint);
+                Assert.assertEquals(1, msgClientStartpoint.getRequestCount());
+                Assert.assertEquals(1, msgClientStartpoint.getRequestTimeoutCount());
+            }
+            finally {
+                msgClientStartpoint.stop();
+            }
+        }
+        finally {
+            serverEndpoint.stop();
+        }
+    }
+
+    @Test
+    public void testAsynchronousRequestCancel() throws Throwable {
+        LOGGER.info("Run testAsynchronousRequestCancel()");
+
+        final MsgServerEndpoint serverEndpoint = new MsgServerEndpoint(SERVER_1, new MsgHandlerTestTimeout(),
+                MsgWrapper.MsgRequest.getDefaultInstance());
+        serverEndpoint.start();
+        try {
+            final List<MsgNode> peers = new ArrayList<>(1);
+            peers.add(SERVER_1);
+            final MsgClientStartpoint msgClientStartpoint = new MsgClientStartpoint(peers);
+            msgClientStartpoint.start();
+            try {
+                waitConnected(1, msgClientStartpoint);
+
+                final MsgWrapper.MsgRequest request = MsgWrapper.MsgRequest.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_1).setMsgId(12345).setSynchronous(true)
+                        .setMsgData(ByteString.copyFromUtf8("cancel")).build();
+
+                // No timeout
+                final ListenableFuture<Collection<MsgServerRemoteStatus>> future = msgClientStartpoint.sendRequest(
+                        request, 0);
+                Assert.assertEquals(1, msgClientStartpoint.getPendingRequestCount());
+                Assert.assertTrue(future.cancel(false));
+                Assert.assertTrue(future.isCancelled());
+                Assert.assertFalse(future.cancel(false));
+
+                waitPendingRequests(msgClientStartpoint);
+                Assert.assertEquals(1, msgClientStartpoint.getRequestCount());
+                Assert.assertEquals(1, msgClientStartpoint.getRequestCancelCount());
+                Assert.assertEquals(0, msgClientStartpoint.getRequestTimeoutCount());
+            }
+            finally {
+                msgClientStartpoint.stop();
+            }
+        }
+        finally {
+            serverEndpoint.stop();
+        }
+    }
+
+    @Test
+    public void testAsynchronousRequestInFlight() throws Throwable {
+        LOGGER.info("Run testAsynchronousRequestInFlight()");
+
+        // Block the handling of the requests
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        final MsgServerHandler msgHandler = new MsgServerHandler() {
+            @Override
+            public final MessageLite handleMessage(final MessageLite message) {
+                try {
+                    gate.await();
+                }
+                catch (final InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                handled.incrementAndGet();
+                return null;
+            }
+        };
+        final MsgServerEndpoint serverEndpoint = new MsgServerEndpoint(SERVER_1, msgHandler,
+                MsgWrapper.MsgRequest.getDefaultInstance());
+        serverEndpoint.start();
+        try {
+            final List<MsgNode> peers = new ArrayList<>(1);
+            peers.add(SERVER_1);
+            final MsgClientStartpoint msgClientStartpoint = new MsgClientStartpoint(peers);
+            msgClientStartpoint.setMaxRequestsInFlight(2);
+            msgClientStartpoint.start();
+            try {
+                waitConnected(1, msgClientStartpoint);
+
+                final MsgWrapper.MsgRequest request = MsgWrapper.MsgRequest.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_1).setMsgId(12345).setSynchronous(true)
+                        .setMsgData(ByteString.copyFromUtf8("in flight")).build();
+                final int count = 5;
+                final List<ListenableFuture<Collection<MsgServerRemoteStatus>>> futures = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    futures.add(msgClientStartpoint.sendRequest(request, 10000));
+                }
+                // Only 2 requests are written
+                Assert.assertEquals(count, msgClientStartpoint.getPendingRequestCount());
+                Assert.assertEquals(count - 2, msgClientStartpoint.getQueuedRequestCount());
+
+                // Cancel a queued request: it is not sent
+                Assert.assertTrue(futures.get(count - 1).cancel(false));
+
+                gate.countDown();
+                for (int i = 0; i < count - 1; i++) {
+                    Assert.assertTrue(futures.get(i).get().isEmpty());
+                }
+                Assert.assertEquals(0, msgClientStartpoint.getQueuedRequestCount());
+                waitPendingRequests(msgClientStartpoint);
+                Assert.assertEquals(count - 1, handled.get());
+            }
+            finally {
+                msgClientStartpoint.stop();
+            }
+        }
+        finally {
+            serverEndpoint.stop();
+        }
+    }
+
+    @Test
+    public void testAsynchronousMessageQueueFull() throws Throwable {
+        LOGGER.info("Run testAsynchronousMessageQueueFull()");
+
+        // Block the handling of the messages
+        final Semaphore gate = new Semaphore(0);
+        final AtomicInteger handled = new AtomicInteger();
+        final MsgServerHandler msgHandler = new MsgServerHandler() {
+            @Override
+            public final MessageLite handleMessage(final MessageLite message) {
+                gate.acquireUninterruptibly();
+                handled.incrementAndGet();
+                return null;
+            }
+        };
+        final MsgServerEndpoint serverEndpoint = new MsgServerEndpoint(SERVER_1, msgHandler,
+                MsgWrapper.MsgRequest.getDefaultInstance());
+        serverEndpoint.start();
+        try {
+            final List<MsgNode> peers = new ArrayList<>(1);
+            peers.add(SERVER_1);
+            final MsgClientStartpoint msgClientStartpoint = new MsgClientStartpoint(peers);
+            msgClientStartpoint.setMaxRequestsInFlight(1);
+            msgClientStartpoint.setQueueMaxMessages(2);
+            msgClientStartpoint.setQueuePolicy(MsgClientQueuePolicy.DROP);
+            final BlockingQueue<UUID> resyncs = new LinkedBlockingQueue<>();
+            msgClientStartpoint.addLaggingPeerListener(new MsgClientLaggingPeerListener() {
+                @Override
+                public final void laggingPeerConnected(final UUID node) {
+                    resyncs.add(node);
+                }
+            });
+            msgClientStartpoint.start();
+            try {
+                waitConnected(1, msgClientStartpoint);
+
+                final MsgWrapper.MsgRequest request = MsgWrapper.MsgRequest.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_1).setMsgId(12345).setSynchronous(true)
+                        .setMsgData(ByteString.copyFromUtf8("queue full")).build();
+                List<ListenableFuture<Collection<MsgServerRemoteStatus>>> futures = fillQueue(msgClientStartpoint,
+                        request);
+                Assert.assertTrue(msgClientStartpoint.getPeers()[0].getQueueBytes() > 0);
+                Assert.assertFalse(msgClientStartpoint.isPeerLagging(SERVER_1.getNodeId()));
+                Assert.assertTrue(resyncs.isEmpty());
+
+                // The queue is full: the message is dropped and the channel closed with the queued messages
+                msgClientStartpoint.sendAsyncMessage(request);
+                MsgClientPeerAdm peerAdm = msgClientStartpoint.getPeers()[0];
+                Assert.assertEquals(1, peerAdm.getDropCount());
+                Assert.assertEquals(0, peerAdm.getStallCount());
+                Assert.assertTrue(peerAdm.isLagging());
+                Assert.assertTrue(msgClientStartpoint.isPeerLagging(SERVER_1.getNodeId()));
+                assertClosed(futures);
+
+                // The peer must be resynchronized once connected again
+                Assert.assertEquals(SERVER_1.getNodeId(), resyncs.poll(10, TimeUnit.SECONDS));
+                Assert.assertFalse(msgClientStartpoint.isPeerLagging(SERVER_1.getNodeId()));
+                peerAdm = msgClientStartpoint.getPeers()[0];
+                Assert.assertEquals(0, peerAdm.getQueueDepth());
+                Assert.assertEquals(1, peerAdm.getDropCount());
+
+                // The writer waits for some room, then the request is dropped
+                futures = fillQueue(msgClientStartpoint, request);
+                msgClientStartpoint.setQueuePolicy(MsgClientQueuePolicy.BLOCK);
+                msgClientStartpoint.setQueueBlockTimeout(200);
+                final long start = System.currentTimeMillis();
+                try {
+                    msgClientStartpoint.sendRequest(request, 10000).get();
+                    throw new AssertionError("Not reached");
+                }
+                catch (final ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof MsgServerTimeoutException);
+                }
+                Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+                peerAdm = msgClientStartpoint.getPeers()[0];
+                Assert.assertEquals(2, peerAdm.getDropCount());
+                Assert.assertEquals(1, peerAdm.getStallCount());
+                assertClosed(futures);
+                Assert.assertEquals(SERVER_1.getNodeId(), resyncs.poll(10, TimeUnit.SECONDS));
+
+                // Blocked writer, woken up when the queue is drained
+                futures = fillQueue(msgClientStartpoint, request);
+                msgClientStartpoint.setQueueBlockTimeout(0);
+                final Thread writer = new Thread(new Runnable() {
+                    @Override
+                    public final void run() {
+                        msgClientStartpoint.sendAsyncMessage(request);
+                    }
+                });
+                writer.start();
+                writer.join(200);
+                Assert.assertTrue(writer.isAlive());
+
+                gate.release(Integer.MAX_VALUE / 2);
+                writer.join(10000);
+                Assert.assertFalse(writer.isAlive());
+                for (int i = 0; i < futures.size(); i++) {
+                    Assert.assertTrue(futures.get(i).get().isEmpty());
+                }
+                waitQueueDepth(msgClientStartpoint, 0);
+                // One request written on each closed channel, then the 4 messages of the last channel
+                for (int i = 0; i < 50 && handled.get() < 6; i++) {
+                    Thread.sleep(20);
+                }
+                Assert.assertEquals(6, handled.get());
+                peerAdm = msgClientStartpoint.getPeers()[0];
+                Assert.assertEquals(2, peerAdm.getDropCount());
+                Assert.assertEquals(2, peerAdm.getStallCount());
+                Assert.assertFalse(peerAdm.isLagging());
+                Assert.assertTrue(resyncs.isEmpty());
+            }
+            finally {
+                msgClientStartpoint.stop();
+            }
+        }
+        finally {
+            serverEndpoint.stop();
+        }
+    }
+
+    /**
+     * Fills the send queue of the first peer: one request is written, another request and a message are queued
+     * behind it.
+     * 
+     * @param clientStartpoint
+     * @param request
+     * @return the future replies of the requests
+     * @throws InterruptedException
+     */
+    private static final List<ListenableFuture<Collection<MsgServerRemoteStatus>>> fillQueue(
+            final MsgClientStartpoint clientStartpoint, final MsgRequest request) throws InterruptedException {
+        final List<ListenableFuture<Collection<MsgServerRemoteStatus>>> result = new ArrayList<>(2);
+        result.add(clientStartpoint.sendRequest(request, 10000));
+        waitQueueDepth(clientStartpoint, 0);
+        result.add(clientStartpoint.sendRequest(request, 10000));
+        clientStartpoint.sendAsyncMessage(request);
+        waitQueueDepth(clientStartpoint, 2);
+        return result;
+    }
+
+    /**
+     * Checks that the requests failed because their channel was closed.
+     * 
+     * @param futures
+     * @throws InterruptedException
+     */
+    private static final void assertClosed(final List<ListenableFuture<Collection<MsgServerRemoteStatus>>> futures)
+            throws InterruptedException {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                throw new AssertionError("Not reached");
+            }
+            catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof MsgServerTimeoutException);
+                Assert.assertTrue(e.getCause().getCause() instanceof ClosedChannelException);
+            }
+        }
+    }
+
+    /**
+     * Waits until the send queue of the first peer reaches the given depth.
+     * 
+     * @param clientStartpoint
+     * @param depth
+     * @throws InterruptedException
+     */
+    private static final void waitQueueDepth(final MsgClientStartpoint clientStartpoint, final int depth)
+            throws InterruptedException {
+        for (int i = 0; i < 50 && clientStartpoint.getPeers()[0].getQueueDepth() != depth; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(depth, clientStartpoint.getPeers()[0].getQueueDepth());
+    }
+
+    /**
+     * Waits for the completion of the requests, including the update of the statistics.
+     * 
+     * @param clientStartpoint
+     * @throws InterruptedException
+     */
+    private static final void waitPendingRequests(final MsgClientStartpoint clientStartpoint)
+            throws InterruptedException {
+        for (int i = 0; i < 50 && clientStartpoint.getPendingRequestCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, clientStartpoint.getPendingRequestCount());
+    }
+
     /**
      * Wait at most 20 seconds for the client to be connected to the expected number of peers.
      * 
@@ -0,0 +1,235 @@
+package io.eguan.net;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.proto.Common.ProtocolVersion;
+import io.eguan.proto.net.MsgWrapper.MsgReply;
+import io.eguan.proto.net.MsgWrapper.MsgRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Unit tests for {@link MsgFrames}: the frames must be the same as the ones of the protobuf encoders of Netty.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public class TestMsgFrames {
+
+    private static final int[] PAYLOAD_SIZES = new int[] { 0, 10, 127, 128, 4096, 16383, 16384, 1024 * 1024 };
+    private static final long[] MSG_IDS = new long[] { 0, 1, -1, 12345, Long.MAX_VALUE, Long.MIN_VALUE };
+
+    @Test
+    public void testEncodeRequest() throws IOException {
+        for (final int payloadSize : PAYLOAD_SIZES) {
+            final MessageLite message = newMessage(payloadSize);
+            for (final long msgId : MSG_IDS) {
+                for (final boolean sync : new boolean[] { true, false }) {
+                    final MsgRequest request = MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1)
+                            .setMsgId(msgId).setSynchronous(sync).setMsgData(message.toByteString()).build();
+                    Assert.assertArrayEquals(toFrame(request), toArray(MsgFrames.encodeRequest(message, msgId, sync)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeReply() throws IOException {
+        for (final long msgId : MSG_IDS) {
+            // Ack
+            {
+                final MsgReply reply = MsgReply.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(msgId)
+                        .setStatus(true).build();
+                Assert.assertArrayEquals(toFrame(reply), toArray(MsgFrames.encodeReply(msgId, null, null)));
+            }
+            // Exception: the reply is ignored
+            {
+                final String exception = IllegalStateException.class.getName();
+                final MsgReply reply = MsgReply.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(msgId)
+                        .setStatus(false).setException(exception).build();
+                Assert.assertArrayEquals(toFrame(reply),
+                        toArray(MsgFrames.encodeReply(msgId, exception, newMessage(10))));
+            }
+            // Reply
+            for (final int payloadSize : PAYLOAD_SIZES) {
+                final MessageLite message = newMessage(payloadSize);
+                final MsgReply reply = MsgReply.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(msgId)
+                        .setStatus(true).setRepData(message.toByteString()).build();
+                Assert.assertArrayEquals(toFrame(reply), toArray(MsgFrames.encodeReply(msgId, null, message)));
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeRequest() throws IOException {
+        for (final int payloadSize : PAYLOAD_SIZES) {
+            final MsgRequest message = newMessage(payloadSize);
+            for (final long msgId : MSG_IDS) {
+                for (final boolean sync : new boolean[] { true, false }) {
+                    final MsgRequest request = MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1)
+                            .setMsgId(msgId).setSynchronous(sync).setMsgData(message.toByteString()).build();
+
+                    // Decode the request from the middle of an array
+                    final byte[] serialized = request.toByteArray();
+                    final byte[] array = new byte[serialized.length + 20];
+                    System.arraycopy(serialized, 0, array, 10, serialized.length);
+                    final ChannelBuffer frame = ChannelBuffers.wrappedBuffer(array, 10, serialized.length);
+
+                    final MsgFrames.Request decoded = MsgFrames.decodeRequest(frame);
+                    Assert.assertEquals(msgId, decoded.getMsgId());
+                    Assert.assertEquals(sync, decoded.getSynchronous());
+                    Assert.assertArrayEquals(message.toByteArray(), toArray(decoded.getMsgData()));
+                    final MsgRequest parsed = (MsgRequest) decoded.parseMsgData(MsgRequest.getDefaultInstance());
+                    Assert.assertEquals(message.getMsgId(), parsed.getMsgId());
+                    Assert.assertEquals(message.getMsgData(), parsed.getMsgData());
+
+                    // The frame is left unchanged
+                    Assert.assertEquals(serialized.length, frame.readableBytes());
+                }
+            }
+        }
+    }
+
+    /**
+     * The payload of a request is decoded without copy: it is a view of the received frame.
+     */
+    @Test
+    public void testDecodeRequestNoCopy() throws IOException {
+        final MsgRequest message = newMessage(4096);
+        final byte[] array = toArray(MsgFrames.encodeRequest(message, 7, true));
+
+        // Decode the frame received, without its length
+        final int frameLength = CodedInputStream.newInstance(array).readRawVarint32();
+        final ChannelBuffer frame = ChannelBuffers.wrappedBuffer(array, array.length - frameLength, frameLength);
+        final MsgFrames.Request decoded = MsgFrames.decodeRequest(frame);
+        Assert.assertEquals(message.getSerializedSize(), decoded.getMsgData().readableBytes());
+
+        // A change in the frame is seen in the payload
+        final int last = array.length - 1;
+        array[last] = (byte) ~array[last];
+        final ChannelBuffer msgData = decoded.getMsgData();
+        Assert.assertEquals(array[last], msgData.getByte(msgData.readerIndex() + msgData.readableBytes() - 1));
+    }
+
+    @Test
+    public void testDecodeRequestUnknownField() throws IOException {
+        final MsgRequest message = newMessage(100);
+        final MsgRequest request = MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(5)
+                .setSynchronous(true).setMsgData(message.toByteString()).build();
+
+        // Add a field unknown to this version
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final CodedOutputStream output = CodedOutputStream.newInstance(bos);
+        request.writeTo(output);
+        output.writeBytes(15, ByteString.copyFromUtf8("unknown"));
+        output.writeInt64(16, 42);
+        output.flush();
+
+        final MsgFrames.Request decoded = MsgFrames.decodeRequest(ChannelBuffers.wrappedBuffer(bos.toByteArray()));
+        Assert.assertEquals(5, decoded.getMsgId());
+        Assert.assertTrue(decoded.getSynchronous());
+        Assert.assertArrayEquals(message.toByteArray(), toArray(decoded.getMsgData()));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testDecodeRequestNoMsgData() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final CodedOutputStream output = CodedOutputStream.newInstance(bos);
+        output.writeEnum(MsgRequest.VERSION_FIELD_NUMBER, ProtocolVersion.VERSION_1.getNumber());
+        output.writeSInt64(MsgRequest.MSGID_FIELD_NUMBER, 5);
+        output.writeBool(MsgRequest.SYNCHRONOUS_FIELD_NUMBER, false);
+        output.flush();
+        MsgFrames.decodeRequest(ChannelBuffers.wrappedBuffer(bos.toByteArray()));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testDecodeRequestTruncated() throws IOException {
+        final MsgRequest request = MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(5)
+                .setSynchronous(true).setMsgData(newMessage(100).toByteString()).build();
+        final byte[] serialized = request.toByteArray();
+        MsgFrames.decodeRequest(ChannelBuffers.wrappedBuffer(Arrays.copyOf(serialized, serialized.length - 1)));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testDecodeRequestWrongWireType() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final CodedOutputStream output = CodedOutputStream.newInstance(bos);
+        output.writeEnum(MsgRequest.VERSION_FIELD_NUMBER, ProtocolVersion.VERSION_1.getNumber());
+        output.writeSInt64(MsgRequest.MSGID_FIELD_NUMBER, 5);
+        output.writeBool(MsgRequest.SYNCHRONOUS_FIELD_NUMBER, false);
+        // msgData as a fixed 32 bits value: skipped, missing field
+        output.writeTag(MsgRequest.MSGDATA_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32);
+        output.writeRawLittleEndian32(7);
+        output.flush();
+        MsgFrames.decodeRequest(ChannelBuffers.wrappedBuffer(bos.toByteArray()));
+    }
+
+    /**
+     * Creates a message of the given size.
+     * 
+     * @param size
+     * @return a new message
+     */
+    private static final MsgRequest newMessage(final int size) {
+        final byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        return MsgRequest.newBuilder().setVersion(ProtocolVersion.VERSION_1).setMsgId(size).setSynchronous(false)
+                .setMsgData(ByteString.copyFrom(contents)).build();
+    }
+
+    /**
+     * Gets the frame written by the protobuf encoder and the length field prepender of Netty.
+     * 
+     * @param message
+     * @return the message, prefixed by its length
+     * @throws IOException
+     */
+    private static final byte[] toFrame(final MessageLite message) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final CodedOutputStream output = CodedOutputStream.newInstance(bos);
+        output.writeRawVarint32(message.getSerializedSize());
+        message.writeTo(output);
+        output.flush();
+        return bos.toByteArray();
+    }
+
+    private static final byte[] toArray(final ChannelBuffer buffer) {
+        final byte[] result = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), result);
+        return result;
+    }
+}
@@ -119,6 +119,19 @@ final class H1Header {
         longTableView.put(VERSION_INDEX, ++version);
     }
 
+    /**
+     * Sets the version and save it in the file, unless the current version is greater.
+     * 
+     * @param newVersion
+     *            the new version of the {@link NrsFile}
+     */
+    final void updateVersion(final long newVersion) {
+        if (newVersion > version) {
+            version = newVersion;
+            longTableView.put(VERSION_INDEX, version);
+        }
+    }
+
     /**
      * Reload the version from the file.
      */
@@ -158,6 +171,13 @@ final class H1Header {
         h1headerContents.position(L1TABLE_OFFSET * NrsFileHeader.BYTES_PER_LONG);
     }
 
+    /**
+     * Writes the changes of the table to the storage device.
+     */
+    final void force() {
+        memoryMappedTable.force();
+    }
+
     final void close() {
         // TODO: need to force sync to ensure the writing of the buffer? This call costs a lot...
         // memoryMappedTable.force();
@@ -29,6 +29,7 @@ import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsCluster;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsH1Header;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKey;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKey.NrsKeyHeader;
+import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKeyRange;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsUpdate;
 import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
 import io.eguan.utils.UuidCharSequence;
@@ -52,11 +53,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -92,13 +98,30 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
     private static final byte HASH_ALLOCATED_VALUE = 1;
     /** Hash header when the hash have been trimmed */
     private static final byte HASH_TRIMMED_VALUE = 2;
+    /** Value returned when a record is read beyond the end of the file */
+    private static final byte HASH_EOF_VALUE = -1;
+    /** Header of a record for the gathering writes of hashes. Must not be modified */
+    private static final byte[] HASH_ALLOCATED_RECORD = new byte[] { HASH_ALLOCATED_VALUE };
 
     /** Byte order for the read/write of header and L1 table */
     final static ByteOrder NRS_BYTE_ORDER = ByteOrder.BIG_ENDIAN;
 
+    /** Number of locks for the write of the L2 tables. Must be a power of 2 */
+    private static final int STRIPE_COUNT = 32;
+    private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+    /** Space between two sequences of the stripes, to avoid false sharing */
+    private static final int STRIPE_SEQ_SHIFT = 3;
+
     /** Header of the file */
     private final NrsFileHeader<U> header;
 
+    /**
+     * Access mode of the file. When set, the L2 tables are mapped in memory, read without lock and written under the
+     * lock of their stripe. Otherwise, the L2 tables are read and written through the channel of the file, under the IO
+     * lock.
+     */
+    private final boolean mappedAccess;
+
     /** Path of the file */
     private final File mappedFile;
 
@@ -109,6 +132,17 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
     private final ReentrantReadWriteLock openLock = new ReentrantReadWriteLock();
     /** Lock access to L2 tables and channel/mapped buffer during read/write operations */
     private final ReentrantLock ioLock = new ReentrantLock();
+    /**
+     * Locks of the writes of the L2 tables in mapped access mode, selected by the offset of the table in the L1 table.
+     * Must be taken before the {@link #ioLock}, in the ascending order of the stripes.
+     */
+    private final ReentrantLock[] stripeLocks;
+    /**
+     * Sequences of the stripes, odd while a L2 table of the stripe is modified. Allows the reads without lock to
+     * detect a concurrent write. The reads validate the sequence with a compare-and-set, ordered after the reads of
+     * the record.
+     */
+    private final AtomicLongArray stripeSeqs;
 
     /** Channel opened on the file or <code>null</code> */
     @GuardedBy(value = "openLock")
@@ -124,6 +158,9 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
     private MappedByteBuffer backendFileMappedBuffer;
     /** Phantom reference to speed-up unmap() */
     private PhantomReference<MappedByteBuffer> backendFileMappedBufferRef;
+    /** Mapping of the L2 tables in mapped access mode, <code>null</code> otherwise */
+    @GuardedBy(value = "openLock")
+    private NrsFileWindows windows;
     /** <code>true</code> if the file is opened in read-only mode */
     @GuardedBy(value = "openLock")
     private boolean readOnly;
@@ -132,6 +169,12 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
     @GuardedBy(value = "openLock")
     private NrsFileBlock fileBlock;
 
+    /** Digests of the clusters not modified since their last read */
+    private final NrsClusterHashes clusterHashes = new NrsClusterHashes();
+    /** Optional file to store the digests of the clusters when the file is closed */
+    @GuardedBy(value = "openLock")
+    private File clusterHashFile;
+
     /** <code>true</code> when this file is updated from the contents of a peer */
     @GuardedBy(value = "ioLock")
     private boolean update = false;
@@ -147,11 +190,28 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
 
     /** True when this file was been written */
     private final AtomicBoolean wasWritten = new AtomicBoolean();
+    /** <code>true</code> when a L2 table have been allocated since the last notification of the peers */
+    @GuardedBy(value = "ioLock")
+    private boolean l2AllocatedNotPosted = false;
 
     /** L1 table or <code>null</code> when closed. Guarded by openLock for set/get of the field. */
     @GuardedBy(value = "ioLock")
     private H1Header h1Header;
 
+    /**
+     * Allocated L2 tables, one bit per entry of the L1 table. Loaded on the first opening of the file and kept when the
+     * file is closed. Modified under ioLock, may be read without lock.
+     */
+    private volatile AtomicLongArray l2Allocation;
+    /** Incremented each time the {@link #l2Allocation} changes */
+    private final AtomicLong l2AllocationStamp = new AtomicLong();
+    /**
+     * Entries present in the L2 tables, one bit per entry, set if the entry is allocated or trimmed. The entries of a
+     * table are loaded on its first read when the file is opened read-only. Modified under ioLock, may be read without
+     * lock.
+     */
+    private final ConcurrentHashMap<Integer, AtomicLongArray> l2Entries = new ConcurrentHashMap<>();
+
     // Pre-allocated read-only buffers
     @GuardedBy(value = "ioLock")
     private final ByteBuffer NOT_ALLOCATED;
@@ -199,11 +259,15 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
      *            read header of the file
      * @param postOffice
      *            optional notification of some remote peers.
+     * @param mappedAccess
+     *            <code>true</code> to map the L2 tables in memory
      */
     NrsAbstractFile(final int elementSize, final FileMapper fileMapper, final NrsFileHeader<U> header,
-            final NrsMsgPostOffice postOffice, final T TRIMMED_VALUE) {
+            final NrsMsgPostOffice postOffice, final T TRIMMED_VALUE, final boolean mappedAccess) {
         super();
 
+        this.mappedAccess = mappedAccess;
+
         this.elementSize = elementSize;
 
         this.TRIMMED_VALUE = TRIMMED_VALUE;
@@ -250,17 +314,24 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
             this.h1LastClusterIdx = -1;
         }
 
-        // Initialize buffers to read / write datas
-        this.NOT_ALLOCATED = ByteBuffer.allocate(1);
+        // Initialize buffers to read / write datas. The value of a released or trimmed record is cleared: the contents
+        // of the record do not depend on its previous values
+        this.NOT_ALLOCATED = ByteBuffer.allocate(1 + elementSize);
         this.NOT_ALLOCATED.put(HASH_NOT_ALLOCATED_VALUE);
         this.ALLOCATED = ByteBuffer.allocate(1);
         this.ALLOCATED.put(HASH_ALLOCATED_VALUE);
-        this.TRIMMED = ByteBuffer.allocate(1);
+        this.TRIMMED = ByteBuffer.allocate(1 + elementSize);
         this.TRIMMED.put(HASH_TRIMMED_VALUE);
         this.EOF = ByteBuffer.allocate(1);
         this.EOF.put((byte) 0);
 
         this.IS_ALLOCATED = ByteBuffer.allocate(1);
+
+        this.stripeLocks = new ReentrantLock[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripeLocks[i] = new ReentrantLock();
+        }
+        this.stripeSeqs = new AtomicLongArray(STRIPE_COUNT << STRIPE_SEQ_SHIFT);
     }
 
     /**
@@ -355,6 +426,21 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
         }
     }
 
+    /**
+     * Sets the file storing the digests of the clusters of this file while it is closed.
+     * 
+     * @param clusterHashFile
+     */
+    final void setClusterHashFile(@Nonnull final File clusterHashFile) {
+        openLock.writeLock().lock();
+        try {
+            this.clusterHashFile = Objects.requireNonNull(clusterHashFile);
+        }
+        finally {
+            openLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Opens the file.
      * 
@@ -389,7 +475,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                 // Read-only: map the whole file
                 backendFileChannel = FileChannel.open(mappedFile.toPath(), StandardOpenOption.READ);
                 final long fileSize = backendFileChannel.size();
-                if (fileSize < Integer.MAX_VALUE) {
+                if (!mappedAccess && fileSize < Integer.MAX_VALUE) {
                     // Position in buffer limited to 4GB => almost a device of 1TB with MD5 hash
                     backendFileMappedBuffer = backendFileChannel.map(MapMode.READ_ONLY, 0, fileSize);
                     backendFileMappedBufferRef = new PhantomReference<>(backendFileMappedBuffer, null);
@@ -425,12 +511,26 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                         : MapMode.READ_WRITE, header.getH1Address(), h1Size);
                 l1Buffer.order(NRS_BYTE_ORDER);
                 this.h1Header = H1Header.wrap(l1Buffer);
+                if (l2Allocation == null) {
+                    loadL2Allocation();
+                }
+
+                // Map L2 tables
+                if (mappedAccess) {
+                    windows = new NrsFileWindows(backendFileChannel, readOnly, clusterSize);
+                    windows.map(backendFileChannel.size());
+                }
 
                 // Opens the block file if any
                 if (fileBlock != null) {
                     fileBlock.open(readOnly);
                 }
 
+                // Load the digests of the clusters
+                if (clusterHashFile != null) {
+                    loadClusterHashes(readOnly);
+                }
+
                 // Ok
                 opened = true;
             }
@@ -438,6 +538,10 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                 if (!opened) {
                     backendFileMappedBuffer = null;
                     backendFileMappedBufferRef = null;
+                    if (windows != null) {
+                        windows.close();
+                        windows = null;
+                    }
 
                     if (backendFileLock != null) {
                         backendFileLock.release();
@@ -473,11 +577,23 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     }
                 }
 
-                // Unreference buffer to allow unmap
+                // Unreference buffers to allow unmap
                 backendFileMappedBuffer = null;
                 backendFileMappedBufferRef = null;
+                if (windows != null) {
+                    windows.close();
+                    windows = null;
+                }
 
                 if (h1Header != null) {
+                    if (clusterHashFile != null) {
+                        try {
+                            clusterHashes.store(clusterHashFile, h1Header.getVersion());
+                        }
+                        catch (final Throwable t) {
+                            LOGGER.warn("Failed to store '" + clusterHashFile + "'", t);
+                        }
+                    }
                     h1Header.close();
                     h1Header = null;
                 }
@@ -511,6 +627,26 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
         }
     }
 
+    /**
+     * Loads the digests of the clusters stored for the current version of the file. The stored digests are deleted if
+     * the file may be modified: they will be stored again when the file is closed.
+     * 
+     * @param readOnly
+     *            true if the file is opened for read access only
+     */
+    private final void loadClusterHashes(final boolean readOnly) {
+        try {
+            clusterHashes.load(clusterHashFile, h1Header.getVersion());
+            if (!readOnly) {
+                Files.deleteIfExists(clusterHashFile.toPath());
+                clusterHashes.setModified();
+            }
+        }
+        catch (final Throwable t) {
+            LOGGER.warn("Failed to load '" + clusterHashFile + "'", t);
+        }
+    }
+
     @Override
     protected final UuidT<U> getId() {
         return getDescriptor().getFileId();
@@ -564,6 +700,9 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
             }
             Files.deleteIfExists(this.mappedFile.toPath());
             writeable = false;
+            if (clusterHashFile != null) {
+                Files.deleteIfExists(clusterHashFile.toPath());
+            }
 
             // Deletes the block file if any
             if (fileBlock != null) {
@@ -686,7 +825,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
 
     /**
      * Create a remote message containing the mapping of the file. The mapping contains the version and the signature of
-     * each cluster. The file must be opened.
+     * each cluster. The file must be opened. Only the clusters modified since their last read are read and hashed.
      * <p>
      * Note: this call freezes read and write access to the file.
      * 
@@ -718,6 +857,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
             builder.setClusterSize(clusterSize);
 
             // Lock L1 and L2 tables contents (version and clusters)
+            lockAllStripes();
             ioLock.lock();
             try {
                 if (update) {
@@ -737,16 +877,15 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                             + clusterSize);
                 }
 
-                // Allocate buffer once for all and reset file channel position
+                // Allocate buffer once for all
                 final ByteBuffer readCluster = NrsByteBufferCache.allocate(clusterSize);
                 try {
-                    long clusterIndex = h1LastClusterIdx + 1;
-                    backendFileChannel.position(clusterIndex * clusterSize);
-                    for (; clusterIndex < clusterCount; clusterIndex++) {
-                        // Read and hash cluster
-                        readNextCluster(clusterIndex, readCluster);
-                        readCluster.rewind();
-                        final byte[] hashCluster = ByteBufferDigest.digest(hashAlgorithm, readCluster);
+                    for (long clusterIndex = h1LastClusterIdx + 1; clusterIndex < clusterCount; clusterIndex++) {
+                        // Read and hash the cluster if it has been modified
+                        byte[] hashCluster = clusterHashes.get(hashAlgorithm, clusterIndex);
+                        if (hashCluster == null) {
+                            hashCluster = readClusterHash(hashAlgorithm, clusterIndex, readCluster);
+                        }
 
                         // Create message element and add it
                         final NrsClusterHash.Builder hashBuilder = NrsClusterHash.newBuilder();
@@ -767,6 +906,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
             }
             finally {
                 ioLock.unlock();
+                unlockAllStripes();
             }
 
             final RemoteOperation.Builder opBuilder = RemoteOperation.newBuilder();
@@ -944,36 +1084,141 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
     }
 
     /**
-     * Read a cluster and check if the contents must be sent to the peer.
+     * Check if the contents of a cluster must be sent to the peer. The cluster is not read if it has not been modified
+     * since its digest matched the peer cluster sum.
      * 
      * @param clusterIdx
      * @param peerNrsClusterHash
      * @param readCluster
+     *            buffer filled with the contents of the cluster if it must be sent
      * @return <code>true</code> if the cluster must be sent to the peer.
      * @throws IOException
      */
     private final boolean processCluster(final long clusterIdx, final NrsClusterHash peerNrsClusterHash,
             final ByteBuffer readCluster) throws IOException {
+        if (peerNrsClusterHash == null) {
+            // Peer have a smaller file
+            backendFileChannel.position(clusterIdx * clusterSize);
+            readNextCluster(clusterIdx, readCluster);
+            readCluster.rewind();
+            return true;
+        }
+
+        // Check peer cluster sum
+        final byte[] peerHash = peerNrsClusterHash.getHash().toByteArray();
+        final HashAlgorithm hashAlgorithm;
+        try {
+            hashAlgorithm = ByteBufferDigest.getAlgorithm(peerHash);
+        }
+        catch (final NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+        final byte[] hashCluster = clusterHashes.get(hashAlgorithm, clusterIdx);
+        if (hashCluster != null && Arrays.equals(hashCluster, peerHash)) {
+            return false;
+        }
+
         // Read local cluster
-        backendFileChannel.position(clusterIdx * clusterSize);
-        readNextCluster(clusterIdx, readCluster);
+        return !Arrays.equals(readClusterHash(hashAlgorithm, clusterIdx, readCluster), peerHash);
+    }
+
+    /**
+     * Reads a cluster and computes its digest. The digest is kept until the next write in the cluster.
+     * 
+     * @param hashAlgorithm
+     *            hash algorithm to apply to the cluster
+     * @param clusterIndex
+     *            cluster index
+     * @param readCluster
+     *            buffer to fill
+     * @return the digest of the cluster
+     * @throws IOException
+     */
+    private final byte[] readClusterHash(final HashAlgorithm hashAlgorithm, final long clusterIndex,
+            final ByteBuffer readCluster) throws IOException {
+        // Get the stamp first to ignore the digest if the cluster is modified during the read
+        final long stamp = clusterHashes.getStamp();
+        backendFileChannel.position(clusterIndex * clusterSize);
+        readNextCluster(clusterIndex, readCluster);
         readCluster.rewind();
+        final byte[] hashCluster = ByteBufferDigest.digest(hashAlgorithm, readCluster);
+        clusterHashes.put(hashAlgorithm, clusterIndex, hashCluster, stamp);
+        return hashCluster;
+    }
 
-        // Check peer cluster sum
-        final boolean clusterMatch;
-        if (peerNrsClusterHash == null) {
-            // Peer have a smaller file
-            clusterMatch = false;
+    /**
+     * Sets the keys of a range of blocks. The version of the file is set to the version of the range.
+     * 
+     * @param keyRange
+     *            the latest state of the keys of consecutive blocks
+     * @param broadcastUpdates
+     *            <code>true</code> if the range is part of a broadcast message
+     * @param sameRange
+     *            <code>true</code> if the previous range of the message has the same version and has been applied
+     * @return <code>true</code> if the keys have been written
+     * @throws IOException
+     */
+    private final boolean handleNrsKeyRange(final NrsKeyRange keyRange, final boolean broadcastUpdates,
+            final boolean sameRange) throws IOException {
+        final long version = keyRange.getVersion();
+        ioLock.lock();
+        try {
+            // Version already reached?
+            if (broadcastUpdates && !sameRange && getVersion() >= version) {
+                // Ignore this update (already applied)
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace(getDescriptor().getFileId() + ": ignore range broadcast=" + broadcastUpdates
+                            + ", update=" + update + " version=" + getVersion() + ", rangeVers=" + version);
+                }
+                return false;
+            }
+            if (update && !updateH1) {
+                // Ignore this update (already applied)
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace(getDescriptor().getFileId() + ": ignore range (header update) broadcast="
+                            + broadcastUpdates + ", update=" + update + " version=" + getVersion() + ", rangeVers="
+                            + version);
+                }
+                return false;
+            }
+
+            // Contents of the file will change: update version first
+            h1Header.updateVersion(version);
         }
-        else {
+        finally {
+            ioLock.unlock();
+        }
+
+        final long firstBlockIndex = keyRange.getFirstBlockIndex();
+        final List<NrsKeyHeader> nrsKeyHeaders = keyRange.getHeadersList();
+        int keyIndex = 0;
+        for (int i = 0; i < nrsKeyHeaders.size(); i++) {
+            final long blockIndex = firstBlockIndex + i;
+            final NrsKeyHeader nrsKeyHeader = nrsKeyHeaders.get(i);
+
+            final ReentrantLock stripeLock = lockStripe(blockIndex);
+            ioLock.lock();
             try {
-                clusterMatch = ByteBufferDigest.match(readCluster, peerNrsClusterHash.getHash().toByteArray());
+                if (nrsKeyHeader == NrsKeyHeader.NOT_ALLOCATED) {
+                    writeHash(blockIndex, null, false, false);
+                }
+                else if (nrsKeyHeader == NrsKeyHeader.ALLOCATED) {
+                    final T key = decodeValue(keyRange.getKeys(keyIndex++));
+                    writeHash(blockIndex, key, false, false);
+                }
+                else if (nrsKeyHeader == NrsKeyHeader.TRIMMED) {
+                    writeHash(blockIndex, TRIMMED_VALUE, false, false);
+                }
+                else {
+                    throw new AssertionError("nrsKeyHeader=" + nrsKeyHeader);
+                }
             }
-            catch (final NoSuchAlgorithmException e) {
-                throw new IllegalArgumentException(e);
+            finally {
+                ioLock.unlock();
+                unlockStripe(stripeLock);
             }
         }
-        return !clusterMatch;
+        return true;
     }
 
     /**
@@ -1022,6 +1267,8 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                 ioLock.unlock();
             }
 
+            // Version of the last key written: the keys of a range are written with the same version
+            long rangeVersion = -1;
             for (int i = 0; i < nrsUpdates.size(); i++) {
                 final NrsUpdate nrsUpdate = nrsUpdates.get(i);
 
@@ -1030,12 +1277,14 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     // Set or reset a key
                     final NrsKey keyUpdate = nrsUpdate.getKeyUpdate();
                     final long blockIndex = keyUpdate.getBlockIndex();
+                    final boolean sameRange = keyUpdate.getVersion() == rangeVersion;
 
                     // Write key or reset
+                    final ReentrantLock stripeLock = lockStripe(blockIndex);
                     ioLock.lock();
                     try {
                         // Version already reached?
-                        if (broadcastUpdates && getVersion() >= keyUpdate.getVersion()) {
+                        if (broadcastUpdates && !sameRange && getVersion() >= keyUpdate.getVersion()) {
                             // Ignore this update (already applied)
                             if (LOGGER.isTraceEnabled()) {
                                 LOGGER.trace(getDescriptor().getFileId() + ": ignore broadcast=" + broadcastUpdates
@@ -1062,22 +1311,32 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
 
                         final NrsKeyHeader nrsKeyHeader = keyUpdate.getHeader();
                         if (nrsKeyHeader == NrsKeyHeader.NOT_ALLOCATED) {
-                            writeHash(blockIndex, null, false);
+                            writeHash(blockIndex, null, false, !sameRange);
                         }
                         else if (nrsKeyHeader == NrsKeyHeader.ALLOCATED) {
                             assert keyUpdate.hasKey();
-                            final T key = decodeValue(keyUpdate);
-                            writeHash(blockIndex, key, false);
+                            final T key = decodeValue(keyUpdate.getKey());
+                            writeHash(blockIndex, key, false, !sameRange);
                         }
                         else if (nrsKeyHeader == NrsKeyHeader.TRIMMED) {
-                            writeHash(blockIndex, TRIMMED_VALUE, false);
+                            writeHash(blockIndex, TRIMMED_VALUE, false, !sameRange);
                         }
                         else {
                             throw new AssertionError("nrsKeyHeader=" + nrsKeyHeader);
                         }
+                        rangeVersion = keyUpdate.getVersion();
                     }
                     finally {
                         ioLock.unlock();
+                        unlockStripe(stripeLock);
+                    }
+                }
+
+                // Key range update
+                if (nrsUpdate.hasKeyRangeUpdate()) {
+                    final NrsKeyRange keyRange = nrsUpdate.getKeyRangeUpdate();
+                    if (handleNrsKeyRange(keyRange, broadcastUpdates, keyRange.getVersion() == rangeVersion)) {
+                        rangeVersion = keyRange.getVersion();
                     }
                 }
 
@@ -1089,14 +1348,23 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     final NrsCluster nrsCluster = nrsUpdate.getClusterUpdate();
                     final long clusterIndex = nrsCluster.getIndex();
                     if (clusterIndex > h1LastClusterIdx) {
-                        final ByteBuffer cluster = nrsCluster.getContents().asReadOnlyByteBuffer();
+                        final ByteBuffer cluster;
+                        if (nrsCluster.hasDeflatedContents()) {
+                            cluster = NrsMsgPostOffice.CLUSTER_COMPRESSOR.decompress(
+                                    nrsCluster.getDeflatedContents(), clusterSize);
+                        }
+                        else {
+                            cluster = nrsCluster.getContents().asReadOnlyByteBuffer();
+                        }
 
+                        lockAllStripes();
                         ioLock.lock();
                         try {
                             writeCluster(clusterIndex, cluster);
                         }
                         finally {
                             ioLock.unlock();
+                            unlockAllStripes();
                         }
                     }
                     else {
@@ -1114,6 +1382,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     // Get write information
                     final NrsH1Header h1HeaderUpdate = nrsUpdate.getH1HeaderUpdate();
                     final ByteBuffer writeHeader = h1HeaderUpdate.getHeader().asReadOnlyByteBuffer();
+                    lockAllStripes();
                     ioLock.lock();
                     try {
                         writeH1Header(writeHeader);
@@ -1121,6 +1390,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     }
                     finally {
                         ioLock.unlock();
+                        unlockAllStripes();
                     }
                 }
             }
@@ -1231,8 +1501,10 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     + ", written=" + written);
         }
 
-        // Need to update the file version
+        // Need to update the file version and the allocated L2 tables
         h1Header.loadVersion();
+        loadL2Allocation();
+        l2Entries.clear();
 
         // Update the size of the file to the max L2 allocation
         // Optimization: read from memory instead of h1header
@@ -1297,6 +1569,9 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
 
         // Should be able to write the whole cluster at once
         final int written = backendFileChannel.write(writeCluster);
+        // Contents of some L2 table replaced
+        l2Entries.clear();
+        clusterHashes.invalidate(clusterIndex * clusterSize, clusterSize, clusterSize);
         if (written != clusterSize) {
             throw new IOException("Unexpected write length '" + mappedFile + "': writeOffset="
                     + backendFileChannel.position() + ", size=" + backendFileChannel.size() + ", clusterSize="
@@ -1318,77 +1593,112 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
     }
 
     /**
-     * Reads the contents of the block and writes it in <code>dest</code> if the value is not <code>null</code>.
+     * Tells if the L2 table containing the given block is allocated. A block of a table not allocated is not present
+     * in the file. The allocation is known once the file has been opened and does not need to open the file. Before
+     * the first opening, the table is assumed to be allocated.
      * 
      * @param blockIndex
-     *            the index of the block to read
-     * @param dest
-     *            destination buffer of <code>null</code>
-     * @return <code>dest</code> or a new allocated element.
+     *            the index of the block
+     * @return <code>false</code> if the block is not present in the file, <code>true</code> if the block may be
+     *         present.
      * @throws IndexOutOfBoundsException
      *             if <code>blockIndex</code> is out of the item scope.
      */
-    final T read(final long blockIndex, final T dest) throws IndexOutOfBoundsException, IOException {
+    public final boolean isL2Allocated(final long blockIndex) throws IndexOutOfBoundsException {
+        rangeCheck(blockIndex);
+        final AtomicLongArray allocation = l2Allocation;
+        if (allocation == null) {
+            return true;
+        }
+        final int l1Offset = getL1Offset(blockIndex);
+        return (allocation.get(l1Offset >>> 6) & (1L << l1Offset)) != 0;
+    }
+
+    /**
+     * Tells if the given block may be present in the file, that is allocated or trimmed. Does not need to open the
+     * file: the answer is exact if the L2 table of the block is not allocated or if its entries have been loaded by a
+     * read, when the file was opened read-only. Otherwise, the block is assumed to be present.
+     * 
+     * @param blockIndex
+     *            the index of the block
+     * @return <code>false</code> if the block is not present in the file, <code>true</code> if the block may be
+     *         present.
+     * @throws IndexOutOfBoundsException
+     *             if <code>blockIndex</code> is out of the item scope.
+     */
+    public final boolean isAllocated(final long blockIndex) throws IndexOutOfBoundsException {
+        if (!isL2Allocated(blockIndex)) {
+            return false;
+        }
+        final AtomicLongArray entries = l2Entries.get(Integer.valueOf(getL1Offset(blockIndex)));
+        if (entries == null) {
+            return true;
+        }
+        final int l2Index = getL2Index(blockIndex);
+        return (entries.get(l2Index >>> 6) & (1L << l2Index)) != 0;
+    }
+
+    /**
+     * Reads the state of a range of blocks from the headers of their records, without reading the values. The L2
+     * tables that are not allocated are skipped without any read. Bit <code>i</code> of the results describes the block
+     * <code>firstBlock + i</code>.
+     * 
+     * @param firstBlock
+     *            the index of the first block
+     * @param count
+     *            the number of blocks
+     * @param present
+     *            set for the blocks present in the file, allocated or trimmed
+     * @param trimmed
+     *            set for the trimmed blocks
+     * @throws IndexOutOfBoundsException
+     *             if the range is out of the item scope.
+     * @throws IOException
+     */
+    public final void readStates(final long firstBlock, final int count, @Nonnull final BitSet present,
+            @Nonnull final BitSet trimmed) throws IndexOutOfBoundsException, IOException {
         openLock.readLock().lock();
         try {
             // Opened?
             if (!opened) {
                 throw new IllegalStateException("'" + mappedFile + "' not opened");
             }
-            // Check input parameter
-            this.rangeCheck(blockIndex);
-
-            final int l1Offset = getL1Offset(blockIndex);
-            final int l2Index = getL2Index(blockIndex);
-            rangeCheckL2(l2Index);
-
-            final long l2Address;
-            ioLock.lock();
-            try {
-                l2Address = h1Header.readL2Address(l1Offset);
-            }
-            finally {
-                ioLock.unlock();
-            }
-            if (l2Address == 0L) {
-                return null;
-            }
-
-            // Read from file
-            final int elementSize = getElementSize();
-            final T result = dest == null ? newElement() : dest;
-            final long readOffset = l2Address + l2Index * (1 + elementSize);
-
-            final byte hashValue;
-            ioLock.lock();
-            try {
-                hashValue = readHash(result, readOffset);
-            }
-            finally {
-                ioLock.unlock();
+            if (count == 0) {
+                return;
             }
-            if (hashValue == HASH_ALLOCATED_VALUE) {
-                if (LOGGER.isTraceEnabled()) {
-                    final StringBuilder trace = new StringBuilder("R blockIndex=").append(blockIndex)
-                            .append(" readOffset=").append(readOffset).append(" value=");
-                    appendDebugString(trace, result);
-                    LOGGER.trace(trace.toString());
+            rangeCheck(firstBlock);
+            rangeCheck(firstBlock + count - 1);
+
+            final long end = firstBlock + count;
+            long blockIndex = firstBlock;
+            while (blockIndex < end) {
+                final int l2Index = getL2Index(blockIndex);
+                final int length = (int) Math.min(end - blockIndex, l2capacity - l2Index);
+                if (isL2Allocated(blockIndex)) {
+                    // Same locks as the writes of the table
+                    final ReentrantLock stripeLock = lockStripe(blockIndex);
+                    try {
+                        if (stripeLock == null) {
+                            ioLock.lock();
+                        }
+                        try {
+                            final long l2Address = h1Header.readL2Address(getL1Offset(blockIndex));
+                            if (l2Address != 0L) {
+                                readL2States(l2Address, l2Index, length, (int) (blockIndex - firstBlock), present,
+                                        trimmed);
+                            }
+                        }
+                        finally {
+                            if (stripeLock == null) {
+                                ioLock.unlock();
+                            }
+                        }
+                    }
+                    finally {
+                        unlockStripe(stripeLock);
+                    }
                 }
-                return result;
-            }
-            else if (hashValue == HASH_NOT_ALLOCATED_VALUE) {
-                if (LOGGER.isTraceEnabled())
-                    LOGGER.trace("R blockIndex=" + blockIndex + " readOffset=" + readOffset + " value=<null>");
-                return null;
-            }
-            else if (hashValue == HASH_TRIMMED_VALUE) {
-                if (LOGGER.isTraceEnabled())
-                    LOGGER.trace("R blockIndex=" + blockIndex + " readOffset=" + readOffset + " value=<trim>");
-                return TRIMMED_VALUE;
-            }
-            else {
-                LOGGER.warn("R blockIndex=" + blockIndex + " readOffset=" + readOffset + " hashValue=" + hashValue);
-                throw new AssertionError();
+                blockIndex += length;
             }
         }
         finally {
@@ -1396,41 +1706,402 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
         }
     }
 
-    private final byte readHash(final T result, final long readOffset) throws IOException {
+    /**
+     * Reads the headers of some records of a L2 table.
+     * 
+     * @param l2Address
+     *            address of the table in the file
+     * @param l2Index
+     *            index of the first record in the table
+     * @param length
+     *            number of records to read
+     * @param bitIndex
+     *            bit of the results for the first record
+     * @param present
+     *            set for the records allocated or trimmed
+     * @param trimmed
+     *            set for the records trimmed
+     * @throws IOException
+     */
+    private final void readL2States(final long l2Address, final int l2Index, final int length, final int bitIndex,
+            final BitSet present, final BitSet trimmed) throws IOException {
+        final int recordSize = 1 + getElementSize();
+        final ByteBuffer window = windows == null ? null : windows.getWindow(l2Address, clusterSize);
+        final ByteBuffer headers;
+        final int tableOffset;
+        ByteBuffer readCluster = null;
         if (backendFileMappedBuffer != null) {
-            return readHashMappedBuffer(result, readOffset);
+            headers = backendFileMappedBuffer;
+            tableOffset = (int) l2Address;
+        }
+        else if (window != null) {
+            headers = window;
+            tableOffset = windows.getWindowOffset(l2Address);
         }
         else {
-            return readHashFromChannel(result, readOffset);
+            readCluster = NrsByteBufferCache.allocate(clusterSize);
+            readCluster.clear();
+            while (readCluster.hasRemaining()) {
+                final long readOffset = l2Address + readCluster.position();
+                if (backendFileChannel.read(readCluster, readOffset) == -1) {
+                    NrsByteBufferCache.release(readCluster);
+                    throw new IOException("Unexpected end of file '" + mappedFile + "' readOffset=" + readOffset);
+                }
+            }
+            headers = readCluster;
+            tableOffset = 0;
+        }
+        try {
+            for (int i = 0; i < length; i++) {
+                final byte header = headers.get(tableOffset + (l2Index + i) * recordSize);
+                if (header != HASH_NOT_ALLOCATED_VALUE) {
+                    present.set(bitIndex + i);
+                    if (header == HASH_TRIMMED_VALUE) {
+                        trimmed.set(bitIndex + i);
+                    }
+                }
+            }
+        }
+        finally {
+            if (readCluster != null) {
+                NrsByteBufferCache.release(readCluster);
+            }
         }
     }
 
-    private final byte readHashMappedBuffer(final T result, final long readOffset) throws IOException {
-        // Mapped only if file size < max integer value
-        backendFileMappedBuffer.position((int) readOffset);
-        final byte header = backendFileMappedBuffer.get();
-        if (header == HASH_NOT_ALLOCATED_VALUE || header == HASH_TRIMMED_VALUE) {
-            // Not allocated or trimmed
-            return header;
-        }
-        assert header == HASH_ALLOCATED_VALUE;
-        readFully(backendFileMappedBuffer, result);
-        return header;
+    /**
+     * Gets the stamp of the allocated L2 tables. The stamp changes each time a L2 table is allocated or the L1 table
+     * is replaced. Allows to check if some information computed from {@link #isL2Allocated(long)} is still valid.
+     * 
+     * @return the current stamp of the L2 allocation.
+     */
+    public final long getL2AllocationStamp() {
+        return l2AllocationStamp.get();
     }
 
-    private final byte readHashFromChannel(final T result, final long readOffset) throws IOException {
-        backendFileChannel.position(readOffset);
+    /**
+     * Gets the number of entries of a L2 table, that is the number of consecutive blocks sharing the same L2 table.
+     * 
+     * @return the capacity of a L2 table
+     */
+    public final int getL2Capacity() {
+        return l2capacity;
+    }
 
-        // Read flag header
-        {
-            IS_ALLOCATED.rewind();
-            final int read = backendFileChannel.read(IS_ALLOCATED);
-            if (read != 1) {
-                throw new IOException("Read failed '" + mappedFile + "' readOffset=" + backendFileChannel.position()
-                        + " read=" + read);
+    /**
+     * Loads the allocated L2 tables from the {@link #h1Header}.
+     */
+    private final void loadL2Allocation() {
+        final int l1Count = (int) ((h1Size / NrsFileHeader.BYTES_PER_LONG) - 1);
+        final AtomicLongArray allocation = new AtomicLongArray((l1Count + 63) >>> 6);
+        for (int i = 0; i < l1Count; i++) {
+            if (h1Header.readL2Address(i) != 0L) {
+                allocation.set(i >>> 6, allocation.get(i >>> 6) | (1L << i));
             }
         }
-        IS_ALLOCATED.rewind();
+        l2Allocation = allocation;
+        l2AllocationStamp.incrementAndGet();
+    }
+
+    /**
+     * Loads the entries present in a L2 table.
+     * 
+     * @param l1Offset
+     *            offset of the table in the L1 table
+     * @param l2Address
+     *            address of the table in the file
+     * @throws IOException
+     */
+    private final void loadL2Entries(final int l1Offset, final long l2Address) throws IOException {
+        // No lock needed in mapped access mode: the file is read-only
+        assert ioLock.isHeldByCurrentThread() || windows != null;
+        final int recordSize = 1 + getElementSize();
+        final AtomicLongArray entries = new AtomicLongArray((l2capacity + 63) >>> 6);
+        final ByteBuffer window = windows == null ? null : windows.getWindow(l2Address, clusterSize);
+        if (backendFileMappedBuffer != null) {
+            for (int i = 0; i < l2capacity; i++) {
+                if (backendFileMappedBuffer.get((int) (l2Address + i * recordSize)) != HASH_NOT_ALLOCATED_VALUE) {
+                    entries.set(i >>> 6, entries.get(i >>> 6) | (1L << i));
+                }
+            }
+        }
+        else if (window != null) {
+            final int windowOffset = windows.getWindowOffset(l2Address);
+            for (int i = 0; i < l2capacity; i++) {
+                if (window.get(windowOffset + i * recordSize) != HASH_NOT_ALLOCATED_VALUE) {
+                    entries.set(i >>> 6, entries.get(i >>> 6) | (1L << i));
+                }
+            }
+        }
+        else {
+            final ByteBuffer readCluster = NrsByteBufferCache.allocate(clusterSize);
+            try {
+                readCluster.clear();
+                while (readCluster.hasRemaining()) {
+                    final long readOffset = l2Address + readCluster.position();
+                    if (backendFileChannel.read(readCluster, readOffset) == -1) {
+                        throw new IOException("Unexpected end of file '" + mappedFile + "' readOffset=" + readOffset);
+                    }
+                }
+                for (int i = 0; i < l2capacity; i++) {
+                    if (readCluster.get(i * recordSize) != HASH_NOT_ALLOCATED_VALUE) {
+                        entries.set(i >>> 6, entries.get(i >>> 6) | (1L << i));
+                    }
+                }
+            }
+            finally {
+                NrsByteBufferCache.release(readCluster);
+            }
+        }
+        l2Entries.put(Integer.valueOf(l1Offset), entries);
+    }
+
+    /**
+     * Updates the loaded entries of a L2 table after a write.
+     * 
+     * @param l1Offset
+     *            offset of the table in the L1 table
+     * @param l2Index
+     *            index of the entry in the table
+     * @param present
+     *            <code>true</code> if the entry is now allocated or trimmed
+     */
+    private final void updateL2Entries(final int l1Offset, final int l2Index, final boolean present) {
+        assert ioLock.isHeldByCurrentThread() || stripeLocks[l1Offset & STRIPE_MASK].isHeldByCurrentThread();
+        final AtomicLongArray entries = l2Entries.get(Integer.valueOf(l1Offset));
+        if (entries != null) {
+            final int word = l2Index >>> 6;
+            if (present) {
+                entries.set(word, entries.get(word) | (1L << l2Index));
+            }
+            else {
+                entries.set(word, entries.get(word) & ~(1L << l2Index));
+            }
+        }
+    }
+
+    /**
+     * Notify the allocation of a L2 table.
+     * 
+     * @param l1Offset
+     *            offset of the new table in the L1 table
+     */
+    private final void setL2Allocated(final int l1Offset) {
+        assert ioLock.isHeldByCurrentThread();
+        final AtomicLongArray allocation = l2Allocation;
+        final int word = l1Offset >>> 6;
+        allocation.set(word, allocation.get(word) | (1L << l1Offset));
+        l2AllocationStamp.incrementAndGet();
+    }
+
+    /**
+     * Reads the contents of the block and writes it in <code>dest</code> if the value is not <code>null</code>.
+     * 
+     * @param blockIndex
+     *            the index of the block to read
+     * @param dest
+     *            destination buffer of <code>null</code>
+     * @return <code>dest</code> or a new allocated element.
+     * @throws IndexOutOfBoundsException
+     *             if <code>blockIndex</code> is out of the item scope.
+     */
+    final T read(final long blockIndex, final T dest) throws IndexOutOfBoundsException, IOException {
+        openLock.readLock().lock();
+        try {
+            // Opened?
+            if (!opened) {
+                throw new IllegalStateException("'" + mappedFile + "' not opened");
+            }
+            // Check input parameter
+            this.rangeCheck(blockIndex);
+
+            final int l1Offset = getL1Offset(blockIndex);
+            final int l2Index = getL2Index(blockIndex);
+            rangeCheckL2(l2Index);
+
+            final long l2Address;
+            if (windows != null) {
+                // Checked again during the read of the record
+                l2Address = h1Header.readL2Address(l1Offset);
+            }
+            else {
+                ioLock.lock();
+                try {
+                    l2Address = h1Header.readL2Address(l1Offset);
+                }
+                finally {
+                    ioLock.unlock();
+                }
+            }
+            if (l2Address == 0L) {
+                return null;
+            }
+
+            // Read from file
+            final int elementSize = getElementSize();
+            final T result = dest == null ? newElement() : dest;
+            final long readOffset = l2Address + l2Index * (1 + elementSize);
+
+            final byte hashValue;
+            if (windows != null) {
+                hashValue = readHashLockFree(result, l1Offset, l2Index);
+                if (readOnly && !l2Entries.containsKey(Integer.valueOf(l1Offset))) {
+                    loadL2Entries(l1Offset, l2Address);
+                }
+            }
+            else {
+                ioLock.lock();
+                try {
+                    hashValue = readHash(result, readOffset);
+                    if (readOnly && !l2Entries.containsKey(Integer.valueOf(l1Offset))) {
+                        loadL2Entries(l1Offset, l2Address);
+                    }
+                }
+                finally {
+                    ioLock.unlock();
+                }
+            }
+            if (hashValue == HASH_ALLOCATED_VALUE) {
+                if (LOGGER.isTraceEnabled()) {
+                    final StringBuilder trace = new StringBuilder("R blockIndex=").append(blockIndex)
+                            .append(" readOffset=").append(readOffset).append(" value=");
+                    appendDebugString(trace, result);
+                    LOGGER.trace(trace.toString());
+                }
+                return result;
+            }
+            else if (hashValue == HASH_NOT_ALLOCATED_VALUE) {
+                if (LOGGER.isTraceEnabled())
+                    LOGGER.trace("R blockIndex=" + blockIndex + " readOffset=" + readOffset + " value=<null>");
+                return null;
+            }
+            else if (hashValue == HASH_TRIMMED_VALUE) {
+                if (LOGGER.isTraceEnabled())
+                    LOGGER.trace("R blockIndex=" + blockIndex + " readOffset=" + readOffset + " value=<trim>");
+                return TRIMMED_VALUE;
+            }
+            else {
+                LOGGER.warn("R blockIndex=" + blockIndex + " readOffset=" + readOffset + " hashValue=" + hashValue);
+                throw new AssertionError();
+            }
+        }
+        finally {
+            openLock.readLock().unlock();
+        }
+    }
+
+    private final byte readHash(final T result, final long readOffset) throws IOException {
+        if (backendFileMappedBuffer != null) {
+            return readHashMappedBuffer(result, readOffset);
+        }
+        else {
+            return readHashFromChannel(result, readOffset);
+        }
+    }
+
+    private final byte readHashMappedBuffer(final T result, final long readOffset) throws IOException {
+        // Mapped only if file size < max integer value
+        backendFileMappedBuffer.position((int) readOffset);
+        final byte header = backendFileMappedBuffer.get();
+        if (header == HASH_NOT_ALLOCATED_VALUE || header == HASH_TRIMMED_VALUE) {
+            // Not allocated or trimmed
+            return header;
+        }
+        assert header == HASH_ALLOCATED_VALUE;
+        readFully(backendFileMappedBuffer, result);
+        return header;
+    }
+
+    /**
+     * Reads a record in mapped access mode, without lock. The read is done again if the L2 table have been modified
+     * during the read.
+     * 
+     * @param result
+     *            value to fill
+     * @param l1Offset
+     *            offset of the L2 table in the L1 table
+     * @param l2Index
+     *            index of the record in the L2 table
+     * @return the header of the record
+     * @throws IOException
+     */
+    private final byte readHashLockFree(final T result, final int l1Offset, final int l2Index) throws IOException {
+        final int seqIndex = (l1Offset & STRIPE_MASK) << STRIPE_SEQ_SHIFT;
+        final long recordSize = 1 + getElementSize();
+        while (true) {
+            final long seq = stripeSeqs.get(seqIndex);
+            if ((seq & 1) == 0) {
+                final long l2Address = h1Header.readL2Address(l1Offset);
+                final byte header;
+                if (l2Address == 0L) {
+                    // L1 table replaced
+                    header = HASH_NOT_ALLOCATED_VALUE;
+                }
+                else {
+                    header = readRecord(result, l2Address + l2Index * recordSize);
+                }
+                // The compare-and-set has the semantics of a volatile read and write: unlike a plain volatile read,
+                // the reads of the record can not be reordered after it. It fails if a write has started since
+                if (stripeSeqs.compareAndSet(seqIndex, seq, seq)) {
+                    if (header == HASH_EOF_VALUE) {
+                        throw new IOException("Unexpected end of file '" + mappedFile + "' l2Address=" + l2Address
+                                + ", l2Index=" + l2Index);
+                    }
+                    return header;
+                }
+            }
+            // Write in progress
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Reads a record from the mapped windows or from the part of the file not mapped yet.
+     * 
+     * @param result
+     *            value to fill
+     * @param readOffset
+     *            offset of the record in the file
+     * @return the header of the record or {@link #HASH_EOF_VALUE}
+     * @throws IOException
+     */
+    private final byte readRecord(final T result, final long readOffset) throws IOException {
+        final int recordSize = 1 + getElementSize();
+        final ByteBuffer window = windows.getWindow(readOffset, recordSize);
+        final ByteBuffer record;
+        if (window != null) {
+            record = window.duplicate();
+            record.position(windows.getWindowOffset(readOffset));
+        }
+        else {
+            record = ByteBuffer.allocate(recordSize);
+            while (record.hasRemaining()) {
+                if (backendFileChannel.read(record, readOffset + record.position()) == -1) {
+                    return HASH_EOF_VALUE;
+                }
+            }
+            record.flip();
+        }
+        final byte header = record.get();
+        if (header == HASH_ALLOCATED_VALUE) {
+            readFully(record, result);
+        }
+        return header;
+    }
+
+    private final byte readHashFromChannel(final T result, final long readOffset) throws IOException {
+        backendFileChannel.position(readOffset);
+
+        // Read flag header
+        {
+            IS_ALLOCATED.rewind();
+            final int read = backendFileChannel.read(IS_ALLOCATED);
+            if (read != 1) {
+                throw new IOException("Read failed '" + mappedFile + "' readOffset=" + backendFileChannel.position()
+                        + " read=" + read);
+            }
+        }
+        IS_ALLOCATED.rewind();
         final byte header = IS_ALLOCATED.get();
         if (header == HASH_NOT_ALLOCATED_VALUE || header == HASH_TRIMMED_VALUE) {
             // Not allocated or trimmed
@@ -1484,6 +2155,278 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
         writeHash(blockIndex, TRIMMED_VALUE, true);
     }
 
+    /**
+     * Writes the pending changes of the file (and of its block file if any) to the storage device and sends the
+     * pending notifications of the updates to the peers. Does nothing if the file is read-only or empty.
+     * 
+     * @throws IOException
+     * @throws IllegalStateException
+     *             if the file is not opened
+     */
+    public final void sync() throws IOException, IllegalStateException {
+        openLock.readLock().lock();
+        try {
+            // Opened?
+            if (!opened) {
+                throw new IllegalStateException("'" + mappedFile + "' not opened");
+            }
+            // Nothing to write
+            if (readOnly || backendFileChannel == null) {
+                return;
+            }
+
+            if (fileBlock != null) {
+                fileBlock.sync();
+            }
+            if (windows != null) {
+                windows.force();
+            }
+            h1Header.force();
+            backendFileChannel.force(false);
+        }
+        finally {
+            openLock.readLock().unlock();
+        }
+
+        if (postOffice != null) {
+            postOffice.flush(header.getFileId());
+        }
+    }
+
+    /**
+     * Writes the hash values of a range of contiguous blocks. The records of the blocks sharing a L2 table are written
+     * with a single gathering write, the version of the file is incremented once for the whole range and the peers are
+     * notified with a single post of the updates.
+     * 
+     * @param firstBlock
+     *            the number of the first block to write
+     * @param hashValues
+     *            the hash values to write, from <code>firstBlock</code>
+     * @throws NrsException
+     * @throws IndexOutOfBoundsException
+     *             if a block of the range is out of the item scope.
+     */
+    public final void writeRange(final long firstBlock, @Nonnull final T[] hashValues) throws IOException {
+        final int count = hashValues.length;
+        if (count == 0) {
+            return;
+        }
+        // Check hash lengths (and NPE if a hashValue is null)
+        for (int i = 0; i < count; i++) {
+            checkValueLength(hashValues[i]);
+        }
+
+        openLock.readLock().lock();
+        try {
+            // Opened?
+            if (!opened) {
+                throw new IllegalStateException("'" + mappedFile + "' not opened");
+            }
+            // Read-only?
+            if (readOnly) {
+                throw new IllegalStateException("'" + mappedFile + "' read-only");
+            }
+
+            // Check input parameters
+            rangeCheck(firstBlock);
+            rangeCheck(firstBlock + count - 1);
+
+            if (windows != null) {
+                writeRangeMapped(firstBlock, hashValues);
+                return;
+            }
+
+            ioLock.lock();
+            try {
+                // Contents of the file will change: update version first, once for the whole range
+                h1Header.incrVersion();
+
+                // Write the blocks, one L2 table at a time
+                int i = 0;
+                while (i < count) {
+                    final long blockIndex = firstBlock + i;
+                    final int l1Offset = getL1Offset(blockIndex);
+                    final int l2Index = getL2Index(blockIndex);
+                    rangeCheckL2(l2Index);
+                    final int runLength = Math.min(count - i, l2capacity - l2Index);
+                    writeRun(l1Offset, l2Index, hashValues, i, runLength);
+                    i += runLength;
+                }
+
+                // Notify peers
+                if (postOffice != null) {
+                    wasWritten.set(true);
+                    postOffice.postNrsKeys(header.getFileId(), h1Header.getVersion(), firstBlock,
+                            NrsKeyHeader.ALLOCATED, hashValues, takeL2AllocatedNotPosted());
+                }
+            }
+            finally {
+                ioLock.unlock();
+            }
+        }
+        finally {
+            openLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the records of contiguous blocks of a L2 table, allocating the table if necessary.
+     * 
+     * @param l1Offset
+     *            offset of the L2 table in the L1 table
+     * @param l2Index
+     *            index of the first record in the L2 table
+     * @param hashValues
+     *            the hash values to write
+     * @param offset
+     *            index of the first value to write in <code>hashValues</code>
+     * @param length
+     *            number of records to write
+     * @throws IOException
+     */
+    private final void writeRun(final int l1Offset, final int l2Index, final T[] hashValues, final int offset,
+            final int length) throws IOException {
+        assert ioLock.isHeldByCurrentThread();
+
+        long l2Address = h1Header.readL2Address(l1Offset);
+        if (l2Address == 0) {
+            l2Address = allocateNewL2();
+            h1Header.writeL2Address(l1Offset, l2Address);
+            setL2Allocated(l1Offset);
+        }
+
+        // Header and hash of each record
+        final ByteBuffer[] records = new ByteBuffer[2 * length];
+        for (int i = 0; i < length; i++) {
+            records[2 * i] = ByteBuffer.wrap(HASH_ALLOCATED_RECORD);
+            records[2 * i + 1] = wrapValue(hashValues[offset + i]);
+        }
+
+        final int recordSize = 1 + getElementSize();
+        final long writeOffset = l2Address + (long) l2Index * recordSize;
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("W l1Offset=" + l1Offset + " l2Index=" + l2Index + " writeOffset=" + writeOffset + " count="
+                    + length);
+        }
+        final long writeLength = (long) length * recordSize;
+        long written = 0;
+        backendFileChannel.position(writeOffset);
+        while (written < writeLength) {
+            written += backendFileChannel.write(records);
+        }
+        clusterHashes.invalidate(writeOffset, writeLength, clusterSize);
+
+        for (int i = 0; i < length; i++) {
+            updateL2Entries(l1Offset, l2Index + i, true);
+        }
+    }
+
+    /**
+     * Writes the hash values of a range of contiguous blocks in mapped access mode, under the locks of the stripes of
+     * the L2 tables.
+     * 
+     * @param firstBlock
+     *            the number of the first block to write
+     * @param hashValues
+     *            the hash values to write, from <code>firstBlock</code>
+     * @throws IOException
+     */
+    private final void writeRangeMapped(final long firstBlock, final T[] hashValues) throws IOException {
+        final int count = hashValues.length;
+        final int firstL1Offset = getL1Offset(firstBlock);
+        final int lastL1Offset = getL1Offset(firstBlock + count - 1);
+        lockStripes(firstL1Offset, lastL1Offset);
+        try {
+            // Write the blocks, one L2 table at a time
+            int i = 0;
+            while (i < count) {
+                final long blockIndex = firstBlock + i;
+                final int l1Offset = getL1Offset(blockIndex);
+                final int l2Index = getL2Index(blockIndex);
+                rangeCheckL2(l2Index);
+                final int runLength = Math.min(count - i, l2capacity - l2Index);
+                writeRunMapped(l1Offset, l2Index, hashValues, i, runLength);
+                i += runLength;
+            }
+
+            // Update version and notify peers in the same order
+            ioLock.lock();
+            try {
+                h1Header.incrVersion();
+                if (postOffice != null) {
+                    wasWritten.set(true);
+                    postOffice.postNrsKeys(header.getFileId(), h1Header.getVersion(), firstBlock,
+                            NrsKeyHeader.ALLOCATED, hashValues, takeL2AllocatedNotPosted());
+                }
+            }
+            finally {
+                ioLock.unlock();
+            }
+        }
+        finally {
+            unlockStripes(firstL1Offset, lastL1Offset);
+        }
+    }
+
+    /**
+     * Writes the records of contiguous blocks of a L2 table in mapped access mode, allocating the table if necessary.
+     * 
+     * @param l1Offset
+     *            offset of the L2 table in the L1 table
+     * @param l2Index
+     *            index of the first record in the L2 table
+     * @param hashValues
+     *            the hash values to write
+     * @param offset
+     *            index of the first value to write in <code>hashValues</code>
+     * @param length
+     *            number of records to write
+     * @throws IOException
+     */
+    private final void writeRunMapped(final int l1Offset, final int l2Index, final T[] hashValues, final int offset,
+            final int length) throws IOException {
+        assert stripeLocks[l1Offset & STRIPE_MASK].isHeldByCurrentThread();
+
+        final long l2Address = getOrAllocateL2(l1Offset);
+        final int recordSize = 1 + getElementSize();
+        final long writeOffset = l2Address + (long) l2Index * recordSize;
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("W l1Offset=" + l1Offset + " l2Index=" + l2Index + " writeOffset=" + writeOffset + " count="
+                    + length);
+        }
+
+        final int writeLength = length * recordSize;
+        final int seqIndex = (l1Offset & STRIPE_MASK) << STRIPE_SEQ_SHIFT;
+        stripeSeqs.incrementAndGet(seqIndex);
+        try {
+            final ByteBuffer window = windows.getWindow(writeOffset, writeLength);
+            final ByteBuffer records;
+            if (window != null) {
+                records = window.duplicate();
+                records.position(windows.getWindowOffset(writeOffset));
+            }
+            else {
+                records = ByteBuffer.allocate(writeLength);
+            }
+            for (int i = 0; i < length; i++) {
+                records.put(HASH_ALLOCATED_VALUE);
+                records.put(wrapValue(hashValues[offset + i]));
+            }
+            if (window == null) {
+                records.flip();
+                writeAt(records, writeOffset);
+            }
+        }
+        finally {
+            stripeSeqs.incrementAndGet(seqIndex);
+        }
+        clusterHashes.invalidate(writeOffset, writeLength, clusterSize);
+
+        for (int i = 0; i < length; i++) {
+            updateL2Entries(l1Offset, l2Index + i, true);
+        }
+    }
+
     /**
      * Write the hash value into the given block. Reset the value if hashValue is <code>null</code>.
      * 
@@ -1493,6 +2436,23 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
      * @throws IOException
      */
     private final void writeHash(final long blockIndex, final T hashValue, final boolean notify) throws IOException {
+        writeHash(blockIndex, hashValue, notify, true);
+    }
+
+    /**
+     * Write the hash value into the given block. Reset the value if hashValue is <code>null</code>.
+     * 
+     * @param blockIndex
+     * @param hashValue
+     *            the hash to write or <code>null</code> to 'release' the block or the 'trim' constant.
+     * @param notify
+     *            <code>true</code> to notify the peers
+     * @param incrVersion
+     *            <code>false</code> if the version of the file is already up to date (update of a range of blocks)
+     * @throws IOException
+     */
+    private final void writeHash(final long blockIndex, final T hashValue, final boolean notify,
+            final boolean incrVersion) throws IOException {
         openLock.readLock().lock();
         try {
             // Opened?
@@ -1512,6 +2472,11 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
             final int l2Index = getL2Index(blockIndex);
             rangeCheckL2(l2Index);
 
+            if (windows != null) {
+                writeHashMapped(blockIndex, l1Offset, l2Index, hashValue, notify, incrVersion);
+                return;
+            }
+
             // Get L2 address
             long l2Address;
             ioLock.lock();
@@ -1527,6 +2492,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
                     // written the hash yet
                     l2Address = allocateNewL2();
                     h1Header.writeL2Address(l1Offset, l2Address);
+                    setL2Allocated(l1Offset);
                 }
             }
             finally {
@@ -1535,38 +2501,83 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
 
             // Write at l2Address
             final long writeOffset = l2Address + l2Index * (1 + getElementSize());
-            if (LOGGER.isTraceEnabled()) {
-                if (hashValue == null) {
-                    LOGGER.trace("W blockIndex=" + blockIndex + " writeOffset=" + writeOffset + " value=<reset>");
-                }
-                else if (hashValue == TRIMMED_VALUE) {
-                    LOGGER.trace("W blockIndex=" + blockIndex + " writeOffset=" + writeOffset + " value=<trim>");
+            traceWrite(blockIndex, writeOffset, hashValue);
+            ioLock.lock();
+            try {
+                writeHashToChannel(hashValue, writeOffset, incrVersion);
+                clusterHashes.invalidate(writeOffset, 1 + getElementSize(), clusterSize);
+                updateL2Entries(l1Offset, l2Index, hashValue != null);
+
+                // Optionally notify peers
+                if (notify && postOffice != null) {
+                    postNrsKey(blockIndex, hashValue);
                 }
-                else {
-                    final StringBuilder trace = new StringBuilder("W blockIndex=").append(blockIndex)
-                            .append(" writeOffset=").append(writeOffset).append(" value=");
-                    appendDebugString(trace, hashValue);
-                    LOGGER.trace(trace.toString());
+            }
+            finally {
+                ioLock.unlock();
+            }
+        }
+        finally {
+            openLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write the hash value into the given block in mapped access mode, under the lock of the stripe of the L2 table.
+     * The version of the file is updated after the write of the record, under the IO lock, to notify the peers in the
+     * order of the versions.
+     * 
+     * @param blockIndex
+     * @param l1Offset
+     *            offset of the L2 table in the L1 table
+     * @param l2Index
+     *            index of the record in the L2 table
+     * @param hashValue
+     *            the hash to write or <code>null</code> to 'release' the block or the 'trim' constant.
+     * @param notify
+     *            <code>true</code> to notify the peers
+     * @param incrVersion
+     *            <code>false</code> if the version of the file is already up to date (update of a range of blocks)
+     * @throws IOException
+     */
+    private final void writeHashMapped(final long blockIndex, final int l1Offset, final int l2Index,
+            final T hashValue, final boolean notify, final boolean incrVersion) throws IOException {
+        final int stripe = l1Offset & STRIPE_MASK;
+        final ReentrantLock stripeLock = stripeLocks[stripe];
+        stripeLock.lock();
+        try {
+            // The address of the L2 table can not change under the lock of its stripe
+            if (h1Header.readL2Address(l1Offset) == 0) {
+                // Reset or trim: no need to allocate a new L2 area
+                if (hashValue == null || hashValue == TRIMMED_VALUE) {
+                    return;
                 }
             }
+            final long l2Address = getOrAllocateL2(l1Offset);
+
+            // Write at l2Address
+            final long writeOffset = l2Address + l2Index * (1 + getElementSize());
+            traceWrite(blockIndex, writeOffset, hashValue);
+            final int seqIndex = stripe << STRIPE_SEQ_SHIFT;
+            stripeSeqs.incrementAndGet(seqIndex);
+            try {
+                writeRecord(hashValue, writeOffset);
+            }
+            finally {
+                stripeSeqs.incrementAndGet(seqIndex);
+            }
+            clusterHashes.invalidate(writeOffset, 1 + getElementSize(), clusterSize);
+            updateL2Entries(l1Offset, l2Index, hashValue != null);
+
             ioLock.lock();
             try {
-                writeHashToChannel(hashValue, writeOffset);
+                if (incrVersion) {
+                    h1Header.incrVersion();
+                }
 
                 // Optionally notify peers
                 if (notify && postOffice != null) {
-                    wasWritten.set(true);
-                    final NrsKeyHeader keyHeader;
-                    if (hashValue == null) {
-                        keyHeader = NrsKeyHeader.NOT_ALLOCATED;
-                    }
-                    else if (hashValue == TRIMMED_VALUE) {
-                        keyHeader = NrsKeyHeader.TRIMMED;
-                    }
-                    else {
-                        keyHeader = NrsKeyHeader.ALLOCATED;
-                    }
-                    postOffice.postNrsKey(header.getFileId(), h1Header.getVersion(), blockIndex, keyHeader, hashValue);
+                    postNrsKey(blockIndex, hashValue);
                 }
             }
             finally {
@@ -1574,14 +2585,236 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
             }
         }
         finally {
-            openLock.readLock().unlock();
+            stripeLock.unlock();
         }
     }
 
-    private final void writeHashToChannel(final T hashValue, final long writeOffset) throws IOException {
+    /**
+     * Gets the address of a L2 table in mapped access mode, allocating the table if necessary.
+     * 
+     * @param l1Offset
+     *            offset of the L2 table in the L1 table
+     * @return the address of the table
+     * @throws IOException
+     */
+    private final long getOrAllocateL2(final int l1Offset) throws IOException {
+        assert stripeLocks[l1Offset & STRIPE_MASK].isHeldByCurrentThread();
+
+        final long l2Address = h1Header.readL2Address(l1Offset);
+        if (l2Address != 0) {
+            return l2Address;
+        }
+        ioLock.lock();
+        try {
+            final long newL2Address = allocateNewL2();
+            h1Header.writeL2Address(l1Offset, newL2Address);
+            setL2Allocated(l1Offset);
+            return newL2Address;
+        }
+        finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a record in the mapped windows or in the part of the file not mapped yet.
+     * 
+     * @param hashValue
+     *            the hash to write or <code>null</code> to 'release' the block or the 'trim' constant.
+     * @param writeOffset
+     *            offset of the record in the file
+     * @throws IOException
+     */
+    private final void writeRecord(final T hashValue, final long writeOffset) throws IOException {
+        final byte recordHeader;
+        if (hashValue == null) {
+            recordHeader = HASH_NOT_ALLOCATED_VALUE;
+        }
+        else if (hashValue == TRIMMED_VALUE) {
+            recordHeader = HASH_TRIMMED_VALUE;
+        }
+        else {
+            recordHeader = HASH_ALLOCATED_VALUE;
+        }
+        final int length = 1 + getElementSize();
+        final ByteBuffer window = windows.getWindow(writeOffset, length);
+        final ByteBuffer record;
+        if (window != null) {
+            record = window.duplicate();
+            record.position(windows.getWindowOffset(writeOffset));
+        }
+        else {
+            record = ByteBuffer.allocate(length);
+        }
+        record.put(recordHeader);
+        if (recordHeader == HASH_ALLOCATED_VALUE) {
+            record.put(wrapValue(hashValue));
+        }
+        else {
+            // Clear the previous value
+            for (int i = 1; i < length; i++) {
+                record.put((byte) 0);
+            }
+        }
+        if (window == null) {
+            record.flip();
+            writeAt(record, writeOffset);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer at the given position of the file. Does not change the position of the
+     * channel.
+     * 
+     * @param src
+     *            buffer to write
+     * @param writeOffset
+     *            offset in the file
+     * @throws IOException
+     */
+    private final void writeAt(final ByteBuffer src, final long writeOffset) throws IOException {
+        final int start = src.position();
+        while (src.hasRemaining()) {
+            backendFileChannel.write(src, writeOffset + src.position() - start);
+        }
+    }
+
+    private final void traceWrite(final long blockIndex, final long writeOffset, final T hashValue) {
+        if (LOGGER.isTraceEnabled()) {
+            if (hashValue == null) {
+                LOGGER.trace("W blockIndex=" + blockIndex + " writeOffset=" + writeOffset + " value=<reset>");
+            }
+            else if (hashValue == TRIMMED_VALUE) {
+                LOGGER.trace("W blockIndex=" + blockIndex + " writeOffset=" + writeOffset + " value=<trim>");
+            }
+            else {
+                final StringBuilder trace = new StringBuilder("W blockIndex=").append(blockIndex)
+                        .append(" writeOffset=").append(writeOffset).append(" value=");
+                appendDebugString(trace, hashValue);
+                LOGGER.trace(trace.toString());
+            }
+        }
+    }
+
+    /**
+     * Notify the peers of the write of a block.
+     * 
+     * @param blockIndex
+     * @param hashValue
+     *            the hash written or <code>null</code> or the 'trim' constant.
+     */
+    private final void postNrsKey(final long blockIndex, final T hashValue) {
+        assert ioLock.isHeldByCurrentThread();
+
+        wasWritten.set(true);
+        final NrsKeyHeader keyHeader;
+        if (hashValue == null) {
+            keyHeader = NrsKeyHeader.NOT_ALLOCATED;
+        }
+        else if (hashValue == TRIMMED_VALUE) {
+            keyHeader = NrsKeyHeader.TRIMMED;
+        }
+        else {
+            keyHeader = NrsKeyHeader.ALLOCATED;
+        }
+        postOffice.postNrsKey(header.getFileId(), h1Header.getVersion(), blockIndex, keyHeader, hashValue,
+                takeL2AllocatedNotPosted());
+    }
+
+    /**
+     * Tells if some L2 tables have been allocated since the last notification of the peers. The peers must apply the
+     * updates in the same order to allocate the same L2 tables.
+     * 
+     * @return <code>true</code> if a L2 table have been allocated since the previous call
+     */
+    private final boolean takeL2AllocatedNotPosted() {
+        assert ioLock.isHeldByCurrentThread();
+
+        final boolean result = l2AllocatedNotPosted;
+        l2AllocatedNotPosted = false;
+        return result;
+    }
+
+    /**
+     * Locks the stripe of the L2 table of the given block in mapped access mode.
+     * 
+     * @param blockIndex
+     * @return the lock taken or <code>null</code> if the file is not in mapped access mode
+     */
+    private final ReentrantLock lockStripe(final long blockIndex) {
+        if (windows == null) {
+            return null;
+        }
+        final ReentrantLock stripeLock = stripeLocks[getL1Offset(blockIndex) & STRIPE_MASK];
+        stripeLock.lock();
+        return stripeLock;
+    }
+
+    private final void unlockStripe(final ReentrantLock stripeLock) {
+        if (stripeLock != null) {
+            stripeLock.unlock();
+        }
+    }
+
+    /**
+     * Locks the stripes of a range of L2 tables, in ascending order.
+     * 
+     * @param firstL1Offset
+     *            offset of the first L2 table in the L1 table
+     * @param lastL1Offset
+     *            offset of the last L2 table in the L1 table
+     */
+    private final void lockStripes(final int firstL1Offset, final int lastL1Offset) {
+        final int first = firstL1Offset & STRIPE_MASK;
+        final int count = lastL1Offset - firstL1Offset + 1;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            if (((i - first) & STRIPE_MASK) < count || count >= STRIPE_COUNT) {
+                stripeLocks[i].lock();
+            }
+        }
+    }
+
+    private final void unlockStripes(final int firstL1Offset, final int lastL1Offset) {
+        final int first = firstL1Offset & STRIPE_MASK;
+        final int count = lastL1Offset - firstL1Offset + 1;
+        for (int i = STRIPE_COUNT - 1; i >= 0; i--) {
+            if (((i - first) & STRIPE_MASK) < count || count >= STRIPE_COUNT) {
+                stripeLocks[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * Locks all the L2 tables in mapped access mode and marks them as modified, for the replacement of some L2 tables
+     * or of the L1 table. Must be released by {@link #unlockAllStripes()}.
+     */
+    private final void lockAllStripes() {
+        if (windows == null) {
+            return;
+        }
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripeLocks[i].lock();
+            stripeSeqs.incrementAndGet(i << STRIPE_SEQ_SHIFT);
+        }
+    }
+
+    private final void unlockAllStripes() {
+        if (windows == null) {
+            return;
+        }
+        for (int i = STRIPE_COUNT - 1; i >= 0; i--) {
+            stripeSeqs.incrementAndGet(i << STRIPE_SEQ_SHIFT);
+            stripeLocks[i].unlock();
+        }
+    }
+
+    private final void writeHashToChannel(final T hashValue, final long writeOffset, final boolean incrVersion)
+            throws IOException {
         // Contents of the file will change: update version first, to avoid failure in changing the file version after
         // the change of the contents
-        h1Header.incrVersion();
+        if (incrVersion) {
+            h1Header.incrVersion();
+        }
 
         // Write flag allocated or released
         backendFileChannel.position(writeOffset);
@@ -1698,6 +2931,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
         // Extends the file
         final long newTableAddress = backendFileChannel.size();
         updateFileSize(newTableAddress + clusterSize);
+        l2AllocatedNotPosted = true;
         return newTableAddress;
     }
 
@@ -1716,9 +2950,15 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
         }
 
         // Write a 0 at the end of the file to set the file size
+        final long fileSize = backendFileChannel.size();
         backendFileChannel.position(fileSizeNew - 1);
         EOF.rewind();
         backendFileChannel.write(EOF);
+        clusterHashes.invalidate(fileSize, fileSizeNew - fileSize, clusterSize);
+
+        if (windows != null) {
+            windows.extend(fileSizeNew);
+        }
     }
 
     /**
@@ -1806,10 +3046,10 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
      * Read the value from a coded message.
      * 
      * @param value
-     *            message to decode.
+     *            key read from a message.
      * @return the value read.
      */
-    abstract T decodeValue(final NrsKey value);
+    abstract T decodeValue(final ByteString value);
 
     /**
      * Fills result with some contents of the source buffer.
@@ -1819,7 +3059,7 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
      * @param result
      *            area to fill.
      */
-    abstract void readFully(@Nonnull MappedByteBuffer src, @Nonnull T result);
+    abstract void readFully(@Nonnull ByteBuffer src, @Nonnull T result);
 
     /**
      * Fills result with some contents of the source channel.
@@ -1842,6 +3082,15 @@ abstract class NrsAbstractFile<T, U> extends HandledFile<UuidT<U>> {
      */
     abstract void writeFully(@Nonnull FileChannel dst, @Nonnull T value) throws IOException;
 
+    /**
+     * Gets a buffer on the value, for a gathering write. The buffer remaining bytes are the value.
+     * 
+     * @param value
+     *            value to write.
+     * @return a new buffer on the contents of the value
+     */
+    abstract ByteBuffer wrapValue(@Nonnull T value);
+
     @Override
     public final String toString() {
         return getClass().getSimpleName() + "[" + mappedFile + "]";
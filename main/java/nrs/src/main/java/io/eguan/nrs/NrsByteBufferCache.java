@@ -24,6 +24,7 @@ import static io.eguan.utils.ByteBuffers.ALLOCATE_DIRECT;
 import io.eguan.utils.ByteBufferCache;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Public cache of {@link ByteBuffer} allocated/reused by the Nrs package.
@@ -35,8 +36,12 @@ import java.nio.ByteBuffer;
 public final class NrsByteBufferCache {
 
     // May allocate direct or non direct byte buffers
-    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache(ALLOCATE_DIRECT ? 0
-            : Integer.MAX_VALUE);
+    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache("nrs", ALLOCATE_DIRECT ? 0
+            : Integer.MAX_VALUE, ByteOrder.nativeOrder());
+
+    static {
+        BYTE_BUFFER_CACHE.registerPlatformMXBean();
+    }
 
     private NrsByteBufferCache() {
         throw new AssertionError();
@@ -0,0 +1,326 @@
+package io.eguan.nrs;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.hash.HashAlgorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Digests of the clusters of a {@link NrsAbstractFile}, kept between two synchronizations of the file with a peer. A
+ * digest is valid until the next write in its cluster: the writes invalidate the digests of the clusters they modify,
+ * so that only the modified clusters are read and hashed again.
+ * <p>
+ * A digest computed while a write may modify its cluster is not stored: the digest must be computed after a call to
+ * {@link #getStamp()} and stored with the stamp returned, which changes on each invalidation.
+ * <p>
+ * The digests may be stored in a file when the {@link NrsAbstractFile} is closed and reloaded on the next opening, if
+ * the version of the {@link NrsAbstractFile} did not change.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class NrsClusterHashes {
+
+    /** Magic number at the beginning and at the end of the file */
+    private static final int MAGIC = 0x4e435348; // NCSH
+
+    /** Initial number of clusters */
+    private static final int CAPACITY_MIN = 1024;
+    /** Maximum number of clusters, to keep the digests in an array */
+    private static final int CLUSTER_COUNT_MAX = (Integer.MAX_VALUE / 128) & ~(Long.SIZE - 1);
+
+    /** Hash algorithm of the digests, <code>null</code> if the digests are not set */
+    @GuardedBy(value = "this")
+    private HashAlgorithm hashAlgorithm;
+    /** Length of a digest */
+    @GuardedBy(value = "this")
+    private int digestLength;
+    /** Digests of the clusters, <code>digestLength</code> bytes per cluster */
+    @GuardedBy(value = "this")
+    private byte[] digests;
+    /** Valid digests, one bit per cluster */
+    @GuardedBy(value = "this")
+    private long[] valid;
+    /** Number of valid digests */
+    @GuardedBy(value = "this")
+    private int validCount;
+    /** Incremented on each invalidation */
+    @GuardedBy(value = "this")
+    private long stamp;
+    /** <code>true</code> when the digests have not been modified since the last load or store */
+    @GuardedBy(value = "this")
+    private boolean stored;
+
+    NrsClusterHashes() {
+        super();
+        clear();
+    }
+
+    /**
+     * Gets the current invalidation stamp.
+     * 
+     * @return the stamp to give to {@link #put(HashAlgorithm, long, byte[], long)}.
+     */
+    final synchronized long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Gets the number of valid digests.
+     * 
+     * @return the number of clusters whose digest is known
+     */
+    final synchronized int getValidCount() {
+        return validCount;
+    }
+
+    /**
+     * Gets the digest of a cluster.
+     * 
+     * @param hashAlgorithm
+     *            the algorithm of the digest
+     * @param clusterIndex
+     *            the index of the cluster
+     * @return a copy of the digest or <code>null</code> if it is not known for that algorithm
+     */
+    final synchronized byte[] get(@Nonnull final HashAlgorithm hashAlgorithm, final long clusterIndex) {
+        if (this.hashAlgorithm != hashAlgorithm || !isValid(clusterIndex)) {
+            return null;
+        }
+        final int offset = (int) clusterIndex * digestLength;
+        return Arrays.copyOfRange(digests, offset, offset + digestLength);
+    }
+
+    /**
+     * Sets the digest of a cluster. The digest is ignored if some clusters have been invalidated since
+     * <code>stamp</code> was read. The digests computed with another algorithm are discarded.
+     * 
+     * @param hashAlgorithm
+     *            the algorithm of the digest
+     * @param clusterIndex
+     *            the index of the cluster
+     * @param digest
+     *            the digest of the cluster
+     * @param stamp
+     *            the value of {@link #getStamp()} read before the read of the cluster
+     * @return <code>true</code> if the digest was stored
+     */
+    final synchronized boolean put(@Nonnull final HashAlgorithm hashAlgorithm, final long clusterIndex,
+            @Nonnull final byte[] digest, final long stamp) {
+        if (stamp != this.stamp || clusterIndex < 0 || clusterIndex >= CLUSTER_COUNT_MAX) {
+            return false;
+        }
+        if (this.hashAlgorithm != hashAlgorithm) {
+            clear();
+            this.hashAlgorithm = hashAlgorithm;
+            this.digestLength = hashAlgorithm.getPersistedDigestLength();
+        }
+        if (digest.length != digestLength) {
+            throw new IllegalArgumentException("digest length=" + digest.length + ", expected=" + digestLength);
+        }
+
+        final int index = (int) clusterIndex;
+        ensureCapacity(index + 1);
+        System.arraycopy(digest, 0, digests, index * digestLength, digestLength);
+        if (!isValid(index)) {
+            valid[index >>> 6] |= 1L << index;
+            validCount++;
+        }
+        stored = false;
+        return true;
+    }
+
+    /**
+     * Invalidates the digests of the clusters containing the given area of the file.
+     * 
+     * @param offset
+     *            offset of the area in the file
+     * @param length
+     *            length of the area
+     * @param clusterSize
+     *            size of a cluster of the file
+     */
+    final synchronized void invalidate(final long offset, final long length, final int clusterSize) {
+        stamp++;
+        if (validCount == 0 || length <= 0) {
+            return;
+        }
+        final long first = offset / clusterSize;
+        final long last = Math.min((offset + length - 1) / clusterSize, (long) valid.length * Long.SIZE - 1);
+        for (long i = first; i <= last; i++) {
+            if (isValid(i)) {
+                valid[(int) (i >>> 6)] &= ~(1L << i);
+                validCount--;
+                stored = false;
+            }
+        }
+    }
+
+    /**
+     * Loads the digests stored for the given version of the file. The digests are reset if the file does not exist or
+     * if it does not match the version.
+     * 
+     * @param file
+     *            the file containing the digests
+     * @param version
+     *            the current version of the {@link NrsAbstractFile}
+     * @return <code>true</code> if the digests have been loaded
+     * @throws IOException
+     *             if the file can not be read
+     */
+    final synchronized boolean load(@Nonnull final File file, final long version) throws IOException {
+        clear();
+        if (!file.exists()) {
+            return false;
+        }
+        final byte[] contents = Files.readAllBytes(file.toPath());
+        final ByteBuffer buffer = ByteBuffer.wrap(contents).order(NrsAbstractFile.NRS_BYTE_ORDER);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getLong() != version) {
+                return false;
+            }
+            final byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            final HashAlgorithm algorithm = HashAlgorithm.valueOf(new String(name, StandardCharsets.US_ASCII));
+            final int length = algorithm.getPersistedDigestLength();
+            final int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() != count * (8L + length) + 4
+                    || buffer.getInt(contents.length - 4) != MAGIC) {
+                return false;
+            }
+
+            final byte[] digest = new byte[length];
+            for (int i = 0; i < count; i++) {
+                final long clusterIndex = buffer.getLong();
+                buffer.get(digest);
+                if (!put(algorithm, clusterIndex, digest, stamp)) {
+                    clear();
+                    return false;
+                }
+            }
+            stored = true;
+            return true;
+        }
+        catch (final RuntimeException e) {
+            // Corrupted file
+            clear();
+            return false;
+        }
+    }
+
+    /**
+     * Stores the digests for the given version of the file. The file is replaced atomically.
+     * 
+     * @param file
+     *            the file containing the digests
+     * @param version
+     *            the current version of the {@link NrsAbstractFile}
+     * @throws IOException
+     *             if the file can not be written
+     */
+    final synchronized void store(@Nonnull final File file, final long version) throws IOException {
+        if (stored) {
+            return;
+        }
+        if (hashAlgorithm == null || validCount == 0) {
+            Files.deleteIfExists(file.toPath());
+            stored = true;
+            return;
+        }
+
+        final byte[] name = hashAlgorithm.name().getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 2 + name.length + 4 + validCount * (8 + digestLength)
+                + 4);
+        buffer.order(NrsAbstractFile.NRS_BYTE_ORDER);
+        buffer.putInt(MAGIC).putLong(version).putShort((short) name.length).put(name).putInt(validCount);
+        final long clusterCount = (long) valid.length * Long.SIZE;
+        for (long i = 0; i < clusterCount; i++) {
+            if (isValid(i)) {
+                buffer.putLong(i).put(digests, (int) i * digestLength, digestLength);
+            }
+        }
+        buffer.putInt(MAGIC);
+        buffer.flip();
+
+        file.getParentFile().mkdirs();
+        final File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        stored = true;
+    }
+
+    /**
+     * Marks the digests as modified, for example when the file they were loaded from has been deleted.
+     */
+    final synchronized void setModified() {
+        stored = false;
+    }
+
+    @GuardedBy(value = "this")
+    private final boolean isValid(final long clusterIndex) {
+        final long word = clusterIndex >>> 6;
+        return word < valid.length && (valid[(int) word] & (1L << clusterIndex)) != 0;
+    }
+
+    @GuardedBy(value = "this")
+    private final void ensureCapacity(final int clusterCount) {
+        final int capacity = valid.length * Long.SIZE;
+        if (clusterCount <= capacity) {
+            return;
+        }
+        final int newCapacity = Math.min(Math.max(Math.max(capacity * 2, clusterCount), CAPACITY_MIN),
+                CLUSTER_COUNT_MAX);
+        final int words = (newCapacity + Long.SIZE - 1) / Long.SIZE;
+        valid = Arrays.copyOf(valid, words);
+        digests = Arrays.copyOf(digests, words * Long.SIZE * digestLength);
+    }
+
+    @GuardedBy(value = "this")
+    private final void clear() {
+        hashAlgorithm = null;
+        digestLength = 0;
+        digests = new byte[0];
+        valid = new long[0];
+        validCount = 0;
+        stored = false;
+        stamp++;
+    }
+}
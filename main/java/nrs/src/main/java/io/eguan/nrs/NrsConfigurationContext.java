@@ -48,9 +48,10 @@ public final class NrsConfigurationContext extends AbstractConfigurationContext
      * Constructs an instance with the given {@link #NAME} and all keys references by this context.
      */
     private NrsConfigurationContext() {
-        super(NAME, BlkCacheDirectoryConfigKey.getInstance(), ImagesFileDirectoryConfigKey.getInstance(),
-                NrsClusterSizeConfigKey.getInstance(), NrsStorageConfigKey.getInstance(),
-                RemainingSpaceCreateLimitConfigKey.getInstance());
+        super(NAME, BlkCacheDirectoryConfigKey.getInstance(), ClusterHashDirectoryConfigKey.getInstance(),
+                ImagesFileDirectoryConfigKey.getInstance(), NrsClusterSizeConfigKey.getInstance(),
+                NrsStorageConfigKey.getInstance(), RemainingSpaceCreateLimitConfigKey.getInstance(),
+                NrsMappedAccessConfigKey.getInstance());
     }
 
 }
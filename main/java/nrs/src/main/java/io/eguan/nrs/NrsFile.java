@@ -20,14 +20,14 @@ package io.eguan.nrs;
  * #L%
  */
 
-import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKey;
 import io.eguan.utils.mapper.FileMapper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
+import com.google.protobuf.ByteString;
+
 /**
  * A NrsFile stores a key associated to a block of data corresponding to the contents of a <i>large</i> file. It is
  * optimized for sparse files.
@@ -52,9 +52,12 @@ public final class NrsFile extends NrsAbstractFile<byte[], NrsFile> {
      *            read header of the file
      * @param postOffice
      *            optional notification of some remote peers.
+     * @param mappedAccess
+     *            <code>true</code> to map the L2 tables in memory
      */
-    NrsFile(final FileMapper fileMapper, final NrsFileHeader<NrsFile> header, final NrsMsgPostOffice postOffice) {
-        super(header.getHashSize(), fileMapper, header, postOffice, HASH_TRIMMED);
+    NrsFile(final FileMapper fileMapper, final NrsFileHeader<NrsFile> header, final NrsMsgPostOffice postOffice,
+            final boolean mappedAccess) {
+        super(header.getHashSize(), fileMapper, header, postOffice, HASH_TRIMMED, mappedAccess);
     }
 
     /**
@@ -105,12 +108,12 @@ public final class NrsFile extends NrsAbstractFile<byte[], NrsFile> {
     }
 
     @Override
-    final byte[] decodeValue(final NrsKey value) {
-        return value.getKey().toByteArray();
+    final byte[] decodeValue(final ByteString value) {
+        return value.toByteArray();
     }
 
     @Override
-    final void readFully(final MappedByteBuffer src, final byte[] result) {
+    final void readFully(final ByteBuffer src, final byte[] result) {
         assert result.length == getElementSize();
 
         src.get(result);
@@ -143,4 +146,11 @@ public final class NrsFile extends NrsAbstractFile<byte[], NrsFile> {
             writeLen += dst.write(src);
         }
     }
+
+    @Override
+    final ByteBuffer wrapValue(final byte[] value) {
+        assert value.length == getElementSize();
+
+        return ByteBuffer.wrap(value);
+    }
 }
@@ -20,14 +20,14 @@ package io.eguan.nrs;
  * #L%
  */
 
-import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKey;
 import io.eguan.utils.mapper.FileMapper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
+import com.google.protobuf.ByteString;
+
 /**
  * A NrsFileBlock stores blocks of data corresponding to the contents of a <i>large</i> file. It is optimized for sparse
  * files.
@@ -45,8 +45,8 @@ final class NrsFileBlock extends NrsAbstractFile<ByteBuffer, NrsFileBlock> {
     public static final ByteBuffer BLOCK_TRIMMED = ByteBuffer.allocate(0);
 
     NrsFileBlock(final FileMapper fileMapper, final NrsFileHeader<NrsFileBlock> header,
-            final NrsMsgPostOffice postOffice) {
-        super(header.getBlockSize(), fileMapper, header, postOffice, BLOCK_TRIMMED);
+            final NrsMsgPostOffice postOffice, final boolean mappedAccess) {
+        super(header.getBlockSize(), fileMapper, header, postOffice, BLOCK_TRIMMED, mappedAccess);
     }
 
     @Override
@@ -76,12 +76,12 @@ final class NrsFileBlock extends NrsAbstractFile<ByteBuffer, NrsFileBlock> {
     }
 
     @Override
-    final ByteBuffer decodeValue(final NrsKey value) {
-        return value.getKey().asReadOnlyByteBuffer();
+    final ByteBuffer decodeValue(final ByteString value) {
+        return value.asReadOnlyByteBuffer();
     }
 
     @Override
-    final void readFully(final MappedByteBuffer src, final ByteBuffer result) {
+    final void readFully(final ByteBuffer src, final ByteBuffer result) {
         final int elementSize = getElementSize();
         // Read at the current position and restore the position
         final int position = result.position();
@@ -141,4 +141,12 @@ final class NrsFileBlock extends NrsAbstractFile<ByteBuffer, NrsFileBlock> {
         }
     }
 
+    @Override
+    final ByteBuffer wrapValue(final ByteBuffer value) {
+        // Do not change the position of the value
+        final ByteBuffer result = value.duplicate();
+        result.limit(result.position() + getElementSize());
+        return result;
+    }
+
 }
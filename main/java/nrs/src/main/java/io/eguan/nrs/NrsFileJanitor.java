@@ -69,6 +69,8 @@ public final class NrsFileJanitor {
     private final FileMapper imagesFileMapper;
     /** The {@link FileMapper} used for {@link NrsFileBlock}s. */
     private final FileMapper blocksFileMapper;
+    /** The {@link FileMapper} used for the digests of the clusters of the {@link NrsFile}s. */
+    private final FileMapper clusterHashFileMapper;
 
     /** target directory for NRS file storage. */
     private final File directory;
@@ -76,6 +78,9 @@ public final class NrsFileJanitor {
     /** The limit blocking space left percentage in percent. */
     private final int limitPercentage;
 
+    /** <code>true</code> if the L2 tables of the files are mapped in memory. */
+    private final boolean mappedAccess;
+
     /** The cluster size in bytes. */
     private final int clusterSize;
 
@@ -117,7 +122,19 @@ public final class NrsFileJanitor {
             this.blocksFileMapper = getFileMapperFromConfig(configuration, blocksDirectory);
         }
 
+        // Digests of the clusters
+        {
+            final File clusterHashDir = ClusterHashDirectoryConfigKey.getInstance().getTypedValue(configuration);
+            final File clusterHashDirectory = new File(this.directory, clusterHashDir.getPath());
+            if (!clusterHashDirectory.exists() && !clusterHashDirectory.mkdirs()) {
+                throw new IllegalStateException("Failed to create cluster digest storage directory '"
+                        + clusterHashDirectory + "'");
+            }
+            this.clusterHashFileMapper = getFileMapperFromConfig(configuration, clusterHashDirectory);
+        }
+
         this.limitPercentage = RemainingSpaceCreateLimitConfigKey.getInstance().getTypedValue(configuration).intValue();
+        this.mappedAccess = NrsMappedAccessConfigKey.getInstance().getTypedValue(configuration).booleanValue();
     }
 
     /**
@@ -163,10 +180,27 @@ public final class NrsFileJanitor {
      *            message enhancer, may be <code>null</code>
      */
     public final void setClientStartpoint(final MsgClientStartpoint startpoint, final NrsMsgEnhancer enhancer) {
+        setClientStartpoint(startpoint, enhancer, false);
+    }
+
+    /**
+     * Sets the {@link MsgClientStartpoint} for the remote update and synchronization of {@link NrsFile}, with optional
+     * compression of the contents of the clusters sent on synchronization. The compressed contents are sent in a
+     * field of their own, that the peers without compression can not take for the raw contents.
+     * 
+     * @param startpoint
+     *            the {@link MsgClientStartpoint} for remote update or <code>null</code> to disable remote update.
+     * @param enhancer
+     *            message enhancer, may be <code>null</code>
+     * @param compression
+     *            <code>true</code> to compress the contents of the clusters
+     */
+    public final void setClientStartpoint(final MsgClientStartpoint startpoint, final NrsMsgEnhancer enhancer,
+            final boolean compression) {
         // Flush previous instance (if any)
         flushPostOffice();
 
-        this.postOfficeRef.set(startpoint == null ? null : new NrsMsgPostOffice(startpoint, enhancer));
+        this.postOfficeRef.set(startpoint == null ? null : new NrsMsgPostOffice(startpoint, enhancer, compression));
     }
 
     private final void flushPostOffice() {
@@ -220,15 +254,16 @@ public final class NrsFileJanitor {
                 throw new NrsException("Remaining storage space limit percentage reached");
             }
 
-            result = new NrsFile(imagesFileMapper, header, postOfficeRef.get());
+            result = new NrsFile(imagesFileMapper, header, postOfficeRef.get(), mappedAccess);
             result.create();
+            result.setClusterHashFile(clusterHashFileMapper.mapIdToFile(new UuidCharSequence(header.getFileId())));
 
             // Create the block file if necessary
             try {
                 if (header.isBlocks()) {
                     final NrsFileHeader<NrsFileBlock> headerBlocks = header.newBlocksHeader();
                     final NrsFileBlock nrsFileBlock = new NrsFileBlock(blocksFileMapper, headerBlocks,
-                            postOfficeRef.get());
+                            postOfficeRef.get(), mappedAccess);
                     nrsFileBlock.create();
                     result.setFileBlock(nrsFileBlock);
                 }
@@ -270,8 +305,9 @@ public final class NrsFileJanitor {
             if (nrsFile != null) {
                 return nrsFile;
             }
-            final NrsFile result = new NrsFile(imagesFileMapper, header, postOfficeRef.get());
+            final NrsFile result = new NrsFile(imagesFileMapper, header, postOfficeRef.get(), mappedAccess);
             assert result.getDescriptor().getFileId().equals(id);
+            result.setClusterHashFile(clusterHashFileMapper.mapIdToFile(new UuidCharSequence(id)));
 
             // Load the block file if necessary
             if (header.isBlocks()) {
@@ -285,7 +321,8 @@ public final class NrsFileJanitor {
                 assert headerBlocks.getParentId().equals(header.newBlocksHeader().getParentId());
                 assert headerBlocks.getFileId().equals(header.newBlocksHeader().getFileId());
 
-                final NrsFileBlock nrsFileBlock = new NrsFileBlock(blocksFileMapper, headerBlocks, postOfficeRef.get());
+                final NrsFileBlock nrsFileBlock = new NrsFileBlock(blocksFileMapper, headerBlocks, postOfficeRef.get(),
+                        mappedAccess);
                 result.setFileBlock(nrsFileBlock);
             }
 
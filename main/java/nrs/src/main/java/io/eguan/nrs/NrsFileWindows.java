@@ -0,0 +1,175 @@
+package io.eguan.nrs;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Mapping of a {@link NrsAbstractFile} in memory, by windows of a fixed size. The windows are aligned on clusters, so a
+ * L2 table is always contained in one window. Allows the mapping of files larger than 2GB.
+ * <p>
+ * The mapping does not follow every extension of the file: the end of the file is mapped again when the part not
+ * mapped is large enough. The contents of the file that are not mapped yet must be accessed with positional reads and
+ * writes on the channel.
+ * <p>
+ * The windows may be read without lock. The mapping is updated under the lock of the owner of the file.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class NrsFileWindows {
+
+    /** Size of a window. Read when the file is opened, may be changed for test purpose */
+    static int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Empty mapping */
+    private static final MappedByteBuffer[] NO_WINDOWS = new MappedByteBuffer[0];
+
+    private final FileChannel channel;
+    private final MapMode mapMode;
+    /** Size of a window, a number of clusters */
+    private final int windowSize;
+    /** Minimum size of the part of the file not mapped to map the end of the file again */
+    private final long remapSize;
+
+    /** Windows mapped. The last window may be smaller than the others */
+    @GuardedBy(value = "ioLock")
+    private volatile MappedByteBuffer[] windows = NO_WINDOWS;
+    /** Size of the part of the file that is mapped */
+    @GuardedBy(value = "ioLock")
+    private volatile long mappedSize;
+
+    /**
+     * Create a new mapping of a file.
+     * 
+     * @param channel
+     *            channel opened on the file
+     * @param readOnly
+     *            <code>true</code> if the file is opened read-only
+     * @param clusterSize
+     *            size of the clusters of the file
+     */
+    NrsFileWindows(final FileChannel channel, final boolean readOnly, final int clusterSize) {
+        super();
+        this.channel = channel;
+        this.mapMode = readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE;
+        this.windowSize = Math.max(clusterSize, (WINDOW_SIZE / clusterSize) * clusterSize);
+        this.remapSize = Math.max(clusterSize, windowSize / 16);
+    }
+
+    /**
+     * Maps the file, up to the given size.
+     * 
+     * @param fileSize
+     *            current size of the file
+     * @throws IOException
+     */
+    final void map(final long fileSize) throws IOException {
+        final long prevMappedSize = mappedSize;
+        if (fileSize <= prevMappedSize) {
+            return;
+        }
+        final int windowCount = (int) ((fileSize + windowSize - 1) / windowSize);
+        final MappedByteBuffer[] newWindows = Arrays.copyOf(windows, windowCount);
+
+        // Map again the last window if it is not full
+        final int first = (int) (prevMappedSize / windowSize);
+        for (int i = first; i < windowCount; i++) {
+            final long position = (long) i * windowSize;
+            newWindows[i] = channel.map(mapMode, position, Math.min(windowSize, fileSize - position));
+        }
+        windows = newWindows;
+        mappedSize = fileSize;
+    }
+
+    /**
+     * Notify an extension of the file. The end of the file is mapped if the part that is not mapped is large enough.
+     * 
+     * @param fileSize
+     *            new size of the file
+     * @throws IOException
+     */
+    final void extend(final long fileSize) throws IOException {
+        if (fileSize - mappedSize >= remapSize) {
+            map(fileSize);
+        }
+    }
+
+    /**
+     * Gets the window containing the given area of the file.
+     * 
+     * @param offset
+     *            offset in the file of the area
+     * @param length
+     *            length of the area
+     * @return the window or <code>null</code> if the area is not mapped
+     */
+    final ByteBuffer getWindow(final long offset, final int length) {
+        // Read windows before mappedSize
+        final MappedByteBuffer[] current = windows;
+        final int index = (int) (offset / windowSize);
+        if (index >= current.length) {
+            return null;
+        }
+        final MappedByteBuffer window = current[index];
+        if (getWindowOffset(offset) + length > window.capacity()) {
+            return null;
+        }
+        return window;
+    }
+
+    /**
+     * Gets the position of the given offset of the file in its window.
+     * 
+     * @param offset
+     *            offset in the file
+     * @return the position in the window
+     */
+    final int getWindowOffset(final long offset) {
+        return (int) (offset % windowSize);
+    }
+
+    /**
+     * Writes the changes of the mapped windows to the storage device.
+     */
+    final void force() {
+        final MappedByteBuffer[] current = windows;
+        for (int i = 0; i < current.length; i++) {
+            current[i].force();
+        }
+    }
+
+    /**
+     * Unreference the windows to allow unmap.
+     */
+    final void close() {
+        windows = NO_WINDOWS;
+        mappedSize = 0;
+    }
+}
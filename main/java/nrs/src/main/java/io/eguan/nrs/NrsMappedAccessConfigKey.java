@@ -0,0 +1,79 @@
+package io.eguan.nrs;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.configuration.BooleanConfigKey;
+
+/**
+ * Key defining if the L2 tables of the NRS files are mapped in memory. When set, the L2 tables are read without lock.
+ * Otherwise, they are read and written through the channel of the files.
+ * 
+ * <table border='1'>
+ * <tr>
+ * <th>NAME</th>
+ * <th>DESCRIPTION</th>
+ * <th>REQUIRED</th>
+ * <th>UNIT</th>
+ * <th>TYPE</th>
+ * <th>DEFAULT</th>
+ * <th>MIN</th>
+ * <th>MAX</th>
+ * </tr>
+ * <tr>
+ * <td>{@value #NAME}</td>
+ * <td>Defines if the L2 tables of the NRS files are mapped in memory.</td>
+ * <td>FALSE</td>
+ * <td>either "true", "yes" or "false", "no" (case insensitive)</td>
+ * <td>{@link Boolean}</td>
+ * <td>true</td>
+ * <td>N/A</td>
+ * <td>N/A</td>
+ * </tr>
+ * </table>
+ * 
+ * @author oodrive
+ * @author llambert
+ */
+public final class NrsMappedAccessConfigKey extends BooleanConfigKey {
+
+    protected static final String NAME = "mapped.access";
+
+    private static final NrsMappedAccessConfigKey INSTANCE = new NrsMappedAccessConfigKey();
+
+    /**
+     * Gets the predefined singleton instance.
+     * 
+     * @return the singleton instance constructed with {@link #NrsMappedAccessConfigKey()}
+     */
+    public static final NrsMappedAccessConfigKey getInstance() {
+        return INSTANCE;
+    }
+
+    private NrsMappedAccessConfigKey() {
+        super(NAME);
+    }
+
+    @Override
+    protected final Boolean getDefaultValue() {
+        return Boolean.TRUE;
+    }
+
+}
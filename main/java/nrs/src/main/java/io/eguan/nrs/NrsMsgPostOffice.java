@@ -21,6 +21,7 @@ package io.eguan.nrs;
  */
 
 import io.eguan.net.MsgClientStartpoint;
+import io.eguan.net.MsgServerRemoteStatus;
 import io.eguan.proto.Common.OpCode;
 import io.eguan.proto.Common.ProtocolVersion;
 import io.eguan.proto.Common.Type;
@@ -30,18 +31,25 @@ import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsCluster;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsH1Header;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKey;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKey.NrsKeyHeader;
+import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsKeyRange;
 import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsUpdate;
 import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
+import io.eguan.utils.BlockCompressor;
 import io.eguan.utils.UuidT;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -56,6 +64,10 @@ import javax.annotation.concurrent.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.ByteString;
 
 /**
@@ -71,7 +83,8 @@ final class NrsMsgPostOffice {
     private static final Logger LOGGER = LoggerFactory.getLogger(NrsMsgPostOffice.class);
 
     /**
-     * Messages update for a {@link NrsAbstractFile}.
+     * Messages update for a {@link NrsAbstractFile}. The updates of the keys are coalesced: only the latest state of
+     * each block is sent, packed in ranges of consecutive blocks.
      * 
      */
     private static class Msgs {
@@ -80,6 +93,10 @@ final class NrsMsgPostOffice {
         private final AtomicInteger count;
         private final RemoteOperation.Builder opBuilder;
         private final NrsRemote.NrsFileUpdate.Builder nuBuilder;
+        /** Latest update of the keys, sorted by block index */
+        private final TreeMap<Long, NrsKey> keys;
+        /** Version of the file after the latest update of a key */
+        private long keysVersion = -1;
         /** true if the message must be sent in sync mode */
         private boolean sync = false;
         private final Lock syncLock;
@@ -92,6 +109,7 @@ final class NrsMsgPostOffice {
             this.count = new AtomicInteger();
             this.opBuilder = RemoteOperation.newBuilder();
             this.nuBuilder = NrsRemote.NrsFileUpdate.newBuilder().setBroadcast(broadcast);
+            this.keys = new TreeMap<>();
             this.syncLock = syncLock;
 
             // Initialize builder
@@ -145,8 +163,8 @@ final class NrsMsgPostOffice {
             }
         }
 
-        final boolean isFull() {
-            return count.get() >= SEND_LIMIT_COUNT;
+        final boolean isFull(final int limit) {
+            return count.get() >= limit;
         }
 
         /**
@@ -155,10 +173,36 @@ final class NrsMsgPostOffice {
          * @param nrsUpdate
          */
         final void add(final NrsUpdate nrsUpdate) {
+            // Keep the order of the updates
+            addKeyRanges();
             nuBuilder.addUpdates(nrsUpdate);
             count.incrementAndGet();
         }
 
+        /**
+         * Add the updates of some keys to send. A key replaces the previous update of the same block, if any.
+         * 
+         * @param nrsKeys
+         * @param ordered
+         *            <code>true</code> if the keys must be applied after the previous updates and before the next
+         *            ones
+         */
+        final void add(final List<NrsKey> nrsKeys, final boolean ordered) {
+            if (ordered) {
+                addKeyRanges();
+            }
+            for (int i = 0; i < nrsKeys.size(); i++) {
+                final NrsKey nrsKey = nrsKeys.get(i);
+                if (keys.put(Long.valueOf(nrsKey.getBlockIndex()), nrsKey) == null) {
+                    count.incrementAndGet();
+                }
+                keysVersion = Math.max(keysVersion, nrsKey.getVersion());
+            }
+            if (ordered) {
+                addKeyRanges();
+            }
+        }
+
         /**
          * Set the end-of-sync field of the message to send.
          * 
@@ -191,16 +235,46 @@ final class NrsMsgPostOffice {
          * @return the builder of the message ready to be sent.
          */
         final RemoteOperation.Builder getBuilder() {
+            addKeyRanges();
             opBuilder.setNrsFileUpdate(nuBuilder);
             return opBuilder;
         }
+
+        /**
+         * Adds the pending keys to the updates, one {@link NrsKeyRange} for each run of consecutive blocks. The ranges
+         * share the version of the latest update of a key.
+         */
+        private final void addKeyRanges() {
+            NrsKeyRange.Builder rangeBuilder = null;
+            long nextBlockIndex = -1;
+            for (final NrsKey nrsKey : keys.values()) {
+                final long blockIndex = nrsKey.getBlockIndex();
+                if (rangeBuilder == null || blockIndex != nextBlockIndex) {
+                    if (rangeBuilder != null) {
+                        nuBuilder.addUpdates(NrsUpdate.newBuilder().setKeyRangeUpdate(rangeBuilder));
+                    }
+                    rangeBuilder = NrsKeyRange.newBuilder();
+                    rangeBuilder.setVersion(keysVersion);
+                    rangeBuilder.setFirstBlockIndex(blockIndex);
+                }
+                rangeBuilder.addHeaders(nrsKey.getHeader());
+                if (nrsKey.getHeader() == NrsKeyHeader.ALLOCATED) {
+                    rangeBuilder.addKeys(nrsKey.getKey());
+                }
+                nextBlockIndex = blockIndex + 1;
+            }
+            if (rangeBuilder != null) {
+                nuBuilder.addUpdates(NrsUpdate.newBuilder().setKeyRangeUpdate(rangeBuilder));
+            }
+            keys.clear();
+            keysVersion = -1;
+        }
     }
 
     private class MsgsSender implements Runnable {
 
-        private static final int EMPTY_COUNT_LIMIT = 6;
-        /** Hit count of empty message list before stopping the sender task */
-        private int emptyCount = 0;
+        /** Delay before the next attempt to post the expired messages when the messages are locked (ms) */
+        private static final long LOCK_RETRY_DELAY = 100;
 
         /** true when the sender thread is started */
         private final AtomicBoolean started = new AtomicBoolean(false);
@@ -209,6 +283,11 @@ final class NrsMsgPostOffice {
 
         private final LinkedBlockingQueue<Msgs> toSendQueue = new LinkedBlockingQueue<>();
 
+        /** Last request sent to a peer, on a new channel. Accessed only by the sender thread */
+        private ListenableFuture<Collection<MsgServerRemoteStatus>> peerRequest;
+        /** Broadcast requests waiting for the replies of the peers. Accessed only by the sender thread */
+        private final List<ListenableFuture<Collection<MsgServerRemoteStatus>>> broadcastRequests = new ArrayList<>();
+
         MsgsSender() {
             super();
         }
@@ -235,24 +314,30 @@ final class NrsMsgPostOffice {
         @Override
         public final void run() {
             try {
+                // Date of the last message list found
+                long activeTime = System.currentTimeMillis();
                 while (!shutdown.get()) {
                     // Post expired messages (timeout)
+                    final long end;
                     if (fileMessagesLock.tryLock()) {
                         try {
                             sendBroadcastMessages(null, false, false);
                             sendUnicastMessages(null, null, false);
+                            end = getNextExpireTime();
                         }
                         finally {
                             fileMessagesLock.unlock();
                         }
                     }
+                    else {
+                        end = System.currentTimeMillis() + LOCK_RETRY_DELAY;
+                    }
 
-                    // Send on wire the messages
-                    long duration = SEND_LIMIT_TIME / 2;
-                    final long end = System.currentTimeMillis() + duration;
+                    // Send on wire the messages until the next expiration
+                    long duration = end - System.currentTimeMillis();
                     do {
                         try {
-                            final Msgs toSend = toSendQueue.poll(duration, TimeUnit.MILLISECONDS);
+                            final Msgs toSend = toSendQueue.poll(Math.max(duration, 0), TimeUnit.MILLISECONDS);
                             if (toSend != null) {
                                 send(toSend);
                             }
@@ -268,14 +353,12 @@ final class NrsMsgPostOffice {
                     if (fileMessagesLock.tryLock()) {
                         try {
                             if (fileMessages.isEmpty() && filePeerMessages.isEmpty()) {
-                                emptyCount++;
-                                if (emptyCount > EMPTY_COUNT_LIMIT) {
-                                    emptyCount = 0;
+                                if (System.currentTimeMillis() - activeTime > SENDER_IDLE_TIME) {
                                     return;
                                 }
                             }
                             else {
-                                emptyCount = 0;
+                                activeTime = System.currentTimeMillis();
                             }
                         }
                         finally {
@@ -289,6 +372,27 @@ final class NrsMsgPostOffice {
             }
         }
 
+        /**
+         * Gets the date of the next expiration of the pending message lists. A new message list can not expire before
+         * {@link NrsMsgPostOffice#SEND_LIMIT_TIME}.
+         * 
+         * @return the date of the next expiration
+         */
+        private final long getNextExpireTime() {
+            assert fileMessagesLock.isHeldByCurrentThread();
+
+            long result = System.currentTimeMillis() + SEND_LIMIT_TIME;
+            for (final Msgs msgs : fileMessages.values()) {
+                result = Math.min(result, msgs.getExpireTime());
+            }
+            for (final Map<UUID, Msgs> peerMsgs : filePeerMessages.values()) {
+                for (final Msgs msgs : peerMsgs.values()) {
+                    result = Math.min(result, msgs.getExpireTime());
+                }
+            }
+            return result;
+        }
+
         /**
          * Post the message on the wire. Does not wait for the end of the transmission.
          * 
@@ -329,7 +433,10 @@ final class NrsMsgPostOffice {
         }
 
         /**
-         * Send a message on the wire.
+         * Send a message on the wire. The sender does not wait for the replies: the poster of a message in sync mode
+         * is notified when all the peers have replied. The messages sent to a peer use a new channel, that does not
+         * keep the order with the other messages: a message sent to a peer waits for the replies of the previous
+         * broadcasts and the next messages wait for its reply.
          * 
          * @param toSend
          */
@@ -337,9 +444,24 @@ final class NrsMsgPostOffice {
             final UUID peer = toSend.getPeer();
             final RemoteOperation.Builder builder = toSend.getBuilder();
             enhancer.enhance(builder);
+            waitPeerRequest();
             if (peer != null) {
+                waitBroadcastRequests();
                 try {
-                    startpoint.sendSyncMessageNewChannel(peer, builder.build());
+                    peerRequest = startpoint.sendRequestNewChannel(peer, builder.build(),
+                            startpoint.getTimeoutNewChannel());
+                    Futures.addCallback(peerRequest, new FutureCallback<Collection<MsgServerRemoteStatus>>() {
+                        @Override
+                        public final void onSuccess(final Collection<MsgServerRemoteStatus> result) {
+                            // Done
+                        }
+
+                        @Override
+                        public final void onFailure(final Throwable t) {
+                            LOGGER.warn("Error while sending messages from " + startpoint.getMsgClientId() + " to "
+                                    + peer, t);
+                        }
+                    });
                 }
                 catch (final Exception e) {
                     LOGGER.warn("Error while sending messages from " + startpoint.getMsgClientId() + " to " + peer, e);
@@ -348,12 +470,26 @@ final class NrsMsgPostOffice {
             else {
                 if (toSend.isSync()) {
                     try {
-                        startpoint.sendSyncMessage(builder.build());
+                        final ListenableFuture<Collection<MsgServerRemoteStatus>> broadcastRequest = startpoint
+                                .sendRequest(builder.build(), startpoint.getTimeout());
+                        addBroadcastRequest(broadcastRequest);
+                        Futures.addCallback(broadcastRequest,
+                                new FutureCallback<Collection<MsgServerRemoteStatus>>() {
+                                    @Override
+                                    public final void onSuccess(final Collection<MsgServerRemoteStatus> result) {
+                                        toSend.doneSync();
+                                    }
+
+                                    @Override
+                                    public final void onFailure(final Throwable t) {
+                                        LOGGER.warn("Error while sending messages from " + startpoint.getMsgClientId(),
+                                                t);
+                                        toSend.doneSync();
+                                    }
+                                });
                     }
                     catch (final Exception e) {
                         LOGGER.warn("Error while sending messages from " + startpoint.getMsgClientId(), e);
-                    }
-                    finally {
                         toSend.doneSync();
                     }
                 }
@@ -361,6 +497,55 @@ final class NrsMsgPostOffice {
                     startpoint.sendAsyncMessage(builder.build());
                 }
             }
+
+            // Adapt the size of the messages to the link: make bigger messages while the link is late
+            adaptSendLimitCount(!toSendQueue.isEmpty());
+        }
+
+        /**
+         * Waits for the end of the last request sent to a peer, if any.
+         */
+        private final void waitPeerRequest() {
+            if (peerRequest != null) {
+                try {
+                    Uninterruptibles.getUninterruptibly(peerRequest);
+                }
+                catch (final ExecutionException e) {
+                    // Logged by the callback of the request
+                }
+                peerRequest = null;
+            }
+        }
+
+        /**
+         * Keeps a broadcast request until its completion.
+         * 
+         * @param broadcastRequest
+         */
+        private final void addBroadcastRequest(
+                final ListenableFuture<Collection<MsgServerRemoteStatus>> broadcastRequest) {
+            for (final Iterator<ListenableFuture<Collection<MsgServerRemoteStatus>>> iterator = broadcastRequests
+                    .iterator(); iterator.hasNext();) {
+                if (iterator.next().isDone()) {
+                    iterator.remove();
+                }
+            }
+            broadcastRequests.add(broadcastRequest);
+        }
+
+        /**
+         * Waits for the end of the broadcast requests sent, if any.
+         */
+        private final void waitBroadcastRequests() {
+            for (int i = 0; i < broadcastRequests.size(); i++) {
+                try {
+                    Uninterruptibles.getUninterruptibly(broadcastRequests.get(i));
+                }
+                catch (final ExecutionException e) {
+                    // Logged by the callback of the request
+                }
+            }
+            broadcastRequests.clear();
         }
 
         final void sendFileMessages(final UuidT<?> fileUuid, final boolean sync) {
@@ -388,7 +573,8 @@ final class NrsMsgPostOffice {
                     final Map.Entry<UuidT<?>, Msgs> entry = iterator.next();
                     final Msgs msgs = entry.getValue();
                     final boolean fileMsgs = entry.getKey().equals(fileUuid);
-                    final boolean expired = all || fileMsgs || now >= msgs.getExpireTime() || msgs.isFull();
+                    final boolean expired = all || fileMsgs || now >= msgs.getExpireTime()
+                            || msgs.isFull(sendLimitCount);
                     if (expired) {
                         iterator.remove();
                         // Lock the msgs before removal from the map
@@ -429,13 +615,18 @@ final class NrsMsgPostOffice {
                             final Msgs msgs = entry2.getValue();
 
                             final boolean expired = all || currentNrsAbstractFileUuid.equals(fileUuid)
-                                    || msgsPeer.equals(peerUuid) || now >= msgs.getExpireTime() || msgs.isFull();
+                                    || msgsPeer.equals(peerUuid) || now >= msgs.getExpireTime()
+                                    || msgs.isFull(sendLimitCount);
                             if (expired) {
-                                iterator2.remove();
                                 post(msgs);
-                                // Add a new empty msgs if the eos have not been reached
-                                if (!msgs.isEOS()) {
-                                    ensurePeerMsgs(currentNrsAbstractFileUuid, msgsPeer);
+                                if (msgs.isEOS()) {
+                                    iterator2.remove();
+                                }
+                                else {
+                                    // Add a new empty msgs if the eos have not been reached. Replace the value: a new
+                                    // entry of the map may be returned by the iterator and sent again, endlessly
+                                    entry2.setValue(new Msgs(currentNrsAbstractFileUuid, msgsPeer, false,
+                                            fileMessagesLock));
                                 }
                             }
                         }
@@ -457,13 +648,31 @@ final class NrsMsgPostOffice {
     static final int SEND_LIMIT_COUNT = Integer.getInteger("io.eguan.nrs.sendLimitCount", Integer.valueOf(64))
             .intValue(); // 64 by default
 
+    /** Upper limit of the count of messages sent at once, when the peers are late */
+    static final int SEND_LIMIT_COUNT_MAX = Integer.getInteger("io.eguan.nrs.sendLimitCountMax",
+            Integer.valueOf(16 * SEND_LIMIT_COUNT)).intValue(); // 1024 by default
+
     /** Maximum duration before sending a pending message (in milliseconds) */
     static final long SEND_LIMIT_TIME = Long.getLong("io.eguan.nrs.sendLimitTime", Long.valueOf(5))
             .longValue() * 1000L; // 5s by default
 
+    /** Duration without pending message before stopping the sender task (in milliseconds) */
+    private static final long SENDER_IDLE_TIME = 3 * SEND_LIMIT_TIME;
+
+    /** Compression of the contents of the clusters sent to the peers */
+    static final BlockCompressor CLUSTER_COMPRESSOR = new BlockCompressor("nrs");
+
+    static {
+        CLUSTER_COMPRESSOR.registerPlatformMXBean();
+    }
+
     /** Notify remote peers */
     private final MsgClientStartpoint startpoint;
     private final NrsMsgEnhancer enhancer;
+    /** Compress the contents of the clusters */
+    private final boolean compression;
+    /** Current limit to send a list of messages, between SEND_LIMIT_COUNT and SEND_LIMIT_COUNT_MAX */
+    private volatile int sendLimitCount = SEND_LIMIT_COUNT;
 
     /** Messages locker */
     private final ReentrantLock fileMessagesLock;
@@ -484,10 +693,12 @@ final class NrsMsgPostOffice {
     private final MsgsSender msgsSender;
     private final String senderName;
 
-    NrsMsgPostOffice(@Nonnull final MsgClientStartpoint startpoint, final NrsMsgEnhancer enhancer) {
+    NrsMsgPostOffice(@Nonnull final MsgClientStartpoint startpoint, final NrsMsgEnhancer enhancer,
+            final boolean compression) {
         super();
         this.startpoint = Objects.requireNonNull(startpoint);
         this.enhancer = enhancer;
+        this.compression = compression;
         final UUID sourceUUID = startpoint.getMsgClientId();
         this.senderName = "NrsMessage sender " + sourceUUID;
         this.fileMessages = new HashMap<>();
@@ -593,7 +804,13 @@ final class NrsMsgPostOffice {
         {
             final NrsCluster.Builder builder = NrsCluster.newBuilder();
             builder.setIndex(index);
-            builder.setContents(ByteString.copyFrom(contents));
+            final ByteString compressed = compression ? CLUSTER_COMPRESSOR.compress(contents) : null;
+            if (compressed == null) {
+                builder.setContents(ByteString.copyFrom(contents));
+            }
+            else {
+                builder.setDeflatedContents(compressed);
+            }
             nrsCluster = builder.build();
         }
         final NrsUpdate.Builder builder = NrsUpdate.newBuilder();
@@ -631,7 +848,7 @@ final class NrsMsgPostOffice {
         try {
             final Msgs msgs = ensurePeerMsgs(fileUuid, peerUuid);
             msgs.add(nrsUpdate);
-            if (force || msgs.isFull()) {
+            if (force || msgs.isFull(sendLimitCount)) {
                 msgsSender.sendFilePeerMessages(fileUuid, peerUuid);
             }
         }
@@ -649,58 +866,94 @@ final class NrsMsgPostOffice {
      * @param blockIndex
      * @param key
      *            value to send. May be <code>null</code>, a byte array or a {@link ByteBuffer}.
+     * @param ordered
+     *            <code>true</code> if the pending updates must be applied first by the peers (allocation of a L2 table)
      */
     final void postNrsKey(final UuidT<?> fileUuid, final long version, final long blockIndex,
-            final NrsKeyHeader header, final Object key) {
-        // Create NrsKey message
-        final NrsKey nrsKey;
-        {
-            final NrsKey.Builder builder = NrsKey.newBuilder();
-            builder.setVersion(version);
-            builder.setBlockIndex(blockIndex);
-            builder.setHeader(header);
-            if (key != null) {
-                if (key instanceof byte[]) {
-                    builder.setKey(ByteString.copyFrom((byte[]) key));
-                }
-                else if (key instanceof ByteBuffer) {
-                    builder.setKey(ByteString.copyFrom((ByteBuffer) key));
-                }
-                else {
-                    throw new AssertionError("key=" + key.getClass());
-                }
-            }
-            nrsKey = builder.build();
+            final NrsKeyHeader header, final Object key, final boolean ordered) {
+        postNrsKeys(fileUuid, Collections.singletonList(newNrsKey(version, blockIndex, header, key)), ordered);
+    }
+
+    /**
+     * Send a message to notify the update of the keys of a range of blocks to peers. The updates are added at once in
+     * the messages to send: the keys of the range are received together.
+     * 
+     * @param fileUuid
+     *            file to update
+     * @param version
+     *            version of the file, shared by the keys of the range
+     * @param firstBlock
+     *            index of the first block of the range
+     * @param header
+     * @param keys
+     *            values to send. The elements may be byte arrays or {@link ByteBuffer}s.
+     * @param ordered
+     *            <code>true</code> if the pending updates must be applied first by the peers (allocation of a L2 table)
+     */
+    final void postNrsKeys(final UuidT<?> fileUuid, final long version, final long firstBlock,
+            final NrsKeyHeader header, final Object[] keys, final boolean ordered) {
+        final List<NrsKey> nrsKeys = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            nrsKeys.add(newNrsKey(version, firstBlock + i, header, keys[i]));
         }
-        final NrsUpdate.Builder builder = NrsUpdate.newBuilder();
-        builder.setKeyUpdate(nrsKey);
+        postNrsKeys(fileUuid, nrsKeys, ordered);
+    }
 
-        postNrsUpdate(fileUuid, builder.build());
+    /**
+     * Create a message to notify a key update.
+     * 
+     * @param version
+     * @param blockIndex
+     * @param header
+     * @param key
+     *            value to send. May be <code>null</code>, a byte array or a {@link ByteBuffer}.
+     * @return the new key update
+     */
+    private static final NrsKey newNrsKey(final long version, final long blockIndex, final NrsKeyHeader header,
+            final Object key) {
+        final NrsKey.Builder builder = NrsKey.newBuilder();
+        builder.setVersion(version);
+        builder.setBlockIndex(blockIndex);
+        builder.setHeader(header);
+        if (key != null) {
+            if (key instanceof byte[]) {
+                builder.setKey(ByteString.copyFrom((byte[]) key));
+            }
+            else if (key instanceof ByteBuffer) {
+                builder.setKey(ByteString.copyFrom((ByteBuffer) key));
+            }
+            else {
+                throw new AssertionError("key=" + key.getClass());
+            }
+        }
+        return builder.build();
     }
 
     /**
-     * Post a message update for the given file. The message is added in the list for broadcast messages and for the
-     * update of a file on a peer node.
+     * Post key updates for the given file. The keys are added in the list for broadcast messages and for the update of
+     * a file on a peer node. A key replaces the pending update of the same block, unless the keys are ordered.
      * 
      * @param fileUuid
-     * @param nrsUpdate
+     * @param nrsKeys
+     * @param ordered
+     *            <code>true</code> if the new keys must not be coalesced with the pending ones
      */
-    private final void postNrsUpdate(final UuidT<?> fileUuid, final NrsUpdate nrsUpdate) {
+    private final void postNrsKeys(final UuidT<?> fileUuid, final List<NrsKey> nrsKeys, final boolean ordered) {
 
         fileMessagesLock.lock();
         try {
-            // Add the new NrsFileUpdate for broadcast
+            // Add the new keys for broadcast
             final Msgs msgs = ensureMsgs(fileUuid);
-            msgs.add(nrsUpdate);
-            boolean full = msgs.isFull();
+            msgs.add(nrsKeys, ordered);
+            boolean full = msgs.isFull(sendLimitCount);
 
             // Look for messages for peers
             final Map<UUID, Msgs> msgsPeersMap = filePeerMessages.get(fileUuid);
             if (msgsPeersMap != null) {
                 final Collection<Msgs> msgsCollection = msgsPeersMap.values();
                 for (final Msgs msgsPeer : msgsCollection) {
-                    msgsPeer.add(nrsUpdate);
-                    full |= msgsPeer.isFull();
+                    msgsPeer.add(nrsKeys, ordered);
+                    full |= msgsPeer.isFull(sendLimitCount);
                 }
             }
             if (full) {
@@ -712,6 +965,23 @@ final class NrsMsgPostOffice {
         }
     }
 
+    /**
+     * Adapts the count of messages sent at once to the throughput of the link to the peers. The messages are bigger
+     * while some messages are waiting to be sent and smaller when the link is idle, to keep the latency low.
+     * 
+     * @param late
+     *            <code>true</code> if some messages are waiting to be sent
+     */
+    private final void adaptSendLimitCount(final boolean late) {
+        final int current = sendLimitCount;
+        if (late) {
+            sendLimitCount = Math.min(current * 2, SEND_LIMIT_COUNT_MAX);
+        }
+        else if (current > SEND_LIMIT_COUNT) {
+            sendLimitCount = Math.max(current - current / 4, SEND_LIMIT_COUNT);
+        }
+    }
+
     /**
      * Starts the message sender if necessary.
      */
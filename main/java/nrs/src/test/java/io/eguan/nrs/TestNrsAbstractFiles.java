@@ -34,11 +34,14 @@ import io.eguan.utils.mapper.FileMapper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Random;
@@ -69,6 +72,8 @@ public abstract class TestNrsAbstractFiles<T, U> extends AbstractNrsTestFixture
     /** Base dir */
     private File tempBaseDir;
     protected FileMapper fileMapper;
+    /** Access mode of the files created by {@link #newNrsAbstractFile(FileMapper, NrsFileHeader, NrsMsgPostOffice)} */
+    protected boolean mappedAccess = true;
 
     /**
      * Factory of {@link NrsAbstractFile}.
@@ -716,6 +721,373 @@ public abstract class TestNrsAbstractFiles<T, U> extends AbstractNrsTestFixture
 
     }
 
+    /**
+     * Check the allocation of the L2 tables, known without opening the file.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testL2Allocation() throws IOException {
+        final int blockSize = 4096;
+        final int hashSize = 20;
+        final int clusterSize = getWriteSize(hashSize, blockSize) * 8;
+        final int size = 100 * blockSize;
+        final Set<NrsFileFlag> flags = EnumSet.noneOf(NrsFileFlag.class);
+        final NrsFileHeader.Builder<U> headerBuilder = newHeaderBuilder(size, blockSize, hashSize, clusterSize, flags);
+        final NrsFileHeader<U> header = headerBuilder.build();
+        final NrsAbstractFile<T, U> nrsFile = newNrsAbstractFile(fileMapper, header, null);
+        nrsFile.create();
+        try {
+            final int l2Capacity = nrsFile.getL2Capacity();
+            Assert.assertTrue(l2Capacity > 1);
+            Assert.assertTrue(l2Capacity < 100);
+
+            // Not known yet: may be allocated
+            Assert.assertTrue(nrsFile.isL2Allocated(0));
+            try {
+                nrsFile.isL2Allocated(100);
+                throw new AssertionError("Not reachable");
+            }
+            catch (final IndexOutOfBoundsException e) {
+                // ok
+            }
+
+            final T block = newRandomElement(getWriteSize(hashSize, blockSize));
+            final long stamp;
+            nrsFile.open(false);
+            try {
+                for (int i = 0; i < 100; i++) {
+                    Assert.assertFalse(nrsFile.isL2Allocated(i));
+                }
+                stamp = nrsFile.getL2AllocationStamp();
+
+                // Write a block in the second L2 table
+                nrsFile.write(l2Capacity + 1, block);
+                Assert.assertEquals(stamp + 1, nrsFile.getL2AllocationStamp());
+                for (int i = 0; i < 100; i++) {
+                    Assert.assertEquals(i >= l2Capacity && i < 2 * l2Capacity, nrsFile.isL2Allocated(i));
+                }
+
+                // Table already allocated, reset and trim do not allocate
+                nrsFile.write(l2Capacity, block);
+                nrsFile.reset(l2Capacity + 1);
+                nrsFile.trim(0);
+                Assert.assertEquals(stamp + 1, nrsFile.getL2AllocationStamp());
+                Assert.assertFalse(nrsFile.isL2Allocated(0));
+            }
+            finally {
+                nrsFile.close();
+            }
+
+            // Still known when closed
+            Assert.assertTrue(nrsFile.isL2Allocated(l2Capacity));
+            Assert.assertFalse(nrsFile.isL2Allocated(0));
+
+            // Loaded from the file by a new instance
+            final NrsAbstractFile<T, U> nrsFile2 = newNrsAbstractFile(fileMapper, header, null);
+            nrsFile2.open(true);
+            try {
+                for (int i = 0; i < 100; i++) {
+                    Assert.assertEquals(i >= l2Capacity && i < 2 * l2Capacity, nrsFile2.isL2Allocated(i));
+                }
+
+                // Entries of the table known after a read
+                Assert.assertFalse(nrsFile2.isAllocated(0));
+                Assert.assertTrue(nrsFile2.isAllocated(l2Capacity + 1));
+                Assert.assertNull(nrsFile2.read(l2Capacity + 1));
+                Assert.assertFalse(nrsFile2.isAllocated(l2Capacity + 1));
+                Assert.assertTrue(nrsFile2.isAllocated(l2Capacity));
+                Assert.assertFalse(nrsFile2.isAllocated(l2Capacity + 2));
+            }
+            finally {
+                nrsFile2.close();
+            }
+            releaseElement(block);
+        }
+        finally {
+            nrsFile.delete();
+        }
+    }
+
+    /**
+     * Read the state of ranges of blocks, in mapped access mode and through the channel.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testReadStates() throws IOException {
+        final int blockSize = 4096;
+        final int hashSize = 20;
+        final int clusterSize = getWriteSize(hashSize, blockSize) * 8;
+        final int size = 100 * blockSize;
+        final Set<NrsFileFlag> flags = EnumSet.noneOf(NrsFileFlag.class);
+        final NrsFileHeader.Builder<U> headerBuilder = newHeaderBuilder(size, blockSize, hashSize, clusterSize, flags);
+        final NrsFileHeader<U> header = headerBuilder.build();
+        final NrsAbstractFile<T, U> nrsFile = newNrsAbstractFile(fileMapper, header, null);
+        nrsFile.create();
+        try {
+            final int l2Capacity = nrsFile.getL2Capacity();
+            final T block = newRandomElement(getWriteSize(hashSize, blockSize));
+            final BitSet present = new BitSet();
+            final BitSet trimmed = new BitSet();
+            nrsFile.open(false);
+            try {
+                // Blocks in the second and the fourth L2 tables, one of them trimmed
+                nrsFile.write(l2Capacity + 1, block);
+                nrsFile.write(3 * l2Capacity, block);
+                nrsFile.trim(3 * l2Capacity + 2);
+                nrsFile.write(3 * l2Capacity + 3, block);
+                nrsFile.reset(3 * l2Capacity + 3);
+            }
+            finally {
+                nrsFile.close();
+            }
+
+            final BitSet expectedPresent = new BitSet();
+            expectedPresent.set(0);
+            expectedPresent.set(2 * l2Capacity - 1);
+            expectedPresent.set(2 * l2Capacity + 1);
+            final BitSet expectedTrimmed = new BitSet();
+            expectedTrimmed.set(2 * l2Capacity + 1);
+            for (final boolean mapped : new boolean[] { true, false }) {
+                mappedAccess = mapped;
+                final NrsAbstractFile<T, U> nrsFile2 = newNrsAbstractFile(fileMapper, header, null);
+                nrsFile2.open(true);
+                try {
+                    present.clear();
+                    trimmed.clear();
+                    nrsFile2.readStates(l2Capacity + 1, 3 * l2Capacity, present, trimmed);
+                    Assert.assertEquals(expectedPresent, present);
+                    Assert.assertEquals(expectedTrimmed, trimmed);
+
+                    // Empty range, range not allocated
+                    present.clear();
+                    nrsFile2.readStates(0, 0, present, trimmed);
+                    nrsFile2.readStates(0, l2Capacity, present, trimmed);
+                    Assert.assertTrue(present.isEmpty());
+                }
+                finally {
+                    nrsFile2.close();
+                }
+            }
+            releaseElement(block);
+        }
+        finally {
+            nrsFile.delete();
+        }
+    }
+
+    @Test
+    public void testWriteRange() throws IOException {
+        final int blockSize = 4096;
+        final int hashSize = 20;
+        final int clusterSize = getWriteSize(hashSize, blockSize) * 8;
+        final int size = 100 * blockSize;
+        final Set<NrsFileFlag> flags = EnumSet.noneOf(NrsFileFlag.class);
+        final NrsFileHeader.Builder<U> headerBuilder = newHeaderBuilder(size, blockSize, hashSize, clusterSize, flags);
+        final NrsFileHeader<U> header = headerBuilder.build();
+        final NrsAbstractFile<T, U> nrsFile = newNrsAbstractFile(fileMapper, header, null);
+        nrsFile.create();
+        try {
+            final int l2Capacity = nrsFile.getL2Capacity();
+            Assert.assertTrue(l2Capacity > 1);
+
+            // Range over 3 L2 tables, the second one is already allocated
+            final long firstBlock = l2Capacity - 2;
+            final int count = l2Capacity + 4;
+            final T[] blocks = newElementArray(count, getWriteSize(hashSize, blockSize));
+            final T prev = newRandomElement(getWriteSize(hashSize, blockSize));
+            final T next = newRandomElement(getWriteSize(hashSize, blockSize));
+            nrsFile.open(false);
+            try {
+                nrsFile.write(l2Capacity + 1, prev);
+                nrsFile.write(firstBlock + count, next);
+                final long stamp = nrsFile.getL2AllocationStamp();
+                final long version = nrsFile.getVersion();
+
+                nrsFile.writeRange(firstBlock, blocks);
+                Assert.assertEquals(version + 1, nrsFile.getVersion());
+                Assert.assertEquals(stamp + 1, nrsFile.getL2AllocationStamp());
+                Assert.assertNull(nrsFile.read(firstBlock - 1));
+                for (int i = 0; i < count; i++) {
+                    assertEqualsElements(blocks[i], nrsFile.read(firstBlock + i));
+                }
+                assertEqualsElements(next, nrsFile.read(firstBlock + count));
+
+                // Empty range
+                nrsFile.writeRange(0, newElementArray(0, getWriteSize(hashSize, blockSize)));
+                Assert.assertEquals(version + 1, nrsFile.getVersion());
+
+                // Range out of the file
+                try {
+                    nrsFile.writeRange(100 - count + 1, blocks);
+                    throw new AssertionError("Not reachable");
+                }
+                catch (final IndexOutOfBoundsException e) {
+                    // ok
+                }
+                Assert.assertEquals(version + 1, nrsFile.getVersion());
+            }
+            finally {
+                nrsFile.close();
+            }
+
+            // Read from a new instance
+            final NrsAbstractFile<T, U> nrsFile2 = newNrsAbstractFile(fileMapper, header, null);
+            nrsFile2.open(true);
+            try {
+                for (int i = 0; i < count; i++) {
+                    Assert.assertTrue(nrsFile2.isAllocated(firstBlock + i));
+                    assertEqualsElements(blocks[i], nrsFile2.read(firstBlock + i));
+                }
+                Assert.assertFalse(nrsFile2.isAllocated(firstBlock - 1));
+
+                // Read-only
+                try {
+                    nrsFile2.writeRange(0, blocks);
+                    throw new AssertionError("Not reachable");
+                }
+                catch (final IllegalStateException e) {
+                    // ok
+                }
+            }
+            finally {
+                nrsFile2.close();
+            }
+            for (int i = 0; i < count; i++) {
+                releaseElement(blocks[i]);
+            }
+            releaseElement(prev);
+            releaseElement(next);
+        }
+        finally {
+            nrsFile.delete();
+        }
+    }
+
+    @Test
+    public void testWriteRangeChannelAccess() throws IOException {
+        mappedAccess = false;
+        testWriteRange();
+    }
+
+    /**
+     * Read the blocks while they are written in mapped access mode. The file is mapped in small windows, to read and
+     * write some blocks in the part of the file not mapped yet.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMappedAccessConcurrent() throws Exception {
+        final int blockSize = 4096;
+        final int hashSize = 20;
+        final int writeSize = getWriteSize(hashSize, blockSize);
+        final int clusterSize = writeSize * 4;
+        final int count = 300;
+        final Set<NrsFileFlag> flags = EnumSet.noneOf(NrsFileFlag.class);
+        final NrsFileHeader.Builder<U> headerBuilder = newHeaderBuilder(count * blockSize, blockSize, hashSize,
+                clusterSize, flags);
+        final NrsFileHeader<U> header = headerBuilder.build();
+        final NrsAbstractFile<T, U> nrsFile = newNrsAbstractFile(fileMapper, header, null);
+        nrsFile.create();
+
+        final int prevWindowSize = NrsFileWindows.WINDOW_SIZE;
+        NrsFileWindows.WINDOW_SIZE = clusterSize * 64;
+        try {
+            final T[] blocks = newElementArray(count, writeSize);
+            nrsFile.open(false);
+            try {
+                final AtomicBoolean goOn = new AtomicBoolean(true);
+                final ExecutorService exec = Executors.newSingleThreadExecutor();
+                try {
+                    final Future<Integer> reader = exec.submit(new Callable<Integer>() {
+                        @Override
+                        public final Integer call() throws Exception {
+                            int readCount = 0;
+                            while (goOn.get()) {
+                                for (int i = 0; i < count; i++) {
+                                    final T read = nrsFile.read(i);
+                                    if (read != null) {
+                                        assertEqualsElements(blocks[i], read);
+                                        releaseElement(read);
+                                        readCount++;
+                                    }
+                                }
+                            }
+                            return Integer.valueOf(readCount);
+                        }
+                    });
+
+                    // Write half of the blocks one by one and the others by ranges
+                    final int half = count / 2;
+                    for (int i = 0; i < half; i++) {
+                        nrsFile.write(i, blocks[i]);
+                    }
+                    for (int i = half; i < count; i += 7) {
+                        final int length = Math.min(7, count - i);
+                        final T[] range = Arrays.copyOfRange(blocks, i, i + length);
+                        nrsFile.writeRange(i, range);
+                    }
+                    goOn.set(false);
+                    Assert.assertTrue(reader.get().intValue() >= 0);
+                }
+                finally {
+                    exec.shutdownNow();
+                }
+
+                for (int i = 0; i < count; i++) {
+                    final T read = nrsFile.read(i);
+                    assertEqualsElements(blocks[i], read);
+                    releaseElement(read);
+                }
+            }
+            finally {
+                nrsFile.close();
+            }
+
+            // Read again, mapped and through the channel
+            for (final boolean mapped : new boolean[] { true, false }) {
+                mappedAccess = mapped;
+                final NrsAbstractFile<T, U> nrsFile2 = newNrsAbstractFile(fileMapper, header, null);
+                nrsFile2.open(true);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        final T read = nrsFile2.read(i);
+                        assertEqualsElements(blocks[i], read);
+                        releaseElement(read);
+                        Assert.assertTrue(nrsFile2.isAllocated(i));
+                    }
+                }
+                finally {
+                    nrsFile2.close();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                releaseElement(blocks[i]);
+            }
+        }
+        finally {
+            NrsFileWindows.WINDOW_SIZE = prevWindowSize;
+            nrsFile.delete();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final T[] newElementArray(final int count, final int size) {
+        final T first = newRandomElement(size);
+        final T[] result = (T[]) Array.newInstance(first.getClass(), count);
+        if (count > 0) {
+            result[0] = first;
+            for (int i = 1; i < count; i++) {
+                result[i] = newRandomElement(size);
+            }
+        }
+        else {
+            releaseElement(first);
+        }
+        return result;
+    }
+
     /**
      * Read, write and reset some elements in a NrsAbstractFile.
      *
@@ -0,0 +1,161 @@
+package io.eguan.nrs;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.hash.ByteBufferDigest;
+import io.eguan.hash.HashAlgorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link NrsClusterHashes}.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public class TestNrsClusterHashes {
+
+    private static final int CLUSTER_SIZE = 4096;
+
+    @Test
+    public void testPutGet() {
+        final NrsClusterHashes clusterHashes = new NrsClusterHashes();
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 0));
+
+        final byte[] digest5 = newDigest(HashAlgorithm.MD5, 5);
+        final byte[] digest5000 = newDigest(HashAlgorithm.MD5, 5000);
+        Assert.assertTrue(clusterHashes.put(HashAlgorithm.MD5, 5, digest5, clusterHashes.getStamp()));
+        Assert.assertTrue(clusterHashes.put(HashAlgorithm.MD5, 5000, digest5000, clusterHashes.getStamp()));
+        Assert.assertEquals(2, clusterHashes.getValidCount());
+        Assert.assertArrayEquals(digest5, clusterHashes.get(HashAlgorithm.MD5, 5));
+        Assert.assertArrayEquals(digest5000, clusterHashes.get(HashAlgorithm.MD5, 5000));
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 6));
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 100000));
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.TIGER, 5));
+
+        // Replace a digest
+        Assert.assertTrue(clusterHashes.put(HashAlgorithm.MD5, 5, digest5000, clusterHashes.getStamp()));
+        Assert.assertEquals(2, clusterHashes.getValidCount());
+        Assert.assertArrayEquals(digest5000, clusterHashes.get(HashAlgorithm.MD5, 5));
+
+        // Change the algorithm: previous digests discarded
+        final byte[] digestTiger = newDigest(HashAlgorithm.TIGER, 7);
+        Assert.assertTrue(clusterHashes.put(HashAlgorithm.TIGER, 7, digestTiger, clusterHashes.getStamp()));
+        Assert.assertEquals(1, clusterHashes.getValidCount());
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 5));
+        Assert.assertArrayEquals(digestTiger, clusterHashes.get(HashAlgorithm.TIGER, 7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutWrongLength() {
+        final NrsClusterHashes clusterHashes = new NrsClusterHashes();
+        clusterHashes.put(HashAlgorithm.MD5, 5, new byte[3], clusterHashes.getStamp());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final NrsClusterHashes clusterHashes = new NrsClusterHashes();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(clusterHashes.put(HashAlgorithm.MD5, i, newDigest(HashAlgorithm.MD5, i),
+                    clusterHashes.getStamp()));
+        }
+
+        // Write in cluster 2
+        final long stamp = clusterHashes.getStamp();
+        clusterHashes.invalidate(2 * CLUSTER_SIZE + 10, 20, CLUSTER_SIZE);
+        Assert.assertEquals(9, clusterHashes.getValidCount());
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 2));
+        Assert.assertNotNull(clusterHashes.get(HashAlgorithm.MD5, 1));
+        Assert.assertNotNull(clusterHashes.get(HashAlgorithm.MD5, 3));
+
+        // Digest computed before the write: ignored
+        Assert.assertFalse(clusterHashes.put(HashAlgorithm.MD5, 2, newDigest(HashAlgorithm.MD5, 2), stamp));
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 2));
+
+        // Write across clusters 4 to 6
+        clusterHashes.invalidate(5 * CLUSTER_SIZE - 1, CLUSTER_SIZE + 2, CLUSTER_SIZE);
+        Assert.assertEquals(6, clusterHashes.getValidCount());
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 4));
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 5));
+        Assert.assertNull(clusterHashes.get(HashAlgorithm.MD5, 6));
+        Assert.assertNotNull(clusterHashes.get(HashAlgorithm.MD5, 7));
+
+        // Write beyond the known clusters
+        clusterHashes.invalidate(1000 * CLUSTER_SIZE, CLUSTER_SIZE, CLUSTER_SIZE);
+        Assert.assertEquals(6, clusterHashes.getValidCount());
+    }
+
+    @Test
+    public void testStoreLoad() throws IOException {
+        final File dir = Files.createTempDirectory("tmpNrsClusterHashes").toFile();
+        try {
+            final File file = new File(new File(dir, "sub"), "hashes");
+            final NrsClusterHashes clusterHashes = new NrsClusterHashes();
+            for (int i = 3; i < 2000; i += 3) {
+                Assert.assertTrue(clusterHashes.put(HashAlgorithm.TIGER, i, newDigest(HashAlgorithm.TIGER, i),
+                        clusterHashes.getStamp()));
+            }
+            clusterHashes.store(file, 12);
+            Assert.assertTrue(file.isFile());
+
+            // Wrong version
+            final NrsClusterHashes clusterHashesRead = new NrsClusterHashes();
+            Assert.assertFalse(clusterHashesRead.load(file, 13));
+            Assert.assertEquals(0, clusterHashesRead.getValidCount());
+
+            // Same version
+            Assert.assertTrue(clusterHashesRead.load(file, 12));
+            Assert.assertEquals(clusterHashes.getValidCount(), clusterHashesRead.getValidCount());
+            for (int i = 0; i < 2000; i++) {
+                Assert.assertArrayEquals(clusterHashes.get(HashAlgorithm.TIGER, i),
+                        clusterHashesRead.get(HashAlgorithm.TIGER, i));
+            }
+
+            // Truncated file
+            final byte[] contents = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(contents, contents.length - 1));
+            Assert.assertFalse(clusterHashesRead.load(file, 12));
+            Assert.assertEquals(0, clusterHashesRead.getValidCount());
+
+            // No digest: file deleted
+            clusterHashesRead.store(file, 12);
+            Assert.assertFalse(file.exists());
+            Assert.assertFalse(clusterHashesRead.load(file, 12));
+        }
+        finally {
+            io.eguan.utils.Files.deleteRecursive(dir.toPath());
+        }
+    }
+
+    private static final byte[] newDigest(final HashAlgorithm hashAlgorithm, final int seed) {
+        final ByteBuffer cluster = ByteBuffer.allocate(CLUSTER_SIZE);
+        cluster.putInt(0, seed);
+        return ByteBufferDigest.digest(hashAlgorithm, cluster);
+    }
+}
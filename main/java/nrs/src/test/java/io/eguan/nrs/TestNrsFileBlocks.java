@@ -57,7 +57,7 @@ public final class TestNrsFileBlocks extends TestNrsAbstractFiles<ByteBuffer, Nr
     @Override
     final NrsAbstractFile<ByteBuffer, NrsFileBlock> newNrsAbstractFile(final FileMapper fileMapper,
             final NrsFileHeader<NrsFileBlock> header, final NrsMsgPostOffice postOffice) {
-        return new NrsFileBlock(fileMapper, header, postOffice);
+        return new NrsFileBlock(fileMapper, header, postOffice, mappedAccess);
     }
 
     @Override
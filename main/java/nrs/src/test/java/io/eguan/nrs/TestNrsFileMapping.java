@@ -21,6 +21,7 @@ package io.eguan.nrs;
  */
 
 import io.eguan.configuration.MetaConfiguration;
+import io.eguan.hash.ByteBufferDigest;
 import io.eguan.hash.HashAlgorithm;
 import io.eguan.nrs.NrsClusterSizeConfigKey;
 import io.eguan.nrs.NrsFile;
@@ -32,8 +33,12 @@ import io.eguan.proto.nrs.NrsRemote.NrsFileMapping;
 import io.eguan.proto.nrs.NrsRemote.NrsFileMapping.NrsClusterHash;
 import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
 import io.eguan.utils.Strings;
+import io.eguan.utils.UuidT;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.List;
 
 import org.junit.Assert;
@@ -179,6 +184,121 @@ public final class TestNrsFileMapping extends TestNrsFileJanitorAbstract {
         }
     }
 
+    @Test
+    public void testNrsFileMappingIncremental() throws IOException {
+        final MetaConfiguration config = getConfiguration();
+        final NrsFileJanitor janitor = new NrsFileJanitor(config);
+        final File clusterHashDir = new File(NrsStorageConfigKey.getInstance().getTypedValue(config),
+                ClusterHashDirectoryConfigKey.getInstance().getTypedValue(config).getPath());
+
+        janitor.init();
+        try {
+            final NrsFile nrsFile = createTestNrsFile(janitor, config, false, false, false);
+            final UuidT<NrsFile> fileId = nrsFile.getDescriptor().getFileId();
+            final byte[] hash = new byte[HASH_SIZE];
+
+            final List<NrsClusterHash> clusterHashsWritten;
+            NrsFile nrsFileOpened = janitor.openNrsFile(fileId, false);
+            try {
+                for (int i = 0; i < 2000; i += 7) {
+                    nextHash(hash);
+                    nrsFileOpened.write(i, hash);
+                }
+                final List<NrsClusterHash> clusterHashs = getClusterHashs(nrsFileOpened);
+                checkClusterHashs(nrsFileOpened, clusterHashs);
+
+                // Modify a cluster: only one digest changes
+                nextHash(hash);
+                nrsFileOpened.write(1000, hash);
+                clusterHashsWritten = getClusterHashs(nrsFileOpened);
+                checkClusterHashs(nrsFileOpened, clusterHashsWritten);
+                Assert.assertEquals(1, countChanges(clusterHashs, clusterHashsWritten));
+            }
+            finally {
+                janitor.unlockNrsFile(nrsFileOpened);
+            }
+
+            // Digests stored on close
+            janitor.flushNrsFile(nrsFileOpened);
+            Assert.assertEquals(1, countFiles(clusterHashDir));
+
+            // Reload digests and modify the file
+            nrsFileOpened = janitor.openNrsFile(fileId, false);
+            try {
+                Assert.assertEquals(0, countFiles(clusterHashDir));
+                Assert.assertEquals(0, countChanges(clusterHashsWritten, getClusterHashs(nrsFileOpened)));
+
+                nextHash(hash);
+                nrsFileOpened.write(5, hash);
+                nextHash(hash);
+                nrsFileOpened.write(56369, hash);
+                checkClusterHashs(nrsFileOpened, getClusterHashs(nrsFileOpened));
+            }
+            finally {
+                janitor.unlockNrsFile(nrsFileOpened);
+            }
+
+            // Digests deleted with the file
+            janitor.flushNrsFile(nrsFileOpened);
+            Assert.assertEquals(1, countFiles(clusterHashDir));
+            janitor.deleteNrsFile(nrsFile);
+            Assert.assertEquals(0, countFiles(clusterHashDir));
+        }
+        finally {
+            janitor.fini();
+        }
+    }
+
+    private final List<NrsClusterHash> getClusterHashs(final NrsFile nrsFile) throws IOException {
+        final RemoteOperation.Builder builder = nrsFile.getFileMapping(HashAlgorithm.MD5);
+        nrsFile.resetUpdate(); // Reset update state (update not tested here)
+        return builder.getNrsFileMapping().getClustersList();
+    }
+
+    /**
+     * Checks the digests of the mapping against the contents of the file.
+     */
+    private final void checkClusterHashs(final NrsFile nrsFile, final List<NrsClusterHash> clusterHashs)
+            throws IOException {
+        final ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(nrsFile.getFile()));
+        final int clusterSize = nrsFile.getDescriptor().getClusterSize();
+        Assert.assertFalse(clusterHashs.isEmpty());
+        Assert.assertEquals(contents.capacity() / clusterSize, clusterHashs.get(clusterHashs.size() - 1).getIndex() + 1);
+        for (final NrsClusterHash nrsClusterHash : clusterHashs) {
+            contents.limit((int) (nrsClusterHash.getIndex() + 1) * clusterSize);
+            contents.position((int) nrsClusterHash.getIndex() * clusterSize);
+            Assert.assertArrayEquals(ByteBufferDigest.digest(HashAlgorithm.MD5, contents), nrsClusterHash.getHash()
+                    .toByteArray());
+            contents.clear();
+        }
+    }
+
+    private static final int countChanges(final List<NrsClusterHash> clusterHashs1,
+            final List<NrsClusterHash> clusterHashs2) {
+        Assert.assertEquals(clusterHashs1.size(), clusterHashs2.size());
+        int changed = 0;
+        for (int i = 0; i < clusterHashs1.size(); i++) {
+            final NrsClusterHash nrsClusterHash1 = clusterHashs1.get(i);
+            final NrsClusterHash nrsClusterHash2 = clusterHashs2.get(i);
+            Assert.assertEquals(nrsClusterHash1.getIndex(), nrsClusterHash2.getIndex());
+            if (!nrsClusterHash1.getHash().equals(nrsClusterHash2.getHash())) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static final int countFiles(final File dir) {
+        int count = 0;
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                count += file.isDirectory() ? countFiles(file) : 1;
+            }
+        }
+        return count;
+    }
+
     private final void nextHash(final byte[] hash) {
         for (int i = 0; i < HASH_SIZE; i++) {
             hash[i] = (byte) ((i + hash[i] * 31) & 0xFF);
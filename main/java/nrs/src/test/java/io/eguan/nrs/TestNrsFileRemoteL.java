@@ -40,6 +40,7 @@ import io.eguan.proto.Common.ProtocolVersion;
 import io.eguan.proto.Common.Type;
 import io.eguan.proto.Common.Uuid;
 import io.eguan.proto.nrs.NrsRemote.NrsFileMapping;
+import io.eguan.proto.nrs.NrsRemote.NrsFileUpdate.NrsUpdate;
 import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
 import io.eguan.utils.ByteArrays;
 import io.eguan.utils.SimpleIdentifierProvider;
@@ -102,6 +103,8 @@ public class TestNrsFileRemoteL {
         private MsgServerEndpoint serverEndpoint;
         private boolean serverEndpointStarted;
         private final AtomicLong timeLastUpdate = new AtomicLong();
+        /** Count of keys received in broadcast messages */
+        private final AtomicLong keyUpdateCount = new AtomicLong();
 
         NrsInstance(final MsgNode node) throws InitializationError {
             super();
@@ -124,6 +127,10 @@ public class TestNrsFileRemoteL {
             return timeLastUpdate.get();
         }
 
+        final long getKeyUpdateCount() {
+            return keyUpdateCount.get();
+        }
+
         final void setServerEndpoint(final MsgServerEndpoint serverEndpoint) {
             this.serverEndpoint = serverEndpoint;
             this.serverEndpointStarted = true;
@@ -231,6 +238,16 @@ public class TestNrsFileRemoteL {
                     final boolean broadcast = op.getNrsFileUpdate().getBroadcast();
                     if (!broadcast)
                         messageUpdateReceived.set(true);
+                    else {
+                        for (final NrsUpdate nrsUpdate : op.getNrsFileUpdate().getUpdatesList()) {
+                            if (nrsUpdate.hasKeyUpdate()) {
+                                keyUpdateCount.incrementAndGet();
+                            }
+                            if (nrsUpdate.hasKeyRangeUpdate()) {
+                                keyUpdateCount.addAndGet(nrsUpdate.getKeyRangeUpdate().getHeadersCount());
+                            }
+                        }
+                    }
 
                     final NrsFile nrsFile = janitor.openNrsFile(fileUuid, false);
                     try {
@@ -463,6 +480,47 @@ public class TestNrsFileRemoteL {
         compareFiles(false);
     }
 
+    /**
+     * Test live update of a few blocks written many times: only the latest key of each block is sent.
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testNrsFileLiveUpdateHotBlocks() throws IOException, InterruptedException {
+        // Check initial contents
+        compareFiles(false);
+
+        // Rewrite the first blocks of the file
+        final int hotCount = (int) Math.min(16L, blockCount.longValue());
+        final int roundCount = 100;
+        final NrsFile nrsFile = nrsInstance1.openNrsFile(fileUuid, false);
+        try {
+            final Random random = new Random();
+            final byte[] hash = new byte[hashSize];
+            for (int i = 0; i < roundCount; i++) {
+                for (int j = 0; j < hotCount; j++) {
+                    random.nextBytes(hash);
+                    nrsFile.write(j, hash);
+                }
+            }
+        }
+        finally {
+            nrsInstance1.unlockNrsFile(nrsFile);
+        }
+
+        // Restore file: should have nothing to do (and wait for the end of the live update of the files)
+        Assert.assertFalse(restoreFile(nrsInstance1, nrsInstance2, SERVER_2, false));
+        Assert.assertFalse(restoreFile(nrsInstance2, nrsInstance3, SERVER_3, false));
+
+        // Check final contents
+        compareFiles(false);
+
+        // The keys have been coalesced
+        final long keyUpdateCount = nrsInstance2.getKeyUpdateCount();
+        Assert.assertTrue("keyUpdateCount=" + keyUpdateCount, keyUpdateCount < hotCount * roundCount / 10);
+    }
+
     /**
      * Interrupt a server while writing in an NrsFile than repair the file after the end of writes (no write in
      * progress).
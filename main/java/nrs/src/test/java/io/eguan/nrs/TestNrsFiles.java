@@ -48,7 +48,7 @@ public final class TestNrsFiles extends TestNrsAbstractFiles<byte[], NrsFile> {
     @Override
     final NrsAbstractFile<byte[], NrsFile> newNrsAbstractFile(final FileMapper fileMapper,
             final NrsFileHeader<NrsFile> header, final NrsMsgPostOffice postOffice) {
-        return new NrsFile(fileMapper, header, postOffice);
+        return new NrsFile(fileMapper, header, postOffice, mappedAccess);
     }
 
     @Override
@@ -22,9 +22,11 @@ package io.eguan.nrs;
 
 import io.eguan.configuration.ValidConfigurationContext;
 import io.eguan.nrs.BlkCacheDirectoryConfigKey;
+import io.eguan.nrs.ClusterHashDirectoryConfigKey;
 import io.eguan.nrs.ImagesFileDirectoryConfigKey;
 import io.eguan.nrs.NrsClusterSizeConfigKey;
 import io.eguan.nrs.NrsConfigurationContext;
+import io.eguan.nrs.NrsMappedAccessConfigKey;
 import io.eguan.nrs.NrsStorageConfigKey;
 import io.eguan.nrs.RemainingSpaceCreateLimitConfigKey;
 
@@ -55,9 +57,11 @@ public final class TestValidNrsConfigurationContext extends TestAbstractNrsConfi
                 final Properties result = new Properties();
                 result.setProperty(getPropertyKey(NrsStorageConfigKey.getInstance()), tmpNrsBaseDir.getAbsolutePath());
                 result.setProperty(getPropertyKey(BlkCacheDirectoryConfigKey.getInstance()), "bbckcache");
+                result.setProperty(getPropertyKey(ClusterHashDirectoryConfigKey.getInstance()), "cclusterhash");
                 result.setProperty(getPropertyKey(ImagesFileDirectoryConfigKey.getInstance()), "iimages");
                 result.setProperty(getPropertyKey(RemainingSpaceCreateLimitConfigKey.getInstance()), "5");
                 result.setProperty(getPropertyKey(NrsClusterSizeConfigKey.getInstance()), "8192");
+                result.setProperty(getPropertyKey(NrsMappedAccessConfigKey.getInstance()), "false");
                 return result;
             }
 
@@ -21,6 +21,7 @@ package io.eguan.nrs;
  */
 
 import io.eguan.nrs.BlkCacheDirectoryConfigKey;
+import io.eguan.nrs.ClusterHashDirectoryConfigKey;
 import io.eguan.nrs.ImagesFileDirectoryConfigKey;
 import io.eguan.nrs.NrsClusterSizeConfigKey;
 import io.eguan.nrs.NrsConfigurationContext;
@@ -79,6 +80,7 @@ public final class TestValidNrsConfigurationMountedContext extends TestAbstractN
                 final Properties result = new Properties();
                 result.setProperty(getPropertyKey(NrsStorageConfigKey.getInstance()), mountPoint.getAbsolutePath());
                 result.setProperty(getPropertyKey(BlkCacheDirectoryConfigKey.getInstance()), "bbckcache");
+                result.setProperty(getPropertyKey(ClusterHashDirectoryConfigKey.getInstance()), "cclusterhash");
                 result.setProperty(getPropertyKey(ImagesFileDirectoryConfigKey.getInstance()), "iimages");
                 result.setProperty(getPropertyKey(RemainingSpaceCreateLimitConfigKey.getInstance()), "1");
                 result.setProperty(getPropertyKey(NrsClusterSizeConfigKey.getInstance()), "8192");
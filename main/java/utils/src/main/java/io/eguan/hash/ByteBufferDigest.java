@@ -54,8 +54,90 @@ public final class ByteBufferDigest {
      * @return the digest for the data of the buffer
      */
     public static final byte[] digest(final HashAlgorithm algorithm, final ByteBuffer buffer) {
-        final ByteBufferDigestProvider provider = algorithm.getByteBufferDigestProvider(buffer);
-        return provider.getDigest();
+        final byte[] hash = new byte[algorithm.getPersistedDigestLength()];
+        algorithm.digest(buffer, buffer.position(), buffer.remaining(), hash, 0);
+        return hash;
+    }
+
+    /**
+     * Writes the digest of the contents of the given buffer in the given array. Hashes the bytes between the position
+     * and the limit of the {@link ByteBuffer}, without copy. The {@link ByteBuffer} is left unchanged. The hash written
+     * is the same as the one returned by {@link #digest(HashAlgorithm, ByteBuffer)}.
+     * 
+     * @param algorithm
+     *            hash algorithm
+     * @param buffer
+     *            buffer to read
+     * @param hash
+     *            destination of the digest
+     * @param offset
+     *            start position in <code>hash</code>
+     * @return the length of the digest written, {@link HashAlgorithm#getPersistedDigestLength()}
+     * @throws IndexOutOfBoundsException
+     *             if <code>hash</code> is too small
+     */
+    public static final int digest(final HashAlgorithm algorithm, final ByteBuffer buffer, final byte[] hash,
+            final int offset) throws IndexOutOfBoundsException {
+        final int len = algorithm.getPersistedDigestLength();
+        if (offset < 0 || hash.length - offset < len) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + hash.length + ", digest length="
+                    + len);
+        }
+        algorithm.digest(buffer, buffer.position(), buffer.remaining(), hash, offset);
+        return len;
+    }
+
+    /**
+     * Computes the digests of consecutive blocks of the given buffer. The first block starts at the position of the
+     * {@link ByteBuffer}, the number of blocks is the number of elements of <code>hashes</code>. The
+     * {@link ByteBuffer} is left unchanged.
+     * 
+     * @param algorithm
+     *            hash algorithm
+     * @param buffer
+     *            buffer to read
+     * @param blockSize
+     *            size of a block
+     * @param hashes
+     *            destination of the digests, each element of the array must contain at least
+     *            {@link HashAlgorithm#getPersistedDigestLength()} bytes
+     * @throws IllegalArgumentException
+     *             if the buffer does not contain enough blocks
+     * @throws IndexOutOfBoundsException
+     *             if an element of <code>hashes</code> is too small
+     */
+    public static final void digest(final HashAlgorithm algorithm, final ByteBuffer buffer, final int blockSize,
+            final byte[][] hashes) throws IllegalArgumentException, IndexOutOfBoundsException {
+        final int count = hashes.length;
+        if (blockSize <= 0 || (long) blockSize * count > buffer.remaining()) {
+            throw new IllegalArgumentException("blockSize=" + blockSize + ", count=" + count + ", remaining="
+                    + buffer.remaining());
+        }
+        final int len = algorithm.getPersistedDigestLength();
+        for (int i = 0; i < count; i++) {
+            if (hashes[i].length < len) {
+                throw new IndexOutOfBoundsException("index=" + i + ", length=" + hashes[i].length
+                        + ", digest length=" + len);
+            }
+        }
+        int position = buffer.position();
+        for (int i = 0; i < count; i++) {
+            algorithm.digest(buffer, position, blockSize, hashes[i], 0);
+            position += blockSize;
+        }
+    }
+
+    /**
+     * Gets the algorithm of a digest returned by {@link #digest(HashAlgorithm, ByteBuffer)}.
+     * 
+     * @param hash
+     *            the digest to analyze
+     * @return the algorithm used to compute <code>hash</code>
+     * @throws NoSuchAlgorithmException
+     *             if the hash algorithm is not found
+     */
+    public static final HashAlgorithm getAlgorithm(final byte[] hash) throws NoSuchAlgorithmException {
+        return HashAlgorithm.getHashHashAlgorithm(hash);
     }
 
     /**
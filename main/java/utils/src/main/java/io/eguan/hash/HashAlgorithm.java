@@ -46,17 +46,17 @@ public enum HashAlgorithm {
         /*
          * Implementation based on MD5Digest if the native is found.
          * 
-         * @see io.eguan.hash.HashAlgorithm#getByteBufferDigestProvider(java.nio.ByteBuffer)
+         * @see io.eguan.hash.HashAlgorithm#digest(java.nio.ByteBuffer, int, int, byte[], int)
          */
         @Override
-        final ByteBufferDigestProvider getByteBufferDigestProvider(final ByteBuffer byteBuffer) {
+        final void digest(final ByteBuffer byteBuffer, final int position, final int length, final byte[] hash,
+                final int offset) {
             // Prefer native implementation if available
             if (MD5Digest.isNative()) {
-                final ByteBuffer digest = MD5Digest.doFinalNative(byteBuffer);
-                return getByteBufferDigestProvider(this, digest);
+                writeDigest(MD5Digest.doFinalNative(area(byteBuffer, position, length)), hash, offset);
             }
             else {
-                return super.getByteBufferDigestProvider(byteBuffer);
+                super.digest(byteBuffer, position, length, hash, offset);
             }
         }
 
@@ -78,21 +78,32 @@ public enum HashAlgorithm {
      * Function</a>.
      */
     TIGER("Tiger", (byte) 1, 24) {
+        /** Java implementation, one instance per thread */
+        private final ThreadLocal<TigerDigest> tigerDigests = new ThreadLocal<TigerDigest>() {
+            @Override
+            protected final TigerDigest initialValue() {
+                return new TigerDigest();
+            }
+        };
+
         /*
          * Implementation based on TigerDigest.
          * 
-         * @see io.eguan.hash.HashAlgorithm#getByteBufferDigestProvider(java.nio.ByteBuffer)
+         * @see io.eguan.hash.HashAlgorithm#digest(java.nio.ByteBuffer, int, int, byte[], int)
          */
         @Override
-        final ByteBufferDigestProvider getByteBufferDigestProvider(final ByteBuffer byteBuffer) {
+        final void digest(final ByteBuffer byteBuffer, final int position, final int length, final byte[] hash,
+                final int offset) {
             // Prefer native implementation if available
             if (TigerDigest.isNative()) {
-                final ByteBuffer digest = TigerDigest.doFinalNative(byteBuffer);
-                return getByteBufferDigestProvider(this, digest);
+                writeDigest(TigerDigest.doFinalNative(area(byteBuffer, position, length)), hash, offset);
             }
             else {
-                final TigerDigest digest = new TigerDigest(byteBuffer);
-                return getByteBufferDigestProvider(this, digest);
+                final TigerDigest digest = tigerDigests.get();
+                digest.digest(byteBuffer, position, length);
+                final int digestOffset = writeHeader(hash, offset);
+                final int len = digest.unpackDigest(hash, digestOffset);
+                writeTrailer(hash, offset, digestOffset + len);
             }
         }
 
@@ -116,17 +127,17 @@ public enum HashAlgorithm {
         /*
          * Implementation based on SHA1Digest if the native is found.
          * 
-         * @see io.eguan.hash.HashAlgorithm#getByteBufferDigestProvider(java.nio.ByteBuffer)
+         * @see io.eguan.hash.HashAlgorithm#digest(java.nio.ByteBuffer, int, int, byte[], int)
          */
         @Override
-        final ByteBufferDigestProvider getByteBufferDigestProvider(final ByteBuffer byteBuffer) {
+        final void digest(final ByteBuffer byteBuffer, final int position, final int length, final byte[] hash,
+                final int offset) {
             // Prefer native implementation if available
             if (SHA1Digest.isNative()) {
-                final ByteBuffer digest = SHA1Digest.doFinalNative(byteBuffer);
-                return getByteBufferDigestProvider(this, digest);
+                writeDigest(SHA1Digest.doFinalNative(area(byteBuffer, position, length)), hash, offset);
             }
             else {
-                return super.getByteBufferDigestProvider(byteBuffer);
+                super.digest(byteBuffer, position, length, hash, offset);
             }
         }
 
@@ -173,6 +184,18 @@ public enum HashAlgorithm {
         this.standardName = standardName;
         this.index = index;
         this.digestLen = digestLen;
+        this.messageDigests = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected final MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(standardName);
+                }
+                catch (final NoSuchAlgorithmException e) {
+                    // Algorithms should be supported by the JVM
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
     }
 
     /** Standard name, needed to get an implementation */
@@ -181,6 +204,8 @@ public enum HashAlgorithm {
     private final byte index;
     /** digest length in bytes */
     private final int digestLen;
+    /** Default implementation, one instance per thread */
+    private final ThreadLocal<MessageDigest> messageDigests;
 
     /**
      * Gets the Java standard name of the algorithm.
@@ -275,63 +300,74 @@ public enum HashAlgorithm {
 
     /**
      * Hash the byte between the position and the limit of the {@link ByteBuffer}. The {@link ByteBuffer} is left
-     * unchanged. Default implementation based on a {@link MessageDigest}.
+     * unchanged.
      * 
      * @param byteBuffer
      *            buffer to hash
      * @return digest provider
      */
-    ByteBufferDigestProvider getByteBufferDigestProvider(final ByteBuffer byteBuffer) {
-        final MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance(getStandardName());
+    final ByteBufferDigestProvider getByteBufferDigestProvider(final ByteBuffer byteBuffer) {
+        final byte[] hash = new byte[getPersistedDigestLength()];
+        digest(byteBuffer, byteBuffer.position(), byteBuffer.remaining(), hash, 0);
+        return new ByteBufferDigestProviderImpl(this, hash);
+    }
+
+    ByteBufferDigestProvider getByteStringDigestProvider(final ByteString byteString) {
+        return getByteBufferDigestProvider(byteString.asReadOnlyByteBuffer());
+    }
+
+    /**
+     * Hash an area of a {@link ByteBuffer} and write the persistent digest (header, digest and trailer) in the given
+     * array. The contents of the buffer are not copied and the {@link ByteBuffer} is left unchanged. Default
+     * implementation based on a {@link MessageDigest}, reused by the current thread.
+     * 
+     * @param byteBuffer
+     *            buffer to hash
+     * @param position
+     *            start of the area to hash
+     * @param length
+     *            length of the area to hash
+     * @param hash
+     *            destination of the persistent digest, must contain {@link #getPersistedDigestLength()} bytes from
+     *            <code>offset</code>
+     * @param offset
+     *            start position in <code>hash</code>
+     */
+    void digest(final ByteBuffer byteBuffer, final int position, final int length, final byte[] hash,
+            final int offset) {
+        final MessageDigest digest = messageDigests.get();
+        digest.reset();
+        if (byteBuffer.hasArray()) {
+            digest.update(byteBuffer.array(), byteBuffer.arrayOffset() + position, length);
         }
-        catch (final NoSuchAlgorithmException e) {
-            // Algorithms should be supported by the JVM
-            throw new IllegalStateException(e);
+        else {
+            // Direct or read-only buffer: read by chunks by the digest
+            digest.update(area(byteBuffer, position, length));
         }
 
-        // Hash the whole ByteBuffer
-        final ByteBuffer duplicate = byteBuffer.duplicate();
-        final byte[] src = new byte[duplicate.limit() - duplicate.position()];
-        duplicate.get(src);
-        assert duplicate.position() == duplicate.limit();
-        digest.update(src);
-
-        // Allocate result: header <digest> trailer
-        final byte[] hash = new byte[1 + digestLen + 1];
-        final int offset = writeHeader(hash);
+        final int digestOffset = writeHeader(hash, offset);
         try {
-            digest.digest(hash, offset, digestLen);
+            digest.digest(hash, digestOffset, digestLen);
         }
         catch (final DigestException e) {
             // Should not occur
             throw new IllegalStateException(e);
         }
-        // Write trailer
-        writeTrailer(hash, offset + digestLen);
-
-        return new ByteBufferDigestProviderImpl(this, hash);
+        writeTrailer(hash, offset, digestOffset + digestLen);
     }
 
-    ByteBufferDigestProvider getByteStringDigestProvider(final ByteString byteString) {
-        return getByteBufferDigestProvider(byteString.asReadOnlyByteBuffer());
-    }
-
-    static final ByteBufferDigestProvider getByteBufferDigestProvider(final HashAlgorithm hashAlgorithm,
-            final Digest digest) {
-        // Allocate result: header <digest> trailer
-        final int len = digest.getDigestSize();
-        final byte[] hash = new byte[1 + len + 1];
-
-        // Write header
-        final int offset = hashAlgorithm.writeHeader(hash);
-        // Write digest
-        digest.doFinal(hash, offset);
-        // Write trailer
-        hashAlgorithm.writeTrailer(hash, offset + len);
-
-        return new ByteBufferDigestProviderImpl(hashAlgorithm, hash);
+    /**
+     * Gets a view on an area of a buffer.
+     * 
+     * @param byteBuffer
+     * @param position
+     * @param length
+     * @return a new buffer, which remaining bytes are the given area
+     */
+    static final ByteBuffer area(final ByteBuffer byteBuffer, final int position, final int length) {
+        final ByteBuffer result = byteBuffer.duplicate();
+        result.limit(position + length).position(position);
+        return result;
     }
 
     /**
@@ -344,19 +380,32 @@ public enum HashAlgorithm {
      */
     static final ByteBufferDigestProvider getByteBufferDigestProvider(final HashAlgorithm hashAlgorithm,
             final ByteBuffer digest) {
+        // Allocate result: header <digest> trailer
+        final byte[] hash = new byte[1 + digest.capacity() + 1];
+        hashAlgorithm.writeDigest(digest, hash, 0);
+        return new ByteBufferDigestProviderImpl(hashAlgorithm, hash);
+    }
+
+    /**
+     * Write the persistent digest for the given digest buffer. Release the given buffer.
+     * 
+     * @param digest
+     *            Computed digest. The {@link ByteBuffer} is released.
+     * @param hash
+     *            resulting hash
+     * @param offset
+     *            start position in <code>hash</code>
+     */
+    final void writeDigest(final ByteBuffer digest, final byte[] hash, final int offset) {
         try {
-            // Allocate result: header <digest> trailer
             final int len = digest.capacity();
-            final byte[] hash = new byte[1 + len + 1];
 
             // Write header
-            final int offset = hashAlgorithm.writeHeader(hash);
+            final int digestOffset = writeHeader(hash, offset);
             // Write digest
-            ByteArrays.fillArray(digest, hash, offset);
+            ByteArrays.fillArray(digest, hash, digestOffset);
             // Write trailer
-            hashAlgorithm.writeTrailer(hash, offset + len);
-
-            return new ByteBufferDigestProviderImpl(hashAlgorithm, hash);
+            writeTrailer(hash, offset, digestOffset + len);
         }
         finally {
             HashByteBufferCache.release(digest);
@@ -368,11 +417,13 @@ public enum HashAlgorithm {
      * 
      * @param hash
      *            resulting hash
+     * @param offset
+     *            start position of the persistent digest in hash
      * @return index to write the position of the digest in hash.
      */
-    final int writeHeader(final byte[] hash) {
-        hash[0] = (byte) (VERSION1 | index);
-        return 1;
+    final int writeHeader(final byte[] hash, final int offset) {
+        hash[offset] = (byte) (VERSION1 | index);
+        return offset + 1;
     }
 
     /**
@@ -380,12 +431,14 @@ public enum HashAlgorithm {
      * 
      * @param hash
      *            resulting hash
+     * @param start
+     *            start position of the persistent digest in hash
      * @param offset
      *            position to write the trailer to
      */
-    final void writeTrailer(final byte[] hash, final int offset) {
-        byte trailer = hash[0];
-        for (int i = 1; i < offset; i++) {
+    final void writeTrailer(final byte[] hash, final int start, final int offset) {
+        byte trailer = hash[start];
+        for (int i = start + 1; i < offset; i++) {
             trailer ^= hash[i];
         }
         hash[offset] = trailer;
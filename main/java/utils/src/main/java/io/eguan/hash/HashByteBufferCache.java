@@ -23,6 +23,7 @@ package io.eguan.hash;
 import io.eguan.utils.ByteBufferCache;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Cache of {@link ByteBuffer}s for the implementations of hash algorithms.
@@ -34,7 +35,11 @@ import java.nio.ByteBuffer;
 final class HashByteBufferCache {
 
     // Allocate only direct buffers
-    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache(0);
+    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache("hash", 0, ByteOrder.nativeOrder());
+
+    static {
+        BYTE_BUFFER_CACHE.registerPlatformMXBean();
+    }
 
     /**
      * No instance.
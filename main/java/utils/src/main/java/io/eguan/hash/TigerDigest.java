@@ -37,7 +37,8 @@ import com.google.protobuf.ByteString;
 /**
  * Implementation of Tiger based on: <a href="http://www.cs.technion.ac.il/~biham/Reports/Tiger">
  * http://www.cs.technion.ac.il/~biham/Reports/Tiger</a>.<br>
- * Hacked to work with ByteBuffer. Modified to have to create a new object every time you need to compute a hash value.
+ * Hacked to work with ByteBuffer. Modified to have to create a new object every time you need to compute a hash value,
+ * unless the instance is reused internally through {@link #digest(ByteBuffer, int, int)}.
  * 
  * <pre>
  * TigerDigest d = new TigerDigest(myBuffer);
@@ -496,14 +497,15 @@ public final class TigerDigest implements Digest {
      */
     public TigerDigest(@Nonnull final ByteBuffer source) {
         super();
-
-        // Reset the chaining variables
-        a = 0x0123456789ABCDEFL;
-        b = 0xFEDCBA9876543210L;
-        c = 0xF096A5B4C3B2E187L;
-
         this.source = source.duplicate();
-        this.source.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Create a reusable instance, to compute the hash of some buffers with {@link #digest(ByteBuffer, int, int)}.
+     */
+    TigerDigest() {
+        super();
+        this.source = null;
     }
 
     public final String getAlgorithmName() {
@@ -683,28 +685,67 @@ public final class TigerDigest implements Digest {
             return DIGEST_LENGTH;
         }
 
-        // Process source long by long
-        assert xOff == 0;
-        while (source.remaining() >= 8) {
-            x[xOff++] = source.getLong();
+        digest(source, source.position(), source.remaining());
+        return unpackDigest(out, outOff);
+    }
+
+    /**
+     * Computes the hash of an area of a buffer, without native implementation. The buffer is read with absolute gets
+     * and is left unchanged. The instance may be reused once the hash have been written by
+     * {@link #unpackDigest(byte[], int)}.
+     * 
+     * @param src
+     *            buffer to hash
+     * @param position
+     *            start of the area to hash
+     * @param length
+     *            length of the area to hash
+     */
+    final void digest(final ByteBuffer src, final int position, final int length) {
+        // Reset the chaining variables
+        a = 0x0123456789ABCDEFL;
+        b = 0xFEDCBA9876543210L;
+        c = 0xF096A5B4C3B2E187L;
+        byteCount = 0;
+        bOff = 0;
+        xOff = 0;
+
+        // Process source long by long, in little endian
+        final boolean swap = src.order() != ByteOrder.LITTLE_ENDIAN;
+        final int limit = position + length;
+        int index = position;
+        while (limit - index >= 8) {
+            final long word = src.getLong(index);
+            x[xOff++] = swap ? Long.reverseBytes(word) : word;
             byteCount += 8;
+            index += 8;
             if (xOff == BUFFER_LENGTH) {
                 processBlock();
             }
         }
         // Remaining, if any
-        while (source.remaining() != 0) {
+        while (index < limit) {
             // Add remaining bytes
-            update(source.get());
+            update(src.get(index++));
         }
 
         // Source loaded
         finish();
+    }
 
+    /**
+     * Writes the hash computed by {@link #digest(ByteBuffer, int, int)}.
+     * 
+     * @param out
+     *            array to fill
+     * @param outOff
+     *            start position in <code>out</code>
+     * @return the number of bytes written in <code>out</code>
+     */
+    final int unpackDigest(final byte[] out, final int outOff) {
         unpackWord(a, out, outOff);
         unpackWord(b, out, outOff + 8);
         unpackWord(c, out, outOff + 16);
-
         return DIGEST_LENGTH;
     }
 
@@ -0,0 +1,316 @@
+package io.eguan.utils;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Compression of the blocks sent to the peers. The blocks are compressed with the fastest level of deflate, without
+ * header nor checksum: the receiver knows the size of the block and the integrity of the block is checked by its key or
+ * by the messaging layer.
+ * <p>
+ * A block is sent compressed only if the compression saves at least 1/{@value #MIN_SAVING} of its size. After
+ * {@value #INCOMPRESSIBLE_RUN} incompressible blocks in a row, the following blocks are sent as is without trying to
+ * compress them. The number of skipped blocks doubles after each new incompressible block, up to
+ * {@value #MAX_SKIPPED}, and is reset by the first block that compresses well.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+@ThreadSafe
+public final class BlockCompressor implements BlockCompressorMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockCompressor.class);
+
+    /** A compressed block must be smaller than size - size/MIN_SAVING */
+    private static final int MIN_SAVING = 8;
+    /** Incompressible blocks in a row before skipping the compression */
+    private static final int INCOMPRESSIBLE_RUN = 8;
+    /** Maximum number of blocks sent without trying to compress them */
+    private static final int MAX_SKIPPED = 1024;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        @Override
+        protected final Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected final Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    /** Input and output arrays of the compression */
+    private static final ThreadLocal<byte[][]> BUFFERS = new ThreadLocal<byte[][]>() {
+        @Override
+        protected final byte[][] initialValue() {
+            return new byte[][] { new byte[0], new byte[0] };
+        }
+    };
+
+    private final String name;
+
+    private final AtomicInteger incompressibleRun = new AtomicInteger();
+    private final AtomicInteger skipRemaining = new AtomicInteger();
+
+    private final AtomicLong blocksCompressed = new AtomicLong();
+    private final AtomicLong blocksIncompressible = new AtomicLong();
+    private final AtomicLong blocksSkipped = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong compressionTime = new AtomicLong();
+    private final AtomicLong blocksDecompressed = new AtomicLong();
+    private final AtomicLong decompressionTime = new AtomicLong();
+
+    /**
+     * Create a new named compressor.
+     * 
+     * @param name
+     *            name of the compressor, identifies its MXBean.
+     */
+    public BlockCompressor(@Nonnull final String name) {
+        super();
+        this.name = Objects.requireNonNull(name);
+    }
+
+    /**
+     * Compress the remaining bytes of a block. The position of the block is not changed.
+     * 
+     * @param block
+     *            the block to compress
+     * @return the compressed contents of the block or <code>null</code> if the block should be sent as is
+     */
+    public final ByteString compress(@Nonnull final ByteBuffer block) {
+        final int length = block.remaining();
+        if (length < MIN_SAVING) {
+            return null;
+        }
+        if (skipRemaining.get() > 0 && skipRemaining.getAndDecrement() > 0) {
+            blocksSkipped.incrementAndGet();
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        final byte[][] buffers = BUFFERS.get();
+        final byte[] input;
+        final int inputOffset;
+        if (block.hasArray()) {
+            input = block.array();
+            inputOffset = block.arrayOffset() + block.position();
+        }
+        else {
+            if (buffers[0].length < length) {
+                buffers[0] = new byte[length];
+            }
+            input = buffers[0];
+            inputOffset = 0;
+            block.duplicate().get(input, 0, length);
+        }
+        final int maxLength = length - length / MIN_SAVING;
+        if (buffers[1].length < maxLength) {
+            buffers[1] = new byte[maxLength];
+        }
+        final byte[] output = buffers[1];
+
+        final Deflater deflater = DEFLATERS.get();
+        final int compressedLength;
+        final boolean compressed;
+        try {
+            deflater.setInput(input, inputOffset, length);
+            deflater.finish();
+            compressedLength = deflater.deflate(output, 0, maxLength);
+            // The compressed contents must fit in the output array
+            compressed = deflater.finished() && compressedLength < maxLength;
+        }
+        finally {
+            deflater.reset();
+        }
+        final ByteString result = compressed ? ByteString.copyFrom(output, 0, compressedLength) : null;
+        compressionTime.addAndGet(System.nanoTime() - start);
+
+        if (compressed) {
+            blocksCompressed.incrementAndGet();
+            bytesIn.addAndGet(length);
+            bytesOut.addAndGet(compressedLength);
+            incompressibleRun.set(0);
+            skipRemaining.set(0);
+        }
+        else {
+            blocksIncompressible.incrementAndGet();
+            final int run = incompressibleRun.incrementAndGet() - INCOMPRESSIBLE_RUN;
+            if (run >= 0) {
+                skipRemaining.set(MAX_SKIPPED >> Math.max(0, 10 - run));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decompress the contents of a block.
+     * 
+     * @param contents
+     *            compressed contents, as returned by {@link #compress(ByteBuffer)}
+     * @param length
+     *            length of the block
+     * @return a new buffer containing the block
+     * @throws IllegalArgumentException
+     *             if the contents are not a compressed block of the given length
+     */
+    public final ByteBuffer decompress(@Nonnull final ByteString contents, final int length)
+            throws IllegalArgumentException {
+        final long start = System.nanoTime();
+        final byte[] block = new byte[length];
+        final Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(contents.toByteArray());
+            final int inflated = inflater.inflate(block);
+            if (inflated != length || !inflater.finished()) {
+                throw new IllegalArgumentException("Invalid compressed block, length=" + length + ", inflated="
+                        + inflated);
+            }
+        }
+        catch (final DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed block", e);
+        }
+        finally {
+            inflater.reset();
+        }
+        decompressionTime.addAndGet(System.nanoTime() - start);
+        blocksDecompressed.incrementAndGet();
+        return ByteBuffer.wrap(block);
+    }
+
+    @Override
+    public final String getName() {
+        return name;
+    }
+
+    @Override
+    public final long getBlocksCompressed() {
+        return blocksCompressed.get();
+    }
+
+    @Override
+    public final long getBlocksIncompressible() {
+        return blocksIncompressible.get();
+    }
+
+    @Override
+    public final long getBlocksSkipped() {
+        return blocksSkipped.get();
+    }
+
+    @Override
+    public final long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public final long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public final double getCompressionRatio() {
+        final long in = bytesIn.get();
+        return in == 0 ? 1.0 : (double) bytesOut.get() / in;
+    }
+
+    @Override
+    public final long getCompressionTime() {
+        return compressionTime.get();
+    }
+
+    @Override
+    public final long getBlocksDecompressed() {
+        return blocksDecompressed.get();
+    }
+
+    @Override
+    public final long getDecompressionTime() {
+        return decompressionTime.get();
+    }
+
+    /**
+     * Register the MXBean of the compressor.
+     * 
+     * @param mbeanServer
+     *            MBean server
+     * @return the name of the registered MXBean
+     * @throws InstanceAlreadyExistsException
+     * @throws MBeanRegistrationException
+     * @throws NotCompliantMBeanException
+     * @throws MalformedObjectNameException
+     */
+    public final ObjectName registerMXBean(final MBeanServer mbeanServer) throws InstanceAlreadyExistsException,
+            MBeanRegistrationException, NotCompliantMBeanException, MalformedObjectNameException {
+        final ObjectName compressorObjName = new ObjectName(this.getClass().getPackage().getName()
+                + ":type=BlockCompressor,name=" + name);
+        mbeanServer.registerMBean(this, compressorObjName);
+        return compressorObjName;
+    }
+
+    /**
+     * Register the MXBean of the compressor in the platform MBean server. Failures are logged.
+     * 
+     * @return the name of the registered MXBean or <code>null</code> on failure
+     */
+    public final ObjectName registerPlatformMXBean() {
+        try {
+            return registerMXBean(ManagementFactory.getPlatformMBeanServer());
+        }
+        catch (final JMException e) {
+            LOGGER.warn("Failed to register block compressor '" + name + "'", e);
+            return null;
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return "BlockCompressor[name=" + name + ", compressed=" + getBlocksCompressed() + ", incompressible="
+                + getBlocksIncompressible() + ", skipped=" + getBlocksSkipped() + ", ratio=" + getCompressionRatio()
+                + "]";
+    }
+}
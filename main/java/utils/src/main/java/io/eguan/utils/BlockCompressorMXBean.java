@@ -0,0 +1,101 @@
+package io.eguan.utils;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * MXBean of a {@link BlockCompressor}: blocks compressed or sent as is, ratio achieved and time spent.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public interface BlockCompressorMXBean {
+
+    /**
+     * Gets the name of the compressor.
+     * 
+     * @return the name given to the compressor on creation.
+     */
+    String getName();
+
+    /**
+     * Gets the number of blocks compressed.
+     * 
+     * @return the number of blocks replaced by their compressed contents.
+     */
+    long getBlocksCompressed();
+
+    /**
+     * Gets the number of blocks that did not compress enough to be replaced by their compressed contents.
+     * 
+     * @return the number of incompressible blocks.
+     */
+    long getBlocksIncompressible();
+
+    /**
+     * Gets the number of blocks sent as is without trying to compress them, after a series of incompressible blocks.
+     * 
+     * @return the number of blocks skipped.
+     */
+    long getBlocksSkipped();
+
+    /**
+     * Gets the size of the blocks compressed.
+     * 
+     * @return the size of the compressed blocks before compression, in bytes.
+     */
+    long getBytesIn();
+
+    /**
+     * Gets the size of the compressed contents of the blocks.
+     * 
+     * @return the size of the compressed blocks after compression, in bytes.
+     */
+    long getBytesOut();
+
+    /**
+     * Gets the ratio between the size of the compressed blocks after and before compression.
+     * 
+     * @return the compression ratio of the compressed blocks, 1.0 if no block was compressed.
+     */
+    double getCompressionRatio();
+
+    /**
+     * Gets the time spent compressing blocks, including the incompressible ones.
+     * 
+     * @return the compression time, in nanoseconds.
+     */
+    long getCompressionTime();
+
+    /**
+     * Gets the number of blocks decompressed.
+     * 
+     * @return the number of blocks received compressed.
+     */
+    long getBlocksDecompressed();
+
+    /**
+     * Gets the time spent decompressing blocks.
+     * 
+     * @return the decompression time, in nanoseconds.
+     */
+    long getDecompressionTime();
+}
@@ -20,80 +20,98 @@ package io.eguan.utils;
  * #L%
  */
 
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.annotation.Nonnull;
 import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.carrotsearch.hppc.IntObjectOpenHashMap;
 import com.carrotsearch.hppc.KTypeArrayDeque;
 import com.carrotsearch.hppc.predicates.KTypePredicate;
+import com.google.common.collect.MapMaker;
 
 /**
  * Handles allocation and reuse of {@link ByteBuffer}. Allocates direct or non-direct {@link ByteBuffer}s depending on
  * the size of the buffer.
+ * <p>
+ * The buffers are grouped by size classes, powers of two. A buffer is allocated with the size of its class and a slice
+ * of the requested capacity is returned when needed: the capacity of the returned buffer is always the requested one.
+ * Every thread keeps a few small buffers of each class to avoid the contention on the shared stacks. The memory held
+ * by the shared stacks is bounded: a buffer released while the cache is full is dropped. The buffers larger than the
+ * largest size class are not reused.
  * 
  * @author oodrive
  * @author ebredzinski
  * @author llambert
  * 
  */
-public final class ByteBufferCache {
+@ThreadSafe
+public final class ByteBufferCache implements ByteBufferCacheMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ByteBufferCache.class);
+
+    /** Size of the smallest class: 16 bytes */
+    private static final int MIN_CLASS_SHIFT = 4;
+    /** Default capacity of the largest reused buffer */
+    public static final int DEFAULT_MAX_CAPACITY = 8 * 1024 * 1024;
+    /** Default maximum size of the buffers held by a cache */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
 
-    // private static final Logger LOGGER = LoggerFactory.getLogger(ByteBufferCache.class);
+    /** Number of buffers of a class kept by a thread */
+    private static final int MAGAZINE_SIZE = 4;
+    /** Largest buffer kept by a thread */
+    private static final int MAGAZINE_MAX_CAPACITY = 64 * 1024;
+
+    /** Name of the caches created without name */
+    private static final String DEFAULT_NAME = "default";
 
     /**
-     * Associate a queue of {@link ByteBuffer} and an exclusive lock.
+     * Associate a stack of {@link ByteBuffer} of the same size class and an exclusive lock.
      * 
      * 
      */
     private static final class ByteBufferStack {
-        private final int capacity;
+        @GuardedBy(value = "lock")
         private final KTypeArrayDeque<ByteBuffer> stack;
         private final Lock lock;
-        private final int directBufferMinCapacity;
-        private final ByteOrder byteOrder;
 
-        /**
-         * New instance.
-         * 
-         * @param capacity
-         *            capacity of the {@link ByteBuffer}s.
-         */
-        ByteBufferStack(final int capacity, final int directBufferMinCapacity, final ByteOrder byteOrder) {
+        ByteBufferStack() {
             super();
-            this.capacity = capacity;
             this.stack = new KTypeArrayDeque<>();
             this.lock = new ReentrantLock();
-            this.directBufferMinCapacity = directBufferMinCapacity;
-            this.byteOrder = byteOrder;
         }
 
         /**
-         * Gets an old buffer or create a new one.
+         * Gets the last buffer released.
          * 
-         * @return a usage {@link ByteBuffer}
+         * @return a {@link ByteBuffer} or <code>null</code> if the stack is empty
          */
         final ByteBuffer pop() {
             lock.lock();
             try {
-                if (!stack.isEmpty()) {
-                    // LOGGER.warn("Reuse    capacity=" + capacity);
-                    final ByteBuffer result = (ByteBuffer) stack.removeFirst().clear();
-                    return result;
-                }
+                return stack.isEmpty() ? null : stack.removeLast();
             }
             finally {
                 lock.unlock();
             }
-            // LOGGER.warn("Allocate capacity=" + capacity);
-            return (capacity >= directBufferMinCapacity ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
-                    .allocate(capacity)).order(byteOrder);
         }
 
         final void push(final ByteBuffer buffer) {
@@ -132,16 +150,81 @@ public final class ByteBufferCache {
         }
     }
 
+    /**
+     * Buffers kept by a thread: a few buffers of each of the smallest size classes, direct or not. Accessed only by
+     * its thread.
+     * 
+     */
+    private static final class Magazine {
+        private final ByteBuffer[][] buffers;
+        private final int[] counts;
+
+        Magazine(final int stackCount) {
+            super();
+            this.buffers = new ByteBuffer[stackCount][MAGAZINE_SIZE];
+            this.counts = new int[stackCount];
+        }
+
+        final ByteBuffer pop(final int index) {
+            final int count = counts[index];
+            if (count == 0) {
+                return null;
+            }
+            final ByteBuffer result = buffers[index][count - 1];
+            buffers[index][count - 1] = null;
+            counts[index] = count - 1;
+            return result;
+        }
+
+        final boolean push(final int index, final ByteBuffer buffer) {
+            final int count = counts[index];
+            if (count == MAGAZINE_SIZE) {
+                return false;
+            }
+            assert !containsObject(index, buffer);
+            buffers[index][count] = buffer;
+            counts[index] = count + 1;
+            return true;
+        }
+
+        private final boolean containsObject(final int index, final ByteBuffer buffer) {
+            for (int i = counts[index] - 1; i >= 0; i--) {
+                if (buffers[index][i] == buffer) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Singleton for an empty ByteBuffer */
+    private static final ByteBuffer ZERO = ByteBuffer.allocate(0);
+
+    private final String name;
     // Allocate byte arrays for small buffers
     private final int directBufferMinCapacity;
     private final ByteOrder byteOrder;
+    private final int maxCapacity;
+    private final long maxBytes;
 
-    private final ReadWriteLock buffersLock = new ReentrantReadWriteLock();
-    @GuardedBy(value = "buffersLock")
-    private final IntObjectOpenHashMap<ByteBufferStack> buffers = new IntObjectOpenHashMap<>();
+    /** Shared stacks, by size class */
+    private final ByteBufferStack[] heapStacks;
+    private final ByteBufferStack[] directStacks;
+    /** Number of classes kept in the magazines of the threads, for each kind of buffer */
+    private final int magazineClasses;
+    private final ThreadLocal<Magazine> magazines;
 
-    /** Singleton for an empty ByteBuffer */
-    private static final ByteBuffer ZERO = ByteBuffer.allocate(0);
+    /**
+     * Memory of the slices given by the cache. Keys are compared by identity and are weak: the slices that are not
+     * released do not stay in the map.
+     */
+    private final ConcurrentMap<ByteBuffer, ByteBuffer> slices = new MapMaker().weakKeys().makeMap();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final AtomicLong bytesHighWaterMark = new AtomicLong();
 
     /**
      * Create a new {@link ByteBuffer} cache. The smallest buffers are not direct.
@@ -162,9 +245,87 @@ public final class ByteBufferCache {
      *            order of the created {@link ByteBuffer}.
      */
     public ByteBufferCache(final int directBufferMinCapacity, final ByteOrder byteOrder) {
+        this(DEFAULT_NAME, directBufferMinCapacity, byteOrder);
+    }
+
+    /**
+     * Create a new named {@link ByteBuffer} cache, with the default limits. The smallest buffers are not direct.
+     * 
+     * @param name
+     *            name of the cache, identifies its MXBean.
+     * @param directBufferMinCapacity
+     *            minimal capacity of a direct buffer. Set 0 to allocate only direct buffers.
+     * @param byteOrder
+     *            order of the created {@link ByteBuffer}.
+     */
+    public ByteBufferCache(@Nonnull final String name, final int directBufferMinCapacity,
+            @Nonnull final ByteOrder byteOrder) {
+        this(name, directBufferMinCapacity, byteOrder, DEFAULT_MAX_CAPACITY, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a new named {@link ByteBuffer} cache. The smallest buffers are not direct.
+     * 
+     * @param name
+     *            name of the cache, identifies its MXBean.
+     * @param directBufferMinCapacity
+     *            minimal capacity of a direct buffer. Set 0 to allocate only direct buffers.
+     * @param byteOrder
+     *            order of the created {@link ByteBuffer}.
+     * @param maxCapacity
+     *            capacity of the largest reused buffer. Rounded up to a power of two.
+     * @param maxBytes
+     *            maximum size of the buffers held by the shared stacks of the cache.
+     */
+    public ByteBufferCache(@Nonnull final String name, final int directBufferMinCapacity,
+            @Nonnull final ByteOrder byteOrder, final int maxCapacity, final long maxBytes) {
         super();
+        this.name = Objects.requireNonNull(name);
+        this.byteOrder = Objects.requireNonNull(byteOrder);
+        if (maxCapacity <= 0 || maxCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("maxCapacity=" + maxCapacity);
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes=" + maxBytes);
+        }
         this.directBufferMinCapacity = directBufferMinCapacity;
-        this.byteOrder = byteOrder;
+        this.maxBytes = maxBytes;
+
+        final int classCount = classIndex(maxCapacity) + 1;
+        this.maxCapacity = classSize(classCount - 1);
+        this.heapStacks = newStacks(classCount);
+        this.directStacks = newStacks(classCount);
+        this.magazineClasses = Math.min(classCount, classIndex(MAGAZINE_MAX_CAPACITY) + 1);
+        this.magazines = new ThreadLocal<Magazine>() {
+            @Override
+            protected final Magazine initialValue() {
+                return new Magazine(2 * magazineClasses);
+            }
+        };
+    }
+
+    private static final ByteBufferStack[] newStacks(final int count) {
+        final ByteBufferStack[] result = new ByteBufferStack[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new ByteBufferStack();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the size class of a capacity.
+     * 
+     * @param capacity
+     *            positive capacity
+     * @return the index of the class
+     */
+    private static final int classIndex(final int capacity) {
+        final int shift = Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1);
+        return Math.max(shift, MIN_CLASS_SHIFT) - MIN_CLASS_SHIFT;
+    }
+
+    private static final int classSize(final int classIndex) {
+        return 1 << (classIndex + MIN_CLASS_SHIFT);
     }
 
     /**
@@ -177,33 +338,42 @@ public final class ByteBufferCache {
         if (capacity == 0) {
             return ZERO;
         }
+        final boolean direct = capacity >= directBufferMinCapacity;
 
-        // Look for the associated stack
-        ByteBufferStack stack;
-        buffersLock.readLock().lock();
-        try {
-            stack = buffers.get(capacity);
-        }
-        finally {
-            buffersLock.readLock().unlock();
+        // Large buffer: not cached
+        if (capacity > maxCapacity) {
+            misses.incrementAndGet();
+            return newBuffer(capacity, direct).order(byteOrder);
         }
 
-        if (stack == null) {
-            // Need to allocate a new stack
-            buffersLock.writeLock().lock();
-            try {
-                stack = buffers.get(capacity);
-                if (stack == null) {
-                    stack = new ByteBufferStack(capacity, directBufferMinCapacity, byteOrder);
-                    buffers.put(capacity, stack);
-                }
-            }
-            finally {
-                buffersLock.writeLock().unlock();
+        final int classIndex = classIndex(capacity);
+        final int classSize = classSize(classIndex);
+
+        // Look in the buffers of the thread first
+        ByteBuffer result = null;
+        if (classIndex < magazineClasses) {
+            result = magazines.get().pop(magazineIndex(classIndex, direct));
+        }
+        if (result == null) {
+            result = (direct ? directStacks : heapStacks)[classIndex].pop();
+            if (result != null) {
+                bytesHeld.addAndGet(-classSize);
             }
         }
 
-        return stack.pop();
+        if (result == null) {
+            misses.incrementAndGet();
+            result = newBuffer(classSize, direct);
+        }
+        else {
+            hits.incrementAndGet();
+        }
+
+        if (result.capacity() != capacity) {
+            result = resize(result, capacity, classSize);
+        }
+        result.clear();
+        return result.order(byteOrder);
     }
 
     /**
@@ -213,22 +383,158 @@ public final class ByteBufferCache {
      *            buffer to release
      */
     public final void release(final ByteBuffer buffer) {
-        if (buffer != null && buffer != ZERO) {
-            final int capacity = buffer.capacity();
-            // LOGGER.warn("Release  capacity=" + capacity);
+        if (buffer == null || buffer == ZERO) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        if (capacity > maxCapacity) {
+            // Not cached
+            return;
+        }
+        final int classIndex = classIndex(capacity);
+        final int classSize = classSize(classIndex);
+        if (capacity != classSize && !slices.containsKey(buffer)) {
+            // Not allocated by this cache
+            return;
+        }
+        final boolean direct = buffer.isDirect();
 
-            final ByteBufferStack stack;
-            buffersLock.readLock().lock();
-            try {
-                stack = buffers.get(capacity);
+        // Keep the buffer in the thread if possible
+        if (classIndex < magazineClasses && magazines.get().push(magazineIndex(classIndex, direct), buffer)) {
+            return;
+        }
+
+        // Shared stacks: check the memory held
+        long held;
+        do {
+            held = bytesHeld.get();
+            if (held + classSize > maxBytes) {
+                evictions.incrementAndGet();
+                if (capacity != classSize) {
+                    slices.remove(buffer);
+                }
+                return;
             }
-            finally {
-                buffersLock.readLock().unlock();
+        } while (!bytesHeld.compareAndSet(held, held + classSize));
+
+        long highWaterMark;
+        while ((highWaterMark = bytesHighWaterMark.get()) < held + classSize) {
+            if (bytesHighWaterMark.compareAndSet(highWaterMark, held + classSize)) {
+                break;
             }
+        }
+
+        (direct ? directStacks : heapStacks)[classIndex].push(buffer);
+    }
+
+    private final int magazineIndex(final int classIndex, final boolean direct) {
+        return direct ? magazineClasses + classIndex : classIndex;
+    }
+
+    private static final ByteBuffer newBuffer(final int capacity, final boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
 
-            assert stack != null;
-            stack.push(buffer);
+    /**
+     * Gets a buffer of the given capacity from the memory of a buffer of the same class.
+     * 
+     * @param buffer
+     *            buffer of the cache
+     * @param capacity
+     *            new capacity
+     * @param classSize
+     *            size of the class of the buffer
+     * @return a buffer of the given capacity
+     */
+    private final ByteBuffer resize(final ByteBuffer buffer, final int capacity, final int classSize) {
+        final ByteBuffer memory = buffer.capacity() == classSize ? buffer : slices.remove(buffer);
+        assert memory != null && memory.capacity() == classSize;
+        if (capacity == classSize) {
+            return memory;
+        }
+        memory.clear().limit(capacity);
+        final ByteBuffer result = memory.slice();
+        slices.put(result, memory);
+        return result;
+    }
+
+    @Override
+    public final String getName() {
+        return name;
+    }
+
+    @Override
+    public final long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public final long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public final long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public final long getBytesHeld() {
+        return bytesHeld.get();
+    }
+
+    @Override
+    public final long getBytesHighWaterMark() {
+        return bytesHighWaterMark.get();
+    }
+
+    @Override
+    public final long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public final int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * Register the MXBean of the cache.
+     * 
+     * @param mbeanServer
+     *            MBean server
+     * @return the name of the registered MXBean
+     * @throws InstanceAlreadyExistsException
+     * @throws MBeanRegistrationException
+     * @throws NotCompliantMBeanException
+     * @throws MalformedObjectNameException
+     */
+    public final ObjectName registerMXBean(final MBeanServer mbeanServer) throws InstanceAlreadyExistsException,
+            MBeanRegistrationException, NotCompliantMBeanException, MalformedObjectNameException {
+        final ObjectName cacheObjName = new ObjectName(this.getClass().getPackage().getName()
+                + ":type=ByteBufferCache,name=" + name);
+        mbeanServer.registerMBean(this, cacheObjName);
+        return cacheObjName;
+    }
+
+    /**
+     * Register the MXBean of the cache in the platform MBean server. Failures are logged.
+     * 
+     * @return the name of the registered MXBean or <code>null</code> on failure
+     */
+    public final ObjectName registerPlatformMXBean() {
+        try {
+            return registerMXBean(ManagementFactory.getPlatformMBeanServer());
+        }
+        catch (final JMException e) {
+            LOGGER.warn("Failed to register byte buffer cache '" + name + "'", e);
+            return null;
         }
     }
 
+    @Override
+    public final String toString() {
+        return "ByteBufferCache[name=" + name + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+                + getEvictions() + ", held=" + getBytesHeld() + ", highWaterMark=" + getBytesHighWaterMark() + "]";
+    }
 }
@@ -0,0 +1,88 @@
+package io.eguan.utils;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * MXBean of a {@link ByteBufferCache}: usage of the cache and memory held.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public interface ByteBufferCacheMXBean {
+
+    /**
+     * Gets the name of the cache.
+     * 
+     * @return the name given to the cache on creation.
+     */
+    String getName();
+
+    /**
+     * Gets the number of allocations satisfied by a buffer of the cache.
+     * 
+     * @return the number of buffers reused.
+     */
+    long getHits();
+
+    /**
+     * Gets the number of allocations that needed a new buffer.
+     * 
+     * @return the number of buffers allocated.
+     */
+    long getMisses();
+
+    /**
+     * Gets the number of released buffers dropped because the cache was full.
+     * 
+     * @return the number of buffers evicted.
+     */
+    long getEvictions();
+
+    /**
+     * Gets the memory held by the buffers kept for reuse in the shared stacks. The few small buffers kept by every
+     * thread are not counted.
+     * 
+     * @return the size of the buffers held by the cache, in bytes.
+     */
+    long getBytesHeld();
+
+    /**
+     * Gets the largest memory held by the cache since its creation.
+     * 
+     * @return the high-water mark of the bytes held, in bytes.
+     */
+    long getBytesHighWaterMark();
+
+    /**
+     * Gets the maximum memory that the shared stacks of the cache may hold.
+     * 
+     * @return the budget of the cache, in bytes.
+     */
+    long getMaxBytes();
+
+    /**
+     * Gets the capacity of the largest buffer that can be reused. Larger buffers are allocated on each request.
+     * 
+     * @return the capacity of the largest size class.
+     */
+    int getMaxCapacity();
+}
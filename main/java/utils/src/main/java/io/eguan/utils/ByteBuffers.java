@@ -91,6 +91,43 @@ public final class ByteBuffers {
         }
     };
 
+    /**
+     * Tells if an area of a {@link ByteBuffer} is filled with zeros. The buffer is read 8 bytes at a time, with absolute
+     * reads: the position, the limit and the byte order of the buffer are not changed.
+     * 
+     * @param buffer
+     *            buffer to read
+     * @param position
+     *            start of the area
+     * @param length
+     *            length of the area
+     * @return <code>true</code> if all the bytes of the area are zeros
+     * @throws IndexOutOfBoundsException
+     *             if the area is not contained in the buffer
+     */
+    public static final boolean isZero(final ByteBuffer buffer, final int position, final int length)
+            throws IndexOutOfBoundsException {
+        final int end = position + length;
+        int i = position;
+        // 32 bytes per test
+        for (final int end32 = end - 31; i < end32; i += 32) {
+            if ((buffer.getLong(i) | buffer.getLong(i + 8) | buffer.getLong(i + 16) | buffer.getLong(i + 24)) != 0) {
+                return false;
+            }
+        }
+        for (final int end8 = end - 7; i < end8; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Compares to {@link ByteBuffer}s. Compares from the offset 0 to the current position.
      * 
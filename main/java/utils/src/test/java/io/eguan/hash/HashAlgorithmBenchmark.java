@@ -0,0 +1,128 @@
+package io.eguan.hash;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the hash of 4 KiB blocks, in heap and direct buffers. Compares the former implementation, that gets a
+ * new {@link MessageDigest} and copies the block for each hash, with the digests of {@link ByteBufferDigest}: returning
+ * a new array, written in an array of the caller and for several blocks at once.
+ * <p>
+ * Run with <code>java -cp &lt;test classpath&gt; org.openjdk.jmh.Main HashAlgorithmBenchmark</code>. Add
+ * <code>-prof gc</code> to measure the allocation rate.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HashAlgorithmBenchmark {
+
+    /** Size of a block */
+    private static final int BLOCK_SIZE = 4096;
+    /** Number of blocks hashed at once */
+    private static final int BLOCKS = 16;
+
+    @Param({ "MD5", "SHA1", "TIGER", "SHA256" })
+    public HashAlgorithm algorithm;
+
+    @Param({ "false", "true" })
+    public boolean direct;
+
+    private ByteBuffer block;
+    private ByteBuffer blocks;
+    private byte[] hash;
+    private byte[][] hashes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final byte[] contents = new byte[BLOCKS * BLOCK_SIZE];
+        new Random(0).nextBytes(contents);
+        blocks = direct ? ByteBuffer.allocateDirect(contents.length) : ByteBuffer.allocate(contents.length);
+        blocks.put(contents).clear();
+        block = blocks.duplicate();
+        block.limit(BLOCK_SIZE);
+
+        hash = new byte[algorithm.getPersistedDigestLength()];
+        hashes = new byte[BLOCKS][algorithm.getPersistedDigestLength()];
+    }
+
+    @Benchmark
+    public void former(final Blackhole blackhole) throws NoSuchAlgorithmException {
+        if (algorithm == HashAlgorithm.TIGER) {
+            final TigerDigest digest = new TigerDigest(block);
+            final byte[] result = new byte[digest.getDigestSize()];
+            digest.doFinal(result, 0);
+            blackhole.consume(result);
+        }
+        else {
+            final MessageDigest digest = MessageDigest.getInstance(algorithm.getStandardName());
+            final ByteBuffer duplicate = block.duplicate();
+            final byte[] src = new byte[duplicate.remaining()];
+            duplicate.get(src);
+            digest.update(src);
+            blackhole.consume(digest.digest());
+        }
+    }
+
+    @Benchmark
+    public byte[] digest() {
+        return ByteBufferDigest.digest(algorithm, block);
+    }
+
+    @Benchmark
+    public byte[] digestArray() {
+        ByteBufferDigest.digest(algorithm, block, hash, 0);
+        return hash;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public byte[][] digestBlocks() {
+        ByteBufferDigest.digest(algorithm, blocks, BLOCK_SIZE, hashes);
+        return hashes;
+    }
+}
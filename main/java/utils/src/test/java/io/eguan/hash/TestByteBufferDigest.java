@@ -26,6 +26,7 @@ import io.eguan.hash.HashAlgorithm;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -162,6 +163,7 @@ public class TestByteBufferDigest {
         { // Full digest
             final byte[] tigerFull = ByteBufferDigest.digest(HashAlgorithm.TIGER, REF);
             Assert.assertTrue(Arrays.equals(TIGER_REF_FULL, tigerFull));
+            Assert.assertSame(HashAlgorithm.TIGER, ByteBufferDigest.getAlgorithm(tigerFull));
             Assert.assertEquals(0, REF.position());
             Assert.assertEquals(REF.capacity(), REF.limit());
             Assert.assertTrue(ByteBufferDigest.match(REF, tigerFull));
@@ -438,4 +440,89 @@ public class TestByteBufferDigest {
     public void testHashErrVersion() throws NoSuchAlgorithmException {
         HashAlgorithm.getHashHashAlgorithm(new byte[] { (byte) 0xC1 });
     }
+
+    @Test
+    public void testDigestArray() {
+        final int size = 4096 + 13;
+        final ByteBuffer heap = newRandomBuffer(size, false);
+        final ByteBuffer direct = newRandomBuffer(size, true);
+        direct.put(heap.duplicate()).clear();
+
+        for (final HashAlgorithm hashAlgorithm : HashAlgorithm.values()) {
+            final int len = hashAlgorithm.getPersistedDigestLength();
+            for (final ByteBuffer buffer : new ByteBuffer[] { heap, direct }) {
+                // Whole buffer then partial, twice to reuse the digests
+                for (int i = 0; i < 4; i++) {
+                    if ((i & 1) == 0) {
+                        buffer.clear();
+                    }
+                    else {
+                        buffer.position(7).limit(size - 3);
+                    }
+                    final int position = buffer.position();
+                    final int limit = buffer.limit();
+                    final byte[] ref = ByteBufferDigest.digest(hashAlgorithm, buffer);
+                    Assert.assertTrue(hashAlgorithm.checkHash(ref));
+
+                    final byte[] hash = new byte[len + 5];
+                    Assert.assertEquals(len, ByteBufferDigest.digest(hashAlgorithm, buffer, hash, 3));
+                    Assert.assertArrayEquals(ref, Arrays.copyOfRange(hash, 3, 3 + len));
+                    Assert.assertEquals(position, buffer.position());
+                    Assert.assertEquals(limit, buffer.limit());
+                }
+            }
+
+            // Array too small
+            try {
+                ByteBufferDigest.digest(hashAlgorithm, heap, new byte[len], 1);
+                throw new AssertionError("Not reachable");
+            }
+            catch (final IndexOutOfBoundsException e) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void testDigestBlocks() {
+        final int blockSize = 4096;
+        final int count = 8;
+        final int offset = 5;
+        final ByteBuffer heap = newRandomBuffer(offset + blockSize * count, false);
+        final ByteBuffer direct = newRandomBuffer(offset + blockSize * count, true);
+        direct.put(heap.duplicate()).clear();
+
+        for (final HashAlgorithm hashAlgorithm : HashAlgorithm.values()) {
+            for (final ByteBuffer buffer : new ByteBuffer[] { heap, direct }) {
+                buffer.clear().position(offset);
+                final byte[][] hashes = new byte[count][hashAlgorithm.getPersistedDigestLength()];
+                ByteBufferDigest.digest(hashAlgorithm, buffer, blockSize, hashes);
+                Assert.assertEquals(offset, buffer.position());
+                Assert.assertEquals(buffer.capacity(), buffer.limit());
+
+                for (int i = 0; i < count; i++) {
+                    final ByteBuffer block = buffer.duplicate();
+                    block.position(offset + i * blockSize).limit(offset + (i + 1) * blockSize);
+                    Assert.assertArrayEquals(ByteBufferDigest.digest(hashAlgorithm, block), hashes[i]);
+                }
+
+                // Not enough blocks
+                try {
+                    ByteBufferDigest.digest(hashAlgorithm, buffer, blockSize, new byte[count + 1][]);
+                    throw new AssertionError("Not reachable");
+                }
+                catch (final IllegalArgumentException e) {
+                    // ok
+                }
+            }
+        }
+    }
+
+    private static final ByteBuffer newRandomBuffer(final int size, final boolean direct) {
+        final ByteBuffer result = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        if (!direct) {
+            new Random().nextBytes(result.array());
+        }
+        return result;
+    }
 }
@@ -27,6 +27,9 @@ import java.nio.channels.FileChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 public abstract class AbstractDeviceFile {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractDeviceFile.class);
@@ -89,6 +92,28 @@ public abstract class AbstractDeviceFile {
                 + writeCount);
     }
 
+    public final ListenableFuture<Void> readAsync(final ByteBuffer bytes, final int length, final long storageIndex) {
+        // Read now, without changing the position of the buffer
+        try {
+            read(bytes.duplicate(), length, storageIndex);
+            return Futures.immediateFuture(null);
+        }
+        catch (final IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    public final ListenableFuture<Void> writeAsync(final ByteBuffer bytes, final int length, final long storageIndex) {
+        // Write now, without changing the position of the buffer
+        try {
+            write(bytes.duplicate(), length, storageIndex);
+            return Futures.immediateFuture(null);
+        }
+        catch (final IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
     public final void close() throws IOException {
         LOGGER.debug("Target closed file='" + path + "'");
         fileChannel.close();
@@ -0,0 +1,164 @@
+package io.eguan.utils;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Unit tests for BlockCompressor.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public class TestBlockCompressor {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private static final byte[] newCompressibleBlock() {
+        final byte[] block = new byte[BLOCK_SIZE];
+        final Random random = new Random();
+        for (int i = 0; i < block.length; i += 64) {
+            Arrays.fill(block, i, i + 64, (byte) random.nextInt(4));
+        }
+        return block;
+    }
+
+    private static final byte[] newRandomBlock() {
+        final byte[] block = new byte[BLOCK_SIZE];
+        new Random().nextBytes(block);
+        return block;
+    }
+
+    @Test
+    public void testCompressHeap() {
+        final BlockCompressor compressor = new BlockCompressor("test");
+        final byte[] block = newCompressibleBlock();
+
+        // Compress a slice of a larger array
+        final byte[] array = new byte[BLOCK_SIZE + 20];
+        System.arraycopy(block, 0, array, 10, BLOCK_SIZE);
+        final ByteBuffer buffer = ByteBuffer.wrap(array, 10, BLOCK_SIZE).slice();
+        final ByteString compressed = compressor.compress(buffer);
+        Assert.assertNotNull(compressed);
+        Assert.assertTrue(compressed.size() < BLOCK_SIZE / 2);
+        Assert.assertEquals(0, buffer.position());
+
+        Assert.assertEquals(ByteBuffer.wrap(block), compressor.decompress(compressed, BLOCK_SIZE));
+        Assert.assertEquals(1, compressor.getBlocksCompressed());
+        Assert.assertEquals(1, compressor.getBlocksDecompressed());
+        Assert.assertEquals(BLOCK_SIZE, compressor.getBytesIn());
+        Assert.assertEquals(compressed.size(), compressor.getBytesOut());
+        Assert.assertTrue(compressor.getCompressionRatio() < 0.5);
+    }
+
+    @Test
+    public void testCompressDirect() {
+        final BlockCompressor compressor = new BlockCompressor("test");
+        final byte[] block = newCompressibleBlock();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        buffer.put(block).flip();
+        final ByteString compressed = compressor.compress(buffer);
+        Assert.assertNotNull(compressed);
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(ByteBuffer.wrap(block), compressor.decompress(compressed, BLOCK_SIZE));
+    }
+
+    @Test
+    public void testIncompressible() {
+        final BlockCompressor compressor = new BlockCompressor("test");
+        Assert.assertNull(compressor.compress(ByteBuffer.wrap(newRandomBlock())));
+        Assert.assertEquals(0, compressor.getBlocksCompressed());
+        Assert.assertEquals(1, compressor.getBlocksIncompressible());
+        Assert.assertEquals(1.0, compressor.getCompressionRatio(), 0.0);
+    }
+
+    @Test
+    public void testSkipIncompressible() {
+        final BlockCompressor compressor = new BlockCompressor("test");
+
+        // Series of incompressible blocks: the compression is skipped for the next block
+        for (int i = 0; i < 8; i++) {
+            Assert.assertNull(compressor.compress(ByteBuffer.wrap(newRandomBlock())));
+        }
+        Assert.assertEquals(8, compressor.getBlocksIncompressible());
+        Assert.assertNull(compressor.compress(ByteBuffer.wrap(newCompressibleBlock())));
+        Assert.assertEquals(1, compressor.getBlocksSkipped());
+
+        // Probe: one more incompressible block, skip two blocks
+        Assert.assertNull(compressor.compress(ByteBuffer.wrap(newRandomBlock())));
+        Assert.assertNull(compressor.compress(ByteBuffer.wrap(newCompressibleBlock())));
+        Assert.assertNull(compressor.compress(ByteBuffer.wrap(newCompressibleBlock())));
+        Assert.assertEquals(3, compressor.getBlocksSkipped());
+
+        // Compressible blocks are compressed again
+        Assert.assertNotNull(compressor.compress(ByteBuffer.wrap(newCompressibleBlock())));
+        Assert.assertNotNull(compressor.compress(ByteBuffer.wrap(newCompressibleBlock())));
+        Assert.assertEquals(2, compressor.getBlocksCompressed());
+        Assert.assertEquals(3, compressor.getBlocksSkipped());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecompressBadLength() {
+        final BlockCompressor compressor = new BlockCompressor("test");
+        final ByteString compressed = compressor.compress(ByteBuffer.wrap(newCompressibleBlock()));
+        compressor.decompress(compressed, BLOCK_SIZE / 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecompressCorrupted() {
+        final BlockCompressor compressor = new BlockCompressor("test");
+        compressor.decompress(ByteString.copyFrom(newRandomBlock()), BLOCK_SIZE);
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final BlockCompressor compressor = new BlockCompressor("testmx");
+        final ObjectName objectName = compressor.registerMXBean(server);
+        try {
+            final BlockCompressorMXBean proxy = JMX.newMXBeanProxy(server, objectName, BlockCompressorMXBean.class);
+            Assert.assertEquals("testmx", proxy.getName());
+
+            compressor.compress(ByteBuffer.wrap(newCompressibleBlock()));
+            compressor.compress(ByteBuffer.wrap(newRandomBlock()));
+            Assert.assertEquals(1, proxy.getBlocksCompressed());
+            Assert.assertEquals(1, proxy.getBlocksIncompressible());
+            Assert.assertEquals(BLOCK_SIZE, proxy.getBytesIn());
+            Assert.assertTrue(proxy.getCompressionTime() > 0);
+        }
+        finally {
+            server.unregisterMBean(objectName);
+        }
+    }
+}
@@ -24,6 +24,14 @@ import io.eguan.utils.ByteBufferCache;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -136,4 +144,153 @@ public class TestByteBufferCache {
             Assert.assertEquals(0x01, read);
         }
     }
+
+    /**
+     * Buffers of the same size class share their memory, but keep the requested capacity.
+     */
+    @Test
+    public void testSizeClass() {
+        final ByteBufferCache cache = new ByteBufferCache("test", 0, ByteOrder.nativeOrder());
+
+        final ByteBuffer buf1 = cache.allocate(100);
+        Assert.assertTrue(buf1.isDirect());
+        Assert.assertEquals(100, buf1.capacity());
+        Assert.assertEquals(100, buf1.limit());
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        buf1.putInt(0, 0x12345678);
+        cache.release(buf1);
+
+        // Same class: reused
+        final ByteBuffer buf2 = cache.allocate(120);
+        Assert.assertEquals(120, buf2.capacity());
+        Assert.assertEquals(120, buf2.limit());
+        Assert.assertEquals(0x12345678, buf2.getInt(0));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        cache.release(buf2);
+
+        // Full size of the class
+        final ByteBuffer buf3 = cache.allocate(128);
+        Assert.assertEquals(128, buf3.capacity());
+        Assert.assertEquals(0x12345678, buf3.getInt(0));
+        Assert.assertEquals(2, cache.getHits());
+        cache.release(buf3);
+
+        // Other class
+        final ByteBuffer buf4 = cache.allocate(129);
+        Assert.assertEquals(129, buf4.capacity());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        cache.release(buf4);
+    }
+
+    /**
+     * Buffers larger than the largest class are not reused.
+     */
+    @Test
+    public void testLargeBuffer() {
+        final ByteBufferCache cache = new ByteBufferCache("test", 0, ByteOrder.nativeOrder(), 1000, 1024 * 1024);
+        Assert.assertEquals(1024, cache.getMaxCapacity());
+
+        final ByteBuffer buf1 = cache.allocate(2000);
+        Assert.assertEquals(2000, buf1.capacity());
+        cache.release(buf1);
+        final ByteBuffer buf2 = cache.allocate(2000);
+        Assert.assertNotSame(buf1, buf2);
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(0, cache.getBytesHeld());
+    }
+
+    /**
+     * A buffer released while the cache is full is dropped.
+     */
+    @Test
+    public void testMaxBytes() {
+        final ByteBufferCache cache = new ByteBufferCache("test", 11, ByteOrder.nativeOrder(), 64 * 1024, 1024);
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            buffers.add(cache.allocate(256));
+        }
+        for (final ByteBuffer buffer : buffers) {
+            cache.release(buffer);
+        }
+        // 4 buffers kept by the thread, 4 by the cache
+        Assert.assertEquals(2, cache.getEvictions());
+        Assert.assertEquals(1024, cache.getBytesHeld());
+        Assert.assertEquals(1024, cache.getBytesHighWaterMark());
+
+        for (int i = 0; i < 10; i++) {
+            cache.allocate(256);
+        }
+        Assert.assertEquals(8, cache.getHits());
+        Assert.assertEquals(12, cache.getMisses());
+        Assert.assertEquals(0, cache.getBytesHeld());
+        Assert.assertEquals(1024, cache.getBytesHighWaterMark());
+    }
+
+    /**
+     * Buffers released by a thread can be reused by another thread.
+     */
+    @Test
+    public void testOtherThread() throws InterruptedException {
+        final ByteBufferCache cache = new ByteBufferCache("test", 0, ByteOrder.nativeOrder());
+        final AtomicReference<ByteBuffer> last = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public final void run() {
+                final List<ByteBuffer> buffers = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    buffers.add(cache.allocate(4096));
+                }
+                for (final ByteBuffer buffer : buffers) {
+                    cache.release(buffer);
+                }
+                last.set(buffers.get(4));
+            }
+        });
+        thread.start();
+        thread.join();
+
+        // The last buffer was not kept by the thread
+        Assert.assertEquals(4096, cache.getBytesHeld());
+        final ByteBuffer buffer = cache.allocate(4096);
+        Assert.assertSame(last.get(), buffer);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(0, cache.getBytesHeld());
+    }
+
+    /**
+     * Buffers not allocated by the cache are not reused.
+     */
+    @Test
+    public void testReleaseOther() {
+        final ByteBufferCache cache = new ByteBufferCache(0);
+        final ByteBuffer other = ByteBuffer.allocateDirect(100);
+        cache.release(other);
+        Assert.assertNotSame(other, cache.allocate(100));
+        Assert.assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ByteBufferCache cache = new ByteBufferCache("testmx", 0, ByteOrder.nativeOrder());
+        final ObjectName objectName = cache.registerMXBean(server);
+        try {
+            final ByteBufferCacheMXBean proxy = JMX.newMXBeanProxy(server, objectName, ByteBufferCacheMXBean.class);
+            Assert.assertEquals("testmx", proxy.getName());
+            Assert.assertEquals(ByteBufferCache.DEFAULT_MAX_BYTES, proxy.getMaxBytes());
+
+            cache.release(cache.allocate(10));
+            cache.release(cache.allocate(10));
+            Assert.assertEquals(1, proxy.getHits());
+            Assert.assertEquals(1, proxy.getMisses());
+            Assert.assertEquals(0, proxy.getEvictions());
+        }
+        finally {
+            server.unregisterMBean(objectName);
+        }
+    }
 }
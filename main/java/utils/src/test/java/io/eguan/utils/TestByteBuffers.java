@@ -62,6 +62,36 @@ public class TestByteBuffers {
 
     }
 
+    @Test
+    public void testIsZeroArrayBuffers() {
+        testIsZero(ByteBuffers.FACTORY_BYTE_ARRAY);
+    }
+
+    @Test
+    public void testIsZeroByteBuffers() {
+        testIsZero(ByteBuffers.FACTORY_BYTE_DIRECT);
+    }
+
+    private void testIsZero(final ByteBuffers.ByteBufferFactory factory) {
+        final int capacity = 4096 + 13;
+        final ByteBuffer buffer = factory.newByteBuffer(capacity);
+        Assert.assertTrue(ByteBuffers.isZero(buffer, 0, capacity));
+        Assert.assertTrue(ByteBuffers.isZero(buffer, 3, 0));
+
+        // One byte set anywhere in the area
+        for (int i = 0; i < capacity; i += 7) {
+            buffer.put(i, (byte) 1);
+            Assert.assertFalse(ByteBuffers.isZero(buffer, 0, capacity));
+            Assert.assertFalse(ByteBuffers.isZero(buffer, i, capacity - i));
+            Assert.assertTrue(ByteBuffers.isZero(buffer, i + 1, capacity - i - 1));
+            Assert.assertTrue(ByteBuffers.isZero(buffer, 0, i));
+            buffer.put(i, (byte) 0);
+        }
+        // Buffer unchanged
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(capacity, buffer.limit());
+    }
+
     @Test
     public void testFilledArrayBuffers() {
         testFilledBuffers(ByteBuffers.FACTORY_BYTE_ARRAY);
@@ -626,6 +626,10 @@ final class Vvr implements VvrMXBean, NotificationEmitter {
         return vvrInstance.handleMsg(op);
     }
 
+    final void requestPeerResync(final UUID node) {
+        vvrInstance.requestPeerResync(node);
+    }
+
     @Override
     public final String toString() {
         return "VVR[" + getName() + ", " + getUuid() + "]";
@@ -34,6 +34,7 @@ import io.eguan.vvr.repository.core.api.Device.ReadWriteHandle;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
@@ -47,6 +48,8 @@ import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * The class {@link Device} encapsulates a {@link VvrDevice} and is exported as a {@link DeviceMXBean}.
  * 
@@ -106,11 +109,43 @@ final class VvrDevice implements DeviceMXBean {
             rwHandle.write(bytes, pos, length, storageIndex);
         }
 
+        @Override
+        public final ListenableFuture<Void> readAsync(final ByteBuffer bytes, final int length,
+                final long storageIndex) {
+            return rwHandle.readAsync(bytes, bytes.position(), length, storageIndex);
+        }
+
+        @Override
+        public final ListenableFuture<Void> writeAsync(final ByteBuffer bytes, final int length,
+                final long storageIndex) {
+            return rwHandle.writeAsync(bytes, bytes.position(), length, storageIndex);
+        }
+
         @Override
         public final void trim(final long length, final long storageIndex) {
             rwHandle.trim(length, storageIndex);
         }
 
+        @Override
+        public final void writeZeroes(final long length, final long storageIndex) throws IOException {
+            rwHandle.writeZeroes(length, storageIndex);
+        }
+
+        @Override
+        public final void flush() throws IOException {
+            rwHandle.flush();
+        }
+
+        @Override
+        public final int getAllocationBlockSize() {
+            return rwHandle.getBlockSize();
+        }
+
+        @Override
+        public final BitSet getAllocated(final long firstBlock, final int count) throws IOException {
+            return rwHandle.getAllocatedBlocks(firstBlock, count);
+        }
+
         @Override
         public final void close() throws IOException {
             rwHandle.close();
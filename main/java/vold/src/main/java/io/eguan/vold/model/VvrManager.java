@@ -34,6 +34,7 @@ import io.eguan.dtx.DtxTaskInfo;
 import io.eguan.dtx.events.DtxResourceManagerEvent;
 import io.eguan.iscsisrv.IscsiServer;
 import io.eguan.nbdsrv.NbdServer;
+import io.eguan.net.MsgClientLaggingPeerListener;
 import io.eguan.net.MsgClientStartpoint;
 import io.eguan.net.MsgServerHandler;
 import io.eguan.nrs.NrsStorageConfigKey;
@@ -268,6 +269,13 @@ public final class VvrManager implements VvrManagerMXBean, MsgServerHandler {
 
     /** Send remote messages if not <code>null</code>. */
     private final AtomicReference<MsgClientStartpoint> syncClientRef = new AtomicReference<>();
+    /** Resynchronizes the VVRs of the peers that missed some messages. */
+    private final MsgClientLaggingPeerListener laggingPeerListener = new MsgClientLaggingPeerListener() {
+        @Override
+        public final void laggingPeerConnected(final UUID node) {
+            requestPeerResync(node);
+        }
+    };
     /** Dtx manager reference or <code>null</code>. */
     private final AtomicReference<DtxTaskApi> dtxTaskApiRef = new AtomicReference<>();
     /** Source of sent messages. The node UUID as a Uuid */
@@ -365,7 +373,36 @@ public final class VvrManager implements VvrManagerMXBean, MsgServerHandler {
      *            new client to set, may be null
      */
     public final void setSyncClient(final MsgClientStartpoint syncClient) {
-        this.syncClientRef.set(syncClient);
+        final MsgClientStartpoint previous = this.syncClientRef.getAndSet(syncClient);
+        if (previous != null) {
+            previous.removeLaggingPeerListener(laggingPeerListener);
+        }
+        if (syncClient != null) {
+            syncClient.addLaggingPeerListener(laggingPeerListener);
+        }
+    }
+
+    /**
+     * Asks a peer that missed some messages to resynchronize the VVRs.
+     * 
+     * @param node
+     *            the UUID of the peer
+     */
+    private final void requestPeerResync(final UUID node) {
+        vvrsLock.readLock().lock();
+        try {
+            for (final Vvr vvr : vvrs.values()) {
+                try {
+                    vvr.requestPeerResync(node);
+                }
+                catch (final Throwable t) {
+                    LOGGER.warn("Failed to resynchronize VVR " + vvr.getUuidUuid() + " on '" + node + "'", t);
+                }
+            }
+        }
+        finally {
+            vvrsLock.readLock().unlock();
+        }
     }
 
     private final void loadVvrs() throws IOException {
@@ -64,6 +64,8 @@ import io.eguan.vvr.configuration.keys.IbsIbpGenPathConfigKey;
 import io.eguan.vvr.configuration.keys.IbsIbpPathConfigKey;
 import io.eguan.vvr.configuration.keys.IbsLogLevelConfigKey;
 import io.eguan.vvr.configuration.keys.IbsOwnerUuidConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationCompressionConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationDedupConfigKey;
 import io.eguan.vvr.configuration.keys.StartedConfigKey;
 
 import java.io.File;
@@ -335,6 +337,10 @@ public class VoldTestHelper implements NotificationListener {
                 .randomUUID().toString());
 
         properties.put(configurationContext.getPropertyKey(StartedConfigKey.getInstance()), vvrStarted.toString());
+        properties.setProperty(configurationContext.getPropertyKey(ReplicationDedupConfigKey.getInstance()),
+                Boolean.TRUE.toString());
+        properties.setProperty(configurationContext.getPropertyKey(ReplicationCompressionConfigKey.getInstance()),
+                Boolean.TRUE.toString());
 
         properties.setProperty(ibsContext.getPropertyKey(IbsLogLevelConfigKey.getInstance()), "off");
 
@@ -25,9 +25,13 @@ import io.eguan.vvr.configuration.keys.BlockSizeConfigKey;
 import io.eguan.vvr.configuration.keys.DeletedConfigKey;
 import io.eguan.vvr.configuration.keys.DescriptionConfigkey;
 import io.eguan.vvr.configuration.keys.HashAlgorithmConfigKey;
+import io.eguan.vvr.configuration.keys.IoConcurrencyConfigKey;
 import io.eguan.vvr.configuration.keys.NameConfigKey;
 import io.eguan.vvr.configuration.keys.NodeConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationCompressionConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationDedupConfigKey;
 import io.eguan.vvr.configuration.keys.StartedConfigKey;
+import io.eguan.vvr.configuration.keys.ZeroBlockDetectionConfigKey;
 
 /**
  * Context for configuration keys common to all VVR modules.
@@ -58,7 +62,9 @@ public final class CommonConfigurationContext extends AbstractConfigurationConte
     private CommonConfigurationContext() {
         super(NAME, NameConfigKey.getInstance(), DescriptionConfigkey.getInstance(), BlockSizeConfigKey.getInstance(),
                 HashAlgorithmConfigKey.getInstance(), NodeConfigKey.getInstance(), StartedConfigKey.getInstance(),
-                DeletedConfigKey.getInstance());
+                DeletedConfigKey.getInstance(), IoConcurrencyConfigKey.getInstance(),
+                ZeroBlockDetectionConfigKey.getInstance(), ReplicationDedupConfigKey.getInstance(),
+                ReplicationCompressionConfigKey.getInstance());
     }
 
 }
@@ -0,0 +1,89 @@
+package io.eguan.vvr.configuration.keys;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.configuration.IntegerConfigKey;
+
+/**
+ * Key holding the maximum number of IO tasks of a device executed concurrently by the IO executor of the VVR.
+ * 
+ * <table border='1'>
+ * <tr>
+ * <th>NAME</th>
+ * <th>DESCRIPTION</th>
+ * <th>REQUIRED</th>
+ * <th>UNIT</th>
+ * <th>TYPE</th>
+ * <th>DEFAULT</th>
+ * <th>MIN</th>
+ * <th>MAX</th>
+ * </tr>
+ * <tr>
+ * <td>{@value #NAME}</td>
+ * <td>The maximum number of IO tasks of a device running concurrently. 0 to use as many tasks as the number of IO
+ * threads of the VVR.</td>
+ * <td>FALSE</td>
+ * <td>tasks</td>
+ * <td>int</td>
+ * <td>0</td>
+ * <td>0</td>
+ * <td>1024</td>
+ * </tr>
+ * </table>
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class IoConcurrencyConfigKey extends IntegerConfigKey {
+
+    protected static final String NAME = "io.concurrency";
+
+    private static final int MAX_VALUE = 1024;
+
+    private static final int MIN_VALUE = 0;
+
+    private static final int DEFAULT_VALUE = 0;
+
+    private static final IoConcurrencyConfigKey INSTANCE = new IoConcurrencyConfigKey();
+
+    /**
+     * Gets the predefined singleton instance.
+     * 
+     * @return the singleton instance constructed with {@link #IoConcurrencyConfigKey()}
+     */
+    public static final IoConcurrencyConfigKey getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs the singleton instance with the {@link #NAME}, {@link #MIN_VALUE} and {@link #MAX_VALUE}.
+     */
+    private IoConcurrencyConfigKey() {
+        super(NAME, MIN_VALUE, MAX_VALUE);
+    }
+
+    @Override
+    public final Integer getDefaultValue() {
+        return DEFAULT_VALUE;
+    }
+
+}
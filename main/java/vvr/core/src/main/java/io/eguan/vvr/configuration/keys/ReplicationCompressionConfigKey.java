@@ -0,0 +1,77 @@
+package io.eguan.vvr.configuration.keys;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.configuration.BooleanConfigKey;
+
+/**
+ * Key which indicates if the contents of the blocks and of the NRS clusters sent to the peers are compressed. The
+ * blocks that do not compress well are sent as is. The compressed contents are sent in fields of their own: a node
+ * without compression sees a block without value, read from the peers when needed, and rejects a compressed cluster.
+ * 
+ * <table border='1'>
+ * <tr>
+ * <th>NAME</th>
+ * <th>DESCRIPTION</th>
+ * <th>REQUIRED</th>
+ * <th>TYPE</th>
+ * <th>DEFAULT</th>
+ * </tr>
+ * <tr>
+ * <td>{@value #NAME}</td>
+ * <td>Enables the compression of the blocks sent to the peers.</td>
+ * <td>FALSE</td>
+ * <td>Boolean</td>
+ * <td>False</td>
+ * </tr>
+ * </table>
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class ReplicationCompressionConfigKey extends BooleanConfigKey {
+
+    protected static final String NAME = "replication.compression";
+
+    private static final Boolean DEFAULT_VALUE = Boolean.FALSE;
+
+    private static final ReplicationCompressionConfigKey INSTANCE = new ReplicationCompressionConfigKey();
+
+    private ReplicationCompressionConfigKey() {
+        super(NAME);
+    }
+
+    /**
+     * Gets the predefined singleton instance.
+     * 
+     * @return the singleton instance constructed with {@link #ReplicationCompressionConfigKey()}
+     */
+    public static final ReplicationCompressionConfigKey getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected final Boolean getDefaultValue() {
+        return DEFAULT_VALUE;
+    }
+
+}
@@ -0,0 +1,77 @@
+package io.eguan.vvr.configuration.keys;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.configuration.BooleanConfigKey;
+
+/**
+ * Key which indicates if the blocks are replicated to the peers in two phases: the keys of the new blocks are offered
+ * first and the contents are sent only to the peers that do not already store the blocks. Otherwise, the contents of
+ * the new blocks are always pushed to the peers.
+ * 
+ * <table border='1'>
+ * <tr>
+ * <th>NAME</th>
+ * <th>DESCRIPTION</th>
+ * <th>REQUIRED</th>
+ * <th>TYPE</th>
+ * <th>DEFAULT</th>
+ * </tr>
+ * <tr>
+ * <td>{@value #NAME}</td>
+ * <td>Enables the offer of the block keys before the replication of their contents.</td>
+ * <td>FALSE</td>
+ * <td>Boolean</td>
+ * <td>False</td>
+ * </tr>
+ * </table>
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class ReplicationDedupConfigKey extends BooleanConfigKey {
+
+    protected static final String NAME = "replication.dedup";
+
+    private static final Boolean DEFAULT_VALUE = Boolean.FALSE;
+
+    private static final ReplicationDedupConfigKey INSTANCE = new ReplicationDedupConfigKey();
+
+    private ReplicationDedupConfigKey() {
+        super(NAME);
+    }
+
+    /**
+     * Gets the predefined singleton instance.
+     * 
+     * @return the singleton instance constructed with {@link #ReplicationDedupConfigKey()}
+     */
+    public static final ReplicationDedupConfigKey getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected final Boolean getDefaultValue() {
+        return DEFAULT_VALUE;
+    }
+
+}
@@ -0,0 +1,308 @@
+package io.eguan.vvr.persistence.repository;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.nrs.NrsException;
+import io.eguan.nrs.NrsFile;
+import io.eguan.nrs.NrsFileHeader;
+import io.eguan.nrs.NrsFileJanitor;
+import io.eguan.utils.UuidT;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Ancestors of a {@link NrsVvrItem}, from the direct parent to the last partial snapshot, excluding the root. Speeds up
+ * the lookup of the keys that are not present in the {@link NrsFile} of the item:
+ * <ul>
+ * <li>the ancestors are loaded once, when the chain is built,</li>
+ * <li>the ancestors that do not contain a block are skipped without being opened, as soon as they know their
+ * allocated L2 tables and entries,</li>
+ * <li>the nearest ancestor having allocated a L2 table is cached for every L2 table.</li>
+ * </ul>
+ * A chain is built for a version of the hierarchy of the repository and must be discarded when the version changes
+ * (snapshot created or deleted, update of a snapshot from a peer).
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class NrsAncestorChain {
+
+    /** The cached nearest ancestor is not known yet */
+    private static final int NEAREST_UNKNOWN = 0;
+    /** No ancestor have allocated the L2 table */
+    private static final int NEAREST_NONE = -1;
+
+    /** Version of the hierarchy of the repository for which the chain was built */
+    private final long version;
+    /** The ancestors, from the direct parent */
+    private final NrsFile[] ancestors;
+    /** Number of blocks reachable in each ancestor: stop the lookup at the first smaller ancestor */
+    private final long[] blockCounts;
+    /** Number of blocks in a L2 table, shared by all the ancestors */
+    private final int l2Capacity;
+    /**
+     * Index+1 of the nearest ancestor having allocated a L2 table, {@link #NEAREST_NONE} or {@link #NEAREST_UNKNOWN}.
+     * <code>null</code> if the ancestors do not share the same L2 capacity.
+     */
+    private final int[] nearest;
+
+    private NrsAncestorChain(final long version, final NrsFile[] ancestors, final long[] blockCounts,
+            final int l2Capacity, final int[] nearest) {
+        super();
+        this.version = version;
+        this.ancestors = ancestors;
+        this.blockCounts = blockCounts;
+        this.l2Capacity = l2Capacity;
+        this.nearest = nearest;
+    }
+
+    /**
+     * Builds the chain of the ancestors of the file <code>parentUuid</code>.
+     * 
+     * @param version
+     *            current version of the hierarchy of the repository
+     * @param nrsFileJanitor
+     *            janitor of the files
+     * @param parentUuid
+     *            direct parent of the item
+     * @return the new chain
+     * @throws NrsException
+     *             if an ancestor can not be loaded
+     * @throws IOException
+     *             if an ancestor can not be opened
+     */
+    static final NrsAncestorChain build(final long version, final NrsFileJanitor nrsFileJanitor,
+            final UuidT<NrsFile> parentUuid) throws IOException {
+        final List<NrsFile> ancestorList = new ArrayList<>();
+        UuidT<NrsFile> ancestorUuid = parentUuid;
+        boolean partial = true;
+        while (partial) {
+            final NrsFile ancestor = nrsFileJanitor.loadNrsFile(ancestorUuid);
+            final NrsFileHeader<NrsFile> header = ancestor.getDescriptor();
+
+            // No need to try to access to the root snapshot (is empty)
+            if (header.isRoot()) {
+                break;
+            }
+
+            // Open the file once to load the allocation of its L2 tables
+            final NrsFile ancestorOpened = nrsFileJanitor.openNrsFile(ancestorUuid, true);
+            nrsFileJanitor.unlockNrsFile(ancestorOpened);
+            ancestorList.add(ancestorOpened);
+
+            // Upper level
+            ancestorUuid = header.getParentId();
+            partial = header.isPartial();
+        }
+
+        final int count = ancestorList.size();
+        final NrsFile[] ancestors = ancestorList.toArray(new NrsFile[count]);
+        final long[] blockCounts = new long[count];
+        long blockCountMin = Long.MAX_VALUE;
+        boolean sameL2Capacity = true;
+        final int l2Capacity = count == 0 ? 1 : ancestors[0].getL2Capacity();
+        for (int i = 0; i < count; i++) {
+            final NrsFileHeader<NrsFile> header = ancestors[i].getDescriptor();
+            blockCountMin = Math.min(blockCountMin, header.getSize() / header.getBlockSize());
+            blockCounts[i] = blockCountMin;
+            sameL2Capacity &= ancestors[i].getL2Capacity() == l2Capacity;
+        }
+
+        final int[] nearest;
+        if (count > 0 && sameL2Capacity) {
+            nearest = new int[(int) ((blockCounts[0] + l2Capacity - 1) / l2Capacity)];
+        }
+        else {
+            nearest = null;
+        }
+        return new NrsAncestorChain(version, ancestors, blockCounts, l2Capacity, nearest);
+    }
+
+    /**
+     * Gets the version of the hierarchy of the repository for which the chain was built.
+     * 
+     * @return the version of the chain
+     */
+    final long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the depth of the chain.
+     * 
+     * @return the number of ancestors, the root excluded.
+     */
+    final int getDepth() {
+        return ancestors.length;
+    }
+
+    /**
+     * Reads the key of a block in the nearest ancestor containing it.
+     * 
+     * @param nrsFileJanitor
+     *            janitor of the files
+     * @param blockIndex
+     *            index of the block to read
+     * @param ex
+     *            <code>true</code> to get a {@link NrsBlockKeyLookupEx}
+     * @return the key or a {@link NrsBlockKeyLookupEx} if <code>ex</code> is set, <code>null</code> if no ancestor
+     *         contains the block.
+     * @throws IOException
+     */
+    final Object readHash(final NrsFileJanitor nrsFileJanitor, final long blockIndex, final boolean ex)
+            throws IOException {
+        final int first = findNearest(blockIndex);
+        for (int i = first; i >= 0; i = findNext(blockIndex, i + 1)) {
+            // Skip the ancestor if the block is known to be absent
+            if (!ancestors[i].isAllocated(blockIndex)) {
+                continue;
+            }
+            final NrsFile ancestorOpened = nrsFileJanitor.openNrsFile(ancestors[i].getDescriptor().getFileId(), true);
+            final byte[] result;
+            try {
+                result = ancestorOpened.read(blockIndex);
+            }
+            finally {
+                nrsFileJanitor.unlockNrsFile(ancestorOpened);
+            }
+
+            // Key found: keep the node on which the file was filled
+            if (result != null) {
+                if (ex) {
+                    return new NrsBlockKeyLookupEx(result, ancestorOpened, ancestorOpened.getDescriptor().getNodeId());
+                }
+                else {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the state of the blocks of a range that are not resolved yet, from the nearest ancestor containing them.
+     * Bit <code>i</code> of the results describes the block <code>firstBlock + i</code>.
+     * 
+     * @param nrsFileJanitor
+     *            janitor of the files
+     * @param firstBlock
+     *            the index of the first block
+     * @param count
+     *            the number of blocks
+     * @param resolved
+     *            the blocks already present in a descendant, updated with the blocks present in an ancestor
+     * @param trimmed
+     *            the blocks trimmed in a descendant, updated with the blocks trimmed in the nearest ancestor
+     *            containing them
+     * @throws IOException
+     */
+    final void readStates(final NrsFileJanitor nrsFileJanitor, final long firstBlock, final int count,
+            final BitSet resolved, final BitSet trimmed) throws IOException {
+        for (int i = 0; i < ancestors.length && resolved.cardinality() < count; i++) {
+            if (firstBlock >= blockCounts[i]) {
+                // Out of the ancestor limits
+                return;
+            }
+            final int ancestorCount = (int) Math.min(count, blockCounts[i] - firstBlock);
+            if (!mayContain(ancestors[i], firstBlock, ancestorCount)) {
+                continue;
+            }
+            final BitSet ancestorPresent = new BitSet(ancestorCount);
+            final BitSet ancestorTrimmed = new BitSet(ancestorCount);
+            final NrsFile ancestorOpened = nrsFileJanitor.openNrsFile(ancestors[i].getDescriptor().getFileId(), true);
+            try {
+                ancestorOpened.readStates(firstBlock, ancestorCount, ancestorPresent, ancestorTrimmed);
+            }
+            finally {
+                nrsFileJanitor.unlockNrsFile(ancestorOpened);
+            }
+
+            // Keep the state of the blocks not present in a descendant
+            ancestorPresent.andNot(resolved);
+            ancestorTrimmed.and(ancestorPresent);
+            resolved.or(ancestorPresent);
+            trimmed.or(ancestorTrimmed);
+        }
+    }
+
+    /**
+     * Tells if an ancestor has allocated a L2 table of a range of blocks. Does not need to open the file.
+     * 
+     * @param ancestor
+     * @param firstBlock
+     * @param count
+     * @return <code>true</code> if some blocks of the range may be present in the ancestor
+     */
+    private final boolean mayContain(final NrsFile ancestor, final long firstBlock, final int count) {
+        final long end = firstBlock + count;
+        for (long blockIndex = firstBlock; blockIndex < end; blockIndex += l2Capacity - blockIndex % l2Capacity) {
+            if (ancestor.isL2Allocated(blockIndex)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the nearest ancestor that may contain the block, using the cached value if possible.
+     * 
+     * @param blockIndex
+     * @return the index of the ancestor or -1
+     */
+    private final int findNearest(final long blockIndex) {
+        if (nearest == null || blockIndex >= blockCounts[0]) {
+            return findNext(blockIndex, 0);
+        }
+        final int l1Offset = (int) (blockIndex / l2Capacity);
+        // Concurrent updates of the array are harmless: the value computed is always the same
+        final int cached = nearest[l1Offset];
+        if (cached != NEAREST_UNKNOWN) {
+            return cached == NEAREST_NONE ? -1 : cached - 1;
+        }
+        final int result = findNext(blockIndex, 0);
+        nearest[l1Offset] = result == -1 ? NEAREST_NONE : result + 1;
+        return result;
+    }
+
+    /**
+     * Finds the next ancestor that may contain the block, starting from the ancestor <code>from</code>.
+     * 
+     * @param blockIndex
+     * @param from
+     * @return the index of the ancestor or -1
+     */
+    private final int findNext(final long blockIndex, final int from) {
+        for (int i = from; i < ancestors.length; i++) {
+            if (blockIndex >= blockCounts[i]) {
+                // Out of the ancestor limits
+                return -1;
+            }
+            if (ancestors[i].isL2Allocated(blockIndex)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
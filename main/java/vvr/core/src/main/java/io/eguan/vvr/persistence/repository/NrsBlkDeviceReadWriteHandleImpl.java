@@ -93,9 +93,6 @@ final class NrsBlkDeviceReadWriteHandleImpl extends DeviceReadWriteHandleImpl {
         block.limit(offset + blockSize);
         final NrsFile dstFile = ((NrsDeviceImplHelper) deviceImplHelper).getCurrentNrsFile();
         dstFile.writeBlock(blockIndex, block);
-
-        // Store key in persistence
-        ((NrsDeviceImplHelper) deviceImplHelper).writeBlockKey(blockIndex, newKey);
     }
 
     @Override
@@ -41,18 +41,21 @@ import io.eguan.vvr.repository.core.api.BlockKeyLookupEx;
 import io.eguan.vvr.repository.core.api.Device;
 import io.eguan.vvr.repository.core.api.FutureSnapshot;
 import io.eguan.vvr.repository.core.api.FutureVoid;
+import io.eguan.vvr.repository.core.api.IoStageStats;
 import io.eguan.vvr.repository.core.api.Snapshot;
+import io.eguan.vvr.repository.core.api.VvrIoExecutor;
 
 import java.io.IOException;
-import java.net.ConnectException;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -64,6 +67,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -116,6 +120,14 @@ public final class NrsDevice extends NrsVvrItem implements Device {
             return (BlockKeyLookupEx) readHash(blockIndex, recursive, true);
         }
 
+        @Override
+        protected final BitSet getAllocatedBlocks(final long firstBlock, final int count) throws IOException {
+            if (!NrsDevice.this.isActive()) {
+                throw new IllegalStateException("Device is deactivated");
+            }
+            return NrsDevice.this.getAllocatedBlocks(firstBlock, count);
+        }
+
         @Override
         protected final void writeBlockKey(final long blockIndex, final byte[] key) throws IOException {
             if (!NrsDevice.this.isActive()) {
@@ -124,6 +136,14 @@ public final class NrsDevice extends NrsVvrItem implements Device {
             writeBlockHash(blockIndex, key);
         }
 
+        @Override
+        protected final void writeBlockKeys(final long firstBlock, final byte[][] keys) throws IOException {
+            if (!NrsDevice.this.isActive()) {
+                throw new IllegalStateException("Device is deactivated");
+            }
+            writeBlockHashes(firstBlock, keys);
+        }
+
         @Override
         protected final void resetBlockKey(final long blockIndex) throws IOException {
             if (!NrsDevice.this.isActive()) {
@@ -140,16 +160,38 @@ public final class NrsDevice extends NrsVvrItem implements Device {
             trimBlockHash(blockIndex);
         }
 
+        @Override
+        protected final void syncBlockKeys() throws IOException {
+            if (!NrsDevice.this.isActive()) {
+                throw new IllegalStateException("Device is deactivated");
+            }
+            syncBlockHashes();
+        }
+
         @Override
         protected final Lock getIoLock() {
             return ioLock.readLock();
         }
 
+        @Override
+        protected final VvrIoExecutor.DeviceQueue newIoQueue() {
+            return getVvr().newIoQueue();
+        }
+
+        @Override
+        protected final IoStageStats getIoStageStats() {
+            return getVvr().getIoStageStats();
+        }
+
+        @Override
+        protected final boolean isZeroBlockDetectionEnabled() {
+            return getVvr().isZeroBlockDetectionEnabled();
+        }
+
         @Override
         protected final void notifyIO(@Nonnull final RemoteOperation.Builder opBuilder) {
             try {
-                // Send message
-                getVvr().sendMessage(opBuilder, Type.IBS, OpCode.SET, true, null);
+                getVvr().replicateIbs(opBuilder);
             }
             catch (final Throwable t) {
                 LOGGER.warn("Failed to notify peers for device '" + getUuid() + "'", t);
@@ -165,51 +207,79 @@ public final class NrsDevice extends NrsVvrItem implements Device {
             nrsBuilder.setKey(ByteString.copyFrom(key));
             opBuilder.addIbs(nrsBuilder);
 
-            // First, ask the node that create the NrsFile
-            {
+            // First, ask the node that create the NrsFile. The requests are sent on the main channels of the peers
+            ListenableFuture<Collection<MsgServerRemoteStatus>> srcReply;
+            try {
+                srcReply = getVvr().sendRequest(opBuilder, Type.IBS, OpCode.GET, srcNode);
+                if (srcReply == null) {
+                    // Stand alone mode: no remote buffer
+                    return null;
+                }
+            }
+            catch (final IllegalArgumentException e) {
+                LOGGER.debug("Device " + getUuid() + ": failed to get Ibs block from " + srcNode, e);
+                srcReply = null;
+            }
+            if (srcReply != null) {
                 try {
-                    final Collection<MsgServerRemoteStatus> reply = getVvr().sendMessage(opBuilder, Type.IBS,
-                            OpCode.GET, false, srcNode);
-                    if (reply == null) {
-                        // Stand alone mode: no remote buffer
-                        return null;
-                    }
-
-                    assert reply.size() == 1;
-                    final ByteString block = getRemoteBufferFromPeer(key, reply);
+                    final ByteString block = getRemoteBufferFromPeer(key, waitReply(srcReply));
                     // Block found?
                     if (block != null) {
                         return block;
                     }
                 }
-                catch (ConnectException | MsgServerTimeoutException | IllegalArgumentException e) {
-                    LOGGER.debug("Device " + getUuid() + ": failed to get Ibs block from " + srcNode, e);
+                catch (final ExecutionException e) {
+                    LOGGER.debug("Device " + getUuid() + ": failed to get Ibs block from " + srcNode, e.getCause());
                 }
             }
 
             // Read from any peer
-            {
+            final ListenableFuture<Collection<MsgServerRemoteStatus>> reply = getVvr().sendRequest(opBuilder,
+                    Type.IBS, OpCode.GET, null);
+            if (reply != null) {
                 try {
-                    final Collection<MsgServerRemoteStatus> reply = getVvr().sendMessage(opBuilder, Type.IBS,
-                            OpCode.GET, false, null);
-                    final ByteString block = getRemoteBufferFromPeer(key, reply);
+                    final ByteString block = getRemoteBufferFromPeer(key, waitReply(reply));
                     // Block found?
                     if (block != null) {
                         return block;
                     }
                 }
-                catch (final MsgServerTimeoutException e) {
-                    LOGGER.warn("Device " + getUuid() + ": failed to get Ibs block", e);
-                }
-                catch (ConnectException | IllegalArgumentException e) {
-                    // Should not occur
-                    LOGGER.error("Device " + getUuid() + ": failed to get Ibs block", e);
+                catch (final ExecutionException e) {
+                    if (e.getCause() instanceof MsgServerTimeoutException) {
+                        LOGGER.warn("Device " + getUuid() + ": failed to get Ibs block", e.getCause());
+                    }
+                    else {
+                        // Should not occur
+                        LOGGER.error("Device " + getUuid() + ": failed to get Ibs block", e.getCause());
+                    }
                 }
             }
 
             return null;
         }
 
+        /**
+         * Waits for the replies to a request. The request is cancelled if the current thread is interrupted.
+         * 
+         * @param reply
+         *            the future replies
+         * @return the replies of the peers
+         * @throws InterruptedException
+         * @throws ExecutionException
+         *             if the request failed
+         */
+        private final Collection<MsgServerRemoteStatus> waitReply(
+                final ListenableFuture<Collection<MsgServerRemoteStatus>> reply) throws InterruptedException,
+                ExecutionException {
+            try {
+                return reply.get();
+            }
+            catch (final InterruptedException e) {
+                reply.cancel(false);
+                throw e;
+            }
+        }
+
         /**
          * Get the requested block from the given reply.
          * 
@@ -230,7 +300,15 @@ public final class NrsDevice extends NrsVvrItem implements Device {
                         final ByteString msgReply = status.getReplyBytes();
                         final RemoteOperation opReply = RemoteOperation.parseFrom(msgReply, null);
                         assert opReply.getIbsCount() == 1;
-                        final ByteString block = opReply.getIbs(0).getValue();
+                        final VvrRemote.Ibs ibsReply = opReply.getIbs(0);
+                        final ByteString block;
+                        if (ibsReply.hasDeflatedValue()) {
+                            block = ByteString.copyFrom(NrsRepository.IBS_COMPRESSOR.decompress(
+                                    ibsReply.getDeflatedValue(), getBlockSize()));
+                        }
+                        else {
+                            block = ibsReply.getValue();
+                        }
                         // Block found?
                         if (block != null) {
                             // Check block integrity
@@ -239,7 +317,7 @@ public final class NrsDevice extends NrsVvrItem implements Device {
                             }
                         }
                     }
-                    catch (final InvalidProtocolBufferException e) {
+                    catch (final InvalidProtocolBufferException | IllegalArgumentException e) {
                         LOGGER.warn("Device " + getUuid() + ": failed to get Ibs block from " + status.getNodeId(), e);
                     }
                 }
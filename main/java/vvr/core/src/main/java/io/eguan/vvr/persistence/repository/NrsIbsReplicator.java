@@ -0,0 +1,304 @@
+package io.eguan.vvr.persistence.repository;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.ibs.Ibs;
+import io.eguan.net.MsgServerRemoteStatus;
+import io.eguan.net.MsgServerTimeoutException;
+import io.eguan.proto.Common.OpCode;
+import io.eguan.proto.Common.Type;
+import io.eguan.proto.vvr.VvrRemote;
+import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Replication of the new blocks of a {@link NrsRepository} to the peers, in two phases.
+ * <p>
+ * The keys of the blocks are offered first to all the peers, without the contents of the blocks. Each peer notifies its
+ * {@link Ibs} of the blocks it already stores and replies the keys of the blocks it misses. The contents of the missing
+ * blocks are then sent to each peer. The blocks shared by several devices or already replicated are not sent again.
+ * <p>
+ * The blocks are replicated in the background, by batches of {@value #BATCH_SIZE} blocks at most. The blocks are pushed
+ * to the peers with their contents, as they would be without the offer, when:
+ * <ul>
+ * <li>too many blocks are waiting for their replication,</li>
+ * <li>no peer replies to the offer in time (the wait is bounded by the timeout of the messaging client),</li>
+ * <li>a connected peer does not reply to the offer or fails to handle it.</li>
+ * </ul>
+ * A peer that handles the offer but whose reply is lost counts the reference of a block stored again twice. A block
+ * that is not replicated is read on demand from the peers.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class NrsIbsReplicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NrsIbsReplicator.class);
+
+    /** Maximum number of blocks offered in one message */
+    static final int BATCH_SIZE = 256;
+
+    /** Maximum number of blocks waiting for their replication */
+    private static final int PENDING_MAX = 32 * BATCH_SIZE;
+
+    /** Maximum wait for the replication of the pending blocks on shutdown (ms) */
+    private static final long SHUTDOWN_TIMEOUT = 10 * 1000;
+
+    private final NrsRepository repository;
+
+    /** Blocks waiting for their replication */
+    private final BlockingQueue<VvrRemote.Ibs> pending = new ArrayBlockingQueue<>(PENDING_MAX);
+
+    private final Thread thread;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create and start the replication of the blocks of the given repository.
+     * 
+     * @param repository
+     *            the repository storing the blocks to replicate
+     */
+    NrsIbsReplicator(@Nonnull final NrsRepository repository) {
+        super();
+        this.repository = repository;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public final void run() {
+                work();
+            }
+        }, "IbsRepl-" + repository.getUuid());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Replicates the given blocks. The blocks notified without contents are sent immediately to the peers. The other
+     * blocks are queued for their replication or pushed to the peers if the queue is full.
+     * 
+     * @param opBuilder
+     *            the blocks to replicate
+     */
+    final void replicate(@Nonnull final RemoteOperation.Builder opBuilder) {
+        RemoteOperation.Builder pushBuilder = null;
+        if (!shutdown) {
+            final List<VvrRemote.Ibs> ibsList = opBuilder.getIbsList();
+            for (int i = 0; i < ibsList.size(); i++) {
+                final VvrRemote.Ibs ibs = ibsList.get(i);
+                if (!ibs.hasValue() || !pending.offer(ibs)) {
+                    if (pushBuilder == null) {
+                        pushBuilder = RemoteOperation.newBuilder();
+                    }
+                    pushBuilder.addIbs(ibs);
+                }
+            }
+        }
+        else {
+            pushBuilder = opBuilder;
+        }
+        if (pushBuilder != null) {
+            repository.pushIbs(pushBuilder, null);
+        }
+    }
+
+    /**
+     * Stops the replication. The pending blocks are pushed to the peers.
+     * 
+     * @throws InterruptedException
+     */
+    final void shutdown() throws InterruptedException {
+        shutdown = true;
+        thread.interrupt();
+        thread.join(SHUTDOWN_TIMEOUT);
+
+        // Blocks queued during the shutdown
+        final List<VvrRemote.Ibs> remaining = new ArrayList<>();
+        pending.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            push(remaining, null);
+        }
+    }
+
+    /**
+     * Loop of the replication thread.
+     */
+    private final void work() {
+        final List<VvrRemote.Ibs> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                if (shutdown) {
+                    // Push the remaining blocks
+                    pending.drainTo(batch, BATCH_SIZE);
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    push(batch, null);
+                }
+                else {
+                    final VvrRemote.Ibs first = pending.poll(1, TimeUnit.MINUTES);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    pending.drainTo(batch, BATCH_SIZE - 1);
+                    replicateBatch(batch);
+                }
+            }
+            catch (final InterruptedException e) {
+                // Interrupted by shutdown: push the blocks of the current offer
+                if (!batch.isEmpty()) {
+                    push(batch, null);
+                }
+            }
+            catch (final Throwable t) {
+                LOGGER.warn("Failed to replicate blocks", t);
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Offers the keys of the blocks to the peers and sends the missing blocks.
+     * 
+     * @param batch
+     *            the blocks to replicate
+     * @throws InterruptedException
+     */
+    private final void replicateBatch(final List<VvrRemote.Ibs> batch) throws InterruptedException {
+        // Offer the keys of the blocks
+        final Map<ByteString, VvrRemote.Ibs> blocks = new HashMap<>();
+        final RemoteOperation.Builder offerBuilder = RemoteOperation.newBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            final VvrRemote.Ibs ibs = batch.get(i);
+            blocks.put(ibs.getKey(), ibs);
+            offerBuilder.addIbs(ibs.toBuilder().clearValue());
+        }
+
+        final Collection<MsgServerRemoteStatus> replies;
+        try {
+            replies = repository.sendMessage(offerBuilder, Type.IBS, OpCode.LIST, false, null);
+        }
+        catch (final MsgServerTimeoutException | ConnectException e) {
+            LOGGER.debug("Offer of blocks failed, push blocks", e);
+            push(batch, null);
+            return;
+        }
+        if (replies == null) {
+            // Stand alone mode
+            return;
+        }
+
+        // Send the missing blocks to each peer
+        final Set<UUID> replied = new HashSet<>();
+        for (final MsgServerRemoteStatus status : replies) {
+            final UUID peer = status.getNodeId();
+            replied.add(peer);
+            final RemoteOperation reply = parseReply(status);
+            if (reply == null) {
+                push(batch, peer);
+                continue;
+            }
+
+            final RemoteOperation.Builder setBuilder = RemoteOperation.newBuilder();
+            for (final VvrRemote.Ibs missing : reply.getIbsList()) {
+                final VvrRemote.Ibs ibs = blocks.get(missing.getKey());
+                if (ibs != null) {
+                    // The replacement of the old key has been notified by the offer
+                    setBuilder.addIbs(VvrRemote.Ibs.newBuilder().setKey(ibs.getKey()).setValue(ibs.getValue()));
+                }
+            }
+            if (setBuilder.getIbsCount() > 0) {
+                repository.pushIbs(setBuilder, peer);
+            }
+        }
+
+        // Connected peers that did not reply in time
+        for (final UUID peer : repository.getConnectedPeers()) {
+            if (!replied.contains(peer)) {
+                push(batch, peer);
+            }
+        }
+    }
+
+    /**
+     * Gets the reply of a peer to an offer.
+     * 
+     * @param status
+     *            status of the offer sent to the peer
+     * @return the keys of the blocks missing on the peer or <code>null</code> if the peer failed to handle the offer
+     */
+    private final RemoteOperation parseReply(final MsgServerRemoteStatus status) {
+        final String exceptionName = status.getExceptionName();
+        if (exceptionName != null) {
+            LOGGER.debug("Offer of blocks failed on " + status.getNodeId() + ", cause=" + exceptionName);
+            return null;
+        }
+        final ByteString replyBytes = status.getReplyBytes();
+        if (replyBytes == null) {
+            LOGGER.debug("Offer of blocks failed on " + status.getNodeId());
+            return null;
+        }
+        try {
+            return RemoteOperation.parseFrom(replyBytes, null);
+        }
+        catch (final InvalidProtocolBufferException e) {
+            LOGGER.warn("Offer of blocks failed on " + status.getNodeId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Pushes the blocks with their contents.
+     * 
+     * @param batch
+     *            the blocks to push
+     * @param peer
+     *            the destination node or <code>null</code> to push the blocks to all the peers
+     */
+    private final void push(final List<VvrRemote.Ibs> batch, final UUID peer) {
+        final RemoteOperation.Builder pushBuilder = RemoteOperation.newBuilder();
+        pushBuilder.addAllIbs(batch);
+        repository.pushIbs(pushBuilder, peer);
+    }
+}
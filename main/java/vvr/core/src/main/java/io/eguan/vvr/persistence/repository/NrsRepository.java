@@ -31,6 +31,7 @@ import io.eguan.ibs.Ibs;
 import io.eguan.ibs.IbsErrorCode;
 import io.eguan.ibs.IbsFactory;
 import io.eguan.ibs.IbsIOException;
+import io.eguan.net.MsgClientPeerAdm;
 import io.eguan.net.MsgClientStartpoint;
 import io.eguan.net.MsgServerRemoteStatus;
 import io.eguan.net.MsgServerTimeoutException;
@@ -51,6 +52,7 @@ import io.eguan.proto.nrs.NrsRemote.NrsVersion;
 import io.eguan.proto.vvr.VvrRemote;
 import io.eguan.proto.vvr.VvrRemote.Item;
 import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
+import io.eguan.utils.BlockCompressor;
 import io.eguan.utils.SimpleIdentifierProvider;
 import io.eguan.utils.UuidT;
 import io.eguan.utils.mapper.FileMapperConfigurationContext;
@@ -63,14 +65,20 @@ import io.eguan.vvr.configuration.keys.DeviceFileDirectoryConfigKey;
 import io.eguan.vvr.configuration.keys.HashAlgorithmConfigKey;
 import io.eguan.vvr.configuration.keys.IbsIbpGenPathConfigKey;
 import io.eguan.vvr.configuration.keys.IbsIbpPathConfigKey;
+import io.eguan.vvr.configuration.keys.IoConcurrencyConfigKey;
 import io.eguan.vvr.configuration.keys.NameConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationCompressionConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationDedupConfigKey;
 import io.eguan.vvr.configuration.keys.SnapshotFileDirectoryConfigKey;
 import io.eguan.vvr.configuration.keys.StartedConfigKey;
+import io.eguan.vvr.configuration.keys.ZeroBlockDetectionConfigKey;
 import io.eguan.vvr.remote.VvrDtxRmContext;
 import io.eguan.vvr.remote.VvrRemoteUtils;
 import io.eguan.vvr.repository.core.api.AbstractRepositoryImpl;
 import io.eguan.vvr.repository.core.api.Device;
+import io.eguan.vvr.repository.core.api.IoStageStats;
 import io.eguan.vvr.repository.core.api.Snapshot;
+import io.eguan.vvr.repository.core.api.VvrIoExecutor;
 import io.eguan.vvr.repository.core.api.VersionedVolumeRepository.ItemChangedEvent.VvrItemAttributeType;
 
 import java.io.File;
@@ -96,6 +104,10 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
@@ -106,6 +118,9 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.GeneratedMessageLite;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -126,6 +141,13 @@ public final class NrsRepository extends AbstractRepositoryImpl {
 
     static final Logger LOGGER = LoggerFactory.getLogger(NrsRepository.class);
 
+    /** Compression of the blocks sent to the peers */
+    static final BlockCompressor IBS_COMPRESSOR = new BlockCompressor("ibs");
+
+    static {
+        IBS_COMPRESSOR.registerPlatformMXBean();
+    }
+
     /**
      * Name of the file containing the repository configuration.
      */
@@ -160,6 +182,11 @@ public final class NrsRepository extends AbstractRepositoryImpl {
      */
     private ConcurrentHashMap<UUID, NrsDevice> devices;
 
+    /**
+     * Version of the NrsFile hierarchy, incremented each time the cached {@link NrsAncestorChain}s must be rebuilt.
+     */
+    private final AtomicLong ancestorChainVersion = new AtomicLong();
+
     /**
      * The item at the root of the hierarchy.
      */
@@ -170,6 +197,31 @@ public final class NrsRepository extends AbstractRepositoryImpl {
      */
     private Ibs ibsInstance;
 
+    /**
+     * The executor of the IO tasks of the devices.
+     */
+    private VvrIoExecutor ioExecutor;
+
+    /**
+     * The resynchronization of the {@link NrsFile}s requested by the peers, one at a time.
+     */
+    private ExecutorService resyncExecutor;
+
+    /**
+     * The replication of the new blocks, if the keys are offered first to the peers.
+     */
+    private volatile NrsIbsReplicator ibsReplicator;
+
+    /**
+     * Compress the blocks sent to the peers.
+     */
+    private volatile boolean ibsCompression;
+
+    /**
+     * Statistics on the stages of the write requests of the devices.
+     */
+    private final IoStageStats ioStageStats = new IoStageStats();
+
     /**
      * The flag indicating the operation mode.
      */
@@ -259,6 +311,27 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         this.ibsInstance = IbsFactory.openIbs(targetIbsConfigFile);
         this.ibsInstance.start();
 
+        // Starts the executor shared by the devices
+        this.ioExecutor = new VvrIoExecutor(getUuid().toString(), Math.max(2, Runtime.getRuntime()
+                .availableProcessors()));
+
+        // Resynchronizes the NrsFiles when some updates have been dropped by a peer
+        final String resyncName = "NrsResync-" + getUuid();
+        this.resyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public final Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, resyncName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Starts the replication of the new blocks
+        this.ibsCompression = isReplicationCompressionEnabled();
+        if (isReplicationDedupEnabled()) {
+            this.ibsReplicator = new NrsIbsReplicator(this);
+        }
+
         this.initialized = true;
     }
 
@@ -279,6 +352,27 @@ public final class NrsRepository extends AbstractRepositoryImpl {
             this.stop(false);
         }
 
+        if (this.ibsReplicator != null) {
+            try {
+                this.ibsReplicator.shutdown();
+            }
+            catch (final Throwable t) {
+                LOGGER.warn("Error while stopping IBS replication", t);
+            }
+            this.ibsReplicator = null;
+        }
+
+        try {
+            this.ioExecutor.shutdown();
+        }
+        catch (final Throwable t) {
+            LOGGER.warn("Error while stopping IO executor", t);
+        }
+        this.ioExecutor = null;
+
+        this.resyncExecutor.shutdownNow();
+        this.resyncExecutor = null;
+
         try {
             this.ibsInstance.stop();
         }
@@ -490,6 +584,7 @@ public final class NrsRepository extends AbstractRepositoryImpl {
 
         // Stores Nrs hierarchy and snapshots
         this.parents.put(nrsFileId, parentFileId);
+        invalidateAncestorChains();
 
         if (this.snapshots.containsKey(snapshotId)) {
             return;
@@ -534,6 +629,7 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         for (final NrsDevice device : devices.values()) {
             device.resetParent();
         }
+        invalidateAncestorChains();
 
         // Notify delete
         final ItemDeletedEvent event = new ItemDeletedEvent(this, snapshotId, Snapshot.class);
@@ -562,6 +658,7 @@ public final class NrsRepository extends AbstractRepositoryImpl {
 
         this.devices.put(newDevice.getUuid(), newDevice);
         this.parents.put(newDevice.getNrsFileId(), newDevice.getParentFile());
+        invalidateAncestorChains();
 
         // Notify addition
         final ItemCreatedEvent event = new ItemCreatedEvent(this, newDevice);
@@ -592,6 +689,24 @@ public final class NrsRepository extends AbstractRepositoryImpl {
 
         assert prevNrsFileUuid.equals(header.getParentId());
         this.parents.put(header.getFileId(), header.getParentId());
+        invalidateAncestorChains();
+    }
+
+    /**
+     * Gets the current version of the NrsFile hierarchy. A {@link NrsAncestorChain} built for an older version must not
+     * be used anymore.
+     * 
+     * @return the current version of the hierarchy.
+     */
+    final long getAncestorChainVersion() {
+        return ancestorChainVersion.get();
+    }
+
+    /**
+     * Invalidates the {@link NrsAncestorChain}s: the hierarchy or the contents of some snapshots have changed.
+     */
+    final void invalidateAncestorChains() {
+        ancestorChainVersion.incrementAndGet();
     }
 
     /**
@@ -603,6 +718,124 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         return this.ibsInstance;
     }
 
+    /**
+     * Create a new queue in the IO executor for the IO tasks of a device.
+     * 
+     * @return a new IO queue, bounded according to the configured {@link IoConcurrencyConfigKey}
+     */
+    final VvrIoExecutor.DeviceQueue newIoQueue() {
+        final VvrIoExecutor executor = this.ioExecutor;
+        if (executor == null) {
+            throw new IllegalStateException("Repository not initialized");
+        }
+        return executor.newDeviceQueue(IoConcurrencyConfigKey.getInstance().getTypedValue(getConfiguration())
+                .intValue());
+    }
+
+    /**
+     * Gets the statistics on the stages of the write requests of the devices of the repository: hashing of the blocks,
+     * storage of the blocks and write of the keys.
+     * 
+     * @return the statistics of the repository
+     */
+    public final IoStageStats getIoStageStats() {
+        return ioStageStats;
+    }
+
+    /**
+     * Tells if the blocks filled with zeros are detected on write, according to the configured
+     * {@link ZeroBlockDetectionConfigKey}.
+     * 
+     * @return <code>true</code> if the zero blocks are recorded as trimmed
+     */
+    final boolean isZeroBlockDetectionEnabled() {
+        return ZeroBlockDetectionConfigKey.getInstance().getTypedValue(getConfiguration()).booleanValue();
+    }
+
+    /**
+     * Tells if the keys of the new blocks are offered to the peers before the replication of their contents, according
+     * to the configured {@link ReplicationDedupConfigKey}.
+     * 
+     * @return <code>true</code> if the contents of the blocks are sent only to the peers missing them
+     */
+    final boolean isReplicationDedupEnabled() {
+        return ReplicationDedupConfigKey.getInstance().getTypedValue(getConfiguration()).booleanValue();
+    }
+
+    /**
+     * Tells if the contents of the blocks and of the clusters sent to the peers are compressed, according to the
+     * configured {@link ReplicationCompressionConfigKey}.
+     * 
+     * @return <code>true</code> if the contents sent to the peers are compressed
+     */
+    final boolean isReplicationCompressionEnabled() {
+        return ReplicationCompressionConfigKey.getInstance().getTypedValue(getConfiguration()).booleanValue();
+    }
+
+    /**
+     * Replicates new blocks and notifies the blocks stored again to the peers.
+     * 
+     * @param opBuilder
+     *            the {@link VvrRemote.Ibs} to replicate
+     */
+    final void replicateIbs(@Nonnull final RemoteOperation.Builder opBuilder) {
+        final NrsIbsReplicator replicator = this.ibsReplicator;
+        if (replicator == null) {
+            pushIbs(opBuilder, null);
+        }
+        else {
+            replicator.replicate(opBuilder);
+        }
+    }
+
+    /**
+     * Gets the peers currently connected.
+     * 
+     * @return the connected peers, empty in stand alone mode
+     */
+    final List<UUID> getConnectedPeers() {
+        final MsgClientStartpoint clientStartpoint = getMsgClientStartpoint();
+        if (clientStartpoint == null) {
+            return Collections.emptyList();
+        }
+        final MsgClientPeerAdm[] peers = clientStartpoint.getPeers();
+        final List<UUID> result = new ArrayList<>(peers.length);
+        for (int i = 0; i < peers.length; i++) {
+            if (peers[i].isConnected()) {
+                result.add(UUID.fromString(peers[i].getUuid()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends the blocks and their contents, if any, asynchronously to all the peers or synchronously to the given peer.
+     * 
+     * @param opBuilder
+     *            the {@link VvrRemote.Ibs} to send
+     * @param peer
+     *            the destination node or <code>null</code> to send the blocks to all the peers
+     */
+    final void pushIbs(@Nonnull final RemoteOperation.Builder opBuilder, final UUID peer) {
+        try {
+            if (ibsCompression) {
+                for (int i = 0; i < opBuilder.getIbsCount(); i++) {
+                    final VvrRemote.Ibs ibs = opBuilder.getIbs(i);
+                    if (ibs.hasValue()) {
+                        final ByteString compressed = IBS_COMPRESSOR.compress(ibs.getValue().asReadOnlyByteBuffer());
+                        if (compressed != null) {
+                            opBuilder.setIbs(i, ibs.toBuilder().clearValue().setDeflatedValue(compressed));
+                        }
+                    }
+                }
+            }
+            sendMessage(opBuilder, Type.IBS, OpCode.SET, peer == null, peer);
+        }
+        catch (final Throwable t) {
+            LOGGER.warn("Failed to send blocks to " + (peer == null ? "peers" : peer.toString()), t);
+        }
+    }
+
     /**
      * Gets the {@link #hashLength} value.
      * 
@@ -644,6 +877,16 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         return super.sendMessage(opBuilder, type, opCode, async, peer);
     }
 
+    /**
+     * Expose method locally to send remote requests on Nrs objects.
+     */
+    @Override
+    protected final ListenableFuture<Collection<MsgServerRemoteStatus>> sendRequest(
+            final RemoteOperation.Builder opBuilder, final Type type, final OpCode opCode, final UUID peer)
+            throws IllegalArgumentException {
+        return super.sendRequest(opBuilder, type, opCode, peer);
+    }
+
     /**
      * Expose method locally to submit transactions.
      * 
@@ -685,6 +928,28 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         }
     }
 
+    @Override
+    public final void requestPeerResync(final UUID node) {
+        final RemoteOperation.Builder opBuilder = RemoteOperation.newBuilder();
+        final ListenableFuture<Collection<MsgServerRemoteStatus>> future = sendRequest(opBuilder, Type.NRS,
+                OpCode.UPDATE, node);
+        if (future == null) {
+            // Stand alone mode
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<Collection<MsgServerRemoteStatus>>() {
+            @Override
+            public final void onSuccess(final Collection<MsgServerRemoteStatus> result) {
+                LOGGER.info("Resynchronization of " + getUuid() + " requested to '" + node + "'");
+            }
+
+            @Override
+            public final void onFailure(final Throwable t) {
+                LOGGER.warn("Failed to request the resynchronization of " + getUuid() + " to '" + node + "'", t);
+            }
+        });
+    }
+
     private final void handleMsgVvr(final RemoteOperation op) {
         final OpCode opCode = op.getOp();
         if (opCode == OpCode.SET) {
@@ -855,11 +1120,16 @@ public final class NrsRepository extends AbstractRepositoryImpl {
                 // Write updates in NrsFile
                 final NrsFileUpdate nrsFileUpdate = op.getNrsFileUpdate();
                 final NrsFile nrsFile = nrsFileJanitor.openNrsFile(uuid, false);
+                final long l2AllocationStamp = nrsFile.getL2AllocationStamp();
                 try {
                     nrsFile.handleNrsFileUpdate(nrsFileUpdate);
                 }
                 finally {
                     nrsFileJanitor.unlockNrsFile(nrsFile);
+                    // New L2 tables in a snapshot: may change the lookup of keys in the ancestors
+                    if (l2AllocationStamp != nrsFile.getL2AllocationStamp() && nrsToSnapshot.containsKey(uuid)) {
+                        invalidateAncestorChains();
+                    }
                 }
             }
             else if (opCode == OpCode.LIST) {
@@ -870,9 +1140,15 @@ public final class NrsRepository extends AbstractRepositoryImpl {
                 return createMessageReply(opBuilder, Type.NRS, OpCode.LIST);
             }
             else if (opCode == OpCode.UPDATE) {
+                final UUID node = VvrRemoteUtils.fromUuid(op.getSource());
+                if (!op.hasNrsFileMapping()) {
+                    // Some updates sent by the node have been dropped
+                    scheduleResync(node);
+                    return null;
+                }
+
                 final UuidT<NrsFile> uuid = VvrRemoteUtils.fromUuidT(op.getUuid());
                 final NrsFileMapping mapping = op.getNrsFileMapping();
-                final UUID node = VvrRemoteUtils.fromUuid(op.getSource());
 
                 // Open the file read-only, but do not lock it (may be in use)
                 final NrsFile nrsFile = nrsFileJanitor.openNrsFile(uuid, true);
@@ -903,7 +1179,10 @@ public final class NrsRepository extends AbstractRepositoryImpl {
 
                     // Has value?
                     final ByteBuffer value;
-                    if (ibsMsg.hasValue()) {
+                    if (ibsMsg.hasDeflatedValue()) {
+                        value = IBS_COMPRESSOR.decompress(ibsMsg.getDeflatedValue(), blockSize);
+                    }
+                    else if (ibsMsg.hasValue()) {
                         final byte[] valueArray = ibsMsg.getValue().toByteArray();
                         value = ByteBuffer.wrap(valueArray);
                     }
@@ -942,12 +1221,43 @@ public final class NrsRepository extends AbstractRepositoryImpl {
                 final VvrRemote.Ibs.Builder replyIbsBuilder = VvrRemote.Ibs.newBuilder();
                 if (result != null) {
                     result.rewind();
-                    replyIbsBuilder.setValue(ByteString.copyFrom(result));
+                    final ByteString compressed = ibsCompression ? IBS_COMPRESSOR.compress(result) : null;
+                    if (compressed == null) {
+                        replyIbsBuilder.setValue(ByteString.copyFrom(result));
+                    }
+                    else {
+                        replyIbsBuilder.setDeflatedValue(compressed);
+                    }
                 }
                 final RemoteOperation.Builder opBuilder = RemoteOperation.newBuilder();
                 opBuilder.addIbs(replyIbsBuilder);
                 return createMessageReply(opBuilder, Type.IBS, OpCode.GET);
             }
+            else if (opCode == OpCode.LIST) {
+                // Offer of blocks: notify the blocks already stored and reply the keys of the missing ones
+                final RemoteOperation.Builder opBuilder = RemoteOperation.newBuilder();
+                for (final VvrRemote.Ibs ibsMsg : op.getIbsList()) {
+                    final byte[] key = ibsMsg.getKey().toByteArray();
+                    try {
+                        if (ibsMsg.hasKeyOld()) {
+                            final byte[] oldKey = ibsMsg.getKeyOld().toByteArray();
+                            ibsInstance.replace(oldKey, key, null);
+                        }
+                        else {
+                            ibsInstance.put(key, (ByteBuffer) null);
+                        }
+                    }
+                    catch (final IbsIOException e) {
+                        if (e.getErrorCode() == IbsErrorCode.NOT_FOUND) {
+                            opBuilder.addIbs(VvrRemote.Ibs.newBuilder().setKey(ibsMsg.getKey()));
+                        }
+                        else {
+                            throw e;
+                        }
+                    }
+                }
+                return createMessageReply(opBuilder, Type.IBS, OpCode.LIST);
+            }
         }
         catch (final Exception e) {
             LOGGER.warn("Failed to update IBS", e);
@@ -1376,7 +1686,8 @@ public final class NrsRepository extends AbstractRepositoryImpl {
 
     private final void initNrsTree() throws NrsException {
         // Initialize Nrs
-        nrsFileJanitor.setClientStartpoint(getMsgClientStartpoint(), nrsMsgEnhancer);
+        nrsFileJanitor.setClientStartpoint(getMsgClientStartpoint(), nrsMsgEnhancer,
+                isReplicationCompressionEnabled());
         nrsFileJanitor.init();
 
         // Reset previous objects
@@ -1839,7 +2150,26 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         else {
             peer = nodeUuid;
         }
+        return updateNrsFile(nrsFile, peer, nrsVersion);
+    }
 
+    /**
+     * Update a file from the contents of the given peer.
+     * 
+     * @param nrsFile
+     *            the {@link NrsFile} to update
+     * @param peer
+     *            remote node sending the contents
+     * @param nrsVersion
+     *            version information, to restore the write status of the file
+     * @return <code>true</code> if the update of the file was aborted
+     * @throws IOException
+     * @throws IllegalStateException
+     * @throws InterruptedException
+     * @throws MsgServerTimeoutException
+     */
+    private final boolean updateNrsFile(final NrsFile nrsFile, final UUID peer, final NrsVersion nrsVersion)
+            throws IllegalStateException, IOException, MsgServerTimeoutException, InterruptedException {
         final boolean aborted;
         nrsFileJanitor.prepareNrsFileUpdate(nrsFile, nrsVersion);
         try {
@@ -1850,10 +2180,43 @@ public final class NrsRepository extends AbstractRepositoryImpl {
         }
         finally {
             aborted = nrsFileJanitor.endNrsFileUpdate(nrsFile, nrsVersion);
+            invalidateAncestorChains();
         }
         return aborted;
     }
 
+    /**
+     * Resynchronizes the writable {@link NrsFile}s from the given peer, in the background.
+     * 
+     * @param node
+     *            the peer that dropped some updates
+     */
+    private final void scheduleResync(final UUID node) {
+        resyncExecutor.execute(new Runnable() {
+            @Override
+            public final void run() {
+                try {
+                    final List<NrsVersion> localVersions = listNrsFiles();
+                    for (int i = 0; i < localVersions.size(); i++) {
+                        final NrsVersion nrsVersion = localVersions.get(i);
+                        // The read-only files are not updated
+                        if (nrsVersion.getWritable()) {
+                            final UuidT<NrsFile> nrsFileUuid = VvrRemoteUtils.fromUuidT(nrsVersion.getUuid());
+                            updateNrsFile(nrsFileJanitor.loadNrsFile(nrsFileUuid), node, nrsVersion);
+                        }
+                    }
+                    LOGGER.info("NrsFiles of " + getUuid() + " resynchronized from '" + node + "'");
+                }
+                catch (final InterruptedException e) {
+                    LOGGER.warn("Resynchronization of " + getUuid() + " from '" + node + "' interrupted");
+                }
+                catch (final Exception e) {
+                    LOGGER.warn("Failed to resynchronize " + getUuid() + " from '" + node + "'", e);
+                }
+            }
+        });
+    }
+
     @Override
     public final DtxTaskInfo createTaskInfo(final byte[] payload) {
         try {
@@ -44,6 +44,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -93,6 +94,9 @@ abstract class NrsVvrItem extends AbstractUniqueVvrObject implements VvrItem {
     /** The UUID of the 'existing' parent snapshot. Lazy init */
     private volatile UUID parentUuid;
 
+    /** The ancestors of the {@link NrsFile}, to look for the blocks not present in the file. Lazy init */
+    private volatile NrsAncestorChain ancestorChain;
+
     /**
      * Internal builder constructor to be invoked by subclass builders.
      *
@@ -236,8 +240,9 @@ abstract class NrsVvrItem extends AbstractUniqueVvrObject implements VvrItem {
             final UuidT<NrsFile> prevNrsFileUuid = nrsFile.getDescriptor().getFileId();
             final NrsFile nrsFileTmp = nrsFileJanitor.createNrsFile(nrsFileHeader);
 
-            // Clear 'old' parentUuid
+            // Clear 'old' parentUuid and ancestors
             resetParent();
+            ancestorChain = null;
             nrsFile = nrsFileTmp;
             vvr.registerNrsFile(prevNrsFileUuid, nrsFile);
         }
@@ -452,7 +457,7 @@ abstract class NrsVvrItem extends AbstractUniqueVvrObject implements VvrItem {
     }
 
     final Object readHash(final long blockIndex, final boolean recursive, final boolean ex) throws IOException {
-        byte[] result = nrsFile.read(blockIndex);
+        final byte[] result = nrsFile.read(blockIndex);
         if (result != null) {
             if (ex) {
                 return new NrsBlockKeyLookupEx(result, nrsFile);
@@ -462,63 +467,52 @@ abstract class NrsVvrItem extends AbstractUniqueVvrObject implements VvrItem {
             }
         }
 
-        UUID nodeSrc = null;
-        NrsFile fileSrc = null;
-        if (result == null && recursive && isPartial()) {
-            final NrsFileJanitor nrsFileJanitor = getVvr().getNrsFileJanitor();
-            UuidT<NrsFile> parentUuid = getParentFile();
-            boolean partial = true;
-            while (partial) {
-
-                // Get parent file
-                final NrsFile parent = nrsFileJanitor.loadNrsFile(parentUuid);
-                final NrsFileHeader<NrsFile> header = parent.getDescriptor();
-
-                // No need to try to access to the root snapshot (is empty)
-                if (header.isRoot()) {
-                    break;
-                }
-
-                try {
-                    final NrsFile parentOpened = nrsFileJanitor.openNrsFile(parentUuid, true);
-                    try {
-                        result = parentOpened.read(blockIndex);
-                    }
-                    finally {
-                        nrsFileJanitor.unlockNrsFile(parentOpened);
-                    }
-
-                    // Key found: keep the node on which the file was filled
-                    if (result != null) {
-                        fileSrc = parentOpened;
-                        nodeSrc = parentOpened.getDescriptor().getNodeId();
-                        break;
-                    }
-                }
-                catch (final IndexOutOfBoundsException ie) {
-                    LOGGER.debug("Read offset out of parent range");
-                    // TODO: improve reading out of parent limits
-                    break;
-                }
-
-                // Upper level
-                parentUuid = header.getParentId();
-                partial = header.isPartial();
-            }
+        // Look in the ancestors
+        if (recursive && isPartial()) {
+            return getAncestorChain().readHash(getVvr().getNrsFileJanitor(), blockIndex, ex);
         }
+        return null;
+    }
 
-        // Not found, recursive or not
-        if (result == null) {
-            return null;
-        }
+    /**
+     * Gets the blocks of a range that have a key, in the item or in its ancestors. The state of the blocks is read from
+     * the headers of the records of the L2 tables, without any lookup of the keys. A block trimmed in the item or in
+     * the nearest ancestor containing it has no key.
+     * 
+     * @param firstBlock
+     *            the index of the first block
+     * @param count
+     *            the number of blocks
+     * @return the blocks having a key. Bit <code>i</code> is set for the block <code>firstBlock + i</code>
+     * @throws IOException
+     */
+    final BitSet getAllocatedBlocks(final long firstBlock, final int count) throws IOException {
+        final BitSet resolved = new BitSet(count);
+        final BitSet trimmed = new BitSet(count);
+        nrsFile.readStates(firstBlock, count, resolved, trimmed);
 
-        // Found, recursive only
-        if (ex) {
-            return new NrsBlockKeyLookupEx(result, fileSrc, nodeSrc);
+        // Look in the ancestors
+        if (isPartial() && resolved.cardinality() < count) {
+            getAncestorChain().readStates(getVvr().getNrsFileJanitor(), firstBlock, count, resolved, trimmed);
         }
-        else {
-            return result;
+        resolved.andNot(trimmed);
+        return resolved;
+    }
+
+    /**
+     * Gets the chain of the ancestors of the item, built again if the hierarchy of the repository has changed.
+     *
+     * @return the chain of the ancestors, up to date
+     * @throws IOException
+     */
+    private final NrsAncestorChain getAncestorChain() throws IOException {
+        final long version = vvr.getAncestorChainVersion();
+        NrsAncestorChain chain = ancestorChain;
+        if (chain == null || chain.getVersion() != version) {
+            chain = NrsAncestorChain.build(version, vvr.getNrsFileJanitor(), getParentFile());
+            ancestorChain = chain;
         }
+        return chain;
     }
 
     /**
@@ -534,6 +528,19 @@ abstract class NrsVvrItem extends AbstractUniqueVvrObject implements VvrItem {
         nrsFile.write(blockIndex, blockHash);
     }
 
+    /**
+     * Writes the hashes of a range of blocks to the internal block mapping.
+     *
+     * @param firstBlock
+     *            index of the first block to write
+     * @param blockHashes
+     *            the hash values to write
+     * @throws IOException
+     */
+    final void writeBlockHashes(final long firstBlock, final byte[][] blockHashes) throws IOException {
+        nrsFile.writeRange(firstBlock, blockHashes);
+    }
+
     /**
      * Release the block written at the given index. Does nothing if the block is not allocated.
      *
@@ -554,6 +561,15 @@ abstract class NrsVvrItem extends AbstractUniqueVvrObject implements VvrItem {
         nrsFile.trim(blockIndex);
     }
 
+    /**
+     * Writes the hashes of the blocks to stable storage.
+     *
+     * @throws IOException
+     */
+    final void syncBlockHashes() throws IOException {
+        nrsFile.sync();
+    }
+
     /**
      * Gets the parent {@link NrsFile}.
      *
@@ -44,6 +44,8 @@ import javax.annotation.Nonnull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import com.google.protobuf.InvalidProtocolBufferException;
 
 /**
@@ -186,6 +188,49 @@ public final class VvrRemoteUtils {
         }
     }
 
+    /**
+     * Sends a {@link VvrRemote} request to the given destinations, without waiting for the replies. The source, type
+     * and opCode are filled. Nothing is sent if <code>startpoint</code> is <code>null</code>. The request is sent on
+     * the main channel of the peers: cancelling the future removes it from the send queues.
+     * 
+     * @param opBuilder
+     *            message builder
+     * @param startpoint
+     *            message destination
+     * @param source
+     *            message source
+     * @param type
+     *            type of object
+     * @param opCode
+     *            operation on object
+     * @param peer
+     *            the destination node or <code>null</code> to send the request to all the peers
+     * @return the future statuses of the peers or <code>null</code> in stand alone mode
+     * @throws IllegalArgumentException
+     *             if <code>peer</code> is not a known node
+     */
+    public static final ListenableFuture<Collection<MsgServerRemoteStatus>> sendRequest(
+            final RemoteOperation.Builder opBuilder, final MsgClientStartpoint startpoint, final Uuid source,
+            final Type type, final OpCode opCode, final UUID peer) throws IllegalArgumentException {
+        // Stand alone?
+        if (startpoint == null) {
+            return null;
+        }
+
+        // Source is immutable, no need to make a defensive copy
+        opBuilder.setVersion(ProtocolVersion.VERSION_1);
+        opBuilder.setSource(Objects.requireNonNull(source));
+        opBuilder.setType(type);
+        opBuilder.setOp(opCode);
+        final RemoteOperation operation = opBuilder.build();
+        if (peer == null) {
+            return startpoint.sendRequest(operation, startpoint.getTimeout());
+        }
+        else {
+            return startpoint.sendRequest(peer, operation, startpoint.getTimeout());
+        }
+    }
+
     /**
      * Submit a {@link VvrRemote} message to the given destinations as a transaction. The source, type and opCode are
      * filled.
@@ -26,6 +26,7 @@ import io.eguan.proto.vvr.VvrRemote;
 import io.eguan.vvr.repository.core.api.Device.ReadWriteHandle;
 
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.UUID;
 import java.util.concurrent.locks.Lock;
 
@@ -75,6 +76,19 @@ public abstract class AbstractDeviceImplHelper {
      */
     protected abstract BlockKeyLookupEx lookupBlockKeyEx(long blockIndex, boolean recursive) throws IOException;
 
+    /**
+     * Gets the blocks of a range that have a key, in the device or in its parents, from the allocation state of the
+     * block keys, without looking up every key.
+     *
+     * @param firstBlock
+     *            the index of the first block
+     * @param count
+     *            the number of blocks
+     * @return the blocks having a key. Bit <code>i</code> is set for the block <code>firstBlock + i</code>
+     * @throws IOException
+     */
+    protected abstract BitSet getAllocatedBlocks(long firstBlock, int count) throws IOException;
+
     /**
      * Stores the given key for the block.
      *
@@ -84,6 +98,17 @@ public abstract class AbstractDeviceImplHelper {
      */
     protected abstract void writeBlockKey(long blockIndex, byte[] key) throws IOException;
 
+    /**
+     * Stores the keys of a range of contiguous blocks.
+     *
+     * @param firstBlock
+     *            index of the first block
+     * @param keys
+     *            the keys of the blocks, from <code>firstBlock</code>
+     * @throws IOException
+     */
+    protected abstract void writeBlockKeys(long firstBlock, byte[][] keys) throws IOException;
+
     /**
      * Reset the key for the block. Does nothing if there is no block written at the given position.
      *
@@ -100,6 +125,13 @@ public abstract class AbstractDeviceImplHelper {
      */
     protected abstract void trimBlockKey(long blockIndex) throws IOException;
 
+    /**
+     * Writes the keys of the blocks of the device to stable storage.
+     *
+     * @throws IOException
+     */
+    protected abstract void syncBlockKeys() throws IOException;
+
     /**
      * Lock to acquire to perform a read/write operation on the device.
      *
@@ -107,6 +139,27 @@ public abstract class AbstractDeviceImplHelper {
      */
     protected abstract Lock getIoLock();
 
+    /**
+     * Create a new queue in the IO executor of the VVR, to run the IO tasks of a {@link ReadWriteHandle}.
+     *
+     * @return a new IO queue
+     */
+    protected abstract VvrIoExecutor.DeviceQueue newIoQueue();
+
+    /**
+     * Gets the statistics on the stages of the write requests of the device.
+     *
+     * @return the statistics to update
+     */
+    protected abstract IoStageStats getIoStageStats();
+
+    /**
+     * Tells if the blocks filled with zeros must be detected on write and recorded as trimmed.
+     *
+     * @return <code>true</code> if the zero blocks are not stored
+     */
+    protected abstract boolean isZeroBlockDetectionEnabled();
+
     /**
      * Notify the IOs made to some peers.
      *
@@ -57,6 +57,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
 
@@ -245,6 +246,27 @@ public abstract class AbstractRepositoryImpl extends AbstractUniqueVvrObject imp
         return VvrRemoteUtils.sendMessage(opBuilder, syncClientRef.get(), msgSource, type, opCode, async, peer);
     }
 
+    /**
+     * Sends a request to the peers without waiting for the replies.
+     * 
+     * @param opBuilder
+     * @param type
+     * @param opCode
+     * @param peer
+     *            the destination node or <code>null</code> to send the request to all the peers
+     * @return the future statuses of the peers or <code>null</code> in stand alone mode
+     * @throws IllegalArgumentException
+     *             if <code>peer</code> is not a known node
+     */
+    protected ListenableFuture<Collection<MsgServerRemoteStatus>> sendRequest(final RemoteOperation.Builder opBuilder,
+            final Type type, final OpCode opCode, final UUID peer) throws IllegalArgumentException {
+        opBuilder.setVvr(vvrUuid);
+        if (type == Type.VVR) {
+            opBuilder.setUuid(vvrUuid);
+        }
+        return VvrRemoteUtils.sendRequest(opBuilder, syncClientRef.get(), msgSource, type, opCode, peer);
+    }
+
     /**
      * Create the reply for a remote message.
      * 
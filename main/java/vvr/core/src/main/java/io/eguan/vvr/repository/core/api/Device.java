@@ -22,12 +22,15 @@ package io.eguan.vvr.repository.core.api;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.UUID;
 import java.util.concurrent.Future;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Class representing an active device accepting both read and write requests.
  * 
@@ -276,6 +279,48 @@ public interface Device extends VvrItem {
         void write(@Nonnull ByteBuffer source, @Nonnegative int sourceOffset, @Nonnegative int length,
                 @Nonnegative long devOffset) throws IOException;
 
+        /**
+         * Reads bytes from storage to the passed {@link ByteBuffer} without waiting for the completion of the read.
+         * The position of the buffer is not changed. The contents of the buffer must not be accessed until the
+         * returned future is done.
+         * 
+         * @param destination
+         *            the {@link ByteBuffer} into which the data will be copied
+         * @param destinationOffset
+         *            the offset in bytes at which to write to the destination
+         * @param length
+         *            the number of bytes to copy
+         * @param devOffset
+         *            the position of the first byte on the device to be read
+         * @return a future done when the data is read. Fails with an {@link IOException} if the operation cannot be
+         *         completed for any reason
+         * @throws NullPointerException
+         *             if <code>destination</code> is <code>null</code>
+         */
+        ListenableFuture<Void> readAsync(@Nonnull ByteBuffer destination, @Nonnegative int destinationOffset,
+                @Nonnegative int length, @Nonnegative long devOffset);
+
+        /**
+         * Writes part of the passed {@link ByteBuffer}'s content without waiting for the completion of the write. The
+         * position of the buffer is not changed. The contents of the buffer must not be modified until the returned
+         * future is done.
+         * 
+         * @param source
+         *            the source of the data to be stored
+         * @param sourceOffset
+         *            the offset in bytes from which to read in the source
+         * @param length
+         *            the number of bytes to be copied
+         * @param devOffset
+         *            byte offset in the storage area
+         * @return a future done when the data is written. Fails with an {@link IOException} if the operation cannot
+         *         be completed for any reason
+         * @throws NullPointerException
+         *             if <code>source</code> is <code>null</code>
+         */
+        ListenableFuture<Void> writeAsync(@Nonnull ByteBuffer source, @Nonnegative int sourceOffset,
+                @Nonnegative int length, @Nonnegative long devOffset);
+
         /**
          * Trim bytes from storage.
          * 
@@ -286,6 +331,43 @@ public interface Device extends VvrItem {
          */
         void trim(@Nonnegative long length, @Nonnegative long devOffset);
 
+        /**
+         * Writes zeros to storage, without transferring any data. The whole blocks of the range are recorded as
+         * trimmed, unless they must hide the contents of a parent of the item. The parts of blocks at the edges of the
+         * range are filled with zeros.
+         * 
+         * @param length
+         *            the number of bytes to set to zero
+         * @param devOffset
+         *            the offset in byte to write in the destination
+         * @throws IOException
+         *             if the operation cannot be completed for any reason
+         */
+        void writeZeroes(@Nonnegative long length, @Nonnegative long devOffset) throws IOException;
+
+        /**
+         * Writes the changes made to the item to stable storage: the completed writes are not lost on a crash of the
+         * node.
+         * 
+         * @throws IOException
+         *             if the operation cannot be completed for any reason
+         */
+        void flush() throws IOException;
+
+        /**
+         * Tells which blocks of a range contain data. The other blocks have never been written or have been trimmed:
+         * they are read as zeros. The parents of the item are taken into account.
+         * 
+         * @param firstBlock
+         *            index of the first block of the range
+         * @param count
+         *            number of blocks of the range
+         * @return the set of the allocated blocks, indexed from <code>firstBlock</code>
+         * @throws IOException
+         *             if the range is out of the item or if the lookup fails
+         */
+        BitSet getAllocatedBlocks(@Nonnegative long firstBlock, @Nonnegative int count) throws IOException;
+
         /**
          * Closes the {@link ReadWriteHandle}.
          */
@@ -27,23 +27,25 @@ import io.eguan.ibs.IbsException;
 import io.eguan.nrs.NrsFile;
 import io.eguan.proto.vvr.VvrRemote;
 import io.eguan.utils.ByteBufferCache;
+import io.eguan.utils.ByteBuffers;
 import io.eguan.vvr.repository.core.api.Device.ReadWriteHandle;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -55,6 +57,10 @@ import javax.annotation.concurrent.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 /**
  * Reference implementation of a {@link ReadWriteHandle}. Utility class for the {@link Device} implementations.
  * 
@@ -72,6 +78,18 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         /** Write */
         WRITE,
         /** Trim */
+        TRIM,
+        /** Write zeros, without data */
+        ZERO;
+    }
+
+    /** Handling of the write of a block */
+    enum ZeroBlockAction {
+        /** Not a block of zeros: the block is stored */
+        STORE,
+        /** Block of zeros, already read as zeros: nothing to do */
+        SKIP,
+        /** Block of zeros: the block is trimmed */
         TRIM;
     }
 
@@ -97,6 +115,10 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         /** Optional builder for the peer notification of block changes */
         @GuardedBy(value = "blockOpBuilder")
         protected VvrRemote.RemoteOperation.Builder blockOpBuilder;
+        /** Optional keys of the blocks of the request, written at once at the end of the request */
+        protected byte[][] newKeys;
+        /** Index of the key of the block in newKeys */
+        protected int newKeyIndex;
 
         IoTask(final ByteBuffer data, final int dataOffset, final IoTaskOpe ope, final long blockIndex,
                 final boolean singleTask) {
@@ -116,13 +138,20 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             this.blockOpBuilder = blockOpBuilder;
         }
 
+        final void setNewKeys(final byte[][] newKeys, final int newKeyIndex) {
+            this.newKeys = newKeys;
+            this.newKeyIndex = newKeyIndex;
+        }
+
         /**
-         * Write the given to data. The position and the limit of the buffer must be set in the source.
+         * Write the given to data. The position and the limit of the buffer must be set in the source. The copy is
+         * recorded in the read statistics.
          * 
          * @param source
          *            data to read.
          */
         final void writeToData(final ByteBuffer source) {
+            deviceImplHelper.getIoStageStats().recordBytesCopied(source.remaining());
             data.position(dataOffset);
             data.limit(dataOffset + source.remaining());
             data.put(source);
@@ -161,33 +190,120 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
      */
     private final class FullIoTask extends IoTask {
 
+        /** <code>true</code> when the previous key has been looked up and the block hashed by the hashing stage */
+        private boolean hashed;
+        /** Previous key of the block, set by the hashing stage */
+        private byte[] hashedOldKey;
+        /** Key of the new contents of the block, set by the hashing stage */
+        private byte[] hashedNewKey;
+        /** Handling of a block of zeros, set by the hashing stage */
+        private ZeroBlockAction zeroBlockAction = ZeroBlockAction.STORE;
+
         FullIoTask(final ByteBuffer data, final int dataOffset, final IoTaskOpe ope, final long blockIndex,
                 final boolean singleTask) {
             super(data, dataOffset, ope, blockIndex, singleTask);
         }
 
-        @Override
-        public final Void call() throws Exception {
-            // Look for the block, among parents for the read
-            final byte[] oldKey;
+        /**
+         * Hashing stage of a write: looks up the previous key of the block and computes the key of the new contents. A
+         * block of zeros is not hashed.
+         * 
+         * @return <code>true</code> if the contents of the block change
+         * @throws IOException
+         */
+        final boolean hashBlock() throws IOException {
+            assert ope == IoTaskOpe.WRITE;
+            hashedOldKey = lookupOldKey();
+            // Data is a duplicate: can hash from any thread
+            final ByteBuffer block = data.duplicate();
+            block.position(dataOffset);
+            block.limit(dataOffset + blockSize);
+            zeroBlockAction = getZeroBlockAction(block, dataOffset, blockIndex, hashedOldKey);
+            if (zeroBlockAction != ZeroBlockAction.STORE) {
+                hashed = true;
+                return zeroBlockAction == ZeroBlockAction.TRIM;
+            }
+            hashedNewKey = ByteBufferDigest.digest(hashAlgorithm, block);
+            hashed = true;
+            return !Arrays.equals(hashedOldKey, hashedNewKey);
+        }
+
+        /**
+         * Tells if the hashing stage has found a block of zeros.
+         * 
+         * @return <code>true</code> if the block is filled with zeros and will not be stored
+         */
+        final boolean isZeroBlock() {
+            return zeroBlockAction != ZeroBlockAction.STORE;
+        }
+
+        /**
+         * Gets the key of the new contents of the block, computed by the hashing stage.
+         * 
+         * @return the new key or <code>null</code> if the block has not been hashed yet
+         */
+        final byte[] getHashedNewKey() {
+            return hashedNewKey;
+        }
+
+        /**
+         * Look for the previous key of the block.
+         * 
+         * @return the key or <code>null</code>
+         * @throws IOException
+         */
+        private final byte[] lookupOldKey() throws IOException {
             if (ope == IoTaskOpe.WRITE && singleTask && !canReplaceOldKey()) {
                 // Single write and no replace: replace does not replace, so no need to look for the previous block
-                oldKey = null;
+                return null;
+            }
+            // Must save the old key in case of revert, no need for a recursive search for write
+            blockKeyLookupEx = lookupBlockKeyEx(blockIndex, ope == IoTaskOpe.READ);
+            if (blockKeyLookupEx == null) {
+                // Not found, still will have to reset key on revert
+                blockKeyLookupEx = BlockKeyLookupEx.NOT_FOUND;
+                return null;
+            }
+            assert ope == IoTaskOpe.READ || blockKeyLookupEx.isSourceCurrent();
+            return blockKeyLookupEx.getKey();
+        }
+
+        /**
+         * Sets the block to zero: the block is trimmed, unless it must hide the block of a parent. Nothing to do if the
+         * block is already read as zeros.
+         * 
+         * @throws IOException
+         */
+        private final void zeroBlock() throws IOException {
+            // Look among the parents too: may have to hide a block of a parent
+            blockKeyLookupEx = lookupBlockKeyEx(blockIndex, true);
+            if (blockKeyLookupEx == null) {
+                // Never written: already read as zeros. Still will have to reset key on revert
+                blockKeyLookupEx = BlockKeyLookupEx.NOT_FOUND;
+                return;
+            }
+            if (blockKeyLookupEx.getKey() == NrsFile.HASH_TRIMMED) {
+                return;
+            }
+            if (blockKeyLookupEx.isSourceCurrent()) {
+                trimBlock(blockIndex);
             }
             else {
-                // Must save the old key in case of revert, no need for a recursive search for write
-                blockKeyLookupEx = lookupBlockKeyEx(blockIndex, ope == IoTaskOpe.READ);
-                if (blockKeyLookupEx == null) {
-                    // Not found, still will have to reset key on revert
-                    blockKeyLookupEx = BlockKeyLookupEx.NOT_FOUND;
-                    oldKey = null;
-                }
-                else {
-                    oldKey = blockKeyLookupEx.getKey();
-                    assert ope == IoTaskOpe.READ || blockKeyLookupEx.isSourceCurrent();
-                }
+                // The trim of a block that is not allocated in the device is ignored: store a block of zeros
+                storeBlock(data, dataOffset, blockIndex, null, txId, blockOpBuilder, newKeys, newKeyIndex);
+            }
+        }
+
+        @Override
+        public final Void call() throws Exception {
+            if (ope == IoTaskOpe.ZERO) {
+                zeroBlock();
+                return null;
             }
 
+            // Look for the block, among parents for the read
+            final byte[] oldKey = hashed ? hashedOldKey : lookupOldKey();
+
             if (ope == IoTaskOpe.READ) {
                 if (oldKey == null || oldKey == NrsFile.HASH_TRIMMED) {
                     // Fill with 0
@@ -219,8 +335,19 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
                 }
             }
             else if (ope == IoTaskOpe.WRITE) {
-                // Write: store the new block
-                storeBlock(data, dataOffset, blockIndex, oldKey, txId, blockOpBuilder);
+                // Write: store the new block, hashed now or by the hashing stage of the request
+                if (hashed) {
+                    if (zeroBlockAction == ZeroBlockAction.TRIM) {
+                        trimBlock(blockIndex);
+                    }
+                    else if (zeroBlockAction == ZeroBlockAction.STORE) {
+                        storeHashedBlock(data, dataOffset, blockIndex, oldKey, hashedNewKey, txId, blockOpBuilder,
+                                newKeys, newKeyIndex);
+                    }
+                }
+                else {
+                    storeBlock(data, dataOffset, blockIndex, oldKey, txId, blockOpBuilder, newKeys, newKeyIndex);
+                }
             }
             else if (ope == IoTaskOpe.TRIM) {
                 // Trim the block
@@ -271,6 +398,11 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
                 oldKey = blockKeyLookupEx.getKey();
             }
 
+            if ((oldKey == null || oldKey == NrsFile.HASH_TRIMMED) && ope == IoTaskOpe.ZERO) {
+                // Already read as zeros
+                return null;
+            }
+
             if ((oldKey == null || oldKey == NrsFile.HASH_TRIMMED) && read) {
                 // Write 0 to caller buffer, can ignore ioBlkOffset
                 final ByteBuffer source = blockZero.duplicate();
@@ -308,7 +440,8 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
                     readFromData(prevBlock);
                     // Write the whole block. No replace if the oldKey is from a previous snapshot
                     storeBlock(prevBlock, 0, blockIndex, blockKeyLookupEx != null && blockKeyLookupEx.isSourceCurrent()
-                            && oldKey != NrsFile.HASH_TRIMMED ? oldKey : null, txId, blockOpBuilder);
+                            && oldKey != NrsFile.HASH_TRIMMED ? oldKey : null, txId, blockOpBuilder, newKeys,
+                            newKeyIndex);
                 }
             }
             finally {
@@ -375,19 +508,27 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             return ope == IoTaskOpe.TRIM;
         }
 
+        final boolean isZero() {
+            return ope == IoTaskOpe.ZERO;
+        }
+
         /**
          * Executes the {@link IoRequest}.
          * 
+         * @param inIoQueue
+         *            <code>true</code> if the current thread is running a task of the IO queue of the device
          * @throws IOException
          */
-        final void exec() throws IOException {
+        final void exec(final boolean inIoQueue) throws IOException {
 
             // Update block notifications (null for a read or a trim request)
-            final boolean write = isWrite();
+            final boolean write = isWrite() || isZero();
             final VvrRemote.RemoteOperation.Builder blockOpBuilder = write
                     && deviceReadWriteHandleImpl.needsBlockOpBuilder() ? VvrRemote.RemoteOperation.newBuilder() : null;
 
             final int txId = (write && ioTasks.size() > 1) ? deviceReadWriteHandleImpl.createBlockTransaction() : -1;
+            // Keys of a multiple blocks write, stored at once when all the blocks are written
+            final byte[][] newKeys = (write && ioTasks.size() > 1) ? new byte[ioTasks.size()][] : null;
             boolean done = false;
 
             // Ready to revert on any throwable
@@ -399,6 +540,8 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
                         final IoTask ioTask = ioTasks.get(i);
                         ioTask.setTxId(txId);
                         ioTask.setBlockOpBuilder(blockOpBuilder);
+                        // The tasks are sorted by block index
+                        ioTask.setNewKeys(newKeys, i);
                     }
                 }
 
@@ -414,42 +557,39 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
                         throw new IOException(e);
                     }
                 }
-                else if (SINGLE_THREADED) {
-                    // Single threaded IOs
-                    try {
-                        for (int i = ioTasks.size() - 1; i >= 0; i--) {
-                            final IoTask ioTask = ioTasks.get(i);
-                            ioTask.call();
-                        }
-                    }
-                    catch (final IOException e) {
-                        throw e;
-                    }
-                    catch (final Exception e) {
-                        throw new IOException(e);
+                else if (isWrite()) {
+                    final IoStageStats stats = deviceReadWriteHandleImpl.deviceImplHelper.getIoStageStats();
+
+                    // Hash the blocks, skip the blocks that do not change
+                    long start = System.nanoTime();
+                    final List<IoTask> storeTasks = hashBlocks(inIoQueue, stats);
+                    long end = System.nanoTime();
+                    stats.record(IoStageStats.IoStage.HASH, end - start);
+
+                    // Store the blocks
+                    if (!storeTasks.isEmpty()) {
+                        start = end;
+                        execAll(storeTasks, inIoQueue);
+                        end = System.nanoTime();
+                        stats.record(IoStageStats.IoStage.STORE, end - start);
                     }
+
+                    // Store the keys of the blocks
+                    start = end;
+                    deviceReadWriteHandleImpl.storeBlockKeys(ioTasks.get(0).blockIndex, newKeys);
+                    stats.record(IoStageStats.IoStage.KEYS, System.nanoTime() - start);
                 }
                 else {
-                    // Run all in the IO executor
-                    try {
-                        final List<Future<Void>> result = IO_EXEC.invokeAll(ioTasks);
+                    execAll(ioTasks, inIoQueue);
 
-                        // Get exceptions, if any
-                        for (int i = result.size() - 1; i >= 0; i--) {
-                            final Future<Void> future = result.get(i);
-                            try {
-                                future.get();
-                            }
-                            catch (final ExecutionException e) {
-                                // Create new exception to get the full stack (thread exec and current thread)
-                                throw new IOException(e.getCause());
-                            }
-                        }
-                    }
-                    catch (CancellationException | InterruptedException e) {
-                        throw new IOException(e);
+                    // Store the keys of the blocks of zeros hiding the blocks of a parent
+                    if (newKeys != null) {
+                        deviceReadWriteHandleImpl.storeBlockKeys(ioTasks.get(0).blockIndex, newKeys);
                     }
                 }
+                if (isRead()) {
+                    deviceReadWriteHandleImpl.deviceImplHelper.getIoStageStats().recordRead(length);
+                }
 
                 // Block: commit changes and notify peers
                 if (txId > 0) {
@@ -475,6 +615,205 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             }
         }
 
+        /**
+         * Hashing stage of a write request: looks up the previous keys and computes the keys of the full blocks of the
+         * request, in parallel. The partial blocks are hashed by their task, once the previous contents of the block
+         * are read.
+         * 
+         * @param inIoQueue
+         *            <code>true</code> if the current thread is running a task of the IO queue
+         * @param stats
+         *            statistics to update
+         * @return the tasks to run to store the blocks. The blocks that do not change are skipped.
+         * @throws IOException
+         */
+        private final List<IoTask> hashBlocks(final boolean inIoQueue, final IoStageStats stats) throws IOException {
+            final List<FullIoTask> fullTasks = new ArrayList<>(ioTasks.size());
+            for (int i = 0; i < ioTasks.size(); i++) {
+                final IoTask ioTask = ioTasks.get(i);
+                if (ioTask instanceof FullIoTask) {
+                    fullTasks.add((FullIoTask) ioTask);
+                }
+            }
+            final int fullCount = fullTasks.size();
+            if (fullCount == 0) {
+                return ioTasks;
+            }
+
+            // Hash the blocks by slices, one slice per thread
+            final boolean[] changed = new boolean[fullCount];
+            final int sliceCount = SINGLE_THREADED ? 1 : Math.min(fullCount, deviceReadWriteHandleImpl.ioQueue
+                    .getMaxConcurrency());
+            final List<Callable<Void>> slices = new ArrayList<>(sliceCount);
+            for (int i = 0; i < sliceCount; i++) {
+                final int first = i;
+                slices.add(new Callable<Void>() {
+                    @Override
+                    public final Void call() throws IOException {
+                        for (int j = first; j < fullCount; j += sliceCount) {
+                            changed[j] = fullTasks.get(j).hashBlock();
+                        }
+                        return null;
+                    }
+                });
+            }
+            execAll(slices, inIoQueue);
+
+            // Skip unchanged blocks and count the blocks found more than once in the request
+            final List<IoTask> result = new ArrayList<>(ioTasks.size());
+            final HashSet<ByteBuffer> keys = new HashSet<>();
+            int unchanged = 0;
+            int duplicate = 0;
+            int zero = 0;
+            int fullIndex = 0;
+            for (int i = 0; i < ioTasks.size(); i++) {
+                final IoTask ioTask = ioTasks.get(i);
+                if (ioTask instanceof FullIoTask) {
+                    final FullIoTask fullIoTask = (FullIoTask) ioTask;
+                    final boolean zeroBlock = fullIoTask.isZeroBlock();
+                    if (zeroBlock) {
+                        zero++;
+                    }
+                    if (!changed[fullIndex++]) {
+                        if (!zeroBlock) {
+                            unchanged++;
+                        }
+                        continue;
+                    }
+                    if (!zeroBlock && !keys.add(ByteBuffer.wrap(fullIoTask.getHashedNewKey()))) {
+                        duplicate++;
+                    }
+                }
+                result.add(ioTask);
+            }
+            stats.recordBlocks(fullCount - zero, unchanged, duplicate);
+            stats.recordZeroBlocks(zero);
+            return result;
+        }
+
+        /**
+         * Run the given tasks, in the current thread if the IOs are single threaded or in the IO queue of the device.
+         * 
+         * @param tasks
+         *            tasks to run
+         * @param inIoQueue
+         *            <code>true</code> if the current thread is running a task of the IO queue
+         * @throws IOException
+         */
+        private final void execAll(final List<? extends Callable<?>> tasks, final boolean inIoQueue)
+                throws IOException {
+            if (SINGLE_THREADED || tasks.size() == 1) {
+                // Single threaded IOs
+                try {
+                    for (int i = tasks.size() - 1; i >= 0; i--) {
+                        tasks.get(i).call();
+                    }
+                }
+                catch (final IOException e) {
+                    throw e;
+                }
+                catch (final Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            else {
+                // Run the tasks in the IO queue of the device
+                execTasks(tasks, deviceReadWriteHandleImpl.ioQueue, inIoQueue);
+            }
+        }
+
+        /**
+         * Run the tasks in the given IO queue. If the current thread belongs to the IO queue, it runs the tasks too and
+         * waits only for the tasks started by the other threads of the queue: the request can not be blocked if the
+         * threads of the queue are busy.
+         * 
+         * @param tasks
+         *            tasks to run
+         * @param ioQueue
+         * @param inIoQueue
+         *            <code>true</code> if the current thread is running a task of the IO queue
+         * @throws IOException
+         */
+        private final void execTasks(final List<? extends Callable<?>> tasks, final VvrIoExecutor.DeviceQueue ioQueue,
+                final boolean inIoQueue) throws IOException {
+            final int taskCount = tasks.size();
+            final AtomicInteger nextTask = new AtomicInteger();
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(taskCount);
+            final Runnable helper = new Runnable() {
+                @Override
+                public final void run() {
+                    runTasks(tasks, nextTask, error, done);
+                }
+            };
+
+            boolean callerRuns = inIoQueue;
+            try {
+                for (int i = Math.min(taskCount, ioQueue.getMaxConcurrency()) - (inIoQueue ? 1 : 0); i > 0; i--) {
+                    ioQueue.execute(helper);
+                }
+            }
+            catch (final RejectedExecutionException e) {
+                // Executor shut down: the remaining tasks are run by the current thread
+                LOGGER.debug("IO task rejected", e);
+                callerRuns = true;
+            }
+            if (callerRuns) {
+                runTasks(tasks, nextTask, error, done);
+            }
+
+            // Wait for the end of the tasks
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                }
+                catch (final InterruptedException e) {
+                    error.compareAndSet(null, e);
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            final Throwable t = error.get();
+            if (t != null) {
+                // Create new exception to get the full stack (thread exec and current thread)
+                throw new IOException(t);
+            }
+        }
+
+        /**
+         * Run tasks until all the tasks are started. All the tasks are run, even after a failure.
+         * 
+         * @param tasks
+         *            tasks to run
+         * @param nextTask
+         *            index of the next task to run
+         * @param error
+         *            first error
+         * @param done
+         *            count down of the tasks
+         */
+        static final void runTasks(final List<? extends Callable<?>> tasks, final AtomicInteger nextTask,
+                final AtomicReference<Throwable> error, final CountDownLatch done) {
+            final int taskCount = tasks.size();
+            int index;
+            while ((index = nextTask.getAndIncrement()) < taskCount) {
+                try {
+                    tasks.get(index).call();
+                }
+                catch (final Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        }
+
         /**
          * Revert the Nrs changes made by the {@link IoTask}s of the request.
          */
@@ -514,46 +853,56 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             }
             return false;
         }
+
+        /**
+         * Gets the index of the first block involved in the request.
+         * 
+         * @param blockSize
+         * @return the index of the first block
+         */
+        final long getFirstBlock(final int blockSize) {
+            return offset / blockSize;
+        }
+
+        /**
+         * Gets the index of the last block involved in the request.
+         * 
+         * @param blockSize
+         * @return the index of the last block, included
+         */
+        final long getLastBlock(final int blockSize) {
+            return (offset + length - 1) / blockSize;
+        }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DeviceReadWriteHandleImpl.class);
 
     /** ByteBufferCache to reuse {@link ByteBuffer}s, direct or non direct */
-    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache(ALLOCATE_DIRECT ? 0
-            : Integer.MAX_VALUE);
+    private static final ByteBufferCache BYTE_BUFFER_CACHE = new ByteBufferCache("device", ALLOCATE_DIRECT ? 0
+            : Integer.MAX_VALUE, ByteOrder.nativeOrder());
+
+    static {
+        BYTE_BUFFER_CACHE.registerPlatformMXBean();
+    }
 
-    /** Wait request timeout (in seconds) */
-    private static final long DO_NOT_WAIT_FOREVER = 5;
     /** true to make single threaded IOs */
     private static final boolean SINGLE_THREADED = Boolean.getBoolean("io.eguan.vvr.io.singleThreaded");
 
     /** Pool of blocks filled with 0. The key is the buffer size, the value is the block to read */
     private static final HashMap<Integer, ByteBuffer> BLOCK_POOL = new HashMap<>(4);
 
-    /** Executor to execute IO requests in parallel */
-    private static final ExecutorService IO_EXEC = Executors.newFixedThreadPool(
-            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
-                private int index = 0;
-
-                @Override
-                public final Thread newThread(final Runnable r) {
-                    index++;
-                    final Thread result = new Thread(r, "IOexec-" + index);
-                    result.setPriority(Thread.NORM_PRIORITY + 3);
-                    result.setDaemon(true);
-                    return result;
-                }
-            });
-
     /** Link to the Device */
     protected final AbstractDeviceImplHelper deviceImplHelper;
 
-    /** Hash algorithm to hash blocks. */
-    private final HashAlgorithm hashAlgorithm;
+    /** Hash algorithm to hash blocks. Not private to avoid synthetic access from IO tasks. */
+    final HashAlgorithm hashAlgorithm;
 
     /** True if the device is opened read-only. */
     private final boolean readOnly;
 
+    /** True if the blocks filled with zeros are recorded as trimmed */
+    private final boolean zeroBlockDetection;
+
     /** Block size of the device. Not private to avoid synthetic access from IO tasks. */
     protected final int blockSize;
 
@@ -564,10 +913,10 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
     @GuardedBy(value = "closedLock")
     private boolean closed = false;
     private final ReadWriteLock closedLock = new ReentrantReadWriteLock();
-    /** List of {@link IoRequest} to execute */
-    @GuardedBy(value = "pendingIoRequestsLock")
-    private final List<IoRequest> pendingIoRequests = new ArrayList<>();
-    private final ReadWriteLock pendingIoRequestsLock = new ReentrantReadWriteLock();
+    /** Admission of the {@link IoRequest}s to execute */
+    private final IoRequestScheduler ioRequestScheduler = new IoRequestScheduler();
+    /** Queue of the IO tasks of the handle. Not private to avoid synthetic access from IO requests */
+    final VvrIoExecutor.DeviceQueue ioQueue;
 
     protected DeviceReadWriteHandleImpl(final AbstractDeviceImplHelper deviceImplHelper,
             final HashAlgorithm hashAlgorithm, final boolean readOnly, final int blockSize) {
@@ -575,6 +924,8 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         this.hashAlgorithm = hashAlgorithm;
         this.readOnly = readOnly;
         this.blockSize = blockSize;
+        this.ioQueue = deviceImplHelper.newIoQueue();
+        this.zeroBlockDetection = deviceImplHelper.isZeroBlockDetectionEnabled();
 
         // Get / create buffer filled with 0
         ByteBuffer blockZeroTmp;
@@ -630,6 +981,33 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see io.eguan.vvr.repository.core.api.Device.ReadWriteHandle#readAsync(java.nio.ByteBuffer, int, int, long)
+     */
+    @Override
+    public final ListenableFuture<Void> readAsync(@Nonnull final ByteBuffer destination,
+            @Nonnegative final int destinationOffset, @Nonnegative final int length, @Nonnegative final long devOffset) {
+        return performIoAsync(IoTaskOpe.READ, Objects.requireNonNull(destination), destinationOffset, length,
+                devOffset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see io.eguan.vvr.repository.core.api.Device.ReadWriteHandle#writeAsync(java.nio.ByteBuffer, int, int, long)
+     */
+    @Override
+    public final ListenableFuture<Void> writeAsync(@Nonnull final ByteBuffer source,
+            @Nonnegative final int sourceOffset, @Nonnegative final int length, @Nonnegative final long devOffset) {
+        Objects.requireNonNull(source);
+        if (readOnly) {
+            return Futures.immediateFailedFuture(new IOException("Read only"));
+        }
+        return performIoAsync(IoTaskOpe.WRITE, source, sourceOffset, length, devOffset);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -665,6 +1043,72 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see io.eguan.vvr.repository.core.api.Device.ReadWriteHandle#writeZeroes(long, long)
+     */
+    @Override
+    public final void writeZeroes(@Nonnegative long lengthLong, @Nonnegative long devOffset) throws IOException {
+        try {
+            if (readOnly) {
+                throw new IOException("Read only");
+            }
+
+            // Check length positive
+            if (lengthLong < 0) {
+                throw new IOException("Negative length=" + lengthLong);
+            }
+
+            // Handle possible overflow
+            while (lengthLong > Integer.MAX_VALUE) {
+                performIo(IoTaskOpe.ZERO, null, 0, Integer.MAX_VALUE, devOffset);
+                lengthLong -= Integer.MAX_VALUE;
+                devOffset += Integer.MAX_VALUE;
+            }
+
+            // Remaining length
+            final int length = (int) (Integer.MAX_VALUE & lengthLong);
+            performIo(IoTaskOpe.ZERO, null, 0, length, devOffset);
+        }
+        catch (IOException | RuntimeException | Error e) {
+            LOGGER.debug("Write zeroes error", e);
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see io.eguan.vvr.repository.core.api.Device.ReadWriteHandle#flush()
+     */
+    @Override
+    public final void flush() throws IOException {
+        // Forbid close during flush
+        closedLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IOException("Closed");
+            }
+            final Lock deviceLock = deviceImplHelper.getIoLock();
+            deviceLock.lock();
+            try {
+                // The blocks are stored in the IBS when the write completes: only the keys may be pending
+                deviceImplHelper.syncBlockKeys();
+            }
+            finally {
+                deviceLock.unlock();
+            }
+        }
+        catch (IOException | RuntimeException | Error e) {
+            LOGGER.debug("Flush error", e);
+            throw e;
+        }
+        finally {
+            closedLock.readLock().unlock();
+        }
+    }
+
     /**
      * Prepare and perform read or write requests.
      * 
@@ -688,6 +1132,64 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         execIoRequest(buffer, length, ioRequest);
     }
 
+    /**
+     * Prepare and queue read or write requests. The request is run by the IO queue of the handle when it does not
+     * conflict with the pending requests.
+     * 
+     * @param ope
+     * @param buffer
+     * @param bufferOffset
+     * @param length
+     * @param devOffset
+     * @return the future result of the request
+     */
+    private final ListenableFuture<Void> performIoAsync(final IoTaskOpe ope, final ByteBuffer buffer,
+            @Nonnegative final int bufferOffset, @Nonnegative final int length, @Nonnegative final long devOffset) {
+        final SettableFuture<Void> result = SettableFuture.create();
+        try {
+            checkIoRange(ope, buffer, bufferOffset, length, devOffset);
+
+            final List<IoTask> ioTasks = prepareIo(ope, buffer, bufferOffset, length, devOffset);
+            if (ioTasks.isEmpty()) {
+                result.set(null);
+                return result;
+            }
+
+            final IoRequest ioRequest = new IoRequest(ope, devOffset, length, ioTasks, this);
+            // Queue the request when it can start
+            ioRequestScheduler.admit(ioRequest.getFirstBlock(blockSize), ioRequest.getLastBlock(blockSize),
+                    ioRequest.isRead(), new IoRequestScheduler.AdmissionListener() {
+                        @Override
+                        public final void admitted(final IoRequestScheduler.Entry entry) {
+                            try {
+                                ioQueue.execute(new Runnable() {
+                                    @Override
+                                    public final void run() {
+                                        try {
+                                            execAdmittedIoRequest(ioRequest, entry);
+                                            result.set(null);
+                                        }
+                                        catch (IOException | RuntimeException | Error e) {
+                                            LOGGER.debug("Async IO error", e);
+                                            result.setException(e);
+                                        }
+                                    }
+                                });
+                            }
+                            catch (final RejectedExecutionException e) {
+                                ioRequestScheduler.release(entry);
+                                result.setException(new IOException(e));
+                            }
+                        }
+                    });
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.debug("Async IO error", e);
+            result.setException(e);
+        }
+        return result;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -708,6 +1210,43 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
         return blockSize;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see io.eguan.vvr.repository.core.api.Device.ReadWriteHandle#getAllocatedBlocks(long, int)
+     */
+    @Override
+    public final BitSet getAllocatedBlocks(@Nonnegative final long firstBlock, @Nonnegative final int count)
+            throws IOException {
+        if (firstBlock < 0 || count < 0) {
+            throw new IOException("Invalid range, firstBlock=" + firstBlock + ", count=" + count);
+        }
+        final long blockCount = getSize() / blockSize;
+        if (firstBlock + count > blockCount) {
+            throw new IOException("Overflow, blockCount=" + blockCount + ", end block=" + (firstBlock + count));
+        }
+
+        // Forbid close during lookup
+        closedLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IOException("Closed");
+            }
+            final Lock deviceLock = deviceImplHelper.getIoLock();
+            deviceLock.lock();
+            try {
+                // Never written or trimmed: read as zeros
+                return deviceImplHelper.getAllocatedBlocks(firstBlock, count);
+            }
+            finally {
+                deviceLock.unlock();
+            }
+        }
+        finally {
+            closedLock.readLock().unlock();
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -783,24 +1322,173 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
      */
     protected abstract void notifyBlockIO(VvrRemote.RemoteOperation.Builder blockOpBuilder);
 
+    /**
+     * Store the given block in the backing store and its key in the persistence.
+     * <p>
+     * Note: not private to avoid synthetic access from IO tasks.
+     * 
+     * @param block
+     * @param offset
+     * @param blockIndex
+     * @param oldKey
+     *            the old key for replace, may be <code>null</code>
+     * @param ibsTxId
+     *            valid transaction ID if >0.
+     * @param opBuilder
+     * @param newKeys
+     *            if not <code>null</code>, the key is saved in <code>newKeys</code> and will be stored later with the
+     *            keys of the other blocks of the request
+     * @param newKeyIndex
+     *            index of the key in <code>newKeys</code>
+     */
     final void storeBlock(final ByteBuffer block, final int offset, final long blockIndex, final byte[] oldKey,
-            final int ibsTxId, final VvrRemote.RemoteOperation.Builder opBuilder) throws IbsException,
-            IllegalArgumentException, IndexOutOfBoundsException, NullPointerException, IOException {
-        // Compute hash on source. Must set position and limit
+            final int ibsTxId, final VvrRemote.RemoteOperation.Builder opBuilder, final byte[][] newKeys,
+            final int newKeyIndex) throws IbsException, IllegalArgumentException, IndexOutOfBoundsException,
+            NullPointerException, IOException {
+        // Must set position and limit
         block.position(offset);
         block.limit(offset + blockSize);
+
+        // Block of zeros: not stored
+        final ZeroBlockAction zeroBlockAction = getZeroBlockAction(block, offset, blockIndex, oldKey);
+        if (zeroBlockAction != ZeroBlockAction.STORE) {
+            if (zeroBlockAction == ZeroBlockAction.TRIM) {
+                trimBlock(blockIndex);
+            }
+            deviceImplHelper.getIoStageStats().recordZeroBlocks(1);
+            return;
+        }
+
+        // Compute hash on source
         final byte[] newKey = ByteBufferDigest.digest(hashAlgorithm, block);
+        storeHashedBlock(block, offset, blockIndex, oldKey, newKey, ibsTxId, opBuilder, newKeys, newKeyIndex);
+    }
 
+    /**
+     * Tells how to handle the write of the given block when it is filled with zeros. A block of zeros is recorded as
+     * trimmed in the device and read back as zeros. It is stored as any other block when a trim would not hide the
+     * contents of a parent of the device. The limit of <code>block</code> must be set after the end of the block.
+     * <p>
+     * Note: not private to avoid synthetic access from IO tasks.
+     * 
+     * @param block
+     * @param offset
+     * @param blockIndex
+     * @param oldKey
+     *            the key of the block in the device, <code>null</code> if not found or not looked up
+     * @return the handling of the block, {@link ZeroBlockAction#STORE} if the block contains some data or if the
+     *         detection of zero blocks is disabled
+     * @throws IOException
+     */
+    final ZeroBlockAction getZeroBlockAction(final ByteBuffer block, final int offset, final long blockIndex,
+            final byte[] oldKey) throws IOException {
+        if (!zeroBlockDetection || !ByteBuffers.isZero(block, offset, blockSize)) {
+            return ZeroBlockAction.STORE;
+        }
+        final byte[] key;
+        final boolean current;
+        if (oldKey != null) {
+            key = oldKey;
+            current = true;
+        }
+        else {
+            // Look among the parents too: the block may have to hide a block of a parent
+            final BlockKeyLookupEx blockKeyLookupEx = lookupBlockKeyEx(blockIndex, true);
+            if (blockKeyLookupEx == null) {
+                // Never written: already read as zeros
+                return ZeroBlockAction.SKIP;
+            }
+            key = blockKeyLookupEx.getKey();
+            current = blockKeyLookupEx.isSourceCurrent();
+        }
+        if (key == NrsFile.HASH_TRIMMED) {
+            return ZeroBlockAction.SKIP;
+        }
+        // The trim of a block that is not allocated in the device is ignored
+        return current ? ZeroBlockAction.TRIM : ZeroBlockAction.STORE;
+    }
+
+    /**
+     * Store the given block, already hashed, in the backing store and its key in the persistence.
+     * <p>
+     * Note: not private to avoid synthetic access from IO tasks.
+     * 
+     * @param block
+     * @param offset
+     * @param blockIndex
+     * @param oldKey
+     *            the old key for replace, may be <code>null</code>
+     * @param newKey
+     *            the key of the contents of the block
+     * @param ibsTxId
+     *            valid transaction ID if >0.
+     * @param opBuilder
+     * @param newKeys
+     *            if not <code>null</code>, the key is saved in <code>newKeys</code> and will be stored later with the
+     *            keys of the other blocks of the request
+     * @param newKeyIndex
+     *            index of the key in <code>newKeys</code>
+     */
+    final void storeHashedBlock(final ByteBuffer block, final int offset, final long blockIndex, final byte[] oldKey,
+            final byte[] newKey, final int ibsTxId, final VvrRemote.RemoteOperation.Builder opBuilder,
+            final byte[][] newKeys, final int newKeyIndex) throws IbsException, IllegalArgumentException,
+            IndexOutOfBoundsException, NullPointerException, IOException {
         // Same key: ignore operation
         if (Arrays.equals(oldKey, newKey)) {
             return;
         }
 
         storeNewBlock(block, offset, blockIndex, newKey, oldKey, ibsTxId, opBuilder);
+
+        // Store key in persistence, now or at the end of the request
+        if (newKeys == null) {
+            deviceImplHelper.writeBlockKey(blockIndex, newKey);
+        }
+        else {
+            newKeys[newKeyIndex] = newKey;
+        }
+    }
+
+    /**
+     * Store the keys of the blocks written by a request. The keys of contiguous blocks are written at once. A
+     * <code>null</code> key is skipped (block unchanged).
+     * <p>
+     * Note: not private to avoid synthetic access from IO requests.
+     * 
+     * @param firstBlock
+     *            index of the block of the first key
+     * @param newKeys
+     *            keys to store
+     * @throws IOException
+     */
+    final void storeBlockKeys(final long firstBlock, final byte[][] newKeys) throws IOException {
+        final int count = newKeys.length;
+        int i = 0;
+        while (i < count) {
+            // Skip unchanged blocks
+            if (newKeys[i] == null) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < count && newKeys[end] != null) {
+                end++;
+            }
+            if (i == 0 && end == count) {
+                deviceImplHelper.writeBlockKeys(firstBlock, newKeys);
+            }
+            else if (end - i == 1) {
+                deviceImplHelper.writeBlockKey(firstBlock + i, newKeys[i]);
+            }
+            else {
+                deviceImplHelper.writeBlockKeys(firstBlock + i, Arrays.copyOfRange(newKeys, i, end));
+            }
+            i = end;
+        }
     }
 
     /**
-     * Store the given block in the backing store.
+     * Store the given block in the backing store. The key of the block is stored by the caller.
      * <p>
      * Note: not private to avoid synthetic access from IO tasks.
      * 
@@ -954,7 +1642,7 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             throw new IOException("Negative devOffset=" + devOffset);
         }
         // Check data overflow
-        if (ope != IoTaskOpe.TRIM) {
+        if (ope != IoTaskOpe.TRIM && ope != IoTaskOpe.ZERO) {
             final int eoIo = dataOffset + length;
             if (eoIo > data.capacity()) {
                 throw new IOException("Overflow, size=" + getSize() + ", end offset=" + eoIo);
@@ -1041,6 +1729,13 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
      */
     private final IoTask newIoTask(final ByteBuffer data, final int dataOffset, final IoTaskOpe ope,
             final long blockIndex, final boolean singleTask, final int ioBlkOffset, final int ioBlkLength) {
+        if (ope == IoTaskOpe.ZERO) {
+            // Every task writes the contents of the block of zeros
+            if (ioBlkOffset == 0 && ioBlkLength == blockSize) {
+                return new FullIoTask(blockZero, 0, ope, blockIndex, singleTask);
+            }
+            return new PartialIoTask(blockZero, 0, ope, blockIndex, singleTask, ioBlkOffset, ioBlkLength);
+        }
         if (ioBlkOffset == 0 && ioBlkLength == blockSize) {
             return new FullIoTask(data, dataOffset, ope, blockIndex, singleTask);
         }
@@ -1048,9 +1743,10 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
     }
 
     /**
-     * Run the {@link IoTask} to read from or write to the given {@link ByteBuffer}. The requests are put in a queue and
-     * the requests are executed in the FIFO order. Read requests may be executed if there is no conflict with a pending
-     * write or trim.
+     * Run the {@link IoTask} to read from or write to the given {@link ByteBuffer}. The requests are admitted by the
+     * {@link IoRequestScheduler}: a request is executed when it does not conflict with a previous pending request.
+     * Reads and requests on distinct blocks may be executed concurrently, the conflicting requests are executed in the
+     * FIFO order.
      * 
      * @param buffer
      * @param length
@@ -1071,71 +1767,25 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             deviceLock.lock();
             try {
 
-                // Add current request in pending queue
-                pendingIoRequestsLock.writeLock().lock();
+                // Wait for execution of the request
+                final IoRequestScheduler.Entry entry;
                 try {
-                    pendingIoRequests.add(ioRequest);
+                    entry = ioRequestScheduler.admit(ioRequest.getFirstBlock(blockSize),
+                            ioRequest.getLastBlock(blockSize), ioRequest.isRead());
                 }
-                finally {
-                    pendingIoRequestsLock.writeLock().unlock();
+                catch (final InterruptedException e) {
+                    throw new IOException(e);
                 }
 
                 try {
-                    // Wait for execution of the request
-                    boolean waitExec = true;
-                    while (waitExec) {
-
-                        // Can exec?
-                        pendingIoRequestsLock.readLock().lock();
-                        try {
-
-                            // First request?
-                            if (pendingIoRequests.get(0) == ioRequest) {
-                                // Ready
-                                waitExec = false;
-                                break;
-                            }
-
-                            final boolean isRead = ioRequest.isRead();
-                            for (int i = 0; i < pendingIoRequests.size(); i++) {
-                                final IoRequest ioRequestTmp = pendingIoRequests.get(i);
-                                if (ioRequestTmp == ioRequest) {
-                                    if (isRead) {
-                                        // Can start even if not the first
-                                        waitExec = false;
-                                    }
-                                    // No need to continue checking
-                                    break;
-                                }
-
-                                // Read request may start if no overlap with a pending write or trim
-                                if (isRead && !ioRequestTmp.isRead()) {
-                                    if (ioRequest.overlap(ioRequestTmp)) {
-                                        // Cannot read
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                        finally {
-                            pendingIoRequestsLock.readLock().unlock();
-                        }
-
-                        if (waitExec) {
-                            synchronized (pendingIoRequestsLock) {
-                                pendingIoRequestsLock.wait(DO_NOT_WAIT_FOREVER * 1000);
-                            }
-                        }
-                    }
-
                     if (buffer == null) {
                         // Trim: just exec the operation
-                        ioRequest.exec();
+                        ioRequest.exec(false);
                     }
                     else {
                         // Task execution must not change the original position
                         final int prevPosition = buffer.position();
-                        ioRequest.exec();
+                        ioRequest.exec(false);
                         assert prevPosition == buffer.position();
                         // Update position on success
                         buffer.position(prevPosition + length);
@@ -1145,24 +1795,12 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
                     throw e;
                 }
                 catch (final Exception e) {
-                    // Convert any exception to IOException (Interrupted, IllegalState, ...)
+                    // Convert any exception to IOException (IllegalState, ...)
                     throw new IOException(e);
                 }
                 finally {
-                    // Make sure the request is removed
-                    // Add current request in pending queue
-                    pendingIoRequestsLock.writeLock().lock();
-                    try {
-                        pendingIoRequests.remove(ioRequest);
-                    }
-                    finally {
-                        pendingIoRequestsLock.writeLock().unlock();
-                    }
-
-                    // Wake-up waiters
-                    synchronized (pendingIoRequestsLock) {
-                        pendingIoRequestsLock.notifyAll();
-                    }
+                    // Make sure the request is removed and wake-up the blocked requests
+                    ioRequestScheduler.release(entry);
                 }
             }
             finally {
@@ -1173,4 +1811,52 @@ public abstract class DeviceReadWriteHandleImpl implements ReadWriteHandle {
             closedLock.readLock().unlock();
         }
     }
+
+    /**
+     * Run a {@link IoRequest} admitted asynchronously. Releases the request in the {@link IoRequestScheduler} when
+     * done.
+     * <p>
+     * Not private to avoid synthetic access from the IO queue.
+     * 
+     * @param ioRequest
+     * @param entry
+     *            entry of the request in the scheduler
+     * @throws IOException
+     */
+    final void execAdmittedIoRequest(final IoRequest ioRequest, final IoRequestScheduler.Entry entry)
+            throws IOException {
+        try {
+            // Forbid close during IO
+            closedLock.readLock().lock();
+            try {
+                if (closed) {
+                    throw new IOException("Closed");
+                }
+
+                // Lock device-related lock during IO
+                final Lock deviceLock = deviceImplHelper.getIoLock();
+                deviceLock.lock();
+                try {
+                    ioRequest.exec(true);
+                }
+                catch (final IOException e) {
+                    throw e;
+                }
+                catch (final Exception e) {
+                    // Convert any exception to IOException (IllegalState, ...)
+                    throw new IOException(e);
+                }
+                finally {
+                    deviceLock.unlock();
+                }
+            }
+            finally {
+                closedLock.readLock().unlock();
+            }
+        }
+        finally {
+            // Make sure the request is removed and wake-up the blocked requests
+            ioRequestScheduler.release(entry);
+        }
+    }
 }
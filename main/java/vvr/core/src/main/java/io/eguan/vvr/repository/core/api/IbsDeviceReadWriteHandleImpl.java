@@ -134,9 +134,6 @@ final class IbsDeviceReadWriteHandleImpl extends DeviceReadWriteHandleImpl {
         synchronized (opBuilder) {
             opBuilder.addIbs(ibsBuilder);
         }
-
-        // Store key in persistence
-        deviceImplHelper.writeBlockKey(blockIndex, newKey);
     }
 
     @Override
@@ -191,6 +188,7 @@ final class IbsDeviceReadWriteHandleImpl extends DeviceReadWriteHandleImpl {
                     data.rewind().position(dataOffset);
                     byteString.copyTo(data);
                     readLen = data.position() - dataOffset;
+                    deviceImplHelper.getIoStageStats().recordBytesCopied(readLen);
                 }
             }
             // Block found?
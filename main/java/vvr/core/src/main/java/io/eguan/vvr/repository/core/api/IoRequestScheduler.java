@@ -0,0 +1,468 @@
+package io.eguan.vvr.repository.core.api;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Admission scheduler of the IO requests of a device. The pending requests are indexed by their range of blocks in an
+ * interval tree (a treap augmented with the highest block of each sub-tree).
+ * <p>
+ * A request may start as soon as it does not conflict with any request admitted before it. Two requests conflict if
+ * they share at least one block and if at least one of them is not a read. Conflicting requests are executed in the
+ * FIFO order, but reads and non-overlapping writes or trims run concurrently. When a request completes, only the
+ * requests it was blocking are woken up.
+ * <p>
+ * A request can be admitted by a thread that waits for its turn ({@link #admit(long, long, boolean)}) or
+ * asynchronously: an {@link AdmissionListener} is notified when the request can start (
+ * {@link #admit(long, long, boolean, AdmissionListener)}).
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+final class IoRequestScheduler {
+
+    /**
+     * Notified when a request admitted asynchronously can start.
+     * 
+     */
+    interface AdmissionListener {
+        /**
+         * The request does not conflict anymore with the requests admitted before it. Called by the thread that
+         * admits the request or by the thread that releases the last blocking request, without holding any lock of
+         * the scheduler. The entry must be released when the request is done.
+         * 
+         * @param entry
+         *            entry of the request
+         */
+        void admitted(Entry entry);
+    }
+
+    /**
+     * Request admitted in the scheduler. Must be released by {@link IoRequestScheduler#release(Entry)} when the
+     * request is done.
+     * 
+     */
+    static final class Entry {
+        /** First block of the request */
+        private final long firstBlock;
+        /** Last block of the request (included) */
+        private final long lastBlock;
+        /** <code>true</code> for a read request */
+        private final boolean read;
+        /** Admission order. Makes the key of the entry unique */
+        private final long seq;
+        /** Priority in the treap */
+        private final int priority;
+
+        /** Number of pending requests this entry is waiting for */
+        @GuardedBy(value = "IoRequestScheduler.lock")
+        private int blockers;
+        /** Requests waiting for the completion of this entry. Lazily allocated */
+        @GuardedBy(value = "IoRequestScheduler.lock")
+        private List<Entry> dependents;
+        /** Signaled when the last blocker is released, for a blocking admission */
+        private final Condition ready;
+        /** Notified when the last blocker is released, for an asynchronous admission */
+        private final AdmissionListener listener;
+
+        /** Tree links */
+        @GuardedBy(value = "IoRequestScheduler.lock")
+        private Entry left;
+        @GuardedBy(value = "IoRequestScheduler.lock")
+        private Entry right;
+        /** Highest block of the sub-tree rooted on this entry */
+        @GuardedBy(value = "IoRequestScheduler.lock")
+        private long maxLastBlock;
+
+        Entry(final long firstBlock, final long lastBlock, final boolean read, final long seq, final Condition ready,
+                final AdmissionListener listener) {
+            super();
+            this.firstBlock = firstBlock;
+            this.lastBlock = lastBlock;
+            this.read = read;
+            this.seq = seq;
+            this.priority = mix(seq);
+            this.ready = ready;
+            this.listener = listener;
+            this.maxLastBlock = lastBlock;
+        }
+
+        /**
+         * Tells if the given request conflicts with this one.
+         * 
+         * @param other
+         * @return <code>true</code> if the requests can not be run concurrently.
+         */
+        final boolean conflicts(final Entry other) {
+            return !(read && other.read) && firstBlock <= other.lastBlock && other.firstBlock <= lastBlock;
+        }
+
+        /**
+         * Compare the keys of the entries in the tree.
+         * 
+         * @param other
+         * @return <code>true</code> if this entry is before <code>other</code>.
+         */
+        final boolean isBefore(final Entry other) {
+            return firstBlock < other.firstBlock || (firstBlock == other.firstBlock && seq < other.seq);
+        }
+
+        @Override
+        public final String toString() {
+            return "[" + (read ? "R" : "W") + seq + ":" + firstBlock + "-" + lastBlock + "]";
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Root of the interval tree of the pending requests */
+    @GuardedBy(value = "lock")
+    private Entry root;
+    /** Number of pending requests */
+    @GuardedBy(value = "lock")
+    private int size;
+    /** Admission counter */
+    @GuardedBy(value = "lock")
+    private long nextSeq;
+
+    IoRequestScheduler() {
+        super();
+    }
+
+    /**
+     * Admits a request and waits until it does not conflict with any of the requests admitted before.
+     * 
+     * @param firstBlock
+     *            first block of the request
+     * @param lastBlock
+     *            last block of the request, included
+     * @param read
+     *            <code>true</code> for a read request
+     * @return the entry of the request, to release when the request is done
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting. The request is not admitted.
+     */
+    final Entry admit(@Nonnegative final long firstBlock, @Nonnegative final long lastBlock, final boolean read)
+            throws InterruptedException {
+        assert firstBlock <= lastBlock;
+
+        final Entry entry;
+        final List<Entry> admitted;
+        final InterruptedException interrupted;
+        lock.lock();
+        try {
+            entry = new Entry(firstBlock, lastBlock, read, nextSeq++, lock.newCondition(), null);
+            addEntry(entry);
+
+            try {
+                while (entry.blockers > 0) {
+                    entry.ready.await();
+                }
+                return entry;
+            }
+            catch (final InterruptedException e) {
+                // Give up: unblock the requests admitted in the meantime
+                admitted = removeEntry(entry);
+                interrupted = e;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        notifyAdmitted(admitted);
+        throw interrupted;
+    }
+
+    /**
+     * Admits a request without waiting. The <code>listener</code> is notified when the request does not conflict with
+     * any of the requests admitted before, possibly before the return of this method.
+     * 
+     * @param firstBlock
+     *            first block of the request
+     * @param lastBlock
+     *            last block of the request, included
+     * @param read
+     *            <code>true</code> for a read request
+     * @param listener
+     *            notified when the request can start
+     */
+    final void admit(@Nonnegative final long firstBlock, @Nonnegative final long lastBlock, final boolean read,
+            @Nonnull final AdmissionListener listener) {
+        assert firstBlock <= lastBlock;
+
+        final Entry entry;
+        lock.lock();
+        try {
+            entry = new Entry(firstBlock, lastBlock, read, nextSeq++, null, listener);
+            addEntry(entry);
+            if (entry.blockers > 0) {
+                // Will be notified by the release of the last blocker
+                return;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        listener.admitted(entry);
+    }
+
+    /**
+     * Release a request admitted by {@link #admit(long, long, boolean)}. Wakes up the requests that are not blocked
+     * anymore.
+     * 
+     * @param entry
+     */
+    final void release(@Nonnull final Entry entry) {
+        final List<Entry> admitted;
+        lock.lock();
+        try {
+            admitted = removeEntry(entry);
+        }
+        finally {
+            lock.unlock();
+        }
+        notifyAdmitted(admitted);
+    }
+
+    /**
+     * Gets the number of requests running or waiting.
+     * 
+     * @return the number of pending requests.
+     */
+    final int getPendingCount() {
+        lock.lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a new entry in the tree.
+     * 
+     * @param entry
+     */
+    @GuardedBy(value = "lock")
+    private final void addEntry(final Entry entry) {
+        addBlockers(root, entry);
+        root = insert(root, entry);
+        size++;
+    }
+
+    /**
+     * Remove the entry from the tree and wake up the dependents that are not blocked anymore.
+     * 
+     * @param entry
+     * @return the dependents admitted asynchronously that are not blocked anymore, to notify once the lock is released.
+     *         May be <code>null</code>
+     */
+    @GuardedBy(value = "lock")
+    private final List<Entry> removeEntry(final Entry entry) {
+        root = remove(root, entry);
+        size--;
+
+        List<Entry> admitted = null;
+        final List<Entry> dependents = entry.dependents;
+        if (dependents != null) {
+            for (int i = 0; i < dependents.size(); i++) {
+                final Entry dependent = dependents.get(i);
+                if (--dependent.blockers == 0) {
+                    if (dependent.listener == null) {
+                        dependent.ready.signal();
+                    }
+                    else {
+                        if (admitted == null) {
+                            admitted = new ArrayList<>(2);
+                        }
+                        admitted.add(dependent);
+                    }
+                }
+            }
+            entry.dependents = null;
+        }
+        return admitted;
+    }
+
+    /**
+     * Notify the listeners of the requests admitted asynchronously. Must be called without holding the lock.
+     * 
+     * @param admitted
+     *            may be <code>null</code>
+     */
+    private static final void notifyAdmitted(final List<Entry> admitted) {
+        if (admitted != null) {
+            for (int i = 0; i < admitted.size(); i++) {
+                final Entry entry = admitted.get(i);
+                entry.listener.admitted(entry);
+            }
+        }
+    }
+
+    /**
+     * Register <code>entry</code> as a dependent of the conflicting requests of the given sub-tree.
+     * 
+     * @param node
+     *            root of the sub-tree
+     * @param entry
+     *            new entry
+     */
+    private static final void addBlockers(final Entry node, final Entry entry) {
+        if (node == null || node.maxLastBlock < entry.firstBlock) {
+            return;
+        }
+        addBlockers(node.left, entry);
+        if (node.firstBlock > entry.lastBlock) {
+            // Right sub-tree starts after the entry
+            return;
+        }
+        if (node.conflicts(entry)) {
+            if (node.dependents == null) {
+                node.dependents = new ArrayList<>(2);
+            }
+            node.dependents.add(entry);
+            entry.blockers++;
+        }
+        addBlockers(node.right, entry);
+    }
+
+    private static final Entry insert(final Entry node, final Entry entry) {
+        if (node == null) {
+            return entry;
+        }
+        if (entry.priority > node.priority) {
+            split(node, entry);
+            update(entry);
+            return entry;
+        }
+        if (entry.isBefore(node)) {
+            node.left = insert(node.left, entry);
+        }
+        else {
+            node.right = insert(node.right, entry);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Split the given sub-tree in two parts, set as the left and the right child of <code>pivot</code>.
+     * 
+     * @param node
+     * @param pivot
+     */
+    private static final void split(final Entry node, final Entry pivot) {
+        if (node == null) {
+            pivot.left = null;
+            pivot.right = null;
+            return;
+        }
+        if (node.isBefore(pivot)) {
+            split(node.right, pivot);
+            node.right = pivot.left;
+            update(node);
+            pivot.left = node;
+        }
+        else {
+            split(node.left, pivot);
+            node.left = pivot.right;
+            update(node);
+            pivot.right = node;
+        }
+    }
+
+    private static final Entry remove(final Entry node, final Entry entry) {
+        if (node == null) {
+            throw new AssertionError("Not found " + entry);
+        }
+        if (node == entry) {
+            final Entry result = merge(node.left, node.right);
+            node.left = null;
+            node.right = null;
+            return result;
+        }
+        if (entry.isBefore(node)) {
+            node.left = remove(node.left, entry);
+        }
+        else {
+            node.right = remove(node.right, entry);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Merge two sub-trees. All the entries of <code>left</code> must be before the entries of <code>right</code>.
+     * 
+     * @param left
+     * @param right
+     * @return the root of the merged tree
+     */
+    private static final Entry merge(final Entry left, final Entry right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static final void update(final Entry node) {
+        long max = node.lastBlock;
+        if (node.left != null && node.left.maxLastBlock > max) {
+            max = node.left.maxLastBlock;
+        }
+        if (node.right != null && node.right.maxLastBlock > max) {
+            max = node.right.maxLastBlock;
+        }
+        node.maxLastBlock = max;
+    }
+
+    /**
+     * Pseudo-random priority, derived from the admission order.
+     * 
+     * @param seq
+     * @return the priority of the entry
+     */
+    private static final int mix(final long seq) {
+        long z = seq * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (int) (z ^ (z >>> 32));
+    }
+}
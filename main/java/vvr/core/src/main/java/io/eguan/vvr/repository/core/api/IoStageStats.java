@@ -0,0 +1,290 @@
+package io.eguan.vvr.repository.core.api;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Statistics on the stages of the write requests on several blocks: the blocks are hashed, then stored, then their
+ * keys are written in the persistence. Counts the requests, the total and the maximum time spent in every stage, the
+ * blocks skipped by the hashing stage and the blocks filled with zeros that were not stored. Counts also the read
+ * requests and the bytes copied to the buffer of the caller instead of being loaded in place.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+@ThreadSafe
+public final class IoStageStats {
+
+    /**
+     * Stages of a write request.
+     * 
+     */
+    public enum IoStage {
+        /** Lookup of the previous keys and digest of the blocks */
+        HASH,
+        /** Storage of the new blocks */
+        STORE,
+        /** Write of the new keys */
+        KEYS;
+    }
+
+    /** Counters by stage: count, total time, max time */
+    private static final int STAGE_COUNTERS = 3;
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int MAX = 2;
+
+    /** Block counters */
+    private static final int HASHED = 0;
+    private static final int UNCHANGED = 1;
+    private static final int DUPLICATE = 2;
+    private static final int ZERO = 3;
+
+    /** Read counters */
+    private static final int READ_COUNT = 0;
+    private static final int READ_BYTES = 1;
+    private static final int READ_COPIED = 2;
+
+    /** Counters of the stages */
+    private final AtomicLongArray stageCounters = new AtomicLongArray(IoStage.values().length * STAGE_COUNTERS);
+
+    /** Counters of the blocks: hashed, unchanged, duplicate, zero */
+    private final AtomicLongArray blockCounters = new AtomicLongArray(4);
+
+    /** Counters of the reads: requests, bytes read, bytes copied */
+    private final AtomicLongArray readCounters = new AtomicLongArray(3);
+
+    /**
+     * Records the duration of the execution of a stage.
+     * 
+     * @param stage
+     *            stage executed
+     * @param nanos
+     *            duration of the stage in nanoseconds
+     */
+    public final void record(@Nonnull final IoStage stage, final long nanos) {
+        final int base = stage.ordinal() * STAGE_COUNTERS;
+        stageCounters.incrementAndGet(base + COUNT);
+        stageCounters.addAndGet(base + TOTAL, nanos);
+        long max;
+        while ((max = stageCounters.get(base + MAX)) < nanos) {
+            if (stageCounters.compareAndSet(base + MAX, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Records the result of the hashing stage of a request.
+     * 
+     * @param hashed
+     *            number of blocks hashed
+     * @param unchanged
+     *            number of blocks having the same contents as before
+     * @param duplicate
+     *            number of blocks having the same contents as a previous block of the request
+     */
+    public final void recordBlocks(final int hashed, final int unchanged, final int duplicate) {
+        blockCounters.addAndGet(HASHED, hashed);
+        blockCounters.addAndGet(UNCHANGED, unchanged);
+        blockCounters.addAndGet(DUPLICATE, duplicate);
+    }
+
+    /**
+     * Records blocks filled with zeros, recorded as trimmed instead of being hashed and stored.
+     * 
+     * @param count
+     *            number of zero blocks
+     */
+    public final void recordZeroBlocks(final int count) {
+        blockCounters.addAndGet(ZERO, count);
+    }
+
+    /**
+     * Records a read request.
+     * 
+     * @param length
+     *            number of bytes read
+     */
+    public final void recordRead(final int length) {
+        readCounters.incrementAndGet(READ_COUNT);
+        readCounters.addAndGet(READ_BYTES, length);
+    }
+
+    /**
+     * Records bytes copied to the buffer of a read request: blocks of zeros, partial blocks or blocks loaded in a
+     * temporary buffer.
+     * 
+     * @param length
+     *            number of bytes copied
+     */
+    public final void recordBytesCopied(final int length) {
+        readCounters.addAndGet(READ_COPIED, length);
+    }
+
+    /**
+     * Gets the number of executions of the given stage.
+     * 
+     * @param stage
+     * @return the number of executions
+     */
+    public final long getCount(@Nonnull final IoStage stage) {
+        return stageCounters.get(stage.ordinal() * STAGE_COUNTERS + COUNT);
+    }
+
+    /**
+     * Gets the total time spent in the given stage.
+     * 
+     * @param stage
+     * @return the total time in nanoseconds
+     */
+    public final long getTotalTimeNanos(@Nonnull final IoStage stage) {
+        return stageCounters.get(stage.ordinal() * STAGE_COUNTERS + TOTAL);
+    }
+
+    /**
+     * Gets the longest execution of the given stage.
+     * 
+     * @param stage
+     * @return the maximum time in nanoseconds
+     */
+    public final long getMaxTimeNanos(@Nonnull final IoStage stage) {
+        return stageCounters.get(stage.ordinal() * STAGE_COUNTERS + MAX);
+    }
+
+    /**
+     * Gets the average duration of the given stage.
+     * 
+     * @param stage
+     * @return the average time in nanoseconds, 0 if the stage was never executed
+     */
+    public final long getAverageTimeNanos(@Nonnull final IoStage stage) {
+        final long count = getCount(stage);
+        return count == 0 ? 0 : getTotalTimeNanos(stage) / count;
+    }
+
+    /**
+     * Gets the number of blocks hashed by the hashing stage.
+     * 
+     * @return the number of blocks hashed
+     */
+    public final long getBlocksHashed() {
+        return blockCounters.get(HASHED);
+    }
+
+    /**
+     * Gets the number of blocks not stored because their contents did not change.
+     * 
+     * @return the number of unchanged blocks
+     */
+    public final long getBlocksUnchanged() {
+        return blockCounters.get(UNCHANGED);
+    }
+
+    /**
+     * Gets the number of blocks having the same contents as a previous block of their request.
+     * 
+     * @return the number of duplicate blocks
+     */
+    public final long getBlocksDuplicate() {
+        return blockCounters.get(DUPLICATE);
+    }
+
+    /**
+     * Gets the number of blocks filled with zeros that were neither hashed nor stored.
+     * 
+     * @return the number of zero blocks
+     */
+    public final long getBlocksZero() {
+        return blockCounters.get(ZERO);
+    }
+
+    /**
+     * Gets the number of read requests.
+     * 
+     * @return the number of read requests
+     */
+    public final long getReadCount() {
+        return readCounters.get(READ_COUNT);
+    }
+
+    /**
+     * Gets the number of bytes read.
+     * 
+     * @return the number of bytes read
+     */
+    public final long getBytesRead() {
+        return readCounters.get(READ_BYTES);
+    }
+
+    /**
+     * Gets the number of bytes copied to the buffers of the read requests.
+     * 
+     * @return the number of bytes copied
+     */
+    public final long getBytesCopied() {
+        return readCounters.get(READ_COPIED);
+    }
+
+    /**
+     * Gets the average number of bytes copied by read request.
+     * 
+     * @return the average number of bytes copied, 0 if there was no read
+     */
+    public final long getAverageBytesCopied() {
+        final long count = getReadCount();
+        return count == 0 ? 0 : getBytesCopied() / count;
+    }
+
+    /**
+     * Reset all the counters.
+     */
+    public final void reset() {
+        for (int i = stageCounters.length() - 1; i >= 0; i--) {
+            stageCounters.set(i, 0);
+        }
+        for (int i = blockCounters.length() - 1; i >= 0; i--) {
+            blockCounters.set(i, 0);
+        }
+        for (int i = readCounters.length() - 1; i >= 0; i--) {
+            readCounters.set(i, 0);
+        }
+    }
+
+    @Override
+    public final String toString() {
+        final StringBuilder result = new StringBuilder("IoStageStats[");
+        for (final IoStage stage : IoStage.values()) {
+            result.append(stage).append("(count=").append(getCount(stage)).append(", avg=")
+                    .append(getAverageTimeNanos(stage)).append("ns, max=").append(getMaxTimeNanos(stage))
+                    .append("ns), ");
+        }
+        return result.append("hashed=").append(getBlocksHashed()).append(", unchanged=")
+                .append(getBlocksUnchanged()).append(", duplicate=").append(getBlocksDuplicate()).append(", zero=")
+                .append(getBlocksZero()).append(", reads=").append(getReadCount()).append(", read=")
+                .append(getBytesRead()).append(", copied=").append(getBytesCopied()).append(']').toString();
+    }
+}
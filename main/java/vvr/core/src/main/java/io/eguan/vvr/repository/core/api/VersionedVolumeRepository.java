@@ -210,6 +210,15 @@ public interface VersionedVolumeRepository extends UniqueVvrObject, DtxResourceM
      */
     MessageLite handleMsg(RemoteOperation op);
 
+    /**
+     * Asks a peer that missed some remote messages of this VVR to resynchronize its contents from the current node.
+     * Does not wait for the end of the resynchronization.
+     * 
+     * @param node
+     *            the UUID of the peer
+     */
+    void requestPeerResync(@Nonnull UUID node);
+
     /**
      * Events on items.
      * 
@@ -0,0 +1,277 @@
+package io.eguan.vvr.repository.core.api;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor of the IO tasks of the devices of a VVR. Each device submits its tasks to its own {@link DeviceQueue}. The
+ * threads of the executor serve the device queues in a round-robin order, one task at a time, so that a busy device
+ * can not starve the other devices. The number of tasks of a device running concurrently is bounded.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public final class VvrIoExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VvrIoExecutor.class);
+
+    /**
+     * Queue of the tasks of a device.
+     * 
+     */
+    public final class DeviceQueue implements Executor {
+        /** Maximum number of tasks running concurrently */
+        private final int maxConcurrency;
+        /** Tasks waiting for execution */
+        @GuardedBy(value = "VvrIoExecutor.lock")
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        /** Number of tasks running */
+        @GuardedBy(value = "VvrIoExecutor.lock")
+        private int running;
+        /** <code>true</code> when the queue is in the list of the ready queues */
+        @GuardedBy(value = "VvrIoExecutor.lock")
+        private boolean scheduled;
+
+        DeviceQueue(final int maxConcurrency) {
+            super();
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        /**
+         * Gets the maximum number of tasks of this queue running concurrently.
+         * 
+         * @return the max number of tasks running
+         */
+        public final int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        /**
+         * Queue a task. The task will be run by a thread of the executor.
+         * 
+         * @throws RejectedExecutionException
+         *             if the executor is shut down
+         */
+        @Override
+        public final void execute(@Nonnull final Runnable task) throws RejectedExecutionException {
+            if (task == null) {
+                throw new NullPointerException();
+            }
+            lock.lock();
+            try {
+                if (shutdown) {
+                    throw new RejectedExecutionException(name + " shut down");
+                }
+                tasks.addLast(task);
+                scheduleIfReady(this);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Name of the executor, prefix of the thread names */
+    private final String name;
+    /** Number of threads */
+    private final int threadCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signaled when a queue is ready or on shutdown */
+    private final Condition readyCondition = lock.newCondition();
+    /** Queues having tasks to run */
+    @GuardedBy(value = "lock")
+    private final ArrayDeque<DeviceQueue> readyQueues = new ArrayDeque<>();
+    @GuardedBy(value = "lock")
+    private boolean shutdown;
+    /** Number of threads still running */
+    @GuardedBy(value = "lock")
+    private int threadsAlive;
+    /** Signaled when the last thread exits */
+    private final Condition terminatedCondition = lock.newCondition();
+
+    /**
+     * Create and start a new executor.
+     * 
+     * @param name
+     *            name of the executor
+     * @param threadCount
+     *            number of threads serving the device queues
+     */
+    public VvrIoExecutor(@Nonnull final String name, final int threadCount) {
+        super();
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount=" + threadCount);
+        }
+        this.name = name;
+        this.threadCount = threadCount;
+
+        final Runnable worker = new Runnable() {
+            @Override
+            public final void run() {
+                work();
+            }
+        };
+        lock.lock();
+        try {
+            for (int i = 1; i <= threadCount; i++) {
+                final Thread thread = new Thread(worker, "IOexec-" + name + "-" + i);
+                thread.setPriority(Thread.NORM_PRIORITY + 3);
+                thread.setDaemon(true);
+                thread.start();
+                threadsAlive++;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of threads of the executor.
+     * 
+     * @return the number of threads.
+     */
+    public final int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Create a new queue for a device.
+     * 
+     * @param maxConcurrency
+     *            maximum number of tasks of the queue running concurrently. 0 to let the tasks use all the threads of
+     *            the executor.
+     * @return a new queue
+     */
+    public final DeviceQueue newDeviceQueue(final int maxConcurrency) {
+        if (maxConcurrency < 0) {
+            throw new IllegalArgumentException("maxConcurrency=" + maxConcurrency);
+        }
+        return new DeviceQueue(maxConcurrency == 0 ? threadCount : Math.min(maxConcurrency, threadCount));
+    }
+
+    /**
+     * Stops the executor. The tasks already queued are run, the new tasks are rejected. Waits for the termination of
+     * the threads.
+     * 
+     * @throws InterruptedException
+     */
+    public final void shutdown() throws InterruptedException {
+        lock.lock();
+        try {
+            shutdown = true;
+            readyCondition.signalAll();
+            while (threadsAlive > 0) {
+                terminatedCondition.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add the queue in the list of the ready queues if it has some tasks to run and if the max number of running tasks
+     * is not reached.
+     * 
+     * @param queue
+     */
+    @GuardedBy(value = "lock")
+    private final void scheduleIfReady(final DeviceQueue queue) {
+        if (!queue.scheduled && !queue.tasks.isEmpty() && queue.running < queue.maxConcurrency) {
+            queue.scheduled = true;
+            readyQueues.addLast(queue);
+            readyCondition.signal();
+        }
+    }
+
+    /**
+     * Loop of the threads of the executor.
+     */
+    private final void work() {
+        DeviceQueue done = null;
+        try {
+            while (true) {
+                final DeviceQueue queue;
+                final Runnable task;
+                lock.lock();
+                try {
+                    // Task of the previous loop completed
+                    if (done != null) {
+                        done.running--;
+                        scheduleIfReady(done);
+                        done = null;
+                    }
+
+                    while (readyQueues.isEmpty()) {
+                        if (shutdown) {
+                            return;
+                        }
+                        readyCondition.awaitUninterruptibly();
+                    }
+
+                    // Take a task of the first ready queue and move the queue to the end of the list
+                    queue = readyQueues.removeFirst();
+                    task = queue.tasks.removeFirst();
+                    queue.running++;
+                    queue.scheduled = false;
+                    scheduleIfReady(queue);
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                done = queue;
+                try {
+                    task.run();
+                }
+                catch (final Throwable t) {
+                    LOGGER.warn("Unexpected error in IO task", t);
+                }
+            }
+        }
+        finally {
+            lock.lock();
+            try {
+                threadsAlive--;
+                if (threadsAlive == 0) {
+                    terminatedCondition.signalAll();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -29,9 +29,13 @@ import io.eguan.vvr.configuration.keys.BlockSizeConfigKey;
 import io.eguan.vvr.configuration.keys.DeletedConfigKey;
 import io.eguan.vvr.configuration.keys.DescriptionConfigkey;
 import io.eguan.vvr.configuration.keys.HashAlgorithmConfigKey;
+import io.eguan.vvr.configuration.keys.IoConcurrencyConfigKey;
 import io.eguan.vvr.configuration.keys.NameConfigKey;
 import io.eguan.vvr.configuration.keys.NodeConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationCompressionConfigKey;
+import io.eguan.vvr.configuration.keys.ReplicationDedupConfigKey;
 import io.eguan.vvr.configuration.keys.StartedConfigKey;
+import io.eguan.vvr.configuration.keys.ZeroBlockDetectionConfigKey;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -71,6 +75,10 @@ public final class TestValidCommonConfigurationContext extends ValidConfiguratio
             result.setProperty(getPropertyKey(NodeConfigKey.getInstance()), UUID.randomUUID().toString());
             result.setProperty(getPropertyKey(StartedConfigKey.getInstance()), Boolean.TRUE.toString());
             result.setProperty(getPropertyKey(DeletedConfigKey.getInstance()), Boolean.FALSE.toString());
+            result.setProperty(getPropertyKey(IoConcurrencyConfigKey.getInstance()), "4");
+            result.setProperty(getPropertyKey(ZeroBlockDetectionConfigKey.getInstance()), Boolean.TRUE.toString());
+            result.setProperty(getPropertyKey(ReplicationDedupConfigKey.getInstance()), Boolean.TRUE.toString());
+            result.setProperty(getPropertyKey(ReplicationCompressionConfigKey.getInstance()), Boolean.TRUE.toString());
             return result;
         }
     };
@@ -0,0 +1,184 @@
+package io.eguan.vvr.persistence.repository;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.nrs.NrsFile;
+import io.eguan.nrs.NrsFileHeader;
+import io.eguan.nrs.NrsFileJanitor;
+import io.eguan.utils.UuidT;
+import io.eguan.vvr.configuration.AbstractVvrCommonFixture;
+import io.eguan.vvr.repository.core.api.Device;
+import io.eguan.vvr.repository.core.api.Snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the lookup of block keys through a chain of snapshots. The blocks read are written in the oldest
+ * snapshot, under <code>depth</code> snapshots. Compares the {@link NrsAncestorChain} with the former walk of the
+ * ancestors, that loads, opens and reads every parent file.
+ * <p>
+ * Run with <code>java -cp &lt;test classpath&gt; org.openjdk.jmh.Main SnapshotChainLookupBenchmark</code>.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnapshotChainLookupBenchmark extends AbstractVvrCommonFixture {
+
+    /** Blocks read per benchmark invocation, written in the oldest snapshot */
+    private static final int BLOCKS = 256;
+
+    /** Number of snapshots above the blocks read */
+    @Param({ "1", "10", "100" })
+    public int depth;
+
+    @Param({ "chain", "walk" })
+    public String lookupType;
+
+    private NrsRepository repository;
+    private NrsDevice device;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        setUpConfiguration();
+
+        final NrsRepository.Builder vvrBuilder = new NrsRepository.Builder();
+        vvrBuilder.configuration(getConfiguration());
+        vvrBuilder.uuid(UUID.randomUUID());
+        vvrBuilder.ownerId(UUID.randomUUID());
+        vvrBuilder.nodeId(UUID.randomUUID());
+        vvrBuilder.rootUuid(UUID.randomUUID());
+        repository = vvrBuilder.create();
+        repository.init();
+        repository.start(true);
+
+        final int blockSize = getDefaultBlockSize();
+        final Snapshot rootSnapshot = repository.getRootSnapshot();
+        device = (NrsDevice) rootSnapshot.createDevice("bench", (long) (BLOCKS + depth) * blockSize).get();
+        device.activate().get();
+
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            // Blocks read by the benchmark in the oldest snapshot
+            final ByteBuffer buffer = ByteBuffer.allocate(BLOCKS * blockSize);
+            for (int i = 0; i < BLOCKS; i++) {
+                buffer.put(i * blockSize, (byte) (i + 1));
+            }
+            handle.write(buffer, 0, BLOCKS * blockSize, 0);
+            device.createSnapshot().get();
+
+            // One new block in every other snapshot
+            final ByteBuffer block = ByteBuffer.allocate(blockSize);
+            for (int i = 1; i < depth; i++) {
+                block.clear();
+                block.put(0, (byte) i);
+                handle.write(block, 0, blockSize, (long) (BLOCKS + i) * blockSize);
+                device.createSnapshot().get();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            device.deactivate().get();
+            repository.stop(true);
+            repository.fini();
+        }
+        finally {
+            tearDownConfiguration();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public void lookup(final Blackhole blackhole) throws IOException {
+        if ("chain".equals(lookupType)) {
+            for (int i = 0; i < BLOCKS; i++) {
+                blackhole.consume(device.readHash(i, true, false));
+            }
+        }
+        else {
+            final NrsFileJanitor nrsFileJanitor = repository.getNrsFileJanitor();
+            for (int i = 0; i < BLOCKS; i++) {
+                blackhole.consume(walkAncestors(nrsFileJanitor, device, i));
+            }
+        }
+    }
+
+    /**
+     * Former lookup of a key: reads the file of the device, then opens and reads every ancestor, from the direct
+     * parent.
+     */
+    private static final byte[] walkAncestors(final NrsFileJanitor nrsFileJanitor, final NrsDevice device,
+            final long blockIndex) throws IOException {
+        final byte[] deviceResult = device.getNrsFilePath().read(blockIndex);
+        if (deviceResult != null) {
+            return deviceResult;
+        }
+        UuidT<NrsFile> parentUuid = device.getParentFile();
+        boolean partial = true;
+        while (partial) {
+            final NrsFile parent = nrsFileJanitor.loadNrsFile(parentUuid);
+            final NrsFileHeader<NrsFile> header = parent.getDescriptor();
+            if (header.isRoot()) {
+                break;
+            }
+            final NrsFile parentOpened = nrsFileJanitor.openNrsFile(parentUuid, true);
+            try {
+                final byte[] result = parentOpened.read(blockIndex);
+                if (result != null) {
+                    return result;
+                }
+            }
+            finally {
+                nrsFileJanitor.unlockNrsFile(parentOpened);
+            }
+            parentUuid = header.getParentId();
+            partial = header.isPartial();
+        }
+        return null;
+    }
+}
@@ -20,12 +20,14 @@ package io.eguan.vvr.persistence.repository;
  * #L%
  */
 
+import io.eguan.ibs.Ibs;
 import io.eguan.nrs.NrsFile;
 import io.eguan.proto.Common.OpCode;
 import io.eguan.proto.Common.ProtocolVersion;
 import io.eguan.proto.Common.Type;
 import io.eguan.proto.Common.Uuid;
 import io.eguan.proto.nrs.NrsRemote.NrsVersion;
+import io.eguan.proto.vvr.VvrRemote;
 import io.eguan.proto.vvr.VvrRemote.RemoteOperation;
 import io.eguan.vvr.configuration.AbstractVvrCommonFixture;
 import io.eguan.vvr.persistence.repository.NrsRepository;
@@ -37,9 +39,11 @@ import io.eguan.vvr.repository.core.api.FutureVoid;
 import io.eguan.vvr.repository.core.api.Snapshot;
 import io.eguan.vvr.repository.core.api.VersionedVolumeRepository;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 
 import org.junit.After;
@@ -49,6 +53,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.protobuf.ByteString;
+
 /**
  * Tests the history of a repository.
  * 
@@ -836,6 +842,112 @@ public class TestRepositoryHistory extends AbstractVvrCommonFixture {
         }
     }
 
+    /**
+     * Check the reply to an offer of blocks: only the keys of the blocks missing in the IBS are returned.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testIbsOffer() throws Exception {
+        final Random random = new Random();
+        final byte[] keyStored = new byte[32];
+        final byte[] keyMissing = new byte[32];
+        random.nextBytes(keyStored);
+        random.nextBytes(keyMissing);
+        final byte[] block = new byte[getDefaultBlockSize()];
+        random.nextBytes(block);
+
+        final Ibs ibs = ((NrsRepository) repository).getIbsInstance();
+        Assert.assertTrue(ibs.put(keyStored, ByteBuffer.wrap(block)));
+
+        // Offer the two blocks
+        {
+            final RemoteOperation reply = offerIbs(keyStored, keyMissing);
+            Assert.assertSame(Type.IBS, reply.getType());
+            Assert.assertSame(OpCode.LIST, reply.getOp());
+            Assert.assertEquals(1, reply.getIbsCount());
+            Assert.assertEquals(ByteString.copyFrom(keyMissing), reply.getIbs(0).getKey());
+            Assert.assertFalse(reply.getIbs(0).hasValue());
+        }
+
+        // Send the missing block
+        {
+            final RemoteOperation.Builder builder = RemoteOperation.newBuilder();
+            builder.setVersion(ProtocolVersion.VERSION_1);
+            builder.setType(Type.IBS);
+            builder.setOp(OpCode.SET);
+            builder.addIbs(VvrRemote.Ibs.newBuilder().setKey(ByteString.copyFrom(keyMissing))
+                    .setValue(ByteString.copyFrom(block)));
+            Assert.assertNull(repository.handleMsg(builder.build()));
+        }
+
+        // Both blocks are stored now
+        {
+            final RemoteOperation reply = offerIbs(keyStored, keyMissing);
+            Assert.assertEquals(0, reply.getIbsCount());
+        }
+        final ByteBuffer readBlock = ibs.get(keyMissing, getDefaultBlockSize(), false);
+        readBlock.rewind();
+        Assert.assertEquals(ByteBuffer.wrap(block), readBlock);
+    }
+
+    /**
+     * Check the compression of the blocks exchanged with the peers.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testIbsCompression() throws Exception {
+        final Random random = new Random();
+        final byte[] key = new byte[32];
+        random.nextBytes(key);
+        final byte[] block = new byte[getDefaultBlockSize()];
+        for (int i = 0; i < block.length; i += 16) {
+            block[i] = (byte) random.nextInt();
+        }
+        final ByteString compressed = NrsRepository.IBS_COMPRESSOR.compress(ByteBuffer.wrap(block));
+        Assert.assertNotNull(compressed);
+
+        // Receive a compressed block
+        {
+            final RemoteOperation.Builder builder = RemoteOperation.newBuilder();
+            builder.setVersion(ProtocolVersion.VERSION_1);
+            builder.setType(Type.IBS);
+            builder.setOp(OpCode.SET);
+            builder.addIbs(VvrRemote.Ibs.newBuilder().setKey(ByteString.copyFrom(key)).setDeflatedValue(compressed));
+            Assert.assertNull(repository.handleMsg(builder.build()));
+        }
+        final ByteBuffer readBlock = ((NrsRepository) repository).getIbsInstance().get(key, getDefaultBlockSize(),
+                false);
+        readBlock.rewind();
+        Assert.assertEquals(ByteBuffer.wrap(block), readBlock);
+
+        // The block is sent compressed to a peer
+        {
+            final RemoteOperation.Builder builder = RemoteOperation.newBuilder();
+            builder.setVersion(ProtocolVersion.VERSION_1);
+            builder.setType(Type.IBS);
+            builder.setOp(OpCode.GET);
+            builder.addIbs(VvrRemote.Ibs.newBuilder().setKey(ByteString.copyFrom(key)));
+            final RemoteOperation reply = (RemoteOperation) repository.handleMsg(builder.build());
+            Assert.assertEquals(1, reply.getIbsCount());
+            Assert.assertFalse(reply.getIbs(0).hasValue());
+            Assert.assertEquals(ByteBuffer.wrap(block), NrsRepository.IBS_COMPRESSOR.decompress(reply.getIbs(0)
+                    .getDeflatedValue(), getDefaultBlockSize()));
+        }
+    }
+
+    private final RemoteOperation offerIbs(final byte[]... keys) {
+        final RemoteOperation.Builder builder = RemoteOperation.newBuilder();
+        builder.setVersion(ProtocolVersion.VERSION_1);
+        builder.setType(Type.IBS);
+        builder.setOp(OpCode.LIST);
+        for (final byte[] key : keys) {
+            builder.addIbs(VvrRemote.Ibs.newBuilder().setKey(ByteString.copyFrom(key)));
+        }
+        return (RemoteOperation) repository.handleMsg(builder.build());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testRootSnapshotCreateDeviceNullName() throws Throwable {
         rootSnapshot.createDevice(null, 12345678);
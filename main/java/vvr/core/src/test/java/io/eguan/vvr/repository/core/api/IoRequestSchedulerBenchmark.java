@@ -0,0 +1,237 @@
+package io.eguan.vvr.repository.core.api;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the admission of concurrent IO requests. Compares the {@link IoRequestScheduler} with the former
+ * pending list, scanned by every waiter and woken up by <code>notifyAll()</code>.
+ * <p>
+ * Run with <code>java -cp &lt;test classpath&gt; org.openjdk.jmh.Main IoRequestSchedulerBenchmark</code>.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IoRequestSchedulerBenchmark {
+
+    /** Requests per benchmark invocation */
+    private static final int REQUESTS = 4096;
+    /** Blocks accessed by the overlapping requests */
+    private static final int OVERLAP_BLOCKS = 16;
+    /** Distance between the blocks of two threads, for non-overlapping requests */
+    private static final int THREAD_BLOCKS = 1024 * 1024;
+
+    /** Admission of the requests under test */
+    interface Scheduler {
+        Object admit(long firstBlock, long lastBlock, boolean read) throws InterruptedException;
+
+        void release(Object entry);
+    }
+
+    /** The interval tree scheduler */
+    static final class IntervalScheduler implements Scheduler {
+        private final IoRequestScheduler scheduler = new IoRequestScheduler();
+
+        @Override
+        public final Object admit(final long firstBlock, final long lastBlock, final boolean read)
+                throws InterruptedException {
+            return scheduler.admit(firstBlock, lastBlock, read);
+        }
+
+        @Override
+        public final void release(final Object entry) {
+            scheduler.release((IoRequestScheduler.Entry) entry);
+        }
+    }
+
+    /** The former pending list: writes are executed one at a time, reads may pass non-overlapping writes */
+    static final class ListScheduler implements Scheduler {
+        private static final class Request {
+            private final long firstBlock;
+            private final long lastBlock;
+            private final boolean read;
+
+            Request(final long firstBlock, final long lastBlock, final boolean read) {
+                this.firstBlock = firstBlock;
+                this.lastBlock = lastBlock;
+                this.read = read;
+            }
+
+            final boolean overlap(final Request other) {
+                return firstBlock <= other.lastBlock && other.firstBlock <= lastBlock;
+            }
+        }
+
+        private final List<Request> pending = new ArrayList<>();
+        private final ReadWriteLock pendingLock = new ReentrantReadWriteLock();
+
+        @Override
+        public final Object admit(final long firstBlock, final long lastBlock, final boolean read)
+                throws InterruptedException {
+            final Request request = new Request(firstBlock, lastBlock, read);
+            pendingLock.writeLock().lock();
+            try {
+                pending.add(request);
+            }
+            finally {
+                pendingLock.writeLock().unlock();
+            }
+
+            boolean waitExec = true;
+            while (waitExec) {
+                pendingLock.readLock().lock();
+                try {
+                    if (pending.get(0) == request) {
+                        break;
+                    }
+                    for (int i = 0; i < pending.size(); i++) {
+                        final Request tmp = pending.get(i);
+                        if (tmp == request) {
+                            waitExec = !read;
+                            break;
+                        }
+                        if (read && !tmp.read && request.overlap(tmp)) {
+                            break;
+                        }
+                    }
+                }
+                finally {
+                    pendingLock.readLock().unlock();
+                }
+                if (waitExec) {
+                    synchronized (pendingLock) {
+                        pendingLock.wait(5000);
+                    }
+                }
+            }
+            return request;
+        }
+
+        @Override
+        public final void release(final Object entry) {
+            pendingLock.writeLock().lock();
+            try {
+                pending.remove(entry);
+            }
+            finally {
+                pendingLock.writeLock().unlock();
+            }
+            synchronized (pendingLock) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    /** Number of concurrent requests */
+    @Param({ "1", "8", "32", "128" })
+    public int concurrency;
+
+    /** <code>true</code> if the requests of the threads access the same blocks */
+    @Param({ "true", "false" })
+    public boolean overlapping;
+
+    @Param({ "interval", "list" })
+    public String schedulerType;
+
+    /** Simulated IO duration, in JMH CPU tokens */
+    @Param({ "100" })
+    public long ioTokens;
+
+    private Scheduler scheduler;
+    private ExecutorService executor;
+    private List<Callable<Void>> tasks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = "interval".equals(schedulerType) ? new IntervalScheduler() : new ListScheduler();
+        executor = Executors.newFixedThreadPool(concurrency);
+        tasks = new ArrayList<>(concurrency);
+        final int requestsPerThread = REQUESTS / concurrency;
+        for (int i = 0; i < concurrency; i++) {
+            final long threadBase = overlapping ? 0 : (long) i * THREAD_BLOCKS;
+            final Random random = new Random(i);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public final Void call() throws Exception {
+                    for (int j = 0; j < requestsPerThread; j++) {
+                        final long firstBlock = threadBase + random.nextInt(OVERLAP_BLOCKS);
+                        final long lastBlock = firstBlock + random.nextInt(4);
+                        final Object entry = scheduler.admit(firstBlock, lastBlock, random.nextBoolean());
+                        try {
+                            Blackhole.consumeCPU(ioTokens);
+                        }
+                        finally {
+                            scheduler.release(entry);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void requests() throws Exception {
+        final List<Future<Void>> futures = executor.invokeAll(tasks);
+        for (int i = futures.size() - 1; i >= 0; i--) {
+            futures.get(i).get();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package io.eguan.vvr.repository.core.api;
  */
 
 import io.eguan.utils.ByteArrays;
+import io.eguan.vvr.persistence.repository.NrsRepository;
 import io.eguan.vvr.repository.core.api.Device;
 
 import java.io.File;
@@ -30,9 +31,14 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.AssertionFailedError;
@@ -40,6 +46,8 @@ import junit.framework.AssertionFailedError;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Tests to read and write in VVR {@link Device}.
  *
@@ -154,6 +162,276 @@ public abstract class TestDeviceIoAbstract extends TestDeviceAbstract {
         }
     }
 
+    /**
+     * Write several blocks twice: the hashing stage must detect the duplicate blocks of the request and skip the blocks
+     * that do not change.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testWriteStageStats() throws IOException {
+        final IoStageStats stats = ((NrsRepository) device.getVvr()).getIoStageStats();
+        stats.reset();
+
+        // Blocks 0 and 2 are the same
+        final int blockCount = 4;
+        final byte[] contents = new byte[blockCount * deviceBlockSize];
+        final Random random = new SecureRandom();
+        random.nextBytes(contents);
+        System.arraycopy(contents, 0, contents, 2 * deviceBlockSize, deviceBlockSize);
+
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            handle.write(ByteBuffer.wrap(contents), 0, contents.length, deviceBlockSize);
+            Assert.assertEquals(blockCount, stats.getBlocksHashed());
+            Assert.assertEquals(0, stats.getBlocksUnchanged());
+            Assert.assertEquals(1, stats.getBlocksDuplicate());
+            Assert.assertEquals(1, stats.getCount(IoStageStats.IoStage.HASH));
+            Assert.assertEquals(1, stats.getCount(IoStageStats.IoStage.STORE));
+            Assert.assertEquals(1, stats.getCount(IoStageStats.IoStage.KEYS));
+
+            // Same contents: nothing to store
+            handle.write(ByteBuffer.wrap(contents), 0, contents.length, deviceBlockSize);
+            Assert.assertEquals(2 * blockCount, stats.getBlocksHashed());
+            Assert.assertEquals(blockCount, stats.getBlocksUnchanged());
+            Assert.assertEquals(2, stats.getCount(IoStageStats.IoStage.HASH));
+            Assert.assertEquals(1, stats.getCount(IoStageStats.IoStage.STORE));
+            Assert.assertEquals(2, stats.getCount(IoStageStats.IoStage.KEYS));
+
+            final byte[] read = new byte[contents.length];
+            handle.read(ByteBuffer.wrap(read), 0, read.length, deviceBlockSize);
+            Assert.assertTrue(Arrays.equals(contents, read));
+        }
+    }
+
+    /**
+     * Read blocks in direct and heap buffers: the blocks are loaded in place in a direct buffer, the blocks of zeros
+     * and the partial blocks are copied.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testReadCopiedBytes() throws IOException {
+        final IoStageStats stats = ((NrsRepository) device.getVvr()).getIoStageStats();
+        final byte[] contents = new byte[2 * deviceBlockSize];
+        final Random random = new SecureRandom();
+        random.nextBytes(contents);
+
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            // Blocks 1 and 2 written, blocks 0 and 3 read as zeros
+            handle.write(ByteBuffer.wrap(contents), 0, contents.length, deviceBlockSize);
+            stats.reset();
+
+            final int length = 4 * deviceBlockSize;
+            final ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            handle.read(direct, 0, length, 0);
+            Assert.assertEquals(1, stats.getReadCount());
+            Assert.assertEquals(length, stats.getBytesRead());
+            Assert.assertEquals(2 * deviceBlockSize, stats.getBytesCopied());
+
+            // Blocks loaded in a temporary buffer
+            final byte[] read = new byte[length];
+            handle.read(ByteBuffer.wrap(read), 0, length, 0);
+            Assert.assertEquals(2, stats.getReadCount());
+            Assert.assertEquals(6 * deviceBlockSize, stats.getBytesCopied());
+            Assert.assertEquals(3 * deviceBlockSize, stats.getAverageBytesCopied());
+
+            // Same contents
+            final byte[] readDirect = new byte[length];
+            direct.rewind();
+            direct.get(readDirect);
+            Assert.assertTrue(Arrays.equals(read, readDirect));
+            Assert.assertTrue(Arrays.equals(contents, Arrays.copyOfRange(read, deviceBlockSize, 3 * deviceBlockSize)));
+
+            // Partial block
+            handle.read(ByteBuffer.wrap(read), 0, deviceBlockSize / 2, deviceBlockSize);
+            Assert.assertEquals(6 * deviceBlockSize + deviceBlockSize / 2, stats.getBytesCopied());
+        }
+    }
+
+    /**
+     * Write blocks filled with zeros: the blocks are trimmed or skipped, unless they hide the contents of a parent
+     * snapshot.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteZeroBlocks() throws Exception {
+        final IoStageStats stats = ((NrsRepository) device.getVvr()).getIoStageStats();
+        final int blockCount = 8;
+        final byte[] expected = new byte[blockCount * deviceBlockSize];
+        final byte[] zeros = new byte[4 * deviceBlockSize];
+        final Random random = new SecureRandom();
+
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            // Blocks 1 to 4 written in the parent snapshot
+            random.nextBytes(expected);
+            Arrays.fill(expected, 0, deviceBlockSize, (byte) 0);
+            Arrays.fill(expected, 5 * deviceBlockSize, expected.length, (byte) 0);
+            handle.write(ByteBuffer.wrap(expected), deviceBlockSize, 4 * deviceBlockSize, deviceBlockSize);
+            device.createSnapshot("zero").get();
+            stats.reset();
+
+            // Zeros on blocks of the parent: must be stored
+            handle.write(ByteBuffer.wrap(zeros), 0, 2 * deviceBlockSize, deviceBlockSize);
+            Arrays.fill(expected, deviceBlockSize, 3 * deviceBlockSize, (byte) 0);
+            Assert.assertEquals(0, stats.getBlocksZero());
+
+            // Block 3 in the device, block 4 in the parent, blocks 5 and 6 never written
+            final byte[] block3 = new byte[deviceBlockSize];
+            random.nextBytes(block3);
+            handle.write(ByteBuffer.wrap(block3), 0, deviceBlockSize, 3 * deviceBlockSize);
+            handle.write(ByteBuffer.wrap(zeros), 0, 4 * deviceBlockSize, 3 * deviceBlockSize);
+            Arrays.fill(expected, 3 * deviceBlockSize, 7 * deviceBlockSize, (byte) 0);
+            Assert.assertEquals(3, stats.getBlocksZero());
+            Assert.assertEquals(3, stats.getBlocksHashed());
+
+            // Single block, partial write of zeros on a block never written
+            handle.write(ByteBuffer.wrap(zeros), 0, deviceBlockSize, 7 * deviceBlockSize);
+            handle.write(ByteBuffer.wrap(zeros), 0, deviceBlockSize / 2, 7 * deviceBlockSize);
+            Assert.assertEquals(5, stats.getBlocksZero());
+
+            final byte[] read = new byte[expected.length];
+            random.nextBytes(read);
+            handle.read(ByteBuffer.wrap(read), 0, read.length, 0);
+            Assert.assertTrue(Arrays.equals(expected, read));
+        }
+    }
+
+    /**
+     * Blocks written in the device or in its parent are allocated, blocks trimmed or never written are not.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAllocatedBlocks() throws Exception {
+        final byte[] data = new byte[2 * deviceBlockSize];
+        new SecureRandom().nextBytes(data);
+
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            Assert.assertTrue(handle.getAllocatedBlocks(0, 8).isEmpty());
+
+            // Blocks 1, 2 and 3 in the parent snapshot, block 6 written then trimmed
+            handle.write(ByteBuffer.wrap(data), 0, 2 * deviceBlockSize, deviceBlockSize);
+            handle.write(ByteBuffer.wrap(data), 0, deviceBlockSize, 3 * deviceBlockSize);
+            handle.write(ByteBuffer.wrap(data), 0, deviceBlockSize, 6 * deviceBlockSize);
+            handle.trim(deviceBlockSize, 6 * deviceBlockSize);
+            device.createSnapshot("allocated").get();
+
+            // Block 4 in the device, block 5 written then trimmed, block 3 of the parent trimmed
+            handle.write(ByteBuffer.wrap(data), 0, deviceBlockSize, 4 * deviceBlockSize);
+            handle.write(ByteBuffer.wrap(data), 0, deviceBlockSize, 5 * deviceBlockSize);
+            handle.trim(deviceBlockSize, 5 * deviceBlockSize);
+            handle.trim(deviceBlockSize, 3 * deviceBlockSize);
+
+            final BitSet expected = new BitSet();
+            expected.set(1, 3);
+            expected.set(4);
+            Assert.assertEquals(expected, handle.getAllocatedBlocks(0, 8));
+            Assert.assertEquals(expected.get(2, 6), handle.getAllocatedBlocks(2, 4));
+        }
+    }
+
+    /**
+     * Write zeros: the whole blocks of the device are trimmed, the blocks of the parent are hidden by blocks of zeros.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteZeroes() throws Exception {
+        final int blockCount = 8;
+        final byte[] expected = new byte[blockCount * deviceBlockSize];
+        new SecureRandom().nextBytes(expected);
+
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            // Blocks 0 to 3 in the parent snapshot, blocks 4 and 5 in the device
+            handle.write(ByteBuffer.wrap(expected), 0, 4 * deviceBlockSize, 0);
+            device.createSnapshot("zeroes").get();
+            handle.write(ByteBuffer.wrap(expected), 4 * deviceBlockSize, 2 * deviceBlockSize, 4 * deviceBlockSize);
+            Arrays.fill(expected, 6 * deviceBlockSize, expected.length, (byte) 0);
+
+            // From the middle of block 0 to the middle of block 5, and block 7, never written
+            handle.writeZeroes(5 * deviceBlockSize, deviceBlockSize / 2);
+            Arrays.fill(expected, deviceBlockSize / 2, deviceBlockSize / 2 + 5 * deviceBlockSize, (byte) 0);
+            handle.writeZeroes(deviceBlockSize, 7 * deviceBlockSize);
+            handle.flush();
+
+            final byte[] read = new byte[expected.length];
+            handle.read(ByteBuffer.wrap(read), 0, read.length, 0);
+            ByteArrays.assertEqualsByteArrays(expected, read);
+
+            // Block 4 trimmed, blocks of zeros hiding the parent
+            final BitSet allocated = new BitSet();
+            allocated.set(0, 4);
+            allocated.set(5);
+            Assert.assertEquals(allocated, handle.getAllocatedBlocks(0, blockCount));
+        }
+    }
+
+    /**
+     * Write overlapping requests asynchronously: the requests must be executed in order.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testReadWriteAsync() throws Exception {
+        final int blockCount = 8;
+        final byte[] expected = new byte[blockCount * deviceBlockSize];
+        final Random random = new SecureRandom();
+        final List<ListenableFuture<Void>> futures = new ArrayList<>();
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            for (int i = 0; i < 32; i++) {
+                // Write at a random place, possibly not aligned
+                final int length = 1 + random.nextInt(3 * deviceBlockSize);
+                final int position = random.nextInt(expected.length - length + 1);
+                final byte[] data = new byte[length + 7];
+                random.nextBytes(data);
+                System.arraycopy(data, 7, expected, position, length);
+
+                final ByteBuffer src = (i % 2) == 0 ? ByteBuffer.wrap(data) : ByteBuffer.allocateDirect(data.length);
+                if (src.isDirect()) {
+                    src.put(data);
+                    src.position(3);
+                }
+                final int prevPosition = src.position();
+                futures.add(handle.writeAsync(src, 7, length, position));
+                Assert.assertEquals(prevPosition, src.position());
+            }
+            for (final ListenableFuture<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            // Read back
+            final ByteBuffer dst = ByteBuffer.allocateDirect(expected.length + 5);
+            handle.readAsync(dst, 5, expected.length, 0).get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(0, dst.position());
+            final byte[] read = new byte[expected.length];
+            dst.position(5);
+            dst.get(read);
+            ByteArrays.assertEqualsByteArrays(expected, read);
+
+            // Overflow
+            try {
+                handle.readAsync(dst, 0, deviceBlockSize, device.getSize()).get(30, TimeUnit.SECONDS);
+                throw new AssertionFailedError("Not reached");
+            }
+            catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+
+        // Read-only handle
+        try (Device.ReadWriteHandle handle = device.open(false)) {
+            try {
+                handle.writeAsync(ByteBuffer.allocate(deviceBlockSize), 0, deviceBlockSize, 0).get(30,
+                        TimeUnit.SECONDS);
+                throw new AssertionFailedError("Not reached");
+            }
+            catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
     private static final void write(final byte[] data, final long position, final int offset, final int length,
             final RandomAccessFile raf, final Device.ReadWriteHandle handle) throws IOException {
         // Write in file
@@ -426,6 +704,56 @@ public abstract class TestDeviceIoAbstract extends TestDeviceAbstract {
         }
     }
 
+    /**
+     * Write some blocks between the creation of snapshots and read them through the chain of snapshots, before and
+     * after the deletion of some snapshots.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testReadSnapshotChain() throws Exception {
+        final int depth = 12;
+        final List<Snapshot> snapshots = new ArrayList<>(depth);
+        final byte[][] expected = new byte[depth + 2][];
+        try (Device.ReadWriteHandle handle = device.open(true)) {
+            for (int i = 0; i < depth; i++) {
+                // New block i+1 and overwrite block 0 at each level
+                writeBlock(handle, i + 1, (byte) (i + 1), expected);
+                writeBlock(handle, 0, (byte) (i + 100), expected);
+                snapshots.add(device.createSnapshot().get());
+            }
+            // Block never written
+            expected[depth + 1] = new byte[deviceBlockSize];
+            assertBlocks(handle, expected);
+
+            // Delete some snapshots
+            for (int i = 1; i < depth; i += 3) {
+                snapshots.get(i).delete().get();
+            }
+            assertBlocks(handle, expected);
+
+            // Write in the device: hides the value of the snapshots
+            writeBlock(handle, 3, (byte) 50, expected);
+            assertBlocks(handle, expected);
+        }
+    }
+
+    private final void writeBlock(final Device.ReadWriteHandle handle, final int blockIndex, final byte value,
+            final byte[][] expected) throws IOException {
+        final byte[] block = new byte[deviceBlockSize];
+        Arrays.fill(block, value);
+        handle.write(ByteBuffer.wrap(block), 0, deviceBlockSize, (long) blockIndex * deviceBlockSize);
+        expected[blockIndex] = block;
+    }
+
+    private final void assertBlocks(final Device.ReadWriteHandle handle, final byte[][] expected) throws IOException {
+        final byte[] block = new byte[deviceBlockSize];
+        for (int i = 0; i < expected.length; i++) {
+            handle.read(ByteBuffer.wrap(block), 0, deviceBlockSize, (long) i * deviceBlockSize);
+            Assert.assertArrayEquals("block=" + i, expected[i], block);
+        }
+    }
+
     private final void assertRunOk(final String threadName, final AtomicReference<Throwable> throwableRef) {
         final Throwable runThrowable = throwableRef.get();
         if (runThrowable != null) {
@@ -0,0 +1,270 @@
+package io.eguan.vvr.repository.core.api;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.eguan.vvr.repository.core.api.IoRequestScheduler.Entry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link IoRequestScheduler}.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public class TestIoRequestScheduler {
+
+    /** Max time to wait for a request that should not be blocked */
+    private static final long TIMEOUT = 10;
+
+    @Test
+    public void testReadsConcurrent() throws Exception {
+        final IoRequestScheduler scheduler = new IoRequestScheduler();
+        final Entry r1 = scheduler.admit(0, 10, true);
+        final Entry r2 = scheduler.admit(5, 15, true);
+        final Entry r3 = scheduler.admit(0, 10, true);
+        Assert.assertEquals(3, scheduler.getPendingCount());
+        scheduler.release(r2);
+        scheduler.release(r1);
+        scheduler.release(r3);
+        Assert.assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testWritesNoOverlap() throws Exception {
+        final IoRequestScheduler scheduler = new IoRequestScheduler();
+        final Entry w1 = scheduler.admit(0, 10, false);
+        final Entry w2 = scheduler.admit(11, 20, false);
+        final Entry r3 = scheduler.admit(21, 21, true);
+        final Entry w4 = scheduler.admit(100, 100, false);
+        Assert.assertEquals(4, scheduler.getPendingCount());
+        scheduler.release(w4);
+        scheduler.release(w1);
+        scheduler.release(r3);
+        scheduler.release(w2);
+        Assert.assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testOverlapOrder() throws Exception {
+        final IoRequestScheduler scheduler = new IoRequestScheduler();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final Entry w1 = scheduler.admit(0, 10, false);
+
+            // Read on the same blocks: blocked
+            final Future<Entry> r2 = executor.submit(newAdmit(scheduler, 10, 12, true));
+            waitPending(scheduler, 2);
+            // Write after the read: blocked by r2
+            final Future<Entry> w3 = executor.submit(newAdmit(scheduler, 12, 12, false));
+            waitPending(scheduler, 3);
+            // Non overlapping write: not blocked
+            final Entry w4 = scheduler.admit(20, 30, false);
+
+            assertBlocked(r2);
+            assertBlocked(w3);
+
+            // Release w1: r2 can start, w3 is blocked by r2
+            scheduler.release(w1);
+            final Entry r2Entry = r2.get(TIMEOUT, TimeUnit.SECONDS);
+            assertBlocked(w3);
+            scheduler.release(w4);
+            assertBlocked(w3);
+
+            scheduler.release(r2Entry);
+            scheduler.release(w3.get(TIMEOUT, TimeUnit.SECONDS));
+            Assert.assertEquals(0, scheduler.getPendingCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInterrupted() throws Exception {
+        final IoRequestScheduler scheduler = new IoRequestScheduler();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final Entry w1 = scheduler.admit(0, 10, false);
+            final Future<Entry> w2 = executor.submit(newAdmit(scheduler, 5, 15, false));
+            waitPending(scheduler, 2);
+            final Future<Entry> r3 = executor.submit(newAdmit(scheduler, 15, 15, true));
+            waitPending(scheduler, 3);
+            assertBlocked(r3);
+
+            // Interrupt w2: r3 is not blocked anymore
+            w2.cancel(true);
+            final Entry r3Entry = r3.get(TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertEquals(2, scheduler.getPendingCount());
+            scheduler.release(r3Entry);
+            scheduler.release(w1);
+            Assert.assertEquals(0, scheduler.getPendingCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAdmitAsync() throws Exception {
+        final IoRequestScheduler scheduler = new IoRequestScheduler();
+        final Entry w1 = scheduler.admit(0, 10, false);
+
+        // Not blocked: admitted immediately
+        final AtomicReference<Entry> r2 = new AtomicReference<>();
+        scheduler.admit(20, 30, true, newListener(r2));
+        Assert.assertNotNull(r2.get());
+
+        // Blocked by w1
+        final AtomicReference<Entry> r3 = new AtomicReference<>();
+        scheduler.admit(5, 25, true, newListener(r3));
+        // Blocked by r3
+        final AtomicReference<Entry> w4 = new AtomicReference<>();
+        scheduler.admit(25, 25, false, newListener(w4));
+        Assert.assertNull(r3.get());
+        Assert.assertNull(w4.get());
+
+        scheduler.release(w1);
+        Assert.assertNotNull(r3.get());
+        Assert.assertNull(w4.get());
+        scheduler.release(r3.get());
+        Assert.assertNull(w4.get());
+        scheduler.release(r2.get());
+        Assert.assertNotNull(w4.get());
+        scheduler.release(w4.get());
+        Assert.assertEquals(0, scheduler.getPendingCount());
+    }
+
+    /**
+     * Run random requests concurrently and check that the blocks are never accessed by a writer and another request.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentRandom() throws Exception {
+        final IoRequestScheduler scheduler = new IoRequestScheduler();
+        final int blockCount = 64;
+        // For each block: -1 if written, count of readers otherwise
+        final AtomicIntegerArray blocks = new AtomicIntegerArray(blockCount);
+        final int threadCount = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                final long seed = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public final Void call() throws Exception {
+                        final Random random = new Random(seed);
+                        for (int i = 0; i < 2000; i++) {
+                            final int first = random.nextInt(blockCount);
+                            final int last = Math.min(blockCount - 1, first + random.nextInt(4));
+                            final boolean read = random.nextBoolean();
+                            final Entry entry = scheduler.admit(first, last, read);
+                            try {
+                                for (int b = first; b <= last; b++) {
+                                    if (read) {
+                                        Assert.assertTrue(blocks.incrementAndGet(b) > 0);
+                                    }
+                                    else {
+                                        Assert.assertTrue(blocks.compareAndSet(b, 0, -1));
+                                    }
+                                }
+                                Thread.yield();
+                                for (int b = first; b <= last; b++) {
+                                    if (read) {
+                                        blocks.decrementAndGet(b);
+                                    }
+                                    else {
+                                        Assert.assertTrue(blocks.compareAndSet(b, -1, 0));
+                                    }
+                                }
+                            }
+                            finally {
+                                scheduler.release(entry);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(0, scheduler.getPendingCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final Callable<Entry> newAdmit(final IoRequestScheduler scheduler, final long firstBlock,
+            final long lastBlock, final boolean read) {
+        return new Callable<Entry>() {
+            @Override
+            public final Entry call() throws Exception {
+                return scheduler.admit(firstBlock, lastBlock, read);
+            }
+        };
+    }
+
+    private static final IoRequestScheduler.AdmissionListener newListener(final AtomicReference<Entry> admitted) {
+        return new IoRequestScheduler.AdmissionListener() {
+            @Override
+            public final void admitted(final Entry entry) {
+                Assert.assertTrue(admitted.compareAndSet(null, entry));
+            }
+        };
+    }
+
+    private static final void waitPending(final IoRequestScheduler scheduler, final int count)
+            throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT * 1000;
+        while (scheduler.getPendingCount() != count) {
+            Assert.assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private static final void assertBlocked(final Future<Entry> future) throws Exception {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail("Not blocked");
+        }
+        catch (final TimeoutException e) {
+            // Ok
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.eguan.vvr.repository.core.api;
+
+/*
+ * #%L
+ * Project eguan
+ * %%
+ * Copyright (C) 2012 - 2017 Oodrive
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link VvrIoExecutor}.
+ * 
+ * @author oodrive
+ * @author llambert
+ * 
+ */
+public class TestVvrIoExecutor {
+
+    /** Max time to wait for a task, in seconds */
+    private static final long TIMEOUT = 10;
+
+    @Test
+    public void testMaxConcurrency() throws Exception {
+        final VvrIoExecutor executor = new VvrIoExecutor("test", 8);
+        try {
+            Assert.assertEquals(8, executor.newDeviceQueue(0).getMaxConcurrency());
+            Assert.assertEquals(8, executor.newDeviceQueue(100).getMaxConcurrency());
+
+            final VvrIoExecutor.DeviceQueue queue = executor.newDeviceQueue(3);
+            Assert.assertEquals(3, queue.getMaxConcurrency());
+
+            final int taskCount = 50;
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(taskCount);
+            for (int i = 0; i < taskCount; i++) {
+                queue.execute(new Runnable() {
+                    @Override
+                    public final void run() {
+                        final int count = running.incrementAndGet();
+                        int max;
+                        while ((max = maxRunning.get()) < count) {
+                            maxRunning.compareAndSet(max, count);
+                        }
+                        try {
+                            Thread.sleep(2);
+                        }
+                        catch (final InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                        running.decrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            Assert.assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+            Assert.assertTrue(maxRunning.get() <= 3);
+            Assert.assertTrue(maxRunning.get() > 1);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A device with many queued tasks must not delay the tasks of another device.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testFairness() throws Exception {
+        final VvrIoExecutor executor = new VvrIoExecutor("test", 1);
+        try {
+            final VvrIoExecutor.DeviceQueue busy = executor.newDeviceQueue(0);
+            final VvrIoExecutor.DeviceQueue other = executor.newDeviceQueue(0);
+
+            // Block the thread of the executor
+            final CountDownLatch blocked = new CountDownLatch(1);
+            busy.execute(new Runnable() {
+                @Override
+                public final void run() {
+                    try {
+                        blocked.await();
+                    }
+                    catch (final InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+
+            final List<String> order = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                busy.execute(newRecordTask(order, "busy"));
+            }
+            other.execute(newRecordTask(order, "other"));
+            final CountDownLatch done = new CountDownLatch(1);
+            busy.execute(new Runnable() {
+                @Override
+                public final void run() {
+                    done.countDown();
+                }
+            });
+
+            blocked.countDown();
+            Assert.assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+            synchronized (order) {
+                Assert.assertEquals(11, order.size());
+                // The other device is not served after all the tasks of the busy device
+                Assert.assertTrue(order.indexOf("other") <= 1);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final VvrIoExecutor executor = new VvrIoExecutor("test", 2);
+        final VvrIoExecutor.DeviceQueue queue = executor.newDeviceQueue(1);
+        final List<String> order = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            queue.execute(newRecordTask(order, "task"));
+        }
+
+        // Queued tasks are run before the end of the shutdown
+        executor.shutdown();
+        synchronized (order) {
+            Assert.assertEquals(20, order.size());
+        }
+
+        try {
+            queue.execute(newRecordTask(order, "task"));
+            Assert.fail();
+        }
+        catch (final RejectedExecutionException e) {
+            // Ok
+        }
+    }
+
+    private static final Runnable newRecordTask(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public final void run() {
+                synchronized (order) {
+                    order.add(name);
+                }
+            }
+        };
+    }
+}
@@ -79,6 +79,13 @@ public final class ProtocolDataUnit {
      */
     private ByteBuffer dataSegment;
 
+    /**
+     * <code>true</code> if the data segment is owned by the caller and must not be given back to the
+     * {@link ByteBufferCache}.
+     */
+    // OODRIVE
+    private boolean dataSegmentShared;
+
     /**
      * Optional header and data digests protect the integrity of the header and
      * data, respectively. The digests, if present, are located, respectively,
@@ -341,8 +348,8 @@ public final class ProtocolDataUnit {
 
         final int length = basicHeaderSegment.getDataSegmentLength();
 
-        if (dataSegment == null || dataSegment.limit() < length) {
-            dataSegment = ByteBufferCache.allocate(dataSegment, AbstractDataSegment.getTotalLength(length));
+        if (dataSegment == null || dataSegmentShared || dataSegment.limit() < length) {
+            dataSegment = ByteBufferCache.allocate(releaseDataSegment(), AbstractDataSegment.getTotalLength(length));
         }
         dataSegment.put(pdu);
 
@@ -522,7 +529,7 @@ public final class ProtocolDataUnit {
         }
         if (basicHeaderSegment.getDataSegmentLength() > 0) {
             dataSegment =
-                    ByteBufferCache.allocate(dataSegment, AbstractDataSegment.getTotalLength(basicHeaderSegment
+                    ByteBufferCache.allocate(releaseDataSegment(), AbstractDataSegment.getTotalLength(basicHeaderSegment
                     .getDataSegmentLength()));
             int dataSegmentLength = 0;
             while (dataSegmentLength < basicHeaderSegment.getDataSegmentLength()) {
@@ -562,7 +569,7 @@ public final class ProtocolDataUnit {
      */
     // OODRIVE
     public final void release() {
-        ByteBufferCache.release(dataSegment);
+        ByteBufferCache.release(releaseDataSegment());
         dataSegment = null;
 
         final Iterator<AdditionalHeaderSegment> iterator = this.getAdditionalHeaderSegments();
@@ -615,11 +622,61 @@ public final class ProtocolDataUnit {
 
     public final void setDataSegment(final ByteBuffer dataSegment) {
         dataSegment.clear();
-        ByteBufferCache.release(this.dataSegment);
+        ByteBufferCache.release(releaseDataSegment());
         this.dataSegment = dataSegment;
         basicHeaderSegment.setDataSegmentLength(dataSegment.capacity());
     }
 
+    /**
+     * Sets a data segment owned by the caller, without any copy. Unlike {@link #setDataSegment(ByteBuffer)}, the
+     * buffer is not given back to the {@link ByteBufferCache} when this PDU is released: it may be a slice of a
+     * larger buffer. The caller must not modify it until this PDU is sent.
+     * 
+     * @param dataSegment
+     *            The new data segment, from its position to its limit.
+     */
+    // OODRIVE
+    public final void setSharedDataSegment(final ByteBuffer dataSegment) {
+        final ByteBuffer newDataSegment = dataSegment.slice();
+        ByteBufferCache.release(releaseDataSegment());
+        this.dataSegment = newDataSegment;
+        dataSegmentShared = true;
+        basicHeaderSegment.setDataSegmentLength(newDataSegment.capacity());
+    }
+
+    /**
+     * Takes the data segment received in this PDU, without any copy. The caller becomes the owner of the buffer and
+     * must give it back to the {@link ByteBufferCache}. The PDU is left without data segment.
+     * 
+     * @return The data segment of this PDU.
+     * @throws IllegalStateException
+     *             if the data segment is owned by another caller
+     */
+    // OODRIVE
+    public final ByteBuffer takeDataSegment() {
+        if (dataSegmentShared) {
+            throw new IllegalStateException("Shared data segment");
+        }
+        final ByteBuffer result = dataSegment;
+        dataSegment = null;
+        return result;
+    }
+
+    /**
+     * Detaches the data segment from this PDU.
+     * 
+     * @return the data segment to give back to the {@link ByteBufferCache}, or <code>null</code> if it is owned by
+     *         the caller.
+     */
+    // OODRIVE
+    private final ByteBuffer releaseDataSegment() {
+        if (dataSegmentShared) {
+            dataSegmentShared = false;
+            return null;
+        }
+        return dataSegment;
+    }
+
     /**
      * Sets a new data segment in this PDU.
      * 
@@ -632,7 +689,7 @@ public final class ProtocolDataUnit {
             throw new NullPointerException();
         }
 
-        dataSegment = ByteBufferCache.allocate(dataSegment, chunk.getTotalLength());
+        dataSegment = ByteBufferCache.allocate(releaseDataSegment(), chunk.getTotalLength());
         dataSegment.put(chunk.getData());
         basicHeaderSegment.setDataSegmentLength(chunk.getLength());
     }
@@ -34,7 +34,6 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.DigestException;
 import java.util.Iterator;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jscsi.exception.InternetSCSIException;
@@ -84,7 +83,7 @@ public final class SenderWorker {
      * Read PDUs.
      */
     private final IntObjectOpenHashMap<ProtocolDataUnit> readPDUs = new IntObjectOpenHashMap<>();
-    private final Lock readPDUsLock = new ReentrantLock();
+    private final ReentrantLock readPDUsLock = new ReentrantLock();
 
     /**
      * Socket selector.
@@ -218,36 +217,36 @@ public final class SenderWorker {
             if (readLock) {
                 // Can read
                 try {
-                    try {
-                        final ProtocolDataUnit protocolDataUnitTmp = readProtocolDataUnit();
-                        if (protocolDataUnitTmp != null) {
-                            final int taskTmp = protocolDataUnitTmp.getBasicHeaderSegment().getInitiatorTaskTag();
-                            if (taskTmp == task) {
-                                // Found our PDU
-                                protocolDataUnit = protocolDataUnitTmp;
-                            }
-                            else {
-                                synchronized (readPDUs) {
-                                    protocolDataUnit = readPDUs.put(taskTmp, protocolDataUnitTmp);
-                                }
-                            }
+                    final ProtocolDataUnit protocolDataUnitTmp = readProtocolDataUnit();
+                    if (protocolDataUnitTmp != null) {
+                        final int taskTmp = protocolDataUnitTmp.getBasicHeaderSegment().getInitiatorTaskTag();
+                        if (taskTmp == task) {
+                            // Found our PDU
+                            protocolDataUnit = protocolDataUnitTmp;
                         }
-                    }
-                    finally {
-                        synchronized (readPDUs) {
-                            readPDUs.notifyAll();
+                        else {
+                            synchronized (readPDUs) {
+                                readPDUs.put(taskTmp, protocolDataUnitTmp);
+                            }
                         }
                     }
                 }
                 finally {
                     readPDUsLock.unlock();
+                    // Wake up the waiting threads once the lock is released: one of them may have to read
+                    synchronized (readPDUs) {
+                        readPDUs.notifyAll();
+                    }
                 }
             }
             else {
-                // Another thread is reading
+                // Another thread is reading: wait for the end of its read, unless our PDU is already there or the
+                // read is already over
                 synchronized (readPDUs) {
                     try {
-                        readPDUs.wait();
+                        if (!readPDUs.containsKey(task) && readPDUsLock.isLocked()) {
+                            readPDUs.wait();
+                        }
                     }
                     catch (InterruptedException e) {
                         throw new InternetSCSIException(e);
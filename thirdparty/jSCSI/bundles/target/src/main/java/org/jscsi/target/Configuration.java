@@ -151,6 +151,19 @@ public class Configuration {
      */
     private final int maxRecvTextPduSequenceLength = 4;
 
+    // OODRIVE
+    /**
+     * The default number of commands an initiator may send on a session without waiting for their completion.
+     */
+    public static final int DEFAULT_COMMAND_WINDOW_SIZE = 32;
+
+    // OODRIVE
+    /**
+     * The number of commands an initiator may send on a session without waiting for their completion. The
+     * commands are processed concurrently.
+     */
+    protected int commandWindowSize = DEFAULT_COMMAND_WINDOW_SIZE;
+
     public Configuration() throws IOException {
         port = 3260;
         final InetAddress localhost = InetAddress.getLocalHost();
@@ -213,6 +226,11 @@ public class Configuration {
         return port;
     }
 
+    // OODRIVE
+    public int getCommandWindowSize() {
+        return commandWindowSize;
+    }
+
     public boolean getAllowSloppyNegotiation() {
         return allowSloppyNegotiation;
     }
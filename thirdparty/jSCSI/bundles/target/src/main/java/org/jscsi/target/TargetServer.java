@@ -17,6 +17,7 @@ import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -59,6 +60,13 @@ public final class TargetServer implements Callable<Void> {
     // OODRIVE
     private AtomicBoolean cancelled = new AtomicBoolean(false);
     
+    // OODRIVE
+    /**
+     * Executes the commands of the connections, several commands of a session may run concurrently. Guarded by
+     * this.
+     */
+    private ExecutorService commandExecutor;
+
     /**
      * Contains all active {@link TargetSession}s.
      */
@@ -191,6 +199,8 @@ public final class TargetServer implements Callable<Void> {
                     return null;
                 }
                 selector = Selector.open();
+                // OODRIVE
+                commandExecutor = newCommandExecutor();
             }
             try {
             serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
@@ -267,6 +277,9 @@ public final class TargetServer implements Callable<Void> {
                 selector.close();
                 synchronized (this) {
                     selector = null;
+                    // OODRIVE
+                    commandExecutor.shutdownNow();
+                    commandExecutor = null;
                 }
             }
             } finally {
@@ -285,6 +298,36 @@ public final class TargetServer implements Callable<Void> {
         return null;
     }
     
+    // OODRIVE
+    /**
+     * Create the executor of the commands: a fixed number of threads, depending on the number of processors.
+     * 
+     * @return a new executor
+     */
+    private static ExecutorService newCommandExecutor() {
+        final int threadCount = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "iSCSI command " + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // OODRIVE
+    /**
+     * Gets the executor of the commands of the connections.
+     * 
+     * @return the executor or <code>null</code> if the server is not running
+     */
+    public synchronized ExecutorService getCommandExecutor() {
+        return commandExecutor;
+    }
+
     // OODRIVE
     /**
      * Cancel the server if it is running. 
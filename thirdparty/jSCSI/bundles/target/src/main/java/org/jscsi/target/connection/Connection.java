@@ -5,7 +5,10 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.DigestException;
+import java.util.ArrayDeque;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.naming.OperationNotSupportedException;
 
@@ -16,6 +19,7 @@ import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.connection.phase.TargetLoginPhase;
 import org.jscsi.target.connection.phase.TargetPhase;
 import org.jscsi.target.connection.stage.fullfeature.ReadStage;
+import org.jscsi.target.connection.stage.fullfeature.TargetFullFeatureStage;
 import org.jscsi.target.connection.stage.fullfeature.WriteStage;
 import org.jscsi.target.settings.ConnectionSettingsNegotiator;
 import org.jscsi.target.settings.SessionSettingsNegotiator;
@@ -96,13 +100,38 @@ public interface Connection extends Callable<Void> {
     public void enableRead();
     
     // OODRIVE
-    public void addWriteStage(final int taskTag, final WriteStage stage);
+    /**
+     * Registers the stage receiving the Data-Out PDUs of a task, like a {@link WriteStage}.
+     */
+    public void addWriteStage(final int taskTag, final TargetFullFeatureStage stage);
     
     // OODRIVE
     public void removeWriteStage(final int taskTag);
     
     // OODRIVE
-    public WriteStage getWriteStage (final int taskTag);
+    public TargetFullFeatureStage getWriteStage (final int taskTag);
+
+    // OODRIVE
+    /**
+     * Submit the execution of a stage. The stages of a task are executed in order, the stages of different tasks
+     * may be executed concurrently. The PDU is released once processed.
+     * 
+     * @param taskTag
+     *            the initiator task tag
+     * @param stage
+     *            the stage to execute
+     * @param pdu
+     *            the PDU to process
+     */
+    public void submitStage(final int taskTag, final TargetFullFeatureStage stage, final ProtocolDataUnit pdu);
+
+    // OODRIVE
+    /**
+     * Wait for the end of the execution of the stages submitted.
+     * 
+     * @throws InterruptedException
+     */
+    public void waitStages() throws InterruptedException;
 
     public static class TargetConnection implements Connection {
 
@@ -179,7 +208,56 @@ public interface Connection extends Callable<Void> {
         /**
          * The map which contains all the current write stages.
          */
-        private IntObjectOpenHashMap<WriteStage> writeStages = new IntObjectOpenHashMap<>() ;
+        private IntObjectOpenHashMap<TargetFullFeatureStage> writeStages = new IntObjectOpenHashMap<>() ;
+
+        // OODRIVE
+        /**
+         * The stages to execute, by task. Guarded by itself.
+         */
+        private final IntObjectOpenHashMap<StageQueue> stageQueues = new IntObjectOpenHashMap<>();
+
+        // OODRIVE
+        /**
+         * Stages of a task waiting for execution. Executes the stages in order, then removes itself from
+         * {@link TargetConnection#stageQueues}.
+         */
+        private final class StageQueue implements Runnable {
+
+            private final int taskTag;
+            private final ArrayDeque<TargetFullFeatureStage> stages = new ArrayDeque<>();
+            private final ArrayDeque<ProtocolDataUnit> pdus = new ArrayDeque<>();
+
+            StageQueue(final int taskTag) {
+                this.taskTag = taskTag;
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    final TargetFullFeatureStage stage;
+                    final ProtocolDataUnit pdu;
+                    synchronized (stageQueues) {
+                        stage = stages.poll();
+                        if (stage == null) {
+                            stageQueues.remove(taskTag);
+                            stageQueues.notifyAll();
+                            return;
+                        }
+                        pdu = pdus.poll();
+                    }
+                    try {
+                        stage.execute(pdu);
+                    }
+                    catch (Throwable t) {
+                        LOGGER.error("Exception thrown", t);
+                        close();
+                    }
+                    finally {
+                        pdu.release();
+                    }
+                }
+            }
+        }
 
         /**
          * The {@link TargetConnection} constructor.
@@ -448,18 +526,66 @@ public interface Connection extends Callable<Void> {
        }
        
        // OODRIVE
-       public void addWriteStage(final int taskTag, final WriteStage stage){
-           writeStages.put(taskTag, stage);
+       public void addWriteStage(final int taskTag, final TargetFullFeatureStage stage){
+           synchronized (writeStages) {
+               writeStages.put(taskTag, stage);
+           }
        }
        
        // OODRIVE
        public void removeWriteStage(final int taskTag){
-           writeStages.remove(taskTag);
+           synchronized (writeStages) {
+               writeStages.remove(taskTag);
+           }
        }
        
        // OODRIVE
-       public WriteStage getWriteStage (final int taskTag){
-           return writeStages.get(taskTag);    
+       public TargetFullFeatureStage getWriteStage (final int taskTag){
+           synchronized (writeStages) {
+               return writeStages.get(taskTag);
+           }
+       }
+
+       // OODRIVE
+       @Override
+       public void submitStage(final int taskTag, final TargetFullFeatureStage stage, final ProtocolDataUnit pdu) {
+           StageQueue queue;
+           boolean start = false;
+           synchronized (stageQueues) {
+               queue = stageQueues.get(taskTag);
+               if (queue == null) {
+                   queue = new StageQueue(taskTag);
+                   stageQueues.put(taskTag, queue);
+                   start = true;
+               }
+               queue.stages.add(stage);
+               queue.pdus.add(pdu);
+           }
+           if (start) {
+               final ExecutorService executor = targetServer.getCommandExecutor();
+               if (executor == null) {
+                   queue.run();
+               }
+               else {
+                   try {
+                       executor.execute(queue);
+                   }
+                   catch (RejectedExecutionException e) {
+                       // Server stopping
+                       queue.run();
+                   }
+               }
+           }
+       }
+
+       // OODRIVE
+       @Override
+       public void waitStages() throws InterruptedException {
+           synchronized (stageQueues) {
+               while (!stageQueues.isEmpty()) {
+                   stageQueues.wait();
+               }
+           }
        }
     }
 }
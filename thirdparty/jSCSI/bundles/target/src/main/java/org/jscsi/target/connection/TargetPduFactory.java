@@ -19,6 +19,7 @@ import org.jscsi.parser.scsi.SCSIResponseParser;
 import org.jscsi.parser.scsi.SCSIStatus;
 import org.jscsi.parser.text.TextResponseParser;
 import org.jscsi.target.scsi.ScsiResponseDataSegment;
+import org.jscsi.utils.ByteBufferCache;
 
 /**
  * A factory class for creating instances of different {@link ProtocolDataUnit} types sent by the jSCSI
@@ -58,6 +59,24 @@ public class TargetPduFactory {
         return pdu;
     }
 
+    // OODRIVE
+    /**
+     * Creates a Data-In PDU whose data segment is owned by the caller and sent without any copy (see
+     * {@link ProtocolDataUnit#setSharedDataSegment(ByteBuffer)}). The data segment is made of the bytes
+     * between the position and the limit of <code>dataSegment</code>.
+     */
+    public static final ProtocolDataUnit createSharedDataInPdu(boolean finalFlag, boolean acknowledgeFlag,
+        boolean residualOverflowFlag, boolean residualUnderflowFlag, boolean statusFlag, SCSIStatus status,
+        long logicalUnitNumber, int initiatorTaskTag, int targetTransferTag, int dataSequenceNumber,//
+        int bufferOffset, int residualCount, ByteBuffer dataSegment) {
+        final ProtocolDataUnit pdu =
+            createDataInPdu(finalFlag, acknowledgeFlag, residualOverflowFlag, residualUnderflowFlag, statusFlag,
+                status, logicalUnitNumber, initiatorTaskTag, targetTransferTag, dataSequenceNumber, bufferOffset,
+                residualCount, ByteBufferCache.allocate(0));
+        pdu.setSharedDataSegment(dataSegment);
+        return pdu;
+    }
+
     public static final ProtocolDataUnit
         createLoginResponsePdu(boolean transitFlag, boolean continueFlag, LoginStage currentStage,
             LoginStage nextStage, ISID initiatorSessionID, short targetSessionIdentifyingHandle,
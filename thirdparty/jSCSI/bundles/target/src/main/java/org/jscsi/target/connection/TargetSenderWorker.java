@@ -251,8 +251,9 @@ public class TargetSenderWorker {
 
         // increment CmdSN if not immediate PDU (or Data-Out PDU)
         try {
+            // OODRIVE: a SCSI command reduces the command window until its status is sent
             if (parser.incrementSequenceNumber())
-                session.getExpectedCommandSequenceNumber().increment();
+                session.commandReceived(bhs.getInitiatorTaskTag(), bhs.getOpCode() == OperationCode.SCSI_COMMAND);
         } catch (NullPointerException exc) {
 
         }
@@ -277,14 +278,17 @@ public class TargetSenderWorker {
      *             exception is thrown.
      */
 
-    final void sendOverWire(final ProtocolDataUnit pdu) throws InternetSCSIException, IOException,
+    // OODRIVE: synchronized, the PDUs of several commands are sent concurrently
+    final synchronized void sendOverWire(final ProtocolDataUnit pdu) throws InternetSCSIException, IOException,
         InterruptedException {
 
         // set sequence counters
         final TargetMessageParser parser = (TargetMessageParser)pdu.getBasicHeaderSegment().getParser();
-        parser.setExpectedCommandSequenceNumber(session.getExpectedCommandSequenceNumber().getValue());
-        parser.setMaximumCommandSequenceNumber(session.getMaximumCommandSequenceNumber().getValue());
         final boolean incrementSequenceNumber = parser.incrementSequenceNumber();
+        // OODRIVE: the status of a command re-opens the command window
+        if (incrementSequenceNumber)
+            session.commandEnded(pdu.getBasicHeaderSegment().getInitiatorTaskTag());
+        session.setCommandSequenceNumbers(parser);
         if (incrementSequenceNumber)// set StatSN only if field is not reserved
             parser.setStatusSequenceNumber(connection.getStatusSequenceNumber().getValue());
 
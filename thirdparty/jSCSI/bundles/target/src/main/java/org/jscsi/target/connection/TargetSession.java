@@ -1,6 +1,9 @@
 package org.jscsi.target.connection;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.TargetMessageParser;
 import org.jscsi.parser.login.ISID;
 import org.jscsi.target.Target;
 import org.jscsi.target.TargetServer;
@@ -10,6 +13,8 @@ import org.jscsi.target.settings.SessionSettingsNegotiator;
 import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.util.SerialArithmeticNumber;
 
+import com.carrotsearch.hppc.IntOpenHashSet;
+
 /**
  * A class for objects representing an iSCSI session with all necessary
  * variables.
@@ -83,7 +88,26 @@ public class TargetSession {
      * @see #getExpectedCommandSequenceNumber()
      * @see #getMaximumCommandSequenceNumber()
      */
-    private final int commandWindowSize = 1;
+    // OODRIVE: several commands processed concurrently, see TargetFullFeaturePhase
+    private final int commandWindowSize;
+
+    /**
+     * Tags of the commands received and not completed yet. They reduce the command window.
+     */
+    // OODRIVE
+    private final IntOpenHashSet pendingTaskTags = new IntOpenHashSet();
+
+    /**
+     * Number of commands received and not completed yet.
+     */
+    // OODRIVE
+    private final AtomicInteger pendingCommandCount = new AtomicInteger();
+
+    /**
+     * Last value sent in the <code>MaxCmdSN</code> field. The window never shrinks below it.
+     */
+    // OODRIVE
+    private int lastMaximumCommandSequenceNumber;
 
     /**
      * The {@link SessionSettingsNegotiator} responsible managing connection
@@ -125,6 +149,8 @@ public class TargetSession {
     public TargetSession(final TargetServer target, final Connection connection,
         final ISID initiatorSessionID, final int expectedCommandSequenceNumber, final int statusSequenceNumber, int cid, short tsih) {
         this.targetServer = target;
+        // OODRIVE
+        this.commandWindowSize = target.getConfig().getCommandWindowSize();
         // set connection variables and parameters
         connection.setSession(this);
         //this.connection = connection;
@@ -142,6 +168,8 @@ public class TargetSession {
         this.initiatorSessionID = initiatorSessionID;
         targetSessionIdentifyingHandle = getNextTargetSessionIdentifyingHandle();
         this.expectedCommandSequenceNumber = new SerialArithmeticNumber(expectedCommandSequenceNumber);
+        // OODRIVE
+        this.lastMaximumCommandSequenceNumber = expectedCommandSequenceNumber + commandWindowSize - 1;
     }
 
     /**
@@ -216,7 +244,68 @@ public class TargetSession {
      *         command sequence number
      */
     SerialArithmeticNumber getMaximumCommandSequenceNumber() {
-        return new SerialArithmeticNumber(expectedCommandSequenceNumber.getValue() + commandWindowSize - 1);
+        // OODRIVE: the commands in progress are removed from the window. The expected command sequence number and
+        // the pending commands are updated together, and the value is clamped: it must never decrease
+        synchronized (pendingTaskTags) {
+            final SerialArithmeticNumber maximum = new SerialArithmeticNumber(expectedCommandSequenceNumber
+                .getValue() + commandWindowSize - 1 - pendingCommandCount.get());
+            if (maximum.lessThan(lastMaximumCommandSequenceNumber)) {
+                return new SerialArithmeticNumber(lastMaximumCommandSequenceNumber);
+            }
+            lastMaximumCommandSequenceNumber = maximum.getValue();
+            return maximum;
+        }
+    }
+
+    // OODRIVE
+    /**
+     * Sets the <code>ExpCmdSN</code> and <code>MaxCmdSN</code> fields of a PDU to be sent, from the same state
+     * of the command window.
+     * 
+     * @param parser
+     *            the parser of the PDU
+     */
+    void setCommandSequenceNumbers(final TargetMessageParser parser) {
+        synchronized (pendingTaskTags) {
+            parser.setExpectedCommandSequenceNumber(expectedCommandSequenceNumber.getValue());
+            parser.setMaximumCommandSequenceNumber(getMaximumCommandSequenceNumber().getValue());
+        }
+    }
+
+    // OODRIVE
+    /**
+     * Notify the reception of a command received in sequence: increments the expected command sequence number.
+     * A SCSI command is pending until its status is sent, in the same critical section, so that the window
+     * sent meanwhile never counts it twice.
+     * 
+     * @param initiatorTaskTag
+     *            the tag of the command
+     * @param scsiCommand
+     *            <code>true</code> if the command is a SCSI command, which reduces the command window
+     */
+    void commandReceived(final int initiatorTaskTag, final boolean scsiCommand) {
+        synchronized (pendingTaskTags) {
+            expectedCommandSequenceNumber.increment();
+            if (scsiCommand && pendingTaskTags.add(initiatorTaskTag)) {
+                pendingCommandCount.incrementAndGet();
+            }
+        }
+    }
+
+    // OODRIVE
+    /**
+     * Notify the end of the processing of a command, when its status is about to be sent. Does nothing if the
+     * command was not started by {@link #commandStarted(int)}.
+     * 
+     * @param initiatorTaskTag
+     *            the tag of the command
+     */
+    void commandEnded(final int initiatorTaskTag) {
+        synchronized (pendingTaskTags) {
+            if (pendingTaskTags.remove(initiatorTaskTag)) {
+                pendingCommandCount.decrementAndGet();
+            }
+        }
     }
 
     /**
@@ -21,10 +21,13 @@ import org.jscsi.target.connection.stage.fullfeature.ReadStage;
 import org.jscsi.target.connection.stage.fullfeature.ReportLunsStage;
 import org.jscsi.target.connection.stage.fullfeature.RequestSenseStage;
 import org.jscsi.target.connection.stage.fullfeature.SendDiagnosticStage;
+import org.jscsi.target.connection.stage.fullfeature.SynchronizeCacheStage;
 import org.jscsi.target.connection.stage.fullfeature.TargetFullFeatureStage;
 import org.jscsi.target.connection.stage.fullfeature.TestUnitReadyStage;
 import org.jscsi.target.connection.stage.fullfeature.TextNegotiationStage;
+import org.jscsi.target.connection.stage.fullfeature.UnmapStage;
 import org.jscsi.target.connection.stage.fullfeature.UnsupportedOpCodeStage;
+import org.jscsi.target.connection.stage.fullfeature.WriteSameStage;
 import org.jscsi.target.connection.stage.fullfeature.WriteStage;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
 import org.jscsi.target.settings.SettingsException;
@@ -34,6 +37,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Objects of this class represent the Target Full Feature Phase of a
  * connection.
+ * <p>
+ * OODRIVE: the read and write commands are executed in the background, while the next PDUs are received. The
+ * stages of a command are executed in order, the commands run concurrently up to the command window of the
+ * session.
  * 
  * @see TargetPhase
  * @author Andreas Ergenzinger
@@ -88,6 +95,8 @@ public final class TargetFullFeaturePhase extends TargetPhase {
 
             ProtocolDataUnit pdu = pduInput == null ? connection.receivePdu() : pduInput;
             BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+            // OODRIVE: read and write commands are executed in the background
+            boolean submit = false;
 
             // identify desired stage
             switch (bhs.getOpCode()) {
@@ -134,16 +143,38 @@ public final class TargetFullFeaturePhase extends TargetPhase {
                             break;
                         case WRITE_6:// use common write stage
                         case WRITE_10:
+                        case WRITE_16:// OODRIVE
                             stage = new WriteStage(this);
                             connection.addWriteStage(bhs.getInitiatorTaskTag(), (WriteStage) stage);
+                            submit = true;
                             break;
                         case READ_6:// use common read stage
                         case READ_10:
+                        case READ_16:// OODRIVE
                             stage = new ReadStage(this);
+                            submit = true;
                             break;
                         case REPORT_LUNS:
                             stage = new ReportLunsStage(this);
                             break;
+                        // OODRIVE: commands with a Data-Out buffer
+                        case UNMAP:
+                            stage = new UnmapStage(this);
+                            connection.addWriteStage(bhs.getInitiatorTaskTag(), stage);
+                            submit = true;
+                            break;
+                        case WRITE_SAME_16:
+                            stage = new WriteSameStage(this);
+                            connection.addWriteStage(bhs.getInitiatorTaskTag(), stage);
+                            submit = true;
+                            break;
+                        // OODRIVE: flush barrier, after the commands in progress
+                        case SYNCHRONIZE_CACHE_10:
+                        case SYNCHRONIZE_CACHE_16:
+                            connection.waitStages();
+                            stage = new SynchronizeCacheStage(this);
+                            submit = true;
+                            break;
                         default:
                             scsiOpCode = null;
 
@@ -167,6 +198,8 @@ public final class TargetFullFeaturePhase extends TargetPhase {
                 stage = new TextNegotiationStage(this);
                 break;
             case LOGOUT_REQUEST:
+                // OODRIVE: complete the commands in progress first
+                connection.waitStages();
                 stage = new LogoutStage(this);
                 running = false;
                 break;
@@ -182,11 +215,19 @@ public final class TargetFullFeaturePhase extends TargetPhase {
                 if (stage == null){
                     throw new InternetSCSIException("SCSI_DATA_OUT cmd received, outside a write stage.");
                 }
+                // OODRIVE: after the previous stages of the command
+                submit = true;
                 break ;
             default:
                 throw new InternetSCSIException(bhs.getOpCode().name() + " not recognized.");
             }
 
+            // OODRIVE: the PDU is released once processed
+            if (submit) {
+                connection.submitStage(bhs.getInitiatorTaskTag(), stage, pdu);
+                return running ? PHASE_EXEC_STATUS.GO_ON : PHASE_EXEC_STATUS.CLOSE;
+            }
+
             // process the PDU
             stage.execute(pdu);
             // OODRIVE     
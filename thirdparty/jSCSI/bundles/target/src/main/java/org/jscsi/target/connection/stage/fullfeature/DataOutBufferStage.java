@@ -0,0 +1,229 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.AbstractMessageParser;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.data.DataOutParser;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.TargetServer;
+import org.jscsi.target.connection.TargetPduFactory;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is an abstract superclass for the stages of the SCSI commands whose
+ * Data-Out buffer must be received as a whole before the command is carried
+ * out, like the parameter list of <code>UNMAP</code>.
+ * <p>
+ * The Data-Out buffer is made of the immediate data, the unsolicited Data-Out PDUs and the Data-Out PDUs
+ * requested by R2T PDUs. The stage must be registered as the write stage of the task, so that the Data-Out
+ * PDUs of the task are given to it.
+ * 
+ * @author llambert
+ */
+public abstract class DataOutBufferStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataOutBufferStage.class);
+
+    /**
+     * The maximum length of the Data-Out buffer, kept in memory until the
+     * command is carried out.
+     */
+    public static final int MAX_DATA_OUT_BUFFER_LENGTH = 1024 * 1024;
+
+    private int initiatorTaskTag;
+
+    /**
+     * A copy of the command descriptor block, the command PDU is released
+     * before the end of the task.
+     */
+    private ByteBuffer cdb;
+
+    private ByteBuffer dataOutBuffer;
+
+    private int bytesReceived = 0;
+
+    /**
+     * The <code>DataSN</code> value the next Data-Out PDU must carry.
+     */
+    private int expectedDataSequenceNumber = 0;
+
+    private int readyToTransferSequenceNumber = 0;
+
+    public DataOutBufferStage(TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public final void execute(ProtocolDataUnit pdu) throws IOException, InterruptedException,
+        InternetSCSIException, DigestException, SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final AbstractMessageParser parser = bhs.getParser();
+
+        if (parser instanceof SCSICommandParser) {
+            final SCSICommandParser commandParser = (SCSICommandParser)parser;
+            initiatorTaskTag = bhs.getInitiatorTaskTag();
+
+            final int expectedDataTransferLength = commandParser.getExpectedDataTransferLength();
+            if (expectedDataTransferLength < 0 || expectedDataTransferLength > MAX_DATA_OUT_BUFFER_LENGTH) {
+                // the initiator may send unsolicited data: close the connection
+                throw new InternetSCSIException("Data-Out buffer too large: " + expectedDataTransferLength);
+            }
+            final ByteBuffer commandCdb = commandParser.getCDB().duplicate();
+            commandCdb.clear();
+            cdb = ByteBuffer.allocate(commandCdb.capacity());
+            cdb.put(commandCdb);
+            dataOutBuffer = ByteBuffer.allocate(expectedDataTransferLength);
+
+            // *** receive immediate data ***
+            if (settings.getImmediateData() && bhs.getDataSegmentLength() > 0) {
+                receive(pdu.getDataSegment(), 0);
+            }
+
+            // *** wait for unsolicited data or request the data ***
+            if (bytesReceived < expectedDataTransferLength && (settings.getInitialR2T() || bhs.isFinalFlag())) {
+                sendReadyToTransfer();
+            }
+        } else if (parser instanceof DataOutParser) {
+            final DataOutParser dataOutParser = (DataOutParser)parser;
+            if (dataOutParser.getDataSequenceNumber() != expectedDataSequenceNumber++) {
+                throw new InternetSCSIException("received erroneous PDU in data-out sequence, expected "
+                    + (expectedDataSequenceNumber - 1));
+            }
+            receive(pdu.getDataSegment(), dataOutParser.getBufferOffset());
+
+            // end of the unsolicited data or of the requested data
+            if (bytesReceived < dataOutBuffer.capacity() && bhs.isFinalFlag()) {
+                sendReadyToTransfer();
+            }
+        } else {
+            throw new InternetSCSIException("received erroneous PDU in data-out sequence, "
+                + parser.getClass().getName());
+        }
+
+        if (bytesReceived >= dataOutBuffer.capacity()) {
+            connection.removeWriteStage(initiatorTaskTag);
+            if (LOGGER.isDebugEnabled())
+                LOGGER.debug("Received the Data-Out buffer: " + bytesReceived);
+
+            cdb.rewind();
+            dataOutBuffer.rewind();
+            execute(cdb, dataOutBuffer);
+        }
+    }
+
+    /**
+     * Copies a data segment to the Data-Out buffer.
+     * 
+     * @param dataSegment
+     *            the data segment received
+     * @param bufferOffset
+     *            the offset of the data segment in the Data-Out buffer
+     * @throws InternetSCSIException
+     *             if the data segment is out of the Data-Out buffer
+     */
+    private final void receive(final ByteBuffer dataSegment, final int bufferOffset) throws InternetSCSIException {
+        final ByteBuffer source = dataSegment.duplicate();
+        source.clear();
+        final int length = source.remaining();
+        if (bufferOffset < 0 || bufferOffset > dataOutBuffer.capacity() - length) {
+            throw new InternetSCSIException("Data-Out PDU out of the Data-Out buffer, offset=" + bufferOffset
+                + ", length=" + length);
+        }
+        dataOutBuffer.position(bufferOffset);
+        dataOutBuffer.put(source);
+        bytesReceived += length;
+    }
+
+    /**
+     * Requests the remaining bytes of the Data-Out buffer, up to the maximum
+     * burst length.
+     */
+    private final void sendReadyToTransfer() throws InterruptedException, IOException, InternetSCSIException,
+        SettingsException {
+        final int desiredDataTransferLength =
+            Math.min(settings.getMaxBurstLength(), dataOutBuffer.capacity() - bytesReceived);
+        final ProtocolDataUnit pdu = TargetPduFactory.createReadyToTransferPdu(0,// logicalUnitNumber
+            initiatorTaskTag, TargetServer.getNextTargetTransferTag(),// targetTransferTag
+            readyToTransferSequenceNumber++, bytesReceived,// bufferOffset
+            desiredDataTransferLength);
+        connection.sendPdu(pdu);
+
+        // each sequence of Data-Out PDUs starts at zero
+        expectedDataSequenceNumber = 0;
+    }
+
+    /**
+     * Carries out the command, once the whole Data-Out buffer is received, and
+     * sends the response.
+     * 
+     * @param cdb
+     *            the command descriptor block
+     * @param dataOutBuffer
+     *            the Data-Out buffer, with a capacity of the expected data
+     *            transfer length of the command
+     */
+    protected abstract void execute(ByteBuffer cdb, ByteBuffer dataOutBuffer) throws IOException,
+        InterruptedException, InternetSCSIException;
+
+    /**
+     * Sends a response with a {@link SCSIStatus#GOOD} status.
+     */
+    protected final void sendGoodResponse() throws InterruptedException, IOException, InternetSCSIException {
+        final int expectedDataTransferLength = dataOutBuffer.capacity();
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag, expectedDataTransferLength,
+            expectedDataTransferLength));
+    }
+
+    /**
+     * Sends a response with a {@link SCSIStatus#CHECK_CONDITION} status and
+     * sense data describing an illegal request.
+     * 
+     * @param illegalFieldPointers
+     *            the illegal fields, only the first one is reported
+     * @param additionalSenseCodeAndQualifier
+     *            the cause of the error
+     */
+    protected final void sendErrorResponse(final FieldPointerSenseKeySpecificData[] illegalFieldPointers,
+        final AdditionalSenseCodeAndQualifier additionalSenseCodeAndQualifier) throws InterruptedException,
+        IOException, InternetSCSIException {
+        connection.sendPdu(createFixedFormatErrorPdu(illegalFieldPointers, additionalSenseCodeAndQualifier,
+            initiatorTaskTag, dataOutBuffer.capacity()));
+    }
+
+    /**
+     * Sends a response with a {@link SCSIStatus#CHECK_CONDITION} status for an
+     * illegal field of the command descriptor block or of the parameter list.
+     * 
+     * @param commandData
+     *            <code>true</code> for a field of the command descriptor block
+     * @param fieldPointer
+     *            the index of the first byte of the field
+     * @param additionalSenseCodeAndQualifier
+     *            the cause of the error
+     */
+    protected final void sendErrorResponse(final boolean commandData, final int fieldPointer,
+        final AdditionalSenseCodeAndQualifier additionalSenseCodeAndQualifier) throws InterruptedException,
+        IOException, InternetSCSIException {
+        final FieldPointerSenseKeySpecificData fp = new FieldPointerSenseKeySpecificData(true,// senseKeySpecificDataValid
+            commandData,// commandData
+            false,// bitPointerValid
+            0,// bitPointer
+            fieldPointer);// fieldPointer
+        sendErrorResponse(new FieldPointerSenseKeySpecificData[] {
+            fp
+        }, additionalSenseCodeAndQualifier);
+    }
+
+}
@@ -10,11 +10,15 @@ import org.jscsi.parser.scsi.SCSICommandParser;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.scsi.IResponseData;
 import org.jscsi.target.scsi.cdb.InquiryCDB;
+import org.jscsi.target.scsi.inquiry.BlockLimitsVpdPage;
+import org.jscsi.target.scsi.inquiry.LogicalBlockProvisioningVpdPage;
+import org.jscsi.target.scsi.inquiry.PageCode;
 import org.jscsi.target.scsi.inquiry.PageCode.VitalProductDataPageName;
 import org.jscsi.target.scsi.inquiry.StandardInquiryData;
 import org.jscsi.target.scsi.inquiry.SupportedVpdPages;
 import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
 import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
 import org.jscsi.target.util.Debug;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,6 +100,10 @@ public class InquiryStage extends TargetFullFeatureStage {
                 case DEVICE_IDENTIFICATION:
                     responseData = session.getDeviceIdentificationVpdPage();
                     break;
+                case DEVICE_TYPE_SPECIFIC:
+                    // OODRIVE
+                    responseData = getDeviceTypeSpecificVpdPage(cdb.getPageCode());
+                    break;
                 default:
                     // The initiator must not request unsupported mode pages.
                     throw new InternetSCSIException();
@@ -109,4 +117,35 @@ public class InquiryStage extends TargetFullFeatureStage {
 
     }
 
+    // OODRIVE
+    /**
+     * Returns the Block Limits or the Logical Block Provisioning VPD page,
+     * which depend on the storage module.
+     * 
+     * @param pageCode
+     *            the requested page, a supported device type specific page
+     * @return the VPD page
+     * @throws InternetSCSIException
+     *             if the page is not supported
+     */
+    private IResponseData getDeviceTypeSpecificVpdPage(final PageCode pageCode) throws InternetSCSIException {
+        final IStorageModule storageModule = session.getStorageModule();
+        final boolean thinProvisioned = storageModule.isThinProvisioned();
+        switch (pageCode.getValue()) {
+        case BlockLimitsVpdPage.PAGE_CODE:
+            // transfers in whole logical blocks, the block size of the storage module
+            final int blockSize = storageModule.getBlockSize();
+            return new BlockLimitsVpdPage(ReadOrWriteStage.MAXIMUM_TRANSFER_LENGTH / blockSize,
+                Math.max(1, ReadOrWriteStage.OPTIMAL_TRANSFER_LENGTH / blockSize),
+                thinProvisioned ? (int)(UnmapStage.MAXIMUM_UNMAP_LENGTH / blockSize) : 0,
+                thinProvisioned ? UnmapStage.MAXIMUM_UNMAP_BLOCK_DESCRIPTOR_COUNT : 0,
+                WriteSameStage.MAXIMUM_WRITE_SAME_LENGTH / blockSize);
+        case LogicalBlockProvisioningVpdPage.PAGE_CODE:
+            return new LogicalBlockProvisioningVpdPage(thinProvisioned);
+        default:
+            // The initiator must not request unsupported mode pages.
+            throw new InternetSCSIException();
+        }
+    }
+
 }
@@ -130,7 +130,7 @@ public final class ModeSenseStage extends TargetFullFeatureStage {
             false,// cachingAnalysisPermitted
             false,// discontinuity
             true,// sizeEnable
-            false,// writebackCacheEnable
+            true,// writebackCacheEnable, OODRIVE: the initiator must send SYNCHRONIZE CACHE
             false,// multiplicationFactor
             true,// readCacheDisable
             0x0,// demandReadRetentionPriority
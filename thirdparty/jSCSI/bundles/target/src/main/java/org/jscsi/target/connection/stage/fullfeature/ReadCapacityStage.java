@@ -86,7 +86,8 @@ public final class ReadCapacityStage extends TargetFullFeatureStage {
                     session.getStorageModule().getBlockSize());// logicalBlockLengthInBytes
             else
                 parameterData = new ReadCapacity16ParameterData(session.getStorageModule().getSizeInBlocks()-1,// returnedLogicalBlockAddress
-                    session.getStorageModule().getBlockSize());// logicalBlockLengthInBytes
+                    session.getStorageModule().getBlockSize(),// logicalBlockLengthInBytes
+                    session.getStorageModule().isThinProvisioned());// OODRIVE: logicalBlockProvisioningManagementEnabled
 
             sendResponse(bhs.getInitiatorTaskTag(),// initiatorTaskTag,
                 parser.getExpectedDataTransferLength(),// expectedDataTransferLength,
@@ -13,6 +13,21 @@ import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPoi
  */
 public abstract class ReadOrWriteStage extends TargetFullFeatureStage {
 
+    // OODRIVE
+    /**
+     * The maximum number of bytes read or written by a command. The data is
+     * transferred by segments, so the limit is only there to keep the length
+     * of the transfer in an <code>int</code>.
+     */
+    public static final int MAXIMUM_TRANSFER_LENGTH = 32 * 1024 * 1024;
+
+    // OODRIVE
+    /**
+     * The number of bytes read or written by a command above which the
+     * initiator should split its transfers.
+     */
+    public static final int OPTIMAL_TRANSFER_LENGTH = 1024 * 1024;
+
     public ReadOrWriteStage(TargetFullFeaturePhase targetFullFeaturePhase) {
         super(targetFullFeaturePhase);
     }
@@ -35,7 +50,9 @@ public abstract class ReadOrWriteStage extends TargetFullFeatureStage {
         // add illegal field pointer, or not
         if (boundsCheck == 1)
             cdb.addIllegalFieldPointerForLogicalBlockAddress();
-        else if (boundsCheck == 2)
+        // OODRIVE: the transfer must not exceed the advertised maximum
+        else if (boundsCheck == 2
+            || (long)cdb.getTransferLength() * session.getStorageModule().getBlockSize() > MAXIMUM_TRANSFER_LENGTH)
             cdb.addIllegalFieldPointerForTransferLength();
     }
 
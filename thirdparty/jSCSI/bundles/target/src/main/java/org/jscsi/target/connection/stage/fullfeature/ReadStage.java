@@ -2,6 +2,7 @@ package org.jscsi.target.connection.stage.fullfeature;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
 
 import org.jscsi.exception.InternetSCSIException;
 import org.jscsi.parser.BasicHeaderSegment;
@@ -13,6 +14,7 @@ import org.jscsi.target.connection.TargetPduFactory;
 import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.scsi.ScsiResponseDataSegment;
 import org.jscsi.target.scsi.cdb.Read10Cdb;
+import org.jscsi.target.scsi.cdb.Read16Cdb;
 import org.jscsi.target.scsi.cdb.Read6Cdb;
 import org.jscsi.target.scsi.cdb.ReadCdb;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
@@ -21,9 +23,12 @@ import org.jscsi.utils.ByteBufferCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
- * A stage for processing <code>READ (6)</code> and <code>READ (10)</code> SCSI
- * commands.
+ * A stage for processing <code>READ (6)</code>, <code>READ (10)</code> and
+ * <code>READ (16)</code> SCSI commands.
  * 
  * @author Andreas Ergenzinger
  */
@@ -31,6 +36,13 @@ public class ReadStage extends ReadOrWriteStage {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ReadStage.class);
 
+    /**
+     * The length of the data read from the storage module at once, rounded to a
+     * multiple of <code>MaxRecvDataSegmentLength</code>.
+     */
+    // OODRIVE
+    private static final int DATA_IN_CHUNK_LENGTH = 256 * 1024;
+
     public ReadStage(final TargetFullFeaturePhase targetFullFeaturePhase) {
         super(targetFullFeaturePhase);
     }
@@ -64,11 +76,13 @@ public class ReadStage extends ReadOrWriteStage {
         SCSICommandParser parser = (SCSICommandParser)bhs.getParser();
         final int initiatorTaskTag = bhs.getInitiatorTaskTag();
 
-        // get the Read(6) or Read(10) CDB
+        // get the Read(6), Read(10) or Read(16) CDB
         ReadCdb cdb;
         final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
         if (scsiOpCode == ScsiOperationCode.READ_10)// most likely option first
             cdb = new Read10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.READ_16)// OODRIVE
+            cdb = new Read16Cdb(parser.getCDB());
         else if (scsiOpCode == ScsiOperationCode.READ_6)
             cdb = new Read6Cdb(parser.getCDB());
         else {
@@ -105,94 +119,90 @@ public class ReadStage extends ReadOrWriteStage {
         }
 
         // *** start sending ***
-        // initialize counters and data segment buffer
+        // OODRIVE: the device reads a chunk of several Data-In PDUs at once,
+        // directly in a buffer whose slices are the data segments of the PDUs.
+        // The next chunk is read while the current one is sent.
+        final int maxRecvDataSegmentLength = settings.getMaxRecvDataSegmentLength();
+        final int chunkLength =
+            Math.max(1, DATA_IN_CHUNK_LENGTH / maxRecvDataSegmentLength) * maxRecvDataSegmentLength;
+
+        // initialize counters
         int bytesSent = 0;
         int dataSequenceNumber = 0;
-        //byte[] dataSegmentArray = null;
-        ByteBuffer dataSegment = null;
         ProtocolDataUnit responsePdu;
 
-        // *** send up to last but one Data-In PDU ***
-        // (with DataSegmentSize == MaxRecvDataSegmentLength)
-
-        if (bytesSent < totalTransferLength - settings.getMaxRecvDataSegmentLength()) {
-            /*
-             * Initialize dataSegmentArray and dataSegment with
-             * MaxRecvDataSegmentLength bytes.
-             */
-            //dataSegment = connection.getDataInBuffer(settings.getMaxRecvDataSegmentLength());
-            //dataSegment = ByteBuffer.wrap(dataSegmentArray);
-        }
-
-        while (bytesSent < totalTransferLength - settings.getMaxRecvDataSegmentLength()) {
-
-            dataSegment = ByteBufferCache.allocate(settings.getMaxRecvDataSegmentLength());
-
-            // get data and prepare data segment
-            session.getStorageModule().read(dataSegment, storageOffset + bytesSent);
-
-            // create and send PDU
-            responsePdu = TargetPduFactory.createDataInPdu(false,// finalFlag,
-                                                                 // not the last
-                                                                 // PDU with
-                                                                 // data payload
-                                                                 // in the
-                                                                 // sequence
-                false,// acknowledgeFlag, ErrorRecoveryLevel == 0, so we
-                      // never do that
-                false,// residualOverflowFlag
-                false,// residualUnderflowFlag
-                false,// statusFlag
-                SCSIStatus.GOOD,// status, actually reserved i.e. 0x0
-                0L,// logicalUnitNumber, reserved
-                initiatorTaskTag, 0xffffffff,// targetTransferTag
-                dataSequenceNumber,// dataSequenceNumber
-                bytesSent,// bufferOffset
-                0,// residualCount
-                dataSegment);
-
-            connection.sendPdu(responsePdu);
-
-            // increment counters
-            ++dataSequenceNumber;
-            bytesSent += settings.getMaxRecvDataSegmentLength();
+        final ByteBuffer[] chunks = { ByteBufferCache.allocate(chunkLength), ByteBufferCache.allocate(chunkLength) };
+        int chunkIndex = 0;
+        ListenableFuture<Void> chunkRead = readChunk(chunks[chunkIndex], storageOffset,
+            Math.min(chunkLength, totalTransferLength));
+        try {
+            do {
+                // get data of the current chunk
+                final ByteBuffer chunk = chunks[chunkIndex];
+                final int chunkBytes = Math.min(chunkLength, totalTransferLength - bytesSent);
+                waitRead(chunkRead);
+                chunkRead = null;
+
+                // read ahead the next chunk
+                final int nextChunkBytes = Math.min(chunkLength, totalTransferLength - bytesSent - chunkBytes);
+                chunkIndex ^= 1;
+                if (nextChunkBytes > 0) {
+                    chunkRead =
+                        readChunk(chunks[chunkIndex], storageOffset + bytesSent + chunkBytes, nextChunkBytes);
+                }
+
+                // send the chunk, MaxRecvDataSegmentLength bytes per PDU
+                int chunkOffset = 0;
+                do {
+                    final int dataSegmentLength = Math.min(maxRecvDataSegmentLength, chunkBytes - chunkOffset);
+                    final boolean lastPdu = bytesSent + dataSegmentLength == totalTransferLength;
+                    chunk.limit(chunkOffset + dataSegmentLength);
+                    chunk.position(chunkOffset);
+
+                    /*
+                     * If ImmediateData=Yes has been negotiated, then a phase
+                     * collapse has to take place, i.e. the status is sent in the
+                     * last Data-In PDU. Otherwise a separate SCSI Response PDU
+                     * must follow.
+                     */
+                    responsePdu = TargetPduFactory.createSharedDataInPdu(lastPdu,// finalFlag, last PDU in the
+                                                                                 // sequence with data payload
+                        false,// acknowledgeFlag, ErrorRecoveryLevel == 0, so we
+                              // never do that
+                        false,// residualOverflowFlag
+                        false,// residualUnderflowFlag
+                        lastPdu && immediateData,// statusFlag
+                        SCSIStatus.GOOD,// status, or not (reserved if no status)
+                        0L,// logicalUnitNumber, reserved
+                        initiatorTaskTag, 0xffffffff,// targetTransferTag
+                        dataSequenceNumber,// dataSequenceNumber
+                        bytesSent,// bufferOffset
+                        0,// residualCount
+                        chunk);
+
+                    if (lastPdu)
+                        LOGGER.debug("sending last Data-In PDU");
+                    connection.sendPdu(responsePdu);
+
+                    // increment counters
+                    ++dataSequenceNumber;
+                    chunkOffset += dataSegmentLength;
+                    bytesSent += dataSegmentLength;
+                } while (chunkOffset < chunkBytes);
+            } while (bytesSent < totalTransferLength);
+        } finally {
+            // the buffer of a read in progress must not be reused
+            if (chunkRead != null) {
+                try {
+                    waitRead(chunkRead);
+                } catch (IOException e) {
+                    LOGGER.debug("Read ahead failed", e);
+                }
+            }
+            ByteBufferCache.release(chunks[0]);
+            ByteBufferCache.release(chunks[1]);
         }
 
-        /*
-         * If ImmediateData=Yes has been negotiated, then a phase collapse has
-         * to take place, i.e. the status is sent in the last Data-In PDU.
-         * Otherwise a separate SCSI Response PDU must follow.
-         */
-
-        // *** send last Data-In PDU ***
-
-        // get data and prepare data segment
-        final int bytesRemaining = totalTransferLength - bytesSent;
-        dataSegment = ByteBufferCache.allocate(bytesRemaining);
-        session.getStorageModule().read(dataSegment, storageOffset + bytesSent);
-        //dataSegment = ByteBuffer.wrap(dataSegmentArray);
-
-        // create and send PDU (with or without status)
-        responsePdu = TargetPduFactory.createDataInPdu(true,// finalFlag, last
-                                                            // PDU in the
-                                                            // sequence with
-                                                            // data payload
-            false,// acknowledgeFlag, ErrorRecoveryLevel == 0, so we never
-                  // do that
-            false,// residualOverflowFlag
-            false,// residualUnderflowFlag
-            immediateData,// statusFlag
-            SCSIStatus.GOOD,// status, or not (reserved if no status)
-            0L,// logicalUnitNumber, reserved
-            initiatorTaskTag, 0xffffffff,// targetTransferTag
-            dataSequenceNumber,// dataSequenceNumber
-            bytesSent,// bufferOffset
-            0,// residualCount
-            dataSegment);
-
-        LOGGER.debug("sending last Data-In PDU");
-        connection.sendPdu(responsePdu);
-
         // send SCSI Response PDU?
         if (!immediateData) {
 
@@ -216,4 +226,50 @@ public class ReadStage extends ReadOrWriteStage {
 
     }
 
+    // OODRIVE
+    /**
+     * Starts to read the given number of bytes at the beginning of a chunk.
+     * 
+     * @param chunk
+     *            the buffer into which the data is read
+     * @param storageIndex
+     *            position of the first byte to read
+     * @param length
+     *            the number of bytes to read
+     * @return a future done when the bytes are read, <code>null</code> if
+     *         there is nothing to read
+     */
+    private final ListenableFuture<Void> readChunk(final ByteBuffer chunk, final long storageIndex, final int length) {
+        if (length == 0) {
+            return null;
+        }
+        chunk.clear();
+        chunk.limit(length);
+        return session.getStorageModule().readAsync(chunk.slice(), storageIndex);
+    }
+
+    // OODRIVE
+    /**
+     * Waits for the end of a chunk read.
+     * 
+     * @param chunkRead
+     *            the read in progress, may be <code>null</code>
+     * @throws IOException
+     *             if the read failed
+     */
+    private static final void waitRead(final ListenableFuture<Void> chunkRead) throws IOException {
+        if (chunkRead == null) {
+            return;
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(chunkRead);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
 }
@@ -0,0 +1,87 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+import java.io.IOException;
+import java.security.DigestException;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.parser.BasicHeaderSegment;
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.scsi.SCSICommandParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.ScsiOperationCode;
+import org.jscsi.target.scsi.cdb.SynchronizeCache10Cdb;
+import org.jscsi.target.scsi.cdb.SynchronizeCache16Cdb;
+import org.jscsi.target.scsi.cdb.SynchronizeCacheCdb;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.settings.SettingsException;
+import org.jscsi.target.storage.IStorageModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stage for processing <code>SYNCHRONIZE CACHE (10)</code> and <code>SYNCHRONIZE CACHE (16)</code> SCSI
+ * commands.
+ * <p>
+ * The whole storage module is written to the medium with {@link IStorageModule#flush()}, whatever the range of
+ * the command. The stage must be executed once the commands received before have been carried out, so that the
+ * blocks they wrote are covered.
+ * 
+ * @author llambert
+ */
+public final class SynchronizeCacheStage extends TargetFullFeatureStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SynchronizeCacheStage.class);
+
+    public SynchronizeCacheStage(TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    public void execute(ProtocolDataUnit pdu) throws IOException, InterruptedException, InternetSCSIException,
+        DigestException, SettingsException {
+
+        final BasicHeaderSegment bhs = pdu.getBasicHeaderSegment();
+        final SCSICommandParser parser = (SCSICommandParser)bhs.getParser();
+        final int initiatorTaskTag = bhs.getInitiatorTaskTag();
+
+        final SynchronizeCacheCdb cdb;
+        final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
+        if (scsiOpCode == ScsiOperationCode.SYNCHRONIZE_CACHE_10)
+            cdb = new SynchronizeCache10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.SYNCHRONIZE_CACHE_16)
+            cdb = new SynchronizeCache16Cdb(parser.getCDB());
+        else {
+            // anything else wouldn't be good (programmer error)
+            // close connection
+            throw new InternetSCSIException("wrong SCSI Operation Code " + scsiOpCode + " in SynchronizeCacheStage");
+        }
+
+        // check the range, a NUMBER OF LOGICAL BLOCKS of zero goes to the end of the medium
+        final IStorageModule storageModule = session.getStorageModule();
+        final int boundsCheck = storageModule.checkBounds(cdb.getLogicalBlockAddress(), cdb.getTransferLength());
+        if (boundsCheck == 1)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (boundsCheck == 2)
+            cdb.addIllegalFieldPointerForTransferLength();
+
+        final FieldPointerSenseKeySpecificData[] illegalFieldPointers = cdb.getIllegalFieldPointers();
+        if (illegalFieldPointers != null) {
+            LOGGER.error("illegal field in SYNCHRONIZE CACHE CDB");
+            connection.sendPdu(createFixedFormatErrorPdu(illegalFieldPointers,
+                boundsCheck == 1 ? AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE
+                    : AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_CDB, initiatorTaskTag,
+                parser.getExpectedDataTransferLength()));
+            return;
+        }
+
+        storageModule.flush();
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("Cache synchronized, immed=" + cdb.getImmediate());
+
+        connection.sendPdu(createScsiResponsePdu(SCSIStatus.GOOD, initiatorTaskTag,
+            parser.getExpectedDataTransferLength(), 0));
+    }
+
+}
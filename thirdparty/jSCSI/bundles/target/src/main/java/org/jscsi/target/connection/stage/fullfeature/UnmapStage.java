@@ -0,0 +1,113 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.UnmapCdb;
+import org.jscsi.target.scsi.cdb.UnmapParameterList;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.Debug;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stage for processing <code>UNMAP</code> SCSI commands. The logical blocks
+ * of the parameter list are released by the storage module.
+ * <p>
+ * All the block descriptors are checked before releasing any block.
+ * 
+ * @author llambert
+ */
+public final class UnmapStage extends DataOutBufferStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnmapStage.class);
+
+    /**
+     * The maximum number of UNMAP block descriptors in a parameter list.
+     */
+    public static final int MAXIMUM_UNMAP_BLOCK_DESCRIPTOR_COUNT = 256;
+
+    /**
+     * The maximum number of bytes released by a command. Keeps the duration
+     * of a command well under the timeouts of the initiators.
+     */
+    public static final long MAXIMUM_UNMAP_LENGTH = 256L * 1024 * 1024;
+
+    public UnmapStage(TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    protected void execute(final ByteBuffer cdbBuffer, final ByteBuffer dataOutBuffer) throws IOException,
+        InterruptedException, InternetSCSIException {
+
+        final UnmapCdb cdb = new UnmapCdb(cdbBuffer);
+        final FieldPointerSenseKeySpecificData[] illegalFieldPointers = cdb.getIllegalFieldPointers();
+        if (illegalFieldPointers != null) {
+            LOGGER.error("illegal field in UNMAP CDB");
+            LOGGER.error("CDB:\n" + Debug.byteBufferToString(cdbBuffer));
+            sendErrorResponse(illegalFieldPointers, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_CDB);
+            return;
+        }
+
+        // a parameter list length of zero is not an error
+        final int parameterListLength = Math.min(cdb.getParameterListLength(), dataOutBuffer.capacity());
+        if (parameterListLength == 0) {
+            sendGoodResponse();
+            return;
+        }
+        if (parameterListLength < UnmapParameterList.HEADER_LENGTH) {
+            sendErrorResponse(true, 7, AdditionalSenseCodeAndQualifier.PARAMETER_LIST_LENGTH_ERROR);
+            return;
+        }
+
+        final UnmapParameterList parameterList = new UnmapParameterList(dataOutBuffer, parameterListLength);
+        final int count = parameterList.getBlockDescriptorCount();
+        if (count > MAXIMUM_UNMAP_BLOCK_DESCRIPTOR_COUNT) {
+            sendErrorResponse(false, 2, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST);
+            return;
+        }
+
+        // check all the descriptors
+        final IStorageModule storageModule = session.getStorageModule();
+        final int blockSize = storageModule.getBlockSize();
+        final long maximumUnmapLbaCount = MAXIMUM_UNMAP_LENGTH / blockSize;
+        long lbaCount = 0;
+        for (int i = 0; i < count; ++i) {
+            final long numberOfLogicalBlocks = parameterList.getNumberOfLogicalBlocks(i);
+            if (numberOfLogicalBlocks == 0)
+                continue;
+            final int index = UnmapParameterList.getBlockDescriptorIndex(i);
+            if (numberOfLogicalBlocks > Integer.MAX_VALUE
+                || storageModule.checkBounds(parameterList.getLogicalBlockAddress(i), (int)numberOfLogicalBlocks) != 0) {
+                LOGGER.error("UNMAP block descriptor out of bounds: lba=" + parameterList.getLogicalBlockAddress(i)
+                    + ", count=" + numberOfLogicalBlocks);
+                sendErrorResponse(false, index, AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE);
+                return;
+            }
+            lbaCount += numberOfLogicalBlocks;
+            if (lbaCount > maximumUnmapLbaCount) {
+                sendErrorResponse(false, index + 8, AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_PARAMETER_LIST);
+                return;
+            }
+        }
+
+        // release the blocks
+        for (int i = 0; i < count; ++i) {
+            final long numberOfLogicalBlocks = parameterList.getNumberOfLogicalBlocks(i);
+            if (numberOfLogicalBlocks > 0) {
+                storageModule.trim(numberOfLogicalBlocks * blockSize, parameterList.getLogicalBlockAddress(i)
+                    * blockSize);
+            }
+        }
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("Unmapped " + lbaCount + " blocks");
+
+        sendGoodResponse();
+    }
+
+}
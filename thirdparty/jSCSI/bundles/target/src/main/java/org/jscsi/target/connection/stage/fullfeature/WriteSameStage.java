@@ -0,0 +1,142 @@
+package org.jscsi.target.connection.stage.fullfeature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jscsi.exception.InternetSCSIException;
+import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
+import org.jscsi.target.scsi.cdb.WriteSame16Cdb;
+import org.jscsi.target.scsi.sense.AdditionalSenseCodeAndQualifier;
+import org.jscsi.target.scsi.sense.senseDataDescriptor.senseKeySpecific.FieldPointerSenseKeySpecificData;
+import org.jscsi.target.storage.IStorageModule;
+import org.jscsi.target.util.Debug;
+import org.jscsi.utils.ByteBufferCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stage for processing <code>WRITE SAME (16)</code> SCSI commands.
+ * <p>
+ * A block of zeros is written with {@link IStorageModule#writeZeroes(long, long)}, which releases the storage of
+ * the range on a thin provisioned storage module, with or without the UNMAP bit. The other blocks are copied to
+ * each block of the range.
+ * 
+ * @author llambert
+ */
+public final class WriteSameStage extends DataOutBufferStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteSameStage.class);
+
+    /**
+     * The maximum number of bytes written by a command.
+     */
+    public static final long MAXIMUM_WRITE_SAME_LENGTH = 256L * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes written at once when the block is not filled
+     * with zeros.
+     */
+    private static final int WRITE_LENGTH = 128 * 1024;
+
+    public WriteSameStage(TargetFullFeaturePhase targetFullFeaturePhase) {
+        super(targetFullFeaturePhase);
+    }
+
+    @Override
+    protected void execute(final ByteBuffer cdbBuffer, final ByteBuffer dataOutBuffer) throws IOException,
+        InterruptedException, InternetSCSIException {
+
+        final WriteSame16Cdb cdb = new WriteSame16Cdb(cdbBuffer);
+        final IStorageModule storageModule = session.getStorageModule();
+        final int blockSize = storageModule.getBlockSize();
+
+        // check bounds, length and the transferred block
+        final int boundsCheck = storageModule.checkBounds(cdb.getLogicalBlockAddress(), cdb.getTransferLength());
+        if (boundsCheck == 1)
+            cdb.addIllegalFieldPointerForLogicalBlockAddress();
+        else if (boundsCheck == 2 || (long)cdb.getTransferLength() * blockSize > MAXIMUM_WRITE_SAME_LENGTH
+            || dataOutBuffer.capacity() < blockSize)
+            cdb.addIllegalFieldPointerForTransferLength();
+
+        final FieldPointerSenseKeySpecificData[] illegalFieldPointers = cdb.getIllegalFieldPointers();
+        if (illegalFieldPointers != null) {
+            LOGGER.error("illegal field in WRITE SAME CDB");
+            LOGGER.error("CDB:\n" + Debug.byteBufferToString(cdbBuffer));
+            sendErrorResponse(illegalFieldPointers,
+                boundsCheck == 1 ? AdditionalSenseCodeAndQualifier.LOGICAL_BLOCK_ADDRESS_OUT_OF_RANGE
+                    : AdditionalSenseCodeAndQualifier.INVALID_FIELD_IN_CDB);
+            return;
+        }
+
+        final long storageIndex = cdb.getLogicalBlockAddress() * blockSize;
+        final long length = (long)cdb.getTransferLength() * blockSize;
+        dataOutBuffer.limit(blockSize);
+        if (isZero(dataOutBuffer)) {
+            storageModule.writeZeroes(length, storageIndex);
+        } else {
+            writeBlocks(storageModule, dataOutBuffer, length, storageIndex);
+        }
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("Wrote " + cdb.getTransferLength() + " blocks, unmap=" + cdb.getUnmap());
+
+        sendGoodResponse();
+    }
+
+    /**
+     * Tells if a block is filled with zeros.
+     * 
+     * @param block
+     *            the block, from its position to its limit
+     * @return <code>true</code> if all the bytes are zero
+     */
+    private static boolean isZero(final ByteBuffer block) {
+        for (int i = block.position(); i < block.limit(); ++i) {
+            if (block.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies a block to each block of a range, several blocks at once.
+     */
+    private static void writeBlocks(final IStorageModule storageModule, final ByteBuffer block, long length,
+        long storageIndex) throws IOException {
+        final int blockSize = block.remaining();
+        final int writeLength = (int)Math.min(length, Math.max(1, WRITE_LENGTH / blockSize) * blockSize);
+        final ByteBuffer blocks = fill(ByteBufferCache.allocate(writeLength), block);
+        try {
+            while (length >= writeLength) {
+                blocks.rewind();
+                storageModule.write(blocks, storageIndex);
+                storageIndex += writeLength;
+                length -= writeLength;
+            }
+        } finally {
+            ByteBufferCache.release(blocks);
+        }
+        if (length > 0) {
+            final ByteBuffer lastBlocks = fill(ByteBufferCache.allocate((int)length), block);
+            try {
+                storageModule.write(lastBlocks, storageIndex);
+            } finally {
+                ByteBufferCache.release(lastBlocks);
+            }
+        }
+    }
+
+    /**
+     * Fills a buffer with copies of a block.
+     * 
+     * @return the buffer, rewound
+     */
+    private static ByteBuffer fill(final ByteBuffer buffer, final ByteBuffer block) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put(block.duplicate());
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+}
@@ -3,6 +3,9 @@ package org.jscsi.target.connection.stage.fullfeature;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.jscsi.exception.InternetSCSIException;
 import org.jscsi.parser.AbstractMessageParser;
@@ -19,15 +22,21 @@ import org.jscsi.target.connection.phase.TargetFullFeaturePhase;
 import org.jscsi.target.scsi.ScsiResponseDataSegment;
 import org.jscsi.target.scsi.cdb.ScsiOperationCode;
 import org.jscsi.target.scsi.cdb.Write10Cdb;
+import org.jscsi.target.scsi.cdb.Write16Cdb;
 import org.jscsi.target.scsi.cdb.Write6Cdb;
 import org.jscsi.target.scsi.cdb.WriteCdb;
 import org.jscsi.target.settings.SettingsException;
 import org.jscsi.target.util.Debug;
+import org.jscsi.utils.ByteBufferCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
- * A stage for processing <code>WRITE (6)</code> and <code>WRITE (10)</code> SCSI commands.
+ * A stage for processing <code>WRITE (6)</code>, <code>WRITE (10)</code> and <code>WRITE (16)</code> SCSI
+ * commands.
  * 
  * @author Andreas Ergenzinger
  */
@@ -67,6 +76,13 @@ public final class WriteStage extends ReadOrWriteStage {
 
     // OODRIVE
     private boolean firstBurstOver = false;
+
+    // OODRIVE
+    private boolean forceUnitAccess = false;
+
+    // OODRIVE: writes in progress and their data segments
+    private final List<ListenableFuture<Void>> pendingWrites = new ArrayList<>();
+    private final List<ByteBuffer> pendingDataSegments = new ArrayList<>();
     
     public WriteStage(TargetFullFeaturePhase targetFullFeaturePhase) {
         super(targetFullFeaturePhase);
@@ -98,6 +114,60 @@ public final class WriteStage extends ReadOrWriteStage {
 
     }
 
+    // OODRIVE
+    /**
+     * Stores the data segment of a PDU without waiting for the end of the
+     * write: the next PDUs of the command are received while the storage
+     * module stores the data. The data segment is taken from the PDU until
+     * the end of the command.
+     * 
+     * @param pdu
+     *            the PDU carrying the data
+     * @param index
+     *            byte offset of the data in the storage area
+     * @return the length of the data
+     */
+    private int writeAsync(final ProtocolDataUnit pdu, final long index) {
+        final ByteBuffer dataSegment = pdu.takeDataSegment();
+        pendingDataSegments.add(dataSegment);
+        pendingWrites.add(session.getStorageModule().writeAsync(dataSegment, index));
+        return dataSegment.capacity();
+    }
+
+    // OODRIVE
+    /**
+     * Waits for the end of the writes in progress and gives back their data
+     * segments.
+     * 
+     * @throws IOException
+     *             if one of the writes failed
+     */
+    private void waitWrites() throws IOException {
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < pendingWrites.size(); i++) {
+                try {
+                    Uninterruptibles.getUninterruptibly(pendingWrites.get(i));
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } finally {
+            for (int i = 0; i < pendingDataSegments.size(); i++) {
+                ByteBufferCache.release(pendingDataSegments.get(i));
+            }
+            pendingWrites.clear();
+            pendingDataSegments.clear();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
     @Override
     public void execute(ProtocolDataUnit pdu) throws IOException, DigestException, InterruptedException,
         InternetSCSIException, SettingsException {
@@ -127,6 +197,8 @@ public final class WriteStage extends ReadOrWriteStage {
         final ScsiOperationCode scsiOpCode = ScsiOperationCode.valueOf(parser.getCDB().get(0));
         if (scsiOpCode == ScsiOperationCode.WRITE_10)
             cdb = new Write10Cdb(parser.getCDB());
+        else if (scsiOpCode == ScsiOperationCode.WRITE_16)// OODRIVE
+            cdb = new Write16Cdb(parser.getCDB());
         else if (scsiOpCode == ScsiOperationCode.WRITE_6)
             cdb = new Write6Cdb(parser.getCDB());
         else {
@@ -136,6 +208,8 @@ public final class WriteStage extends ReadOrWriteStage {
         }
         final int transferLength = cdb.getTransferLength();
         final long logicalBlockAddress = cdb.getLogicalBlockAddress();
+        // OODRIVE
+        forceUnitAccess = cdb.getForceUnitAccess();
 
         // transform to from block units to byte units
         blockSize = session.getStorageModule().getBlockSize();
@@ -169,13 +243,11 @@ public final class WriteStage extends ReadOrWriteStage {
 
         // *** receive immediate data ***
         if (immediateData && bhs.getDataSegmentLength() > 0) {
-            final ByteBuffer immediateDataArray = pdu.getDataSegment();
-
-            session.getStorageModule().write(immediateDataArray, storageIndex);
-            bytesReceived = immediateDataArray.capacity();
+            // OODRIVE
+            bytesReceived = writeAsync(pdu, storageIndex);
 
             if (LOGGER.isDebugEnabled())
-                LOGGER.debug("wrote " + immediateDataArray.capacity() + "bytes as immediate data");
+                LOGGER.debug("wrote " + bytesReceived + "bytes as immediate data");
         }
 
         // *** receive unsolicited data ***
@@ -215,9 +287,8 @@ public final class WriteStage extends ReadOrWriteStage {
 
                 final DataOutParser dataOutParser = (DataOutParser)bhs.getParser();
 
-                session.getStorageModule().write(pdu.getDataSegment(),
-                    storageIndex + dataOutParser.getBufferOffset());
-                ;
+                // OODRIVE
+                writeAsync(pdu, storageIndex + dataOutParser.getBufferOffset());
                 bytesReceived += bhs.getDataSegmentLength();
 
                 if (bhs.isFinalFlag()){
@@ -285,8 +356,8 @@ public final class WriteStage extends ReadOrWriteStage {
                         final DataOutParser dataOutParser = (DataOutParser)bhs.getParser();
                         checkDataOutParser(dataOutParser);
 
-                        session.getStorageModule().write(pdu.getDataSegment(),
-                            storageIndex + dataOutParser.getBufferOffset());
+                        // OODRIVE
+                        writeAsync(pdu, storageIndex + dataOutParser.getBufferOffset());
 
                         bytesReceivedThisCycle += bhs.getDataSegmentLength();
 
@@ -332,6 +403,12 @@ public final class WriteStage extends ReadOrWriteStage {
         }
         
         if (bytesReceived >= transferLengthInBytes){
+        // OODRIVE: the data must be stored before the response
+        waitWrites();
+        // OODRIVE: the blocks must be on the medium before the response
+        if (forceUnitAccess) {
+            session.getStorageModule().flush();
+        }
         /* send SCSI Response PDU */
         pdu = TargetPduFactory.createSCSIResponsePdu(false,// bidirectionalReadResidualOverflow
             false,// bidirectionalReadResidualUnderflow
@@ -75,7 +75,8 @@ public class InquiryCDB extends CommandDescriptorBlock {
 
         final VitalProductDataPageName vpdpn = pageCode.getVitalProductDataPageName();
         if (enableVitalProductData) {
-            if (!SupportedVpdPages.vpdPageCodeSupported(vpdpn))
+            // OODRIVE: check the page code, several pages are DEVICE_TYPE_SPECIFIC
+            if (!SupportedVpdPages.vpdPageCodeSupported(pageCode))
                 addIllegalFieldPointer(2);// page code not supported
         } else {
             /*
@@ -17,6 +17,9 @@ public enum ScsiOperationCode {
     TEST_UNIT_READY((byte)0x00), REQUEST_SENSE((byte)0x03), FORMAT_UNIT((byte)0x04), READ_6((byte)0x08),
         WRITE_6((byte)0x0a), INQUIRY((byte)0x12), MODE_SELECT_6((byte)0x15), MODE_SENSE_6((byte)0x1a),
         SEND_DIAGNOSTIC((byte)0x1d), READ_CAPACITY_10((byte)0x25), READ_10((byte)0x28), WRITE_10((byte)0x2a),
+        SYNCHRONIZE_CACHE_10((byte)0x35)/* OODRIVE */, UNMAP((byte)0x42)/* OODRIVE */,
+        READ_16((byte)0x88)/* OODRIVE */, WRITE_16((byte)0x8a)/* OODRIVE */,
+        SYNCHRONIZE_CACHE_16((byte)0x91)/* OODRIVE */, WRITE_SAME_16((byte)0x93)/* OODRIVE */,
         READ_CAPACITY_16((byte)0x9e), REPORT_LUNS((byte)0xa0);
 
     /**
@@ -0,0 +1,50 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>SYNCHRONIZE CACHE (10)</code> SCSI command.
+ * 
+ * @author llambert
+ */
+public final class SynchronizeCache10Cdb extends SynchronizeCacheCdb {
+
+    /**
+     * The GROUP NUMBER field is ignored.
+     */
+    private final int groupNumber;
+
+    public SynchronizeCache10Cdb(ByteBuffer buffer) {
+        super(buffer);
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(6) & 31;
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress(ByteBuffer buffer) {
+        return ReadWrite.readUnsignedInt(buffer, 2);
+    }
+
+    @Override
+    protected int deserializeTransferLength(ByteBuffer buffer) {
+        return ReadWrite.readTwoByteInt(buffer, 7);
+    }
+
+    public int getGroupNumber() {
+        return groupNumber;
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex() {
+        return 2;
+    }
+
+    @Override
+    protected int getTransferLengthFieldIndex() {
+        return 7;
+    }
+
+}
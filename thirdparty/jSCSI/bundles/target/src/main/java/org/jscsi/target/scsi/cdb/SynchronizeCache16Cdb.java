@@ -0,0 +1,51 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>SYNCHRONIZE CACHE (16)</code> SCSI command.
+ * 
+ * @author llambert
+ */
+public final class SynchronizeCache16Cdb extends SynchronizeCacheCdb {
+
+    /**
+     * The GROUP NUMBER field is ignored.
+     */
+    private final int groupNumber;
+
+    public SynchronizeCache16Cdb(ByteBuffer buffer) {
+        super(buffer);
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(14) & 31;
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress(ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected int deserializeTransferLength(ByteBuffer buffer) {
+        // lengths over Integer.MAX_VALUE are negative: out of bounds
+        return ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getGroupNumber() {
+        return groupNumber;
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex() {
+        return 2;
+    }
+
+    @Override
+    protected int getTransferLengthFieldIndex() {
+        return 10;
+    }
+
+}
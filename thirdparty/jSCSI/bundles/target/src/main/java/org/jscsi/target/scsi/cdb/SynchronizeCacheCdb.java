@@ -0,0 +1,38 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+
+/**
+ * This abstract class represents Command Descriptor Blocks for the <code>SYNCHRONIZE CACHE</code> SCSI commands.
+ * <p>
+ * The TRANSFER LENGTH of the {@link ReadOrWriteCdb} is the NUMBER OF LOGICAL BLOCKS field: the range of logical
+ * blocks to write to the medium. A NUMBER OF LOGICAL BLOCKS of zero specifies all the logical blocks from the
+ * LOGICAL BLOCK ADDRESS to the end of the medium.
+ * 
+ * @see SynchronizeCache10Cdb
+ * @see SynchronizeCache16Cdb
+ * @author llambert
+ */
+public abstract class SynchronizeCacheCdb extends ReadOrWriteCdb {
+
+    /**
+     * An IMMED bit set to one allows the status to be returned before the
+     * cache is synchronized. The jSCSI Target always returns the status once
+     * the cache is synchronized.
+     */
+    private final boolean immediate;
+
+    public SynchronizeCacheCdb(ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // IMMED
+        immediate = BitManip.getBit(buffer.get(1), 1);
+    }
+
+    public boolean getImmediate() {
+        return immediate;
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>UNMAP</code> SCSI command.
+ * <p>
+ * The logical blocks to unmap are listed in the UNMAP parameter list transferred in the Data-Out buffer.
+ * 
+ * @author llambert
+ */
+public final class UnmapCdb extends CommandDescriptorBlock {
+
+    /**
+     * The ANCHOR bit requests the logical blocks to be anchored instead of
+     * deallocated. Anchoring is not supported (the ANC_SUP bit of the Logical
+     * Block Provisioning VPD page is zero).
+     */
+    private final boolean anchor;
+
+    /**
+     * The GROUP NUMBER field is ignored.
+     */
+    private final int groupNumber;
+
+    /**
+     * The PARAMETER LIST LENGTH field specifies the length in bytes of the
+     * UNMAP parameter list that is available to be transferred from the
+     * Data-Out Buffer. A length of zero is not an error: no logical block is
+     * unmapped.
+     */
+    private final int parameterListLength;
+
+    public UnmapCdb(ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // ANCHOR
+        anchor = BitManip.getBit(buffer.get(1), 0);
+        if (anchor)
+            addIllegalFieldPointer(1, 0);
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(6) & 31;
+
+        // PARAMETER LIST LENGTH
+        parameterListLength = ReadWrite.readTwoByteInt(buffer, 7);
+    }
+
+    public boolean getAnchor() {
+        return anchor;
+    }
+
+    public int getGroupNumber() {
+        return groupNumber;
+    }
+
+    public int getParameterListLength() {
+        return parameterListLength;
+    }
+
+}
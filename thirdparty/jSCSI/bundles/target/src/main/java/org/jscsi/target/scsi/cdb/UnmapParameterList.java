@@ -0,0 +1,84 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * The UNMAP parameter list is transferred in the Data-Out buffer of an <code>UNMAP</code> SCSI command. It
+ * contains a list of UNMAP block descriptors, each one describing a range of logical blocks to unmap.
+ * 
+ * @see UnmapCdb
+ * @author llambert
+ */
+public final class UnmapParameterList {
+
+    /**
+     * The length in bytes of the header of the parameter list.
+     */
+    public static final int HEADER_LENGTH = 8;
+
+    /**
+     * The length in bytes of an UNMAP block descriptor.
+     */
+    public static final int BLOCK_DESCRIPTOR_LENGTH = 16;
+
+    /**
+     * The first logical block of each block descriptor.
+     */
+    private final long[] logicalBlockAddresses;
+
+    /**
+     * The number of logical blocks of each block descriptor.
+     */
+    private final long[] numbersOfLogicalBlocks;
+
+    /**
+     * Reads the parameter list at the beginning of the buffer.
+     * 
+     * @param buffer
+     *            the Data-Out buffer
+     * @param parameterListLength
+     *            the number of bytes of the parameter list available in the
+     *            buffer, at least {@link #HEADER_LENGTH}
+     */
+    public UnmapParameterList(final ByteBuffer buffer, final int parameterListLength) {
+        // BLOCK DESCRIPTOR DATA LENGTH, the truncated descriptors are ignored
+        final int blockDescriptorDataLength =
+            Math.min(ReadWrite.readTwoByteInt(buffer, 2), parameterListLength - HEADER_LENGTH);
+        final int count = blockDescriptorDataLength / BLOCK_DESCRIPTOR_LENGTH;
+
+        logicalBlockAddresses = new long[count];
+        numbersOfLogicalBlocks = new long[count];
+        for (int i = 0; i < count; ++i) {
+            final int index = getBlockDescriptorIndex(i);
+            logicalBlockAddresses[i] = buffer.getLong(index);
+            numbersOfLogicalBlocks[i] = ReadWrite.readUnsignedInt(buffer, index + 8);
+        }
+    }
+
+    /**
+     * Returns the position of a block descriptor in the parameter list, to
+     * report an illegal field.
+     * 
+     * @param descriptor
+     *            the index of the block descriptor
+     * @return the index of the first byte of the block descriptor
+     */
+    public static int getBlockDescriptorIndex(final int descriptor) {
+        return HEADER_LENGTH + descriptor * BLOCK_DESCRIPTOR_LENGTH;
+    }
+
+    public int getBlockDescriptorCount() {
+        return logicalBlockAddresses.length;
+    }
+
+    public long getLogicalBlockAddress(final int descriptor) {
+        return logicalBlockAddresses[descriptor];
+    }
+
+    public long getNumberOfLogicalBlocks(final int descriptor) {
+        return numbersOfLogicalBlocks[descriptor];
+    }
+
+}
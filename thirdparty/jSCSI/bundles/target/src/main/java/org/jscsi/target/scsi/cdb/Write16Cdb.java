@@ -0,0 +1,104 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>WRITE (16)
+ * </code> SCSI command.
+ * <p>
+ * The <code>WRITE (16)</code> command has the same fields as the <code>WRITE (10)</code> command, with an eight-byte
+ * LOGICAL BLOCK ADDRESS field and a four-byte TRANSFER LENGTH field, for large logical units and large
+ * transfers.
+ * 
+ * @see Write10Cdb
+ * @author llambert
+ */
+public final class Write16Cdb extends WriteCdb {
+
+    /**
+     * The value of the WRPROTECT field, ignored.
+     * 
+     * @see Write10Cdb
+     */
+    private final int writeProtect;
+
+    /**
+     * The value of the DPO bit, ignored.
+     * 
+     * @see Write10Cdb
+     */
+    private final boolean disablePageOut;
+
+    /**
+     * The value of the FUA bit: when set, the logical blocks are written to the
+     * medium before the status is returned.
+     * 
+     * @see Write10Cdb
+     */
+    private final boolean forceUnitAccess;
+
+    /**
+     * The value of the GROUP NUMBER field, ignored.
+     * 
+     * @see Write10Cdb
+     */
+    private final int groupNumber;
+
+    public Write16Cdb(final ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        // WRPROTECT
+        final byte b = buffer.get(1);
+        writeProtect = (b >> 5) & 7;
+
+        // DPO
+        disablePageOut = BitManip.getBit(b, 4);
+
+        // FUA
+        forceUnitAccess = BitManip.getBit(b, 3);
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(14) & 31;
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress(ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected int deserializeTransferLength(ByteBuffer buffer) {
+        // lengths over Integer.MAX_VALUE are negative: out of bounds
+        return ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getWriteProtect() {
+        return writeProtect;
+    }
+
+    public boolean disablePageOut() {
+        return disablePageOut;
+    }
+
+    @Override
+    public boolean getForceUnitAccess() {
+        return forceUnitAccess;
+    }
+
+    public int getGroupNumber() {
+        return groupNumber;
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex() {
+        return 2;
+    }
+
+    @Override
+    protected int getTransferLengthFieldIndex() {
+        return 10;
+    }
+}
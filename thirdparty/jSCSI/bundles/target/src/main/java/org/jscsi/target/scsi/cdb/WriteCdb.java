@@ -7,6 +7,7 @@ import java.nio.ByteBuffer;
  * 
  * @see Write6Cdb
  * @see Write10Cdb
+ * @see Write16Cdb
  * @author Andreas Ergenzinger
  */
 public abstract class WriteCdb extends ReadOrWriteCdb {
@@ -15,4 +16,17 @@ public abstract class WriteCdb extends ReadOrWriteCdb {
         super(buffer);
     }
 
+    // OODRIVE
+    /**
+     * Returns the value of the FUA bit: when set, the logical blocks must be
+     * written to the medium before the status is returned.
+     * <p>
+     * The <code>WRITE (6)</code> command has no FUA bit.
+     * 
+     * @return the value of the FUA bit
+     */
+    public boolean getForceUnitAccess() {
+        return false;
+    }
+
 }
@@ -0,0 +1,119 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.util.BitManip;
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * This class represents Command Descriptor Blocks for the <code>WRITE SAME (16)</code> SCSI command.
+ * <p>
+ * The single logical block transferred in the Data-Out buffer is written to each logical block of the range.
+ * The TRANSFER LENGTH of the {@link ReadOrWriteCdb} is the NUMBER OF LOGICAL BLOCKS field.
+ * 
+ * @author llambert
+ */
+public final class WriteSame16Cdb extends ReadOrWriteCdb {
+
+    /**
+     * The logical unit is formatted without protection information: the
+     * WRPROTECT field must be zero.
+     */
+    private final int writeProtect;
+
+    /**
+     * The ANCHOR bit is not supported.
+     */
+    private final boolean anchor;
+
+    /**
+     * An UNMAP bit set to one requests the logical blocks to be unmapped if
+     * the Data-Out buffer contains zeros.
+     */
+    private final boolean unmap;
+
+    /**
+     * The NDOB (no Data-Out buffer) bit is not supported: the logical block
+     * must always be transferred.
+     */
+    private final boolean noDataOutBuffer;
+
+    /**
+     * The GROUP NUMBER field is ignored.
+     */
+    private final int groupNumber;
+
+    public WriteSame16Cdb(ByteBuffer buffer) {
+        super(buffer);// OPERATION CODE + CONTROL
+
+        final byte b = buffer.get(1);
+
+        // WRPROTECT
+        writeProtect = (b >> 5) & 7;
+        if (writeProtect != 0)
+            addIllegalFieldPointer(1, 7);
+
+        // ANCHOR
+        anchor = BitManip.getBit(b, 4);
+        if (anchor)
+            addIllegalFieldPointer(1, 4);
+
+        // UNMAP
+        unmap = BitManip.getBit(b, 3);
+
+        // NDOB
+        noDataOutBuffer = BitManip.getBit(b, 0);
+        if (noDataOutBuffer)
+            addIllegalFieldPointer(1, 0);
+
+        // GROUP NUMBER
+        groupNumber = buffer.get(14) & 31;
+
+        // the WSNZ bit of the Block Limits VPD page is set: zero blocks is
+        // not a request for the whole medium
+        if (getTransferLength() == 0)
+            addIllegalFieldPointerForTransferLength();
+    }
+
+    @Override
+    protected long deserializeLogicalBlockAddress(ByteBuffer buffer) {
+        return buffer.getLong(2);
+    }
+
+    @Override
+    protected int deserializeTransferLength(ByteBuffer buffer) {
+        // lengths over Integer.MAX_VALUE are negative: out of bounds
+        return ReadWrite.readFourByteInt(buffer, 10);
+    }
+
+    public int getWriteProtect() {
+        return writeProtect;
+    }
+
+    public boolean getAnchor() {
+        return anchor;
+    }
+
+    public boolean getUnmap() {
+        return unmap;
+    }
+
+    public boolean getNoDataOutBuffer() {
+        return noDataOutBuffer;
+    }
+
+    public int getGroupNumber() {
+        return groupNumber;
+    }
+
+    @Override
+    protected int getLogicalBlockAddressFieldIndex() {
+        return 2;
+    }
+
+    @Override
+    protected int getTransferLengthFieldIndex() {
+        return 10;
+    }
+
+}
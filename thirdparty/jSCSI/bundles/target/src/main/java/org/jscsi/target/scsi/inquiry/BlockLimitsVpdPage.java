@@ -0,0 +1,122 @@
+package org.jscsi.target.scsi.inquiry;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * The Block Limits Vital Product Data page tells the initiator the limits of
+ * the logical unit for the transfers of the <code>READ</code> and <code>WRITE</code> SCSI commands and for the
+ * <code>UNMAP</code> and <code>WRITE SAME</code> SCSI commands. The other limits are not reported.
+ * 
+ * @author llambert
+ */
+public final class BlockLimitsVpdPage implements IResponseData {
+
+    /**
+     * The PAGE CODE of the Block Limits VPD page.
+     */
+    public static final byte PAGE_CODE = (byte)0xb0;
+
+    /**
+     * The value of the PAGE LENGTH field.
+     */
+    private static final int PAGE_LENGTH = 0x3c;
+
+    /**
+     * The total length of the fields before the PAGE LENGTH field included.
+     */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * The maximum number of logical blocks transferred by a <code>READ</code>
+     * or <code>WRITE</code> command.
+     */
+    private final int maximumTransferLength;
+
+    /**
+     * The number of logical blocks transferred by a <code>READ</code> or
+     * <code>WRITE</code> command above which the initiator should split its
+     * transfers.
+     */
+    private final int optimalTransferLength;
+
+    /**
+     * The maximum number of logical blocks unmapped by an <code>UNMAP</code>
+     * command.
+     */
+    private final int maximumUnmapLbaCount;
+
+    /**
+     * The maximum number of UNMAP block descriptors in the parameter list of an
+     * <code>UNMAP</code> command.
+     */
+    private final int maximumUnmapBlockDescriptorCount;
+
+    /**
+     * The maximum number of logical blocks written by a <code>WRITE SAME</code>
+     * command.
+     */
+    private final long maximumWriteSameLength;
+
+    public BlockLimitsVpdPage(final int maximumTransferLength, final int optimalTransferLength,
+        final int maximumUnmapLbaCount, final int maximumUnmapBlockDescriptorCount, final long maximumWriteSameLength) {
+        this.maximumTransferLength = maximumTransferLength;
+        this.optimalTransferLength = optimalTransferLength;
+        this.maximumUnmapLbaCount = maximumUnmapLbaCount;
+        this.maximumUnmapBlockDescriptorCount = maximumUnmapBlockDescriptorCount;
+        this.maximumWriteSameLength = maximumWriteSameLength;
+    }
+
+    public void serialize(ByteBuffer byteBuffer, int index) {
+        // the buffer may be reused: reserved and unreported fields are zero
+        byteBuffer.position(index);
+        for (int i = 0; i < size(); ++i)
+            byteBuffer.put((byte)0);
+
+        // *** byte 0 ***
+        // direct access block device, connected (see SupportedVpdPages)
+
+        // *** byte 1 - PAGE CODE ***
+        byteBuffer.put(index + 1, PAGE_CODE);
+
+        // *** bytes 2 and 3 - PAGE LENGTH ***
+        ReadWrite.writeTwoByteInt(byteBuffer, PAGE_LENGTH, index + 2);
+
+        // *** byte 4 ***
+        /*
+         * WSNZ (bit 0):
+         * 
+         * 1
+         * 
+         * A WRITE SAME command with a NUMBER OF LOGICAL BLOCKS of zero is
+         * rejected.
+         */
+        byteBuffer.put(index + 4, (byte)1);
+
+        // *** bytes 6 and 7 - OPTIMAL TRANSFER LENGTH GRANULARITY ***
+        // any multiple of the logical block
+        ReadWrite.writeTwoByteInt(byteBuffer, 1, index + 6);
+
+        // *** bytes 8 to 11 - MAXIMUM TRANSFER LENGTH ***
+        ReadWrite.writeInt(maximumTransferLength, byteBuffer, index + 8);
+
+        // *** bytes 12 to 15 - OPTIMAL TRANSFER LENGTH ***
+        ReadWrite.writeInt(optimalTransferLength, byteBuffer, index + 12);
+
+        // *** bytes 20 to 23 - MAXIMUM UNMAP LBA COUNT ***
+        ReadWrite.writeInt(maximumUnmapLbaCount, byteBuffer, index + 20);
+
+        // *** bytes 24 to 27 - MAXIMUM UNMAP BLOCK DESCRIPTOR COUNT ***
+        ReadWrite.writeInt(maximumUnmapBlockDescriptorCount, byteBuffer, index + 24);
+
+        // *** bytes 36 to 43 - MAXIMUM WRITE SAME LENGTH ***
+        ReadWrite.writeLong(byteBuffer, maximumWriteSameLength, index + 36);
+    }
+
+    public int size() {
+        return HEADER_SIZE + PAGE_LENGTH;
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.jscsi.target.scsi.inquiry;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.target.scsi.IResponseData;
+import org.jscsi.target.util.ReadWrite;
+
+/**
+ * The Logical Block Provisioning Vital Product Data page tells the initiator
+ * which commands may unmap logical blocks, if the logical unit is thin
+ * provisioned.
+ * <p>
+ * The LBPRZ bit is not set: the device server may leave some of the blocks mapped, for instance the parts of the
+ * blocks of the underlying storage.
+ * 
+ * @author llambert
+ */
+public final class LogicalBlockProvisioningVpdPage implements IResponseData {
+
+    /**
+     * The PAGE CODE of the Logical Block Provisioning VPD page.
+     */
+    public static final byte PAGE_CODE = (byte)0xb2;
+
+    /**
+     * The value of the PAGE LENGTH field.
+     */
+    private static final int PAGE_LENGTH = 4;
+
+    /**
+     * The total length of the fields before the PAGE LENGTH field included.
+     */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * PROVISIONING TYPE of a thin provisioned logical unit.
+     */
+    private static final int THIN_PROVISIONED = 2;
+
+    /**
+     * <code>true</code> if the logical unit is thin provisioned.
+     */
+    private final boolean thinProvisioned;
+
+    public LogicalBlockProvisioningVpdPage(final boolean thinProvisioned) {
+        this.thinProvisioned = thinProvisioned;
+    }
+
+    public void serialize(ByteBuffer byteBuffer, int index) {
+        byteBuffer.position(index);
+
+        // *** byte 0 ***
+        // direct access block device, connected (see SupportedVpdPages)
+        byteBuffer.put((byte)0);
+
+        // *** byte 1 - PAGE CODE ***
+        byteBuffer.put(PAGE_CODE);
+
+        // *** bytes 2 and 3 - PAGE LENGTH ***
+        ReadWrite.writeTwoByteInt(byteBuffer, PAGE_LENGTH, index + 2);
+        byteBuffer.position(index + 4);
+
+        // *** byte 4 - THRESHOLD EXPONENT ***
+        // thresholds are not supported
+        byteBuffer.put((byte)0);
+
+        // *** byte 5 ***
+        /*
+         * LBPU (bit 7) and LBPWS (bit 6):
+         * 
+         * set if thin provisioned
+         * 
+         * The UNMAP command and the WRITE SAME (16) command with the UNMAP bit
+         * set can unmap logical blocks. WRITE SAME (10) is not supported
+         * (LBPWS10, bit 5), the other bits are zero.
+         */
+        byteBuffer.put(thinProvisioned ? (byte)0xc0 : (byte)0);
+
+        // *** byte 6 - PROVISIONING TYPE (bits 2 to 0) ***
+        byteBuffer.put(thinProvisioned ? (byte)THIN_PROVISIONED : (byte)0);
+
+        // *** byte 7 ***
+        // RESERVED
+        byteBuffer.put((byte)0);
+    }
+
+    public int size() {
+        return HEADER_SIZE + PAGE_LENGTH;
+    }
+
+}
@@ -35,6 +35,8 @@ public final class SupportedVpdPages implements IResponseData {
         (byte)0x00,// SUPPORTED_VPD_PAGES,
                    // mandatory
         (byte)0x83,// DECIVE_IDENTIFICATION, mandatory
+        BlockLimitsVpdPage.PAGE_CODE,// OODRIVE
+        LogicalBlockProvisioningVpdPage.PAGE_CODE,// OODRIVE
     };
 
     /**
@@ -95,11 +97,11 @@ public final class SupportedVpdPages implements IResponseData {
         /*
          * Page Length:
          * 
-         * n - 3 = 5 - 3 = 2 (for now)
+         * n - 3 = 7 - 3 = 4 (for now)
          */
         byteBuffer.put((byte)SUPPORTED_VPD_PAGES.length);
 
-        // *** bytes 4 and 5 - Supported VPD Pages ***
+        // *** bytes 4 to 7 - Supported VPD Pages ***
         for (int i = 0; i < SUPPORTED_VPD_PAGES.length; ++i)
             byteBuffer.put(SUPPORTED_VPD_PAGES[i]);
     }
@@ -125,4 +127,23 @@ public final class SupportedVpdPages implements IResponseData {
         }
         return false;
     }
+
+    // OODRIVE
+    /**
+     * Returns <code>true</code> for those and only for those VPD Page Codes
+     * which are supported by the jSCSI Target. Unlike {@link #vpdPageCodeSupported(VitalProductDataPageName)},
+     * the device type specific pages are told apart.
+     * 
+     * @param pageCode
+     *            VPD Page Code whose support is inquired
+     * @return <code>true</code> for those and only for those VPD Page Codes
+     *         which are supported by the jSCSI Target
+     */
+    public static boolean vpdPageCodeSupported(final PageCode pageCode) {
+        for (int i = 0; i < SUPPORTED_VPD_PAGES.length; ++i) {
+            if (SUPPORTED_VPD_PAGES[i] == pageCode.getValue())
+                return true;
+        }
+        return false;
+    }
 }
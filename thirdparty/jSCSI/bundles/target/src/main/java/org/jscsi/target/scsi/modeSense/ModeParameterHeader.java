@@ -57,7 +57,7 @@ public abstract class ModeParameterHeader implements ISerializable {
      * bits. When used with the MODE SENSE command, a DPOFUA bit set to one indicates that the device server
      * supports the DPO and FUA bits.
      * <p>
-     * So, the simulated logical unit of the jSCSI Target must always use a value of 0x00.
+     * OODRIVE: the WP bit is set if the storage module is write protected, the DPOFUA bit is always set.
      */
     protected final byte deviceSpecificParameter;
 
@@ -84,6 +84,7 @@ public abstract class ModeParameterHeader implements ISerializable {
     public ModeParameterHeader(final int modeDataLength, final int blockDescriptorLength, final boolean writeProtect) {
         this.modeDataLength = modeDataLength;
         this.blockDescriptorLength = blockDescriptorLength;
-        this.deviceSpecificParameter = writeProtect ? (byte)0x80 : (byte)0x00;
+        // OODRIVE: FUA supported
+        this.deviceSpecificParameter = (byte)((writeProtect ? 0x80 : 0x00) | 0x10);
     }
 }
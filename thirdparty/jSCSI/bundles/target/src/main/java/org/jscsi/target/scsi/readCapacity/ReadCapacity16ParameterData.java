@@ -22,16 +22,38 @@ public final class ReadCapacity16ParameterData extends ReadCapacityParameterData
      */
     private static final int SIZE = 32;
 
+    // OODRIVE
+    /**
+     * The LBPME bit: set if the logical unit is thin provisioned.
+     */
+    private final boolean logicalBlockProvisioningManagementEnabled;
+
     public ReadCapacity16ParameterData(final long returnedLogicalBlockAddress, int logicalBlockLengthInBytes) {
+        this(returnedLogicalBlockAddress, logicalBlockLengthInBytes, false);
+    }
+
+    // OODRIVE
+    public ReadCapacity16ParameterData(final long returnedLogicalBlockAddress, int logicalBlockLengthInBytes,
+        final boolean logicalBlockProvisioningManagementEnabled) {
         super(returnedLogicalBlockAddress, logicalBlockLengthInBytes);
+        this.logicalBlockProvisioningManagementEnabled = logicalBlockProvisioningManagementEnabled;
     }
 
     public void serialize(ByteBuffer byteBuffer, int index) {
+        // OODRIVE: the buffer may be reused, the other fields are zero
+        byteBuffer.position(index);
+        for (int i = 0; i < SIZE; ++i)
+            byteBuffer.put((byte)0);
+
         // returned logical block address
         ReadWrite.writeLong(byteBuffer, returnedLogicalBlockAddress, index);
 
         // logical block length in bytes
         ReadWrite.writeInt(logicalBlockLengthInBytes, byteBuffer, index + 8);
+
+        // OODRIVE: LBPME (byte 14, bit 7), LBPRZ is not set
+        if (logicalBlockProvisioningManagementEnabled)
+            byteBuffer.put(index + 14, (byte)0x80);
     }
 
     public int size() {
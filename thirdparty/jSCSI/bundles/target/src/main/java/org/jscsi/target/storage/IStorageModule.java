@@ -8,6 +8,8 @@ import java.nio.ByteBuffer;
 
 import org.jscsi.target.scsi.cdb.CommandDescriptorBlock;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * This is an abstract super class offering methods for storage and retrieval of
  * data, as well as emulating some properties of block storage devices.
@@ -113,6 +115,77 @@ public interface IStorageModule {
      */
     void write(ByteBuffer bytes, long storageIndex) throws IOException;
 
+    // OODRIVE
+    /**
+     * Copies bytes from storage to the passed buffer, without waiting for the
+     * end of the copy. The whole buffer is filled and its position is not
+     * changed. The buffer must not be accessed until the returned future is
+     * done.
+     * 
+     * @param bytes
+     *            the buffer into which the data will be copied
+     * @param storageIndex
+     *            the position of the first byte to be copied
+     * @return a future done when the bytes are copied. Fails with an {@link IOException} if the read fails
+     */
+    ListenableFuture<Void> readAsync(ByteBuffer bytes, long storageIndex);
+
+    // OODRIVE
+    /**
+     * Saves the passed buffer's content, without waiting for the end of the
+     * write. The whole buffer is written and its position is not changed. The
+     * buffer must not be modified until the returned future is done.
+     * 
+     * @param bytes
+     *            the source of the data to be stored
+     * @param storageIndex
+     *            byte offset in the storage area
+     * @return a future done when the bytes are stored. Fails with an {@link IOException} if the write fails
+     */
+    ListenableFuture<Void> writeAsync(ByteBuffer bytes, long storageIndex);
+
+    // OODRIVE
+    /**
+     * Tells if the storage space is thin provisioned: the storage of the
+     * blocks released by {@link #trim(long, long)} is freed.
+     * 
+     * @return <code>true</code> if the storage space is thin provisioned
+     */
+    boolean isThinProvisioned();
+
+    // OODRIVE
+    /**
+     * Releases the storage of part of the storage space. The storage module may
+     * release only some of the blocks, or nothing at all.
+     * 
+     * @param length
+     *            the number of bytes to release
+     * @param storageIndex
+     *            byte offset in the storage area
+     * @throws IOException
+     */
+    void trim(long length, long storageIndex) throws IOException;
+
+    // OODRIVE
+    /**
+     * Sets part of the storage space to zero, without any data transfer.
+     * 
+     * @param length
+     *            the number of bytes to set to zero
+     * @param storageIndex
+     *            byte offset in the storage area
+     * @throws IOException
+     */
+    void writeZeroes(long length, long storageIndex) throws IOException;
+
+    // OODRIVE
+    /**
+     * Writes the completed writes of the storage space to the medium.
+     * 
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
     /**
      * Closing the storage.
      * 
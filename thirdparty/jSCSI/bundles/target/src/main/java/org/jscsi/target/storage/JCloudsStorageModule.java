@@ -38,6 +38,8 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * JClouds-Binding to store blocks as buckets in clouds-backends. This class
@@ -331,6 +333,94 @@ public class JCloudsStorageModule implements IStorageModule {
         }
     }
 
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are copied before the method returns.
+     */
+    @Override
+    public ListenableFuture<Void> readAsync(ByteBuffer bytes, long storageIndex) {
+        try {
+            read(bytes.duplicate(), storageIndex);
+            return Futures.immediateFuture(null);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are stored before the method returns.
+     */
+    @Override
+    public ListenableFuture<Void> writeAsync(ByteBuffer bytes, long storageIndex) {
+        try {
+            write(bytes.duplicate(), storageIndex);
+            return Futures.immediateFuture(null);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThinProvisioned() {
+        return false;
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void trim(long length, long storageIndex) throws IOException {
+        // buckets are never released
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void writeZeroes(long length, long storageIndex) throws IOException {
+        while (length > 0) {
+            final int count = (int)Math.min(length, SIZE_PER_BUCKET - (storageIndex % SIZE_PER_BUCKET));
+            write(ByteBuffer.allocate(count), storageIndex);
+            storageIndex += count;
+            length -= count;
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        try {
+            // the last bucket written is stored when another bucket is written
+            if (lastBlobWritten != null) {
+                final Future<Integer> writeTask = mRunningWriteTasks.remove(lastIndexWritten);
+                if (writeTask != null) {
+                    writeTask.cancel(false);
+                }
+                mRunningWriteTasks.put(lastIndexWritten, mWriterService.submit(new WriteTask(lastBlobWritten,
+                    lastIndexWritten)));
+            }
+            for (final Future<Integer> writeTask : mRunningWriteTasks.values()) {
+                writeTask.get();
+            }
+        } catch (InterruptedException | ExecutionException exc) {
+            throw new IOException(exc);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -13,6 +13,9 @@ import java.nio.channels.FileChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Instances of this class can be used for persistent storage of data. They are
  * backed by a {@link RandomAccessFile}, which will immediately write all
@@ -80,9 +83,14 @@ public class RandomAccessStorageModule implements IStorageModule {
      */
     @Override
     public void read(ByteBuffer bytes, long storageIndex) throws IOException {
-        randomAccessFile.seek(storageIndex);
-     // OODRIVE : de-activate ByteBuffer direct or re-coded with channel
-        randomAccessFile.read(bytes.array(), 0, bytes.capacity());
+        // OODRIVE: positional read, the buffer may be direct or a slice of a larger buffer
+        final FileChannel channel = randomAccessFile.getChannel();
+        final ByteBuffer destination = bytes.duplicate();
+        destination.clear();
+        while (destination.hasRemaining()) {
+            if (channel.read(destination, storageIndex + destination.position()) < 0)
+                break;// end of file
+        }
     }
 
     /**
@@ -90,9 +98,89 @@ public class RandomAccessStorageModule implements IStorageModule {
      */
     @Override
     public void write(ByteBuffer bytes, long storageIndex) throws IOException {
-        randomAccessFile.seek(storageIndex);
-     // OODRIVE : de-activate ByteBuffer direct or re-coded with channel
-        randomAccessFile.write(bytes.array(), 0, bytes.capacity());
+        // OODRIVE: positional write, the buffer may be direct or a slice of a larger buffer
+        final FileChannel channel = randomAccessFile.getChannel();
+        final ByteBuffer source = bytes.duplicate();
+        source.clear();
+        while (source.hasRemaining()) {
+            channel.write(source, storageIndex + source.position());
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are copied before the method returns.
+     */
+    @Override
+    public ListenableFuture<Void> readAsync(ByteBuffer bytes, long storageIndex) {
+        try {
+            read(bytes.duplicate(), storageIndex);
+            return Futures.immediateFuture(null);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are stored before the method returns.
+     */
+    @Override
+    public ListenableFuture<Void> writeAsync(ByteBuffer bytes, long storageIndex) {
+        try {
+            write(bytes.duplicate(), storageIndex);
+            return Futures.immediateFuture(null);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isThinProvisioned() {
+        return false;
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void trim(long length, long storageIndex) throws IOException {
+        // the file is not sparse: nothing to release
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeZeroes(long length, long storageIndex) throws IOException {
+        final ByteBuffer zeros = ByteBuffer.allocate(DEFAULT_BLOCK_SIZE);
+        while (length >= DEFAULT_BLOCK_SIZE) {
+            write(zeros, storageIndex);
+            storageIndex += DEFAULT_BLOCK_SIZE;
+            length -= DEFAULT_BLOCK_SIZE;
+        }
+        if (length > 0) {
+            write(ByteBuffer.allocate((int)length), storageIndex);
+        }
+    }
+
+    // OODRIVE
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        // the file is opened in "rwd" mode: the writes are already on the medium
     }
 
     /**
@@ -16,7 +16,8 @@ public final class SerialArithmeticNumber {
     /**
      * The signed integer representation of the serial arithmetic number.
      */
-    private int value;
+    // OODRIVE: read by the threads sending the responses of the commands
+    private volatile int value;
 
     /**
      * Creates a new {@link SerialArithmeticNumber} with a starting {@link #value} of zero.
@@ -0,0 +1,58 @@
+package org.jscsi.target.connection;
+
+import java.nio.ByteBuffer;
+
+import org.jscsi.parser.ProtocolDataUnit;
+import org.jscsi.parser.data.DataInParser;
+import org.jscsi.parser.scsi.SCSIStatus;
+import org.jscsi.utils.ByteBufferCache;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the Data-In PDUs whose data segment is a slice of a buffer owned by the
+ * caller.
+ * 
+ * @author llambert
+ */
+public class TargetPduFactoryTest {
+
+    @Test
+    public void testSharedDataInPdu() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(3 * 8192);
+        for (int i = 0; i < buffer.capacity(); ++i) {
+            buffer.put(i, (byte)(i / 8192));
+        }
+
+        // second third of the buffer
+        buffer.limit(2 * 8192);
+        buffer.position(8192);
+        final ProtocolDataUnit pdu = TargetPduFactory.createSharedDataInPdu(true, false, false, false, true,
+            SCSIStatus.GOOD, 0L, 17, 0xffffffff, 1, 8192, 0, buffer);
+        Assert.assertEquals(pdu.getBasicHeaderSegment().getDataSegmentLength(), 8192);
+        Assert.assertEquals(((DataInParser)pdu.getBasicHeaderSegment().getParser()).getBufferOffset(), 8192);
+        final ByteBuffer dataSegment = pdu.getDataSegment();
+        Assert.assertEquals(dataSegment.capacity(), 8192);
+        for (int i = 0; i < dataSegment.capacity(); ++i) {
+            Assert.assertEquals(dataSegment.get(i), (byte)1);
+        }
+
+        // the caller's buffer is unchanged and its contents are not copied
+        Assert.assertEquals(buffer.position(), 8192);
+        Assert.assertEquals(buffer.limit(), 2 * 8192);
+        buffer.put(8192, (byte)5);
+        Assert.assertEquals(dataSegment.get(0), (byte)5);
+
+        // the slice must not be given back to the cache
+        pdu.release();
+        final ByteBuffer allocated = ByteBufferCache.allocate(8192);
+        try {
+            allocated.put(0, (byte)7);
+            Assert.assertEquals(buffer.get(8192), (byte)5);
+        }
+        finally {
+            ByteBufferCache.release(allocated);
+        }
+    }
+
+}
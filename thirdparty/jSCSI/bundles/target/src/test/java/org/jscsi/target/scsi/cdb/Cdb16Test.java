@@ -0,0 +1,93 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the decoding of the <code>READ (16)</code>, <code>WRITE (16)</code> and <code>SYNCHRONIZE CACHE</code>
+ * commands.
+ * 
+ * @author llambert
+ */
+public class Cdb16Test {
+
+    private static ByteBuffer newCdb16(final ScsiOperationCode opCode, final byte flags,
+        final long logicalBlockAddress, final int length) {
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, opCode.value());
+        cdb.put(1, flags);
+        cdb.putLong(2, logicalBlockAddress);
+        cdb.putInt(10, length);
+        return cdb;
+    }
+
+    @Test
+    public void testCdbType() {
+        Assert.assertEquals(ScsiOperationCode.READ_16.getCdbType(), CdbType.SIXTEEN_BYTE_COMMANDS);
+        Assert.assertEquals(ScsiOperationCode.WRITE_16.getCdbType(), CdbType.SIXTEEN_BYTE_COMMANDS);
+        Assert.assertEquals(ScsiOperationCode.SYNCHRONIZE_CACHE_16.getCdbType(), CdbType.SIXTEEN_BYTE_COMMANDS);
+        Assert.assertEquals(ScsiOperationCode.SYNCHRONIZE_CACHE_10.getCdbType(), CdbType.TEN_BYTE_COMMANDS);
+        Assert.assertEquals(ScsiOperationCode.valueOf((byte)0x88), ScsiOperationCode.READ_16);
+        Assert.assertEquals(ScsiOperationCode.valueOf((byte)0x8a), ScsiOperationCode.WRITE_16);
+    }
+
+    @Test
+    public void testRead16Cdb() {
+        // LBA above 32 bits, transfer of 1 MiB of 4 KiB blocks
+        final ByteBuffer cdb = newCdb16(ScsiOperationCode.READ_16, (byte)0x08, 0x1234567890L, 256);
+        cdb.put(14, (byte)0x03);
+        final Read16Cdb readCdb = new Read16Cdb(cdb);
+        Assert.assertNull(readCdb.getIllegalFieldPointers());
+        Assert.assertEquals(readCdb.getLogicalBlockAddress(), 0x1234567890L);
+        Assert.assertEquals(readCdb.getTransferLength(), 256);
+        Assert.assertTrue(readCdb.getForceUnitAccess());
+        Assert.assertEquals(readCdb.getGroupNumber(), 3);
+    }
+
+    @Test
+    public void testWrite16Cdb() {
+        final ByteBuffer cdb = newCdb16(ScsiOperationCode.WRITE_16, (byte)0, 0x100000000L, 0x10000);
+        WriteCdb writeCdb = new Write16Cdb(cdb);
+        Assert.assertNull(writeCdb.getIllegalFieldPointers());
+        Assert.assertEquals(writeCdb.getLogicalBlockAddress(), 0x100000000L);
+        Assert.assertEquals(writeCdb.getTransferLength(), 0x10000);
+        Assert.assertFalse(writeCdb.getForceUnitAccess());
+
+        // FUA
+        cdb.put(1, (byte)0x08);
+        writeCdb = new Write16Cdb(cdb);
+        Assert.assertTrue(writeCdb.getForceUnitAccess());
+
+        // no FUA bit in WRITE (6)
+        final ByteBuffer cdb6 = ByteBuffer.allocate(6);
+        cdb6.put(0, ScsiOperationCode.WRITE_6.value());
+        cdb6.put(4, (byte)1);
+        Assert.assertFalse(new Write6Cdb(cdb6).getForceUnitAccess());
+    }
+
+    @Test
+    public void testSynchronizeCache16Cdb() {
+        final ByteBuffer cdb = newCdb16(ScsiOperationCode.SYNCHRONIZE_CACHE_16, (byte)0x02, 0x200000000L, 0);
+        final SynchronizeCacheCdb syncCdb = new SynchronizeCache16Cdb(cdb);
+        Assert.assertNull(syncCdb.getIllegalFieldPointers());
+        Assert.assertTrue(syncCdb.getImmediate());
+        Assert.assertEquals(syncCdb.getLogicalBlockAddress(), 0x200000000L);
+        Assert.assertEquals(syncCdb.getTransferLength(), 0);
+    }
+
+    @Test
+    public void testSynchronizeCache10Cdb() {
+        final ByteBuffer cdb = ByteBuffer.allocate(10);
+        cdb.put(0, ScsiOperationCode.SYNCHRONIZE_CACHE_10.value());
+        cdb.putInt(2, 0xfffffff0);
+        cdb.putShort(7, (short)0x8000);
+        final SynchronizeCacheCdb syncCdb = new SynchronizeCache10Cdb(cdb);
+        Assert.assertNull(syncCdb.getIllegalFieldPointers());
+        Assert.assertFalse(syncCdb.getImmediate());
+        Assert.assertEquals(syncCdb.getLogicalBlockAddress(), 0xfffffff0L);
+        Assert.assertEquals(syncCdb.getTransferLength(), 0x8000);
+    }
+
+}
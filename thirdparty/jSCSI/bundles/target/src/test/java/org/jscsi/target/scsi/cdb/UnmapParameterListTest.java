@@ -0,0 +1,98 @@
+package org.jscsi.target.scsi.cdb;
+
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the decoding of the <code>UNMAP</code> and <code>WRITE SAME (16)</code> commands.
+ * 
+ * @author llambert
+ */
+public class UnmapParameterListTest {
+
+    private static ByteBuffer newParameterList(final int blockDescriptorDataLength, final int descriptorCount) {
+        final ByteBuffer buffer =
+            ByteBuffer.allocate(UnmapParameterList.HEADER_LENGTH + descriptorCount
+                * UnmapParameterList.BLOCK_DESCRIPTOR_LENGTH);
+        buffer.putShort(0, (short)(buffer.capacity() - 2));
+        buffer.putShort(2, (short)blockDescriptorDataLength);
+        for (int i = 0; i < descriptorCount; i++) {
+            final int index = UnmapParameterList.getBlockDescriptorIndex(i);
+            buffer.putLong(index, 1000L * i);
+            buffer.putInt(index + 8, 10 + i);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testParameterList() {
+        final ByteBuffer buffer = newParameterList(3 * UnmapParameterList.BLOCK_DESCRIPTOR_LENGTH, 3);
+        final UnmapParameterList parameterList = new UnmapParameterList(buffer, buffer.capacity());
+        Assert.assertEquals(parameterList.getBlockDescriptorCount(), 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(parameterList.getLogicalBlockAddress(i), 1000L * i);
+            Assert.assertEquals(parameterList.getNumberOfLogicalBlocks(i), 10L + i);
+        }
+    }
+
+    @Test
+    public void testParameterListTruncated() {
+        // descriptors truncated by the parameter list length or by the block
+        // descriptor data length are ignored
+        final ByteBuffer buffer = newParameterList(3 * UnmapParameterList.BLOCK_DESCRIPTOR_LENGTH, 3);
+        Assert.assertEquals(new UnmapParameterList(buffer, buffer.capacity() - 1).getBlockDescriptorCount(), 2);
+        Assert.assertEquals(new UnmapParameterList(buffer, UnmapParameterList.HEADER_LENGTH)
+            .getBlockDescriptorCount(), 0);
+
+        final ByteBuffer shortBuffer = newParameterList(2 * UnmapParameterList.BLOCK_DESCRIPTOR_LENGTH + 4, 3);
+        Assert.assertEquals(new UnmapParameterList(shortBuffer, shortBuffer.capacity()).getBlockDescriptorCount(), 2);
+    }
+
+    @Test
+    public void testNumberOfLogicalBlocksUnsigned() {
+        final ByteBuffer buffer = newParameterList(UnmapParameterList.BLOCK_DESCRIPTOR_LENGTH, 1);
+        buffer.putInt(UnmapParameterList.getBlockDescriptorIndex(0) + 8, 0xffffffff);
+        Assert.assertEquals(new UnmapParameterList(buffer, buffer.capacity()).getNumberOfLogicalBlocks(0),
+            0xffffffffL);
+    }
+
+    @Test
+    public void testUnmapCdb() {
+        final ByteBuffer cdb = ByteBuffer.allocate(10);
+        cdb.put(0, ScsiOperationCode.UNMAP.value());
+        cdb.putShort(7, (short)24);
+        final UnmapCdb unmapCdb = new UnmapCdb(cdb);
+        Assert.assertEquals(unmapCdb.getParameterListLength(), 24);
+        Assert.assertNull(unmapCdb.getIllegalFieldPointers());
+
+        // ANCHOR is not supported
+        cdb.put(1, (byte)1);
+        Assert.assertNotNull(new UnmapCdb(cdb).getIllegalFieldPointers());
+    }
+
+    @Test
+    public void testWriteSame16Cdb() {
+        final ByteBuffer cdb = ByteBuffer.allocate(16);
+        cdb.put(0, ScsiOperationCode.WRITE_SAME_16.value());
+        cdb.put(1, (byte)0x08);// UNMAP
+        cdb.putLong(2, 0x123456789L);
+        cdb.putInt(10, 2048);
+        final WriteSame16Cdb writeSameCdb = new WriteSame16Cdb(cdb);
+        Assert.assertNull(writeSameCdb.getIllegalFieldPointers());
+        Assert.assertTrue(writeSameCdb.getUnmap());
+        Assert.assertEquals(writeSameCdb.getLogicalBlockAddress(), 0x123456789L);
+        Assert.assertEquals(writeSameCdb.getTransferLength(), 2048);
+
+        // no block: WSNZ is set
+        cdb.putInt(10, 0);
+        Assert.assertNotNull(new WriteSame16Cdb(cdb).getIllegalFieldPointers());
+
+        // NDOB is not supported
+        cdb.putInt(10, 1);
+        cdb.put(1, (byte)0x01);
+        Assert.assertNotNull(new WriteSame16Cdb(cdb).getIllegalFieldPointers());
+    }
+
+}
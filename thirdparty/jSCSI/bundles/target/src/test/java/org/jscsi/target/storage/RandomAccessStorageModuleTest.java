@@ -62,6 +62,30 @@ public class RandomAccessStorageModuleTest {
 
     }
 
+    // OODRIVE
+    @Test
+    public void testReadAndWriteSlices() throws IOException {
+
+        // write a direct buffer
+        final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(8192);
+        for (int i = 0; i < writeBuffer.capacity(); ++i) {
+            writeBuffer.put(i, (byte)i);
+        }
+        module.write(writeBuffer, 4096);
+
+        // read in two slices of a direct buffer, as the Data-In PDUs
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(3 * 4096);
+        readBuffer.position(4096);
+        final ByteBuffer slice1 = readBuffer.slice();
+        slice1.limit(4096);
+        module.read(slice1.slice(), 4096);
+        readBuffer.position(2 * 4096);
+        module.read(readBuffer.slice(), 2 * 4096);
+
+        for (int i = 0; i < writeBuffer.capacity(); ++i)
+            assertEquals(readBuffer.get(4096 + i), (byte)i);
+    }
+
     @Test
     public void testCheckBounds0() {
         // should all be within bounds